@@ -6,7 +6,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -27,14 +26,21 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.SeekBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.cgfay.caincamera.R;
 import com.cgfay.caincamera.adapter.EffectFilterAdapter;
 import com.cgfay.cainfilter.camerarender.CaptureFrameCallback;
+import com.cgfay.cainfilter.capture.BitmapJpegEncoder;
+import com.cgfay.cainfilter.capture.BurstCapture;
+import com.cgfay.cainfilter.capture.CaptureLatency;
+import com.cgfay.cainfilter.capture.CapturePipeline;
+import com.cgfay.cainfilter.capture.DropPolicy;
+import com.cgfay.cainfilter.capture.ImageEncoder;
+import com.cgfay.cainfilter.capture.PixelTransform;
 import com.cgfay.cainfilter.camerarender.ColorFilterManager;
 import com.cgfay.caincamera.core.CountDownManager;
 import com.cgfay.cainfilter.camerarender.DrawerManager;
-import com.cgfay.cainfilter.camerarender.FrameRateMeter;
 import com.cgfay.cainfilter.camerarender.ParamsManager;
 import com.cgfay.cainfilter.camerarender.RecordManager;
 import com.cgfay.cainfilter.camerarender.RenderStateChangedListener;
@@ -53,16 +59,10 @@ import com.cgfay.caincamera.view.SettingPopView;
 import com.cgfay.caincamera.view.ShutterButton;
 import com.cgfay.utilslibrary.PermissionUtils;
 import com.cgfay.cainfilter.utils.TextureRotationUtils;
-import com.cgfay.utilslibrary.BitmapUtils;
 import com.cgfay.utilslibrary.CameraUtils;
 import com.cgfay.utilslibrary.FileUtils;
 import com.cgfay.utilslibrary.StringUtils;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -76,6 +76,12 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
     private static final String TAG = "CameraActivity";
     private static final boolean VERBOSE = true;
     private static final int REQUEST_PREVIEW = 0x200;
+    // 等待保存的最大拍照数
+    private static final int CAPTURE_QUEUE_SIZE = 2;
+    // 连拍帧数、帧环大小和编码线程数
+    private static final int BURST_FRAME_COUNT = 10;
+    private static final int BURST_RING_SIZE = 4;
+    private static final int BURST_WORKER_COUNT = 2;
 
     // 十秒还是三分钟
     private static final int RECORD_TEN_SECOND = 10000;
@@ -165,6 +171,10 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
     private boolean isDebug = true;
     // 主线程Handler
     private Handler mMainHandler;
+    // 后台拍照
+    private CapturePipeline mCapturePipeline;
+    // 连拍，第一次连拍时按预览大小创建
+    private BurstCapture mBurstCapture;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -191,6 +201,10 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
         // 设置拍照回调
         DrawerManager.getInstance().setCaptureFrameCallback(this);
         mMainHandler = new Handler(getMainLooper());
+        // 回读的帧上下颠倒，旋转180度再水平镜像
+        mCapturePipeline = new CapturePipeline(
+                new PixelTransform(PixelTransform.ROTATION_180, true),
+                new BitmapJpegEncoder(100), CAPTURE_QUEUE_SIZE, mCaptureListener);
 
         mCameraEnable = PermissionUtils.permissionChecking(this,
                 Manifest.permission.CAMERA);
@@ -224,7 +238,7 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
                 @Override
                 public void handleMessage(Message msg) {
                     switch (msg.what) {
-                        case FrameRateMeter.MSG_GAIN_FPS:
+                        case DrawerManager.MSG_GAIN_FPS:
                             mFpsView.setText("fps = " + (float)msg.obj);
                             break;
 
@@ -266,6 +280,17 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
         mBtnShutter = (ShutterButton) findViewById(R.id.btn_take);
         mBtnShutter.setGestureListener(this);
         mBtnShutter.setOnClickListener(this);
+        mBtnShutter.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                // 拍照模式下长按连拍，录制模式的长按由GestureListener处理
+                if (ParamsManager.mGalleryType == GalleryType.PICTURE) {
+                    takeBurst();
+                    return true;
+                }
+                return false;
+            }
+        });
 
         mBtnRecordDelete = (Button) findViewById(R.id.btn_record_delete);
         mBtnRecordDelete.setOnClickListener(this);
@@ -453,6 +478,12 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
     @Override
     protected void onDestroy() {
         DrawerManager.getInstance().destoryTrhead();
+        // 已经接受的拍照仍会保存完成
+        mCapturePipeline.release();
+        if (mBurstCapture != null) {
+            mBurstCapture.release();
+            mBurstCapture = null;
+        }
         // 在停止时需要释放上下文，防止内存泄漏
         ParamsManager.context = null;
         if (mFpsHandler != null) {
@@ -726,47 +757,134 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
         }
     }
 
-    @Override
-    public void onFrameCallback(final ByteBuffer buffer, final int width, final int height) {
-        mMainHandler.post(new Runnable() {
+    /**
+     * 连拍
+     */
+    private void takeBurst() {
+        if (!mOnPreviewing) {
+            return;
+        }
+        if (!mStorageWriteEnable
+                && !PermissionUtils.permissionChecking(this,
+                Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
+            requestStorageWritePermission();
+            return;
+        }
+        if (mBurstCapture != null && mBurstCapture.isRunning()) {
+            return;
+        }
+        int pixels = mCameraSurfaceView.getWidth() * mCameraSurfaceView.getHeight();
+        if (mBurstCapture == null || mBurstCapture.getMaxPixels() < pixels) {
+            if (mBurstCapture != null) {
+                mBurstCapture.release();
+            }
+            mBurstCapture = new BurstCapture(
+                    new PixelTransform(PixelTransform.ROTATION_180, true),
+                    new BurstCapture.EncoderFactory() {
+                        @Override
+                        public ImageEncoder create() {
+                            return new BitmapJpegEncoder(100);
+                        }
+                    }, BURST_WORKER_COUNT, BURST_RING_SIZE, pixels, DropPolicy.THIN,
+                    mBurstListener);
+        }
+        final String prefix = ParamsManager.ImagePath + "CainCamera_"
+                + System.currentTimeMillis() + "_";
+        mBurstCapture.begin(BURST_FRAME_COUNT, new BurstCapture.PathGenerator() {
             @Override
-            public void run() {
-                String filePath = ParamsManager.ImagePath + "CainCamera_"
-                        + System.currentTimeMillis() + ".jpeg";
-                File file = new File(filePath);
-                if (!file.getParentFile().exists()) {
-                    file.getParentFile().mkdirs();
-                }
-                BufferedOutputStream bos = null;
-                try {
-                    bos = new BufferedOutputStream(new FileOutputStream(file));
-                    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-                    bitmap.copyPixelsFromBuffer(buffer);
-                    bitmap = BitmapUtils.rotateBitmap(bitmap, 180, true);
-                    bitmap = BitmapUtils.flipBitmap(bitmap, true);
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 100, bos);
-                    bitmap.recycle();
-                    bitmap = null;
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                } finally {
-                    if (bos != null) try {
-                        bos.close();
-                    } catch (IOException e) {
-                        // do nothing
-                    }
-                }
-                Intent intent = new Intent(CameraActivity.this,
-                        CapturePreviewActivity.class);
-                // 图片类型
-                intent.putExtra(CapturePreviewActivity.MIMETYPE,
-                        CapturePreviewActivity.TYPE_PICTURE);
-                intent.putExtra(CapturePreviewActivity.PATH, filePath);
-                startActivity(intent);
+            public String getPath(int index) {
+                return prefix + index + ".jpeg";
             }
         });
+        DrawerManager.getInstance().takeBurst(BURST_FRAME_COUNT);
     }
 
+    @Override
+    public void onFrameCallback(ByteBuffer buffer, int width, int height) {
+        // 在回读线程回调(GLES2上下文时在渲染线程同步回调)，submit返回前已经完成旋转镜像并拷贝像素，
+        // 编码和保存在拍照线程进行
+        BurstCapture burstCapture = mBurstCapture;
+        if (burstCapture != null && burstCapture.isAccepting()) {
+            burstCapture.submit(buffer, width, height, System.nanoTime());
+            return;
+        }
+        String filePath = ParamsManager.ImagePath + "CainCamera_"
+                + System.currentTimeMillis() + ".jpeg";
+        if (mCapturePipeline.submit(buffer, width, height, filePath)
+                == CapturePipeline.REJECTED) {
+            Log.w(TAG, "capture rejected, pipeline is busy");
+        }
+    }
+
+    // 拍照流水线回调
+    private CapturePipeline.Listener mCaptureListener = new CapturePipeline.Listener() {
+        @Override
+        public void onCaptureAccepted(int id, String path) {
+            if (VERBOSE) {
+                Log.d(TAG, "capture accepted: " + id);
+            }
+        }
+
+        @Override
+        public void onCaptureSaved(int id, final String path, CaptureLatency latency) {
+            if (VERBOSE) {
+                Log.d(TAG, "capture saved: " + id + ", " + latency);
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Intent intent = new Intent(CameraActivity.this,
+                            CapturePreviewActivity.class);
+                    // 图片类型
+                    intent.putExtra(CapturePreviewActivity.MIMETYPE,
+                            CapturePreviewActivity.TYPE_PICTURE);
+                    intent.putExtra(CapturePreviewActivity.PATH, path);
+                    startActivity(intent);
+                }
+            });
+        }
+
+        @Override
+        public void onCaptureFailed(int id, String path, Exception e) {
+            Log.e(TAG, "capture failed: " + path, e);
+        }
+    };
+
+    // 连拍回调
+    private BurstCapture.Listener mBurstListener = new BurstCapture.Listener() {
+        @Override
+        public void onFrameSaved(int index, String path, CaptureLatency latency) {
+            if (VERBOSE) {
+                Log.d(TAG, "burst frame saved: " + index + ", " + latency);
+            }
+        }
+
+        @Override
+        public void onFrameDropped(int index) {
+            if (VERBOSE) {
+                Log.d(TAG, "burst frame dropped: " + index);
+            }
+        }
+
+        @Override
+        public void onFrameFailed(int index, String path, Exception e) {
+            Log.e(TAG, "burst frame failed: " + path, e);
+        }
+
+        @Override
+        public void onBurstFinished(final int saved, int dropped, int failed) {
+            Log.d(TAG, "burst finished, saved: " + saved + ", dropped: " + dropped
+                    + ", failed: " + failed);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(CameraActivity.this, "连拍保存了" + saved + "张",
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+    };
+
     @Override
     public void onStartRecord() {
         // 初始化录制线程
@@ -15,6 +15,9 @@ import com.cgfay.caincamera.R;
 
 public class BlurEditor extends BaseEditor implements View.OnClickListener, SeekBar.OnSeekBarChangeListener {
 
+    // 进度条拉满时的虚化半径，单位为像素
+    static final float MAX_RADIUS = 40.0f;
+
     private RelativeLayout mLayoutBlur;
 
     private SeekBar mSeekBar;
@@ -43,7 +46,10 @@ public class BlurEditor extends BaseEditor implements View.OnClickListener, Seek
 
     @Override
     public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-
+        // 模糊的计算量与半径无关，拖动时可以直接实时预览
+        if (fromUser && mWeakManager.get() != null) {
+            mWeakManager.get().setBlurRadius(MAX_RADIUS * progress / seekBar.getMax());
+        }
     }
 
     @Override
@@ -56,6 +62,14 @@ public class BlurEditor extends BaseEditor implements View.OnClickListener, Seek
 
     }
 
+    @Override
+    public void resetAllChanged() {
+        mSeekBar.setProgress(0);
+        if (mWeakManager.get() != null) {
+            mWeakManager.get().setBlurRadius(0);
+        }
+    }
+
     public RelativeLayout getLayoutBlur() {
         return mLayoutBlur;
     }
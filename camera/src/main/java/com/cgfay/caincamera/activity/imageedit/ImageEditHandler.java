@@ -22,6 +22,7 @@ public class ImageEditHandler extends Handler {
 
     static final int MSG_CREATE_TEXTURE = 0x101;
     static final int MSG_DRAW_IMAGE = 0x102;
+    static final int MSG_POLL_READBACK = 0x103;
 
     static final int MSG_SET_BRIGHTNESS = 0x200;
     static final int MSG_SET_CONTRAST = 0x201;
@@ -30,6 +31,7 @@ public class ImageEditHandler extends Handler {
     static final int MSG_SET_SATURATION = 0x204;
     static final int MSG_SET_SHARPNESS = 0x205;
     static final int MSG_RESET_ADJUST = 0x206;
+    static final int MSG_SET_BLUR_RADIUS = 0x207;
 
     static final int MSG_CHANGE_FILTER = 0x301;
     static final int MSG_CHANGE_FILTER_GROUP = 0x302;
@@ -74,6 +76,11 @@ public class ImageEditHandler extends Handler {
                 thread.drawImage();
                 break;
 
+            // 检查回读是否完成
+            case MSG_POLL_READBACK:
+                thread.pollReadback();
+                break;
+
             // 设置亮度
             case MSG_SET_BRIGHTNESS:
                 thread.setBrightness((Float) msg.obj);
@@ -104,6 +111,11 @@ public class ImageEditHandler extends Handler {
                 thread.setSharpness((Float) msg.obj);
                 break;
 
+            // 设置虚化半径
+            case MSG_SET_BLUR_RADIUS:
+                thread.setBlurRadius((Float) msg.obj);
+                break;
+
             // 重置调节滤镜
             case MSG_RESET_ADJUST:
                 thread.resetAdjustFilter();
@@ -97,11 +97,14 @@ public final class ImageEditManager implements OnImageEditListener {
     @Override
     public void onSaveImageListener(final ByteBuffer buffer, final int width, final int height) {
         if (mWeakImageView != null && mWeakImageView.get() != null) {
+            // 在回读线程回调，buffer只在回调期间有效，先转换成Bitmap
+            final Bitmap bitmap = BitmapUtils.getBitmapFromBuffer(buffer, width, height, false, true);
             mMainHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    mWeakImageView.get().setImageBitmap(BitmapUtils
-                            .getBitmapFromBuffer(buffer, width, height, false, true));
+                    if (mWeakImageView != null && mWeakImageView.get() != null) {
+                        mWeakImageView.get().setImageBitmap(bitmap);
+                    }
                 }
             });
         }
@@ -305,6 +308,17 @@ public final class ImageEditManager implements OnImageEditListener {
         }
     }
 
+    /**
+     * 设置虚化半径
+     * @param radius 单位为像素
+     */
+    public void setBlurRadius(float radius) {
+        if (mHandler != null) {
+            mHandler.sendMessage(mHandler
+                    .obtainMessage(ImageEditHandler.MSG_SET_BLUR_RADIUS, radius));
+        }
+    }
+
     /**
      * 重置调节滤镜
      */
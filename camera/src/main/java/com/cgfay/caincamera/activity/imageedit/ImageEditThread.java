@@ -5,7 +5,9 @@ import android.opengl.GLES30;
 import android.os.HandlerThread;
 
 import com.cgfay.cainfilter.camerarender.FilterManager;
+import com.cgfay.cainfilter.gles.AsyncReadback;
 import com.cgfay.cainfilter.gles.EglCore;
+import com.cgfay.cainfilter.gles.GLAsyncReadback;
 import com.cgfay.cainfilter.gles.OffscreenSurface;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
 import com.cgfay.cainfilter.glfilter.group.GLImageEditFilterGroup;
@@ -15,6 +17,8 @@ import com.cgfay.cainfilter.type.GLFilterType;
 import com.cgfay.cainfilter.utils.GlUtil;
 import com.cgfay.utilslibrary.BitmapUtils;
 
+import java.nio.ByteBuffer;
+
 /**
  * 图片编辑线程
  * Created by Administrator on 2018/3/13.
@@ -47,6 +51,18 @@ public class ImageEditThread extends HandlerThread {
 
     private OnImageEditListener mListener;
 
+    // 等待回读完成时的检查间隔
+    private static final long READBACK_POLL_INTERVAL_MS = 4;
+    private final AsyncReadback.Callback mReadbackCallback = new AsyncReadback.Callback() {
+        @Override
+        public void onReadbackComplete(ByteBuffer buffer, int width, int height) {
+            OnImageEditListener listener = mListener;
+            if (listener != null) {
+                listener.onSaveImageListener(buffer, width, height);
+            }
+        }
+    };
+
     public ImageEditThread(String name, OnImageEditListener listener) {
         super(name);
         mListener = listener;
@@ -81,10 +97,27 @@ public class ImageEditThread extends HandlerThread {
             mDisplayFilter.drawFrame(mCurrentTextureId);
         }
         if (mListener != null) {
-            mListener.onSaveImageListener(mOffscreenSurface.getCurrentFrame(),
-                    mOffscreenSurface.getWidth(), mOffscreenSurface.getHeight());
+            // 异步回读，不等待GPU完成绘制
+            mOffscreenSurface.getCurrentFrame(mReadbackCallback);
         }
         mOffscreenSurface.swapBuffers();
+        pollReadback();
+    }
+
+    /**
+     * 完成已经就绪的回读，仍有等待中的回读时稍后再检查
+     */
+    void pollReadback() {
+        if (mOffscreenSurface == null) {
+            return;
+        }
+        AsyncReadback readback = GLAsyncReadback.getCurrent();
+        readback.poll();
+        if (readback.hasPending() && mHandler != null) {
+            mHandler.removeMessages(ImageEditHandler.MSG_POLL_READBACK);
+            mHandler.sendMessageDelayed(mHandler.obtainMessage(ImageEditHandler.MSG_POLL_READBACK),
+                    READBACK_POLL_INTERVAL_MS);
+        }
     }
 
     /**
@@ -201,6 +234,20 @@ public class ImageEditThread extends HandlerThread {
         }
     }
 
+    /**
+     * 设置虚化半径
+     * @param radius 单位为像素
+     */
+    public void setBlurRadius(float radius) {
+        if (radius < 0) {
+            radius = 0;
+        }
+        if (mImageFilter != null) {
+            mImageFilter.setBlurRadius(radius);
+            requestRender();
+        }
+    }
+
     /**
      * 切换滤镜
      * @param type
@@ -19,6 +19,10 @@ public class MatBlurEditor extends BaseEditor implements View.OnClickListener {
     private Button mBtnPreview;
     private Button mBtnErase;
 
+    // 预览时的虚化半径，单位为像素
+    private static final float PREVIEW_RADIUS = BlurEditor.MAX_RADIUS / 2;
+    private boolean mPreviewing;
+
     public MatBlurEditor(Context context, ImageEditManager manager) {
         super(context, manager);
     }
@@ -41,7 +45,12 @@ public class MatBlurEditor extends BaseEditor implements View.OnClickListener {
             case R.id.btn_mat:
                 break;
 
+            // 抠图的蒙版还没有实现，预览时先对整张图片虚化
             case R.id.btn_preview:
+                mPreviewing = !mPreviewing;
+                if (mWeakManager.get() != null) {
+                    mWeakManager.get().setBlurRadius(mPreviewing ? PREVIEW_RADIUS : 0);
+                }
                 break;
 
             case R.id.btn_erase:
@@ -9,6 +9,6 @@ import java.nio.ByteBuffer;
 public interface OnImageEditListener {
     // 创建Texture回调
     void onTextureCreated();
-    // 保存图片回调
+    // 保存图片回调，在回读线程调用，buffer只在回调期间有效
     void onSaveImageListener(ByteBuffer buffer, int width, int height);
 }
@@ -0,0 +1,117 @@
+package com.cgfay.cainfilter.archiver;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * ZipArchive 性能基准，读取贴纸每个部位的第一帧：直接从压缩包读取与先全部解压再读取的对比
+ * 默认不运行，使用 ./gradlew :filterlibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class ZipArchiveBenchmark {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        ZipArchive.clearIndexCache();
+    }
+
+    @Test
+    public void directReadAgainstExtraction() throws IOException {
+        final int items = 5;
+        final int frames = 30;
+        Random random = new Random(11);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("sticker.json", ZipArchiveTest.textBytes(2000));
+        for (int i = 0; i < items; i++) {
+            for (int j = 0; j < frames; j++) {
+                // PNG本身已经压缩，一半按存储，一半按deflate
+                String name = String.format("part%d/part%d_%03d.png", i, i, j);
+                entries.put((j % 2 == 0 ? "!" : "") + name,
+                        ZipArchiveTest.randomBytes(random, 48 * 1024));
+            }
+        }
+        File file = mFolder.newFile("bench.zip");
+        ZipArchiveTest.writeZip(file, entries, null);
+
+        long directNs = Long.MAX_VALUE;
+        long cachedNs = Long.MAX_VALUE;
+        long extractNs = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            ZipArchive.clearIndexCache();
+            long start = System.nanoTime();
+            readFirstFrames(file, items);
+            directNs = Math.min(directNs, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            readFirstFrames(file, items);
+            cachedNs = Math.min(cachedNs, System.nanoTime() - start);
+
+            File directory = mFolder.newFolder("extract" + round);
+            start = System.nanoTime();
+            extract(file, directory);
+            for (int i = 0; i < items; i++) {
+                ZipArchiveTest.readFully(new FileInputStream(new File(directory,
+                        String.format("part%d/part%d_000.png", i, i))));
+            }
+            extractNs = Math.min(extractNs, System.nanoTime() - start);
+        }
+        System.out.println(String.format("first frames of %d items from %dKB zip: "
+                        + "direct %.2fms, cached index %.2fms, extract all %.2fms",
+                items, file.length() / 1024, directNs / 1e6, cachedNs / 1e6, extractNs / 1e6));
+    }
+
+    private static void readFirstFrames(File file, int items) throws IOException {
+        ZipArchive archive = ZipArchive.open(file);
+        try {
+            ZipArchiveTest.readFully(archive.open("sticker.json"));
+            for (int i = 0; i < items; i++) {
+                ZipArchiveTest.readFully(
+                        archive.open(String.format("part%d/part%d_000.png", i, i)));
+            }
+        } finally {
+            archive.close();
+        }
+    }
+
+    private static void extract(File file, File directory) throws IOException {
+        ZipInputStream is = new ZipInputStream(new FileInputStream(file));
+        try {
+            byte[] buffer = new byte[8192];
+            ZipEntry entry;
+            while ((entry = is.getNextEntry()) != null) {
+                File output = new File(directory, entry.getName());
+                if (entry.isDirectory()) {
+                    output.mkdirs();
+                    continue;
+                }
+                output.getParentFile().mkdirs();
+                OutputStream os = new FileOutputStream(output);
+                try {
+                    int count;
+                    while ((count = is.read(buffer)) != -1) {
+                        os.write(buffer, 0, count);
+                    }
+                } finally {
+                    os.close();
+                }
+            }
+        } finally {
+            is.close();
+        }
+    }
+}
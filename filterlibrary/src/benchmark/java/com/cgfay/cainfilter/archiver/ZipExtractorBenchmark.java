@@ -0,0 +1,78 @@
+package com.cgfay.cainfilter.archiver;
+
+import net.lingala.zip4j.core.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * ZipExtractor 性能基准，与原来zip4j在单个线程中逐个条目解压的吞吐量对比
+ * 默认不运行，使用 ./gradlew :filterlibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class ZipExtractorBenchmark {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        ZipArchive.clearIndexCache();
+    }
+
+    @Test
+    public void againstSequentialZip4j() throws Exception {
+        Map<String, byte[]> entries = ZipExtractorTest.createEntries(120, 48 * 1024);
+        File zip = mFolder.newFile("bench.zip");
+        ZipArchiveTest.writeZip(zip, entries, null);
+        long bytes = ZipExtractorTest.totalSize(entries);
+
+        long zip4jNs = Long.MAX_VALUE;
+        long singleNs = Long.MAX_VALUE;
+        long parallelNs = Long.MAX_VALUE;
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 4);
+        for (int round = 0; round < 3; round++) {
+            File directory = mFolder.newFolder("zip4j" + round);
+            long start = System.nanoTime();
+            ZipFile zipFile = new ZipFile(zip);
+            for (Object header : zipFile.getFileHeaders()) {
+                zipFile.extractFile((FileHeader) header, directory.getPath());
+            }
+            zip4jNs = Math.min(zip4jNs, System.nanoTime() - start);
+
+            directory = mFolder.newFolder("single" + round);
+            start = System.nanoTime();
+            assertTrue(new ZipExtractor(mExecutor, 1, pool).extract(zip, directory));
+            singleNs = Math.min(singleNs, System.nanoTime() - start);
+
+            directory = mFolder.newFolder("parallel" + round);
+            start = System.nanoTime();
+            assertTrue(new ZipExtractor(mExecutor, 4, pool).extract(zip, directory));
+            parallelNs = Math.min(parallelNs, System.nanoTime() - start);
+            ZipExtractorTest.assertExtracted(directory, entries);
+        }
+        System.out.println(String.format("extract %d entries, %dKB on %d cpus: "
+                        + "zip4j %.1fMB/s, extractor x1 %.1fMB/s, extractor x4 %.1fMB/s",
+                entries.size(), bytes / 1024, Runtime.getRuntime().availableProcessors(),
+                bytes / 1e6 / (zip4jNs / 1e9), bytes / 1e6 / (singleNs / 1e9),
+                bytes / 1e6 / (parallelNs / 1e9)));
+    }
+}
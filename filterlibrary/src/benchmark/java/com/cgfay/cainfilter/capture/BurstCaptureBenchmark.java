@@ -0,0 +1,60 @@
+package com.cgfay.cainfilter.capture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * BurstCapture 性能基准，1080p帧不限速提交，统计各个编码线程数下持续保存的帧率
+ * 默认不运行，使用 ./gradlew :filterlibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class BurstCaptureBenchmark {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final BurstCapture.PathGenerator mPaths = new BurstCapture.PathGenerator() {
+        @Override
+        public String getPath(int index) {
+            return new File(mFolder.getRoot(), "burst/" + index + ".raw").getPath();
+        }
+    };
+
+    @Test
+    public void sustainedFpsAt1080p() throws Exception {
+        int width = 1920;
+        int height = 1080;
+        int frames = 24;
+        ByteBuffer buffer = BurstCaptureTest.frame(1, width, height);
+        for (int workers : new int[] { 1, 2, 4 }) {
+            BurstCaptureTest.Recorder recorder = new BurstCaptureTest.Recorder();
+            BurstCapture burst = new BurstCapture(
+                    new PixelTransform(PixelTransform.ROTATION_180, true),
+                    new BurstCaptureTest.Factory(4), workers, 4, width * height,
+                    DropPolicy.THIN, recorder);
+            burst.begin(frames, mPaths);
+            long start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                burst.submit(buffer, width, height, System.nanoTime());
+            }
+            long submitted = System.nanoTime() - start;
+            assertTrue(recorder.finished.await(60, TimeUnit.SECONDS));
+            long elapsed = System.nanoTime() - start;
+            int saved = recorder.result[0];
+            System.out.println("BurstCapture 1080p, " + workers + " workers: input "
+                    + frames * 1e9f / submitted + " fps, sustained "
+                    + saved * 1e9f / elapsed + " fps, saved " + saved
+                    + ", dropped " + recorder.result[1]
+                    + ", encode p50 " + burst.getEncodeHistogram().getPercentile(50) / 1000000f
+                    + "ms");
+            burst.release();
+            assertTrue(burst.awaitRelease(5000));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.cgfay.cainfilter.capture;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PixelTransform 性能基准，一次完成的旋转、镜像与逐步的参考实现比较
+ * 默认不运行，使用 ./gradlew :filterlibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class PixelTransformBenchmark {
+
+    @Test
+    public void fusedAgainstReference() {
+        int width = 1920;
+        int height = 1080;
+        ByteBuffer frame = PixelTransformTest.randomFrame(width, height, 7);
+        int[] output = new int[width * height];
+        PixelTransform transform = new PixelTransform(PixelTransform.ROTATION_180, true);
+        for (int i = 0; i < 10; i++) {
+            transform.apply(frame, width, height, output);
+            PixelTransformTest.reference(frame, width, height, PixelTransform.ROTATION_180, true);
+        }
+        int iterations = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            transform.apply(frame, width, height, output);
+        }
+        long fused = (System.nanoTime() - start) / iterations;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            PixelTransformTest.reference(frame, width, height, PixelTransform.ROTATION_180, true);
+        }
+        long separate = (System.nanoTime() - start) / iterations;
+        System.out.println("PixelTransform 1080p: fused " + fused / 1000 + " us, separate "
+                + separate / 1000 + " us");
+    }
+}
@@ -0,0 +1,30 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * ColorLutBaker 性能基准，各个查找表尺寸的烘焙耗时
+ * 默认不运行，使用 ./gradlew :filterlibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class ColorLutBakerBenchmark {
+
+    @Test
+    public void bakeTimeByLutSize() {
+        List<ColorStage> stages = ColorLutBakerTest.createChain();
+        // 预热
+        ColorLutBaker.bake(stages, 17);
+        for (int size : new int[] { 17, ColorLutBaker.SIZE_SMALL, ColorLutBaker.SIZE_LARGE }) {
+            int runs = 3;
+            long start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                ColorLutBaker.bake(stages, size);
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / runs;
+            System.out.println("ColorLutBaker bake " + size + "^3 (" + size * size * size
+                    + " entries, " + stages.size() + " stages): "
+                    + String.format("%.2f", ms) + " ms");
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.cgfay.cainfilter.glfilter.image;
+
+import com.cgfay.cainfilter.utils.FloatImage;
+
+import org.junit.Test;
+
+/**
+ * KawaseBlurReference 性能基准，各个半径下与高斯模糊比较采样次数和耗时
+ * 默认不运行，使用 ./gradlew :filterlibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class KawaseBlurBenchmark {
+
+    @Test
+    public void kawaseAgainstGaussian() {
+        FloatImage source = KawaseBlurTest.scene(5);
+        // 预热
+        KawaseBlurReference.blur(source, KawaseBlurPlan.forRadius(4));
+        KawaseBlurReference.gaussian(source, 4);
+        for (float radius : new float[] { 2, 4, 8, 16, 32 }) {
+            KawaseBlurPlan plan = KawaseBlurPlan.forRadius(radius);
+            long start = System.nanoTime();
+            FloatImage kawase = KawaseBlurReference.blur(source, plan);
+            long kawaseNs = System.nanoTime() - start;
+            start = System.nanoTime();
+            FloatImage gaussian = KawaseBlurReference.gaussian(source, radius);
+            long gaussianNs = System.nanoTime() - start;
+            System.out.println("KawaseBlur radius " + radius + " " + plan + ": kawase "
+                    + String.format("%.2f", plan.getFetchesPerPixel()) + " fetches "
+                    + (kawaseNs / 1000000) + "ms, gaussian "
+                    + KawaseBlurReference.getGaussianFetchesPerPixel(radius) + " fetches "
+                    + (gaussianNs / 1000000) + "ms, psnr "
+                    + String.format("%.2f", gaussian.psnr(kawase)) + "dB");
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * RectPacker、StickerFrameAtlas 性能基准，几组典型帧尺寸的排布耗时和利用率
+ * 默认不运行，使用 ./gradlew :filterlibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class StickerFrameAtlasBenchmark {
+
+    // 帧数, 最小边长, 最大边长
+    private static final int[][] CASES = {
+            { 24, 180, 180 },
+            { 24, 150, 200 },
+            { 200, 16, 128 },
+    };
+    private static final String[] NAMES = { "uniform 180x180", "similar 150~200", "random 16~128" };
+
+    /**
+     * 生成第c组帧的宽高，每组使用独立的随机数，两个基准的输入相同
+     */
+    private static int[][] frameSizes(int c) {
+        Random random = new Random(5 + c);
+        int count = CASES[c][0];
+        int min = CASES[c][1];
+        int range = CASES[c][2] - min + 1;
+        int[][] sizes = new int[2][count];
+        for (int i = 0; i < count; i++) {
+            sizes[0][i] = min + random.nextInt(range);
+            sizes[1][i] = min + random.nextInt(range);
+        }
+        return sizes;
+    }
+
+    @Test
+    public void rectPackerInsert() {
+        for (int c = 0; c < CASES.length; c++) {
+            int[][] sizes = frameSizes(c);
+            RectPacker packer = new RectPacker(1024, 2048, 2);
+            long start = System.nanoTime();
+            int packed = 0;
+            for (int i = 0; i < sizes[0].length; i++) {
+                if (packer.insert(sizes[0][i], sizes[1][i]) != null) {
+                    packed++;
+                }
+            }
+            double us = (System.nanoTime() - start) / 1e3;
+            System.out.println("RectPacker " + NAMES[c] + ": " + packed + "/" + sizes[0].length
+                    + " rects, occupancy " + String.format("%.3f", packer.getOccupancy())
+                    + ", used height " + packer.getUsedHeight() + ", "
+                    + String.format("%.1f", us) + " us");
+        }
+    }
+
+    @Test
+    public void atlasLayout() {
+        for (int c = 0; c < CASES.length; c++) {
+            int[][] sizes = frameSizes(c);
+            long start = System.nanoTime();
+            StickerFrameAtlas atlas = StickerFrameAtlas.create(sizes[0], sizes[1]);
+            double ms = (System.nanoTime() - start) / 1e6;
+            if (atlas == null) {
+                System.out.println("StickerFrameAtlas " + NAMES[c] + ": does not fit");
+                continue;
+            }
+            System.out.println("StickerFrameAtlas " + NAMES[c] + ": " + atlas.getPageCount()
+                    + " page(s) " + atlas.getPageWidth(0) + "x" + atlas.getPageHeight(0)
+                    + ", occupancy " + String.format("%.3f", atlas.getOccupancy())
+                    + ", " + atlas.getByteSize() + " bytes, layout "
+                    + String.format("%.2f", ms) + " ms");
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * StickerQuadBatch 性能基准，1、3、5个人脸时逐个贴纸计算矩阵和合批变换的耗时以及绘制次数
+ * 合批时所有部位共用一页图集
+ * 默认不运行，使用 ./gradlew :filterlibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class StickerQuadBatchBenchmark {
+
+    private static final int ITEMS = StickerQuadBatchTest.ITEMS;
+
+    @Test
+    public void perItemAgainstBatched() {
+        Random random = new Random(3);
+        float[] poses = new float[15];
+        for (int i = 0; i < poses.length; i++) {
+            poses[i] = random.nextFloat() * 60 - 30;
+        }
+        float aspect = 720f / 1280f;
+        StickerQuadBatchTest.ReferenceItem[] references =
+                new StickerQuadBatchTest.ReferenceItem[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            references[i] = new StickerQuadBatchTest.ReferenceItem(aspect);
+        }
+        StickerQuadBatch batch = new StickerQuadBatch();
+        batch.setAspectRatio(aspect);
+        int frames = 20000;
+        float sink = 0;
+        for (int faces : new int[] { 1, 3, 5 }) {
+            for (int warm = 0; warm < 2; warm++) {
+                long start = System.nanoTime();
+                for (int frame = 0; frame < frames; frame++) {
+                    for (int item = 0; item < ITEMS; item++) {
+                        for (int face = 0; face < faces; face++) {
+                            sink += references[item].calculateMVPMatrix(poses[face * 3],
+                                    poses[face * 3 + 1], poses[face * 3 + 2])[0];
+                        }
+                    }
+                }
+                long perItem = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int frame = 0; frame < frames; frame++) {
+                    StickerQuadBatchTest.buildFrame(batch, poses, faces);
+                    sink += batch.getData()[0];
+                }
+                long batched = System.nanoTime() - start;
+                if (warm == 1) {
+                    System.out.println("StickerQuadBatch " + faces + " face(s), " + ITEMS
+                            + " items: per-item MVP " + String.format("%.2f", perItem / 1e3 / frames)
+                            + " us/frame, " + (faces * ITEMS) + " draws; batched quads "
+                            + String.format("%.2f", batched / 1e3 / frames) + " us/frame, "
+                            + batch.getRunCount() + " draws");
+                }
+            }
+        }
+        // 使用计算结果，避免被JIT当成死代码消除
+        assertFalse(Float.isNaN(sink));
+    }
+}
@@ -0,0 +1,72 @@
+package com.cgfay.cainfilter.stickers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * StickerFrameCache 性能基准，按需加载和选中时全部解码两种做法加载到第一帧的耗时
+ * 默认不运行，使用 ./gradlew :filterlibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class StickerFrameCacheBenchmark {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void loadToFirstFrame() throws IOException {
+        final int items = 5;
+        final int frames = 30;
+        final int frameBytes = 64 * 1024;
+        File root = mFolder.getRoot();
+        StickerFrameCacheTest.writePackage(root, items, frames, frameBytes);
+
+        long lazyNs = Long.MAX_VALUE;
+        long eagerNs = Long.MAX_VALUE;
+        int lazyDecodes = 0;
+        int eagerDecodes = 0;
+        long lazyBytes = 0;
+        long eagerBytes = 0;
+        for (int round = 0; round < 5; round++) {
+            // 按需加载
+            StickerFrameCacheTest.FileDecoder decoder = new StickerFrameCacheTest.FileDecoder();
+            StickerFrameCacheTest.ManualExecutor executor =
+                    new StickerFrameCacheTest.ManualExecutor();
+            StickerFrameCache<byte[]> cache = new StickerFrameCache<byte[]>(decoder, executor);
+            long start = System.nanoTime();
+            StickerPackage stickerPackage = StickerJsonParser.getInstance()
+                    .parse(new DirectoryPackageSource(root));
+            for (int i = 0; i < stickerPackage.getItemCount(); i++) {
+                cache.load(stickerPackage, i, 0);
+                cache.prefetch(stickerPackage, i, new int[] { 1, 2, 3, 4 }, 4);
+            }
+            lazyNs = Math.min(lazyNs, System.nanoTime() - start);
+            lazyDecodes = decoder.mDecodeCount;
+            lazyBytes = cache.getUsedBytes();
+            stickerPackage.getSource().close();
+
+            // 全部解码
+            decoder = new StickerFrameCacheTest.FileDecoder();
+            cache = new StickerFrameCache<byte[]>(decoder, executor, Long.MAX_VALUE);
+            start = System.nanoTime();
+            stickerPackage = StickerJsonParser.getInstance()
+                    .parse(new DirectoryPackageSource(root));
+            for (int i = 0; i < stickerPackage.getItemCount(); i++) {
+                for (int j = 0; j < stickerPackage.getItem(i).getFrameCount(); j++) {
+                    cache.load(stickerPackage, i, j);
+                }
+            }
+            eagerNs = Math.min(eagerNs, System.nanoTime() - start);
+            eagerDecodes = decoder.mDecodeCount;
+            eagerBytes = cache.getUsedBytes();
+            stickerPackage.getSource().close();
+        }
+        System.out.println(String.format("load to first frame (%d items x %d frames x %dKB): "
+                        + "lazy %.2fms, %d decodes, %dKB; eager %.2fms, %d decodes, %dKB",
+                items, frames, frameBytes / 1024, lazyNs / 1e6, lazyDecodes, lazyBytes / 1024,
+                eagerNs / 1e6, eagerDecodes, eagerBytes / 1024));
+    }
+}
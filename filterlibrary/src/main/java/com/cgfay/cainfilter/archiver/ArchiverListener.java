@@ -20,7 +20,26 @@ public interface ArchiverListener {
     void onProgressArchiving(int current, int total);
 
     /**
-     * 结束压缩/解压
+     * 按字节统计的压缩/解压进度，按固定间隔回调
+     * @param current 已经处理的字节数
+     * @param total   总字节数
+     */
+    void onProgressBytes(long current, long total);
+
+    /**
+     * 结束压缩/解压，全部文件都已经处理完成
      */
     void onFinishArchiving();
+
+    /**
+     * 压缩/解压被取消，已经解压的文件保留，再次解压到同一个目录时继续
+     * 取消后不会再回调onFinishArchiving
+     */
+    void onCancelArchiving();
+
+    /**
+     * 压缩/解压失败，目录中可能留有部分文件，失败后不会再回调onFinishArchiving
+     * @param e 失败原因
+     */
+    void onErrorArchiving(Exception e);
 }
@@ -6,21 +6,36 @@ import android.text.TextUtils;
 import java.io.File;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * 压缩/解压管理器
+ * 任务按顺序在单独的线程中执行，ZIP的各个条目再分给解压线程池并行解压
  * Created by cain on 2017/11/16.
  */
 
 public final class ArchiverManager {
-    
+
+    // 解压线程数
+    private static final int EXTRACT_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     private static ArchiverManager mInstance;
 
     // 当前执行压缩/解压任务
-    private BaseArchiver mCurrentArchiver;
+    private volatile BaseArchiver mCurrentArchiver;
 
     // 线程池
     private Executor mThreadPool;
 
+    // 解压条目的线程池，与任务线程分开，避免任务线程等待自己
+    private Executor mExtractPool;
+
+    // 解压线程共用的缓冲区
+    private final BufferPool mBufferPool =
+            new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, EXTRACT_THREADS);
+
     public static ArchiverManager getInstance() {
         if (mInstance == null) {
             mInstance = new ArchiverManager();
@@ -30,6 +45,17 @@ public final class ArchiverManager {
 
     private ArchiverManager() {
         mThreadPool = Executors.newSingleThreadExecutor();
+        mExtractPool = Executors.newFixedThreadPool(EXTRACT_THREADS, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "ExtractThread-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     /**
@@ -55,17 +81,28 @@ public final class ArchiverManager {
                                               final String unArchivingPath, final String password,
                                               final ArchiverListener listener) {
 
-        mCurrentArchiver = getArchiver(handler, getArchiverType(srcFile));
-        if (mCurrentArchiver != null) {
+        final BaseArchiver archiver = getArchiver(handler, getArchiverType(srcFile));
+        if (archiver != null) {
+            mCurrentArchiver = archiver;
             mThreadPool.execute(new Runnable() {
                 @Override
                 public void run() {
-                    mCurrentArchiver.onUnArchiving(srcFile, unArchivingPath, password, listener);
+                    archiver.onUnArchiving(srcFile, unArchivingPath, password, listener);
                 }
             });
         }
     }
 
+    /**
+     * 取消最近一次提交的解压，已经解压的文件保留，再次解压到同一个目录时从中断处继续
+     */
+    synchronized public void cancelUnArchiving() {
+        if (mCurrentArchiver != null) {
+            mCurrentArchiver.cancel();
+            mCurrentArchiver = null;
+        }
+    }
+
 
     /**
      * 获取压缩包类型
@@ -91,7 +128,7 @@ public final class ArchiverManager {
     private BaseArchiver getArchiver(Handler handler, String archiveType) {
 
         if (archiveType.equalsIgnoreCase("zip")) {
-            return new ZipArchiver(handler);
+            return new ZipArchiver(handler, mExtractPool, EXTRACT_THREADS, mBufferPool);
         } else if (archiveType.equalsIgnoreCase("rar")) {
             return new RarArchiver(handler);
         } else {
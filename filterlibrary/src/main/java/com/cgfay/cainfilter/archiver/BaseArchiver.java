@@ -12,12 +12,72 @@ import java.lang.ref.WeakReference;
 
 public abstract class BaseArchiver {
 
+    // 进度回调的最小间隔
+    protected static final long PROGRESS_INTERVAL_MS = ZipExtractor.DEFAULT_PROGRESS_INTERVAL_MS;
+
     protected WeakReference<Handler> mWeakHandler;
 
+    // 是否已经取消
+    protected volatile boolean mCancelled;
+
     public BaseArchiver(Handler handler) {
         mWeakHandler = new WeakReference<Handler>(handler);
     }
 
+    /**
+     * 取消压缩/解压，已经解压的文件保留，再次解压到同一个目录时继续
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * 在handler所在的线程中回调字节进度
+     * @param listener 解压回调
+     * @param current 已经处理的字节数
+     * @param total 总字节数
+     */
+    protected void postProgressBytes(final ArchiverListener listener, final long current,
+                                     final long total) {
+        if (listener != null && mWeakHandler != null && mWeakHandler.get() != null) {
+            mWeakHandler.get().post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onProgressBytes(current, total);
+                }
+            });
+        }
+    }
+
+    /**
+     * 在handler所在的线程中回调结束：失败时回调onErrorArchiving，取消时回调onCancelArchiving，
+     * 否则回调onFinishArchiving
+     * @param listener 解压回调
+     * @param error 失败原因，成功或者取消时为null
+     * @param cancelled 是否被取消
+     */
+    protected void postResult(final ArchiverListener listener, final Exception error,
+                              final boolean cancelled) {
+        if (listener != null && mWeakHandler != null && mWeakHandler.get() != null) {
+            mWeakHandler.get().post(new Runnable() {
+                @Override
+                public void run() {
+                    if (error != null) {
+                        listener.onErrorArchiving(error);
+                    } else if (cancelled) {
+                        listener.onCancelArchiving();
+                    } else {
+                        listener.onFinishArchiving();
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * 压缩文件
      * @param files     // 需要压缩的文件
@@ -0,0 +1,62 @@
+package com.cgfay.cainfilter.archiver;
+
+import java.util.ArrayDeque;
+
+/**
+ * 解压用的缓冲区池，多个解压线程和多次解压之间复用固定大小的缓冲区
+ * 本类不依赖Android
+ * Created by cain on 2018/3/25.
+ */
+public final class BufferPool {
+
+    // 默认的缓冲区大小
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final int mBufferSize;
+    private final int mMaxPooled;
+    private final ArrayDeque<byte[]> mBuffers = new ArrayDeque<byte[]>();
+    // 新分配的缓冲区数量
+    private int mAllocatedCount;
+
+    /**
+     * @param bufferSize 每个缓冲区的大小
+     * @param maxPooled 最多保留的缓冲区数量，超出的交给GC回收
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        mBufferSize = bufferSize;
+        mMaxPooled = maxPooled;
+    }
+
+    /**
+     * 取出一个缓冲区，池中没有时新分配
+     */
+    public synchronized byte[] obtain() {
+        byte[] buffer = mBuffers.poll();
+        if (buffer == null) {
+            buffer = new byte[mBufferSize];
+            mAllocatedCount++;
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区
+     */
+    public synchronized void release(byte[] buffer) {
+        if (buffer.length == mBufferSize && mBuffers.size() < mMaxPooled) {
+            mBuffers.add(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    public synchronized int getPooledCount() {
+        return mBuffers.size();
+    }
+
+    public synchronized int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+}
@@ -3,14 +3,19 @@ package com.cgfay.cainfilter.archiver;
 import android.os.Handler;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 import de.innosystec.unrar.Archive;
 import de.innosystec.unrar.rarfile.FileHeader;
 
 /**
  * RAR压缩/解压器
+ * RAR通常是固实压缩，条目之间有依赖，只能按顺序解压，写入时经过缓冲并按字节回调进度
  * Created by cain on 2017/11/16.
  */
 
@@ -18,8 +23,62 @@ public class RarArchiver extends BaseArchiver {
 
     private static final String TAG = "RarArchiver";
 
+    // 写入文件的缓冲区大小
+    private static final int BUFFER_SIZE = BufferPool.DEFAULT_BUFFER_SIZE;
+
     private boolean isDebug = false;
 
+    /**
+     * 统计写入的字节数，按间隔回调进度，取消后写入失败
+     */
+    private final class ProgressOutputStream extends FilterOutputStream {
+        private final ArchiverListener mListener;
+        private final long mTotal;
+        private long mWritten;
+        private long mLastPostTime;
+
+        ProgressOutputStream(OutputStream out, ArchiverListener listener, long written,
+                             long total) {
+            super(out);
+            mListener = listener;
+            mWritten = written;
+            mTotal = total;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkCancelled();
+            out.write(b);
+            onWritten(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            checkCancelled();
+            out.write(buffer, offset, count);
+            onWritten(count);
+        }
+
+        private void checkCancelled() throws IOException {
+            if (mCancelled) {
+                throw new IOException("unrar cancelled");
+            }
+        }
+
+        private void onWritten(int count) {
+            mWritten += count;
+            long now = System.currentTimeMillis();
+            if (now - mLastPostTime >= PROGRESS_INTERVAL_MS) {
+                mLastPostTime = now;
+                postProgressBytes(mListener, mWritten, mTotal);
+            }
+        }
+
+        long getWritten() {
+            return mWritten;
+        }
+    }
+
     public RarArchiver(Handler handler) {
         super(handler);
     }
@@ -54,14 +113,20 @@ public class RarArchiver extends BaseArchiver {
             });
         }
 
-        FileOutputStream fileOut = null;
+        OutputStream fileOut = null;
         Archive rarfile = null;
+        Exception error = null;
 
         try {
             rarfile = new Archive(srcFile,password,false);
             FileHeader fh = null;
             final int total = rarfile.getFileHeaders().size();
-            for (int i = 0; i < rarfile.getFileHeaders().size(); i++) {
+            long totalBytes = 0;
+            for (FileHeader header : rarfile.getFileHeaders()) {
+                totalBytes += header.getFullUnpackSize();
+            }
+            long extractedBytes = 0;
+            for (int i = 0; i < rarfile.getFileHeaders().size() && !mCancelled; i++) {
                 fh = rarfile.getFileHeaders().get(i);
                 String entrypath;
 
@@ -85,9 +150,14 @@ public class RarArchiver extends BaseArchiver {
                     if (parent != null && !parent.exists()) {
                         parent.mkdirs();
                     }
-                    fileOut = new FileOutputStream(file);
+                    ProgressOutputStream progressOut = new ProgressOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE),
+                            listener, extractedBytes, totalBytes);
+                    fileOut = progressOut;
                     rarfile.extractFile(fh, fileOut);
                     fileOut.close();
+                    extractedBytes = progressOut.getWritten();
+                    postProgressBytes(listener, extractedBytes, totalBytes);
                 }
 
                 if (listener != null && mWeakHandler != null && mWeakHandler.get() != null) {
@@ -105,6 +175,7 @@ public class RarArchiver extends BaseArchiver {
 
         } catch (Exception e) {
             e.printStackTrace();
+            error = e;
         } finally {
             if (fileOut != null) {
                 try {
@@ -123,15 +194,7 @@ public class RarArchiver extends BaseArchiver {
                 }
             }
 
-            if (listener != null && mWeakHandler != null && mWeakHandler.get() != null) {
-                mWeakHandler.get().post(new Runnable() {
-                    @Override
-                    public void run() {
-                        listener.onFinishArchiving();
-                    }
-                });
-
-            }
+            postResult(listener, error, mCancelled);
         }
     }
 }
@@ -0,0 +1,382 @@
+package com.cgfay.cainfilter.archiver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 不解压直接读取ZIP中的文件
+ * 打开时把整个压缩包映射到内存，中央目录的索引按路径、长度和修改时间缓存，
+ * 再次打开同一个压缩包时不需要重新读取目录
+ * 存储(不压缩)的条目直接读取映射的内存，deflate压缩的条目按需解压，Inflater在多次读取之间复用
+ * 读到条目末尾时校验CRC，不一致时抛出IOException
+ * 打开的流可以在不同的线程中并发读取
+ * 本类不依赖Android
+ * Created by cain on 2018/3/25.
+ */
+public final class ZipArchive implements Closeable {
+
+    // 缓存的索引数量
+    private static final int MAX_CACHED_INDEXES = 8;
+
+    // 复用的Inflater数量
+    private static final int MAX_POOLED_INFLATERS = 4;
+
+    // 每次送入Inflater的字节数
+    private static final int INFLATE_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * 缓存的索引，长度或者修改时间变化时失效
+     */
+    private static final class CachedIndex {
+        final long mLength;
+        final long mLastModified;
+        final ZipIndex mIndex;
+
+        CachedIndex(long length, long lastModified, ZipIndex index) {
+            mLength = length;
+            mLastModified = lastModified;
+            mIndex = index;
+        }
+    }
+
+    private static final LinkedHashMap<String, CachedIndex> mIndexCache =
+            new LinkedHashMap<String, CachedIndex>(16, 0.75f, true);
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    // 整个压缩包，只用绝对位置读取
+    private final ByteBuffer mBuffer;
+    private final ZipIndex mIndex;
+    private final ArrayDeque<Inflater> mInflaters = new ArrayDeque<Inflater>();
+    private volatile boolean mClosed;
+
+    private ZipArchive(File file, RandomAccessFile randomAccessFile, ByteBuffer buffer,
+                       ZipIndex index) {
+        mFile = file;
+        mRandomAccessFile = randomAccessFile;
+        mBuffer = buffer;
+        mIndex = index;
+    }
+
+    /**
+     * 打开压缩包
+     * @param file 压缩包文件
+     * @return
+     * @throws IOException 文件不存在、不是ZIP文件或者超过2GB
+     */
+    public static ZipArchive open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("zip file is too large: " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            ZipIndex index = getCachedIndex(file, length);
+            if (index == null) {
+                index = ZipIndex.read(buffer);
+                putCachedIndex(file, length, index);
+            }
+            return new ZipArchive(file, randomAccessFile, buffer, index);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private static ZipIndex getCachedIndex(File file, long length) {
+        synchronized (mIndexCache) {
+            CachedIndex cached = mIndexCache.get(file.getAbsolutePath());
+            if (cached != null && cached.mLength == length
+                    && cached.mLastModified == file.lastModified()) {
+                return cached.mIndex;
+            }
+            return null;
+        }
+    }
+
+    private static void putCachedIndex(File file, long length, ZipIndex index) {
+        synchronized (mIndexCache) {
+            mIndexCache.put(file.getAbsolutePath(),
+                    new CachedIndex(length, file.lastModified(), index));
+            Iterator<Map.Entry<String, CachedIndex>> iterator =
+                    mIndexCache.entrySet().iterator();
+            while (mIndexCache.size() > MAX_CACHED_INDEXES && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 清空索引缓存
+     */
+    public static void clearIndexCache() {
+        synchronized (mIndexCache) {
+            mIndexCache.clear();
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public ZipIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * 打开压缩包中的文件
+     * @param name 完整路径
+     * @return 调用方负责关闭
+     * @throws FileNotFoundException 条目不存在
+     * @throws IOException 已经关闭、加密或者不支持的压缩方式
+     */
+    public InputStream open(String name) throws IOException {
+        ZipIndex.Entry entry = mIndex.getEntry(name);
+        if (entry == null || entry.isDirectory()) {
+            throw new FileNotFoundException(name + " not found in " + mFile);
+        }
+        return open(entry);
+    }
+
+    /**
+     * 打开一个条目
+     * @param entry 本压缩包索引中的条目
+     * @return 调用方负责关闭
+     * @throws IOException
+     */
+    public InputStream open(ZipIndex.Entry entry) throws IOException {
+        if (mClosed) {
+            throw new IOException("zip archive is closed: " + mFile);
+        }
+        if (entry.isEncrypted()) {
+            throw new IOException("encrypted entry is not supported: " + entry.getName());
+        }
+        long offset = entry.getDataOffset(mBuffer);
+        ByteBuffer data = mBuffer.duplicate();
+        data.limit((int) (offset + entry.getCompressedSize()));
+        data.position((int) offset);
+        switch (entry.getMethod()) {
+            case ZipIndex.METHOD_STORED:
+                if (entry.getCompressedSize() != entry.getSize()) {
+                    throw new IOException("invalid stored entry: " + entry.getName());
+                }
+                return new StoredInputStream(entry, data);
+            case ZipIndex.METHOD_DEFLATED:
+                return new DeflatedInputStream(entry, data, obtainInflater());
+            default:
+                throw new IOException("unsupported compression method "
+                        + entry.getMethod() + ": " + entry.getName());
+        }
+    }
+
+    /**
+     * 关闭文件，已经打开的流仍然可以读完，映射的内存在回收时释放
+     */
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        synchronized (mInflaters) {
+            for (Inflater inflater : mInflaters) {
+                inflater.end();
+            }
+            mInflaters.clear();
+        }
+        mRandomAccessFile.close();
+    }
+
+    private Inflater obtainInflater() {
+        synchronized (mInflaters) {
+            Inflater inflater = mInflaters.poll();
+            if (inflater != null) {
+                return inflater;
+            }
+        }
+        return new Inflater(true);
+    }
+
+    private void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        synchronized (mInflaters) {
+            if (!mClosed && mInflaters.size() < MAX_POOLED_INFLATERS) {
+                mInflaters.add(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    /**
+     * 读到末尾时校验长度和CRC
+     */
+    private abstract static class EntryInputStream extends InputStream {
+        final ZipIndex.Entry mEntry;
+        private final CRC32 mCrc = new CRC32();
+        private long mRead;
+        private byte[] mSingleByte;
+
+        EntryInputStream(ZipIndex.Entry entry) {
+            mEntry = entry;
+        }
+
+        abstract int readData(byte[] buffer, int offset, int count) throws IOException;
+
+        @Override
+        public int read() throws IOException {
+            if (mSingleByte == null) {
+                mSingleByte = new byte[1];
+            }
+            return read(mSingleByte, 0, 1) == 1 ? mSingleByte[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            int read = readData(buffer, offset, count);
+            if (read > 0) {
+                mCrc.update(buffer, offset, read);
+                mRead += read;
+            } else {
+                verify();
+            }
+            return read;
+        }
+
+        private void verify() throws IOException {
+            if (mRead != mEntry.getSize()) {
+                throw new IOException("size mismatch: " + mEntry.getName()
+                        + ", expected " + mEntry.getSize() + " but was " + mRead);
+            }
+            if (mCrc.getValue() != mEntry.getCrc()) {
+                throw new IOException("crc mismatch: " + mEntry.getName());
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, mEntry.getSize() - mRead);
+        }
+    }
+
+    /**
+     * 存储的条目，直接从映射的内存拷贝
+     */
+    private static final class StoredInputStream extends EntryInputStream {
+        private final ByteBuffer mData;
+
+        StoredInputStream(ZipIndex.Entry entry, ByteBuffer data) {
+            super(entry);
+            mData = data;
+        }
+
+        @Override
+        int readData(byte[] buffer, int offset, int count) {
+            int remaining = mData.remaining();
+            if (remaining == 0) {
+                return -1;
+            }
+            count = Math.min(count, remaining);
+            mData.get(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+            mData.position(mData.limit());
+        }
+    }
+
+    /**
+     * deflate压缩的条目，按块从映射的内存送入Inflater
+     */
+    private final class DeflatedInputStream extends EntryInputStream {
+        private final ByteBuffer mData;
+        private final byte[] mChunk;
+        private Inflater mInflater;
+        // 已经送入过结尾的填充字节
+        private boolean mPadded;
+
+        DeflatedInputStream(ZipIndex.Entry entry, ByteBuffer data, Inflater inflater) {
+            super(entry);
+            mData = data;
+            mInflater = inflater;
+            mChunk = new byte[(int) Math.min(INFLATE_CHUNK_SIZE,
+                    Math.max(1, entry.getCompressedSize()))];
+        }
+
+        @Override
+        int readData(byte[] buffer, int offset, int count) throws IOException {
+            if (mInflater == null) {
+                return -1;
+            }
+            try {
+                while (true) {
+                    int inflated = mInflater.inflate(buffer, offset, count);
+                    if (inflated > 0) {
+                        return inflated;
+                    }
+                    if (mInflater.finished()) {
+                        release();
+                        return -1;
+                    }
+                    if (mInflater.needsDictionary()) {
+                        throw new IOException("invalid deflate data: " + mEntry.getName());
+                    }
+                    if (mInflater.needsInput()) {
+                        fill();
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("invalid deflate data: " + mEntry.getName(), e);
+            }
+        }
+
+        private void fill() throws IOException {
+            int count = Math.min(mChunk.length, mData.remaining());
+            if (count == 0) {
+                // nowrap模式下需要在末尾多送入一个字节
+                if (mPadded) {
+                    throw new IOException("unexpected end of deflate data: "
+                            + mEntry.getName());
+                }
+                mPadded = true;
+                mChunk[0] = 0;
+                mInflater.setInput(mChunk, 0, 1);
+                return;
+            }
+            mData.get(mChunk, 0, count);
+            mInflater.setInput(mChunk, 0, count);
+        }
+
+        private void release() {
+            if (mInflater != null) {
+                releaseInflater(mInflater);
+                mInflater = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
@@ -2,23 +2,58 @@ package com.cgfay.cainfilter.archiver;
 
 import android.os.Handler;
 import android.text.TextUtils;
+import android.util.Log;
 
 import net.lingala.zip4j.core.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
 import net.lingala.zip4j.model.FileHeader;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
  * ZIP压缩/解压器
+ * 普通的压缩包用ZipExtractor多线程解压，加密、ZIP64等压缩包交给zip4j
  * Created by cain on 2017/11/16.
  */
 public class ZipArchiver extends BaseArchiver {
 
     private static final String TAG = "ZipArchiver";
 
+    // 在调用线程中直接执行
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Executor mExecutor;
+    private final int mParallelism;
+    private final BufferPool mBufferPool;
+
+    // 正在执行的解压
+    private volatile ZipExtractor mExtractor;
+
     public ZipArchiver(Handler handler) {
+        this(handler, DIRECT_EXECUTOR, 1,
+                new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 1));
+    }
+
+    /**
+     * @param handler 需要回调的handler
+     * @param executor 解压的工作线程
+     * @param parallelism 同时解压的条目数
+     * @param bufferPool 缓冲区池
+     */
+    public ZipArchiver(Handler handler, Executor executor, int parallelism,
+                       BufferPool bufferPool) {
         super(handler);
+        mExecutor = executor;
+        mParallelism = parallelism;
+        mBufferPool = bufferPool;
     }
 
     @Override
@@ -26,14 +61,87 @@ public class ZipArchiver extends BaseArchiver {
 
     }
 
+    @Override
+    public void cancel() {
+        super.cancel();
+        ZipExtractor extractor = mExtractor;
+        if (extractor != null) {
+            extractor.cancel();
+        }
+    }
+
     @Override
     public void onUnArchiving(String srcFile, String unArchivePath,
                               String password, final ArchiverListener listener) {
         if (TextUtils.isEmpty(srcFile) || TextUtils.isEmpty(unArchivePath))
             return;
         File src = new File(srcFile);
-        if (!src.exists())
+        if (!src.exists()) {
+            postResult(listener, new FileNotFoundException(srcFile), false);
             return;
+        }
+        if (ZipExtractor.canExtract(src)) {
+            extract(src, new File(unArchivePath), listener);
+        } else {
+            unArchiveWithZip4j(srcFile, unArchivePath, password, listener);
+        }
+    }
+
+    /**
+     * 用ZipExtractor多线程解压
+     */
+    private void extract(File src, File destDir, final ArchiverListener listener) {
+        ZipExtractor extractor = new ZipExtractor(mExecutor, mParallelism, mBufferPool);
+        extractor.setProgressListener(new ZipExtractor.ProgressListener() {
+            @Override
+            public void onProgress(long extractedBytes, long totalBytes,
+                                   final int extractedEntries, final int totalEntries) {
+                postProgressBytes(listener, extractedBytes, totalBytes);
+                if (listener != null && mWeakHandler != null && mWeakHandler.get() != null) {
+                    mWeakHandler.get().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onProgressArchiving(extractedEntries, totalEntries);
+                        }
+                    });
+                }
+            }
+        }, PROGRESS_INTERVAL_MS);
+        mExtractor = extractor;
+        if (mCancelled) {
+            extractor.cancel();
+        }
+
+        if (listener != null && mWeakHandler != null && mWeakHandler.get() != null) {
+            mWeakHandler.get().post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onStartArchiving();
+                }
+            });
+        }
+        IOException error = null;
+        boolean completed = false;
+        try {
+            completed = extractor.extract(src, destDir);
+            if (!completed) {
+                Log.d(TAG, "unzip cancelled: " + src);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "unable to unzip " + src, e);
+            error = e;
+        } finally {
+            mExtractor = null;
+        }
+        postResult(listener, error, !completed);
+    }
+
+    /**
+     * 用zip4j逐个条目解压，支持加密的压缩包
+     */
+    private void unArchiveWithZip4j(String srcFile, String unArchivePath,
+                                    String password, final ArchiverListener listener) {
+        ZipException error = null;
         try {
             ZipFile zFile = new ZipFile(srcFile);
             zFile.setFileNameCharset("GBK");
@@ -48,6 +156,9 @@ public class ZipArchiver extends BaseArchiver {
             }
 
             if (zFile.isEncrypted()) {
+                if (password == null) {
+                    throw new ZipException("password required: " + srcFile);
+                }
                 zFile.setPassword(password.toCharArray());
             }
 
@@ -62,10 +173,17 @@ public class ZipArchiver extends BaseArchiver {
 
             FileHeader fileHeader;
             final int sum = zFile.getFileHeaders().size();
+            long totalBytes = 0;
             for (int i = 0; i < sum; i++) {
+                totalBytes += ((FileHeader) zFile.getFileHeaders().get(i)).getUncompressedSize();
+            }
+            long extractedBytes = 0;
+            for (int i = 0; i < sum && !mCancelled; i++) {
                 fileHeader = (FileHeader) zFile.getFileHeaders().get(i);
 
                 zFile.extractFile(fileHeader, unArchivePath);
+                extractedBytes += fileHeader.getUncompressedSize();
+                postProgressBytes(listener, extractedBytes, totalBytes);
                 if (listener != null && mWeakHandler != null && mWeakHandler.get() != null) {
                     final int current = i  + 1;
                     mWeakHandler.get().post(new Runnable() {
@@ -77,16 +195,9 @@ public class ZipArchiver extends BaseArchiver {
                 }
             }
         } catch (ZipException e) {
-            e.printStackTrace();
-        }
-        if (listener != null && mWeakHandler != null && mWeakHandler.get() != null) {
-            mWeakHandler.get().post(new Runnable() {
-                @Override
-                public void run() {
-                    listener.onFinishArchiving();
-                }
-            });
-
+            Log.e(TAG, "unable to unzip " + srcFile, e);
+            error = e;
         }
+        postResult(listener, error, mCancelled);
     }
 }
\ No newline at end of file
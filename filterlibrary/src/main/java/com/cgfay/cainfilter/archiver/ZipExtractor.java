@@ -0,0 +1,377 @@
+package com.cgfay.cainfilter.archiver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ZIP并行解压
+ * 各个条目互不依赖，按压缩后的大小从大到小分给多个工作线程，每个线程用BufferPool中的缓冲区
+ * 从ZipArchive读取，写入预先设置好长度的临时文件，读完时ZipArchive已经校验过CRC，再改名为目标文件
+ * 完成的条目记录在目标目录的日志中，取消或者失败之后再次解压到同一个目录时跳过已经完成的条目，
+ * 全部完成后删除日志
+ * 进度按解压出的字节数统计，在调用extract的线程中按固定间隔回调
+ * 每个实例只用于一次解压，取消之后需要新建实例继续
+ * 加密、ZIP64等ZipArchive不支持的压缩包用canExtract判断后交给zip4j
+ * 本类不依赖Android
+ * Created by cain on 2018/3/25.
+ */
+public final class ZipExtractor {
+
+    // 默认的进度回调间隔
+    public static final long DEFAULT_PROGRESS_INTERVAL_MS = 100;
+
+    // 续传日志
+    public static final String JOURNAL_NAME = ".extract_journal";
+
+    // 正在写入的临时文件后缀
+    private static final String PART_SUFFIX = ".part";
+
+    /**
+     * 解压进度回调
+     */
+    public interface ProgressListener {
+        /**
+         * @param extractedBytes 已经解压的字节数，包括续传跳过的条目
+         * @param totalBytes 解压后的总字节数
+         * @param extractedEntries 已经完成的条目数
+         * @param totalEntries 条目总数
+         */
+        void onProgress(long extractedBytes, long totalBytes, int extractedEntries,
+                        int totalEntries);
+    }
+
+    private final Executor mExecutor;
+    private final int mParallelism;
+    private final BufferPool mBufferPool;
+
+    private ProgressListener mProgressListener;
+    private long mProgressIntervalMs = DEFAULT_PROGRESS_INTERVAL_MS;
+
+    private volatile boolean mCancelled;
+    // 任意一个条目失败后其余线程停止
+    private volatile boolean mFailed;
+    private IOException mError;
+
+    private final AtomicLong mExtractedBytes = new AtomicLong();
+    private final AtomicInteger mExtractedEntries = new AtomicInteger();
+    private int mSkippedEntries;
+
+    private Writer mJournal;
+
+    /**
+     * @param executor 工作线程，不能是调用extract的线程所在的单线程池
+     * @param parallelism 同时解压的条目数
+     * @param bufferPool 缓冲区池
+     */
+    public ZipExtractor(Executor executor, int parallelism, BufferPool bufferPool) {
+        mExecutor = executor;
+        mParallelism = Math.max(1, parallelism);
+        mBufferPool = bufferPool;
+    }
+
+    /**
+     * 设置进度回调
+     * @param listener 在调用extract的线程中回调
+     * @param intervalMs 两次回调的最小间隔
+     */
+    public void setProgressListener(ProgressListener listener, long intervalMs) {
+        mProgressListener = listener;
+        mProgressIntervalMs = Math.max(1, intervalMs);
+    }
+
+    /**
+     * 取消解压，可以在任意线程调用，正在写入的条目删除临时文件
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * 是否可以用本类解压
+     * @param zipFile 压缩包
+     * @return 不是ZIP文件、ZIP64、加密或者不支持的压缩方式时返回false
+     */
+    public static boolean canExtract(File zipFile) {
+        ZipArchive archive;
+        try {
+            archive = ZipArchive.open(zipFile);
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            for (ZipIndex.Entry entry : archive.getIndex().getEntries()) {
+                if (entry.isEncrypted() || (entry.getMethod() != ZipIndex.METHOD_STORED
+                        && entry.getMethod() != ZipIndex.METHOD_DEFLATED)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                // 只读打开，忽略关闭错误
+            }
+        }
+    }
+
+    /**
+     * 解压到目录，阻塞到完成、取消或者失败
+     * @param zipFile 压缩包
+     * @param directory 目标目录，不存在时创建
+     * @return 全部完成时返回true，取消时返回false
+     * @throws IOException 读取、校验或者写入失败，已经完成的条目保留在日志中
+     */
+    public boolean extract(File zipFile, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("unable to create directory: " + directory);
+        }
+        final File root = directory.getCanonicalFile();
+        final ZipArchive archive = ZipArchive.open(zipFile);
+        try {
+            File journalFile = new File(root, JOURNAL_NAME);
+            Map<String, Long> finished = readJournal(journalFile);
+            List<ZipIndex.Entry> entries = archive.getIndex().getEntries();
+            long totalBytes = 0;
+            final List<ZipIndex.Entry> pending = new ArrayList<ZipIndex.Entry>();
+            for (ZipIndex.Entry entry : entries) {
+                File target = resolve(root, entry.getName());
+                totalBytes += entry.getSize();
+                if (entry.isDirectory()) {
+                    mkdirs(target);
+                    mExtractedEntries.incrementAndGet();
+                } else if (isFinished(entry, target, finished)) {
+                    mExtractedBytes.addAndGet(entry.getSize());
+                    mExtractedEntries.incrementAndGet();
+                    mSkippedEntries++;
+                } else {
+                    pending.add(entry);
+                }
+            }
+            // 大的条目先开始，减少最后只剩一个线程在工作的时间
+            Collections.sort(pending, new Comparator<ZipIndex.Entry>() {
+                @Override
+                public int compare(ZipIndex.Entry lhs, ZipIndex.Entry rhs) {
+                    return lhs.getCompressedSize() < rhs.getCompressedSize() ? 1
+                            : lhs.getCompressedSize() > rhs.getCompressedSize() ? -1 : 0;
+                }
+            });
+
+            mJournal = new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8");
+            try {
+                int workers = Math.min(mParallelism, pending.size());
+                final CountDownLatch latch = new CountDownLatch(workers);
+                final AtomicInteger next = new AtomicInteger();
+                for (int i = 0; i < workers; i++) {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                int index;
+                                while (!mCancelled && !mFailed
+                                        && (index = next.getAndIncrement()) < pending.size()) {
+                                    extractEntry(archive, root, pending.get(index));
+                                }
+                            } catch (IOException e) {
+                                fail(e);
+                            } catch (RuntimeException e) {
+                                fail(new IOException("unable to extract " + archive.getFile(), e));
+                            } finally {
+                                latch.countDown();
+                            }
+                        }
+                    });
+                }
+                waitForWorkers(latch, totalBytes, entries.size());
+            } finally {
+                mJournal.close();
+            }
+            synchronized (this) {
+                if (mError != null) {
+                    throw mError;
+                }
+            }
+            if (mCancelled) {
+                return false;
+            }
+            journalFile.delete();
+            return true;
+        } finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * 等待工作线程结束，期间按间隔回调进度
+     */
+    private void waitForWorkers(CountDownLatch latch, long totalBytes, int totalEntries) {
+        long lastBytes = -1;
+        boolean interrupted = false;
+        while (true) {
+            boolean done;
+            try {
+                done = latch.await(mProgressIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // 中断时取消，等待工作线程删除临时文件后返回
+                interrupted = true;
+                mCancelled = true;
+                continue;
+            }
+            long bytes = mExtractedBytes.get();
+            if (mProgressListener != null && (bytes != lastBytes || done)) {
+                lastBytes = bytes;
+                mProgressListener.onProgress(bytes, totalBytes, mExtractedEntries.get(),
+                        totalEntries);
+            }
+            if (done) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void extractEntry(ZipArchive archive, File root, ZipIndex.Entry entry)
+            throws IOException {
+        File target = resolve(root, entry.getName());
+        mkdirs(target.getParentFile());
+        File part = new File(target.getPath() + PART_SUFFIX);
+        boolean completed = false;
+        byte[] buffer = mBufferPool.obtain();
+        InputStream input = null;
+        RandomAccessFile output = new RandomAccessFile(part, "rw");
+        try {
+            output.setLength(entry.getSize());
+            input = archive.open(entry);
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                if (mCancelled || mFailed) {
+                    return;
+                }
+                output.write(buffer, 0, count);
+                mExtractedBytes.addAndGet(count);
+            }
+            completed = true;
+        } finally {
+            mBufferPool.release(buffer);
+            if (input != null) {
+                input.close();
+            }
+            output.close();
+            if (!completed) {
+                part.delete();
+            }
+        }
+        if (target.exists() && !target.delete() || !part.renameTo(target)) {
+            part.delete();
+            throw new IOException("unable to rename " + part + " to " + target);
+        }
+        synchronized (this) {
+            mJournal.write(Long.toHexString(entry.getCrc()) + " " + entry.getName() + "\n");
+            mJournal.flush();
+        }
+        mExtractedEntries.incrementAndGet();
+    }
+
+    private synchronized void fail(IOException e) {
+        if (mError == null) {
+            mError = e;
+        }
+        mFailed = true;
+    }
+
+    /**
+     * 日志中记录了CRC相同的条目，并且目标文件长度一致
+     */
+    private static boolean isFinished(ZipIndex.Entry entry, File target,
+                                      Map<String, Long> finished) {
+        Long crc = finished.get(entry.getName());
+        return crc != null && crc == entry.getCrc() && target.isFile()
+                && target.length() == entry.getSize();
+    }
+
+    private static Map<String, Long> readJournal(File journalFile) throws IOException {
+        Map<String, Long> finished = new HashMap<String, Long>();
+        if (!journalFile.isFile()) {
+            return finished;
+        }
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    // 写到一半的行
+                    continue;
+                }
+                try {
+                    finished.put(line.substring(space + 1),
+                            Long.parseLong(line.substring(0, space), 16));
+                } catch (NumberFormatException e) {
+                    // 损坏的行重新解压
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return finished;
+    }
+
+    /**
+     * 条目在目标目录中的位置，拒绝跳出目标目录的路径
+     */
+    private static File resolve(File root, String name) throws IOException {
+        File file = new File(root, name).getCanonicalFile();
+        if (!file.getPath().startsWith(root.getPath() + File.separator)) {
+            throw new IOException("entry is outside of target directory: " + name);
+        }
+        return file;
+    }
+
+    private static void mkdirs(File directory) throws IOException {
+        // 多个线程可能同时创建同一个目录，以最终是否存在为准
+        if (!directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("unable to create directory: " + directory);
+        }
+    }
+
+    /**
+     * 续传时跳过的条目数
+     */
+    public int getSkippedEntryCount() {
+        return mSkippedEntries;
+    }
+
+    public int getExtractedEntryCount() {
+        return mExtractedEntries.get();
+    }
+
+    public long getExtractedBytes() {
+        return mExtractedBytes.get();
+    }
+}
@@ -0,0 +1,257 @@
+package com.cgfay.cainfilter.archiver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ZIP中央目录的索引
+ * 从文件末尾找到中央目录结束记录，一次读出所有条目的名称、压缩方式、大小、CRC和本地头的位置，
+ * 之后按名称查找条目不需要再扫描整个压缩包
+ * 不支持ZIP64和分卷，文件名没有UTF-8标记时与ZipArchiver一样按GBK解码
+ * 本类不依赖Android
+ * Created by cain on 2018/3/25.
+ */
+public final class ZipIndex {
+
+    // 压缩方式
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+
+    // 各个记录的固定长度
+    private static final int EOCD_SIZE = 22;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset DEFAULT_CHARSET = Charset.isSupported("GBK")
+            ? Charset.forName("GBK") : Charset.forName("ISO-8859-1");
+
+    /**
+     * 压缩包中的一个条目
+     */
+    public static final class Entry {
+
+        private final String mName;
+        private final int mFlags;
+        private final int mMethod;
+        private final long mCrc;
+        private final long mCompressedSize;
+        private final long mSize;
+        private final long mLocalHeaderOffset;
+        // 数据的起始位置，第一次打开时从本地头读出
+        private volatile long mDataOffset = -1;
+
+        Entry(String name, int flags, int method, long crc, long compressedSize, long size,
+              long localHeaderOffset) {
+            mName = name;
+            mFlags = flags;
+            mMethod = method;
+            mCrc = crc;
+            mCompressedSize = compressedSize;
+            mSize = size;
+            mLocalHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getMethod() {
+            return mMethod;
+        }
+
+        public long getCrc() {
+            return mCrc;
+        }
+
+        public long getCompressedSize() {
+            return mCompressedSize;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        public long getLocalHeaderOffset() {
+            return mLocalHeaderOffset;
+        }
+
+        public boolean isEncrypted() {
+            return (mFlags & FLAG_ENCRYPTED) != 0;
+        }
+
+        public boolean isDirectory() {
+            return mName.endsWith("/");
+        }
+
+        /**
+         * 数据在压缩包中的起始位置
+         * 本地头中的扩展字段可能与中央目录不同，因此需要读取本地头
+         * @param archive 整个压缩包的内容
+         * @return
+         * @throws IOException 本地头损坏
+         */
+        public long getDataOffset(ByteBuffer archive) throws IOException {
+            long offset = mDataOffset;
+            if (offset >= 0) {
+                return offset;
+            }
+            if (archive.order() != ByteOrder.LITTLE_ENDIAN) {
+                archive = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            int position = checkRange(archive, mLocalHeaderOffset, LOC_SIZE);
+            if (archive.getInt(position) != LOC_SIGNATURE) {
+                throw new IOException("invalid local header: " + mName);
+            }
+            offset = mLocalHeaderOffset + LOC_SIZE
+                    + readUnsignedShort(archive, position + 26)
+                    + readUnsignedShort(archive, position + 28);
+            checkRange(archive, offset, mCompressedSize);
+            mDataOffset = offset;
+            return offset;
+        }
+    }
+
+    private final List<Entry> mEntries;
+    private final Map<String, Entry> mEntryMap;
+    private final long mArchiveLength;
+
+    private ZipIndex(List<Entry> entries, Map<String, Entry> entryMap, long archiveLength) {
+        mEntries = Collections.unmodifiableList(entries);
+        mEntryMap = entryMap;
+        mArchiveLength = archiveLength;
+    }
+
+    /**
+     * 读取中央目录
+     * @param archive 整个压缩包的内容，只使用绝对位置读取，不修改position
+     * @return
+     * @throws IOException 不是ZIP文件、ZIP64或者目录损坏
+     */
+    public static ZipIndex read(ByteBuffer archive) throws IOException {
+        ByteBuffer buffer = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int length = buffer.limit();
+        int eocd = findEndOfCentralDirectory(buffer);
+        int count = readUnsignedShort(buffer, eocd + 10);
+        long directorySize = readUnsignedInt(buffer, eocd + 12);
+        long directoryOffset = readUnsignedInt(buffer, eocd + 16);
+        if (readUnsignedShort(buffer, eocd + 4) != 0
+                || readUnsignedShort(buffer, eocd + 8) != count) {
+            throw new IOException("multi-volume zip is not supported");
+        }
+        if (count == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+            throw new IOException("zip64 is not supported");
+        }
+        if (directoryOffset + directorySize > eocd) {
+            throw new IOException("invalid central directory");
+        }
+
+        List<Entry> entries = new ArrayList<Entry>(count);
+        Map<String, Entry> entryMap = new HashMap<String, Entry>(count * 2);
+        int position = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            checkRange(buffer, position, CEN_SIZE);
+            if (buffer.getInt(position) != CEN_SIGNATURE) {
+                throw new IOException("invalid central directory entry " + i);
+            }
+            int flags = readUnsignedShort(buffer, position + 8);
+            int method = readUnsignedShort(buffer, position + 10);
+            long crc = readUnsignedInt(buffer, position + 16);
+            long compressedSize = readUnsignedInt(buffer, position + 20);
+            long size = readUnsignedInt(buffer, position + 24);
+            int nameLength = readUnsignedShort(buffer, position + 28);
+            int extraLength = readUnsignedShort(buffer, position + 30);
+            int commentLength = readUnsignedShort(buffer, position + 32);
+            long localHeaderOffset = readUnsignedInt(buffer, position + 42);
+            checkRange(buffer, position + CEN_SIZE, nameLength);
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = buffer.duplicate();
+            nameBuffer.position(position + CEN_SIZE);
+            nameBuffer.get(nameBytes);
+            String name = new String(nameBytes,
+                    (flags & FLAG_UTF8) != 0 ? UTF8 : DEFAULT_CHARSET);
+            if (localHeaderOffset + LOC_SIZE > directoryOffset) {
+                throw new IOException("invalid local header offset: " + name);
+            }
+            Entry entry = new Entry(name, flags, method, crc, compressedSize, size,
+                    localHeaderOffset);
+            entries.add(entry);
+            entryMap.put(name, entry);
+            position += CEN_SIZE + nameLength + extraLength + commentLength;
+        }
+        return new ZipIndex(entries, entryMap, length);
+    }
+
+    /**
+     * 从末尾向前查找中央目录结束记录，注释长度必须与剩余的字节数一致
+     */
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) throws IOException {
+        int length = buffer.limit();
+        if (length < EOCD_SIZE) {
+            throw new IOException("not a zip file");
+        }
+        int last = Math.max(0, length - EOCD_SIZE - MAX_COMMENT_SIZE);
+        for (int position = length - EOCD_SIZE; position >= last; position--) {
+            if (buffer.getInt(position) == EOCD_SIGNATURE
+                    && readUnsignedShort(buffer, position + 20)
+                    == length - position - EOCD_SIZE) {
+                return position;
+            }
+        }
+        throw new IOException("end of central directory not found");
+    }
+
+    private static int checkRange(ByteBuffer buffer, long offset, long size) throws IOException {
+        if (offset < 0 || size < 0 || offset + size > buffer.limit()) {
+            throw new IOException("truncated zip at offset " + offset);
+        }
+        return (int) offset;
+    }
+
+    private static int readUnsignedShort(ByteBuffer buffer, int position) {
+        return buffer.getShort(position) & 0xffff;
+    }
+
+    private static long readUnsignedInt(ByteBuffer buffer, int position) {
+        return buffer.getInt(position) & 0xffffffffL;
+    }
+
+    /**
+     * 按名称查找条目
+     * @param name 完整路径，目录以/结尾
+     * @return 不存在时返回null
+     */
+    public Entry getEntry(String name) {
+        return mEntryMap.get(name);
+    }
+
+    public List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 建立索引时压缩包的长度
+     */
+    public long getArchiveLength() {
+        return mArchiveLength;
+    }
+}
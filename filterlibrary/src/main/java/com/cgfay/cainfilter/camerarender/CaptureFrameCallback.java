@@ -8,5 +8,11 @@ import java.nio.ByteBuffer;
  */
 
 public interface CaptureFrameCallback {
+    /**
+     * 在回读线程回调，buffer来自缓冲池，只在回调期间有效，需要保留的数据要在回调内拷贝
+     * @param buffer RGBA像素
+     * @param width
+     * @param height
+     */
     void onFrameCallback(ByteBuffer buffer, int width, int height);
 }
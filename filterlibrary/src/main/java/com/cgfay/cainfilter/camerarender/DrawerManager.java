@@ -7,6 +7,7 @@ import android.view.SurfaceHolder;
 
 import com.cgfay.cainfilter.type.GLFilterGroupType;
 import com.cgfay.cainfilter.type.GLFilterType;
+import com.cgfay.utilslibrary.FrameTimeRecorder;
 
 
 /**
@@ -18,6 +19,9 @@ public class DrawerManager {
 
     private static final String TAG = "DrawerManager";
 
+    // Fps回调消息，obj为最近一秒的平均帧率(float)
+    public static final int MSG_GAIN_FPS = 0x100;
+
     private static DrawerManager mInstance;
 
     private RenderHandler mRenderHandler;
@@ -294,6 +298,20 @@ public class DrawerManager {
         }
     }
 
+    /**
+     * 连拍，接下来的count个预览帧都会通过拍照回调返回
+     * @param count 帧数，为0时停止连拍
+     */
+    public void takeBurst(int count) {
+        if (mRenderHandler == null) {
+            return;
+        }
+        synchronized (mSynOperation) {
+            mRenderHandler.sendMessage(mRenderHandler
+                    .obtainMessage(RenderHandler.MSG_TAKE_BURST, count, 0));
+        }
+    }
+
     /**
      * 设置拍照回调
      * @param callback
@@ -309,6 +327,33 @@ public class DrawerManager {
         }
     }
 
+    /**
+     * 开始记录各个渲染阶段的CPU/GPU耗时
+     */
+    public void startTracing() {
+        if (mRenderHandler == null) {
+            return;
+        }
+        synchronized (mSynOperation) {
+            mRenderHandler.sendMessage(mRenderHandler
+                    .obtainMessage(RenderHandler.MSG_START_TRACING));
+        }
+    }
+
+    /**
+     * 停止记录并导出Chrome/Perfetto json跟踪文件
+     * @param path 文件路径
+     */
+    public void stopTracing(String path) {
+        if (mRenderHandler == null) {
+            return;
+        }
+        synchronized (mSynOperation) {
+            mRenderHandler.sendMessage(mRenderHandler
+                    .obtainMessage(RenderHandler.MSG_STOP_TRACING, path));
+        }
+    }
+
     /**
      * 设置Fps Handler回调
      * @param handler
@@ -326,6 +371,14 @@ public class DrawerManager {
         mSetFpsHandler = true;
     }
 
+    /**
+     * 获取预览的帧间隔统计，渲染线程还没有创建时返回null
+     * @return
+     */
+    synchronized public FrameTimeRecorder getFrameTimeRecorder() {
+        return mRenderThread != null ? mRenderThread.getFrameTimeRecorder() : null;
+    }
+
     /**
      * 是否设置了Fps Handler
      * @return
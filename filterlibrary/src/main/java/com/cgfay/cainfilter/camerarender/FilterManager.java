@@ -5,6 +5,7 @@ import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilterGroup;
 import com.cgfay.cainfilter.glfilter.base.GLDisplayFilter;
 import com.cgfay.cainfilter.glfilter.beauty.GLRealtimeBeautyFilter;
+import com.cgfay.cainfilter.glfilter.beauty.GLSeparableBeautyFilter;
 import com.cgfay.cainfilter.glfilter.beauty.WhitenOrReddenFilter;
 import com.cgfay.cainfilter.glfilter.color.GLAmaroFilter;
 import com.cgfay.cainfilter.glfilter.color.GLAnitqueFilter;
@@ -32,6 +33,7 @@ import com.cgfay.cainfilter.glfilter.color.GLWhiteCatFilter;
 import com.cgfay.cainfilter.glfilter.group.GLDefaultFilterGroup;
 import com.cgfay.cainfilter.glfilter.group.GLMakeUpFilterGroup;
 import com.cgfay.cainfilter.glfilter.image.GLBrightnessFilter;
+import com.cgfay.cainfilter.glfilter.image.GLColorAdjustFilter;
 import com.cgfay.cainfilter.glfilter.image.GLContrastFilter;
 import com.cgfay.cainfilter.glfilter.image.GLExposureFilter;
 import com.cgfay.cainfilter.glfilter.image.GLGuassFilter;
@@ -66,12 +68,14 @@ public final class FilterManager {
         mIndexMap.put(GLFilterType.MIRROR, GLFilterIndex.ImageEditIndex);
         mIndexMap.put(GLFilterType.SATURATION, GLFilterIndex.ImageEditIndex);
         mIndexMap.put(GLFilterType.SHARPNESS, GLFilterIndex.ImageEditIndex);
+        mIndexMap.put(GLFilterType.COLORADJUST, GLFilterIndex.ImageEditIndex);
 
         // 水印
         mIndexMap.put(GLFilterType.WATERMASK, GLFilterIndex.WaterMaskIndex);
 
         // 美颜
         mIndexMap.put(GLFilterType.REALTIMEBEAUTY, GLFilterIndex.BeautyIndex);
+        mIndexMap.put(GLFilterType.SEPARABLEBEAUTY, GLFilterIndex.BeautyIndex);
 
         // 瘦脸大眼
         mIndexMap.put(GLFilterType.FACESTRETCH, GLFilterIndex.FaceStretchIndex);
@@ -142,6 +146,9 @@ public final class FilterManager {
             // 锐度
             case SHARPNESS:
                 return new GLSharpnessFilter();
+            // 颜色调节
+            case COLORADJUST:
+                return new GLColorAdjustFilter();
 
             // TODO 贴纸滤镜需要人脸关键点计算得到
             case STICKER:
@@ -154,6 +161,9 @@ public final class FilterManager {
             // 实时磨皮
             case REALTIMEBEAUTY:
                 return new GLRealtimeBeautyFilter();
+            // 降采样可分离磨皮
+            case SEPARABLEBEAUTY:
+                return new GLSeparableBeautyFilter();
 
             // AMARO
             case AMARO:
@@ -0,0 +1,419 @@
+package com.cgfay.cainfilter.camerarender;
+
+import com.cgfay.cainfilter.type.GLFilterType;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 滤镜预热调度器
+ * 第一次使用某个滤镜时需要编译shader、解码并上传贴图，在渲染线程上会造成明显的卡顿，
+ * 后台线程可以在共享上下文中提前完成这些工作。调度器决定预热哪些滤镜以及先后顺序：
+ * 1、当前滤镜优先级最高(启动时渲染线程还没有用到它)
+ * 2、滤镜列表中与当前滤镜相邻的滤镜，左右滑动切换时最先用到
+ * 3、最近使用过的滤镜，可能已经被缓存淘汰
+ * 每次选中滤镜都会重新规划，不再需要的等待任务被取消，已经预热过的滤镜不重复预热
+ * 已预热的记录有数量上限，与缓存的空闲预算对应，超出的记录视为已被缓存淘汰
+ * 选中滤镜时统计命中率：选中的滤镜已经预热(或者之前用过仍在缓存中)记为命中
+ * 本类不调用GLES，实际的预热由WarmUpBackend完成，方便在JVM上测试
+ * Created by cain on 2018/3/25.
+ */
+public final class FilterWarmUpScheduler {
+
+    /**
+     * 预热的实现，后台线程调用
+     */
+    public interface WarmUpBackend {
+        /**
+         * 编译滤镜的program，上传用到的贴图
+         * @param type
+         * @return 是否成功
+         */
+        boolean warmUp(GLFilterType type);
+    }
+
+    // 优先级，数值越小越先执行
+    public static final int PRIORITY_CURRENT = 0;
+    public static final int PRIORITY_ADJACENT = 1;
+    public static final int PRIORITY_RECENT = 2;
+
+    // 默认预热当前滤镜左右各两个滤镜
+    public static final int DEFAULT_ADJACENT_COUNT = 2;
+    // 默认预热最近使用的四个滤镜
+    public static final int DEFAULT_RECENT_COUNT = 4;
+    // 默认记录的已预热滤镜个数
+    public static final int DEFAULT_MAX_WARMED = 12;
+
+    private final WarmUpBackend mBackend;
+    private final int mAdjacentCount;
+    private final int mRecentCount;
+    private final int mMaxWarmed;
+
+    // 滤镜列表，用于查找相邻的滤镜
+    private final List<GLFilterType> mFilterList = new ArrayList<GLFilterType>();
+    // 最近使用的滤镜，最近的排在最前面
+    private final LinkedList<GLFilterType> mRecent = new LinkedList<GLFilterType>();
+    // 已经预热(或者渲染线程已经用过)的滤镜，按访问顺序排列
+    private final LinkedHashMap<GLFilterType, Boolean> mWarmed =
+            new LinkedHashMap<GLFilterType, Boolean>(16, 0.75f, true);
+    // 等待执行的任务
+    private final List<Task> mPending = new ArrayList<Task>();
+    // 正在执行的任务
+    private Task mRunning;
+    private long mSequence;
+    private boolean mShutdown;
+
+    // 统计数据
+    private int mHitCount;
+    private int mMissCount;
+    private int mWarmedCount;
+    private int mFailedCount;
+    private int mCancelledCount;
+
+    public FilterWarmUpScheduler(WarmUpBackend backend) {
+        this(backend, DEFAULT_ADJACENT_COUNT, DEFAULT_RECENT_COUNT, DEFAULT_MAX_WARMED);
+    }
+
+    public FilterWarmUpScheduler(WarmUpBackend backend, int adjacentCount,
+                                 int recentCount, int maxWarmed) {
+        if (backend == null) {
+            throw new IllegalArgumentException("backend must not be null");
+        }
+        if (adjacentCount < 0 || recentCount < 0 || maxWarmed <= 0) {
+            throw new IllegalArgumentException("invalid warm-up window: " + adjacentCount
+                    + ", " + recentCount + ", " + maxWarmed);
+        }
+        mBackend = backend;
+        mAdjacentCount = adjacentCount;
+        mRecentCount = recentCount;
+        mMaxWarmed = maxWarmed;
+    }
+
+    /**
+     * 设置滤镜列表，顺序与界面上的滤镜顺序一致
+     * @param filters
+     */
+    public synchronized void setFilterList(List<GLFilterType> filters) {
+        mFilterList.clear();
+        if (filters != null) {
+            mFilterList.addAll(filters);
+        }
+    }
+
+    /**
+     * 选中滤镜，统计命中率并重新规划预热任务
+     * @param type
+     */
+    public synchronized void onFilterSelected(GLFilterType type) {
+        if (type == null) {
+            return;
+        }
+        if (mWarmed.containsKey(type)) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        // 渲染线程创建滤镜后，program和贴图已经在缓存中
+        markWarmed(type);
+        addRecent(type);
+        plan(type, false);
+    }
+
+    /**
+     * 设置当前滤镜但不计入命中率，用于启动时在渲染线程创建滤镜之前预热
+     * @param type
+     */
+    public synchronized void setCurrentFilter(GLFilterType type) {
+        if (type == null) {
+            return;
+        }
+        addRecent(type);
+        plan(type, true);
+    }
+
+    /**
+     * 按优先级请求预热，已经预热过的滤镜忽略
+     * @param type
+     * @param priority
+     * @return 是否加入了等待队列
+     */
+    public synchronized boolean request(GLFilterType type, int priority) {
+        if (mShutdown || type == null || mWarmed.containsKey(type) || isRunning(type)) {
+            return false;
+        }
+        Task task = findPending(type);
+        if (task != null) {
+            task.priority = Math.min(task.priority, priority);
+            return true;
+        }
+        mPending.add(new Task(type, priority, mSequence++));
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * 取消等待中的预热任务，正在执行的任务无法中断
+     * @param type
+     * @return 是否取消了任务
+     */
+    public synchronized boolean cancel(GLFilterType type) {
+        Task task = findPending(type);
+        if (task == null) {
+            return false;
+        }
+        mPending.remove(task);
+        mCancelledCount++;
+        return true;
+    }
+
+    /**
+     * 取消全部等待中的任务
+     */
+    public synchronized void cancelAll() {
+        mCancelledCount += mPending.size();
+        mPending.clear();
+    }
+
+    /**
+     * 停止调度，取消全部等待中的任务，唤醒等待任务的后台线程
+     */
+    public synchronized void shutdown() {
+        mShutdown = true;
+        cancelAll();
+        notifyAll();
+    }
+
+    /**
+     * 共享上下文重新创建之后调用，之前预热的program和贴图已经随上下文销毁，统计数据保留
+     */
+    public synchronized void restart() {
+        mShutdown = false;
+        mPending.clear();
+        mWarmed.clear();
+    }
+
+    /**
+     * 后台线程等待下一个任务并执行
+     * @return 是否执行了任务，停止调度后返回false
+     * @throws InterruptedException
+     */
+    public boolean awaitAndRunNext() throws InterruptedException {
+        while (true) {
+            synchronized (this) {
+                while (!mShutdown && mPending.isEmpty()) {
+                    wait();
+                }
+                if (mShutdown) {
+                    return false;
+                }
+            }
+            // 唤醒之后任务可能已经被取消，继续等待
+            if (runNext()) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 执行优先级最高的一个任务
+     * @return 是否执行了任务
+     */
+    public boolean runNext() {
+        Task task;
+        synchronized (this) {
+            if (mShutdown || mPending.isEmpty()) {
+                return false;
+            }
+            task = nextTask(mPending);
+            mPending.remove(task);
+            mRunning = task;
+        }
+        boolean success = false;
+        try {
+            success = mBackend.warmUp(task.type);
+        } finally {
+            synchronized (this) {
+                mRunning = null;
+                if (success) {
+                    mWarmedCount++;
+                    markWarmed(task.type);
+                } else {
+                    mFailedCount++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 滤镜是否已经预热
+     * @param type
+     * @return
+     */
+    public synchronized boolean isWarmed(GLFilterType type) {
+        return mWarmed.containsKey(type);
+    }
+
+    /**
+     * 等待中的任务，按执行顺序排列
+     * @return
+     */
+    public synchronized List<GLFilterType> getPendingFilters() {
+        List<Task> tasks = new ArrayList<Task>(mPending);
+        List<GLFilterType> result = new ArrayList<GLFilterType>();
+        while (!tasks.isEmpty()) {
+            Task next = nextTask(tasks);
+            tasks.remove(next);
+            result.add(next.type);
+        }
+        return result;
+    }
+
+    /**
+     * 预热命中率，选中时已经预热的比例
+     * @return 0 ~ 1，还没有选中过滤镜时返回0
+     */
+    public synchronized float getHitRate() {
+        int total = mHitCount + mMissCount;
+        return total == 0 ? 0 : (float) mHitCount / total;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getWarmedCount() {
+        return mWarmedCount;
+    }
+
+    public synchronized int getFailedCount() {
+        return mFailedCount;
+    }
+
+    public synchronized int getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /**
+     * 以current为中心重新规划，不在新规划中的等待任务被取消
+     */
+    private void plan(GLFilterType current, boolean includeCurrent) {
+        LinkedHashMap<GLFilterType, Integer> wanted = new LinkedHashMap<GLFilterType, Integer>();
+        if (includeCurrent) {
+            wanted.put(current, PRIORITY_CURRENT);
+        }
+        int index = mFilterList.indexOf(current);
+        int size = mFilterList.size();
+        if (index >= 0) {
+            // 由近到远，右边优先，与ColorFilterManager一样首尾相接
+            for (int distance = 1; distance <= mAdjacentCount && distance * 2 <= size; distance++) {
+                addWanted(wanted, mFilterList.get((index + distance) % size), PRIORITY_ADJACENT);
+                addWanted(wanted, mFilterList.get((index - distance + size) % size), PRIORITY_ADJACENT);
+            }
+        }
+        int recent = 0;
+        for (GLFilterType type : mRecent) {
+            if (type == current) {
+                continue;
+            }
+            if (recent++ >= mRecentCount) {
+                break;
+            }
+            addWanted(wanted, type, PRIORITY_RECENT);
+        }
+        Iterator<Task> iterator = mPending.iterator();
+        while (iterator.hasNext()) {
+            if (!wanted.containsKey(iterator.next().type)) {
+                iterator.remove();
+                mCancelledCount++;
+            }
+        }
+        // 保留的任务按新的规划排序，相同优先级内距离当前滤镜近的先执行
+        for (GLFilterType type : wanted.keySet()) {
+            Task task = findPending(type);
+            if (task != null) {
+                task.priority = wanted.get(type);
+                task.sequence = mSequence++;
+            } else {
+                request(type, wanted.get(type));
+            }
+        }
+    }
+
+    private static void addWanted(LinkedHashMap<GLFilterType, Integer> wanted,
+                                  GLFilterType type, int priority) {
+        if (!wanted.containsKey(type)) {
+            wanted.put(type, priority);
+        }
+    }
+
+    /**
+     * 记录最近使用的滤镜，包括当前滤镜在内最多保留mRecentCount + 1个
+     */
+    private void addRecent(GLFilterType type) {
+        mRecent.remove(type);
+        mRecent.addFirst(type);
+        while (mRecent.size() > mRecentCount + 1) {
+            mRecent.removeLast();
+        }
+    }
+
+    private void markWarmed(GLFilterType type) {
+        mWarmed.put(type, Boolean.TRUE);
+        Iterator<GLFilterType> iterator = mWarmed.keySet().iterator();
+        while (mWarmed.size() > mMaxWarmed && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 优先级最高的任务，相同优先级先请求的先执行
+     */
+    private static Task nextTask(List<Task> tasks) {
+        Task next = tasks.get(0);
+        for (int i = 1; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            if (task.priority < next.priority
+                    || (task.priority == next.priority && task.sequence < next.sequence)) {
+                next = task;
+            }
+        }
+        return next;
+    }
+
+    private boolean isRunning(GLFilterType type) {
+        return mRunning != null && mRunning.type == type;
+    }
+
+    private Task findPending(GLFilterType type) {
+        for (Task task : mPending) {
+            if (task.type == type) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 预热任务
+     */
+    private static final class Task {
+        final GLFilterType type;
+        long sequence;
+        int priority;
+
+        Task(GLFilterType type, int priority, long sequence) {
+            this.type = type;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+}
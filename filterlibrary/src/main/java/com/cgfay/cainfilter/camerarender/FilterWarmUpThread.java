@@ -0,0 +1,101 @@
+package com.cgfay.cainfilter.camerarender;
+
+import android.opengl.EGLContext;
+import android.os.Process;
+import android.util.Log;
+
+import com.cgfay.cainfilter.gles.EglCore;
+import com.cgfay.cainfilter.gles.GLShareGroup;
+import com.cgfay.cainfilter.gles.OffscreenSurface;
+import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
+import com.cgfay.cainfilter.type.GLFilterType;
+
+/**
+ * 滤镜预热线程
+ * 在与渲染上下文共享的EGLContext中创建一次滤镜再释放，program和贴图留在共享组的缓存中，
+ * 渲染线程第一次使用该滤镜时直接命中缓存。预热顺序由FilterWarmUpScheduler决定
+ * 线程以后台优先级运行，需要在渲染上下文销毁之前调用quit
+ * Created by cain on 2018/3/25.
+ */
+public class FilterWarmUpThread extends Thread {
+
+    private static final String TAG = "FilterWarmUpThread";
+
+    private final EGLContext mSharedContext;
+    private final FilterWarmUpScheduler mScheduler;
+
+    /**
+     * 在共享上下文中创建滤镜的预热实现
+     */
+    public static final FilterWarmUpScheduler.WarmUpBackend GL_BACKEND =
+            new FilterWarmUpScheduler.WarmUpBackend() {
+        @Override
+        public boolean warmUp(GLFilterType type) {
+            try {
+                GLImageFilter filter = FilterManager.getFilter(type);
+                if (filter == null) {
+                    return false;
+                }
+                // 释放后program和贴图进入缓存的空闲队列，不会被删除
+                filter.release();
+                return true;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "warm up failed: " + type, e);
+                return false;
+            }
+        }
+    };
+
+    /**
+     * @param sharedContext 渲染线程的上下文
+     * @param scheduler 预热调度器，后端需要是GL_BACKEND
+     */
+    public FilterWarmUpThread(EGLContext sharedContext, FilterWarmUpScheduler scheduler) {
+        super(TAG);
+        mSharedContext = sharedContext;
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        EglCore eglCore = null;
+        OffscreenSurface surface = null;
+        try {
+            // 与渲染上下文的版本一致，预热编译的查找表shader才是渲染时使用的版本
+            eglCore = new EglCore(mSharedContext, EglCore.FLAG_TRY_GLES3);
+            surface = new OffscreenSurface(eglCore, 1, 1);
+            surface.makeCurrent();
+            GLShareGroup.join(eglCore.getEGLContext(), mSharedContext);
+            int count = 0;
+            while (mScheduler.awaitAndRunNext()) {
+                count++;
+            }
+            Log.d(TAG, "warm up finished, tasks: " + count
+                    + ", hit rate: " + mScheduler.getHitRate());
+        } catch (InterruptedException e) {
+            Log.d(TAG, "warm up interrupted");
+        } catch (RuntimeException e) {
+            Log.e(TAG, "warm up context failed", e);
+        } finally {
+            if (surface != null) {
+                surface.release();
+            }
+            if (eglCore != null) {
+                eglCore.release();
+            }
+        }
+    }
+
+    /**
+     * 停止预热并等待线程退出，正在执行的任务完成后退出
+     */
+    public void quit() {
+        mScheduler.shutdown();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.cgfay.cainfilter.camerarender;
+
+/**
+ * 与屏幕刷新(vsync)对齐的帧调度器
+ * 1、只保留最新的一帧相机数据，还没绘制的旧帧直接丢弃
+ * 2、只在vsync时绘制，一个刷新周期内最多绘制一次，不会出现突发的连续绘制
+ * 3、开启人脸检测时，帧需要等待检测结果，检测超时后不再等待
+ * 4、绘制超出预算时，按实际占用的刷新周期数暂停绘制，避免绘制请求堆积
+ * 5、记录每一帧的丢弃原因：过期(LATE)、被新帧替换(SUPERSEDED)、等待检测时被替换(TRACKER_BUSY)
+ * 时间全部来自可注入的时钟，方便在JVM上用模拟的帧和vsync事件验证调度策略
+ * Created by cain on 2018/3/25.
+ */
+public final class FrameScheduler {
+
+    /**
+     * 时钟，单位纳秒
+     */
+    public interface Clock {
+        long nanoTime();
+    }
+
+    /**
+     * 系统时钟，与Choreographer的帧时间一致
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * 丢帧原因
+     */
+    public enum DropReason {
+        // 到达vsync时已经超过最大延迟
+        LATE,
+        // 还没绘制就被更新的帧替换
+        SUPERSEDED,
+        // 等待人脸检测结果时被更新的帧替换
+        TRACKER_BUSY,
+    }
+
+    // 默认刷新周期 60Hz
+    public static final long DEFAULT_VSYNC_PERIOD_NS = 16666667L;
+
+    private final Clock mClock;
+    // 刷新周期
+    private long mVsyncPeriodNs;
+    // 每帧绘制的预算
+    private long mFrameBudgetNs;
+    // 帧从到达到开始绘制允许的最大延迟
+    private long mMaxLatencyNs;
+    // 等待人脸检测的最长时间
+    private long mTrackerTimeoutNs;
+
+    // 是否需要等待人脸检测
+    private boolean mTrackingEnabled;
+    // 人脸检测是否正在进行
+    private boolean mTrackerBusy;
+
+    // 等待绘制的帧
+    private boolean mHasPendingFrame;
+    private long mPendingFrameTime;
+
+    // 绘制状态
+    private boolean mDrawing;
+    private long mDrawStartTime;
+    private long mDrawVsyncTime;
+    // 在这个时间之前的vsync不绘制
+    private long mHoldUntilTime = Long.MIN_VALUE;
+
+    // 统计
+    private final int[] mDropCounts = new int[DropReason.values().length];
+    private int mFrameCount;
+    private int mDrawnCount;
+    private int mOverBudgetCount;
+    private int mHeldVsyncCount;
+    private long mMaxLatency;
+    private long mTotalLatency;
+
+    public FrameScheduler() {
+        this(SYSTEM_CLOCK, DEFAULT_VSYNC_PERIOD_NS);
+    }
+
+    /**
+     * @param clock 时钟
+     * @param vsyncPeriodNs 刷新周期
+     */
+    public FrameScheduler(Clock clock, long vsyncPeriodNs) {
+        mClock = clock;
+        setVsyncPeriod(vsyncPeriodNs);
+    }
+
+    /**
+     * 设置刷新周期，预算、最大延迟和检测超时按刷新周期重新计算
+     * 预算为一个周期，最大延迟为三个周期，检测超时为两个周期
+     * @param vsyncPeriodNs
+     */
+    public synchronized void setVsyncPeriod(long vsyncPeriodNs) {
+        if (vsyncPeriodNs <= 0) {
+            throw new IllegalArgumentException("vsync period must be positive");
+        }
+        mVsyncPeriodNs = vsyncPeriodNs;
+        mFrameBudgetNs = vsyncPeriodNs;
+        mMaxLatencyNs = vsyncPeriodNs * 3;
+        mTrackerTimeoutNs = vsyncPeriodNs * 2;
+    }
+
+    /**
+     * 设置每帧绘制的预算
+     * @param frameBudgetNs
+     */
+    public synchronized void setFrameBudget(long frameBudgetNs) {
+        mFrameBudgetNs = frameBudgetNs;
+    }
+
+    /**
+     * 设置最大延迟
+     * @param maxLatencyNs
+     */
+    public synchronized void setMaxLatency(long maxLatencyNs) {
+        mMaxLatencyNs = maxLatencyNs;
+    }
+
+    /**
+     * 设置等待人脸检测的最长时间
+     * @param trackerTimeoutNs
+     */
+    public synchronized void setTrackerTimeout(long trackerTimeoutNs) {
+        mTrackerTimeoutNs = trackerTimeoutNs;
+    }
+
+    /**
+     * 是否需要等待人脸检测结果
+     * @param enabled
+     */
+    public synchronized void setTrackingEnabled(boolean enabled) {
+        mTrackingEnabled = enabled;
+    }
+
+    ///------------------ 事件 ------------------------///
+
+    /**
+     * 相机有新的帧到达
+     */
+    public synchronized void onFrameAvailable() {
+        long now = mClock.nanoTime();
+        if (mHasPendingFrame) {
+            drop(isReady(now) ? DropReason.SUPERSEDED : DropReason.TRACKER_BUSY);
+        }
+        mHasPendingFrame = true;
+        mPendingFrameTime = now;
+        mFrameCount++;
+    }
+
+    /**
+     * 开始人脸检测
+     */
+    public synchronized void onTrackingStarted() {
+        mTrackerBusy = true;
+    }
+
+    /**
+     * 人脸检测完成
+     */
+    public synchronized void onTrackingFinished() {
+        mTrackerBusy = false;
+    }
+
+    /**
+     * vsync到达，返回true时需要立即绘制，绘制完成后调用onDrawFinished
+     * @param frameTimeNanos vsync时间
+     * @return
+     */
+    public synchronized boolean onVsync(long frameTimeNanos) {
+        if (!mHasPendingFrame || mDrawing) {
+            return false;
+        }
+        // 上一帧绘制超出预算，暂停到对应的刷新周期
+        if (frameTimeNanos < mHoldUntilTime) {
+            mHeldVsyncCount++;
+            return false;
+        }
+        if (!isReady(frameTimeNanos)) {
+            return false;
+        }
+        long latency = frameTimeNanos - mPendingFrameTime;
+        if (latency > mMaxLatencyNs) {
+            drop(DropReason.LATE);
+            return false;
+        }
+        mHasPendingFrame = false;
+        mDrawing = true;
+        mDrawStartTime = mClock.nanoTime();
+        mDrawVsyncTime = frameTimeNanos;
+        mDrawnCount++;
+        mTotalLatency += latency;
+        mMaxLatency = Math.max(mMaxLatency, latency);
+        return true;
+    }
+
+    /**
+     * 绘制完成
+     */
+    public synchronized void onDrawFinished() {
+        if (!mDrawing) {
+            return;
+        }
+        mDrawing = false;
+        long duration = mClock.nanoTime() - mDrawStartTime;
+        if (duration > mFrameBudgetNs) {
+            mOverBudgetCount++;
+        }
+        // 绘制占用了几个刷新周期，就在几个周期之后再绘制，预留半个周期容忍vsync抖动
+        long periods = Math.max(1, (duration + mVsyncPeriodNs - 1) / mVsyncPeriodNs);
+        mHoldUntilTime = mDrawVsyncTime + periods * mVsyncPeriodNs - mVsyncPeriodNs / 2;
+    }
+
+    /**
+     * 放弃等待中的帧(停止预览等)
+     */
+    public synchronized void reset() {
+        mHasPendingFrame = false;
+        mDrawing = false;
+        mTrackerBusy = false;
+        mHoldUntilTime = Long.MIN_VALUE;
+    }
+
+    /**
+     * 帧是否可以绘制：不需要等待检测、检测已经完成或者等待超时
+     */
+    private boolean isReady(long now) {
+        return !mTrackingEnabled || !mTrackerBusy
+                || now - mPendingFrameTime >= mTrackerTimeoutNs;
+    }
+
+    private void drop(DropReason reason) {
+        mHasPendingFrame = false;
+        mDropCounts[reason.ordinal()]++;
+    }
+
+    ///------------------ 统计 ------------------------///
+
+    /**
+     * 是否有等待绘制的帧，有则需要继续请求vsync
+     * @return
+     */
+    public synchronized boolean hasPendingFrame() {
+        return mHasPendingFrame;
+    }
+
+    public synchronized int getDropCount(DropReason reason) {
+        return mDropCounts[reason.ordinal()];
+    }
+
+    public synchronized int getTotalDropCount() {
+        int count = 0;
+        for (int drops : mDropCounts) {
+            count += drops;
+        }
+        return count;
+    }
+
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public synchronized int getDrawnCount() {
+        return mDrawnCount;
+    }
+
+    public synchronized int getOverBudgetCount() {
+        return mOverBudgetCount;
+    }
+
+    public synchronized int getHeldVsyncCount() {
+        return mHeldVsyncCount;
+    }
+
+    /**
+     * 帧从到达到开始绘制的最大延迟
+     * @return
+     */
+    public synchronized long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    /**
+     * 帧从到达到开始绘制的平均延迟
+     * @return
+     */
+    public synchronized long getAverageLatency() {
+        return mDrawnCount > 0 ? mTotalLatency / mDrawnCount : 0;
+    }
+}
@@ -8,6 +8,8 @@ import android.util.Log;
 
 import com.cgfay.cainfilter.multimedia.EncoderManager;
 import com.cgfay.cainfilter.multimedia.MediaEncoder;
+import com.cgfay.utilslibrary.CameraUtils;
+import com.cgfay.utilslibrary.FrameTimeRecorder;
 
 import java.lang.ref.WeakReference;
 
@@ -58,6 +60,10 @@ public final class RecordManager {
 
     private String mOutputPath;
 
+    // 录制帧间隔统计，按帧的时间戳计算
+    private static final FrameTimeRecorder mFrameTimeRecorder = new FrameTimeRecorder("record",
+            1000000000L / CameraUtils.DESIRED_PREVIEW_FPS);
+
     public static RecordManager getInstance() {
         if (mInstance == null) {
             mInstance = new RecordManager();
@@ -151,6 +157,14 @@ public final class RecordManager {
     }
 
 
+    /**
+     * 获取录制的帧间隔统计
+     * @return
+     */
+    public FrameTimeRecorder getFrameTimeRecorder() {
+        return mFrameTimeRecorder;
+    }
+
     /**
      * 帧可用
      */
@@ -363,6 +377,7 @@ public final class RecordManager {
             synchronized (mReadyFence) {
                 EncoderManager.getInstance().startRecording(eglContext);
             }
+            mFrameTimeRecorder.reset();
         }
 
 
@@ -390,6 +405,7 @@ public final class RecordManager {
             synchronized (mReadyFence) {
                 EncoderManager.getInstance().drawRecorderFrame(currentTexture, timeStamp);
             }
+            mFrameTimeRecorder.onFrame(timeStamp);
         }
 
         /**
@@ -415,6 +431,8 @@ public final class RecordManager {
             synchronized (mReadyFence) {
                 EncoderManager.getInstance().pauseRecording();
             }
+            // 暂停期间不计入帧间隔
+            mFrameTimeRecorder.skipNextInterval();
         }
 
         /**
@@ -441,6 +459,9 @@ public final class RecordManager {
             synchronized (mReadyFence) {
                 EncoderManager.getInstance().setFrameRate(frameRate);
             }
+            if (frameRate > 0) {
+                mFrameTimeRecorder.setTargetInterval(1000000000L / frameRate);
+            }
         }
 
 
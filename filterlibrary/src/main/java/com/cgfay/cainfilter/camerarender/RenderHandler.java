@@ -56,12 +56,19 @@ public class RenderHandler extends Handler {
     static final int MSG_TAKE_PICTURE = 0x400;
     // 拍照回调
     static final int MSG_SET_CAPTURE_FRAME_CALLBACK = 0x401;
+    // 连拍
+    static final int MSG_TAKE_BURST = 0x402;
 
     // 切换滤镜组
     static final int MSG_FILTER_GROUP = 0x500;
     // 设置美颜等级
     static final int MSG_SET_BEAUTIFY_LEVEL = 0x501;
 
+    // 开始记录渲染阶段耗时
+    static final int MSG_START_TRACING = 0x600;
+    // 停止记录并导出跟踪文件
+    static final int MSG_STOP_TRACING = 0x601;
+
     private WeakReference<RenderThread> mWeakRender;
 
 
@@ -100,10 +107,10 @@ public class RenderHandler extends Handler {
                 }
                 break;
 
-            // 帧可用（考虑同步的问题）
+            // 帧可用，等待vsync绘制
             case MSG_FRAME:
                 if (mWeakRender != null && mWeakRender.get() != null) {
-                    mWeakRender.get().drawFrame();
+                    mWeakRender.get().requestVsync();
                 }
                 break;
 
@@ -244,6 +251,13 @@ public class RenderHandler extends Handler {
                 }
                 break;
 
+            // 连拍
+            case MSG_TAKE_BURST:
+                if (mWeakRender != null && mWeakRender.get() != null) {
+                    mWeakRender.get().takeBurst(msg.arg1);
+                }
+                break;
+
             // 设置拍照回调
             case MSG_SET_CAPTURE_FRAME_CALLBACK:
                 if (mWeakRender != null && mWeakRender.get() != null) {
@@ -251,6 +265,20 @@ public class RenderHandler extends Handler {
                 }
                 break;
 
+            // 开始记录渲染阶段耗时
+            case MSG_START_TRACING:
+                if (mWeakRender != null && mWeakRender.get() != null) {
+                    mWeakRender.get().startTracing();
+                }
+                break;
+
+            // 停止记录并导出跟踪文件
+            case MSG_STOP_TRACING:
+                if (mWeakRender != null && mWeakRender.get() != null) {
+                    mWeakRender.get().stopTracing((String) msg.obj);
+                }
+                break;
+
             default:
                 throw new IllegalStateException("Can not handle message what is: " + msg.what);
         }
@@ -5,6 +5,8 @@ import android.opengl.GLES30;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilterGroup;
 import com.cgfay.cainfilter.glfilter.camera.GLCameraFilter;
+import com.cgfay.cainfilter.glfilter.sticker.GLStickerFilterSet;
+import com.cgfay.cainfilter.trace.RenderTracer;
 import com.cgfay.cainfilter.type.GLFilterGroupType;
 import com.cgfay.cainfilter.type.GLFilterType;
 import com.cgfay.cainfilter.type.ScaleType;
@@ -26,6 +28,12 @@ public final class RenderManager {
 
     private static Object mSyncObject = new Object();
 
+    // 跟踪阶段
+    private static final RenderTracer mTracer = RenderTracer.getInstance();
+    private static final int TRACE_CAMERA_FILTER = mTracer.registerStage("GLCameraFilter");
+    private static final int TRACE_REALTIME_FILTER = mTracer.registerStage("RealtimeFilterGroup");
+    private static final int TRACE_DISPLAY = mTracer.registerStage("DisplayFilter");
+
     // 相机输入流滤镜
     private GLCameraFilter mCameraFilter;
     // 实时滤镜组
@@ -42,6 +50,8 @@ public final class RenderManager {
     // 显示大小
     private int mDisplayWidth;
     private int mDisplayHeight;
+    // 实时滤镜的渲染比例，由ResolutionController决定，显示时放大
+    private float mRenderScale = 1.0f;
 
     private ScaleType mScaleType = ScaleType.CENTER_CROP;
     private FloatBuffer mVertexBuffer;
@@ -213,13 +223,56 @@ public final class RenderManager {
             mCameraFilter.initFramebuffer(mTextureWidth, mTextureHeight);
         }
         if (mRealTimeFilter != null) {
-            mRealTimeFilter.onInputSizeChanged(width, height);
+            mRealTimeFilter.onInputSizeChanged(getRenderWidth(), getRenderHeight());
         }
         if (mDisplayFilter != null) {
             mDisplayFilter.onInputSizeChanged(width, height);
         }
     }
 
+    /**
+     * 设置实时滤镜的渲染比例，相机FBO和显示保持原大小，
+     * 实时滤镜在缩小后的渲染目标中绘制，显示和录制时通过纹理采样放大
+     * @param scale 0 ~ 1
+     */
+    public void setRenderScale(float scale) {
+        synchronized (mSyncObject) {
+            if (mRenderScale == scale) {
+                return;
+            }
+            mRenderScale = scale;
+            if (mRealTimeFilter != null && mTextureWidth > 0 && mTextureHeight > 0) {
+                mRealTimeFilter.onInputSizeChanged(getRenderWidth(), getRenderHeight());
+            }
+        }
+    }
+
+    public float getRenderScale() {
+        return mRenderScale;
+    }
+
+    /**
+     * 实时滤镜的渲染宽度
+     * @return
+     */
+    private int getRenderWidth() {
+        if (mRenderScale >= 1.0f) {
+            return mTextureWidth;
+        }
+        return ResolutionController.scaleSize(mTextureWidth, mRenderScale);
+    }
+
+    /**
+     * 实时滤镜的渲染高度
+     * @return
+     */
+    private int getRenderHeight() {
+        if (mRenderScale >= 1.0f) {
+            return mTextureHeight;
+        }
+        return ResolutionController.scaleSize(mTextureHeight, mRenderScale);
+    }
+
     /**
      * Surface显示的大小
      * @param width
@@ -270,7 +323,7 @@ public final class RenderManager {
                 mRealTimeFilter.release();
             }
             mRealTimeFilter = FilterManager.getFilterGroup(type);
-            mRealTimeFilter.onInputSizeChanged(mTextureWidth, mTextureHeight);
+            mRealTimeFilter.onInputSizeChanged(getRenderWidth(), getRenderHeight());
             mRealTimeFilter.onDisplayChanged(mDisplayWidth, mDisplayHeight);
         }
     }
@@ -296,6 +349,14 @@ public final class RenderManager {
         }
     }
 
+    /**
+     * 设置当前相机帧的时间戳，贴纸动画按时间戳计算当前帧
+     * @param timestamp SurfaceTexture的时间戳(ns)
+     */
+    public void setFrameTimestamp(long timestamp) {
+        GLStickerFilterSet.setFrameTimestamp(timestamp);
+    }
+
     /**
      * 绘制渲染
      * @param textureId
@@ -306,16 +367,22 @@ public final class RenderManager {
 
         // 将相机流绘制到FBO中
         if (mCameraFilter != null) {
+            mTracer.beginGpu(TRACE_CAMERA_FILTER);
             mCurrentTextureId = mCameraFilter.drawFrameBuffer(mCurrentTextureId);
+            mTracer.end(TRACE_CAMERA_FILTER);
         }
         // 如果存在滤镜，则绘制滤镜
         if (mRealTimeFilter != null) {
+            mTracer.beginGpu(TRACE_REALTIME_FILTER);
             mCurrentTextureId = mRealTimeFilter.drawFrameBuffer(mCurrentTextureId, mVertexBuffer, mTextureBuffer);
+            mTracer.end(TRACE_REALTIME_FILTER);
         }
         // 显示输出，需要调整视口大小
         if (mDisplayFilter != null) {
+            mTracer.beginGpu(TRACE_DISPLAY);
             GLES30.glViewport(0, 0, mDisplayWidth, mDisplayHeight);
             mDisplayFilter.drawFrame(mCurrentTextureId);
+            mTracer.end(TRACE_DISPLAY);
         }
     }
 
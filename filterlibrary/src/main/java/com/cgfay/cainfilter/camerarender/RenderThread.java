@@ -8,20 +8,31 @@ import android.opengl.GLES30;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
 import android.view.SurfaceHolder;
+import android.view.WindowManager;
 
 import com.cgfay.utilslibrary.CameraInfo;
 import com.cgfay.utilslibrary.CameraUtils;
+import com.cgfay.utilslibrary.FrameTimeRecorder;
 import com.cgfay.utilslibrary.Size;
 import com.cgfay.cainfilter.facetracker.FaceTrackManager;
 import com.cgfay.cainfilter.facetracker.FaceTrackerCallback;
+import com.cgfay.cainfilter.gles.AsyncReadback;
 import com.cgfay.cainfilter.gles.EglCore;
+import com.cgfay.cainfilter.gles.GLAsyncReadback;
+import com.cgfay.cainfilter.gles.GLGpuTimer;
 import com.cgfay.cainfilter.gles.WindowSurface;
+import com.cgfay.cainfilter.trace.RenderTracer;
 import com.cgfay.cainfilter.type.GLFilterGroupType;
 import com.cgfay.cainfilter.type.GLFilterType;
 
 import com.cgfay.cainfilter.utils.GlUtil;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 
@@ -31,10 +42,19 @@ import java.nio.ByteBuffer;
  */
 
 public class RenderThread extends HandlerThread implements SurfaceTexture.OnFrameAvailableListener,
-        Camera.PreviewCallback, FaceTrackerCallback {
+        Camera.PreviewCallback, FaceTrackerCallback, Choreographer.FrameCallback {
 
     private static final String TAG = "RenderThread";
 
+    // 跟踪阶段
+    private static final RenderTracer mTracer = RenderTracer.getInstance();
+    private static final int TRACE_FRAME = mTracer.registerStage("drawFrame");
+    private static final int TRACE_UPDATE_TEXIMAGE = mTracer.registerStage("updateTexImage");
+    private static final int TRACE_TRACK_POINTS = mTracer.registerStage("drawTrackPoints");
+    private static final int TRACE_CAPTURE = mTracer.registerStage("getCurrentFrame");
+    private static final int TRACE_SWAP_BUFFERS = mTracer.registerStage("swapBuffers");
+    private static final int TRACE_RECORDER_FRAME = mTracer.registerStage("drawRecorderFrame");
+
     private boolean isDebug = false;
     // 操作锁
     private final Object mSynOperation = new Object();
@@ -63,14 +83,29 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
     private int mImageWidth, mImageHeight;
 
     // 更新帧的锁
-    private final Object mSyncFrameNum = new Object();
     private final Object mSyncTexture = new Object();
-    // 可用帧
-    private int mFrameNum = 0;
+    // 帧调度，只绘制最新的一帧，并与vsync对齐
+    private final FrameScheduler mFrameScheduler = new FrameScheduler();
+    private Choreographer mChoreographer;
+    // 是否已经请求了vsync
+    private boolean mVsyncRequested = false;
     // 拍照
     private boolean isTakePicture = false;
+    // 连拍剩余帧数
+    private int mBurstRemaining = 0;
     // 拍照回调
     private CaptureFrameCallback mCaptureFrameCallback;
+    // 异步回读当前帧，GLES2上下文不支持时为null，改为同步回读
+    private AsyncReadback mReadback;
+    private final AsyncReadback.Callback mReadbackCallback = new AsyncReadback.Callback() {
+        @Override
+        public void onReadbackComplete(ByteBuffer buffer, int width, int height) {
+            CaptureFrameCallback callback = mCaptureFrameCallback;
+            if (callback != null) {
+                callback.onFrameCallback(buffer, width, height);
+            }
+        }
+    };
 
     // 预览回调缓存，解决previewCallback回调内存抖动问题
     private byte[] mPreviewBuffer;
@@ -79,15 +114,32 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
     private RenderStateChangedListener mRenderStateListener;
     private RenderHandler mRenderHandler;
 
-    // 计算帧率
-    private FrameRateMeter mFrameRateMeter;
+    // 预览帧间隔统计，常驻开启
+    private final FrameTimeRecorder mFrameTimeRecorder = new FrameTimeRecorder("preview",
+            1000000000L / CameraUtils.DESIRED_PREVIEW_FPS);
+    // 上一次回调帧率时的统计
+    private FrameTimeRecorder.Snapshot mFpsSnapshot;
+    private long mFpsReportTime;
     private WeakReference<Handler> mWeakFpsHandler;
+    // GPU计时，不支持EXT_disjoint_timer_query时为null
+    private GLGpuTimer mGpuTimer;
+    // 动态分辨率，绘制时间超出预览帧间隔时降低实时滤镜的渲染比例
+    private final ResolutionController mResolutionController = new ResolutionController(
+            1000000000L / CameraUtils.DESIRED_PREVIEW_FPS);
+
+    // 滤镜预热，在共享上下文中提前编译当前滤镜前后几个滤镜的program、上传贴图
+    private final FilterWarmUpScheduler mWarmUpScheduler =
+            new FilterWarmUpScheduler(FilterWarmUpThread.GL_BACKEND);
+    private FilterWarmUpThread mWarmUpThread;
+    // 当前的颜色滤镜
+    private GLFilterType mColorFilterType = GLFilterType.SOURCE;
 
     private Context mContext;
 
     public RenderThread(Context context, String name) {
         super(name);
         mContext = context;
+        mWarmUpScheduler.setFilterList(ColorFilterManager.getInstance().getFilterType());
     }
 
     public void setRenderHandler(RenderHandler handler) {
@@ -96,7 +148,39 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
 
     @Override
     public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        // SurfaceTexture在渲染线程创建，回调也在渲染线程
+        if (isPreviewing) {
+            mFrameScheduler.onFrameAvailable();
+            requestVsync();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mVsyncRequested = false;
+        if (mFrameScheduler.onVsync(frameTimeNanos)) {
+            long start = System.nanoTime();
+            drawFrame();
+            mFrameScheduler.onDrawFinished();
+            // 绘制加交换缓冲的CPU耗时，GPU跟不上时会阻塞在交换缓冲上，可以近似反映GPU负载
+            if (mResolutionController.onFrameTime(System.nanoTime() - start)) {
+                RenderManager.getInstance().setRenderScale(mResolutionController.getScale());
+            }
+        }
+        // 仍有等待绘制的帧(等待检测结果或超出预算)，继续等待下一个vsync
+        if (mFrameScheduler.hasPendingFrame()) {
+            requestVsync();
+        }
+    }
 
+    /**
+     * 请求下一个vsync，需要在渲染线程调用
+     */
+    void requestVsync() {
+        if (!mVsyncRequested && mChoreographer != null) {
+            mVsyncRequested = true;
+            mChoreographer.postFrameCallback(this);
+        }
     }
 
     private long time = 0;
@@ -121,9 +205,20 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
     }
 
     void surfaceCreated(SurfaceHolder holder) {
-        mEglCore = new EglCore(null, EglCore.FLAG_RECORDABLE);
+        // Choreographer与线程绑定，需要在渲染线程获取
+        mChoreographer = Choreographer.getInstance();
+        mFrameScheduler.setVsyncPeriod(getVsyncPeriod());
+        mFrameScheduler.reset();
+        mFrameTimeRecorder.skipNextInterval();
+        mResolutionController.reset();
+        RenderManager.getInstance().setRenderScale(mResolutionController.getScale());
+        // 优先使用GLES3，PBO回读、VAO和3D查找表需要GLES3，不支持时退回GLES2
+        mEglCore = new EglCore(null, EglCore.FLAG_RECORDABLE | EglCore.FLAG_TRY_GLES3);
         mDisplaySurface = new WindowSurface(mEglCore, holder.getSurface(), false);
         mDisplaySurface.makeCurrent();
+        mGpuTimer = GLGpuTimer.create();
+        mTracer.setGpuTimer(mGpuTimer);
+        mReadback = mEglCore.getGlVersion() >= 3 ? GLAsyncReadback.getCurrent() : null;
         mCameraTextureId = GlUtil.createTextureOES();
         mCameraTexture = new SurfaceTexture(mCameraTextureId);
         mCameraTexture.setOnFrameAvailableListener(this);
@@ -136,6 +231,7 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
         // 渲染初始化
         RenderManager.getInstance().init();
         RenderManager.getInstance().onInputSizeChanged(mImageWidth, mImageHeight);
+        startWarmUp();
 
         // 禁用深度测试和背面绘制
         GLES30.glDisable(GLES30.GL_DEPTH_TEST);
@@ -165,6 +261,12 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
 
     void surfaceDestoryed() {
         isPreviewing = false;
+        if (mChoreographer != null) {
+            mChoreographer.removeFrameCallback(this);
+            mChoreographer = null;
+            mVsyncRequested = false;
+        }
+        mFrameScheduler.reset();
         // 渲染状态回调
         if (mRenderStateListener != null) {
             mRenderStateListener.onPreviewing(isPreviewing);
@@ -178,9 +280,17 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
         CameraUtils.setPreviewCallbackWithBuffer(null, null);
         // 释放相机
         CameraUtils.releaseCamera();
+        // 预热线程的上下文与渲染上下文共享，需要先停止
+        stopWarmUp();
         // 释放Filter(需要在EGLContext释放之前处理，否则会报以下错误：
         // E/libEGL: call to OpenGL ES API with no current context (logged once per thread)
         RenderManager.getInstance().release();
+        // 放弃还没有返回的GPU计时查询
+        mTracer.setGpuTimer(null);
+        if (mGpuTimer != null) {
+            mGpuTimer.release();
+            mGpuTimer = null;
+        }
         if (mCameraTexture != null) {
             mCameraTexture.release();
             mCameraTexture = null;
@@ -189,6 +299,8 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
             mDisplaySurface.release();
             mDisplaySurface = null;
         }
+        // 上下文销毁时完成等待中的回读
+        mReadback = null;
         if (mEglCore != null) {
             mEglCore.release();
             mEglCore = null;
@@ -213,6 +325,23 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
         FaceTrackManager.getInstance().setBackReverse(ParamsManager.mBackReverse); // 相机是否倒置
         FaceTrackManager.getInstance().initFaceTracking(mContext);
         FaceTrackManager.getInstance().setFaceCallback(this);
+        // 绘制前等待关键点检测结果
+        mFrameScheduler.setTrackingEnabled(true);
+    }
+
+    /**
+     * 获取屏幕的刷新周期
+     * @return
+     */
+    private long getVsyncPeriod() {
+        WindowManager manager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        if (manager != null) {
+            Display display = manager.getDefaultDisplay();
+            if (display != null && display.getRefreshRate() > 0) {
+                return (long) (1000000000L / display.getRefreshRate());
+            }
+        }
+        return FrameScheduler.DEFAULT_VSYNC_PERIOD_NS;
     }
 
     /**
@@ -220,14 +349,16 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
      * @param data
      */
     void onPreviewCallback(byte[] data) {
-        // 如果允许关键点检测，则进入关键点检测阶段，否则立即更新帧
+        // 如果允许关键点检测，则进入关键点检测阶段，检测期间到达的帧需要等待检测结果
+        mFrameScheduler.onTrackingStarted();
         FaceTrackManager.getInstance().onFaceTracking(data);
     }
 
 
     @Override
     public void onTrackingFinish(boolean hasFaces) {
-        // 检测完成回调，不管是否存在人脸，都需要强制更新帧
+        // 检测完成回调，不管是否存在人脸，等待中的帧都可以绘制了
+        mFrameScheduler.onTrackingFinished();
         addNewFrame();
     }
 
@@ -252,6 +383,7 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
      */
     void stopPreview() {
         isPreviewing = false;
+        mFrameTimeRecorder.skipNextInterval();
         CameraUtils.stopPreview();
         if (mRenderStateListener != null) {
             mRenderStateListener.onPreviewing(isPreviewing);
@@ -312,9 +444,44 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
      * @param type Filter类型
      */
     void changeFilter(GLFilterType type) {
+        mColorFilterType = type;
+        mWarmUpScheduler.onFilterSelected(type);
         RenderManager.getInstance().changeFilter(type);
     }
 
+    /**
+     * 在共享上下文中预热当前滤镜附近的滤镜
+     */
+    private void startWarmUp() {
+        mWarmUpScheduler.restart();
+        mWarmUpScheduler.setCurrentFilter(mColorFilterType);
+        mWarmUpThread = new FilterWarmUpThread(mEglCore.getEGLContext(), mWarmUpScheduler);
+        mWarmUpThread.start();
+    }
+
+    /**
+     * 停止预热，等待正在执行的预热任务完成
+     */
+    private void stopWarmUp() {
+        if (mWarmUpThread != null) {
+            mWarmUpThread.quit();
+            mWarmUpThread = null;
+            Log.d(TAG, "filter warm-up hit rate: " + mWarmUpScheduler.getHitRate()
+                    + " (" + mWarmUpScheduler.getHitCount() + " hits, "
+                    + mWarmUpScheduler.getMissCount() + " misses, "
+                    + mWarmUpScheduler.getWarmedCount() + " warmed, "
+                    + mWarmUpScheduler.getCancelledCount() + " cancelled)");
+        }
+    }
+
+    /**
+     * 滤镜预热的命中率
+     * @return
+     */
+    float getWarmUpHitRate() {
+        return mWarmUpScheduler.getHitRate();
+    }
+
     /**
      * 切换滤镜组
      * @param type
@@ -331,17 +498,17 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
      */
     void drawFrame() {
         temp = System.currentTimeMillis();
-        // 如果存在新的帧，则更新帧
-        synchronized (mSyncFrameNum) {
-            synchronized (mSyncTexture) {
-                if (mCameraTexture != null) {
-                    while (mFrameNum != 0) {
-                        mCameraTexture.updateTexImage();
-                        --mFrameNum;
-                    }
-                } else {
-                    return;
-                }
+        mTracer.beginFrame();
+        mTracer.begin(TRACE_FRAME);
+        // 更新到最新的帧，旧的帧由SurfaceTexture直接丢弃
+        synchronized (mSyncTexture) {
+            if (mCameraTexture != null) {
+                mTracer.begin(TRACE_UPDATE_TEXIMAGE);
+                mCameraTexture.updateTexImage();
+                mTracer.end(TRACE_UPDATE_TEXIMAGE);
+            } else {
+                mTracer.end(TRACE_FRAME);
+                return;
             }
         }
 
@@ -349,36 +516,62 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
         mDisplaySurface.makeCurrent();
         mCameraTexture.getTransformMatrix(mMatrix);
         RenderManager.getInstance().setTextureTransformMatirx(mMatrix);
+        RenderManager.getInstance().setFrameTimestamp(mCameraTexture.getTimestamp());
         // 绘制
         draw();
-        // 拍照状态
-        if (isTakePicture) {
-            isTakePicture = false;
-            ByteBuffer buffer = mDisplaySurface.getCurrentFrame();
-            mCaptureFrameCallback.onFrameCallback(buffer,
-                    mDisplaySurface.getWidth(), mDisplaySurface.getHeight());
+        // 拍照或连拍状态，异步回读，数据就绪后在回读线程回调
+        // GLES2上下文同步回读，在渲染线程回调
+        if (isTakePicture || mBurstRemaining > 0) {
+            if (isTakePicture) {
+                isTakePicture = false;
+            } else {
+                mBurstRemaining--;
+            }
+            mTracer.begin(TRACE_CAPTURE);
+            if (mReadback != null) {
+                mReadback.request(mDisplaySurface.getWidth(), mDisplaySurface.getHeight(),
+                        mReadbackCallback);
+            } else {
+                mReadbackCallback.onReadbackComplete(mDisplaySurface.getCurrentFrame(),
+                        mDisplaySurface.getWidth(), mDisplaySurface.getHeight());
+            }
+            mTracer.end(TRACE_CAPTURE);
         }
+        mTracer.begin(TRACE_SWAP_BUFFERS);
         mDisplaySurface.swapBuffers();
+        mTracer.end(TRACE_SWAP_BUFFERS);
+        // 完成之前帧的回读
+        if (mReadback != null && mReadback.hasPending()) {
+            mReadback.poll();
+        }
 
         // 是否处于录制状态
         if (isRecording && !isRecordingPause) {
+            mTracer.begin(TRACE_RECORDER_FRAME);
             RecordManager.getInstance().frameAvailable();
             int currentTexture = RenderManager.getInstance().getCurrentTexture();
             RecordManager.getInstance()
                     .drawRecorderFrame(currentTexture, mCameraTexture.getTimestamp());
+            mTracer.end(TRACE_RECORDER_FRAME);
         }
+        mTracer.end(TRACE_FRAME);
         // 调试信息
         if (isDebug) {
             Log.d(TAG, "drawFrame time = " + (System.currentTimeMillis() - temp));
         }
 
-        // 计算绘制帧
-        if (mFrameRateMeter != null) {
-            mFrameRateMeter.drawFrameCount();
-            if (mWeakFpsHandler != null && mWeakFpsHandler.get() != null) {
-                mWeakFpsHandler.get().sendMessage(mWeakFpsHandler.get()
-                        .obtainMessage(FrameRateMeter.MSG_GAIN_FPS, mFrameRateMeter.getFPS()));
-            }
+        // 记录帧间隔
+        long now = System.nanoTime();
+        mFrameTimeRecorder.onFrame(now);
+        // 每秒回调一次帧率
+        if (mWeakFpsHandler != null && mWeakFpsHandler.get() != null
+                && now - mFpsReportTime >= 1000000000L) {
+            FrameTimeRecorder.Snapshot snapshot = mFrameTimeRecorder.snapshot();
+            float fps = mFpsSnapshot != null ? snapshot.getFpsSince(mFpsSnapshot) : snapshot.getFps();
+            mFpsSnapshot = snapshot;
+            mFpsReportTime = now;
+            mWeakFpsHandler.get().sendMessage(mWeakFpsHandler.get()
+                    .obtainMessage(DrawerManager.MSG_GAIN_FPS, fps));
         }
     }
 
@@ -390,7 +583,9 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
         RenderManager.getInstance().drawFrame(mCameraTextureId);
 
         // 是否绘制关键点
+        mTracer.beginGpu(TRACE_TRACK_POINTS);
         FaceTrackManager.getInstance().drawTrackPoints();
+        mTracer.end(TRACE_TRACK_POINTS);
     }
 
 
@@ -401,6 +596,14 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
         isTakePicture = true;
     }
 
+    /**
+     * 连拍，接下来的count帧都会回读，count为0时停止
+     * @param count
+     */
+    void takeBurst(int count) {
+        mBurstRemaining = count;
+    }
+
     /**
      * 设置拍照回调
      * @param callback
@@ -492,28 +695,78 @@ public class RenderThread extends HandlerThread implements SurfaceTexture.OnFram
     }
 
     /**
-     * 添加新的一帧
+     * 检测完成，通知渲染线程请求vsync，绘制由帧调度器决定
      */
     private void addNewFrame() {
-        synchronized (mSyncFrameNum) {
-            if (isPreviewing) {
-                ++mFrameNum;
-                if (mRenderHandler != null) {
-                    mRenderHandler.removeMessages(RenderHandler.MSG_FRAME);
-                    mRenderHandler.sendMessageAtFrontOfQueue(mRenderHandler
-                            .obtainMessage(RenderHandler.MSG_FRAME));
+        if (isPreviewing && mRenderHandler != null) {
+            mRenderHandler.removeMessages(RenderHandler.MSG_FRAME);
+            mRenderHandler.sendMessage(mRenderHandler.obtainMessage(RenderHandler.MSG_FRAME));
+        }
+    }
+
+    /**
+     * 获取帧调度器，用于查询丢帧统计
+     * @return
+     */
+    public FrameScheduler getFrameScheduler() {
+        return mFrameScheduler;
+    }
+
+    /**
+     * 获取动态分辨率控制器，可以关闭或者修改目标时间
+     * @return
+     */
+    public ResolutionController getResolutionController() {
+        return mResolutionController;
+    }
+
+    /**
+     * 开始记录各个渲染阶段的耗时，下一帧生效
+     */
+    void startTracing() {
+        mTracer.clear();
+        mTracer.setEnabled(true);
+    }
+
+    /**
+     * 停止记录并导出为Chrome/Perfetto json跟踪文件
+     * @param path 文件路径
+     */
+    void stopTracing(String path) {
+        mTracer.setEnabled(false);
+        Writer writer = null;
+        try {
+            writer = new FileWriter(path);
+            mTracer.export(writer);
+        } catch (IOException e) {
+            Log.e(TAG, "export trace failed: " + path, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
         }
     }
 
+    /**
+     * 获取预览的帧间隔统计，可以在任意线程获取快照
+     * @return
+     */
+    public FrameTimeRecorder getFrameTimeRecorder() {
+        return mFrameTimeRecorder;
+    }
+
     /**
      * 设置Fps的handler回调
      * @param handler
      */
     void setFpsHandler(Handler handler) {
         mWeakFpsHandler = new WeakReference<Handler>(handler);
-        mFrameRateMeter = new FrameRateMeter();
+        mFpsSnapshot = null;
+        mFpsReportTime = 0;
     }
 
     /**
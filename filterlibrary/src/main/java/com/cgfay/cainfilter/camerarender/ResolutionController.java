@@ -0,0 +1,260 @@
+package com.cgfay.cainfilter.camerarender;
+
+/**
+ * 动态分辨率控制器
+ * 根据每帧的绘制时间调整实时滤镜(美颜、颜色滤镜、贴纸)内部的渲染比例，显示和录制时再放大
+ * 1、绘制时间先做指数平滑，换算成相对目标的误差，误差落在[目标 * (1 - 死区), 目标]之间时不调整
+ * 2、PID作用在像素比例(比例的平方)上，绘制开销与像素数近似线性，积分项限制在可用范围内防止饱和
+ * 3、比例按固定步长量化，原始比例超出当前档位半个步长再加上回差时才切换档位，
+ *    切换后冷却若干帧，期间不积分，并重新开始平滑，避免测量滞后导致来回切换
+ * 4、升档前按像素数估算新档位的绘制时间，会超出目标时不升档，
+ *    避免没有档位正好落在死区内时在相邻两档之间反复切换，
+ *    估算使用更慢的平滑值，并且新档位要稳定若干帧之后才允许升档，降低抖动带来的误判
+ * 只依赖传入的帧时间，可以在JVM上用模拟的负载曲线验证
+ * Created by cain on 2018/3/25.
+ */
+public final class ResolutionController {
+
+    // 默认最小比例和档位步长
+    public static final float DEFAULT_MIN_SCALE = 0.5f;
+    public static final float DEFAULT_STEP = 0.1f;
+
+    // PID参数，误差为相对目标时间的比例
+    private static final float KP = 0.4f;
+    private static final float KI = 0.1f;
+    private static final float KD = 0.2f;
+    // 帧时间平滑系数
+    private static final float SMOOTHING = 0.25f;
+    // 升档估算用的平滑系数
+    private static final float SLOW_SMOOTHING = 1 / 32f;
+    // 目标以下不调整的范围
+    private static final float DEAD_BAND = 0.15f;
+    // 档位切换的回差，单位为步长
+    private static final float HYSTERESIS = 0.25f;
+    // 切换档位后的冷却帧数
+    private static final int COOLDOWN_FRAMES = 8;
+    // 切换档位后至少经过的帧数才允许升档
+    private static final int SETTLE_FRAMES = 30;
+
+    private final float mMinScale;
+    private final float mStep;
+    private long mTargetNs;
+    private boolean mEnabled = true;
+
+    // 平滑后的帧时间，小于0表示重新开始
+    private float mSmoothedNs = -1;
+    private float mSlowNs = -1;
+    // 当前档位已经经过的帧数
+    private int mLevelFrames;
+    // 像素比例的积分状态
+    private float mIntegral = 1.0f;
+    private float mLastError;
+    // 当前档位
+    private float mScale = 1.0f;
+    private int mCooldown;
+
+    // 统计
+    private int mFrameCount;
+    private int mChangeCount;
+
+    /**
+     * @param targetNs 每帧绘制时间的目标
+     */
+    public ResolutionController(long targetNs) {
+        this(targetNs, DEFAULT_MIN_SCALE, DEFAULT_STEP);
+    }
+
+    /**
+     * @param targetNs 每帧绘制时间的目标
+     * @param minScale 最小比例
+     * @param step 档位步长
+     */
+    public ResolutionController(long targetNs, float minScale, float step) {
+        if (minScale <= 0 || minScale > 1 || step <= 0) {
+            throw new IllegalArgumentException("invalid scale range " + minScale + ", " + step);
+        }
+        mMinScale = minScale;
+        mStep = step;
+        setTarget(targetNs);
+    }
+
+    /**
+     * 设置每帧绘制时间的目标
+     * @param targetNs
+     */
+    public synchronized void setTarget(long targetNs) {
+        if (targetNs <= 0) {
+            throw new IllegalArgumentException("target must be positive");
+        }
+        mTargetNs = targetNs;
+    }
+
+    public synchronized long getTarget() {
+        return mTargetNs;
+    }
+
+    /**
+     * 关闭时比例恢复为1，不再调整
+     * @param enabled
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            reset();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * 恢复到全分辨率并清空状态(切换相机、重新开始预览等)
+     */
+    public synchronized void reset() {
+        mSmoothedNs = -1;
+        mSlowNs = -1;
+        mLevelFrames = 0;
+        mIntegral = 1.0f;
+        mLastError = 0;
+        mScale = 1.0f;
+        mCooldown = 0;
+    }
+
+    /**
+     * 记录一帧的绘制时间
+     * @param frameNs
+     * @return 比例是否发生了变化
+     */
+    public synchronized boolean onFrameTime(long frameNs) {
+        if (!mEnabled) {
+            return false;
+        }
+        mFrameCount++;
+        mLevelFrames++;
+        if (mSmoothedNs < 0) {
+            mSmoothedNs = frameNs;
+            mSlowNs = frameNs;
+        } else {
+            mSmoothedNs += (frameNs - mSmoothedNs) * SMOOTHING;
+            mSlowNs += (frameNs - mSlowNs) * SLOW_SMOOTHING;
+        }
+        if (mCooldown > 0) {
+            mCooldown--;
+            return false;
+        }
+        float error = error(mSmoothedNs);
+        float minPixels = mMinScale * mMinScale;
+        mIntegral = clamp(mIntegral + KI * error, minPixels, 1.0f);
+        float pixels = clamp(mIntegral + KP * error + KD * (error - mLastError), minPixels, 1.0f);
+        mLastError = error;
+        float raw = (float) Math.sqrt(pixels);
+        float threshold = mStep * (0.5f + HYSTERESIS);
+        if (Math.abs(raw - mScale) < threshold) {
+            return false;
+        }
+        float scale = quantize(raw);
+        if (scale > mScale) {
+            // 升档前按像素数等比估算新档位的绘制时间，超出目标就降低升档的幅度，
+            // 一档都放不下时保持当前档位，积分不再继续累积
+            if (mLevelFrames < SETTLE_FRAMES) {
+                scale = mScale;
+            }
+            while (scale > mScale && predict(scale) > mTargetNs) {
+                scale = quantize(scale - mStep);
+            }
+            if (scale <= mScale) {
+                mIntegral = mScale * mScale;
+                return false;
+            }
+        }
+        if (scale == mScale) {
+            return false;
+        }
+        mScale = scale;
+        mChangeCount++;
+        // 新档位的测量重新开始，积分从新档位出发
+        mIntegral = clamp(scale * scale, minPixels, 1.0f);
+        mLastError = 0;
+        mSmoothedNs = -1;
+        mSlowNs = -1;
+        mLevelFrames = 0;
+        mCooldown = COOLDOWN_FRAMES;
+        return true;
+    }
+
+    /**
+     * 估算某个档位的绘制时间，忽略固定开销，结果偏大
+     */
+    private float predict(float scale) {
+        return mSlowNs * (scale * scale) / (mScale * mScale);
+    }
+
+    /**
+     * 相对误差，正数表示还有余量
+     */
+    private float error(float frameNs) {
+        float target = mTargetNs;
+        if (frameNs > target) {
+            return (target - frameNs) / target;
+        }
+        float lower = target * (1 - DEAD_BAND);
+        if (frameNs < lower) {
+            return (lower - frameNs) / target;
+        }
+        return 0;
+    }
+
+    /**
+     * 量化到档位，1为最高档，往下每档减少一个步长，不低于最小比例
+     */
+    private float quantize(float scale) {
+        int steps = Math.round((1.0f - scale) / mStep);
+        float result = 1.0f - steps * mStep;
+        // 避免浮点误差产生的0.70000005之类的值
+        result = Math.round(result * 1000) / 1000f;
+        return clamp(result, mMinScale, 1.0f);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    /**
+     * 当前比例
+     * @return
+     */
+    public synchronized float getScale() {
+        return mScale;
+    }
+
+    /**
+     * 平滑后的帧时间，刚切换档位时为-1
+     * @return
+     */
+    public synchronized long getSmoothedFrameTime() {
+        return (long) mSmoothedNs;
+    }
+
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * 档位切换的次数
+     * @return
+     */
+    public synchronized int getChangeCount() {
+        return mChangeCount;
+    }
+
+    /**
+     * 按比例缩放尺寸，结果为不小于2的偶数
+     * @param size
+     * @param scale
+     * @return
+     */
+    public static int scaleSize(int size, float scale) {
+        return Math.max(2, Math.round(size * scale / 2) * 2);
+    }
+}
@@ -0,0 +1,44 @@
+package com.cgfay.cainfilter.capture;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 使用Bitmap.compress的JPEG编码器
+ * 尺寸不变时复用同一个Bitmap，编码结果直接写到输出流
+ * Created by cain on 2018/3/25.
+ */
+public final class BitmapJpegEncoder implements ImageEncoder {
+
+    private final int mQuality;
+    private Bitmap mBitmap;
+
+    /**
+     * @param quality JPEG质量，0~100
+     */
+    public BitmapJpegEncoder(int quality) {
+        mQuality = quality;
+    }
+
+    @Override
+    public void encode(int[] argb, int width, int height, OutputStream out) throws IOException {
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            release();
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        mBitmap.setPixels(argb, 0, width, 0, 0, width, height);
+        if (!mBitmap.compress(Bitmap.CompressFormat.JPEG, mQuality, out)) {
+            throw new IOException("failed to compress " + width + "x" + height);
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.cgfay.cainfilter.capture;
+
+import com.cgfay.utilslibrary.FrameTimeHistogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 连拍
+ * 1、begin开始一次连拍，之后每个回读的帧通过submit一次遍历变换到预分配帧环的槽位中
+ * 2、多个编码线程各自持有一个编码器，按写入顺序并行编码保存
+ * 3、编码跟不上时按DropPolicy丢弃新帧或者挤掉等待中的帧，submit不会阻塞，预览不会因此卡住
+ * 4、每一帧最终只会有保存、丢弃、失败中的一个结果，全部结束后回调onBurstFinished
+ * submit只能在一个线程调用(回读线程)
+ * Created by cain on 2018/3/25.
+ */
+public final class BurstCapture {
+
+    /**
+     * 连拍回调
+     */
+    public interface Listener {
+        /**
+         * 帧已经保存，在编码线程回调
+         * @param index 连拍中的帧序号
+         * @param path
+         * @param latency 各阶段耗时
+         */
+        void onFrameSaved(int index, String path, CaptureLatency latency);
+
+        /**
+         * 帧被丢弃，在submit的调用线程回调
+         * @param index
+         */
+        void onFrameDropped(int index);
+
+        /**
+         * 保存失败，在编码线程回调
+         * @param index
+         * @param path
+         * @param e
+         */
+        void onFrameFailed(int index, String path, Exception e);
+
+        /**
+         * 连拍结束，所有帧都已经有了结果
+         * @param saved 保存的帧数
+         * @param dropped 丢弃的帧数
+         * @param failed 失败的帧数
+         */
+        void onBurstFinished(int saved, int dropped, int failed);
+    }
+
+    /**
+     * 每个编码线程创建一个编码器
+     */
+    public interface EncoderFactory {
+        ImageEncoder create();
+    }
+
+    /**
+     * 帧的保存路径
+     */
+    public interface PathGenerator {
+        String getPath(int index);
+    }
+
+    private final PixelTransform mTransform;
+    private final EncoderFactory mEncoderFactory;
+    private final Listener mListener;
+    private final FrameRing mRing;
+    private final Thread[] mWorkers;
+
+    // 当前连拍，受this保护
+    private PathGenerator mPaths;
+    private int mFrameCount;
+    private int mSubmitted;
+    private int mSaved;
+    private int mDropped;
+    private int mFailed;
+    private boolean mAccepting;
+    private boolean mRunning;
+    private boolean mReleased;
+
+    // 各阶段耗时，跨连拍累计
+    private final FrameTimeHistogram mTransformHistogram = new FrameTimeHistogram();
+    private final FrameTimeHistogram mQueueHistogram = new FrameTimeHistogram();
+    private final FrameTimeHistogram mEncodeHistogram = new FrameTimeHistogram();
+    private final FrameTimeHistogram mTotalHistogram = new FrameTimeHistogram();
+
+    /**
+     * @param transform 像素变换
+     * @param encoderFactory 编码器工厂
+     * @param workerCount 编码线程个数
+     * @param ringSize 帧环槽位个数
+     * @param maxPixels 每帧最多的像素个数，按此预分配帧环
+     * @param policy 帧环已满时的处理方式
+     * @param listener
+     */
+    public BurstCapture(PixelTransform transform, EncoderFactory encoderFactory,
+                        int workerCount, int ringSize, int maxPixels, DropPolicy policy,
+                        Listener listener) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("worker count must be positive: " + workerCount);
+        }
+        mTransform = transform;
+        mEncoderFactory = encoderFactory;
+        mListener = listener;
+        mRing = new FrameRing(ringSize, maxPixels, policy);
+        mWorkers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "BurstWorker-" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * 开始连拍，上一次连拍还没有结束时抛出异常
+     * @param frameCount 帧数
+     * @param paths 保存路径
+     */
+    public synchronized void begin(int frameCount, PathGenerator paths) {
+        if (frameCount <= 0) {
+            throw new IllegalArgumentException("frame count must be positive: " + frameCount);
+        }
+        if (mReleased) {
+            throw new IllegalStateException("burst capture released");
+        }
+        if (mRunning) {
+            throw new IllegalStateException("previous burst not finished");
+        }
+        mPaths = paths;
+        mFrameCount = frameCount;
+        mSubmitted = 0;
+        mSaved = 0;
+        mDropped = 0;
+        mFailed = 0;
+        mAccepting = true;
+        mRunning = true;
+    }
+
+    /**
+     * 是否还在接收帧
+     * @return
+     */
+    public synchronized boolean isAccepting() {
+        return mAccepting;
+    }
+
+    /**
+     * 连拍是否还没有结束(还在接收帧或者还有帧没有保存)
+     * @return
+     */
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 提交一帧，像素在返回前已经拷贝
+     * @param rgba RGBA像素
+     * @param width
+     * @param height
+     * @param timestampNs 帧时间
+     * @return 是否放进了帧环，不在连拍中或者按策略丢弃时返回false
+     */
+    public boolean submit(ByteBuffer rgba, int width, int height, long timestampNs) {
+        int index;
+        FrameRing.Slot slot;
+        boolean finished;
+        synchronized (this) {
+            if (!mAccepting) {
+                return false;
+            }
+            index = mSubmitted++;
+            if (mSubmitted == mFrameCount) {
+                mAccepting = false;
+            }
+            slot = mRing.claim(index, timestampNs);
+            if (slot == null) {
+                mDropped++;
+            } else if (slot.getReplacedIndex() != FrameRing.NO_FRAME) {
+                mDropped++;
+            }
+            finished = checkFinished();
+        }
+        if (slot == null) {
+            mListener.onFrameDropped(index);
+        } else {
+            if (slot.getReplacedIndex() != FrameRing.NO_FRAME) {
+                mListener.onFrameDropped(slot.getReplacedIndex());
+            }
+            try {
+                mTransform.apply(rgba, width, height, slot.getPixels());
+                slot.setSize(mTransform.getOutputWidth(width, height),
+                        mTransform.getOutputHeight(width, height));
+            } catch (RuntimeException e) {
+                mRing.cancel(slot);
+                resolve(index, null, null, e);
+                throw e;
+            }
+            mRing.publish(slot);
+        }
+        if (finished) {
+            notifyFinished();
+        }
+        return slot != null;
+    }
+
+    /**
+     * 提前结束接收帧，已经接收的帧继续保存
+     */
+    public void end() {
+        boolean finished;
+        synchronized (this) {
+            if (!mAccepting) {
+                return;
+            }
+            mAccepting = false;
+            finished = checkFinished();
+        }
+        if (finished) {
+            notifyFinished();
+        }
+    }
+
+    /**
+     * 编码线程
+     */
+    private void loop() {
+        ImageEncoder encoder = mEncoderFactory.create();
+        try {
+            while (true) {
+                FrameRing.Slot slot;
+                try {
+                    slot = mRing.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (slot == null) {
+                    break;
+                }
+                save(encoder, slot);
+            }
+        } finally {
+            encoder.release();
+        }
+    }
+
+    /**
+     * 编码并保存一帧
+     */
+    private void save(ImageEncoder encoder, FrameRing.Slot slot) {
+        long dequeued = System.nanoTime();
+        int index = slot.getFrameIndex();
+        String path;
+        synchronized (this) {
+            path = mPaths.getPath(index);
+        }
+        Exception error = null;
+        try {
+            CaptureFiles.write(encoder, slot.getPixels(), slot.getWidth(), slot.getHeight(), path);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        long saved = System.nanoTime();
+        CaptureLatency latency = null;
+        if (error == null) {
+            latency = new CaptureLatency(slot.getPublishNs() - slot.getClaimNs(),
+                    dequeued - slot.getPublishNs(), saved - dequeued, saved - slot.getClaimNs());
+            mTransformHistogram.record(latency.getTransformNs());
+            mQueueHistogram.record(latency.getQueueNs());
+            mEncodeHistogram.record(latency.getEncodeNs());
+            mTotalHistogram.record(latency.getTotalNs());
+        }
+        mRing.recycle(slot);
+        resolve(index, path, latency, error);
+    }
+
+    /**
+     * 记录一帧的结果
+     */
+    private void resolve(int index, String path, CaptureLatency latency, Exception error) {
+        boolean finished;
+        synchronized (this) {
+            if (error == null) {
+                mSaved++;
+            } else {
+                mFailed++;
+            }
+            finished = checkFinished();
+        }
+        if (error == null) {
+            mListener.onFrameSaved(index, path, latency);
+        } else {
+            mListener.onFrameFailed(index, path, error);
+        }
+        if (finished) {
+            notifyFinished();
+        }
+    }
+
+    /**
+     * 不再接收帧并且所有帧都有了结果时结束连拍，需要持有this
+     * @return 是否刚刚结束
+     */
+    private boolean checkFinished() {
+        if (mRunning && !mAccepting && mSaved + mDropped + mFailed == mSubmitted) {
+            mRunning = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void notifyFinished() {
+        int saved;
+        int dropped;
+        int failed;
+        synchronized (this) {
+            saved = mSaved;
+            dropped = mDropped;
+            failed = mFailed;
+        }
+        mListener.onBurstFinished(saved, dropped, failed);
+    }
+
+    /**
+     * 结束当前连拍，已经接收的帧保存完成后编码线程退出
+     */
+    public void release() {
+        synchronized (this) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+        }
+        end();
+        mRing.close();
+    }
+
+    /**
+     * 等待编码线程退出
+     * @param timeoutMs
+     * @return 是否全部退出
+     * @throws InterruptedException
+     */
+    public boolean awaitRelease(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Thread worker : mWorkers) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining > 0) {
+                worker.join(remaining);
+            }
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getWorkerCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * 帧环能放下的最大像素个数
+     * @return
+     */
+    public int getMaxPixels() {
+        return mRing.getSlotPixels();
+    }
+
+    public FrameRing getRing() {
+        return mRing;
+    }
+
+    public synchronized int getSavedCount() {
+        return mSaved;
+    }
+
+    public synchronized int getDroppedCount() {
+        return mDropped;
+    }
+
+    public synchronized int getFailedCount() {
+        return mFailed;
+    }
+
+    public FrameTimeHistogram getTransformHistogram() {
+        return mTransformHistogram;
+    }
+
+    public FrameTimeHistogram getQueueHistogram() {
+        return mQueueHistogram;
+    }
+
+    public FrameTimeHistogram getEncodeHistogram() {
+        return mEncodeHistogram;
+    }
+
+    public FrameTimeHistogram getTotalHistogram() {
+        return mTotalHistogram;
+    }
+}
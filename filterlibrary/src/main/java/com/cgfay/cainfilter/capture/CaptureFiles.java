@@ -0,0 +1,57 @@
+package com.cgfay.cainfilter.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 拍照文件写入
+ * Created by cain on 2018/3/25.
+ */
+final class CaptureFiles {
+
+    // 文件输出缓冲大小
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private CaptureFiles() {}
+
+    /**
+     * 编码结果直接写到文件输出流，失败时删除不完整的文件
+     * @param encoder
+     * @param argb
+     * @param width
+     * @param height
+     * @param path
+     * @throws IOException
+     */
+    static void write(ImageEncoder encoder, int[] argb, int width, int height, String path)
+            throws IOException {
+        File file = new File(path);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        OutputStream out = null;
+        boolean success = false;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file), OUTPUT_BUFFER_SIZE);
+            encoder.encode(argb, width, height, out);
+            out.close();
+            out = null;
+            success = true;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+            if (!success) {
+                file.delete();
+            }
+        }
+    }
+}
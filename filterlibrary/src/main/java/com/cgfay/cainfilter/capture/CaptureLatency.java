@@ -0,0 +1,60 @@
+package com.cgfay.cainfilter.capture;
+
+/**
+ * 一次拍照各阶段的耗时
+ * Created by cain on 2018/3/25.
+ */
+public final class CaptureLatency {
+
+    private final long mTransformNs;
+    private final long mQueueNs;
+    private final long mEncodeNs;
+    private final long mTotalNs;
+
+    CaptureLatency(long transformNs, long queueNs, long encodeNs, long totalNs) {
+        mTransformNs = transformNs;
+        mQueueNs = queueNs;
+        mEncodeNs = encodeNs;
+        mTotalNs = totalNs;
+    }
+
+    /**
+     * 提交时像素变换的耗时
+     * @return
+     */
+    public long getTransformNs() {
+        return mTransformNs;
+    }
+
+    /**
+     * 在队列中等待的时间
+     * @return
+     */
+    public long getQueueNs() {
+        return mQueueNs;
+    }
+
+    /**
+     * 编码并写入文件的耗时
+     * @return
+     */
+    public long getEncodeNs() {
+        return mEncodeNs;
+    }
+
+    /**
+     * 从提交到保存完成的总时间
+     * @return
+     */
+    public long getTotalNs() {
+        return mTotalNs;
+    }
+
+    @Override
+    public String toString() {
+        return "transform=" + mTransformNs / 1000000f + "ms"
+                + ", queue=" + mQueueNs / 1000000f + "ms"
+                + ", encode=" + mEncodeNs / 1000000f + "ms"
+                + ", total=" + mTotalNs / 1000000f + "ms";
+    }
+}
@@ -0,0 +1,283 @@
+package com.cgfay.cainfilter.capture;
+
+import com.cgfay.utilslibrary.FrameTimeHistogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后台拍照流水线
+ * 1、submit在调用线程(回读线程)一次遍历把RGBA像素变换到像素池借出的数组，回调onCaptureAccepted
+ * 2、有界队列已满或者已经释放时直接拒绝，不阻塞调用线程
+ * 3、拍照线程按提交顺序编码，编码结果直接写到文件输出流，完成后回调onCaptureSaved
+ * 4、记录变换、排队、编码和总耗时，可以按阶段获取直方图
+ * Created by cain on 2018/3/25.
+ */
+public final class CapturePipeline {
+
+    /**
+     * 拍照回调
+     */
+    public interface Listener {
+        /**
+         * 已经接受拍照请求，在submit的调用线程回调
+         * @param id
+         * @param path
+         */
+        void onCaptureAccepted(int id, String path);
+
+        /**
+         * 图片已经保存，在拍照线程回调
+         * @param id
+         * @param path
+         * @param latency 各阶段耗时
+         */
+        void onCaptureSaved(int id, String path, CaptureLatency latency);
+
+        /**
+         * 保存失败，文件已经删除，在拍照线程回调
+         * @param id
+         * @param path
+         * @param e
+         */
+        void onCaptureFailed(int id, String path, Exception e);
+    }
+
+    // 拒绝时submit的返回值
+    public static final int REJECTED = -1;
+
+    // 停止拍照线程的标记
+    private static final Job STOP = new Job(REJECTED, null, null, 0, 0, 0, 0);
+
+    private final PixelTransform mTransform;
+    private final ImageEncoder mEncoder;
+    private final Listener mListener;
+    private final ArrayBlockingQueue<Job> mQueue;
+    private final PixelBufferPool mBufferPool;
+    private final Thread mWorker;
+
+    private int mNextId;
+    private volatile boolean mReleased;
+
+    // 各阶段耗时
+    private final FrameTimeHistogram mTransformHistogram = new FrameTimeHistogram();
+    private final FrameTimeHistogram mQueueHistogram = new FrameTimeHistogram();
+    private final FrameTimeHistogram mEncodeHistogram = new FrameTimeHistogram();
+    private final FrameTimeHistogram mTotalHistogram = new FrameTimeHistogram();
+
+    // 统计
+    private final AtomicInteger mAcceptedCount = new AtomicInteger();
+    private final AtomicInteger mRejectedCount = new AtomicInteger();
+    private final AtomicInteger mSavedCount = new AtomicInteger();
+    private final AtomicInteger mFailedCount = new AtomicInteger();
+
+    /**
+     * @param transform 像素变换
+     * @param encoder 编码器，只在拍照线程使用
+     * @param queueCapacity 等待编码的最大个数
+     * @param listener
+     */
+    public CapturePipeline(PixelTransform transform, ImageEncoder encoder, int queueCapacity,
+                           Listener listener) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queue capacity must be positive: "
+                    + queueCapacity);
+        }
+        mTransform = transform;
+        mEncoder = encoder;
+        mListener = listener;
+        mQueue = new ArrayBlockingQueue<Job>(queueCapacity);
+        // 队列中的数组加上正在编码的一个
+        mBufferPool = new PixelBufferPool(queueCapacity + 1);
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "CaptureThread");
+        mWorker.start();
+    }
+
+    /**
+     * 提交一帧，像素在返回前已经拷贝，返回后buffer可以归还
+     * @param rgba RGBA像素
+     * @param width
+     * @param height
+     * @param path 保存路径
+     * @return 拍照id，队列已满或已经释放时返回REJECTED
+     */
+    public synchronized int submit(ByteBuffer rgba, int width, int height, String path) {
+        long start = System.nanoTime();
+        // 只有这里入队，检查通过之后队列不会再被占满
+        if (mReleased || mQueue.remainingCapacity() == 0) {
+            mRejectedCount.incrementAndGet();
+            return REJECTED;
+        }
+        int[] pixels = mBufferPool.acquire(width * height);
+        try {
+            mTransform.apply(rgba, width, height, pixels);
+        } catch (RuntimeException e) {
+            mBufferPool.release(pixels);
+            throw e;
+        }
+        long transformed = System.nanoTime();
+        int id = mNextId++;
+        mAcceptedCount.incrementAndGet();
+        mListener.onCaptureAccepted(id, path);
+        mQueue.add(new Job(id, path, pixels, mTransform.getOutputWidth(width, height),
+                mTransform.getOutputHeight(width, height), start, transformed));
+        return id;
+    }
+
+    /**
+     * 拍照线程
+     */
+    private void loop() {
+        while (true) {
+            Job job;
+            try {
+                job = mQueue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (job == STOP) {
+                break;
+            }
+            save(job);
+        }
+        mEncoder.release();
+    }
+
+    /**
+     * 编码并保存
+     * @param job
+     */
+    private void save(Job job) {
+        long dequeued = System.nanoTime();
+        Exception error = null;
+        try {
+            CaptureFiles.write(mEncoder, job.pixels, job.width, job.height, job.path);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = e;
+        } finally {
+            mBufferPool.release(job.pixels);
+        }
+        long saved = System.nanoTime();
+        if (error != null) {
+            mFailedCount.incrementAndGet();
+            mListener.onCaptureFailed(job.id, job.path, error);
+            return;
+        }
+        CaptureLatency latency = new CaptureLatency(job.transformed - job.start,
+                dequeued - job.transformed, saved - dequeued, saved - job.start);
+        mTransformHistogram.record(latency.getTransformNs());
+        mQueueHistogram.record(latency.getQueueNs());
+        mEncodeHistogram.record(latency.getEncodeNs());
+        mTotalHistogram.record(latency.getTotalNs());
+        mSavedCount.incrementAndGet();
+        mListener.onCaptureSaved(job.id, job.path, latency);
+    }
+
+    /**
+     * 停止接受新的请求，已经接受的请求保存完成后拍照线程退出
+     */
+    public void release() {
+        synchronized (this) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+        }
+        try {
+            // 队列满时等待拍照线程取走一个
+            mQueue.put(STOP);
+        } catch (InterruptedException e) {
+            mWorker.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 等待拍照线程退出
+     * @param timeoutMs
+     * @return 是否已经退出
+     * @throws InterruptedException
+     */
+    public boolean awaitRelease(long timeoutMs) throws InterruptedException {
+        mWorker.join(timeoutMs);
+        return !mWorker.isAlive();
+    }
+
+    /**
+     * 等待编码的请求个数，不包括正在编码的请求
+     * @return
+     */
+    public int getQueuedCount() {
+        int count = mQueue.size();
+        return mReleased && count > 0 && mQueue.contains(STOP) ? count - 1 : count;
+    }
+
+    public int getAcceptedCount() {
+        return mAcceptedCount.get();
+    }
+
+    public int getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    public int getSavedCount() {
+        return mSavedCount.get();
+    }
+
+    public int getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    public FrameTimeHistogram getTransformHistogram() {
+        return mTransformHistogram;
+    }
+
+    public FrameTimeHistogram getQueueHistogram() {
+        return mQueueHistogram;
+    }
+
+    public FrameTimeHistogram getEncodeHistogram() {
+        return mEncodeHistogram;
+    }
+
+    public FrameTimeHistogram getTotalHistogram() {
+        return mTotalHistogram;
+    }
+
+    public PixelBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * 等待编码的请求
+     */
+    private static final class Job {
+        final int id;
+        final String path;
+        final int[] pixels;
+        final int width;
+        final int height;
+        final long start;
+        final long transformed;
+
+        Job(int id, String path, int[] pixels, int width, int height,
+            long start, long transformed) {
+            this.id = id;
+            this.path = path;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.start = start;
+            this.transformed = transformed;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.cgfay.cainfilter.capture;
+
+/**
+ * 连拍时帧环已满的处理方式
+ * Created by cain on 2018/3/25.
+ */
+public enum DropPolicy {
+    DROP_NEWEST, // 丢弃新到的帧，保留连拍开头
+    DROP_OLDEST, // 丢弃最旧的等待编码的帧，保留连拍结尾
+    THIN // 降级抽帧，丢弃与前后帧间隔最近的等待帧，剩下的帧在时间上尽量均匀
+}
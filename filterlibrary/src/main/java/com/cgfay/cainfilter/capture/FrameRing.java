@@ -0,0 +1,307 @@
+package com.cgfay.cainfilter.capture;
+
+/**
+ * 连拍用的预分配帧环
+ * 每个槽位在创建时分配好像素数组，状态依次为 空闲 -> 写入 -> 等待编码 -> 编码中 -> 空闲。
+ * 没有空闲槽位时按DropPolicy决定丢弃新帧还是挤掉一个等待编码的帧，写入方永远不会阻塞；
+ * 编码线程按写入顺序取帧，没有等待的帧时阻塞。
+ * claim/publish/cancel只能在一个线程调用，take/recycle可以在多个编码线程调用
+ * Created by cain on 2018/3/25.
+ */
+public final class FrameRing {
+
+    static final int STATE_FREE = 0;
+    static final int STATE_WRITING = 1;
+    static final int STATE_PENDING = 2;
+    static final int STATE_ENCODING = 3;
+
+    // 没有被挤掉的帧
+    public static final int NO_FRAME = -1;
+
+    /**
+     * 槽位
+     */
+    public static final class Slot {
+        private final int[] mPixels;
+        private int mState = STATE_FREE;
+        private long mSequence;
+        private int mFrameIndex = NO_FRAME;
+        private long mTimestampNs;
+        private int mWidth;
+        private int mHeight;
+        // claim时被挤掉的帧
+        private int mReplacedIndex = NO_FRAME;
+        // 取得槽位和写入完成的时间
+        private long mClaimNs;
+        private long mPublishNs;
+
+        Slot(int pixels) {
+            mPixels = new int[pixels];
+        }
+
+        public int[] getPixels() {
+            return mPixels;
+        }
+
+        public int getFrameIndex() {
+            return mFrameIndex;
+        }
+
+        public long getTimestampNs() {
+            return mTimestampNs;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * 为了放下这一帧被挤掉的帧，没有时为NO_FRAME，只在claim之后到publish之前有效
+         * @return
+         */
+        public int getReplacedIndex() {
+            return mReplacedIndex;
+        }
+
+        public long getClaimNs() {
+            return mClaimNs;
+        }
+
+        public long getPublishNs() {
+            return mPublishNs;
+        }
+
+        /**
+         * 设置输出尺寸，在publish之前调用
+         */
+        public void setSize(int width, int height) {
+            if (width * height > mPixels.length) {
+                throw new IllegalArgumentException("frame " + width + "x" + height
+                        + " does not fit slot of " + mPixels.length + " pixels");
+            }
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+
+    private final Slot[] mSlots;
+    private final DropPolicy mPolicy;
+    private long mNextSequence;
+    private int mPendingCount;
+    private boolean mClosed;
+
+    // 统计
+    private int mDroppedCount;
+    private int mReplacedCount;
+
+    /**
+     * @param slotCount 槽位个数
+     * @param slotPixels 每个槽位的像素个数
+     * @param policy 帧环已满时的处理方式
+     */
+    public FrameRing(int slotCount, int slotPixels, DropPolicy policy) {
+        if (slotCount <= 0 || slotPixels <= 0) {
+            throw new IllegalArgumentException("invalid ring " + slotCount + " x " + slotPixels);
+        }
+        mPolicy = policy;
+        mSlots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            mSlots[i] = new Slot(slotPixels);
+        }
+    }
+
+    /**
+     * 为新的一帧取一个槽位
+     * @param frameIndex 帧序号
+     * @param timestampNs 帧时间
+     * @return 槽位，按策略丢弃新帧时返回null
+     */
+    public synchronized Slot claim(int frameIndex, long timestampNs) {
+        Slot slot = null;
+        for (Slot candidate : mSlots) {
+            if (candidate.mState == STATE_FREE) {
+                slot = candidate;
+                break;
+            }
+        }
+        int replaced = NO_FRAME;
+        if (slot == null) {
+            slot = chooseVictim(timestampNs);
+            if (slot == null) {
+                mDroppedCount++;
+                return null;
+            }
+            replaced = slot.mFrameIndex;
+            mPendingCount--;
+            mReplacedCount++;
+        }
+        slot.mState = STATE_WRITING;
+        slot.mFrameIndex = frameIndex;
+        slot.mTimestampNs = timestampNs;
+        slot.mReplacedIndex = replaced;
+        slot.mClaimNs = System.nanoTime();
+        return slot;
+    }
+
+    /**
+     * 按策略选择被挤掉的等待帧
+     */
+    private Slot chooseVictim(long timestampNs) {
+        if (mPendingCount == 0 || mPolicy == DropPolicy.DROP_NEWEST) {
+            return null;
+        }
+        if (mPolicy == DropPolicy.DROP_OLDEST) {
+            return oldestPending();
+        }
+        // THIN: 最旧的等待帧保留，其余等待帧中去掉后留下的空隙最小的一个，相同时取较旧的，
+        // 只有一个等待帧时丢弃新帧
+        Slot victim = null;
+        long smallestGap = Long.MAX_VALUE;
+        Slot previous = oldestPending();
+        while (previous != null) {
+            Slot current = nextPending(previous.mSequence);
+            if (current == null) {
+                break;
+            }
+            Slot next = nextPending(current.mSequence);
+            long nextTime = next != null ? next.mTimestampNs : timestampNs;
+            long gap = nextTime - previous.mTimestampNs;
+            if (gap < smallestGap) {
+                smallestGap = gap;
+                victim = current;
+            }
+            previous = current;
+        }
+        return victim;
+    }
+
+    private Slot oldestPending() {
+        return nextPending(Long.MIN_VALUE);
+    }
+
+    /**
+     * 写入顺序在sequence之后的第一个等待帧
+     */
+    private Slot nextPending(long sequence) {
+        Slot result = null;
+        for (Slot slot : mSlots) {
+            if (slot.mState == STATE_PENDING && slot.mSequence > sequence
+                    && (result == null || slot.mSequence < result.mSequence)) {
+                result = slot;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 写入完成，交给编码线程
+     * @param slot
+     */
+    public synchronized void publish(Slot slot) {
+        checkState(slot, STATE_WRITING);
+        slot.mState = STATE_PENDING;
+        slot.mSequence = mNextSequence++;
+        slot.mPublishNs = System.nanoTime();
+        mPendingCount++;
+        notify();
+    }
+
+    /**
+     * 放弃写入
+     * @param slot
+     */
+    public synchronized void cancel(Slot slot) {
+        checkState(slot, STATE_WRITING);
+        slot.mState = STATE_FREE;
+        slot.mFrameIndex = NO_FRAME;
+    }
+
+    /**
+     * 取最早写入的等待帧，没有时等待
+     * @return 关闭后没有等待的帧时返回null
+     * @throws InterruptedException
+     */
+    public synchronized Slot take() throws InterruptedException {
+        while (mPendingCount == 0) {
+            if (mClosed) {
+                return null;
+            }
+            wait();
+        }
+        Slot slot = oldestPending();
+        slot.mState = STATE_ENCODING;
+        mPendingCount--;
+        return slot;
+    }
+
+    /**
+     * 编码完成，归还槽位
+     * @param slot
+     */
+    public synchronized void recycle(Slot slot) {
+        checkState(slot, STATE_ENCODING);
+        slot.mState = STATE_FREE;
+        slot.mFrameIndex = NO_FRAME;
+    }
+
+    /**
+     * 关闭，编码线程取完等待的帧后take返回null
+     */
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    private static void checkState(Slot slot, int state) {
+        if (slot.mState != state) {
+            throw new IllegalStateException("slot in state " + slot.mState + ", expected "
+                    + state);
+        }
+    }
+
+    public int getSlotCount() {
+        return mSlots.length;
+    }
+
+    public int getSlotPixels() {
+        return mSlots[0].mPixels.length;
+    }
+
+    public DropPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    public synchronized int getPendingCount() {
+        return mPendingCount;
+    }
+
+    public synchronized int getFreeCount() {
+        int count = 0;
+        for (Slot slot : mSlots) {
+            if (slot.mState == STATE_FREE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 按策略直接丢弃的新帧个数
+     * @return
+     */
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * 被新帧挤掉的等待帧个数
+     * @return
+     */
+    public synchronized int getReplacedCount() {
+        return mReplacedCount;
+    }
+}
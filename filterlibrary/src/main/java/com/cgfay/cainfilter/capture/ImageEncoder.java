@@ -0,0 +1,26 @@
+package com.cgfay.cainfilter.capture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 图片编码器，在拍照线程调用
+ * Created by cain on 2018/3/25.
+ */
+public interface ImageEncoder {
+
+    /**
+     * 编码并直接写到输出流，不需要关闭输出流
+     * @param argb ARGB像素，逐行排列，可能比width * height长
+     * @param width
+     * @param height
+     * @param out
+     * @throws IOException
+     */
+    void encode(int[] argb, int width, int height, OutputStream out) throws IOException;
+
+    /**
+     * 释放编码器持有的资源
+     */
+    void release();
+}
@@ -0,0 +1,90 @@
+package com.cgfay.cainfilter.capture;
+
+import java.util.ArrayList;
+
+/**
+ * 可复用的像素数组池
+ * 借出长度不小于请求大小的最短数组，用完后归还，空闲数组超过上限时直接丢弃交给GC。
+ * 借出和归还可以在不同线程调用
+ * Created by cain on 2018/3/25.
+ */
+public final class PixelBufferPool {
+
+    // 空闲数组个数上限
+    private final int mMaxIdleCount;
+    // 空闲数组，按长度从小到大排列
+    private final ArrayList<int[]> mIdleBuffers = new ArrayList<int[]>();
+
+    // 统计
+    private int mAllocateCount;
+    private int mReuseCount;
+
+    /**
+     * @param maxIdleCount 空闲数组个数上限
+     */
+    public PixelBufferPool(int maxIdleCount) {
+        mMaxIdleCount = maxIdleCount;
+    }
+
+    /**
+     * 借出数组，内容是上一次使用留下的数据
+     * @param size 像素个数
+     * @return
+     */
+    public synchronized int[] acquire(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        for (int i = 0; i < mIdleBuffers.size(); i++) {
+            if (mIdleBuffers.get(i).length >= size) {
+                mReuseCount++;
+                return mIdleBuffers.remove(i);
+            }
+        }
+        mAllocateCount++;
+        return new int[size];
+    }
+
+    /**
+     * 归还数组
+     * @param buffer
+     */
+    public synchronized void release(int[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        for (int i = 0; i < mIdleBuffers.size(); i++) {
+            if (mIdleBuffers.get(i) == buffer) {
+                throw new IllegalStateException("buffer released twice");
+            }
+        }
+        if (mIdleBuffers.size() >= mMaxIdleCount) {
+            return;
+        }
+        int index = 0;
+        while (index < mIdleBuffers.size()
+                && mIdleBuffers.get(index).length < buffer.length) {
+            index++;
+        }
+        mIdleBuffers.add(index, buffer);
+    }
+
+    /**
+     * 丢弃全部空闲数组
+     */
+    public synchronized void clear() {
+        mIdleBuffers.clear();
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdleBuffers.size();
+    }
+
+    public synchronized int getAllocateCount() {
+        return mAllocateCount;
+    }
+
+    public synchronized int getReuseCount() {
+        return mReuseCount;
+    }
+}
@@ -0,0 +1,137 @@
+package com.cgfay.cainfilter.capture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * 一次遍历完成的像素变换：RGBA字节转ARGB整数、顺时针旋转、水平镜像
+ * 目标位置对源坐标是线性的，预先算出起点和x、y方向的步长，逐行读取源像素后直接写到目标位置，
+ * 代替Bitmap.copyPixelsFromBuffer + rotate + flip 三次整帧拷贝和两次Bitmap分配
+ * 内部有一行的临时缓冲，不能多线程同时调用
+ * Created by cain on 2018/3/25.
+ */
+public final class PixelTransform {
+
+    public static final int ROTATION_0 = 0;
+    public static final int ROTATION_90 = 90;
+    public static final int ROTATION_180 = 180;
+    public static final int ROTATION_270 = 270;
+
+    private final int mRotation;
+    private final boolean mMirror;
+    // 一行源像素
+    private int[] mRow;
+
+    /**
+     * @param rotation 顺时针旋转角度，0/90/180/270
+     * @param mirror 旋转后是否水平镜像
+     */
+    public PixelTransform(int rotation, boolean mirror) {
+        if (rotation != ROTATION_0 && rotation != ROTATION_90
+                && rotation != ROTATION_180 && rotation != ROTATION_270) {
+            throw new IllegalArgumentException("unsupported rotation: " + rotation);
+        }
+        mRotation = rotation;
+        mMirror = mirror;
+    }
+
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public boolean isMirror() {
+        return mMirror;
+    }
+
+    /**
+     * 输出宽度
+     * @param width 源宽度
+     * @param height 源高度
+     * @return
+     */
+    public int getOutputWidth(int width, int height) {
+        return mRotation == ROTATION_90 || mRotation == ROTATION_270 ? height : width;
+    }
+
+    /**
+     * 输出高度
+     * @param width 源宽度
+     * @param height 源高度
+     * @return
+     */
+    public int getOutputHeight(int width, int height) {
+        return mRotation == ROTATION_90 || mRotation == ROTATION_270 ? width : height;
+    }
+
+    /**
+     * 变换一帧
+     * @param rgba 从position开始的RGBA像素，不改变position
+     * @param width 源宽度
+     * @param height 源高度
+     * @param argb 输出的ARGB像素，按输出宽度逐行排列，长度不小于width * height
+     */
+    public void apply(ByteBuffer rgba, int width, int height, int[] argb) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        int count = width * height;
+        if (rgba.remaining() < count * 4 || argb.length < count) {
+            throw new IllegalArgumentException("buffer too small for " + width + "x" + height);
+        }
+        if (mRow == null || mRow.length < width) {
+            mRow = new int[width];
+        }
+        int[] row = mRow;
+        int outputWidth = getOutputWidth(width, height);
+        int base = outputIndex(0, 0, width, height, outputWidth);
+        int stepX = outputIndex(1, 0, width, height, outputWidth) - base;
+        int stepY = outputIndex(0, 1, width, height, outputWidth) - base;
+        // 小端读取时RGBA四个字节得到 A << 24 | B << 16 | G << 8 | R
+        IntBuffer source = rgba.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        for (int y = 0; y < height; y++) {
+            source.get(row, 0, width);
+            int index = base + y * stepY;
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x];
+                argb[index] = (pixel & 0xFF00FF00)
+                        | ((pixel << 16) & 0x00FF0000)
+                        | ((pixel >>> 16) & 0x000000FF);
+                index += stepX;
+            }
+        }
+    }
+
+    /**
+     * 源坐标(x, y)在输出中的位置
+     */
+    private int outputIndex(int x, int y, int width, int height, int outputWidth) {
+        int outX;
+        int outY;
+        switch (mRotation) {
+            case ROTATION_90:
+                outX = height - 1 - y;
+                outY = x;
+                break;
+
+            case ROTATION_180:
+                outX = width - 1 - x;
+                outY = height - 1 - y;
+                break;
+
+            case ROTATION_270:
+                outX = y;
+                outY = width - 1 - x;
+                break;
+
+            default:
+                outX = x;
+                outY = y;
+                break;
+        }
+        if (mMirror) {
+            outX = outputWidth - 1 - outX;
+        }
+        return outY * outputWidth + outX;
+    }
+}
@@ -0,0 +1,125 @@
+package com.cgfay.cainfilter.facetracker;
+
+import com.cgfay.cainfilter.bean.face.Face106PointsLandmark;
+import com.cgfay.cainfilter.bean.face.Face81PointsLandmark;
+import com.cgfay.cainfilter.glfilter.sticker.StickerAnimator;
+
+/**
+ * 根据关键点检测张嘴、眨眼动作，结果用作贴纸动画的触发动作(StickerAnimator.ACTION_*)
+ * 用张开的距离和宽度之比判断，与人脸大小无关：
+ * 上嘴唇下中心到下嘴唇上中心的距离 / 嘴角之间的距离，超过阈值为张嘴
+ * 两只眼睛上下边的距离 / 眼角之间的距离，都低于阈值为闭眼，闭眼的开始就是一次眨眼
+ * 关键点需要使用检测得到的像素坐标，归一化之后的坐标横竖比例不同
+ * 本类不依赖Android
+ * Created by cain on 2018/3/25.
+ */
+public final class FaceActionDetector {
+
+    // 张嘴的阈值
+    public static final float MOUTH_OPEN_RATIO = 0.25f;
+    // 闭眼的阈值
+    public static final float EYE_CLOSED_RATIO = 0.12f;
+
+    // 关键点索引
+    private final int mMouthLeft;
+    private final int mMouthRight;
+    private final int mUpperLip;
+    private final int mLowerLip;
+    private final int mLeftEyeTop;
+    private final int mLeftEyeBottom;
+    private final int mLeftEyeLeft;
+    private final int mLeftEyeRight;
+    private final int mRightEyeTop;
+    private final int mRightEyeBottom;
+    private final int mRightEyeLeft;
+    private final int mRightEyeRight;
+
+    private FaceActionDetector(int mouthLeft, int mouthRight, int upperLip, int lowerLip,
+                               int leftEyeTop, int leftEyeBottom, int leftEyeLeft, int leftEyeRight,
+                               int rightEyeTop, int rightEyeBottom, int rightEyeLeft,
+                               int rightEyeRight) {
+        mMouthLeft = mouthLeft;
+        mMouthRight = mouthRight;
+        mUpperLip = upperLip;
+        mLowerLip = lowerLip;
+        mLeftEyeTop = leftEyeTop;
+        mLeftEyeBottom = leftEyeBottom;
+        mLeftEyeLeft = leftEyeLeft;
+        mLeftEyeRight = leftEyeRight;
+        mRightEyeTop = rightEyeTop;
+        mRightEyeBottom = rightEyeBottom;
+        mRightEyeLeft = rightEyeLeft;
+        mRightEyeRight = rightEyeRight;
+    }
+
+    /**
+     * 106个关键点的检测器
+     * 关键点类的字段在子类中重新声明，需要通过子类类型读取
+     * @return
+     */
+    public static FaceActionDetector for106Points() {
+        Face106PointsLandmark landmark = new Face106PointsLandmark();
+        return new FaceActionDetector(landmark.mouthLeftCorner, landmark.mouthRightCorner,
+                landmark.mouthUpperLipBottom, landmark.mouthLowerLipTop,
+                landmark.leftEyeTop, landmark.leftEyeBottom,
+                landmark.leftEyeLeftCorner, landmark.leftEyeRightCorner,
+                landmark.rightEyeTop, landmark.rightEyeBottom,
+                landmark.rightEyeLeftCorner, landmark.rightEyeRightCorner);
+    }
+
+    /**
+     * 81个关键点的检测器
+     * @return
+     */
+    public static FaceActionDetector for81Points() {
+        Face81PointsLandmark landmark = new Face81PointsLandmark();
+        return new FaceActionDetector(landmark.mouthLeftCorner, landmark.mouthRightCorner,
+                landmark.mouthUpperLipBottom, landmark.mouthLowerLipTop,
+                landmark.leftEyeTop, landmark.leftEyeBottom,
+                landmark.leftEyeLeftCorner, landmark.leftEyeRightCorner,
+                landmark.rightEyeTop, landmark.rightEyeBottom,
+                landmark.rightEyeLeftCorner, landmark.rightEyeRightCorner);
+    }
+
+    /**
+     * 检测一个人脸的动作
+     * @param points 关键点的像素坐标，x、y交替排列
+     * @return StickerAnimator.ACTION_*按位组合
+     */
+    public int detect(float[] points) {
+        int actions = StickerAnimator.ACTION_NONE;
+        if (getMouthRatio(points) > MOUTH_OPEN_RATIO) {
+            actions |= StickerAnimator.ACTION_MOUTH_OPEN;
+        }
+        if (getEyeRatio(points) < EYE_CLOSED_RATIO) {
+            actions |= StickerAnimator.ACTION_EYE_BLINK;
+        }
+        return actions;
+    }
+
+    /**
+     * 嘴巴张开的比例
+     */
+    public float getMouthRatio(float[] points) {
+        return ratio(points, mUpperLip, mLowerLip, mMouthLeft, mMouthRight);
+    }
+
+    /**
+     * 两只眼睛中睁得较大的一只的比例，单眼闭上不算眨眼
+     */
+    public float getEyeRatio(float[] points) {
+        return Math.max(ratio(points, mLeftEyeTop, mLeftEyeBottom, mLeftEyeLeft, mLeftEyeRight),
+                ratio(points, mRightEyeTop, mRightEyeBottom, mRightEyeLeft, mRightEyeRight));
+    }
+
+    private static float ratio(float[] points, int a, int b, int c, int d) {
+        float width = distance(points, c, d);
+        return width > 0 ? distance(points, a, b) / width : 0;
+    }
+
+    private static float distance(float[] points, int a, int b) {
+        float dx = points[a * 2] - points[b * 2];
+        float dy = points[a * 2 + 1] - points[b * 2 + 1];
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
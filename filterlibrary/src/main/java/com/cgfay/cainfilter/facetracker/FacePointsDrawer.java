@@ -3,10 +3,12 @@ package com.cgfay.cainfilter.facetracker;
 import android.opengl.GLES30;
 
 
+import com.cgfay.cainfilter.gles.GLGeometryManager;
 import com.cgfay.cainfilter.utils.GlUtil;
 
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * 人脸关键点渲染器
@@ -39,6 +41,8 @@ public class FacePointsDrawer {
 
 	// 画点
 	public ArrayList<ArrayList> points = new ArrayList<ArrayList>();
+	// 写入流式VBO的关键点坐标
+	private float[] mPointData = new float[106 * 3];
 
 	public FacePointsDrawer() {
 		mProgramHandle = GlUtil.createProgram(vertexShaderCode, fragmentShaderCode);
@@ -54,19 +58,33 @@ public class FacePointsDrawer {
 		GLES30.glEnableVertexAttribArray(mPositionHandle);
 		GLES30.glUniform4fv(mColorHandle, 1, color_rect, 0);
 		GLES30.glUniform4fv(mColorHandle, 1, color, 0);
+		// 全部关键点合并后写入流式VBO，一次绘制完成
+		int count = 0;
 		synchronized (this) {
 			for (int i = 0; i < points.size(); i++) {
 				ArrayList<FloatBuffer> triangleVBList = points.get(i);
 				for (int j = 0; j < triangleVBList.size(); j++) {
 					FloatBuffer fb = triangleVBList.get(j);
 					if (fb != null) {
-						GLES30.glVertexAttribPointer(mPositionHandle, 3,
-								GLES30.GL_FLOAT, false, 0, fb);
-						GLES30.glDrawArrays(GLES30.GL_POINTS, 0, 1);
+						if (mPointData.length < (count + 1) * 3) {
+							mPointData = Arrays.copyOf(mPointData, mPointData.length * 2);
+						}
+						mPointData[count * 3] = fb.get(0);
+						mPointData[count * 3 + 1] = fb.get(1);
+						mPointData[count * 3 + 2] = fb.get(2);
+						count++;
 					}
 				}
 			}
 		}
+		if (count > 0) {
+			GLGeometryManager geometryManager = GLGeometryManager.getCurrent();
+			int offset = geometryManager.streamVertices(mPointData, 0, count * 3);
+			GLES30.glVertexAttribPointer(mPositionHandle, 3,
+					GLES30.GL_FLOAT, false, 0, offset);
+			geometryManager.unbindStream();
+			GLES30.glDrawArrays(GLES30.GL_POINTS, 0, count);
+		}
 		GLES30.glDisableVertexAttribArray(mPositionHandle);
 	}
 
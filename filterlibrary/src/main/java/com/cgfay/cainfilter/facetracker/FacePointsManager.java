@@ -39,6 +39,12 @@ public class FacePointsManager {
 
     private ArrayList<Rect> mFaceRect = new ArrayList<Rect>();
 
+    // 所有人脸的动作，StickerAnimator.ACTION_*按位组合，渲染线程读取
+    private volatile int mFaceActions;
+
+    // 后台录入的动作
+    private int mBackgroundActions;
+
     public static FacePointsManager getInstance() {
         if (mInstance == null) {
             mInstance = new FacePointsManager();
@@ -53,6 +59,7 @@ public class FacePointsManager {
         isAddingPoints = true;
         mOneFacePoints.clear();
         mBackgroundEulers.clear();
+        mBackgroundActions = 0;
     }
 
     /**
@@ -75,6 +82,16 @@ public class FacePointsManager {
         }
     }
 
+    /**
+     * 添加一个人脸的动作
+     * @param actions
+     */
+    synchronized public void addActions(int actions) {
+        if (isAddingPoints) {
+            mBackgroundActions |= actions;
+        }
+    }
+
     /**
      * 添加一个人脸的关键点
      */
@@ -97,8 +114,9 @@ public class FacePointsManager {
         }
         if (mBackgroundEulers.size() > 0) {
             mEulers.addAll(mBackgroundEulers);
-            mEulers.clear();
+            mBackgroundEulers.clear();
         }
+        mFaceActions = mBackgroundActions;
         // 计算人脸部位的矩形框
         
     }
@@ -119,6 +137,14 @@ public class FacePointsManager {
         return mFacePoints;
     }
 
+    /**
+     * 获取当前检测到的人脸个数
+     * @return
+     */
+    synchronized public int getFaceCount() {
+        return mFacePoints.size();
+    }
+
     /**
      * 获取姿态角
      * @return
@@ -127,6 +153,31 @@ public class FacePointsManager {
         return mEulers;
     }
 
+    /**
+     * 复制每个人脸的姿态角，供渲染线程使用
+     * @param poses 输出，每个人脸依次为pitch、yaw、roll
+     * @param maxFaces 最多复制的人脸数
+     * @return 复制的人脸数
+     */
+    synchronized public int getFacePoses(float[] poses, int maxFaces) {
+        int count = Math.min(Math.min(mEulers.size(), maxFaces), poses.length / 3);
+        for (int i = 0; i < count; i++) {
+            float[] euler = mEulers.get(i);
+            poses[i * 3] = euler[0];
+            poses[i * 3 + 1] = euler[1];
+            poses[i * 3 + 2] = euler[2];
+        }
+        return count;
+    }
+
+    /**
+     * 获取最近一次检测到的动作，没有人脸时为0
+     * @return
+     */
+    public int getFaceActions() {
+        return mFaceActions;
+    }
+
     /**
      * 获取关键点
      * @return
@@ -58,6 +58,12 @@ public class FaceTrackManager {
     // 传感器监听器
     private SensorEventUtil mSensorUtil;
 
+    // 张嘴、眨眼动作检测
+    private final FaceActionDetector mActionDetector106 = FaceActionDetector.for106Points();
+    private final FaceActionDetector mActionDetector81 = FaceActionDetector.for81Points();
+    // 检测动作用的关键点像素坐标
+    private float[] mActionPoints;
+
     private float roi_ratio = 0.8f;
 
     private int Angle;
@@ -412,6 +418,20 @@ public class FaceTrackManager {
                                     height = mPreviewSize.getWidth();
                                 }
 
+                                // 用像素坐标检测张嘴、眨眼动作
+                                if (mActionPoints == null
+                                        || mActionPoints.length != faces[index].points.length * 2) {
+                                    mActionPoints = new float[faces[index].points.length * 2];
+                                }
+                                for (int i = 0; i < faces[index].points.length; i++) {
+                                    mActionPoints[i * 2] = faces[index].points[i].x;
+                                    mActionPoints[i * 2 + 1] = faces[index].points[i].y;
+                                }
+                                FaceActionDetector detector = is106Points
+                                        ? mActionDetector106 : mActionDetector81;
+                                FacePointsManager.getInstance()
+                                        .addActions(detector.detect(mActionPoints));
+
                                 // 一个人脸的关键点
                                 ArrayList<FloatBuffer> onePoints = new ArrayList<FloatBuffer>();
                                 for (int i = 0; i < faces[index].points.length; i++) {
@@ -0,0 +1,262 @@
+package com.cgfay.cainfilter.gles;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * 异步像素回读
+ * 1、glReadPixels读到环形排列的像素缓冲(PBO)中并插入fence，不等待GPU完成
+ * 2、之后每帧调用poll，fence完成后把PBO的数据拷贝到缓冲池借出的直接内存，
+ *    在工作线程回调，回调返回后缓冲自动归还
+ * 3、按请求顺序完成，前一个请求没有完成时，后面的请求即使已经完成也不会先回调
+ * 4、环形缓冲全部在使用时，新的请求需要等待最旧的请求完成
+ * GL操作通过ReadbackGL接口完成，本类不依赖GLES，可以在JVM上测试。除回调外需要在GL线程调用
+ * Created by cain on 2018/3/25.
+ */
+public final class AsyncReadback {
+
+    /**
+     * 回读需要的GL操作
+     */
+    public interface ReadbackGL {
+        /**
+         * 创建像素缓冲
+         * @param size 字节数
+         * @return 缓冲id
+         */
+        int createBuffer(int size);
+
+        void deleteBuffer(int buffer);
+
+        /**
+         * 将当前帧缓冲的RGBA像素读到像素缓冲中
+         */
+        void readPixels(int buffer, int width, int height);
+
+        /**
+         * 插入fence
+         * @return fence句柄
+         */
+        long insertFence();
+
+        /**
+         * 不等待地查询fence是否完成
+         */
+        boolean isFenceSignaled(long fence);
+
+        /**
+         * 等待fence完成
+         */
+        void waitFence(long fence);
+
+        void deleteFence(long fence);
+
+        /**
+         * 将像素缓冲的数据拷贝到dst，拷贝size个字节
+         */
+        void copyBuffer(int buffer, int size, ByteBuffer dst);
+    }
+
+    /**
+     * 回读完成回调，在工作线程调用，buffer只在回调期间有效
+     */
+    public interface Callback {
+        void onReadbackComplete(ByteBuffer buffer, int width, int height);
+    }
+
+    // 默认两个像素缓冲轮流使用
+    public static final int DEFAULT_RING_SIZE = 2;
+
+    private static final int NO_BUFFER = -1;
+
+    private final ReadbackGL mGL;
+    private final DirectBufferPool mBufferPool;
+    private final Executor mExecutor;
+
+    // 环形排列的像素缓冲
+    private final int[] mBuffers;
+    private final int[] mBufferSizes;
+    private final long[] mFences;
+    private final int[] mWidths;
+    private final int[] mHeights;
+    private final Callback[] mCallbacks;
+    // 下一次请求使用的位置
+    private int mNext;
+    // 最旧的等待中的请求位置
+    private int mOldest;
+    private int mPendingCount;
+
+    // 统计
+    private int mRequestCount;
+    private int mCompleteCount;
+    private int mStallCount;
+
+    /**
+     * @param gl GL操作
+     * @param bufferPool 输出缓冲池
+     * @param executor 回调线程
+     * @param ringSize 像素缓冲个数
+     */
+    public AsyncReadback(ReadbackGL gl, DirectBufferPool bufferPool, Executor executor,
+                         int ringSize) {
+        if (ringSize <= 0) {
+            throw new IllegalArgumentException("ring size must be positive: " + ringSize);
+        }
+        mGL = gl;
+        mBufferPool = bufferPool;
+        mExecutor = executor;
+        mBuffers = new int[ringSize];
+        mBufferSizes = new int[ringSize];
+        mFences = new long[ringSize];
+        mWidths = new int[ringSize];
+        mHeights = new int[ringSize];
+        mCallbacks = new Callback[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            mBuffers[i] = NO_BUFFER;
+        }
+    }
+
+    /**
+     * 请求回读当前帧缓冲
+     * @param width
+     * @param height
+     * @param callback 完成回调
+     */
+    public void request(int width, int height, Callback callback) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        if (mPendingCount == mBuffers.length) {
+            // 环形缓冲已满，等待最旧的请求
+            mStallCount++;
+            complete(true);
+        }
+        int slot = mNext;
+        int size = width * height * 4;
+        if (mBufferSizes[slot] < size) {
+            if (mBuffers[slot] != NO_BUFFER) {
+                mGL.deleteBuffer(mBuffers[slot]);
+            }
+            mBuffers[slot] = mGL.createBuffer(size);
+            mBufferSizes[slot] = size;
+        }
+        mGL.readPixels(mBuffers[slot], width, height);
+        mFences[slot] = mGL.insertFence();
+        mWidths[slot] = width;
+        mHeights[slot] = height;
+        mCallbacks[slot] = callback;
+        mNext = (slot + 1) % mBuffers.length;
+        mPendingCount++;
+        mRequestCount++;
+    }
+
+    /**
+     * 按顺序完成已经结束的请求，每帧调用
+     * @return 完成的请求数
+     */
+    public int poll() {
+        int completed = 0;
+        while (mPendingCount > 0 && mGL.isFenceSignaled(mFences[mOldest])) {
+            complete(false);
+            completed++;
+        }
+        return completed;
+    }
+
+    /**
+     * 等待并完成全部请求
+     */
+    public void finish() {
+        while (mPendingCount > 0) {
+            complete(true);
+        }
+    }
+
+    /**
+     * 完成最旧的请求
+     */
+    private void complete(boolean wait) {
+        int slot = mOldest;
+        if (wait) {
+            mGL.waitFence(mFences[slot]);
+        }
+        mGL.deleteFence(mFences[slot]);
+        final int width = mWidths[slot];
+        final int height = mHeights[slot];
+        final Callback callback = mCallbacks[slot];
+        final ByteBuffer output = mBufferPool.acquire(width * height * 4);
+        mGL.copyBuffer(mBuffers[slot], width * height * 4, output);
+        output.rewind();
+        mCallbacks[slot] = null;
+        mOldest = (slot + 1) % mBuffers.length;
+        mPendingCount--;
+        mCompleteCount++;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.onReadbackComplete(output, width, height);
+                } finally {
+                    mBufferPool.release(output);
+                }
+            }
+        });
+    }
+
+    /**
+     * 放弃等待中的请求(不回调)并删除像素缓冲，需要在GL线程调用
+     */
+    public void release() {
+        for (int i = 0; i < mPendingCount; i++) {
+            mGL.deleteFence(mFences[(mOldest + i) % mBuffers.length]);
+        }
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] != NO_BUFFER) {
+                mGL.deleteBuffer(mBuffers[i]);
+            }
+        }
+        abandon();
+    }
+
+    /**
+     * 上下文已经丢失，直接丢弃等待中的请求和像素缓冲
+     */
+    public void abandon() {
+        for (int i = 0; i < mBuffers.length; i++) {
+            mBuffers[i] = NO_BUFFER;
+            mBufferSizes[i] = 0;
+            mCallbacks[i] = null;
+        }
+        mPendingCount = 0;
+        mNext = 0;
+        mOldest = 0;
+    }
+
+    public boolean hasPending() {
+        return mPendingCount > 0;
+    }
+
+    public int getPendingCount() {
+        return mPendingCount;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    public int getCompleteCount() {
+        return mCompleteCount;
+    }
+
+    /**
+     * 环形缓冲已满而等待GPU的次数
+     * @return
+     */
+    public int getStallCount() {
+        return mStallCount;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+}
@@ -0,0 +1,108 @@
+package com.cgfay.cainfilter.gles;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * 可复用的直接内存缓冲池
+ * 借出容量不小于请求大小的最小缓冲，用完后归还。空闲缓冲的总字节数超过上限时，
+ * 归还的缓冲直接丢弃交给GC。借出和归还可以在不同线程调用
+ * Created by cain on 2018/3/25.
+ */
+public final class DirectBufferPool {
+
+    // 空闲缓冲的字节数上限
+    private final long mMaxIdleBytes;
+    // 空闲缓冲，按容量从小到大排列
+    private final ArrayList<ByteBuffer> mIdleBuffers = new ArrayList<ByteBuffer>();
+    private long mIdleBytes;
+
+    // 统计
+    private int mAllocateCount;
+    private int mReuseCount;
+
+    /**
+     * @param maxIdleBytes 空闲缓冲的字节数上限
+     */
+    public DirectBufferPool(long maxIdleBytes) {
+        mMaxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * 借出缓冲，position为0，limit为请求的大小，字节序为LITTLE_ENDIAN
+     * @param size 字节数
+     * @return
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        ByteBuffer buffer = null;
+        for (int i = 0; i < mIdleBuffers.size(); i++) {
+            if (mIdleBuffers.get(i).capacity() >= size) {
+                buffer = mIdleBuffers.remove(i);
+                mIdleBytes -= buffer.capacity();
+                mReuseCount++;
+                break;
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(size);
+            mAllocateCount++;
+        }
+        buffer.clear();
+        buffer.limit(size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲
+     * @param buffer
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        for (int i = 0; i < mIdleBuffers.size(); i++) {
+            if (mIdleBuffers.get(i) == buffer) {
+                throw new IllegalStateException("buffer released twice");
+            }
+        }
+        if (mIdleBytes + buffer.capacity() > mMaxIdleBytes) {
+            return;
+        }
+        int index = 0;
+        while (index < mIdleBuffers.size()
+                && mIdleBuffers.get(index).capacity() < buffer.capacity()) {
+            index++;
+        }
+        mIdleBuffers.add(index, buffer);
+        mIdleBytes += buffer.capacity();
+    }
+
+    /**
+     * 丢弃全部空闲缓冲
+     */
+    public synchronized void clear() {
+        mIdleBuffers.clear();
+        mIdleBytes = 0;
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdleBuffers.size();
+    }
+
+    public synchronized long getIdleBytes() {
+        return mIdleBytes;
+    }
+
+    public synchronized int getAllocateCount() {
+        return mAllocateCount;
+    }
+
+    public synchronized int getReuseCount() {
+        return mReuseCount;
+    }
+}
@@ -183,6 +183,19 @@ public final class EglCore {
      */
     public void release() {
         if (mEGLDisplay != EGL14.EGL_NO_DISPLAY) {
+            // 释放当前上下文缓存的program、渲染目标、几何数据、回读缓冲和纹理
+            // 加入共享组的上下文，program和纹理属于共享组，由根上下文释放
+            if (!GLShareGroup.leave(mEGLContext)) {
+                // 先停止上传线程，之后不会再有共享组成员创建纹理
+                GLTextureLoader.onContextReleased(mEGLContext);
+                GLProgramCache.onContextReleased(mEGLContext);
+                GLLookupTextureCache.onContextReleased(mEGLContext);
+                GLAssetTextureCache.onContextReleased(mEGLContext);
+                GLShareGroup.onContextReleased(mEGLContext);
+            }
+            GLRenderTargetPool.onContextReleased(mEGLContext);
+            GLGeometryManager.onContextReleased(mEGLContext);
+            GLAsyncReadback.onContextReleased(mEGLContext);
             // Android is unusual in that it uses a reference-counted EGLDisplay.  So for
             // every eglInitialize() we need an eglTerminate().
             EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
@@ -353,6 +366,21 @@ public final class EglCore {
         return mGlVersion;
     }
 
+    /**
+     * 当前线程上下文创建时请求的GLES版本，没有当前上下文时返回0
+     * PBO、fence、VAO、3D纹理等只在GLES3上可用，不持有EglCore的代码用它判断
+     */
+    public static int getCurrentGlVersion() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        if (context.equals(EGL14.EGL_NO_CONTEXT)) {
+            return 0;
+        }
+        int[] version = new int[1];
+        EGL14.eglQueryContext(EGL14.eglGetCurrentDisplay(), context,
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, version, 0);
+        return version[0];
+    }
+
     /**
      * Writes the current display, context, and surface to the log.
      */
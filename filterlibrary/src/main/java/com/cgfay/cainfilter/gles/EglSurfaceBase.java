@@ -147,7 +147,21 @@ public class EglSurfaceBase {
     }
 
     /**
-     * 获取当前帧的缓冲
+     * 异步读取当前帧，不等待GPU完成。之后需要在GL线程每帧调用
+     * GLAsyncReadback.getCurrent().poll()，数据就绪后在回读线程回调
+     * GLES2上下文没有PBO，同步读取后直接在当前线程回调
+     * @param callback 回调中的buffer只在回调期间有效
+     */
+    public void getCurrentFrame(AsyncReadback.Callback callback) {
+        if (mEglCore.getGlVersion() >= 3) {
+            GLAsyncReadback.getCurrent().request(getWidth(), getHeight(), callback);
+        } else {
+            callback.onReadbackComplete(getCurrentFrame(), getWidth(), getHeight());
+        }
+    }
+
+    /**
+     * 同步获取当前帧的缓冲，会等待GPU完成全部绘制
      * @return
      */
     public ByteBuffer getCurrentFrame() {
@@ -0,0 +1,106 @@
+package com.cgfay.cainfilter.gles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.utils.GlUtil;
+
+import java.util.HashMap;
+
+/**
+ * 按EGLContext(共享组)区分的assets纹理缓存
+ * 颜色滤镜的曲线图、遮罩图等以assets路径为键共享，切换回用过的滤镜时不需要重新解码上传，
+ * 后台预热线程提前上传的纹理也通过这里交给渲染线程
+ * 缓存逻辑与查找表纹理相同，由LookupTextureCache实现
+ * Created by cain on 2018/3/25.
+ */
+public final class GLAssetTextureCache {
+
+    private static final String TAG = "GLAssetTextureCache";
+
+    // 最多保留的空闲纹理个数，覆盖当前滤镜前后几个滤镜用到的贴图
+    private static final int MAX_IDLE_TEXTURES = 24;
+
+    private static final HashMap<EGLContext, LookupTextureCache> mCaches =
+            new HashMap<EGLContext, LookupTextureCache>();
+
+    private static final LookupTextureCache.TextureLoader mLoader =
+            new LookupTextureCache.TextureLoader() {
+        @Override
+        public int loadTexture(String name) {
+            try {
+                int texture = GlUtil.createTextureFromAssets(ParamsManager.context, name);
+                GLShareGroup.finishIfMember();
+                return texture;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "unable to load texture: " + name, e);
+                return 0;
+            }
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            GLES30.glDeleteTextures(1, new int[] { texture }, 0);
+        }
+    };
+
+    private GLAssetTextureCache() {}
+
+    /**
+     * 获取当前上下文(共享组)的缓存
+     * @return
+     */
+    private static LookupTextureCache getCurrentCache() {
+        EGLContext context = GLShareGroup.getCurrentGroup();
+        synchronized (mCaches) {
+            LookupTextureCache cache = mCaches.get(context);
+            if (cache == null) {
+                cache = new LookupTextureCache(mLoader, MAX_IDLE_TEXTURES);
+                mCaches.put(context, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * 获取assets中图片的纹理，需要在GL线程调用
+     * @param name assets中的路径
+     * @return 纹理句柄，失败返回0
+     */
+    public static int acquireTexture(String name) {
+        return getCurrentCache().acquire(name);
+    }
+
+    /**
+     * 释放纹理的引用
+     * @param textures
+     */
+    public static void releaseTextures(int... textures) {
+        LookupTextureCache cache = getCurrentCache();
+        for (int texture : textures) {
+            cache.release(texture);
+        }
+    }
+
+    /**
+     * EGLContext销毁时调用，上下文仍是当前上下文时删除纹理，否则直接丢弃句柄
+     * @param context
+     */
+    public static void onContextReleased(EGLContext context) {
+        LookupTextureCache cache;
+        synchronized (mCaches) {
+            cache = mCaches.remove(context);
+        }
+        if (cache == null) {
+            return;
+        }
+        if (context.equals(EGL14.eglGetCurrentContext())) {
+            cache.clear();
+        } else {
+            cache.abandon();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.cgfay.cainfilter.gles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+
+import com.cgfay.cainfilter.utils.GlUtil;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 按EGLContext区分的异步像素回读
+ * 像素缓冲和fence属于各自的上下文，输出缓冲池和回调线程在所有上下文之间共享
+ * PBO和fence需要GLES3上下文，GLES2上下文先用isSupported判断，改用同步的glReadPixels
+ * Created by cain on 2018/3/25.
+ */
+public final class GLAsyncReadback {
+
+    // 空闲输出缓冲上限，约可以保存两张1080p的帧
+    private static final long MAX_IDLE_BYTES = 2 * 1920 * 1080 * 4;
+    // 等待fence的最长时间
+    private static final long FENCE_TIMEOUT_NS = 1000000000L;
+
+    private static final HashMap<EGLContext, AsyncReadback> mReadbacks =
+            new HashMap<EGLContext, AsyncReadback>();
+
+    private static final DirectBufferPool mBufferPool = new DirectBufferPool(MAX_IDLE_BYTES);
+
+    private static ExecutorService mExecutor;
+
+    private static final AsyncReadback.ReadbackGL mGL = new AsyncReadback.ReadbackGL() {
+        @Override
+        public int createBuffer(int size) {
+            int[] buffers = new int[1];
+            GLES30.glGenBuffers(1, buffers, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffers[0]);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            GlUtil.checkGlError("createPixelBuffer");
+            return buffers[0];
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            GLES30.glDeleteBuffers(1, new int[] { buffer }, 0);
+        }
+
+        @Override
+        public void readPixels(int buffer, int width, int height) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+            // 绑定了PIXEL_PACK_BUFFER时，最后一个参数是缓冲内的偏移，不会等待GPU
+            GLES30.glReadPixels(0, 0, width, height,
+                    GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            GlUtil.checkGlError("glReadPixels");
+        }
+
+        @Override
+        public long insertFence() {
+            long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            // 提交命令，保证之后的查询能够完成
+            GLES30.glFlush();
+            return fence;
+        }
+
+        @Override
+        public boolean isFenceSignaled(long fence) {
+            int result = GLES30.glClientWaitSync(fence, 0, 0);
+            return result == GLES30.GL_ALREADY_SIGNALED
+                    || result == GLES30.GL_CONDITION_SATISFIED;
+        }
+
+        @Override
+        public void waitFence(long fence) {
+            GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NS);
+        }
+
+        @Override
+        public void deleteFence(long fence) {
+            GLES30.glDeleteSync(fence);
+        }
+
+        @Override
+        public void copyBuffer(int buffer, int size, ByteBuffer dst) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+            ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(
+                    GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+            if (mapped != null) {
+                dst.put(mapped);
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            GlUtil.checkGlError("copyPixelBuffer");
+        }
+    };
+
+    private GLAsyncReadback() {}
+
+    private static synchronized ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ReadbackThread");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mExecutor;
+    }
+
+    /**
+     * 当前上下文是否支持异步回读
+     * @return GLES3上下文返回true
+     */
+    public static boolean isSupported() {
+        return EglCore.getCurrentGlVersion() >= 3;
+    }
+
+    /**
+     * 获取当前上下文的异步回读
+     * @return
+     * @throws IllegalStateException 当前上下文不是GLES3
+     */
+    public static AsyncReadback getCurrent() {
+        if (!isSupported()) {
+            throw new IllegalStateException("async readback requires a GLES3 context");
+        }
+        EGLContext context = EGL14.eglGetCurrentContext();
+        synchronized (mReadbacks) {
+            AsyncReadback readback = mReadbacks.get(context);
+            if (readback == null) {
+                readback = new AsyncReadback(mGL, mBufferPool, getExecutor(),
+                        AsyncReadback.DEFAULT_RING_SIZE);
+                mReadbacks.put(context, readback);
+            }
+            return readback;
+        }
+    }
+
+    /**
+     * EGLContext销毁时调用，上下文仍是当前上下文时先完成等待中的请求再删除像素缓冲，
+     * 否则直接丢弃
+     * @param context
+     */
+    public static void onContextReleased(EGLContext context) {
+        AsyncReadback readback;
+        synchronized (mReadbacks) {
+            readback = mReadbacks.remove(context);
+        }
+        if (readback == null) {
+            return;
+        }
+        if (context.equals(EGL14.eglGetCurrentContext())) {
+            readback.finish();
+            readback.release();
+        } else {
+            readback.abandon();
+        }
+    }
+}
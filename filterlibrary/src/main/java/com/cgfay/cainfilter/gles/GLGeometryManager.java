@@ -0,0 +1,262 @@
+package com.cgfay.cainfilter.gles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.util.SparseIntArray;
+
+import com.cgfay.cainfilter.utils.GlUtil;
+import com.cgfay.cainfilter.utils.TextureRotationUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+
+/**
+ * 按EGLContext区分的几何数据管理器
+ * 1、TextureRotationUtils中各个旋转角度的全屏四边形放在同一个VBO中，每个四边形和attribute
+ *    location的组合对应一个VAO，绘制时只需要绑定VAO，不再每个pass从客户端内存拷贝顶点。
+ *    GLES2上下文没有VAO，绑定VBO后用glVertexAttribPointer设置偏移
+ * 2、贴纸四边形、人脸关键点等动态数据写入一个环形的流式VBO，空间用完时孤立旧的存储
+ * VAO不能在共享上下文之间共享，因此每个EGLContext单独一个管理器，需要在GL线程调用
+ * Created by cain on 2018/3/24.
+ */
+public final class GLGeometryManager {
+
+    // 静态四边形
+    public static final int QUAD_ROTATION_0 = 0;
+    public static final int QUAD_ROTATION_90 = 1;
+    public static final int QUAD_ROTATION_180 = 2;
+    public static final int QUAD_ROTATION_270 = 3;
+
+    // 流式VBO的大小
+    private static final int STREAM_CAPACITY = 64 * 1024;
+    // 流式数据的对齐字节数
+    private static final int STREAM_ALIGNMENT = 16;
+
+    private static final GeometryLayout mLayout = createLayout();
+
+    private static final HashMap<EGLContext, GLGeometryManager> mManagers =
+            new HashMap<EGLContext, GLGeometryManager>();
+
+    // 是否可以使用VAO，只有GLES3上下文支持
+    private final boolean mUseVertexArrays;
+
+    // 静态四边形VBO
+    private int mQuadBuffer = GlUtil.GL_NOT_INIT;
+    // (四边形, position location, texture location) -> VAO
+    private final SparseIntArray mVertexArrays = new SparseIntArray();
+    // GLES2下当前绑定的attribute location，解除绑定时关闭
+    private int mBoundPositionLoc = -1;
+    private int mBoundTextureLoc = -1;
+
+    // 流式VBO
+    private int mStreamBuffer = GlUtil.GL_NOT_INIT;
+    private final RingBufferAllocator mStreamAllocator =
+            new RingBufferAllocator(STREAM_CAPACITY, STREAM_ALIGNMENT);
+    // 上传用的直接内存
+    private final FloatBuffer mStaging = ByteBuffer.allocateDirect(STREAM_CAPACITY)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+    private GLGeometryManager(boolean useVertexArrays) {
+        mUseVertexArrays = useVertexArrays;
+    }
+
+    private static GeometryLayout createLayout() {
+        GeometryLayout layout = new GeometryLayout();
+        layout.addQuad(TextureRotationUtils.CubeVertices, TextureRotationUtils.TextureVertices);
+        layout.addQuad(TextureRotationUtils.CubeVertices, TextureRotationUtils.TextureVertices_90);
+        layout.addQuad(TextureRotationUtils.CubeVertices, TextureRotationUtils.TextureVertices_180);
+        layout.addQuad(TextureRotationUtils.CubeVertices, TextureRotationUtils.TextureVertices_270);
+        return layout;
+    }
+
+    /**
+     * 获取当前上下文的几何数据管理器
+     * @return
+     */
+    public static GLGeometryManager getCurrent() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        synchronized (mManagers) {
+            GLGeometryManager manager = mManagers.get(context);
+            if (manager == null) {
+                manager = new GLGeometryManager(EglCore.getCurrentGlVersion() >= 3);
+                mManagers.put(context, manager);
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * 查找与坐标缓冲内容一致的静态四边形
+     * @param vertexBuffer
+     * @param textureBuffer
+     * @return 没有找到时返回-1
+     */
+    public int findQuad(FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        return mLayout.findQuad(vertexBuffer, textureBuffer);
+    }
+
+    /**
+     * 绑定静态四边形的VAO，之后使用glDrawArrays(GL_TRIANGLE_STRIP, 0, 4)绘制
+     * @param quad 四边形索引
+     * @param positionLoc 顶点坐标的attribute location
+     * @param textureLoc 纹理坐标的attribute location
+     */
+    public void bindQuad(int quad, int positionLoc, int textureLoc) {
+        if (!mUseVertexArrays) {
+            bindQuadBuffer(quad, positionLoc, textureLoc);
+            return;
+        }
+        int key = (quad << 16) | ((positionLoc & 0xff) << 8) | (textureLoc & 0xff);
+        int vertexArray = mVertexArrays.get(key, GlUtil.GL_NOT_INIT);
+        if (vertexArray == GlUtil.GL_NOT_INIT) {
+            vertexArray = createVertexArray(quad, positionLoc, textureLoc);
+            mVertexArrays.put(key, vertexArray);
+        }
+        GLES30.glBindVertexArray(vertexArray);
+    }
+
+    /**
+     * 解除绑定，之后的客户端顶点数组才能正常使用
+     */
+    public void unbindQuad() {
+        if (mUseVertexArrays) {
+            GLES30.glBindVertexArray(0);
+            return;
+        }
+        if (mBoundPositionLoc >= 0) {
+            GLES30.glDisableVertexAttribArray(mBoundPositionLoc);
+            mBoundPositionLoc = -1;
+        }
+        if (mBoundTextureLoc >= 0) {
+            GLES30.glDisableVertexAttribArray(mBoundTextureLoc);
+            mBoundTextureLoc = -1;
+        }
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * GLES2：绑定VBO并设置attribute
+     */
+    private void bindQuadBuffer(int quad, int positionLoc, int textureLoc) {
+        ensureQuadBuffer();
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mQuadBuffer);
+        setQuadPointers(quad, positionLoc, textureLoc);
+        mBoundPositionLoc = positionLoc;
+        mBoundTextureLoc = textureLoc;
+    }
+
+    private int createVertexArray(int quad, int positionLoc, int textureLoc) {
+        ensureQuadBuffer();
+        int[] vertexArrays = new int[1];
+        GLES30.glGenVertexArrays(1, vertexArrays, 0);
+        GLES30.glBindVertexArray(vertexArrays[0]);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mQuadBuffer);
+        setQuadPointers(quad, positionLoc, textureLoc);
+        GLES30.glBindVertexArray(0);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+        GlUtil.checkGlError("createVertexArray");
+        return vertexArrays[0];
+    }
+
+    private void ensureQuadBuffer() {
+        if (mQuadBuffer == GlUtil.GL_NOT_INIT) {
+            int[] buffers = new int[1];
+            GLES30.glGenBuffers(1, buffers, 0);
+            mQuadBuffer = buffers[0];
+            GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mQuadBuffer);
+            GLES30.glBufferData(GLES30.GL_ARRAY_BUFFER, mLayout.getByteSize(),
+                    GlUtil.createFloatBuffer(mLayout.build()), GLES30.GL_STATIC_DRAW);
+            GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+        }
+    }
+
+    /**
+     * 在已经绑定的四边形VBO上设置attribute，VAO和GLES2共用
+     */
+    private void setQuadPointers(int quad, int positionLoc, int textureLoc) {
+        int offset = mLayout.getByteOffset(quad);
+        if (positionLoc >= 0) {
+            GLES30.glVertexAttribPointer(positionLoc, GeometryLayout.POSITION_SIZE,
+                    GLES30.GL_FLOAT, false, GeometryLayout.STRIDE, offset);
+            GLES30.glEnableVertexAttribArray(positionLoc);
+        }
+        if (textureLoc >= 0) {
+            GLES30.glVertexAttribPointer(textureLoc, GeometryLayout.TEXTURE_SIZE,
+                    GLES30.GL_FLOAT, false, GeometryLayout.STRIDE,
+                    offset + GeometryLayout.TEXTURE_OFFSET);
+            GLES30.glEnableVertexAttribArray(textureLoc);
+        }
+    }
+
+    /**
+     * 将动态顶点数据写入流式VBO，返回后流式VBO处于绑定状态，
+     * 调用方使用返回的偏移量设置glVertexAttribPointer，之后调用unbindStream
+     * @param data
+     * @param offset
+     * @param count float数量
+     * @return 数据在VBO中的字节偏移
+     */
+    public int streamVertices(float[] data, int offset, int count) {
+        int byteOffset = mStreamAllocator.allocate(count * 4);
+        if (mStreamBuffer == GlUtil.GL_NOT_INIT) {
+            int[] buffers = new int[1];
+            GLES30.glGenBuffers(1, buffers, 0);
+            mStreamBuffer = buffers[0];
+        }
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mStreamBuffer);
+        if (mStreamAllocator.takeOrphanRequest()) {
+            // 孤立旧的存储，仍在使用旧数据的绘制不受影响
+            GLES30.glBufferData(GLES30.GL_ARRAY_BUFFER, STREAM_CAPACITY, null,
+                    GLES30.GL_STREAM_DRAW);
+        }
+        mStaging.clear();
+        mStaging.put(data, offset, count);
+        mStaging.position(0);
+        GLES30.glBufferSubData(GLES30.GL_ARRAY_BUFFER, byteOffset, count * 4, mStaging);
+        return byteOffset;
+    }
+
+    /**
+     * 解除流式VBO绑定
+     */
+    public void unbindStream() {
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * 删除全部GL对象
+     */
+    private void destroy() {
+        // 只有GLES3上下文会创建VAO
+        for (int i = 0; i < mVertexArrays.size(); i++) {
+            GLES30.glDeleteVertexArrays(1, new int[] { mVertexArrays.valueAt(i) }, 0);
+        }
+        mVertexArrays.clear();
+        if (mQuadBuffer != GlUtil.GL_NOT_INIT) {
+            GLES30.glDeleteBuffers(1, new int[] { mQuadBuffer }, 0);
+            mQuadBuffer = GlUtil.GL_NOT_INIT;
+        }
+        if (mStreamBuffer != GlUtil.GL_NOT_INIT) {
+            GLES30.glDeleteBuffers(1, new int[] { mStreamBuffer }, 0);
+            mStreamBuffer = GlUtil.GL_NOT_INIT;
+        }
+        mStreamAllocator.reset();
+    }
+
+    /**
+     * EGLContext销毁时调用，上下文仍是当前上下文时删除GL对象，否则直接丢弃
+     * @param context
+     */
+    public static void onContextReleased(EGLContext context) {
+        GLGeometryManager manager;
+        synchronized (mManagers) {
+            manager = mManagers.remove(context);
+        }
+        if (manager != null && context.equals(EGL14.eglGetCurrentContext())) {
+            manager.destroy();
+        }
+    }
+}
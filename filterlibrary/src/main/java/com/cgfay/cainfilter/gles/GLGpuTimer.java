@@ -0,0 +1,97 @@
+package com.cgfay.cainfilter.gles;
+
+import android.opengl.GLES30;
+
+import com.cgfay.cainfilter.trace.RenderTracer;
+
+/**
+ * 基于EXT_disjoint_timer_query的GPU计时
+ * GLES30的Java接口没有glQueryCounterEXT，这里使用GL_TIME_ELAPSED_EXT区间查询，
+ * 同一时间只能有一个查询处于计时状态。查询对象预先创建，不在绘制过程中分配
+ * 需要在创建时的EGLContext上使用，上下文销毁前调用release
+ * Created by cain on 2018/3/25.
+ */
+public final class GLGpuTimer implements RenderTracer.GpuTimer {
+
+    private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+    // GL_TIME_ELAPSED_EXT
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    // GL_GPU_DISJOINT_EXT
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    // 查询对象个数
+    private static final int QUERY_COUNT = 32;
+
+    private final int[] mQueries = new int[QUERY_COUNT];
+    // 空闲查询的下标
+    private final int[] mFreeList = new int[QUERY_COUNT];
+    private int mFreeCount;
+    private final int[] mResult = new int[1];
+    private final int[] mDisjoint = new int[1];
+
+    private GLGpuTimer() {
+        GLES30.glGenQueries(QUERY_COUNT, mQueries, 0);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            mFreeList[i] = i;
+        }
+        mFreeCount = QUERY_COUNT;
+        // 清除之前的不连续标志
+        GLES30.glGetIntegerv(GL_GPU_DISJOINT_EXT, mDisjoint, 0);
+    }
+
+    /**
+     * 在当前上下文创建GPU计时，不支持EXT_disjoint_timer_query时返回null
+     * @return
+     */
+    public static GLGpuTimer create() {
+        String extensions = GLES30.glGetString(GLES30.GL_EXTENSIONS);
+        if (extensions == null || !extensions.contains(EXTENSION)) {
+            return null;
+        }
+        return new GLGpuTimer();
+    }
+
+    @Override
+    public int beginQuery() {
+        if (mFreeCount == 0) {
+            return -1;
+        }
+        int query = mFreeList[--mFreeCount];
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[query]);
+        return query;
+    }
+
+    @Override
+    public void endQuery(int query) {
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+    }
+
+    @Override
+    public long getResult(int query) {
+        GLES30.glGetQueryObjectuiv(mQueries[query], GLES30.GL_QUERY_RESULT_AVAILABLE, mResult, 0);
+        if (mResult[0] == GLES30.GL_FALSE) {
+            return RESULT_PENDING;
+        }
+        GLES30.glGetQueryObjectuiv(mQueries[query], GLES30.GL_QUERY_RESULT, mResult, 0);
+        // 计时期间发生过降频等不连续事件时结果不可信，读取后标志被清除
+        GLES30.glGetIntegerv(GL_GPU_DISJOINT_EXT, mDisjoint, 0);
+        if (mDisjoint[0] != 0) {
+            return RESULT_INVALID;
+        }
+        // 结果为32位无符号整数
+        return mResult[0] & 0xffffffffL;
+    }
+
+    @Override
+    public void releaseQuery(int query) {
+        mFreeList[mFreeCount++] = query;
+    }
+
+    /**
+     * 删除查询对象，需要在创建时的上下文调用
+     */
+    public void release() {
+        GLES30.glDeleteQueries(QUERY_COUNT, mQueries, 0);
+        mFreeCount = 0;
+    }
+}
@@ -0,0 +1,193 @@
+package com.cgfay.cainfilter.gles;
+
+import android.graphics.Bitmap;
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.glfilter.base.LookupTable;
+import com.cgfay.utilslibrary.BitmapUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+
+/**
+ * 按EGLContext区分的查找表纹理缓存
+ * 查找图从assets解码后转换成三维纹理上传，纹理只在创建它的上下文(及其共享组)中有效，
+ * 因此每个EGLContext各自持有一个LookupTextureCache
+ * GLES2上下文没有三维纹理，查找图按原样作为二维纹理上传，由GLImageLookupFilter的二维shader采样
+ * Created by cain on 2018/3/25.
+ */
+public final class GLLookupTextureCache {
+
+    private static final String TAG = "GLLookupTextureCache";
+
+    // GLES2二维查找图的尺寸
+    private static final int LOOKUP_IMAGE_SIZE_2D = 512;
+
+    private static final HashMap<EGLContext, LookupTextureCache> mCaches =
+            new HashMap<EGLContext, LookupTextureCache>();
+
+    private static final LookupTextureCache.TextureLoader mLoader =
+            new LookupTextureCache.TextureLoader() {
+        @Override
+        public int loadTexture(String name) {
+            Bitmap bitmap = BitmapUtils.getImageFromAssetsFile(ParamsManager.context, name);
+            if (bitmap == null) {
+                Log.e(TAG, "unable to decode lookup image: " + name);
+                return 0;
+            }
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            if (EglCore.getCurrentGlVersion() < 3) {
+                return createLookupImageTexture(bitmap, name);
+            }
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            bitmap.recycle();
+            try {
+                int texture = createTexture(LookupTable.fromLookupImage(pixels, width, height));
+                GLShareGroup.finishIfMember();
+                return texture;
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "invalid lookup image: " + name, e);
+                return 0;
+            }
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            GLES30.glDeleteTextures(1, new int[] { texture }, 0);
+        }
+    };
+
+    private GLLookupTextureCache() {}
+
+    /**
+     * GLES2：把512 x 512的二维查找图直接上传成二维纹理，上传后回收Bitmap
+     * @param bitmap
+     * @param name
+     * @return 纹理句柄，失败返回0
+     */
+    private static int createLookupImageTexture(Bitmap bitmap, String name) {
+        // 二维查找图shader按64级、每行8块计算坐标
+        if (bitmap.getWidth() != LOOKUP_IMAGE_SIZE_2D
+                || bitmap.getHeight() != LOOKUP_IMAGE_SIZE_2D) {
+            Log.e(TAG, "lookup image must be 512x512 on GLES2: " + name);
+            bitmap.recycle();
+            return 0;
+        }
+        int[] textures = new int[1];
+        GLES30.glGenTextures(1, textures, 0);
+        if (textures[0] == 0) {
+            bitmap.recycle();
+            return 0;
+        }
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, textures[0]);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D,
+                GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D,
+                GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D,
+                GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D,
+                GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GLES30.GL_TEXTURE_2D, 0, bitmap, 0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        bitmap.recycle();
+        GLShareGroup.finishIfMember();
+        return textures[0];
+    }
+
+    /**
+     * 上传三维纹理，使用线性过滤，由硬件完成三线性插值
+     * @param table
+     * @return
+     */
+    public static int createTexture(LookupTable table) {
+        int[] textures = new int[1];
+        GLES30.glGenTextures(1, textures, 0);
+        if (textures[0] == 0) {
+            return 0;
+        }
+        int size = table.getSize();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(table.getByteSize())
+                .order(ByteOrder.nativeOrder());
+        buffer.put(table.getData()).position(0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, textures[0]);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D,
+                GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D,
+                GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D,
+                GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D,
+                GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D,
+                GLES30.GL_TEXTURE_WRAP_R, GLES30.GL_CLAMP_TO_EDGE);
+        // RGB每行3 * size个字节，不一定是4的倍数
+        GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 1);
+        GLES30.glTexImage3D(GLES30.GL_TEXTURE_3D, 0, GLES30.GL_RGB8, size, size, size, 0,
+                GLES30.GL_RGB, GLES30.GL_UNSIGNED_BYTE, buffer);
+        GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 4);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, 0);
+        return textures[0];
+    }
+
+    /**
+     * 获取当前上下文的缓存
+     * @return
+     */
+    private static LookupTextureCache getCurrentCache() {
+        // 加入共享组的后台上下文使用渲染上下文的缓存
+        EGLContext context = GLShareGroup.getCurrentGroup();
+        synchronized (mCaches) {
+            LookupTextureCache cache = mCaches.get(context);
+            if (cache == null) {
+                cache = new LookupTextureCache(mLoader);
+                mCaches.put(context, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * 获取查找表纹理，需要在GL线程调用
+     * @param name assets中二维查找图的路径
+     * @return 三维纹理句柄，失败返回0
+     */
+    public static int acquireTexture(String name) {
+        return getCurrentCache().acquire(name);
+    }
+
+    /**
+     * 释放查找表纹理的引用
+     * @param texture
+     */
+    public static void releaseTexture(int texture) {
+        getCurrentCache().release(texture);
+    }
+
+    /**
+     * EGLContext销毁时调用，上下文仍是当前上下文时删除纹理，否则直接丢弃句柄
+     * @param context
+     */
+    public static void onContextReleased(EGLContext context) {
+        LookupTextureCache cache;
+        synchronized (mCaches) {
+            cache = mCaches.remove(context);
+        }
+        if (cache == null) {
+            return;
+        }
+        if (context.equals(EGL14.eglGetCurrentContext())) {
+            cache.clear();
+        } else {
+            cache.abandon();
+        }
+    }
+}
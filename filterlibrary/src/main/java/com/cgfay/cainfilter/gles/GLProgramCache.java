@@ -0,0 +1,111 @@
+package com.cgfay.cainfilter.gles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+
+import com.cgfay.cainfilter.utils.GlUtil;
+
+import java.util.HashMap;
+
+/**
+ * 按EGLContext区分的Program缓存
+ * program只在创建它的上下文(及其共享组)中有效，因此每个EGLContext各自持有一个ProgramCache，
+ * 加入GLShareGroup的共享上下文与根上下文使用同一个ProgramCache
+ * Created by cain on 2018/3/20.
+ */
+public final class GLProgramCache {
+
+    private static final HashMap<EGLContext, ProgramCache> mCaches =
+            new HashMap<EGLContext, ProgramCache>();
+
+    private static final ProgramCache.ProgramCompiler mCompiler = new ProgramCache.ProgramCompiler() {
+        @Override
+        public int createProgram(String vertexSource, String fragmentSource) {
+            int program = GlUtil.createProgram(vertexSource, fragmentSource);
+            GLShareGroup.finishIfMember();
+            return program;
+        }
+
+        @Override
+        public void deleteProgram(int program) {
+            GLES30.glDeleteProgram(program);
+        }
+    };
+
+    private GLProgramCache() {}
+
+    /**
+     * 获取当前上下文的缓存
+     * @return
+     */
+    private static ProgramCache getCurrentCache() {
+        // 加入共享组的后台上下文使用渲染上下文的缓存
+        EGLContext context = GLShareGroup.getCurrentGroup();
+        synchronized (mCaches) {
+            ProgramCache cache = mCaches.get(context);
+            if (cache == null) {
+                cache = new ProgramCache(mCompiler);
+                mCaches.put(context, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * 获取program，需要在GL线程调用
+     * @param vertexSource
+     * @param fragmentSource
+     * @return
+     */
+    public static int acquireProgram(String vertexSource, String fragmentSource) {
+        return getCurrentCache().acquire(vertexSource, fragmentSource);
+    }
+
+    /**
+     * 释放program引用
+     * @param program
+     * @param owner
+     */
+    public static void releaseProgram(int program, Object owner) {
+        getCurrentCache().release(program, owner);
+    }
+
+    /**
+     * 获取program的使用者记录，滤镜在acquireProgram之后保存下来，绘制时直接使用
+     * @param program
+     * @return program不在缓存中时返回null
+     */
+    public static ProgramCache.ProgramOwner getOwner(int program) {
+        return getCurrentCache().getOwner(program);
+    }
+
+    /**
+     * 绑定program的使用者
+     * @param program
+     * @param owner
+     * @return 使用者是否发生变化，发生变化时需要重新设置uniform
+     */
+    public static boolean bindOwner(int program, Object owner) {
+        return getCurrentCache().bindOwner(program, owner);
+    }
+
+    /**
+     * EGLContext销毁时调用，上下文仍是当前上下文时删除program，否则直接丢弃句柄
+     * @param context
+     */
+    public static void onContextReleased(EGLContext context) {
+        ProgramCache cache;
+        synchronized (mCaches) {
+            cache = mCaches.remove(context);
+        }
+        if (cache == null) {
+            return;
+        }
+        if (context.equals(EGL14.eglGetCurrentContext())) {
+            cache.clear();
+        } else {
+            cache.abandon();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.cgfay.cainfilter.gles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+
+import com.cgfay.cainfilter.utils.GlUtil;
+
+import java.util.HashMap;
+
+/**
+ * 按EGLContext区分的渲染目标池
+ * Created by cain on 2018/3/21.
+ */
+public final class GLRenderTargetPool {
+
+    private static final HashMap<EGLContext, RenderTargetPool> mPools =
+            new HashMap<EGLContext, RenderTargetPool>();
+
+    private static final RenderTargetPool.RenderTargetAllocator mAllocator =
+            new RenderTargetPool.RenderTargetAllocator() {
+        @Override
+        public RenderTarget createRenderTarget(int width, int height, int format) {
+            int[] framebuffers = new int[1];
+            int[] textures = new int[1];
+            GLES30.glGenFramebuffers(1, framebuffers, 0);
+            GLES30.glGenTextures(1, textures, 0);
+            GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, textures[0]);
+            GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, format, width, height, 0,
+                    format, GLES30.GL_UNSIGNED_BYTE, null);
+            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
+                    GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
+                    GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
+                    GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
+                    GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebuffers[0]);
+            GLES30.glFramebufferTexture2D(GLES30.GL_FRAMEBUFFER, GLES30.GL_COLOR_ATTACHMENT0,
+                    GLES30.GL_TEXTURE_2D, textures[0], 0);
+            GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+            GlUtil.checkGlError("createRenderTarget");
+            return new RenderTarget(framebuffers[0], textures[0], width, height, format,
+                    (long) width * height * getBytesPerPixel(format));
+        }
+
+        @Override
+        public void destroyRenderTarget(RenderTarget target) {
+            GLES30.glDeleteTextures(1, new int[] { target.getTextureId() }, 0);
+            GLES30.glDeleteFramebuffers(1, new int[] { target.getFramebufferId() }, 0);
+        }
+    };
+
+    private GLRenderTargetPool() {}
+
+    /**
+     * 每个像素的字节数
+     * @param format
+     * @return
+     */
+    private static int getBytesPerPixel(int format) {
+        switch (format) {
+            case GLES30.GL_RGB:
+                return 3;
+            case GLES30.GL_LUMINANCE:
+            case GLES30.GL_ALPHA:
+                return 1;
+            case GLES30.GL_RGBA:
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * 获取当前上下文的渲染目标池
+     * @return
+     */
+    public static RenderTargetPool getCurrentPool() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        synchronized (mPools) {
+            RenderTargetPool pool = mPools.get(context);
+            if (pool == null) {
+                pool = new RenderTargetPool(mAllocator);
+                mPools.put(context, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * 借出RGBA格式的渲染目标，需要在GL线程调用
+     * @param width
+     * @param height
+     * @return
+     */
+    public static RenderTarget obtain(int width, int height) {
+        return getCurrentPool().obtain(width, height, GLES30.GL_RGBA);
+    }
+
+    /**
+     * 归还渲染目标
+     * @param target
+     */
+    public static void recycle(RenderTarget target) {
+        getCurrentPool().recycle(target);
+    }
+
+    /**
+     * EGLContext销毁时调用，上下文仍是当前上下文时销毁空闲的渲染目标，否则直接丢弃
+     * @param context
+     */
+    public static void onContextReleased(EGLContext context) {
+        RenderTargetPool pool;
+        synchronized (mPools) {
+            pool = mPools.remove(context);
+        }
+        if (pool == null) {
+            return;
+        }
+        if (context.equals(EGL14.eglGetCurrentContext())) {
+            pool.clear();
+        }
+        pool.abandon();
+    }
+}
@@ -0,0 +1,108 @@
+package com.cgfay.cainfilter.gles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * EGL共享组
+ * program和纹理在共享上下文之间通用，后台线程的共享上下文加入渲染上下文的共享组之后，
+ * GLProgramCache、GLLookupTextureCache、GLAssetTextureCache都按共享组查找缓存，
+ * 后台线程编译的program和上传的纹理可以直接被渲染线程使用
+ * 渲染目标、几何数据等容器对象不能共享，仍然按各自的上下文管理
+ * Created by cain on 2018/3/25.
+ */
+public final class GLShareGroup {
+
+    // 加入共享组的上下文 -> 共享组的根上下文
+    private static final HashMap<EGLContext, EGLContext> mMembers =
+            new HashMap<EGLContext, EGLContext>();
+
+    private GLShareGroup() {}
+
+    /**
+     * 加入共享组，context必须是以sharedContext为共享上下文创建的
+     * @param context
+     * @param sharedContext
+     */
+    public static void join(EGLContext context, EGLContext sharedContext) {
+        synchronized (mMembers) {
+            mMembers.put(context, resolveLocked(sharedContext));
+        }
+    }
+
+    /**
+     * 离开共享组
+     * @param context
+     * @return context是否是加入共享组的上下文
+     */
+    public static boolean leave(EGLContext context) {
+        synchronized (mMembers) {
+            return mMembers.remove(context) != null;
+        }
+    }
+
+    /**
+     * 根上下文销毁时，所有成员一起失效
+     * @param context
+     */
+    public static void onContextReleased(EGLContext context) {
+        synchronized (mMembers) {
+            Iterator<Map.Entry<EGLContext, EGLContext>> iterator = mMembers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<EGLContext, EGLContext> entry = iterator.next();
+                if (entry.getKey().equals(context) || entry.getValue().equals(context)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取上下文所在共享组的根上下文，没有加入共享组时返回自身
+     * @param context
+     * @return
+     */
+    public static EGLContext resolve(EGLContext context) {
+        synchronized (mMembers) {
+            return resolveLocked(context);
+        }
+    }
+
+    /**
+     * 当前上下文所在共享组的根上下文，用作按上下文缓存的键
+     * @return
+     */
+    public static EGLContext getCurrentGroup() {
+        return resolve(EGL14.eglGetCurrentContext());
+    }
+
+    /**
+     * 当前上下文是否是加入了共享组的成员
+     * @return
+     */
+    public static boolean isCurrentMember() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        synchronized (mMembers) {
+            return mMembers.containsKey(context);
+        }
+    }
+
+    /**
+     * 在共享组成员上创建的对象，需要等待完成之后其他上下文才能安全使用
+     */
+    public static void finishIfMember() {
+        if (isCurrentMember()) {
+            GLES30.glFinish();
+        }
+    }
+
+    private static EGLContext resolveLocked(EGLContext context) {
+        EGLContext root = mMembers.get(context);
+        return root != null ? root : context;
+    }
+}
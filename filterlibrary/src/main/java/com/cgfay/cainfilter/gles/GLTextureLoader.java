@@ -0,0 +1,328 @@
+package com.cgfay.cainfilter.gles;
+
+import android.graphics.Bitmap;
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.os.Process;
+import android.util.Log;
+
+import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.utils.GlUtil;
+import com.cgfay.utilslibrary.BitmapUtils;
+
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 按EGLContext(共享组)区分的异步纹理加载
+ * assets中的图片在解码线程池中解码，在与渲染上下文共享的上传线程中上传并插入fence，
+ * 渲染线程每帧调用dispatch之后才能拿到上传完成的纹理，解码和texImage2D都不占用渲染线程
+ * 队列、去重、取消和内存预算由TextureLoadQueue实现
+ * 键默认是assets中的路径，"scheme://path"形式的键交给registerDecoder注册的解码器，例如贴纸图集页
+ * 渲染上下文是GLES2时没有fence，上传线程在glFinish之后再发布纹理
+ * Created by cain on 2018/3/25.
+ */
+public final class GLTextureLoader {
+
+    private static final String TAG = "GLTextureLoader";
+
+    // 解码线程个数
+    private static final int DECODE_THREADS = 2;
+    // 解码后的图像和纹理的内存预算
+    private static final long MAX_BYTES = 24 * 1024 * 1024;
+    // 自定义键的scheme分隔符
+    private static final String SCHEME_SEPARATOR = "://";
+
+    private static final HashMap<EGLContext, GLTextureLoader> mLoaders =
+            new HashMap<EGLContext, GLTextureLoader>();
+
+    /**
+     * 自定义键的解码器，在解码线程调用
+     */
+    public interface BitmapDecoder {
+        /**
+         * @param path 键中scheme://之后的部分
+         * @return 解码失败返回null
+         */
+        Bitmap decode(String path);
+    }
+
+    private static final HashMap<String, BitmapDecoder> mBitmapDecoders =
+            new HashMap<String, BitmapDecoder>();
+
+    private static ExecutorService mDecodeExecutor;
+
+    private static final TextureLoadQueue.Decoder mDecoder = new TextureLoadQueue.Decoder() {
+        @Override
+        public TextureLoadQueue.Image decode(String key) {
+            Bitmap bitmap;
+            int separator = key.indexOf(SCHEME_SEPARATOR);
+            if (separator > 0) {
+                BitmapDecoder decoder;
+                synchronized (mBitmapDecoders) {
+                    decoder = mBitmapDecoders.get(key.substring(0, separator));
+                }
+                bitmap = decoder != null
+                        ? decoder.decode(key.substring(separator + SCHEME_SEPARATOR.length()))
+                        : null;
+            } else {
+                bitmap = BitmapUtils.getImageFromAssetsFile(ParamsManager.context, key);
+            }
+            if (bitmap == null) {
+                Log.e(TAG, "unable to decode: " + key);
+                return null;
+            }
+            return new TextureLoadQueue.Image(bitmap, bitmap.getWidth(), bitmap.getHeight());
+        }
+
+        @Override
+        public void recycle(TextureLoadQueue.Image image) {
+            Bitmap bitmap = (Bitmap) image.pixels;
+            if (!bitmap.isRecycled()) {
+                bitmap.recycle();
+            }
+        }
+    };
+
+    private final UploadThread mUploadThread;
+    private final TextureLoadQueue mQueue;
+
+    private GLTextureLoader(EGLContext sharedContext, boolean gles3) {
+        mUploadThread = new UploadThread(sharedContext, gles3);
+        mQueue = new TextureLoadQueue(mDecoder, mUploadThread, getDecodeExecutor(),
+                mUploadThread, TextureLoadQueue.DEFAULT_MAX_DECODING, MAX_BYTES);
+        mUploadThread.mQueue = mQueue;
+        mUploadThread.start();
+    }
+
+    /**
+     * 注册"scheme://path"形式的键的解码器，重复注册时替换
+     * @param scheme
+     * @param decoder
+     */
+    public static void registerDecoder(String scheme, BitmapDecoder decoder) {
+        synchronized (mBitmapDecoders) {
+            mBitmapDecoders.put(scheme, decoder);
+        }
+    }
+
+    private static synchronized ExecutorService getDecodeExecutor() {
+        if (mDecodeExecutor == null) {
+            mDecodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+                private int mCount;
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "TextureDecodeThread-" + (mCount++));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mDecodeExecutor;
+    }
+
+    /**
+     * 获取当前上下文(共享组)的纹理加载队列，第一次调用时启动上传线程
+     * @return
+     */
+    public static TextureLoadQueue getCurrent() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        EGLContext group = GLShareGroup.resolve(context);
+        synchronized (mLoaders) {
+            GLTextureLoader loader = mLoaders.get(group);
+            if (loader == null) {
+                int[] version = new int[1];
+                EGL14.eglQueryContext(EGL14.eglGetCurrentDisplay(), context,
+                        EGL14.EGL_CONTEXT_CLIENT_VERSION, version, 0);
+                loader = new GLTextureLoader(context, version[0] >= 3);
+                mLoaders.put(group, loader);
+            }
+            return loader.mQueue;
+        }
+    }
+
+    /**
+     * EGLContext销毁时调用，先停止上传线程，上下文仍是当前上下文时删除纹理，否则直接丢弃句柄
+     * @param context
+     */
+    public static void onContextReleased(EGLContext context) {
+        GLTextureLoader loader;
+        synchronized (mLoaders) {
+            loader = mLoaders.remove(context);
+        }
+        if (loader == null) {
+            return;
+        }
+        loader.mUploadThread.quit();
+        if (context.equals(EGL14.eglGetCurrentContext())) {
+            loader.mQueue.release();
+        } else {
+            loader.mQueue.abandon();
+        }
+    }
+
+    /**
+     * 上传线程，持有与渲染上下文共享的EGLContext，按提交顺序执行上传任务
+     * 共享上下文创建失败或者退出之后不再上传，剩余和之后提交的任务直接执行，
+     * upload返回0，由加载队列回收解码好的图像并把请求标记为失败
+     */
+    private static final class UploadThread extends Thread
+            implements Executor, TextureLoadQueue.Uploader {
+
+        private static final Runnable QUIT = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        private final EGLContext mSharedContext;
+        private final boolean mTryGles3;
+        private final BlockingQueue<Runnable> mTasks = new LinkedBlockingQueue<Runnable>();
+        // 线程启动前设置，上下文创建失败时通知加载队列
+        private TextureLoadQueue mQueue;
+        // 不再上传，提交的任务在调用线程直接执行
+        private volatile boolean mDead;
+        // 上传线程的上下文是否支持fence，只在上传线程读写
+        private boolean mFenceSupported;
+
+        UploadThread(EGLContext sharedContext, boolean tryGles3) {
+            super("TextureUploadThread");
+            mSharedContext = sharedContext;
+            mTryGles3 = tryGles3;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (mDead) {
+                task.run();
+                return;
+            }
+            mTasks.add(task);
+            // 与线程退出时的drain竞争，任务没有被取走时在这里执行
+            if (mDead && mTasks.remove(task)) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            EglCore eglCore = null;
+            OffscreenSurface surface = null;
+            boolean contextReady = false;
+            try {
+                eglCore = new EglCore(mSharedContext, mTryGles3 ? EglCore.FLAG_TRY_GLES3 : 0);
+                surface = new OffscreenSurface(eglCore, 1, 1);
+                surface.makeCurrent();
+                GLShareGroup.join(eglCore.getEGLContext(), mSharedContext);
+                mFenceSupported = eglCore.getGlVersion() >= 3;
+                contextReady = true;
+                while (true) {
+                    Runnable task = mTasks.take();
+                    if (task == QUIT) {
+                        break;
+                    }
+                    task.run();
+                }
+            } catch (InterruptedException e) {
+                Log.d(TAG, "upload thread interrupted");
+            } catch (RuntimeException e) {
+                Log.e(TAG, "upload context failed", e);
+            } finally {
+                mDead = true;
+                if (!contextReady) {
+                    mQueue.setUploadUnavailable();
+                }
+                drain();
+                if (surface != null) {
+                    surface.release();
+                }
+                if (eglCore != null) {
+                    eglCore.release();
+                }
+            }
+        }
+
+        /**
+         * 停止上传并等待线程退出，正在执行的任务完成后退出，等待中的任务不再上传，只回收图像
+         */
+        void quit() {
+            mDead = true;
+            mTasks.add(QUIT);
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // 线程没有启动或者join被打断时，由调用线程回收剩余的图像
+            drain();
+        }
+
+        /**
+         * 执行剩余的任务，此时upload返回0，图像由加载队列回收
+         */
+        private void drain() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                if (task != QUIT) {
+                    task.run();
+                }
+            }
+        }
+
+        @Override
+        public int upload(TextureLoadQueue.Image image) {
+            if (mDead) {
+                return 0;
+            }
+            try {
+                return GlUtil.createTexture((Bitmap) image.pixels);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "unable to upload texture", e);
+                return 0;
+            }
+        }
+
+        @Override
+        public long insertFence() {
+            if (!mFenceSupported) {
+                GLES30.glFinish();
+                return 0;
+            }
+            long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            // 提交命令，渲染线程的查询才能完成
+            GLES30.glFlush();
+            return fence;
+        }
+
+        @Override
+        public boolean isFenceSignaled(long fence) {
+            int result = GLES30.glClientWaitSync(fence, 0, 0);
+            return result == GLES30.GL_ALREADY_SIGNALED
+                    || result == GLES30.GL_CONDITION_SATISFIED;
+        }
+
+        @Override
+        public void deleteFence(long fence) {
+            GLES30.glDeleteSync(fence);
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            GLES30.glDeleteTextures(1, new int[] { texture }, 0);
+        }
+    }
+}
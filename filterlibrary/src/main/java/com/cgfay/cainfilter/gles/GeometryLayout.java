@@ -0,0 +1,138 @@
+package com.cgfay.cainfilter.gles;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 静态四边形的顶点布局
+ * 所有四边形(全屏顶点 + 不同旋转、翻转的纹理坐标)按 x, y, s, t 交错存放在同一个VBO中，
+ * 每个四边形占4个顶点，第i个四边形从第 i * 4 个顶点开始绘制
+ * 本类只计算布局，不依赖GLES
+ * Created by cain on 2018/3/24.
+ */
+public final class GeometryLayout {
+
+    // 每个顶点的位置坐标数
+    public static final int POSITION_SIZE = 2;
+    // 每个顶点的纹理坐标数
+    public static final int TEXTURE_SIZE = 2;
+    // 每个顶点的float数
+    public static final int FLOATS_PER_VERTEX = POSITION_SIZE + TEXTURE_SIZE;
+    // 每个顶点的字节数
+    public static final int STRIDE = FLOATS_PER_VERTEX * 4;
+    // 纹理坐标在顶点中的字节偏移
+    public static final int TEXTURE_OFFSET = POSITION_SIZE * 4;
+    // 每个四边形的顶点数
+    public static final int VERTICES_PER_QUAD = 4;
+
+    private final List<float[]> mPositions = new ArrayList<float[]>();
+    private final List<float[]> mTextures = new ArrayList<float[]>();
+
+    /**
+     * 添加一个四边形
+     * @param positions 4个顶点的位置坐标，长度为8
+     * @param textures 4个顶点的纹理坐标，长度为8
+     * @return 四边形的索引
+     */
+    public int addQuad(float[] positions, float[] textures) {
+        if (positions.length != VERTICES_PER_QUAD * POSITION_SIZE
+                || textures.length != VERTICES_PER_QUAD * TEXTURE_SIZE) {
+            throw new IllegalArgumentException("quad needs 4 vertices with 2 components each");
+        }
+        mPositions.add(positions.clone());
+        mTextures.add(textures.clone());
+        return mPositions.size() - 1;
+    }
+
+    /**
+     * 四边形数量
+     * @return
+     */
+    public int getQuadCount() {
+        return mPositions.size();
+    }
+
+    /**
+     * 第index个四边形的起始顶点，用于glDrawArrays的first参数
+     * @param index
+     * @return
+     */
+    public int getFirstVertex(int index) {
+        checkIndex(index);
+        return index * VERTICES_PER_QUAD;
+    }
+
+    /**
+     * 第index个四边形在VBO中的字节偏移
+     * @param index
+     * @return
+     */
+    public int getByteOffset(int index) {
+        return getFirstVertex(index) * STRIDE;
+    }
+
+    /**
+     * VBO的总字节数
+     * @return
+     */
+    public int getByteSize() {
+        return mPositions.size() * VERTICES_PER_QUAD * STRIDE;
+    }
+
+    /**
+     * 生成交错存放的顶点数据
+     * @return
+     */
+    public float[] build() {
+        float[] data = new float[mPositions.size() * VERTICES_PER_QUAD * FLOATS_PER_VERTEX];
+        int offset = 0;
+        for (int quad = 0; quad < mPositions.size(); quad++) {
+            float[] positions = mPositions.get(quad);
+            float[] textures = mTextures.get(quad);
+            for (int vertex = 0; vertex < VERTICES_PER_QUAD; vertex++) {
+                data[offset++] = positions[vertex * POSITION_SIZE];
+                data[offset++] = positions[vertex * POSITION_SIZE + 1];
+                data[offset++] = textures[vertex * TEXTURE_SIZE];
+                data[offset++] = textures[vertex * TEXTURE_SIZE + 1];
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 根据顶点和纹理坐标的内容查找对应的四边形，坐标缓冲的内容可能随时被修改，因此按内容比较
+     * @param positions
+     * @param textures
+     * @return 没有找到时返回-1
+     */
+    public int findQuad(FloatBuffer positions, FloatBuffer textures) {
+        if (positions == null || textures == null
+                || positions.limit() != VERTICES_PER_QUAD * POSITION_SIZE
+                || textures.limit() != VERTICES_PER_QUAD * TEXTURE_SIZE) {
+            return -1;
+        }
+        for (int quad = 0; quad < mPositions.size(); quad++) {
+            if (contentEquals(mPositions.get(quad), positions)
+                    && contentEquals(mTextures.get(quad), textures)) {
+                return quad;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean contentEquals(float[] array, FloatBuffer buffer) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] != buffer.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mPositions.size()) {
+            throw new IndexOutOfBoundsException("quad " + index + " of " + mPositions.size());
+        }
+    }
+}
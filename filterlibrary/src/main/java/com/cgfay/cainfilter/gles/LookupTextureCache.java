@@ -0,0 +1,227 @@
+package com.cgfay.cainfilter.gles;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 查找表纹理缓存，以查找图的名字为键共享转换好的三维纹理
+ * 每次acquire增加引用计数，release减少引用计数，引用计数为0的纹理进入空闲LRU队列，
+ * 超出空闲预算时才真正删除，这样来回切换滤镜时不需要重新解码和转换查找图
+ * 解码和上传在锁外进行：正在加载的名字先放入一个占位项，同一个名字的其他调用方等待这一项完成，
+ * 切换滤镜时加载其他查找表不会被后台预热阻塞
+ * 本类不直接调用GLES，加载和删除纹理通过TextureLoader完成，方便在JVM上测试
+ * GLAssetTextureCache也用它按assets路径缓存普通的二维纹理
+ * Created by cain on 2018/3/25.
+ */
+public final class LookupTextureCache {
+
+    /**
+     * 纹理加载器，对解码、转换和GLES上传的封装
+     */
+    public interface TextureLoader {
+
+        /**
+         * 加载查找图并创建三维纹理
+         * @param name
+         * @return 纹理句柄，失败返回0
+         */
+        int loadTexture(String name);
+
+        /**
+         * 删除纹理
+         * @param texture
+         */
+        void deleteTexture(int texture);
+    }
+
+    // 默认最多保留的空闲纹理个数，64级的查找表每个占用768KB
+    public static final int DEFAULT_MAX_IDLE_TEXTURES = 4;
+
+    private final TextureLoader mLoader;
+    private final int mMaxIdleTextures;
+
+    // 全部纹理
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    // 纹理句柄 -> Entry
+    private final HashMap<Integer, Entry> mTextureEntries = new HashMap<Integer, Entry>();
+    // 空闲的纹理，按访问顺序排列，最久未使用的排在最前面
+    private final LinkedHashMap<String, Entry> mIdleEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    // 统计数据
+    private int mHitCount;
+    private int mMissCount;
+
+    public LookupTextureCache(TextureLoader loader) {
+        this(loader, DEFAULT_MAX_IDLE_TEXTURES);
+    }
+
+    public LookupTextureCache(TextureLoader loader, int maxIdleTextures) {
+        if (loader == null) {
+            throw new IllegalArgumentException("loader must not be null");
+        }
+        if (maxIdleTextures < 0) {
+            throw new IllegalArgumentException("maxIdleTextures must not be negative");
+        }
+        mLoader = loader;
+        mMaxIdleTextures = maxIdleTextures;
+    }
+
+    /**
+     * 获取查找表纹理，不存在时加载
+     * 其他线程正在加载同一个查找表时等待它完成，加载本身不持有缓存的锁
+     * @param name 查找图的名字
+     * @return 纹理句柄，加载失败时返回0
+     */
+    public int acquire(String name) {
+        Entry entry;
+        synchronized (this) {
+            boolean interrupted = false;
+            while ((entry = mEntries.get(name)) != null && entry.loading) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (entry != null) {
+                mHitCount++;
+                if (entry.refCount == 0) {
+                    mIdleEntries.remove(name);
+                }
+                entry.refCount++;
+                return entry.texture;
+            }
+            mMissCount++;
+            entry = new Entry(name);
+            mEntries.put(name, entry);
+        }
+        int texture = 0;
+        try {
+            texture = mLoader.loadTexture(name);
+        } finally {
+            synchronized (this) {
+                entry.loading = false;
+                notifyAll();
+                if (mEntries.get(name) == entry) {
+                    if (texture == 0) {
+                        // 加载失败的纹理不缓存，下次重新加载
+                        mEntries.remove(name);
+                    } else {
+                        entry.texture = texture;
+                        entry.refCount = 1;
+                        mTextureEntries.put(texture, entry);
+                    }
+                }
+                // 加载期间缓存被清空，上下文即将销毁，纹理不再缓存
+            }
+        }
+        return texture;
+    }
+
+    /**
+     * 释放纹理引用，引用计数为0时进入空闲队列
+     * @param texture
+     */
+    public synchronized void release(int texture) {
+        Entry entry = mTextureEntries.get(texture);
+        if (entry == null || entry.refCount == 0) {
+            return;
+        }
+        entry.refCount--;
+        if (entry.refCount == 0) {
+            mIdleEntries.put(entry.name, entry);
+            trimToSize(mMaxIdleTextures);
+        }
+    }
+
+    /**
+     * 删除空闲的纹理，直到空闲个数不超过maxIdle
+     * @param maxIdle
+     */
+    public synchronized void trimToSize(int maxIdle) {
+        Iterator<Entry> iterator = mIdleEntries.values().iterator();
+        while (mIdleEntries.size() > maxIdle && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            mEntries.remove(entry.name);
+            mTextureEntries.remove(entry.texture);
+            mLoader.deleteTexture(entry.texture);
+        }
+    }
+
+    /**
+     * 删除全部纹理，需要在GL上下文仍然有效时调用
+     */
+    public synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            // 正在加载的纹理由加载线程返回给调用方
+            if (!entry.loading) {
+                mLoader.deleteTexture(entry.texture);
+            }
+        }
+        abandon();
+    }
+
+    /**
+     * 丢弃全部纹理句柄而不删除，用于GL上下文已经销毁的情况
+     */
+    public synchronized void abandon() {
+        mEntries.clear();
+        mTextureEntries.clear();
+        mIdleEntries.clear();
+        notifyAll();
+    }
+
+    /**
+     * 获取纹理的引用计数
+     * @param texture
+     * @return
+     */
+    public synchronized int getRefCount(int texture) {
+        Entry entry = mTextureEntries.get(texture);
+        return entry != null ? entry.refCount : 0;
+    }
+
+    /**
+     * 缓存中纹理的总数
+     * @return
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 空闲纹理的个数
+     * @return
+     */
+    public synchronized int idleSize() {
+        return mIdleEntries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * 缓存项，纹理加载完成之前loading为true，texture为0
+     */
+    private static final class Entry {
+        final String name;
+        int texture;
+        int refCount;
+        boolean loading = true;
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+}
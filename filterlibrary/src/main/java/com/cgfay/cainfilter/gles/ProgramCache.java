@@ -0,0 +1,334 @@
+package com.cgfay.cainfilter.gles;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Program缓存，以(顶点shader, 片元shader)为键共享已链接的program
+ * 每次acquire增加引用计数，release减少引用计数，引用计数为0的program进入空闲LRU队列，
+ * 超出空闲预算时才真正删除，这样切换滤镜时不需要重新编译链接GLSL
+ * 编译在锁外进行：正在编译的键先放入一个占位项，同一个键的其他调用方等待这一项完成，
+ * 其他键的acquire、release以及绘制时的bindOwner不会被后台线程的编译阻塞
+ * 本类不直接调用GLES，编译和删除program通过ProgramCompiler完成，方便在JVM上测试
+ * Created by cain on 2018/3/20.
+ */
+public final class ProgramCache {
+
+    /**
+     * program编译器，对GLES的封装
+     */
+    public interface ProgramCompiler {
+
+        /**
+         * 编译链接program
+         * @param vertexSource
+         * @param fragmentSource
+         * @return program句柄，失败返回0
+         */
+        int createProgram(String vertexSource, String fragmentSource);
+
+        /**
+         * 删除program
+         * @param program
+         */
+        void deleteProgram(int program);
+    }
+
+    // 默认最多保留的空闲program个数
+    public static final int DEFAULT_MAX_IDLE_PROGRAMS = 32;
+
+    private final ProgramCompiler mCompiler;
+    private final int mMaxIdlePrograms;
+
+    // 全部program
+    private final HashMap<ProgramKey, Entry> mEntries = new HashMap<ProgramKey, Entry>();
+    // program句柄 -> Entry
+    private final HashMap<Integer, Entry> mProgramEntries = new HashMap<Integer, Entry>();
+    // 空闲的program，按访问顺序排列，最久未使用的排在最前面
+    private final LinkedHashMap<ProgramKey, Entry> mIdleEntries =
+            new LinkedHashMap<ProgramKey, Entry>(16, 0.75f, true);
+
+    // 统计数据
+    private int mHitCount;
+    private int mMissCount;
+
+    public ProgramCache(ProgramCompiler compiler) {
+        this(compiler, DEFAULT_MAX_IDLE_PROGRAMS);
+    }
+
+    public ProgramCache(ProgramCompiler compiler, int maxIdlePrograms) {
+        if (compiler == null) {
+            throw new IllegalArgumentException("compiler must not be null");
+        }
+        if (maxIdlePrograms < 0) {
+            throw new IllegalArgumentException("maxIdlePrograms must not be negative");
+        }
+        mCompiler = compiler;
+        mMaxIdlePrograms = maxIdlePrograms;
+    }
+
+    /**
+     * 获取program，不存在时编译新的program
+     * 其他线程正在编译同一个program时等待它完成，编译本身不持有缓存的锁
+     * @param vertexSource
+     * @param fragmentSource
+     * @return program句柄，编译失败时返回0
+     */
+    public int acquire(String vertexSource, String fragmentSource) {
+        ProgramKey key = new ProgramKey(vertexSource, fragmentSource);
+        Entry entry;
+        synchronized (this) {
+            boolean interrupted = false;
+            while ((entry = mEntries.get(key)) != null && entry.loading) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (entry != null) {
+                mHitCount++;
+                if (entry.refCount == 0) {
+                    mIdleEntries.remove(key);
+                }
+                entry.refCount++;
+                return entry.program;
+            }
+            mMissCount++;
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        }
+        int program = 0;
+        try {
+            program = mCompiler.createProgram(vertexSource, fragmentSource);
+        } finally {
+            synchronized (this) {
+                entry.loading = false;
+                notifyAll();
+                if (mEntries.get(key) == entry) {
+                    if (program == 0) {
+                        // 编译失败的program不缓存，下次重新编译
+                        mEntries.remove(key);
+                    } else {
+                        entry.program = program;
+                        entry.refCount = 1;
+                        mProgramEntries.put(program, entry);
+                    }
+                }
+                // 编译期间缓存被清空，上下文即将销毁，program不再缓存
+            }
+        }
+        return program;
+    }
+
+    /**
+     * 释放program引用，引用计数为0时进入空闲队列
+     * @param program
+     */
+    public synchronized void release(int program) {
+        Entry entry = mProgramEntries.get(program);
+        if (entry == null || entry.refCount == 0) {
+            return;
+        }
+        entry.refCount--;
+        if (entry.refCount == 0) {
+            entry.owner.set(null);
+            mIdleEntries.put(entry.key, entry);
+            trimToSize(mMaxIdlePrograms);
+        }
+    }
+
+    /**
+     * 释放某个使用者对program的引用，同时清除该使用者的绑定状态
+     * @param program
+     * @param owner
+     */
+    public synchronized void release(int program, Object owner) {
+        Entry entry = mProgramEntries.get(program);
+        if (entry != null) {
+            entry.owner.compareAndSet(owner, null);
+        }
+        release(program);
+    }
+
+    /**
+     * 标记当前使用program的对象，由于多个滤镜共享同一个program，而uniform的值保存在program中，
+     * 当使用者发生变化时，新的使用者需要重新设置全部uniform
+     * 每帧绘制时使用getOwner取得的ProgramOwner，不需要查找和加锁
+     * @param program
+     * @param owner
+     * @return 使用者是否发生了变化
+     */
+    public boolean bindOwner(int program, Object owner) {
+        ProgramOwner programOwner = getOwner(program);
+        return programOwner == null || programOwner.bind(owner);
+    }
+
+    /**
+     * 获取program的使用者记录，在acquire之后调用一次并保存下来
+     * @param program
+     * @return program不在缓存中时返回null
+     */
+    public synchronized ProgramOwner getOwner(int program) {
+        Entry entry = mProgramEntries.get(program);
+        return entry != null ? entry.owner : null;
+    }
+
+    /**
+     * 删除空闲的program，直到空闲个数不超过maxIdle
+     * @param maxIdle
+     */
+    public synchronized void trimToSize(int maxIdle) {
+        Iterator<Entry> iterator = mIdleEntries.values().iterator();
+        while (mIdleEntries.size() > maxIdle && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            removeEntry(entry);
+            mCompiler.deleteProgram(entry.program);
+        }
+    }
+
+    /**
+     * 删除全部program，需要在GL上下文仍然有效时调用
+     */
+    public synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            // 正在编译的program由编译线程返回给调用方
+            if (!entry.loading) {
+                mCompiler.deleteProgram(entry.program);
+            }
+        }
+        abandon();
+    }
+
+    /**
+     * 丢弃全部program句柄而不删除，用于GL上下文已经销毁的情况
+     */
+    public synchronized void abandon() {
+        mEntries.clear();
+        mProgramEntries.clear();
+        mIdleEntries.clear();
+        notifyAll();
+    }
+
+    /**
+     * 获取program的引用计数
+     * @param program
+     * @return
+     */
+    public synchronized int getRefCount(int program) {
+        Entry entry = mProgramEntries.get(program);
+        return entry != null ? entry.refCount : 0;
+    }
+
+    /**
+     * 缓存中program的总数
+     * @return
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 空闲program的个数
+     * @return
+     */
+    public synchronized int idleSize() {
+        return mIdleEntries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private void removeEntry(Entry entry) {
+        mEntries.remove(entry.key);
+        mProgramEntries.remove(entry.program);
+    }
+
+    /**
+     * program当前的使用者，绘制时在GL线程读写，不需要持有缓存的锁
+     */
+    public static final class ProgramOwner {
+        private final AtomicReference<Object> mOwner = new AtomicReference<Object>();
+
+        /**
+         * 标记当前的使用者
+         * @param owner
+         * @return 使用者是否发生了变化
+         */
+        public boolean bind(Object owner) {
+            if (mOwner.get() == owner) {
+                return false;
+            }
+            mOwner.set(owner);
+            return true;
+        }
+
+        boolean compareAndSet(Object expect, Object update) {
+            return mOwner.compareAndSet(expect, update);
+        }
+
+        void set(Object owner) {
+            mOwner.set(owner);
+        }
+    }
+
+    /**
+     * 缓存项，program编译完成之前loading为true，program为0
+     */
+    private static final class Entry {
+        final ProgramKey key;
+        final ProgramOwner owner = new ProgramOwner();
+        int program;
+        int refCount;
+        boolean loading = true;
+
+        Entry(ProgramKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 缓存的键值
+     */
+    private static final class ProgramKey {
+        final String vertexSource;
+        final String fragmentSource;
+        final int hashCode;
+
+        ProgramKey(String vertexSource, String fragmentSource) {
+            this.vertexSource = vertexSource;
+            this.fragmentSource = fragmentSource;
+            this.hashCode = 31 * vertexSource.hashCode() + fragmentSource.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ProgramKey)) {
+                return false;
+            }
+            ProgramKey other = (ProgramKey) o;
+            return hashCode == other.hashCode
+                    && vertexSource.equals(other.vertexSource)
+                    && fragmentSource.equals(other.fragmentSource);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.cgfay.cainfilter.gles;
+
+/**
+ * 渲染目标，FBO以及绑定到FBO上的Texture
+ * Created by cain on 2018/3/21.
+ */
+public final class RenderTarget {
+
+    private final int mFramebufferId;
+    private final int mTextureId;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+    private final long mByteSize;
+
+    // 是否被借出
+    boolean mLeased;
+
+    public RenderTarget(int framebufferId, int textureId, int width, int height,
+                        int format, long byteSize) {
+        mFramebufferId = framebufferId;
+        mTextureId = textureId;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mByteSize = byteSize;
+    }
+
+    public int getFramebufferId() {
+        return mFramebufferId;
+    }
+
+    public int getTextureId() {
+        return mTextureId;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public long getByteSize() {
+        return mByteSize;
+    }
+
+    /**
+     * 是否与指定的大小和格式匹配
+     * @param width
+     * @param height
+     * @param format
+     * @return
+     */
+    boolean matches(int width, int height, int format) {
+        return mWidth == width && mHeight == height && mFormat == format;
+    }
+}
@@ -0,0 +1,193 @@
+package com.cgfay.cainfilter.gles;
+
+import java.util.ArrayList;
+
+/**
+ * 渲染目标池，按(宽, 高, 格式)复用FBO和Texture
+ * 滤镜组每个pass从池中借出渲染目标，pass结束后归还，N个滤镜只需要两个渲染目标来回切换。
+ * 空闲的渲染目标按归还的先后顺序排列，超出空闲内存预算时优先销毁最早归还的。
+ * 本类不直接调用GLES，创建和销毁通过RenderTargetAllocator完成，方便在JVM上测试
+ * Created by cain on 2018/3/21.
+ */
+public final class RenderTargetPool {
+
+    /**
+     * 渲染目标分配器，对GLES的封装
+     */
+    public interface RenderTargetAllocator {
+
+        /**
+         * 创建渲染目标
+         * @param width
+         * @param height
+         * @param format
+         * @return
+         */
+        RenderTarget createRenderTarget(int width, int height, int format);
+
+        /**
+         * 销毁渲染目标
+         * @param target
+         */
+        void destroyRenderTarget(RenderTarget target);
+    }
+
+    // 默认空闲内存预算，大约是两张1080p RGBA的大小
+    public static final long DEFAULT_MAX_IDLE_BYTES = 2L * 1920 * 1080 * 4;
+
+    private final RenderTargetAllocator mAllocator;
+    private final long mMaxIdleBytes;
+
+    // 空闲的渲染目标，最早归还的排在最前面
+    private final ArrayList<RenderTarget> mIdleTargets = new ArrayList<RenderTarget>();
+
+    // 统计数据
+    private int mLiveCount;
+    private int mLeasedCount;
+    private long mLiveBytes;
+    private long mIdleBytes;
+    private long mPeakBytes;
+    private int mAllocateCount;
+
+    public RenderTargetPool(RenderTargetAllocator allocator) {
+        this(allocator, DEFAULT_MAX_IDLE_BYTES);
+    }
+
+    public RenderTargetPool(RenderTargetAllocator allocator, long maxIdleBytes) {
+        if (allocator == null) {
+            throw new IllegalArgumentException("allocator must not be null");
+        }
+        if (maxIdleBytes < 0) {
+            throw new IllegalArgumentException("maxIdleBytes must not be negative");
+        }
+        mAllocator = allocator;
+        mMaxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * 借出渲染目标
+     * @param width
+     * @param height
+     * @param format
+     * @return
+     */
+    public synchronized RenderTarget obtain(int width, int height, int format) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Illegal size: " + width + "x" + height);
+        }
+        RenderTarget target = null;
+        // 优先使用最近归还的，纹理更可能还在缓存中
+        for (int i = mIdleTargets.size() - 1; i >= 0; i--) {
+            if (mIdleTargets.get(i).matches(width, height, format)) {
+                target = mIdleTargets.remove(i);
+                mIdleBytes -= target.getByteSize();
+                break;
+            }
+        }
+        if (target == null) {
+            target = mAllocator.createRenderTarget(width, height, format);
+            mAllocateCount++;
+            mLiveCount++;
+            mLiveBytes += target.getByteSize();
+            if (mLiveBytes > mPeakBytes) {
+                mPeakBytes = mLiveBytes;
+            }
+        }
+        target.mLeased = true;
+        mLeasedCount++;
+        return target;
+    }
+
+    /**
+     * 归还渲染目标
+     * @param target
+     */
+    public synchronized void recycle(RenderTarget target) {
+        if (target == null) {
+            return;
+        }
+        if (!target.mLeased) {
+            throw new IllegalStateException("RenderTarget is not leased");
+        }
+        target.mLeased = false;
+        mLeasedCount--;
+        mIdleTargets.add(target);
+        mIdleBytes += target.getByteSize();
+        trimToSize(mMaxIdleBytes);
+    }
+
+    /**
+     * 销毁空闲的渲染目标，直到空闲内存不超过maxIdleBytes
+     * @param maxIdleBytes
+     */
+    public synchronized void trimToSize(long maxIdleBytes) {
+        while (mIdleBytes > maxIdleBytes && !mIdleTargets.isEmpty()) {
+            destroy(mIdleTargets.remove(0));
+        }
+    }
+
+    /**
+     * 销毁全部空闲的渲染目标，借出的渲染目标在归还时按预算处理
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 丢弃全部渲染目标而不销毁，用于GL上下文已经销毁的情况
+     */
+    public synchronized void abandon() {
+        mIdleTargets.clear();
+        mLiveCount = 0;
+        mLeasedCount = 0;
+        mLiveBytes = 0;
+        mIdleBytes = 0;
+    }
+
+    private void destroy(RenderTarget target) {
+        mIdleBytes -= target.getByteSize();
+        mLiveBytes -= target.getByteSize();
+        mLiveCount--;
+        mAllocator.destroyRenderTarget(target);
+    }
+
+    /**
+     * 当前存在的渲染目标个数(借出 + 空闲)
+     * @return
+     */
+    public synchronized int getLiveCount() {
+        return mLiveCount;
+    }
+
+    /**
+     * 借出的渲染目标个数
+     * @return
+     */
+    public synchronized int getLeasedCount() {
+        return mLeasedCount;
+    }
+
+    /**
+     * 空闲的渲染目标个数
+     * @return
+     */
+    public synchronized int getIdleCount() {
+        return mIdleTargets.size();
+    }
+
+    public synchronized long getLiveBytes() {
+        return mLiveBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    /**
+     * 调用分配器创建渲染目标的次数
+     * @return
+     */
+    public synchronized int getAllocateCount() {
+        return mAllocateCount;
+    }
+}
@@ -0,0 +1,99 @@
+package com.cgfay.cainfilter.gles;
+
+/**
+ * 流式顶点缓冲的环形分配器
+ * 动态几何数据(贴纸四边形、人脸关键点等)依次写入同一个VBO，剩余空间不足时回到开头，
+ * 并要求调用方先孤立(orphan)旧的存储，驱动会为仍在使用旧数据的绘制保留原来的存储，
+ * 从而避免同步等待。本类只计算偏移量，不依赖GLES
+ * Created by cain on 2018/3/24.
+ */
+public final class RingBufferAllocator {
+
+    private final int mCapacity;
+    private final int mAlignment;
+    // 下一次分配的位置
+    private int mHead;
+    // 是否需要孤立旧的存储
+    private boolean mOrphanPending = true;
+    // 孤立存储的次数
+    private int mOrphanCount;
+    // 分配的次数
+    private int mAllocateCount;
+
+    /**
+     * @param capacity 缓冲区字节数
+     * @param alignment 每次分配的对齐字节数，必须是2的幂
+     */
+    public RingBufferAllocator(int capacity, int alignment) {
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("alignment must be a power of two: " + alignment);
+        }
+        if (capacity <= 0 || capacity % alignment != 0) {
+            throw new IllegalArgumentException("capacity must be a multiple of alignment: "
+                    + capacity);
+        }
+        mCapacity = capacity;
+        mAlignment = alignment;
+    }
+
+    /**
+     * 分配一段空间
+     * @param size 字节数
+     * @return 字节偏移
+     */
+    public int allocate(int size) {
+        if (size <= 0 || size > mCapacity) {
+            throw new IllegalArgumentException("size " + size + " out of capacity " + mCapacity);
+        }
+        if (mHead + size > mCapacity) {
+            // 剩余空间不足，回到开头并孤立旧的存储
+            mHead = 0;
+            mOrphanPending = true;
+        }
+        int offset = mHead;
+        mHead = align(offset + size);
+        mAllocateCount++;
+        return offset;
+    }
+
+    /**
+     * 写入数据之前调用，返回true时需要先重新分配缓冲区的存储(glBufferData(null))
+     * @return
+     */
+    public boolean takeOrphanRequest() {
+        if (mOrphanPending) {
+            mOrphanPending = false;
+            mOrphanCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 存储丢失(上下文重建等)，下一次写入前需要重新分配
+     */
+    public void reset() {
+        mHead = 0;
+        mOrphanPending = true;
+    }
+
+    private int align(int offset) {
+        return (offset + mAlignment - 1) & -mAlignment;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getHead() {
+        return mHead;
+    }
+
+    public int getOrphanCount() {
+        return mOrphanCount;
+    }
+
+    public int getAllocateCount() {
+        return mAllocateCount;
+    }
+}
@@ -0,0 +1,665 @@
+package com.cgfay.cainfilter.gles;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 异步纹理加载队列
+ * 1、request之后在解码线程池中解码，解码好的图像交给上传线程(与渲染上下文共享)上传并插入fence
+ * 2、渲染线程每帧调用dispatch，fence完成之后纹理才发布给请求者，不会采样到还没有上传完成的纹理
+ * 3、相同的键共享同一个纹理，按引用计数管理，引用计数为0的纹理进入空闲LRU队列，再次请求时直接命中
+ * 4、release时还没有开始上传的请求被取消，解码好的图像直接回收；正在上传的请求完成后进入空闲队列
+ * 5、解码后的图像和纹理都计入内存预算，超出预算时先淘汰空闲纹理，仍然超出时暂停解码新的请求
+ * 6、上传线程无法工作时调用setUploadUnavailable，等待中和之后的请求直接失败，解码好的图像立即回收
+ * 解码和上传通过Decoder、Uploader接口完成，本类不依赖GLES和Bitmap，可以在JVM上测试
+ * request、release、dispatch需要在渲染线程调用，删除纹理和fence也只在dispatch中进行
+ * Created by cain on 2018/3/25.
+ */
+public final class TextureLoadQueue {
+
+    /**
+     * 解码好的图像
+     */
+    public static final class Image {
+        // 像素数据，例如Bitmap
+        public final Object pixels;
+        public final int width;
+        public final int height;
+
+        public Image(Object pixels, int width, int height) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * 按RGBA计算的字节数，纹理占用的显存也按这个计算
+         * @return
+         */
+        public long getByteSize() {
+            return (long) width * height * 4;
+        }
+    }
+
+    /**
+     * 解码器，在解码线程调用
+     */
+    public interface Decoder {
+        /**
+         * 解码图像
+         * @param key
+         * @return 解码失败返回null
+         */
+        Image decode(String key);
+
+        /**
+         * 回收图像，上传完成或者请求取消之后调用
+         * @param image
+         */
+        void recycle(Image image);
+    }
+
+    /**
+     * 纹理上传需要的GL操作
+     */
+    public interface Uploader {
+        /**
+         * 上传纹理，在上传线程调用
+         * @param image
+         * @return 纹理句柄，失败返回0
+         */
+        int upload(Image image);
+
+        /**
+         * 插入fence并提交命令，在上传线程调用
+         * @return fence句柄，不支持fence时返回0，表示上传已经同步完成
+         */
+        long insertFence();
+
+        /**
+         * 不等待地查询fence是否完成，在渲染线程调用
+         */
+        boolean isFenceSignaled(long fence);
+
+        void deleteFence(long fence);
+
+        void deleteTexture(int texture);
+    }
+
+    // 默认同时解码的个数
+    public static final int DEFAULT_MAX_DECODING = 2;
+    // 默认内存预算
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    // 请求状态
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_DECODING = 1;
+    private static final int STATE_DECODED = 2;
+    private static final int STATE_UPLOADING = 3;
+    private static final int STATE_FENCED = 4;
+    private static final int STATE_READY = 5;
+    private static final int STATE_FAILED = 6;
+    private static final int STATE_CANCELLED = 7;
+
+    private final Decoder mDecoder;
+    private final Uploader mUploader;
+    private final Executor mDecodeExecutor;
+    private final Executor mUploadExecutor;
+    private final int mMaxDecoding;
+    private final long mMaxBytes;
+
+    // 全部有效的请求项
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    // 等待解码的请求项，按请求顺序排列
+    private final LinkedList<Entry> mPending = new LinkedList<Entry>();
+    // 等待fence的请求项
+    private final List<Entry> mFenced = new ArrayList<Entry>();
+    // 解码或上传失败，等待在dispatch中通知的请求项
+    private final List<Entry> mFailed = new ArrayList<Entry>();
+    // 空闲的纹理，按访问顺序排列，最久未使用的排在最前面
+    private final LinkedHashMap<String, Entry> mIdleEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // 等待在渲染线程删除的纹理和fence
+    private final List<Integer> mDeadTextures = new ArrayList<Integer>();
+    private final List<Long> mDeadFences = new ArrayList<Long>();
+
+    private int mDecodingCount;
+    private long mUsedBytes;
+    private boolean mReleased;
+    // 上传线程已经不可用
+    private boolean mUploadUnavailable;
+
+    // 统计数据
+    private int mHitCount;
+    private int mMissCount;
+    private int mDedupCount;
+    private int mCancelledCount;
+    private int mEvictedCount;
+    private int mFailedCount;
+    private long mPeakBytes;
+
+    public TextureLoadQueue(Decoder decoder, Uploader uploader,
+                            Executor decodeExecutor, Executor uploadExecutor) {
+        this(decoder, uploader, decodeExecutor, uploadExecutor,
+                DEFAULT_MAX_DECODING, DEFAULT_MAX_BYTES);
+    }
+
+    public TextureLoadQueue(Decoder decoder, Uploader uploader,
+                            Executor decodeExecutor, Executor uploadExecutor,
+                            int maxDecoding, long maxBytes) {
+        if (decoder == null || uploader == null
+                || decodeExecutor == null || uploadExecutor == null) {
+            throw new IllegalArgumentException("decoder, uploader and executors must not be null");
+        }
+        if (maxDecoding <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid limits: " + maxDecoding + ", " + maxBytes);
+        }
+        mDecoder = decoder;
+        mUploader = uploader;
+        mDecodeExecutor = decodeExecutor;
+        mUploadExecutor = uploadExecutor;
+        mMaxDecoding = maxDecoding;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 请求纹理，相同的键共享同一个加载过程
+     * @param key 图像的键，例如assets中的路径
+     * @return 请求句柄，不再需要时调用release
+     */
+    public synchronized Request request(String key) {
+        if (mReleased) {
+            throw new IllegalStateException("queue has been released");
+        }
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            if (entry.state == STATE_READY) {
+                mHitCount++;
+            } else {
+                mDedupCount++;
+            }
+            if (entry.refCount == 0) {
+                mIdleEntries.remove(key);
+            }
+            entry.refCount++;
+            return new Request(entry);
+        }
+        mMissCount++;
+        entry = new Entry(key);
+        entry.refCount = 1;
+        mEntries.put(key, entry);
+        mPending.add(entry);
+        schedule();
+        return new Request(entry);
+    }
+
+    /**
+     * 释放请求，重复释放无效
+     * @param request
+     */
+    public synchronized void release(Request request) {
+        if (request == null || request.mReleased) {
+            return;
+        }
+        request.mReleased = true;
+        Entry entry = request.mEntry;
+        if (entry.refCount == 0) {
+            return;
+        }
+        entry.refCount--;
+        if (entry.refCount > 0) {
+            return;
+        }
+        switch (entry.state) {
+            case STATE_PENDING:
+                mPending.remove(entry);
+                cancel(entry);
+                break;
+
+            // 解码中或者等待上传的图像，由解码、上传任务发现取消之后回收
+            case STATE_DECODING:
+            case STATE_DECODED:
+                cancel(entry);
+                break;
+
+            // 上传已经开始，完成之后进入空闲队列
+            case STATE_UPLOADING:
+            case STATE_FENCED:
+                break;
+
+            case STATE_READY:
+                mIdleEntries.put(entry.key, entry);
+                trimToBudget();
+                break;
+
+            default:
+                break;
+        }
+        schedule();
+    }
+
+    /**
+     * 渲染线程每帧调用：发布fence已经完成的纹理，删除被淘汰的纹理和fence，清理失败的请求
+     * @return 本次发布的纹理个数
+     */
+    public int dispatch() {
+        List<Integer> deadTextures;
+        List<Long> deadFences;
+        int published = 0;
+        synchronized (this) {
+            Iterator<Entry> iterator = mFenced.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.fence != 0 && !mUploader.isFenceSignaled(entry.fence)) {
+                    continue;
+                }
+                iterator.remove();
+                if (entry.fence != 0) {
+                    mDeadFences.add(entry.fence);
+                    entry.fence = 0;
+                }
+                entry.state = STATE_READY;
+                published++;
+                if (entry.refCount == 0) {
+                    mIdleEntries.put(entry.key, entry);
+                }
+            }
+            for (Entry entry : mFailed) {
+                if (mEntries.get(entry.key) == entry) {
+                    mEntries.remove(entry.key);
+                }
+            }
+            mFailed.clear();
+            trimToBudget();
+            schedule();
+            deadTextures = new ArrayList<Integer>(mDeadTextures);
+            deadFences = new ArrayList<Long>(mDeadFences);
+            mDeadTextures.clear();
+            mDeadFences.clear();
+        }
+        for (int i = 0; i < deadFences.size(); i++) {
+            mUploader.deleteFence(deadFences.get(i));
+        }
+        for (int i = 0; i < deadTextures.size(); i++) {
+            mUploader.deleteTexture(deadTextures.get(i));
+        }
+        return published;
+    }
+
+    /**
+     * 删除空闲的纹理，直到空闲个数不超过maxIdle，纹理在下一次dispatch时删除
+     * @param maxIdle
+     */
+    public synchronized void trimIdle(int maxIdle) {
+        Iterator<Entry> iterator = mIdleEntries.values().iterator();
+        while (mIdleEntries.size() > maxIdle && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            evict(entry);
+        }
+    }
+
+    /**
+     * 停止加载并删除全部纹理，需要在渲染线程、上下文仍然有效并且上传线程已经停止时调用
+     */
+    public void release() {
+        synchronized (this) {
+            mReleased = true;
+            for (Entry entry : new ArrayList<Entry>(mEntries.values())) {
+                if (entry.texture != 0) {
+                    mDeadTextures.add(entry.texture);
+                    mUsedBytes -= entry.bytes;
+                    entry.bytes = 0;
+                    entry.texture = 0;
+                }
+                if (entry.fence != 0) {
+                    mDeadFences.add(entry.fence);
+                    entry.fence = 0;
+                }
+                if (entry.state < STATE_READY) {
+                    cancel(entry);
+                }
+            }
+            mEntries.clear();
+            mPending.clear();
+            mFenced.clear();
+            mFailed.clear();
+            mIdleEntries.clear();
+        }
+        dispatch();
+    }
+
+    /**
+     * 上传线程无法工作(例如共享上下文创建失败)时调用，
+     * 还没有解码的请求和之后的新请求直接失败，正在解码的请求在解码完成后回收图像并失败，
+     * 已经提交给上传线程的任务仍然需要执行，由Uploader返回0来回收图像
+     */
+    public synchronized void setUploadUnavailable() {
+        mUploadUnavailable = true;
+        schedule();
+    }
+
+    /**
+     * 丢弃全部纹理句柄而不删除，用于GL上下文已经销毁的情况
+     */
+    public synchronized void abandon() {
+        mReleased = true;
+        for (Entry entry : mEntries.values()) {
+            if (entry.state < STATE_READY) {
+                entry.state = STATE_CANCELLED;
+            }
+        }
+        mEntries.clear();
+        mPending.clear();
+        mFenced.clear();
+        mFailed.clear();
+        mIdleEntries.clear();
+        mDeadTextures.clear();
+        mDeadFences.clear();
+    }
+
+    /**
+     * 解码后的图像和纹理占用的字节数
+     * @return
+     */
+    public synchronized long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 等待解码的请求个数
+     * @return
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * 有效的键的个数，包括加载中的和空闲的
+     * @return
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized int idleSize() {
+        return mIdleEntries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getDedupCount() {
+        return mDedupCount;
+    }
+
+    public synchronized int getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    public synchronized int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    public synchronized int getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * 在预算内按请求顺序开始解码
+     */
+    private void schedule() {
+        if (mUploadUnavailable) {
+            while (!mPending.isEmpty()) {
+                fail(mPending.removeFirst());
+            }
+            return;
+        }
+        while (!mReleased && mDecodingCount < mMaxDecoding && !mPending.isEmpty()) {
+            if (mUsedBytes >= mMaxBytes) {
+                // 给新的图像腾出空间
+                trimIdleBytes(mMaxBytes - 1);
+                // 淘汰空闲纹理之后仍然超出预算，等待正在使用的纹理释放
+                // 没有任何占用时至少放行一个，避免单张超出预算的图像永远无法加载
+                if (mUsedBytes >= mMaxBytes && mUsedBytes > 0) {
+                    return;
+                }
+            }
+            final Entry entry = mPending.removeFirst();
+            entry.state = STATE_DECODING;
+            mDecodingCount++;
+            mDecodeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    decode(entry);
+                }
+            });
+        }
+    }
+
+    /**
+     * 解码线程
+     */
+    private void decode(final Entry entry) {
+        synchronized (this) {
+            if (entry.state == STATE_CANCELLED) {
+                mDecodingCount--;
+                schedule();
+                return;
+            }
+        }
+        Image image = null;
+        try {
+            image = mDecoder.decode(entry.key);
+        } finally {
+            synchronized (this) {
+                mDecodingCount--;
+                if (image == null) {
+                    fail(entry);
+                } else if (entry.state == STATE_CANCELLED) {
+                    mDecoder.recycle(image);
+                } else if (mUploadUnavailable) {
+                    mDecoder.recycle(image);
+                    fail(entry);
+                } else {
+                    entry.state = STATE_DECODED;
+                    entry.bytes = image.getByteSize();
+                    addUsedBytes(entry.bytes);
+                    final Image decoded = image;
+                    mUploadExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            upload(entry, decoded);
+                        }
+                    });
+                }
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * 上传线程
+     */
+    private void upload(Entry entry, Image image) {
+        synchronized (this) {
+            if (entry.state == STATE_CANCELLED) {
+                mUsedBytes -= entry.bytes;
+                entry.bytes = 0;
+                mDecoder.recycle(image);
+                schedule();
+                return;
+            }
+            entry.state = STATE_UPLOADING;
+        }
+        int texture = 0;
+        long fence = 0;
+        try {
+            texture = mUploader.upload(image);
+            if (texture != 0) {
+                fence = mUploader.insertFence();
+            }
+        } finally {
+            mDecoder.recycle(image);
+            synchronized (this) {
+                if (texture == 0) {
+                    mUsedBytes -= entry.bytes;
+                    entry.bytes = 0;
+                    fail(entry);
+                } else if (mReleased) {
+                    // 上传期间队列已经释放，句柄随上下文一起失效
+                    mUsedBytes -= entry.bytes;
+                    entry.bytes = 0;
+                } else {
+                    entry.texture = texture;
+                    entry.width = image.width;
+                    entry.height = image.height;
+                    entry.fence = fence;
+                    entry.state = STATE_FENCED;
+                    mFenced.add(entry);
+                }
+                schedule();
+            }
+        }
+    }
+
+    private void cancel(Entry entry) {
+        entry.state = STATE_CANCELLED;
+        if (mEntries.get(entry.key) == entry) {
+            mEntries.remove(entry.key);
+        }
+        mCancelledCount++;
+    }
+
+    private void fail(Entry entry) {
+        if (entry.state != STATE_CANCELLED) {
+            entry.state = STATE_FAILED;
+            mFailed.add(entry);
+            mFailedCount++;
+        }
+    }
+
+    /**
+     * 超出预算时淘汰最久未使用的空闲纹理
+     */
+    private void trimToBudget() {
+        trimIdleBytes(mMaxBytes);
+    }
+
+    private void trimIdleBytes(long maxBytes) {
+        Iterator<Entry> iterator = mIdleEntries.values().iterator();
+        while (mUsedBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            evict(entry);
+        }
+    }
+
+    private void evict(Entry entry) {
+        mEntries.remove(entry.key);
+        mDeadTextures.add(entry.texture);
+        mUsedBytes -= entry.bytes;
+        entry.bytes = 0;
+        entry.texture = 0;
+        entry.state = STATE_CANCELLED;
+        mEvictedCount++;
+    }
+
+    private void addUsedBytes(long bytes) {
+        mUsedBytes += bytes;
+        mPeakBytes = Math.max(mPeakBytes, mUsedBytes);
+    }
+
+    /**
+     * 请求项
+     */
+    private static final class Entry {
+        final String key;
+        int state = STATE_PENDING;
+        int refCount;
+        int texture;
+        int width;
+        int height;
+        long fence;
+        long bytes;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 请求句柄，状态在dispatch之后更新，需要在渲染线程读取
+     */
+    public final class Request {
+        private final Entry mEntry;
+        private boolean mReleased;
+
+        private Request(Entry entry) {
+            mEntry = entry;
+        }
+
+        public String getKey() {
+            return mEntry.key;
+        }
+
+        /**
+         * 纹理是否已经上传完成并且可以采样
+         * @return
+         */
+        public boolean isReady() {
+            synchronized (TextureLoadQueue.this) {
+                return !mReleased && mEntry.state == STATE_READY;
+            }
+        }
+
+        /**
+         * 解码或者上传是否失败
+         * @return
+         */
+        public boolean isFailed() {
+            synchronized (TextureLoadQueue.this) {
+                return mEntry.state == STATE_FAILED;
+            }
+        }
+
+        /**
+         * @return 纹理句柄，没有准备好时返回0
+         */
+        public int getTexture() {
+            synchronized (TextureLoadQueue.this) {
+                return !mReleased && mEntry.state == STATE_READY ? mEntry.texture : 0;
+            }
+        }
+
+        public int getWidth() {
+            synchronized (TextureLoadQueue.this) {
+                return mEntry.width;
+            }
+        }
+
+        public int getHeight() {
+            synchronized (TextureLoadQueue.this) {
+                return mEntry.height;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+/**
+ * 逐像素颜色变换的CPU实现
+ * 只依赖像素自身颜色的滤镜(颜色调节、曲线、查找表等)实现本接口后，
+ * 连续的多个滤镜可以由ColorLutBaker预先计算成一张查找表，只用一个pass完成
+ * Created by cain on 2018/3/25.
+ */
+public interface ColorStage {
+
+    /**
+     * 变换一个像素，与对应shader的计算保持一致，结果不需要截断到0 ~ 1
+     * @param rgba 像素的rgba，原地修改
+     * @param offset
+     */
+    void apply(float[] rgba, int offset);
+
+    /**
+     * 当前参数的哈希值，参数不同时应当尽可能不同，用于查找表的缓存
+     * @return
+     */
+    long getParameterHash();
+
+    /**
+     * 与另一个阶段的类型和参数是否完全相同，哈希相同时用它确认缓存命中
+     * @param other
+     * @return
+     */
+    boolean hasSameParameters(ColorStage other);
+
+    /**
+     * 当前参数的拷贝，之后修改参数不影响拷贝，用作缓存键
+     * 参数不可变的实现直接返回自身
+     * @return
+     */
+    ColorStage snapshot();
+}
@@ -0,0 +1,199 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+import java.util.List;
+
+/**
+ * 滤镜链规划器，根据每个pass当前是否为空操作，计算出本帧实际需要执行的pass
+ * 1、处于空操作状态的pass(美颜程度为0、原图滤镜、没有贴纸等)直接跳过，不占用FBO，也不产生绘制
+ * 2、绘制到输出时，最后一个需要执行的pass直接绘制到输出上，不再经过FBO中转
+ * 3、全部pass都是空操作且需要绘制到输出(或者需要应用顶点和纹理坐标)时，保留最后一个pass做一次拷贝
+ * 4、开启颜色合并时，连续的两个以上可烘焙的颜色pass合并成一步，由调用者烘焙成一张查找表一次绘制
+ * 规划结果保存在预先分配的数组中，每帧规划不产生内存分配
+ * Created by cain on 2018/3/23.
+ */
+public final class FilterChainPlanner {
+
+    /**
+     * pass描述
+     */
+    public interface Pass {
+        /**
+         * 当前参数下是否不会对输入产生任何变化
+         * @return
+         */
+        boolean isNoOp();
+    }
+
+    /**
+     * 可以在CPU上逐像素计算的颜色pass，相邻的可以合并成一张查找表
+     */
+    public interface BakeablePass extends Pass {
+        /**
+         * 当前参数下的颜色计算，不能合并时返回null
+         * @return
+         */
+        ColorStage getColorStage();
+    }
+
+    // 需要执行的pass在滤镜链中的下标
+    private int[] mPassIndices = new int[8];
+    // 需要执行的pass数量
+    private int mPassCount;
+    // 每一步的第一个pass在mPassIndices中的位置，最后多存一个结束位置
+    private int[] mStepStarts = new int[9];
+    // 需要执行的步数，不合并时与pass数量相同
+    private int mStepCount;
+    // 是否合并连续的颜色pass
+    private boolean mMergeColorRuns;
+    // 跳过的pass数量
+    private int mSkippedCount;
+    // 最后一个pass是否绘制到输出
+    private boolean mRenderToOutput;
+
+    /**
+     * 设置是否合并连续的可烘焙颜色pass，下一次规划时生效
+     * @param merge
+     */
+    public void setMergeColorRuns(boolean merge) {
+        mMergeColorRuns = merge;
+    }
+
+    /**
+     * 规划滤镜链
+     * @param passes 滤镜链
+     * @param renderToOutput 最后一个pass是否直接绘制到输出，否则全部pass都绘制到FBO
+     */
+    public void plan(List<? extends Pass> passes, boolean renderToOutput) {
+        plan(passes, renderToOutput, renderToOutput);
+    }
+
+    /**
+     * 规划滤镜链
+     * @param passes 滤镜链
+     * @param renderToOutput 最后一个pass是否直接绘制到输出，否则全部pass都绘制到FBO
+     * @param keepOnePass 全部pass都是空操作时，是否仍然保留最后一个pass
+     */
+    public void plan(List<? extends Pass> passes, boolean renderToOutput, boolean keepOnePass) {
+        int size = passes != null ? passes.size() : 0;
+        if (mPassIndices.length < size) {
+            mPassIndices = new int[size];
+            mStepStarts = new int[size + 1];
+        }
+        mPassCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (!passes.get(i).isNoOp()) {
+                mPassIndices[mPassCount++] = i;
+            }
+        }
+        // 绘制到输出时至少需要一个pass，空操作的pass等同于拷贝
+        if ((renderToOutput || keepOnePass) && mPassCount == 0 && size > 0) {
+            mPassIndices[mPassCount++] = size - 1;
+        }
+        mSkippedCount = size - mPassCount;
+        planSteps(passes);
+        mRenderToOutput = renderToOutput && mStepCount > 0;
+    }
+
+    /**
+     * 把需要执行的pass分成步骤，连续的可烘焙颜色pass(两个以上)合并成一步
+     */
+    private void planSteps(List<? extends Pass> passes) {
+        mStepCount = 0;
+        int i = 0;
+        while (i < mPassCount) {
+            int end = i + 1;
+            if (mMergeColorRuns && isBakeable(passes.get(mPassIndices[i]))) {
+                while (end < mPassCount && isBakeable(passes.get(mPassIndices[end]))) {
+                    end++;
+                }
+            }
+            mStepStarts[mStepCount++] = i;
+            i = end;
+        }
+        mStepStarts[mStepCount] = mPassCount;
+    }
+
+    private static boolean isBakeable(Pass pass) {
+        return pass instanceof BakeablePass && ((BakeablePass) pass).getColorStage() != null;
+    }
+
+    /**
+     * 需要执行的步数，不合并颜色pass时每一步就是一个pass
+     * @return
+     */
+    public int getPassCount() {
+        return mStepCount;
+    }
+
+    /**
+     * 第i步的第一个pass在滤镜链中的下标
+     * @param i
+     * @return
+     */
+    public int getPassIndex(int i) {
+        checkStep(i);
+        return mPassIndices[mStepStarts[i]];
+    }
+
+    /**
+     * 第i步包含的pass数量，大于1时表示一段需要合并成查找表的颜色pass
+     * @param i
+     * @return
+     */
+    public int getRunLength(int i) {
+        checkStep(i);
+        return mStepStarts[i + 1] - mStepStarts[i];
+    }
+
+    /**
+     * 第i步中第j个pass在滤镜链中的下标
+     * @param i
+     * @param j
+     * @return
+     */
+    public int getRunPassIndex(int i, int j) {
+        if (j < 0 || j >= getRunLength(i)) {
+            throw new IndexOutOfBoundsException("run pass " + j + " of " + getRunLength(i));
+        }
+        return mPassIndices[mStepStarts[i] + j];
+    }
+
+    private void checkStep(int i) {
+        if (i < 0 || i >= mStepCount) {
+            throw new IndexOutOfBoundsException("pass " + i + " of " + mStepCount);
+        }
+    }
+
+    /**
+     * 第i步是否直接绘制到输出
+     * @param i
+     * @return
+     */
+    public boolean isOutputPass(int i) {
+        return mRenderToOutput && i == mStepCount - 1;
+    }
+
+    /**
+     * 需要绘制到FBO的步数
+     * @return
+     */
+    public int getFramebufferPassCount() {
+        return mRenderToOutput ? mStepCount - 1 : mStepCount;
+    }
+
+    /**
+     * 本次规划合并掉的pass数量
+     * @return
+     */
+    public int getMergedCount() {
+        return mPassCount - mStepCount;
+    }
+
+    /**
+     * 本次规划跳过的pass数量
+     * @return
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+}
@@ -0,0 +1,71 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+import android.opengl.GLES30;
+
+import com.cgfay.cainfilter.gles.GLLookupTextureCache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 烘焙查找表滤镜，绘制ColorLutBaker烘焙出来的三维查找表，代替滤镜链中一段连续的颜色pass
+ * 上传好的纹理和查找表一起缓存，ColorLutBaker缓存命中时返回同一个查找表，直接复用纹理，
+ * 只有烘焙出新的查找表(参数改变)时才上传
+ * 烘焙结果上传为三维纹理，只能在GLES3上下文中使用
+ * Created by cain on 2018/3/25.
+ */
+public class GLColorLutFilter extends GLImageLookupFilter {
+
+    // 查找表 -> 纹理，与ColorLutBaker缓存的数量一致
+    private final LinkedHashMap<LookupTable, Integer> mTextures =
+            new LinkedHashMap<LookupTable, Integer>(16, 0.75f, true);
+    private int mTexture = 0;
+
+    public GLColorLutFilter() {
+        super();
+    }
+
+    /**
+     * 设置烘焙好的查找表，需要在GL线程调用
+     * @param table
+     */
+    public void setColorTable(LookupTable table) {
+        if (table == null) {
+            mTexture = 0;
+            return;
+        }
+        Integer texture = mTextures.get(table);
+        if (texture == null) {
+            texture = GLLookupTextureCache.createTexture(table);
+            // 上传失败的不缓存，下次重新上传
+            if (texture != 0) {
+                mTextures.put(table, texture);
+                trimToSize(ColorLutBaker.DEFAULT_MAX_ENTRIES);
+            }
+        }
+        mTexture = texture;
+        setLookupSize(table.getSize());
+    }
+
+    @Override
+    protected int getLookupTexture() {
+        return mTexture;
+    }
+
+    @Override
+    public void release() {
+        trimToSize(0);
+        mTexture = 0;
+        super.release();
+    }
+
+    private void trimToSize(int maxEntries) {
+        Iterator<Map.Entry<LookupTable, Integer>> iterator = mTextures.entrySet().iterator();
+        while (mTextures.size() > maxEntries && iterator.hasNext()) {
+            int texture = iterator.next().getValue();
+            iterator.remove();
+            GLES30.glDeleteTextures(1, new int[] { texture }, 0);
+        }
+    }
+}
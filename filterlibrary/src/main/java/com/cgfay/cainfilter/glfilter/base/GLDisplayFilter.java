@@ -13,4 +13,10 @@ public class GLDisplayFilter extends GLImageFilter {
     public GLDisplayFilter(String vertexShader, String fragmentShader) {
         super(vertexShader, fragmentShader);
     }
+
+    @Override
+    public boolean isNoOp() {
+        // 只做拷贝，在滤镜组中可以直接跳过
+        return true;
+    }
 }
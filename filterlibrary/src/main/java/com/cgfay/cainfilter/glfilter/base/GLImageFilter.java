@@ -4,6 +4,10 @@ import android.graphics.PointF;
 import android.opengl.GLES30;
 import android.opengl.Matrix;
 
+import com.cgfay.cainfilter.gles.GLGeometryManager;
+import com.cgfay.cainfilter.gles.GLProgramCache;
+import com.cgfay.cainfilter.gles.ProgramCache;
+import com.cgfay.cainfilter.gles.GeometryLayout;
 
 import com.cgfay.cainfilter.utils.GlUtil;
 import com.cgfay.cainfilter.utils.TextureRotationUtils;
@@ -17,7 +21,7 @@ import java.util.LinkedList;
  * Created by cain on 2017/7/9.
  */
 
-public class GLImageFilter {
+public class GLImageFilter implements FilterChainPlanner.Pass {
 
     protected static final String VERTEX_SHADER =
             "uniform mat4 uMVPMatrix;                                   \n" +
@@ -63,7 +67,54 @@ public class GLImageFilter {
     // 缩放矩阵
     protected float[] mTexMatrix = new float[16];
 
+    // GL上传uniform的实现
+    private static final UniformStore.UniformUploader GL_UNIFORM_UPLOADER =
+            new UniformStore.UniformUploader() {
+        @Override
+        public void uniform1i(int location, int value) {
+            GLES30.glUniform1i(location, value);
+        }
+
+        @Override
+        public void uniform1fv(int location, int count, float[] value, int offset) {
+            GLES30.glUniform1fv(location, count, value, offset);
+        }
+
+        @Override
+        public void uniform2fv(int location, float[] value, int offset) {
+            GLES30.glUniform2fv(location, 1, value, offset);
+        }
+
+        @Override
+        public void uniform3fv(int location, float[] value, int offset) {
+            GLES30.glUniform3fv(location, 1, value, offset);
+        }
+
+        @Override
+        public void uniform4fv(int location, float[] value, int offset) {
+            GLES30.glUniform4fv(location, 1, value, offset);
+        }
+
+        @Override
+        public void uniformMatrix3fv(int location, float[] value, int offset) {
+            GLES30.glUniformMatrix3fv(location, 1, false, value, offset);
+        }
+
+        @Override
+        public void uniformMatrix4fv(int location, float[] value, int offset) {
+            GLES30.glUniformMatrix4fv(location, 1, false, value, offset);
+        }
+    };
+
+    // 当前绘制使用的几何数据
+    private GLGeometryManager mGeometryManager;
+    private boolean mQuadBound;
+
     private final LinkedList<Runnable> mRunOnDraw;
+    // uniform的最新值，program被其他滤镜使用过之后需要全部重新设置
+    private final UniformStore mUniformStore;
+    // program当前的使用者，绘制时不需要查找缓存
+    private ProgramCache.ProgramOwner mProgramOwner;
 
     public GLImageFilter() {
         this(VERTEX_SHADER, FRAGMENT_SHADER_2D);
@@ -71,7 +122,10 @@ public class GLImageFilter {
 
     public GLImageFilter(String vertexShader, String fragmentShader) {
         mRunOnDraw = new LinkedList<>();
-        mProgramHandle = GlUtil.createProgram(vertexShader, fragmentShader);
+        mUniformStore = new UniformStore();
+        // 相同shader的滤镜共享同一个program，切换滤镜时不需要重新编译
+        mProgramHandle = GLProgramCache.acquireProgram(vertexShader, fragmentShader);
+        mProgramOwner = GLProgramCache.getOwner(mProgramHandle);
         initHandle();
         initIdentityMatrix();
     }
@@ -125,8 +179,7 @@ public class GLImageFilter {
         if (textureId == GlUtil.GL_NOT_INIT) {
             return false;
         }
-        GLES30.glUseProgram(mProgramHandle);
-        runPendingOnDrawTasks();
+        useProgram();
         // 绑定数据
         bindValue(textureId, vertexBuffer, textureBuffer);
         onDrawArraysBegin();
@@ -137,6 +190,17 @@ public class GLImageFilter {
         return true;
     }
 
+    /**
+     * 使用program，并设置uniform
+     * program由多个滤镜共享，如果上一次使用program的不是当前滤镜，则需要重新设置全部uniform
+     */
+    protected void useProgram() {
+        GLES30.glUseProgram(mProgramHandle);
+        boolean ownerChanged = mProgramOwner == null || mProgramOwner.bind(this);
+        mUniformStore.apply(GL_UNIFORM_UPLOADER, ownerChanged);
+        runPendingOnDrawTasks();
+    }
+
     /**
      * 绑定数据
      * @param textureId
@@ -145,15 +209,24 @@ public class GLImageFilter {
      */
     protected void bindValue(int textureId, FloatBuffer vertexBuffer,
                              FloatBuffer textureBuffer) {
-        vertexBuffer.position(0);
-        GLES30.glVertexAttribPointer(maPositionLoc, mCoordsPerVertex,
-                GLES30.GL_FLOAT, false, 0, vertexBuffer);
-        GLES30.glEnableVertexAttribArray(maPositionLoc);
-
-        textureBuffer.position(0);
-        GLES30.glVertexAttribPointer(maTextureCoordLoc, 2,
-                GLES30.GL_FLOAT, false, 0, textureBuffer);
-        GLES30.glEnableVertexAttribArray(maTextureCoordLoc);
+        // 全屏四边形直接使用VBO中对应的VAO，不需要每次从客户端内存拷贝顶点
+        mGeometryManager = GLGeometryManager.getCurrent();
+        int quad = mCoordsPerVertex == GeometryLayout.POSITION_SIZE
+                ? mGeometryManager.findQuad(vertexBuffer, textureBuffer) : -1;
+        mQuadBound = quad >= 0;
+        if (mQuadBound) {
+            mGeometryManager.bindQuad(quad, maPositionLoc, maTextureCoordLoc);
+        } else {
+            vertexBuffer.position(0);
+            GLES30.glVertexAttribPointer(maPositionLoc, mCoordsPerVertex,
+                    GLES30.GL_FLOAT, false, 0, vertexBuffer);
+            GLES30.glEnableVertexAttribArray(maPositionLoc);
+
+            textureBuffer.position(0);
+            GLES30.glVertexAttribPointer(maTextureCoordLoc, 2,
+                    GLES30.GL_FLOAT, false, 0, textureBuffer);
+            GLES30.glEnableVertexAttribArray(maTextureCoordLoc);
+        }
 
         GLES30.glUniformMatrix4fv(muMVPMatrixLoc, 1, false, mMVPMatrix, 0);
         GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
@@ -165,8 +238,13 @@ public class GLImageFilter {
      * 解除绑定
      */
     protected void unBindValue() {
-        GLES30.glDisableVertexAttribArray(maPositionLoc);
-        GLES30.glDisableVertexAttribArray(maTextureCoordLoc);
+        if (mQuadBound) {
+            mGeometryManager.unbindQuad();
+            mQuadBound = false;
+        } else {
+            GLES30.glDisableVertexAttribArray(maPositionLoc);
+            GLES30.glDisableVertexAttribArray(maTextureCoordLoc);
+        }
         GLES30.glBindTexture(getTextureType(), 0);
     }
 
@@ -192,12 +270,22 @@ public class GLImageFilter {
 
     }
 
+    /**
+     * 当前参数下是否不会对输入产生任何变化，滤镜组会跳过处于空操作状态的滤镜
+     * @return
+     */
+    @Override
+    public boolean isNoOp() {
+        return false;
+    }
+
     /**
      * 释放资源
      */
     public void release() {
-        GLES30.glDeleteProgram(mProgramHandle);
+        GLProgramCache.releaseProgram(mProgramHandle, this);
         mProgramHandle = -1;
+        mProgramOwner = null;
     }
 
     /**
@@ -219,91 +307,41 @@ public class GLImageFilter {
     }
 
     ///------------------ 统一变量(uniform)设置 ------------------------///
-    protected void setInteger(final int location, final int intValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform1i(location, intValue);
-            }
-        });
+    // 设置的值会拷贝到预先分配的槽位中，下一次绘制时统一上传，不产生内存分配
+    protected void setInteger(int location, int intValue) {
+        mUniformStore.setInt(location, intValue);
     }
 
-    protected void setFloat(final int location, final float floatValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform1f(location, floatValue);
-            }
-        });
+    protected void setFloat(int location, float floatValue) {
+        mUniformStore.setFloat(location, floatValue);
     }
 
-    protected void setFloatVec2(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform2fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+    protected void setFloatVec2(int location, float[] arrayValue) {
+        mUniformStore.setFloats(location, UniformStore.TYPE_VEC2, arrayValue);
     }
 
-    protected void setFloatVec3(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform3fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+    protected void setFloatVec3(int location, float[] arrayValue) {
+        mUniformStore.setFloats(location, UniformStore.TYPE_VEC3, arrayValue);
     }
 
-    protected void setFloatVec4(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform4fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+    protected void setFloatVec4(int location, float[] arrayValue) {
+        mUniformStore.setFloats(location, UniformStore.TYPE_VEC4, arrayValue);
     }
 
-    protected void setFloatArray(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform1fv(location, arrayValue.length, FloatBuffer.wrap(arrayValue));
-            }
-        });
+    protected void setFloatArray(int location, float[] arrayValue) {
+        mUniformStore.setFloats(location, UniformStore.TYPE_FLOAT_ARRAY, arrayValue);
     }
 
-    protected void setPoint(final int location, final PointF point) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                float[] vec2 = new float[2];
-                vec2[0] = point.x;
-                vec2[1] = point.y;
-                GLES30.glUniform2fv(location, 1, vec2, 0);
-            }
-        });
+    protected void setPoint(int location, PointF point) {
+        mUniformStore.setFloatVec2(location, point.x, point.y);
     }
 
-    protected void setUniformMatrix3f(final int location, final float[] matrix) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                GLES30.glUniformMatrix3fv(location, 1, false, matrix, 0);
-            }
-        });
+    protected void setUniformMatrix3f(int location, float[] matrix) {
+        mUniformStore.setFloats(location, UniformStore.TYPE_MAT3, matrix);
     }
 
-    protected void setUniformMatrix4f(final int location, final float[] matrix) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                GLES30.glUniformMatrix4fv(location, 1, false, matrix, 0);
-            }
-        });
+    protected void setUniformMatrix4f(int location, float[] matrix) {
+        mUniformStore.setFloats(location, UniformStore.TYPE_MAT4, matrix);
     }
 
     protected void runOnDraw(final Runnable runnable) {
@@ -313,8 +351,10 @@ public class GLImageFilter {
     }
 
     protected void runPendingOnDrawTasks() {
-        while (!mRunOnDraw.isEmpty()) {
-            mRunOnDraw.removeFirst().run();
+        synchronized (mRunOnDraw) {
+            while (!mRunOnDraw.isEmpty()) {
+                mRunOnDraw.removeFirst().run();
+            }
         }
     }
 }
@@ -1,12 +1,18 @@
 package com.cgfay.cainfilter.glfilter.base;
 
 import android.opengl.GLES30;
+import android.os.Process;
 
+import com.cgfay.cainfilter.gles.GLRenderTargetPool;
+import com.cgfay.cainfilter.gles.RenderTarget;
 import com.cgfay.cainfilter.type.GLFilterType;
 
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * 滤镜组基类
@@ -14,23 +20,74 @@ import java.util.List;
  */
 public abstract class GLImageFilterGroup extends GLImageFilter {
 
-    private static int[] mFramebuffers;
-    private static int[] mFrameBufferTextures;
+    // 最后一个pass输出的渲染目标，保留到下一帧，方便录制等后续流程继续使用
+    private RenderTarget mOutputTarget;
+
+    // 烘焙查找表的后台线程，所有滤镜组共用
+    private static final Executor mBakeExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ColorLutBakeThread");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // 滤镜链规划，跳过当前参数下不产生变化的滤镜，开启时合并连续的颜色滤镜
+    private final FilterChainPlanner mPlanner = new FilterChainPlanner();
+    // 是否合并连续的颜色滤镜
+    private boolean mMergeColorRuns;
+    // 当前上下文是否支持三维查找表
+    private final boolean mLookup3DSupported;
+
+    // 连续颜色滤镜的烘焙，参数不变时复用上一次的查找表
+    private final ColorLutBaker mColorLutBaker = new ColorLutBaker();
+    private final List<ColorStage> mColorStages = new ArrayList<ColorStage>();
+    // 本帧每一步使用的查找表，不合并的步为null
+    private final List<LookupTable> mColorTables = new ArrayList<LookupTable>();
+    // 绘制烘焙查找表的滤镜，第一次合并时在GL线程创建
+    private GLColorLutFilter mColorLutFilter;
 
     private int mCurrentTextureId;
     protected List<GLImageFilter> mFilters = new ArrayList<GLImageFilter>();
 
     public GLImageFilterGroup() {
-
+        mLookup3DSupported = GLImageLookupFilter.isLookup3DSupported();
     }
 
     public GLImageFilterGroup(List<GLImageFilter> filters) {
+        this();
         mFilters = filters;
     }
 
+    /**
+     * 设置是否把连续的颜色滤镜烘焙成一张33级的三维查找表后一次绘制，默认关闭
+     * 查找表的格点之间是三线性插值，曲线拐点附近与逐个pass绘制相比最多相差约20个8位量化级，
+     * 大部分颜色在1级以内。烘焙在后台线程进行，烘焙完成之前仍然逐个pass绘制
+     * 烘焙的查找表是三维纹理，GLES2上下文中设置无效
+     * @param merge
+     */
+    public void setMergeColorRuns(boolean merge) {
+        mMergeColorRuns = merge && mLookup3DSupported;
+    }
+
     @Override
     public void onInputSizeChanged(int width, int height) {
+        // 大小发生变化时归还旧的渲染目标
+        if (mImageWidth != width || mImageHeight != height) {
+            releaseOutputTarget();
+        }
         super.onInputSizeChanged(width, height);
+        if (mColorLutFilter != null) {
+            mColorLutFilter.onInputSizeChanged(width, height);
+        }
         if (mFilters.size() <= 0) {
             return;
         }
@@ -38,20 +95,15 @@ public abstract class GLImageFilterGroup extends GLImageFilter {
         for (int i = 0; i < size; i++) {
             mFilters.get(i).onInputSizeChanged(width, height);
         }
-        // 先销毁原来的Framebuffers
-        if(mFramebuffers != null && (mImageWidth != width
-                || mImageHeight != height || mFramebuffers.length != size-1)) {
-            destroyFramebuffer();
-            mImageWidth = width;
-            mImageWidth = height;
-        }
-        initFramebuffer(width, height);
     }
 
     @Override
     public void onDisplayChanged(int width, int height) {
         super.onDisplayChanged(width, height);
         // 更新显示的的视图大小
+        if (mColorLutFilter != null) {
+            mColorLutFilter.onDisplayChanged(width, height);
+        }
         if (mFilters.size() <= 0) {
             return;
         }
@@ -63,157 +115,186 @@ public abstract class GLImageFilterGroup extends GLImageFilter {
 
     @Override
     public boolean drawFrame(int textureId) {
-        if (mFramebuffers == null || mFrameBufferTextures == null || mFilters.size() <= 0) {
-            return false;
-        }
-        int size = mFilters.size();
-        mCurrentTextureId = textureId;
-        for (int i = 0; i < size; i++) {
-            GLImageFilter filter = mFilters.get(i);
-            if (i < size - 1) {
-                GLES30.glViewport(0, 0, mImageWidth, mImageHeight);
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffers[i]);
-                GLES30.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-                if (filter.drawFrame(mCurrentTextureId)) {
-                    mCurrentTextureId = mFrameBufferTextures[i];
-                }
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
-            } else {
-                GLES30.glViewport(0, 0, mDisplayWidth, mDisplayHeight);
-                filter.drawFrame(mCurrentTextureId);
-            }
-        }
-        return true;
+        return drawFrame(textureId, null, null);
     }
 
     @Override
     public boolean drawFrame(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
-        if (mFramebuffers == null || mFrameBufferTextures == null || mFilters.size() <= 0) {
+        if (mFilters.size() <= 0 || mImageWidth <= 0 || mImageHeight <= 0) {
             return false;
         }
-        int size = mFilters.size();
-        mCurrentTextureId = textureId;
-        for (int i = 0; i < size; i++) {
-            GLImageFilter filter = mFilters.get(i);
-            if (i < size - 1) {
-                GLES30.glViewport(0, 0, mImageWidth, mImageHeight);
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffers[i]);
-                GLES30.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-                filter.drawFrame(mCurrentTextureId, vertexBuffer, textureBuffer);
-                GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
-                mCurrentTextureId = mFrameBufferTextures[i];
-            } else {
-                GLES30.glViewport(0, 0, mDisplayWidth, mDisplayHeight);
-                filter.drawFrame(mCurrentTextureId, vertexBuffer, textureBuffer);
-            }
+        // 前面的滤镜绘制到FBO，最后一个需要执行的滤镜直接绘制到当前的Surface
+        planPasses(true, true);
+        drawPasses(textureId, vertexBuffer, textureBuffer);
+        int last = mPlanner.getPassCount() - 1;
+        if (last > 0) {
+            vertexBuffer = null;
+            textureBuffer = null;
         }
-        return true;
+        GLES30.glViewport(0, 0, mDisplayWidth, mDisplayHeight);
+        return drawStep(last, mCurrentTextureId, vertexBuffer, textureBuffer);
     }
 
     public int drawFrameBuffer(int textureId) {
-        if (mFramebuffers == null || mFrameBufferTextures == null || mFilters.size() <= 0) {
+        return drawFrameBuffer(textureId, null, null);
+    }
+
+    public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (mFilters.size() <= 0 || mImageWidth <= 0 || mImageHeight <= 0) {
             return textureId;
         }
-        int size = mFilters.size();
-        mCurrentTextureId = textureId;
-        GLES30.glViewport(0, 0, mImageWidth, mImageHeight);
-        for (int i = 0; i < size; i++) {
-            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffers[i]);
-            GLES30.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-            if (mFilters.get(i).drawFrame(mCurrentTextureId)) {
-                mCurrentTextureId = mFrameBufferTextures[i];
-            }
-            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        // 指定了顶点和纹理坐标时，即使全部跳过也需要一个pass来完成裁剪和缩放
+        planPasses(false, vertexBuffer != null && textureBuffer != null);
+        return drawPasses(textureId, vertexBuffer, textureBuffer);
+    }
+
+    /**
+     * 规划本帧的pass，合并的颜色滤镜查找表还没有烘焙好时，本帧不合并
+     * @param renderToOutput
+     * @param keepOnePass
+     */
+    private void planPasses(boolean renderToOutput, boolean keepOnePass) {
+        mPlanner.setMergeColorRuns(mMergeColorRuns);
+        mPlanner.plan(mFilters, renderToOutput, keepOnePass);
+        if (mMergeColorRuns && !prepareColorTables()) {
+            mPlanner.setMergeColorRuns(false);
+            mPlanner.plan(mFilters, renderToOutput, keepOnePass);
         }
-        return mCurrentTextureId;
     }
 
-    public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
-        if (mFramebuffers == null || mFrameBufferTextures == null || mFilters.size() <= 0) {
-            return textureId;
+    /**
+     * 获取每一段合并的颜色滤镜对应的查找表，缓存中没有的交给后台线程烘焙
+     * @return 全部查找表都已经烘焙好时返回true
+     */
+    private boolean prepareColorTables() {
+        mColorTables.clear();
+        boolean ready = true;
+        int stepCount = mPlanner.getPassCount();
+        for (int i = 0; i < stepCount; i++) {
+            int runLength = mPlanner.getRunLength(i);
+            if (runLength == 1) {
+                mColorTables.add(null);
+                continue;
+            }
+            for (int j = 0; j < runLength; j++) {
+                FilterChainPlanner.BakeablePass pass = (FilterChainPlanner.BakeablePass)
+                        mFilters.get(mPlanner.getRunPassIndex(i, j));
+                mColorStages.add(pass.getColorStage());
+            }
+            LookupTable table = mColorLutBaker.obtainAsync(mColorStages,
+                    ColorLutBaker.SIZE_SMALL, mBakeExecutor);
+            mColorStages.clear();
+            mColorTables.add(table);
+            ready &= table != null;
         }
-        int size = mFilters.size();
+        return ready;
+    }
+
+    /**
+     * 将规划好的需要绘制到FBO的pass依次绘制
+     * 每个pass从渲染目标池中借出输出的渲染目标，输入的渲染目标在pass结束后立即归还，
+     * 因此不管滤镜有多少个，同一时刻最多只占用两个渲染目标。跳过的pass不借出渲染目标，
+     * 全部跳过时直接返回输入的Texture
+     * 顶点和纹理坐标只在第一个执行的pass中使用，保证跳过哪些pass都不会改变画面的裁剪和缩放
+     * @param textureId
+     * @param vertexBuffer
+     * @param textureBuffer
+     * @return 最后一个pass输出的Texture
+     */
+    private int drawPasses(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        // 上一帧的输出已经不再使用
+        releaseOutputTarget();
         mCurrentTextureId = textureId;
+        RenderTarget input = null;
         GLES30.glViewport(0, 0, mImageWidth, mImageHeight);
-        for (int i = 0; i < size; i++) {
-            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffers[i]);
+        int passCount = mPlanner.getFramebufferPassCount();
+        for (int i = 0; i < passCount; i++) {
+            RenderTarget output = GLRenderTargetPool.obtain(mImageWidth, mImageHeight);
+            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, output.getFramebufferId());
             GLES30.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-            if (mFilters.get(i).drawFrame(mCurrentTextureId, vertexBuffer, textureBuffer)) {
-                mCurrentTextureId = mFrameBufferTextures[i];
-            }
+            boolean drawn = drawStep(i, mCurrentTextureId,
+                    i == 0 ? vertexBuffer : null, i == 0 ? textureBuffer : null);
             GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+            if (drawn) {
+                if (input != null) {
+                    GLRenderTargetPool.recycle(input);
+                }
+                input = output;
+                mCurrentTextureId = output.getTextureId();
+            } else {
+                GLRenderTargetPool.recycle(output);
+            }
         }
+        mOutputTarget = input;
         return mCurrentTextureId;
     }
 
-    @Override
-    public void release() {
-        if (mFilters != null) {
-            for (GLImageFilter filter : mFilters) {
-                filter.release();
-            }
-            mFilters.clear();
+    /**
+     * 绘制规划好的第i步，连续的颜色滤镜使用规划时准备好的查找表一次绘制
+     * @param i
+     * @param textureId
+     * @param vertexBuffer
+     * @param textureBuffer
+     * @return
+     */
+    private boolean drawStep(int i, int textureId,
+                             FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        int runLength = mPlanner.getRunLength(i);
+        if (runLength == 1) {
+            return drawFilter(mFilters.get(mPlanner.getPassIndex(i)), textureId,
+                    vertexBuffer, textureBuffer);
+        }
+        if (mColorLutFilter == null) {
+            mColorLutFilter = new GLColorLutFilter();
+            mColorLutFilter.onInputSizeChanged(mImageWidth, mImageHeight);
+            mColorLutFilter.onDisplayChanged(mDisplayWidth, mDisplayHeight);
         }
-        destroyFramebuffer();
+        mColorLutFilter.setColorTable(mColorTables.get(i));
+        return drawFilter(mColorLutFilter, textureId, vertexBuffer, textureBuffer);
     }
 
     /**
-     * 初始化framebuffer，这里在调用drawFrame时，会多一个FBO，这里为了方便后面录制视频缩放处理
+     * 绘制单个滤镜，没有指定缓冲时使用滤镜自身的顶点和纹理坐标
+     * @param filter
+     * @param textureId
+     * @param vertexBuffer
+     * @param textureBuffer
+     * @return
      */
-    public void initFramebuffer(int width, int height) {
-        int size = mFilters.size();
-        // 创建Framebuffers 和 Textures
-        if (mFramebuffers == null) {
-            mFramebuffers = new int[size];
-            mFrameBufferTextures = new int[size];
-            createFramebuffer(0, size);
+    private boolean drawFilter(GLImageFilter filter, int textureId,
+                               FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (vertexBuffer == null || textureBuffer == null) {
+            return filter.drawFrame(textureId);
         }
+        return filter.drawFrame(textureId, vertexBuffer, textureBuffer);
     }
 
     /**
-     * 创建Framebuffer
-     * @param start
-     * @param size
+     * 归还输出的渲染目标
      */
-    private void createFramebuffer(int start, int size) {
-        for (int i = start; i < size; i++) {
-            GLES30.glGenFramebuffers(1, mFramebuffers, i);
-
-            GLES30.glGenTextures(1, mFrameBufferTextures, i);
-            GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, mFrameBufferTextures[i]);
-
-            GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA,
-                    mImageWidth, mImageHeight, 0, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
-            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
-                    GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
-            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
-                    GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
-            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
-                    GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
-            GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
-                    GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
-
-            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffers[i]);
-            GLES30.glFramebufferTexture2D(GLES30.GL_FRAMEBUFFER, GLES30.GL_COLOR_ATTACHMENT0,
-                    GLES30.GL_TEXTURE_2D, mFrameBufferTextures[i], 0);
-
-            GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
-            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+    private void releaseOutputTarget() {
+        if (mOutputTarget != null) {
+            GLRenderTargetPool.recycle(mOutputTarget);
+            mOutputTarget = null;
         }
     }
 
-    /**
-     * 销毁Framebuffers
-     */
-    public void destroyFramebuffer() {
-        if (mFrameBufferTextures != null) {
-            GLES30.glDeleteTextures(mFrameBufferTextures.length, mFrameBufferTextures, 0);
-            mFrameBufferTextures = null;
+    @Override
+    public void release() {
+        if (mFilters != null) {
+            for (GLImageFilter filter : mFilters) {
+                filter.release();
+            }
+            mFilters.clear();
         }
-        if (mFramebuffers != null) {
-            GLES30.glDeleteFramebuffers(mFramebuffers.length, mFramebuffers, 0);
-            mFramebuffers = null;
+        if (mColorLutFilter != null) {
+            mColorLutFilter.release();
+            mColorLutFilter = null;
         }
+        mColorLutBaker.clear();
+        mColorTables.clear();
+        releaseOutputTarget();
+        super.release();
     }
 
     /**
@@ -222,7 +303,6 @@ public abstract class GLImageFilterGroup extends GLImageFilter {
      */
     public void addFilters(List<GLImageFilter> filters) {
         mFilters.addAll(filters);
-        addFrambuffers();
     }
 
     /**
@@ -237,32 +317,6 @@ public abstract class GLImageFilterGroup extends GLImageFilter {
      */
     public abstract void changeFilter(GLFilterType type);
 
-    /**
-     * 添加Framebuffer
-     */
-    private void addFrambuffers() {
-        // 复制和创建新的frambuffer
-        int size = mFilters.size();
-        int[] framebuffers = new int[size - 1];
-        int[] framebufferTextures = new int[size - 1];
-        // 复制原来的Framebuffer和Texture
-        if (mFramebuffers != null) {
-            for (int i = 0; i < mFramebuffers.length; i++) {
-                framebuffers[i] = mFramebuffers[i];
-                framebufferTextures[i] = mFrameBufferTextures[i];
-            }
-        }
-
-        int start = 0;
-        if (mFramebuffers != null) {
-            start = mFramebuffers.length;
-        }
-        mFramebuffers = framebuffers;
-        mFrameBufferTextures = framebufferTextures;
-        // 创建新的
-        createFramebuffer(start, size - 1);
-    }
-
     /**
      * 替换滤镜组
      * @param filters
@@ -273,23 +327,6 @@ public abstract class GLImageFilterGroup extends GLImageFilter {
         }
         mFilters.clear();
         mFilters = filters;
-        if (mFramebuffers != null && mFilters.size() < mFramebuffers.length) {
-            // 销毁多余的Framebuffers
-            int size = mFilters.size() - 1;
-            GLES30.glDeleteTextures(mFrameBufferTextures.length - size, mFrameBufferTextures, size);
-            GLES30.glDeleteFramebuffers(mFramebuffers.length - size, mFramebuffers, size);
-            int[] framebuffers = new int[size];
-            int[] framebuffersTextures = new int[size];
-            for (int i = 0; i < size; i++) {
-                framebuffers[i] = mFramebuffers[i];
-                framebuffersTextures[i] = mFrameBufferTextures[i];
-            }
-            mFramebuffers = framebuffers;
-            mFrameBufferTextures = framebuffersTextures;
-        } else if (mFramebuffers == null || mFilters.size() > mFramebuffers.length) {
-            // 添加Framebuffers
-            addFrambuffers();
-        }
     }
 
     /**
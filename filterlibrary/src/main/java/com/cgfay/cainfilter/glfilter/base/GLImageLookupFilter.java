@@ -2,34 +2,75 @@ package com.cgfay.cainfilter.glfilter.base;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.utils.GlUtil;
+import com.cgfay.cainfilter.gles.EglCore;
+import com.cgfay.cainfilter.gles.GLLookupTextureCache;
 
 /**
  * 应用查找表(LUT)滤镜
+ * 二维查找图在加载时转换成三维纹理(见LookupTable)，由共享的GLLookupTextureCache按引用计数管理，
+ * 每个像素只需要一次三线性过滤的采样，不再需要两次依赖读取和手动插值蓝色
+ * 三维纹理需要GLSL ES 3.00，因此顶点和片元shader都使用300 es版本
+ * GLES2上下文没有三维纹理，退回原来的二维查找图shader，查找图按512 x 512的二维纹理上传
  * Created by Administrator on 2018/3/8.
  */
 
 public class GLImageLookupFilter extends GLImageFilter {
-    private static final String FRAGMENT_SHADER =
+
+    protected static final String LOOKUP_VERTEX_SHADER =
+            "#version 300 es\n" +
+            "uniform mat4 uMVPMatrix;\n" +
+            "in vec4 aPosition;\n" +
+            "in vec4 aTextureCoord;\n" +
+            "out vec2 textureCoordinate;\n" +
+            "void main() {\n" +
+            "    gl_Position = uMVPMatrix * aPosition;\n" +
+            "    textureCoordinate = aTextureCoord.xy;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER_3D =
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+            "precision mediump sampler3D;\n" +
+            "in highp vec2 textureCoordinate;\n" +
+            "\n" +
+            "uniform sampler2D inputTexture; // 图像texture\n" +
+            "uniform sampler3D lookupTexture; // 查找表texture\n" +
+            "\n" +
+            "uniform lowp float intensity; // 0 ~ 1.0f 变化值\n" +
+            "// 颜色到三维纹理坐标的映射，使0和1分别落在首尾格点的中心\n" +
+            "uniform float lookupScale;\n" +
+            "uniform float lookupOffset;\n" +
+            "\n" +
+            "out vec4 fragColor;\n" +
+            "\n" +
+            "void main() {\n" +
+            "    lowp vec4 textureColor = texture(inputTexture, textureCoordinate);\n" +
+            "    vec3 newColor = texture(lookupTexture,\n" +
+            "            textureColor.rgb * lookupScale + lookupOffset).rgb;\n" +
+            "    fragColor = mix(textureColor, vec4(newColor, textureColor.w), intensity);\n" +
+            "}\n";
+
+    // GLES2使用的二维查找图shader，只支持512 x 512的查找图
+    private static final String FRAGMENT_SHADER_LOOKUP_2D =
+            "precision mediump float;\n" +
             "varying highp vec2 textureCoordinate;\n" +
             "\n" +
             "uniform sampler2D inputTexture; // 图像texture\n" +
-            "uniform sampler2D curveTexture; // 滤镜texture\n" +
+            "uniform sampler2D lookupTexture; // 查找图texture\n" +
             "\n" +
             "uniform lowp float intensity; // 0 ~ 1.0f 变化值\n" +
             "\n" +
             "void main() {\n" +
             "    lowp vec4 textureColor = texture2D(inputTexture, textureCoordinate);\n" +
             "\n" +
-            "\n" +
             "    mediump float blueColor = textureColor.b * 63.0;\n" +
             "\n" +
             "    mediump vec2 quad1;\n" +
-            "    quad1.y = floor(blueColor/8.0);\n" +
+            "    quad1.y = floor(floor(blueColor) / 8.0);\n" +
             "    quad1.x = floor(blueColor) - (quad1.y * 8.0);\n" +
             "\n" +
             "    mediump vec2 quad2;\n" +
-            "    quad2.y = floor(ceil(blueColor)/7.999);\n" +
+            "    quad2.y = floor(ceil(blueColor) / 8.0);\n" +
             "    quad2.x = ceil(blueColor) - (quad2.y * 8.0);\n" +
             "\n" +
             "    highp vec2 texPos1;\n" +
@@ -40,43 +81,115 @@ public class GLImageLookupFilter extends GLImageFilter {
             "    texPos2.x = (quad2.x * 0.125) + 0.5/512.0 + ((0.125 - 1.0/512.0) * textureColor.r);\n" +
             "    texPos2.y = (quad2.y * 0.125) + 0.5/512.0 + ((0.125 - 1.0/512.0) * textureColor.g);\n" +
             "\n" +
-            "    lowp vec4 newColor1 = texture2D(curveTexture, texPos1);\n" +
-            "    lowp vec4 newColor2 = texture2D(curveTexture, texPos2);\n" +
+            "    lowp vec4 newColor1 = texture2D(lookupTexture, texPos1);\n" +
+            "    lowp vec4 newColor2 = texture2D(lookupTexture, texPos2);\n" +
             "\n" +
             "    lowp vec4 newColor = mix(newColor1, newColor2, fract(blueColor));\n" +
             "    gl_FragColor = mix(textureColor, vec4(newColor.rgb, textureColor.w), intensity);\n" +
-            " }";
+            "}\n";
+
+    // 二维查找图的默认尺寸512 x 512，对应64级
+    private static final int DEFAULT_LUT_SIZE = 64;
 
     private int mIntensityLoc;
-    private int mCurveTextureLoc;
+    private int mLookupTextureLoc;
+    private int mLookupScaleLoc;
+    private int mLookupOffsetLoc;
 
-    private int mCurveTexture = GlUtil.GL_NOT_INIT;
+    private int mLookupTexture = 0;
+    // 查找表纹理的类型，GLES3为GL_TEXTURE_3D，GLES2为GL_TEXTURE_2D
+    private final int mLookupTextureType;
 
     public GLImageLookupFilter() {
-        this(VERTEX_SHADER, FRAGMENT_SHADER);
+        this(isLookup3DSupported() ? LOOKUP_VERTEX_SHADER : VERTEX_SHADER,
+                isLookup3DSupported() ? FRAGMENT_SHADER_3D : FRAGMENT_SHADER_LOOKUP_2D);
+    }
+
+    /**
+     * @param lookupName assets中二维查找图的路径
+     */
+    public GLImageLookupFilter(String lookupName) {
+        this();
+        setLookupTable(lookupName);
     }
 
     public GLImageLookupFilter(String vertexShader, String fragmentShader) {
         super(vertexShader, fragmentShader);
+        mLookupTextureType = isLookup3DSupported()
+                ? GLES30.GL_TEXTURE_3D : GLES30.GL_TEXTURE_2D;
         mIntensityLoc = GLES30.glGetUniformLocation(mProgramHandle, "intensity");
-        mCurveTextureLoc = GLES30.glGetUniformLocation(mProgramHandle, "curveTexture");
+        mLookupTextureLoc = GLES30.glGetUniformLocation(mProgramHandle, "lookupTexture");
+        mLookupScaleLoc = GLES30.glGetUniformLocation(mProgramHandle, "lookupScale");
+        mLookupOffsetLoc = GLES30.glGetUniformLocation(mProgramHandle, "lookupOffset");
+        setLookupSize(DEFAULT_LUT_SIZE);
         setIntensity(1.0f);
     }
 
+    /**
+     * 当前上下文是否支持三维查找表，需要在GL线程调用
+     * @return GLES3上下文返回true，GLES2上下文返回false
+     */
+    public static boolean isLookup3DSupported() {
+        return EglCore.getCurrentGlVersion() >= 3;
+    }
+
+    /**
+     * 设置查找图，转换好的三维纹理在同一个上下文的滤镜之间共享，需要在GL线程调用
+     * @param lookupName assets中二维查找图的路径
+     */
+    public void setLookupTable(String lookupName) {
+        int texture = GLLookupTextureCache.acquireTexture(lookupName);
+        releaseLookupTexture();
+        mLookupTexture = texture;
+    }
+
+    /**
+     * 设置查找表的级数，与查找图的尺寸对应，512 x 512为64级，64 x 64为16级
+     * GLES2的二维查找图shader固定为64级，设置无效
+     * @param size
+     */
+    public void setLookupSize(int size) {
+        setFloat(mLookupScaleLoc, (size - 1.0f) / size);
+        setFloat(mLookupOffsetLoc, 0.5f / size);
+    }
+
+    /**
+     * 绘制时绑定的查找表纹理，GLES2上下文中是二维查找图
+     * @return
+     */
+    protected int getLookupTexture() {
+        return mLookupTexture;
+    }
+
     @Override
     public void onDrawArraysBegin() {
         super.onDrawArraysBegin();
         GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
-        GLES30.glBindTexture(getTextureType(), mCurveTexture);
-        GLES30.glUniform1i(mCurveTextureLoc, 1);
+        GLES30.glBindTexture(mLookupTextureType, getLookupTexture());
+        GLES30.glUniform1i(mLookupTextureLoc, 1);
+    }
+
+    @Override
+    public void onDrawArraysAfter() {
+        super.onDrawArraysAfter();
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+        GLES30.glBindTexture(mLookupTextureType, 0);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
     }
 
     @Override
     public void release() {
-        GLES30.glDeleteTextures(1, new int[]{mCurveTexture}, 0);
+        releaseLookupTexture();
         super.release();
     }
 
+    private void releaseLookupTexture() {
+        if (mLookupTexture != 0) {
+            GLLookupTextureCache.releaseTexture(mLookupTexture);
+            mLookupTexture = 0;
+        }
+    }
+
     /**
      *  设置变化值，0.0f ~ 1.0f
      * @param value
@@ -0,0 +1,265 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+import java.util.Arrays;
+
+/**
+ * 三维颜色查找表(3D LUT)
+ * 由常用的二维查找图转换而来：n x n x n的查找表按蓝色分成n个n x n的小块，
+ * 每行排列sqrt(n)个小块，例如512 x 512的图对应64级，每行8块
+ * 转换后按(r, g, b)的顺序存放RGB三个字节，r变化最快，可以直接作为GL_TEXTURE_3D上传，
+ * 硬件三线性过滤即可完成原来两次采样加手动插值蓝色的工作
+ * 纯Java实现，CPU上的采样与二维查找图的shader算法一致，用于在JVM上验证转换结果，
+ * 作为ColorStage时按三线性采样计算，与GLImageLookupFilter强度为1时一致
+ * Created by cain on 2018/3/25.
+ */
+public final class LookupTable implements ColorStage {
+
+    // 每个格点的字节数
+    public static final int BYTES_PER_ENTRY = 3;
+
+    private final int mSize;
+    private final byte[] mData;
+    // 数据的哈希值，第一次使用时计算
+    private long mHash;
+    private boolean mHashed;
+
+    LookupTable(int size, byte[] data) {
+        mSize = size;
+        mData = data;
+    }
+
+    /**
+     * 根据二维查找图的尺寸计算查找表的级数
+     * @param width
+     * @param height
+     * @return 每个颜色分量的级数
+     */
+    public static int getLutSize(int width, int height) {
+        if (width <= 0 || width != height) {
+            throw new IllegalArgumentException("lookup image must be square: "
+                    + width + "x" + height);
+        }
+        int size = (int) Math.round(Math.cbrt((double) width * height));
+        int tiles = (int) Math.round(Math.sqrt(size));
+        if (size < 2 || tiles * tiles != size || tiles * size != width) {
+            throw new IllegalArgumentException("not a lookup image: " + width + "x" + height);
+        }
+        return size;
+    }
+
+    /**
+     * 从二维查找图转换
+     * @param argb 查找图的像素，与Bitmap.getPixels的格式相同
+     * @param width
+     * @param height
+     * @return
+     */
+    public static LookupTable fromLookupImage(int[] argb, int width, int height) {
+        int size = getLutSize(width, height);
+        if (argb.length < width * height) {
+            throw new IllegalArgumentException("pixels too short: " + argb.length);
+        }
+        int tiles = width / size;
+        byte[] data = new byte[size * size * size * BYTES_PER_ENTRY];
+        int index = 0;
+        for (int b = 0; b < size; b++) {
+            int left = (b % tiles) * size;
+            int top = (b / tiles) * size;
+            for (int g = 0; g < size; g++) {
+                int row = (top + g) * width + left;
+                for (int r = 0; r < size; r++) {
+                    int pixel = argb[row + r];
+                    data[index++] = (byte) (pixel >> 16);
+                    data[index++] = (byte) (pixel >> 8);
+                    data[index++] = (byte) pixel;
+                }
+            }
+        }
+        return new LookupTable(size, data);
+    }
+
+    /**
+     * 每个颜色分量的级数
+     * @return
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * 按(r, g, b)顺序存放的RGB数据
+     * @return
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * 占用的字节数
+     * @return
+     */
+    public int getByteSize() {
+        return mData.length;
+    }
+
+    /**
+     * 三维纹理坐标的缩放，颜色c对应的纹理坐标为c * scale + offset，使采样落在格点中心之间
+     * @return
+     */
+    public float getTextureScale() {
+        return (mSize - 1.0f) / mSize;
+    }
+
+    /**
+     * 三维纹理坐标的偏移
+     * @return
+     */
+    public float getTextureOffset() {
+        return 0.5f / mSize;
+    }
+
+    /**
+     * 三线性采样，与GL_LINEAR过滤的三维纹理一致
+     * @param r 0 ~ 1
+     * @param g
+     * @param b
+     * @param out 输出的RGB，0 ~ 1
+     */
+    public void sample(float r, float g, float b, float[] out) {
+        sample(r, g, b, out, 0);
+    }
+
+    /**
+     * 三线性采样
+     * @param r 0 ~ 1
+     * @param g
+     * @param b
+     * @param out 输出的RGB，0 ~ 1
+     * @param offset 输出的起始位置
+     */
+    public void sample(float r, float g, float b, float[] out, int offset) {
+        int max = mSize - 1;
+        float x = clamp(r) * max;
+        float y = clamp(g) * max;
+        float z = clamp(b) * max;
+        int x0 = Math.min((int) x, max - 1);
+        int y0 = Math.min((int) y, max - 1);
+        int z0 = Math.min((int) z, max - 1);
+        float fx = x - x0;
+        float fy = y - y0;
+        float fz = z - z0;
+        for (int c = 0; c < BYTES_PER_ENTRY; c++) {
+            float c00 = lerp(get(x0, y0, z0, c), get(x0 + 1, y0, z0, c), fx);
+            float c10 = lerp(get(x0, y0 + 1, z0, c), get(x0 + 1, y0 + 1, z0, c), fx);
+            float c01 = lerp(get(x0, y0, z0 + 1, c), get(x0 + 1, y0, z0 + 1, c), fx);
+            float c11 = lerp(get(x0, y0 + 1, z0 + 1, c), get(x0 + 1, y0 + 1, z0 + 1, c), fx);
+            out[offset + c] = lerp(lerp(c00, c10, fy), lerp(c01, c11, fy), fz);
+        }
+    }
+
+    @Override
+    public void apply(float[] rgba, int offset) {
+        sample(rgba[offset], rgba[offset + 1], rgba[offset + 2], rgba, offset);
+    }
+
+    @Override
+    public synchronized long getParameterHash() {
+        if (!mHashed) {
+            // FNV-1a
+            long hash = 0xcbf29ce484222325L ^ mSize;
+            for (byte value : mData) {
+                hash = (hash ^ (value & 0xff)) * 0x100000001b3L;
+            }
+            mHash = hash;
+            mHashed = true;
+        }
+        return mHash;
+    }
+
+    @Override
+    public boolean hasSameParameters(ColorStage other) {
+        if (other == this) {
+            return true;
+        }
+        if (!(other instanceof LookupTable)) {
+            return false;
+        }
+        LookupTable table = (LookupTable) other;
+        return mSize == table.mSize && getParameterHash() == table.getParameterHash()
+                && Arrays.equals(mData, table.mData);
+    }
+
+    @Override
+    public ColorStage snapshot() {
+        // 创建后数据不再修改
+        return this;
+    }
+
+    private float get(int r, int g, int b, int channel) {
+        return (mData[((b * mSize + g) * mSize + r) * BYTES_PER_ENTRY + channel] & 0xff) / 255.0f;
+    }
+
+    /**
+     * 直接在二维查找图上采样，与GLImageLookupFilter原来的shader算法一致：
+     * 蓝色所在的相邻两个小块各做一次双线性采样，再按蓝色的小数部分混合
+     * @param argb 查找图的像素
+     * @param width
+     * @param height
+     * @param r 0 ~ 1
+     * @param g
+     * @param b
+     * @param out 输出的RGB，0 ~ 1
+     */
+    public static void sampleLookupImage(int[] argb, int width, int height,
+                                         float r, float g, float b, float[] out) {
+        int size = getLutSize(width, height);
+        float tiles = width / size;
+        float tile = 1.0f / tiles;
+        float blueColor = clamp(b) * (size - 1);
+        float quad1y = (float) Math.floor(Math.floor(blueColor) / tiles);
+        float quad1x = (float) Math.floor(blueColor) - quad1y * tiles;
+        float quad2y = (float) Math.floor(Math.ceil(blueColor) / tiles);
+        float quad2x = (float) Math.ceil(blueColor) - quad2y * tiles;
+        float u1 = quad1x * tile + 0.5f / width + (tile - 1.0f / width) * clamp(r);
+        float v1 = quad1y * tile + 0.5f / height + (tile - 1.0f / height) * clamp(g);
+        float u2 = quad2x * tile + 0.5f / width + (tile - 1.0f / width) * clamp(r);
+        float v2 = quad2y * tile + 0.5f / height + (tile - 1.0f / height) * clamp(g);
+        float fraction = blueColor - (float) Math.floor(blueColor);
+        for (int c = 0; c < BYTES_PER_ENTRY; c++) {
+            out[c] = lerp(bilinear(argb, width, height, u1, v1, c),
+                    bilinear(argb, width, height, u2, v2, c), fraction);
+        }
+    }
+
+    /**
+     * GL_LINEAR + GL_CLAMP_TO_EDGE的二维采样
+     */
+    private static float bilinear(int[] argb, int width, int height, float u, float v, int channel) {
+        float x = u * width - 0.5f;
+        float y = v * height - 0.5f;
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        float fx = x - x0;
+        float fy = y - y0;
+        int shift = 16 - channel * 8;
+        float top = lerp(texel(argb, width, height, x0, y0, shift),
+                texel(argb, width, height, x0 + 1, y0, shift), fx);
+        float bottom = lerp(texel(argb, width, height, x0, y0 + 1, shift),
+                texel(argb, width, height, x0 + 1, y0 + 1, shift), fx);
+        return lerp(top, bottom, fy);
+    }
+
+    private static float texel(int[] argb, int width, int height, int x, int y, int shift) {
+        x = Math.max(0, Math.min(width - 1, x));
+        y = Math.max(0, Math.min(height - 1, y));
+        return ((argb[y * width + x] >> shift) & 0xff) / 255.0f;
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    private static float clamp(float value) {
+        return value < 0 ? 0 : (value > 1 ? 1 : value);
+    }
+}
@@ -0,0 +1,270 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * uniform状态存储
+ * 每个uniform location对应一个预先分配的槽位，设置uniform时只是把值拷贝到槽位中并标记脏位，
+ * GL线程绘制前通过一次原子交换取走全部脏位，再把对应槽位的值上传，整个过程不产生任何内存分配
+ * 线程模型：
+ * 1、写入方(UI线程、GL线程)之间通过锁互斥
+ * 2、GL线程发布时持有同一个锁把待上传的值拷贝出来，保证不会上传写了一半的矩阵，
+ * 锁内只有几次数组拷贝，上传在锁外进行
+ * 同一个location第一次设置时才会分配槽位，之后类型和长度固定
+ * Created by cain on 2018/3/23.
+ */
+public final class UniformStore {
+
+    // 最大槽位数量，脏位使用一个long表示
+    public static final int MAX_SLOTS = 64;
+
+    public static final int TYPE_INT = 0;
+    public static final int TYPE_FLOAT = 1;
+    public static final int TYPE_VEC2 = 2;
+    public static final int TYPE_VEC3 = 3;
+    public static final int TYPE_VEC4 = 4;
+    public static final int TYPE_MAT3 = 5;
+    public static final int TYPE_MAT4 = 6;
+    // float数组，长度由第一次设置时决定
+    public static final int TYPE_FLOAT_ARRAY = 7;
+
+    /**
+     * 上传uniform的接口，由GL实现，测试时可以替换
+     */
+    public interface UniformUploader {
+
+        void uniform1i(int location, int value);
+
+        void uniform1fv(int location, int count, float[] value, int offset);
+
+        void uniform2fv(int location, float[] value, int offset);
+
+        void uniform3fv(int location, float[] value, int offset);
+
+        void uniform4fv(int location, float[] value, int offset);
+
+        void uniformMatrix3fv(int location, float[] value, int offset);
+
+        void uniformMatrix4fv(int location, float[] value, int offset);
+    }
+
+    // 写入方之间以及写入方与GL线程发布之间互斥
+    private final Object mLock = new Object();
+    // 已经注册的槽位数量
+    private volatile int mSlotCount;
+    // 等待上传的槽位
+    private final AtomicLong mDirty = new AtomicLong();
+
+    // 槽位信息
+    private final int[] mLocations = new int[MAX_SLOTS];
+    private final int[] mTypes = new int[MAX_SLOTS];
+    // 写入方使用的值
+    private final float[][] mPending = new float[MAX_SLOTS][];
+    // GL线程使用的值，program被其他滤镜使用之后需要全部重新上传
+    private final float[][] mCurrent = new float[MAX_SLOTS][];
+    // GL线程已经取走但还没上传的槽位
+    private long mUploadMask;
+
+    ///------------------ 写入 ------------------------///
+
+    public void setInt(int location, int value) {
+        if (location < 0) {
+            return;
+        }
+        synchronized (mLock) {
+            int slot = obtainSlot(location, TYPE_INT, 1);
+            mPending[slot][0] = Float.intBitsToFloat(value);
+            markDirty(slot);
+        }
+    }
+
+    public void setFloat(int location, float value) {
+        if (location < 0) {
+            return;
+        }
+        synchronized (mLock) {
+            int slot = obtainSlot(location, TYPE_FLOAT, 1);
+            mPending[slot][0] = value;
+            markDirty(slot);
+        }
+    }
+
+    public void setFloatVec2(int location, float x, float y) {
+        if (location < 0) {
+            return;
+        }
+        synchronized (mLock) {
+            int slot = obtainSlot(location, TYPE_VEC2, 2);
+            mPending[slot][0] = x;
+            mPending[slot][1] = y;
+            markDirty(slot);
+        }
+    }
+
+    /**
+     * 设置vec2、vec3、vec4、mat3、mat4以及float数组
+     * @param location
+     * @param type
+     * @param value
+     */
+    public void setFloats(int location, int type, float[] value) {
+        if (location < 0) {
+            return;
+        }
+        int length = getComponentCount(type, value.length);
+        if (value.length < length) {
+            throw new IllegalArgumentException("uniform type " + type
+                    + " needs " + length + " floats, got " + value.length);
+        }
+        synchronized (mLock) {
+            int slot = obtainSlot(location, type, length);
+            System.arraycopy(value, 0, mPending[slot], 0, length);
+            markDirty(slot);
+        }
+    }
+
+    /**
+     * 查找槽位，没有则注册一个新的槽位，调用方需要持有锁
+     */
+    private int obtainSlot(int location, int type, int length) {
+        int count = mSlotCount;
+        for (int i = 0; i < count; i++) {
+            if (mLocations[i] == location) {
+                if (mTypes[i] != type || mPending[i].length != length) {
+                    throw new IllegalArgumentException("uniform " + location
+                            + " was registered with another type or length");
+                }
+                return i;
+            }
+        }
+        if (count >= MAX_SLOTS) {
+            throw new IllegalStateException("too many uniforms: " + MAX_SLOTS);
+        }
+        mLocations[count] = location;
+        mTypes[count] = type;
+        mPending[count] = new float[length];
+        mCurrent[count] = new float[length];
+        // 槽位信息写完之后再发布槽位数量
+        mSlotCount = count + 1;
+        return count;
+    }
+
+    private void markDirty(int slot) {
+        long bit = 1L << slot;
+        long dirty;
+        do {
+            dirty = mDirty.get();
+        } while (!mDirty.compareAndSet(dirty, dirty | bit));
+    }
+
+    private static int getComponentCount(int type, int arrayLength) {
+        switch (type) {
+            case TYPE_INT:
+            case TYPE_FLOAT:
+                return 1;
+            case TYPE_VEC2:
+                return 2;
+            case TYPE_VEC3:
+                return 3;
+            case TYPE_VEC4:
+                return 4;
+            case TYPE_MAT3:
+                return 9;
+            case TYPE_MAT4:
+                return 16;
+            case TYPE_FLOAT_ARRAY:
+                return arrayLength;
+            default:
+                throw new IllegalArgumentException("unknown uniform type " + type);
+        }
+    }
+
+    ///------------------ GL线程读取 ------------------------///
+
+    /**
+     * 发布并上传uniform，只能在GL线程调用
+     * @param uploader
+     * @param uploadAll program被其他滤镜使用过，需要上传全部uniform
+     * @return 上传的uniform数量
+     */
+    public int apply(UniformUploader uploader, boolean uploadAll) {
+        publish();
+        int count = mSlotCount;
+        long mask = uploadAll ? -1L : mUploadMask;
+        mUploadMask = 0;
+        int uploaded = 0;
+        for (int slot = 0; slot < count && mask != 0; slot++) {
+            if ((mask & (1L << slot)) != 0) {
+                upload(uploader, slot);
+                uploaded++;
+            }
+        }
+        return uploaded;
+    }
+
+    /**
+     * 取走全部脏位，并把对应槽位的值拷贝到GL线程使用的数组中
+     * 与写入方持有同一个锁，拷贝期间不会有写入
+     */
+    private void publish() {
+        if (mDirty.get() == 0) {
+            return;
+        }
+        long mask;
+        synchronized (mLock) {
+            mask = mDirty.getAndSet(0);
+            for (int slot = 0; slot < MAX_SLOTS; slot++) {
+                if ((mask & (1L << slot)) != 0) {
+                    float[] pending = mPending[slot];
+                    System.arraycopy(pending, 0, mCurrent[slot], 0, pending.length);
+                }
+            }
+        }
+        mUploadMask |= mask;
+    }
+
+    private void upload(UniformUploader uploader, int slot) {
+        int location = mLocations[slot];
+        float[] value = mCurrent[slot];
+        switch (mTypes[slot]) {
+            case TYPE_INT:
+                uploader.uniform1i(location, Float.floatToRawIntBits(value[0]));
+                break;
+            case TYPE_FLOAT:
+            case TYPE_FLOAT_ARRAY:
+                uploader.uniform1fv(location, value.length, value, 0);
+                break;
+            case TYPE_VEC2:
+                uploader.uniform2fv(location, value, 0);
+                break;
+            case TYPE_VEC3:
+                uploader.uniform3fv(location, value, 0);
+                break;
+            case TYPE_VEC4:
+                uploader.uniform4fv(location, value, 0);
+                break;
+            case TYPE_MAT3:
+                uploader.uniformMatrix3fv(location, value, 0);
+                break;
+            case TYPE_MAT4:
+                uploader.uniformMatrix4fv(location, value, 0);
+                break;
+        }
+    }
+
+    /**
+     * 已经注册的uniform数量
+     * @return
+     */
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    /**
+     * 是否有等待上传的uniform
+     * @return
+     */
+    public boolean hasPendingUniforms() {
+        return mDirty.get() != 0 || mUploadMask != 0;
+    }
+}
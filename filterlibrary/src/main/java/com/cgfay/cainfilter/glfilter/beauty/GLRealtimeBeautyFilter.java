@@ -227,6 +227,7 @@ public class GLRealtimeBeautyFilter extends GLImageFilter {
     private int mWidthLoc;
     private int mHeightLoc;
     private int mOpacityLoc;
+    private float mOpacity;
 
     public GLRealtimeBeautyFilter() {
         this(VERTEX_SHADER, FRAGMENT_SHADER);
@@ -259,22 +260,23 @@ public class GLRealtimeBeautyFilter extends GLImageFilter {
         } else {
             opacity = calculateOpacity(percent);
         }
+        mOpacity = opacity;
         setFloat(mOpacityLoc, opacity);
     }
 
+    @Override
+    public boolean isNoOp() {
+        // 与shader一致，磨皮程度小于0.01时直接输出原图
+        return mOpacity < 0.01f;
+    }
+
     /**
      * 根据百分比计算出实际的磨皮程度
      * @param percent 0% ~ 100%
      * @return
      */
     private float calculateOpacity(float percent) {
-        if (percent > 1.0f) {
-            percent = 1.0f;
-        }
-        float result = 0.0f;
-        result = (float) (1.0f - (1.0f - percent + 0.02) / 2.0f);
-
-        return result;
+        return SkinSmoothKernel.getOpacity(percent);
     }
 }
 
@@ -0,0 +1,298 @@
+package com.cgfay.cainfilter.glfilter.beauty;
+
+import android.opengl.GLES30;
+
+import com.cgfay.cainfilter.gles.GLRenderTargetPool;
+import com.cgfay.cainfilter.gles.RenderTarget;
+import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
+import com.cgfay.cainfilter.utils.GlUtil;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 可分离降采样的实时磨皮滤镜，画面与GLRealtimeBeautyFilter一致
+ * 1、把绿色通道缩小到1/2或1/4
+ * 2、在小图上依次做水平、竖直两次一维保边模糊，得到平滑项
+ * 3、全分辨率下放大平滑项，与原始算法相同的方式合成高反差保留的细节层
+ * 全分辨率下每个像素只需要两次纹理采样，模糊的采样都发生在小图上
+ * 中间结果从渲染目标池借出，绘制结束后立即归还
+ * Created by cain on 2018/3/25.
+ */
+public class GLSeparableBeautyFilter extends GLRealtimeBeautyFilter {
+
+    // 合成pass，额外输出平滑项在小图中的纹理坐标
+    private static final String COMBINE_VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;                                   \n" +
+            "attribute vec4 aPosition;                                  \n" +
+            "attribute vec4 aTextureCoord;                              \n" +
+            "varying vec2 textureCoordinate;                            \n" +
+            "varying vec2 smoothCoordinate;                             \n" +
+            "void main() {                                              \n" +
+            "    gl_Position = uMVPMatrix * aPosition;                  \n" +
+            "    textureCoordinate = aTextureCoord.xy;                  \n" +
+            "    smoothCoordinate = gl_Position.xy / gl_Position.w * 0.5 + 0.5;\n" +
+            "}                                                          \n";
+
+    private static final String COMBINE_FRAGMENT_SHADER =
+            "precision lowp float;\n" +
+            "uniform sampler2D inputTexture;\n" +
+            "uniform sampler2D smoothTexture;\n" +
+            "varying lowp vec2 textureCoordinate;\n" +
+            "varying mediump vec2 smoothCoordinate;\n" +
+            "\n" +
+            "// 磨皮程度(由低到高: 0.5 ~ 0.99)\n" +
+            "uniform float opacity;\n" +
+            "\n" +
+            "void main() {\n" +
+            "    vec3 centralColor = texture2D(inputTexture, textureCoordinate).rgb;\n" +
+            "\n" +
+            "    if(opacity < 0.01) {\n" +
+            "        gl_FragColor = vec4(centralColor, 1.0);\n" +
+            "    } else {\n" +
+            "        float sum = texture2D(smoothTexture, smoothCoordinate).r;\n" +
+            "        float sampler = centralColor.g - sum + 0.5;\n" +
+            "\n" +
+            "        // 高反差保留\n" +
+            "        for(int i = 0; i < 5; ++i) {\n" +
+            "            if(sampler <= 0.5) {\n" +
+            "                sampler = sampler * sampler * 2.0;\n" +
+            "            } else {\n" +
+            "                sampler = 1.0 - ((1.0 - sampler)*(1.0 - sampler) * 2.0);\n" +
+            "            }\n" +
+            "        }\n" +
+            "\n" +
+            "        float aa = 1.0 + pow(sum, 0.3) * 0.09;\n" +
+            "        vec3 smoothColor = centralColor * aa - vec3(sampler) * (aa - 1.0);\n" +
+            "        smoothColor = clamp(smoothColor, vec3(0.0), vec3(1.0));\n" +
+            "\n" +
+            "        smoothColor = mix(centralColor, smoothColor, pow(centralColor.g, 0.33));\n" +
+            "        smoothColor = mix(centralColor, smoothColor, pow(centralColor.g, 0.39));\n" +
+            "\n" +
+            "        smoothColor = mix(centralColor, smoothColor, opacity);\n" +
+            "\n" +
+            "        gl_FragColor = vec4(pow(smoothColor, vec3(0.96)), 1.0);\n" +
+            "    }\n" +
+            "}";
+
+    private final int mDownsample;
+    private final DownsamplePass mDownsamplePass;
+    private final BlurPass mBlurPass;
+
+    private int mSmoothTextureLoc;
+    private int mSmoothTexture = GlUtil.GL_NOT_INIT;
+
+    // 保存和恢复外部的FBO和视口
+    private final int[] mFramebuffer = new int[1];
+    private final int[] mViewport = new int[4];
+
+    public GLSeparableBeautyFilter() {
+        this(SkinSmoothKernel.DOWNSAMPLE_HALF);
+    }
+
+    /**
+     * @param downsample 平滑项的缩小倍数，SkinSmoothKernel.DOWNSAMPLE_HALF或DOWNSAMPLE_QUARTER
+     */
+    public GLSeparableBeautyFilter(int downsample) {
+        super(COMBINE_VERTEX_SHADER, COMBINE_FRAGMENT_SHADER);
+        SkinSmoothKernel.checkDownsample(downsample);
+        mDownsample = downsample;
+        mSmoothTextureLoc = GLES30.glGetUniformLocation(mProgramHandle, "smoothTexture");
+        mDownsamplePass = new DownsamplePass(downsample);
+        mBlurPass = new BlurPass();
+    }
+
+    @Override
+    public void onInputSizeChanged(int width, int height) {
+        super.onInputSizeChanged(width, height);
+        mDownsamplePass.onInputSizeChanged(width, height);
+        mBlurPass.onInputSizeChanged(width, height);
+    }
+
+    @Override
+    public boolean drawFrame(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (textureId == GlUtil.GL_NOT_INIT) {
+            return false;
+        }
+        // 不磨皮时合成pass直接输出原图，不需要计算平滑项
+        if (isNoOp() || mImageWidth <= 0 || mImageHeight <= 0) {
+            return super.drawFrame(textureId, vertexBuffer, textureBuffer);
+        }
+        RenderTarget smooth = drawSmoothTerm(textureId, vertexBuffer, textureBuffer);
+        mSmoothTexture = smooth.getTextureId();
+        boolean drawn = super.drawFrame(textureId, vertexBuffer, textureBuffer);
+        mSmoothTexture = GlUtil.GL_NOT_INIT;
+        GLRenderTargetPool.recycle(smooth);
+        return drawn;
+    }
+
+    /**
+     * 在小图上计算平滑项，结束后恢复调用方的FBO和视口
+     * @return 平滑项所在的渲染目标，使用完后需要归还
+     */
+    private RenderTarget drawSmoothTerm(int textureId, FloatBuffer vertexBuffer,
+                                        FloatBuffer textureBuffer) {
+        GLES30.glGetIntegerv(GLES30.GL_FRAMEBUFFER_BINDING, mFramebuffer, 0);
+        GLES30.glGetIntegerv(GLES30.GL_VIEWPORT, mViewport, 0);
+        int width = SkinSmoothKernel.getDownsampledSize(mImageWidth, mDownsample);
+        int height = SkinSmoothKernel.getDownsampledSize(mImageHeight, mDownsample);
+        RenderTarget smooth = GLRenderTargetPool.obtain(width, height);
+        RenderTarget temp = GLRenderTargetPool.obtain(width, height);
+        GLES30.glViewport(0, 0, width, height);
+
+        // 缩小，顶点和纹理坐标与合成pass相同，小图与输出画面一一对应
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, smooth.getFramebufferId());
+        mDownsamplePass.drawFrame(textureId, vertexBuffer, textureBuffer);
+
+        // 水平模糊
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, temp.getFramebufferId());
+        mBlurPass.setDirection(true);
+        mBlurPass.drawFrame(smooth.getTextureId());
+
+        // 竖直模糊
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, smooth.getFramebufferId());
+        mBlurPass.setDirection(false);
+        mBlurPass.drawFrame(temp.getTextureId());
+
+        GLRenderTargetPool.recycle(temp);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffer[0]);
+        GLES30.glViewport(mViewport[0], mViewport[1], mViewport[2], mViewport[3]);
+        return smooth;
+    }
+
+    @Override
+    public void onDrawArraysBegin() {
+        super.onDrawArraysBegin();
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D,
+                mSmoothTexture == GlUtil.GL_NOT_INIT ? 0 : mSmoothTexture);
+        GLES30.glUniform1i(mSmoothTextureLoc, 1);
+    }
+
+    @Override
+    public void onDrawArraysAfter() {
+        super.onDrawArraysAfter();
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    }
+
+    @Override
+    public void release() {
+        mDownsamplePass.release();
+        mBlurPass.release();
+        super.release();
+    }
+
+    /**
+     * 平滑项的缩小倍数
+     * @return
+     */
+    public int getDownsample() {
+        return mDownsample;
+    }
+
+    /**
+     * 缩小pass，输出(g, g)
+     * 二倍时在2x2像素的中心做一次双线性采样，四倍时在4x4像素内做四次双线性采样
+     */
+    private static class DownsamplePass extends GLImageFilter {
+
+        private static final String HALF_FRAGMENT_SHADER =
+                "precision mediump float;\n" +
+                "varying vec2 textureCoordinate;\n" +
+                "uniform sampler2D inputTexture;\n" +
+                "void main() {\n" +
+                "    float g = texture2D(inputTexture, textureCoordinate).g;\n" +
+                "    gl_FragColor = vec4(g, g, 0.0, 1.0);\n" +
+                "}\n";
+
+        private static final String QUARTER_FRAGMENT_SHADER =
+                "precision mediump float;\n" +
+                "varying vec2 textureCoordinate;\n" +
+                "uniform sampler2D inputTexture;\n" +
+                "uniform vec2 texelSize;\n" +
+                "void main() {\n" +
+                "    float g = texture2D(inputTexture, textureCoordinate - texelSize).g;\n" +
+                "    g += texture2D(inputTexture, textureCoordinate + texelSize).g;\n" +
+                "    g += texture2D(inputTexture, textureCoordinate + vec2(texelSize.x, -texelSize.y)).g;\n" +
+                "    g += texture2D(inputTexture, textureCoordinate + vec2(-texelSize.x, texelSize.y)).g;\n" +
+                "    g *= 0.25;\n" +
+                "    gl_FragColor = vec4(g, g, 0.0, 1.0);\n" +
+                "}\n";
+
+        private int mTexelSizeLoc;
+
+        DownsamplePass(int downsample) {
+            super(VERTEX_SHADER, downsample == SkinSmoothKernel.DOWNSAMPLE_QUARTER
+                    ? QUARTER_FRAGMENT_SHADER : HALF_FRAGMENT_SHADER);
+            mTexelSizeLoc = GLES30.glGetUniformLocation(mProgramHandle, "texelSize");
+        }
+
+        @Override
+        public void onInputSizeChanged(int width, int height) {
+            super.onInputSizeChanged(width, height);
+            setFloatVec2(mTexelSizeLoc, new float[] { 1.0f / width, 1.0f / height });
+        }
+    }
+
+    /**
+     * 一维保边模糊pass，输入(值, 原始值)，输出(模糊值, 中心的原始值)
+     * 权重按原始值与中心的差值降低，水平和竖直方向共用
+     */
+    private static class BlurPass extends GLImageFilter {
+
+        private static final String FRAGMENT_SHADER =
+                "precision mediump float;\n" +
+                "varying vec2 textureCoordinate;\n" +
+                "uniform sampler2D inputTexture;\n" +
+                "// 相邻采样在纹理坐标中的间隔\n" +
+                "uniform vec2 tapStep;\n" +
+                "uniform float weights[" + (SkinSmoothKernel.TAP_RADIUS + 1) + "];\n" +
+                "const float distanceNormalizationFactor = "
+                        + SkinSmoothKernel.DISTANCE_NORMALIZATION + ";\n" +
+                "void main() {\n" +
+                "    vec2 center = texture2D(inputTexture, textureCoordinate).rg;\n" +
+                "    float total = weights[0];\n" +
+                "    float sum = center.r * total;\n" +
+                "    for (int i = 1; i <= " + SkinSmoothKernel.TAP_RADIUS + "; i++) {\n" +
+                "        vec2 offset = float(i) * tapStep;\n" +
+                "        vec2 sampler = texture2D(inputTexture, textureCoordinate - offset).rg;\n" +
+                "        float weight = weights[i] * (1.0 - min(abs(center.g - sampler.g) * distanceNormalizationFactor, 1.0));\n" +
+                "        total += weight;\n" +
+                "        sum += sampler.r * weight;\n" +
+                "        sampler = texture2D(inputTexture, textureCoordinate + offset).rg;\n" +
+                "        weight = weights[i] * (1.0 - min(abs(center.g - sampler.g) * distanceNormalizationFactor, 1.0));\n" +
+                "        total += weight;\n" +
+                "        sum += sampler.r * weight;\n" +
+                "    }\n" +
+                "    gl_FragColor = vec4(sum / total, center.g, 0.0, 1.0);\n" +
+                "}\n";
+
+        private int mTapStepLoc;
+        private final float[] mHorizontalStep = new float[2];
+        private final float[] mVerticalStep = new float[2];
+
+        BlurPass() {
+            super(VERTEX_SHADER, FRAGMENT_SHADER);
+            mTapStepLoc = GLES30.glGetUniformLocation(mProgramHandle, "tapStep");
+            setFloatArray(GLES30.glGetUniformLocation(mProgramHandle, "weights"),
+                    SkinSmoothKernel.getTapWeights());
+        }
+
+        @Override
+        public void onInputSizeChanged(int width, int height) {
+            super.onInputSizeChanged(width, height);
+            // 间隔以全分辨率像素为单位，与缩小倍数无关
+            mHorizontalStep[0] = SkinSmoothKernel.TAP_SPACING / width;
+            mVerticalStep[1] = SkinSmoothKernel.TAP_SPACING / height;
+        }
+
+        /**
+         * 设置模糊方向，数值拷贝到uniform槽位中，不产生内存分配
+         * @param horizontal
+         */
+        void setDirection(boolean horizontal) {
+            setFloatVec2(mTapStepLoc, horizontal ? mHorizontalStep : mVerticalStep);
+        }
+    }
+}
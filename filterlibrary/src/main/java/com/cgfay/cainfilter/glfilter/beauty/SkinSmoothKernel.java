@@ -0,0 +1,143 @@
+package com.cgfay.cainfilter.glfilter.beauty;
+
+/**
+ * 磨皮的采样参数，GL滤镜和CPU参考实现共用
+ * 1、原始算法：全分辨率下以当前像素为中心采样20个点，按与中心绿色通道的差值降低权重，
+ *    得到平滑项后与高反差保留的细节层合成
+ * 2、可分离算法：先把绿色通道缩小到1/2或1/4，在小图上依次做水平、竖直两次一维的保边模糊，
+ *    每次的权重与原始算法一样随颜色差值降低，竖直方向使用缩小后的原始值计算差值，
+ *    最后在全分辨率下放大平滑项，与原始算法相同的方式合成细节层
+ * 一维高斯核的方差与原始采样点分布的方差相同，模糊范围一致
+ * Created by cain on 2018/3/25.
+ */
+public final class SkinSmoothKernel {
+
+    // 颜色差值的归一化系数，差值超过1 / 3.6时权重为0
+    public static final float DISTANCE_NORMALIZATION = 3.6f;
+
+    // 原始算法中心点的权重
+    public static final float ORIGINAL_CENTER_WEIGHT = 0.2f;
+
+    // 原始算法的采样偏移，单位为像素，每两个数为一个点
+    private static final float[] ORIGINAL_OFFSETS = {
+            // 外圈，间隔2.0
+            0, -20, 16, -10, 16, 10, 0, 20, -16, 10, -16, -10,
+            // 外圈，间隔1.8
+            9, -14.4f, 18, 0, 9, 14.4f, -9, 14.4f, -18, 0, -9, -14.4f,
+            // 内圈，间隔1.6
+            0, -9.6f, -9.6f, 0, 0, 9.6f, 9.6f, 0,
+            // 内圈，间隔1.4
+            -5.6f, -5.6f, -5.6f, 5.6f, 5.6f, 5.6f, 5.6f, -5.6f,
+    };
+
+    // 原始算法各个采样点的权重
+    private static final float[] ORIGINAL_WEIGHTS = {
+            0.09f, 0.09f, 0.09f, 0.09f, 0.09f, 0.09f,
+            0.09f, 0.09f, 0.09f, 0.09f, 0.09f, 0.09f,
+            0.1f, 0.1f, 0.1f, 0.1f,
+            0.1f, 0.1f, 0.1f, 0.1f,
+    };
+
+    // 可分离算法单侧的采样个数
+    public static final int TAP_RADIUS = 4;
+    // 可分离算法相邻采样的间隔，单位为全分辨率像素
+    public static final float TAP_SPACING = 5.0f;
+    // 一维高斯核的标准差，单位为全分辨率像素
+    public static final float SIGMA = 11.0f;
+
+    // 支持的缩小倍数
+    public static final int DOWNSAMPLE_HALF = 2;
+    public static final int DOWNSAMPLE_QUARTER = 4;
+
+    private static final float[] TAP_WEIGHTS = createTapWeights();
+
+    private SkinSmoothKernel() {}
+
+    private static float[] createTapWeights() {
+        float[] weights = new float[TAP_RADIUS + 1];
+        for (int i = 0; i <= TAP_RADIUS; i++) {
+            float distance = i * TAP_SPACING;
+            weights[i] = (float) Math.exp(-distance * distance / (2 * SIGMA * SIGMA));
+        }
+        return weights;
+    }
+
+    /**
+     * 原始算法的采样点个数(不含中心点)
+     * @return
+     */
+    public static int getOriginalTapCount() {
+        return ORIGINAL_WEIGHTS.length;
+    }
+
+    public static float getOriginalOffsetX(int tap) {
+        return ORIGINAL_OFFSETS[tap * 2];
+    }
+
+    public static float getOriginalOffsetY(int tap) {
+        return ORIGINAL_OFFSETS[tap * 2 + 1];
+    }
+
+    public static float getOriginalWeight(int tap) {
+        return ORIGINAL_WEIGHTS[tap];
+    }
+
+    /**
+     * 可分离算法的一维权重，下标为到中心的采样个数，未归一化
+     * @return 长度为TAP_RADIUS + 1的拷贝
+     */
+    public static float[] getTapWeights() {
+        return TAP_WEIGHTS.clone();
+    }
+
+    public static float getTapWeight(int distance) {
+        return TAP_WEIGHTS[distance < 0 ? -distance : distance];
+    }
+
+    /**
+     * 按颜色差值降低的权重
+     * @param weight 空间权重
+     * @param central 中心的值
+     * @param sample 采样的值
+     * @return
+     */
+    public static float rangeWeight(float weight, float central, float sample) {
+        float distance = Math.min(Math.abs(central - sample) * DISTANCE_NORMALIZATION, 1.0f);
+        return weight * (1.0f - distance);
+    }
+
+    /**
+     * 缩小后的尺寸，不小于1
+     * @param size 全分辨率尺寸
+     * @param downsample 缩小倍数
+     * @return
+     */
+    public static int getDownsampledSize(int size, int downsample) {
+        return Math.max(1, (size + downsample - 1) / downsample);
+    }
+
+    /**
+     * 检查缩小倍数
+     * @param downsample
+     */
+    public static void checkDownsample(int downsample) {
+        if (downsample != DOWNSAMPLE_HALF && downsample != DOWNSAMPLE_QUARTER) {
+            throw new IllegalArgumentException("unsupported downsample " + downsample);
+        }
+    }
+
+    /**
+     * 根据美颜等级计算磨皮程度，小于0.01时不磨皮
+     * @param percent 0.0 ~ 1.0
+     * @return
+     */
+    public static float getOpacity(float percent) {
+        if (percent <= 0) {
+            return 0.0f;
+        }
+        if (percent > 1.0f) {
+            percent = 1.0f;
+        }
+        return (float) (1.0f - (1.0f - percent + 0.02) / 2.0f);
+    }
+}
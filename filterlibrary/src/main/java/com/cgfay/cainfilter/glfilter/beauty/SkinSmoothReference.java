@@ -0,0 +1,283 @@
+package com.cgfay.cainfilter.glfilter.beauty;
+
+import com.cgfay.cainfilter.utils.FloatImage;
+
+/**
+ * 磨皮的CPU参考实现，逐像素与shader的计算保持一致，用于在JVM上比较两种算法的画面差异和计算量
+ * 纹理采样统一使用FloatImage的双线性采样，不模拟中间渲染目标的8位量化
+ * Created by cain on 2018/3/25.
+ */
+public final class SkinSmoothReference {
+
+    /**
+     * 计算量统计
+     */
+    public static final class OpCount {
+        // 纹理采样次数
+        private long mFetches;
+        // 保边权重的计算次数
+        private long mWeights;
+        // 输出的全分辨率像素个数
+        private long mPixels;
+
+        public long getFetches() {
+            return mFetches;
+        }
+
+        public long getWeights() {
+            return mWeights;
+        }
+
+        public long getPixels() {
+            return mPixels;
+        }
+
+        /**
+         * 每个输出像素平均的纹理采样次数
+         * @return
+         */
+        public double getFetchesPerPixel() {
+            return mPixels == 0 ? 0 : (double) mFetches / mPixels;
+        }
+
+        /**
+         * 每个输出像素平均的保边权重计算次数
+         * @return
+         */
+        public double getWeightsPerPixel() {
+            return mPixels == 0 ? 0 : (double) mWeights / mPixels;
+        }
+
+        public void reset() {
+            mFetches = 0;
+            mWeights = 0;
+            mPixels = 0;
+        }
+    }
+
+    private static final int GREEN = 1;
+
+    private SkinSmoothReference() {}
+
+    /**
+     * 原始算法，对应GLRealtimeBeautyFilter的shader
+     * @param source
+     * @param opacity 磨皮程度，见SkinSmoothKernel.getOpacity
+     * @param count 计算量统计，可以为null
+     * @return
+     */
+    public static FloatImage applyOriginal(FloatImage source, float opacity, OpCount count) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        FloatImage result = new FloatImage(width, height);
+        int taps = SkinSmoothKernel.getOriginalTapCount();
+        long fetches = 0;
+        long weights = 0;
+        for (int y = 0; y < height; y++) {
+            float v = (y + 0.5f) / height;
+            for (int x = 0; x < width; x++) {
+                float u = (x + 0.5f) / width;
+                if (opacity < 0.01f) {
+                    copy(source, result, x, y);
+                    fetches++;
+                    continue;
+                }
+                float central = source.sample(u, v, GREEN);
+                float total = SkinSmoothKernel.ORIGINAL_CENTER_WEIGHT;
+                float sum = central * total;
+                for (int i = 0; i < taps; i++) {
+                    float sample = source.sample(u + SkinSmoothKernel.getOriginalOffsetX(i) / width,
+                            v + SkinSmoothKernel.getOriginalOffsetY(i) / height, GREEN);
+                    float weight = SkinSmoothKernel.rangeWeight(
+                            SkinSmoothKernel.getOriginalWeight(i), central, sample);
+                    total += weight;
+                    sum += sample * weight;
+                }
+                // 中心像素的RGB和绿色通道各采样一次，与shader一致
+                fetches += taps + 2;
+                weights += taps;
+                combine(source, result, x, y, sum / total, opacity);
+            }
+        }
+        if (count != null) {
+            count.mFetches += fetches;
+            count.mWeights += weights;
+            count.mPixels += (long) width * height;
+        }
+        return result;
+    }
+
+    /**
+     * 可分离的降采样算法，对应GLSeparableBeautyFilter的四个pass
+     * @param source
+     * @param opacity 磨皮程度，见SkinSmoothKernel.getOpacity
+     * @param downsample 缩小倍数，2或4
+     * @param count 计算量统计，可以为null
+     * @return
+     */
+    public static FloatImage applySeparable(FloatImage source, float opacity, int downsample,
+                                            OpCount count) {
+        SkinSmoothKernel.checkDownsample(downsample);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        FloatImage result = new FloatImage(width, height);
+        if (opacity < 0.01f) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    copy(source, result, x, y);
+                }
+            }
+            if (count != null) {
+                count.mFetches += (long) width * height;
+                count.mPixels += (long) width * height;
+            }
+            return result;
+        }
+        int lowWidth = SkinSmoothKernel.getDownsampledSize(width, downsample);
+        int lowHeight = SkinSmoothKernel.getDownsampledSize(height, downsample);
+        float[] weights = SkinSmoothKernel.getTapWeights();
+        long fetches = 0;
+        long weightCount = 0;
+
+        // 1、缩小绿色通道，二倍时一次双线性采样正好是2x2的平均值，四倍时四次采样得到4x4的平均值
+        float[] low = new float[lowWidth * lowHeight];
+        float texelU = 1.0f / width;
+        float texelV = 1.0f / height;
+        for (int y = 0; y < lowHeight; y++) {
+            float v = (y + 0.5f) / lowHeight;
+            for (int x = 0; x < lowWidth; x++) {
+                float u = (x + 0.5f) / lowWidth;
+                float value;
+                if (downsample == SkinSmoothKernel.DOWNSAMPLE_HALF) {
+                    value = source.sample(u, v, GREEN);
+                    fetches++;
+                } else {
+                    value = (source.sample(u - texelU, v - texelV, GREEN)
+                            + source.sample(u + texelU, v - texelV, GREEN)
+                            + source.sample(u - texelU, v + texelV, GREEN)
+                            + source.sample(u + texelU, v + texelV, GREEN)) * 0.25f;
+                    fetches += 4;
+                }
+                low[y * lowWidth + x] = value;
+            }
+        }
+
+        // 2、水平方向保边模糊，输出(模糊值, 缩小后的原始值)
+        float[] horizontal = new float[lowWidth * lowHeight * 2];
+        float stepU = SkinSmoothKernel.TAP_SPACING / width;
+        for (int y = 0; y < lowHeight; y++) {
+            float v = (y + 0.5f) / lowHeight;
+            for (int x = 0; x < lowWidth; x++) {
+                float u = (x + 0.5f) / lowWidth;
+                float central = low[y * lowWidth + x];
+                float total = weights[0];
+                float sum = central * total;
+                for (int i = 1; i <= SkinSmoothKernel.TAP_RADIUS; i++) {
+                    float left = FloatImage.sample(low, lowWidth, lowHeight, 1, u - i * stepU, v, 0);
+                    float right = FloatImage.sample(low, lowWidth, lowHeight, 1, u + i * stepU, v, 0);
+                    float leftWeight = SkinSmoothKernel.rangeWeight(weights[i], central, left);
+                    float rightWeight = SkinSmoothKernel.rangeWeight(weights[i], central, right);
+                    total += leftWeight + rightWeight;
+                    sum += left * leftWeight + right * rightWeight;
+                }
+                fetches += 1 + 2 * SkinSmoothKernel.TAP_RADIUS;
+                weightCount += 2 * SkinSmoothKernel.TAP_RADIUS;
+                int index = (y * lowWidth + x) * 2;
+                horizontal[index] = sum / total;
+                horizontal[index + 1] = central;
+            }
+        }
+
+        // 3、竖直方向保边模糊，权重使用缩小后的原始值计算
+        float[] smooth = new float[lowWidth * lowHeight];
+        float stepV = SkinSmoothKernel.TAP_SPACING / height;
+        for (int y = 0; y < lowHeight; y++) {
+            float v = (y + 0.5f) / lowHeight;
+            for (int x = 0; x < lowWidth; x++) {
+                float u = (x + 0.5f) / lowWidth;
+                int index = (y * lowWidth + x) * 2;
+                float central = horizontal[index + 1];
+                float total = weights[0];
+                float sum = horizontal[index] * total;
+                for (int i = -SkinSmoothKernel.TAP_RADIUS; i <= SkinSmoothKernel.TAP_RADIUS; i++) {
+                    if (i == 0) {
+                        continue;
+                    }
+                    float tapV = v + i * stepV;
+                    float blurred = FloatImage.sample(horizontal, lowWidth, lowHeight, 2, u, tapV, 0);
+                    float original = FloatImage.sample(horizontal, lowWidth, lowHeight, 2, u, tapV, 1);
+                    float weight = SkinSmoothKernel.rangeWeight(weights[Math.abs(i)], central,
+                            original);
+                    total += weight;
+                    sum += blurred * weight;
+                }
+                // 一次RGBA采样同时得到模糊值和原始值
+                fetches += 1 + 2 * SkinSmoothKernel.TAP_RADIUS;
+                weightCount += 2 * SkinSmoothKernel.TAP_RADIUS;
+                smooth[y * lowWidth + x] = sum / total;
+            }
+        }
+
+        // 4、全分辨率合成，平滑项双线性放大
+        for (int y = 0; y < height; y++) {
+            float v = (y + 0.5f) / height;
+            for (int x = 0; x < width; x++) {
+                float u = (x + 0.5f) / width;
+                float sum = FloatImage.sample(smooth, lowWidth, lowHeight, 1, u, v, 0);
+                combine(source, result, x, y, sum, opacity);
+            }
+        }
+        fetches += 2L * width * height;
+        if (count != null) {
+            count.mFetches += fetches;
+            count.mWeights += weightCount;
+            count.mPixels += (long) width * height;
+        }
+        return result;
+    }
+
+    private static void copy(FloatImage source, FloatImage result, int x, int y) {
+        for (int c = 0; c < FloatImage.CHANNELS; c++) {
+            result.set(x, y, c, source.get(x, y, c));
+        }
+    }
+
+    /**
+     * 高反差保留并与平滑项合成，两种算法共用
+     * @param source
+     * @param result
+     * @param x
+     * @param y
+     * @param sum 绿色通道的平滑项
+     * @param opacity
+     */
+    private static void combine(FloatImage source, FloatImage result, int x, int y,
+                                float sum, float opacity) {
+        float green = source.get(x, y, GREEN);
+        float sampler = green - sum + 0.5f;
+        // 高反差保留，强光叠加五次
+        for (int i = 0; i < 5; i++) {
+            if (sampler <= 0.5f) {
+                sampler = sampler * sampler * 2.0f;
+            } else {
+                sampler = 1.0f - (1.0f - sampler) * (1.0f - sampler) * 2.0f;
+            }
+        }
+        float aa = 1.0f + (float) Math.pow(sum, 0.3) * 0.09f;
+        float mix1 = (float) Math.pow(green, 0.33);
+        float mix2 = (float) Math.pow(green, 0.39);
+        for (int c = 0; c < FloatImage.CHANNELS; c++) {
+            float central = source.get(x, y, c);
+            float smooth = central * aa - sampler * (aa - 1.0f);
+            smooth = Math.max(0.0f, Math.min(1.0f, smooth));
+            smooth = mix(central, smooth, mix1);
+            smooth = mix(central, smooth, mix2);
+            smooth = mix(central, smooth, opacity);
+            result.set(x, y, c, (float) Math.pow(smooth, 0.96));
+        }
+    }
+
+    private static float mix(float x, float y, float a) {
+        return x * (1 - a) + y * a;
+    }
+}
@@ -2,9 +2,8 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
-import com.cgfay.cainfilter.utils.GlUtil;
 
 /**
  * 阿马罗滤镜
@@ -73,12 +72,9 @@ public class GLAmaroFilter extends GLImageFilter {
     }
 
     private void createTexture() {
-        mBlowoutTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/amaro_blowout.png");
-        mMapTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/amaro_map.png");
-        mOverlayTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/amaro_overlay.png");
+        mBlowoutTexture = GLAssetTextureCache.acquireTexture("filters/amaro_blowout.png");
+        mMapTexture = GLAssetTextureCache.acquireTexture("filters/amaro_map.png");
+        mOverlayTexture = GLAssetTextureCache.acquireTexture("filters/amaro_overlay.png");
     }
 
     @Override
@@ -99,7 +95,7 @@ public class GLAmaroFilter extends GLImageFilter {
 
     @Override
     public void release() {
-        GLES30.glDeleteTextures(3, new int[]{mBlowoutTexture, mOverlayTexture, mMapTexture}, 0);
+        GLAssetTextureCache.releaseTextures(mBlowoutTexture, mOverlayTexture, mMapTexture);
         super.release();
     }
 }
@@ -2,9 +2,8 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
-import com.cgfay.cainfilter.utils.GlUtil;
 
 /**
  * 布鲁克林滤镜
@@ -180,12 +179,9 @@ public class GLBrooklynFilter extends GLImageFilter {
     }
 
     private void createTexture() {
-        mCurveTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/brooklyn_curves.png");
-        mMapTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/brooklyn_map.png");
-        mCurveTexture1 = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/brooklyn_curves1.png");
+        mCurveTexture = GLAssetTextureCache.acquireTexture("filters/brooklyn_curves.png");
+        mMapTexture = GLAssetTextureCache.acquireTexture("filters/brooklyn_map.png");
+        mCurveTexture1 = GLAssetTextureCache.acquireTexture("filters/brooklyn_curves1.png");
 
     }
 
@@ -208,7 +204,7 @@ public class GLBrooklynFilter extends GLImageFilter {
 
     @Override
     public void release() {
-        GLES30.glDeleteTextures(3, new int[]{mCurveTexture, mMapTexture, mCurveTexture1}, 0);
+        GLAssetTextureCache.releaseTextures(mCurveTexture, mMapTexture, mCurveTexture1);
         super.release();
     }
 }
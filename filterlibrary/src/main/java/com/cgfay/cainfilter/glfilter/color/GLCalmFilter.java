@@ -2,7 +2,7 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
 import com.cgfay.cainfilter.utils.GlUtil;
 
@@ -133,11 +133,9 @@ public class GLCalmFilter extends GLImageFilter {
         mCurveTexture = GlUtil.createTexture(arrayOfByte, 256, 3);
 
 
-        mMaskTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/calm_mask.png");
+        mMaskTexture = GLAssetTextureCache.acquireTexture("filters/calm_mask.png");
 
-        mMaskTexture1 = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/calm_mask1.png");
+        mMaskTexture1 = GLAssetTextureCache.acquireTexture("filters/calm_mask1.png");
     }
 
     @Override
@@ -159,7 +157,8 @@ public class GLCalmFilter extends GLImageFilter {
 
     @Override
     public void release() {
-        GLES30.glDeleteTextures(3, new int[]{mMaskTexture, mMaskTexture1, mCurveTexture}, 0);
+        GLAssetTextureCache.releaseTextures(mMaskTexture, mMaskTexture1);
+        GLES30.glDeleteTextures(1, new int[]{mCurveTexture}, 0);
         super.release();
     }
 }
@@ -2,9 +2,8 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
-import com.cgfay.cainfilter.utils.GlUtil;
 
 /**
  * 晨鸟滤镜
@@ -127,16 +126,11 @@ public class GLEarlyBirdFilter extends GLImageFilter {
     }
 
     private void createTexture() {
-        mCurveTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/earlybird_curves.png");
-        mOverlayTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/earlybird_overlay.png");
-        mVignetteTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/earlybird_vignette.png");
-        mBlowoutTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/earlybird_blowout.png");
-        mMapTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/earlybird_map.png");
+        mCurveTexture = GLAssetTextureCache.acquireTexture("filters/earlybird_curves.png");
+        mOverlayTexture = GLAssetTextureCache.acquireTexture("filters/earlybird_overlay.png");
+        mVignetteTexture = GLAssetTextureCache.acquireTexture("filters/earlybird_vignette.png");
+        mBlowoutTexture = GLAssetTextureCache.acquireTexture("filters/earlybird_blowout.png");
+        mMapTexture = GLAssetTextureCache.acquireTexture("filters/earlybird_map.png");
     }
 
 
@@ -167,13 +161,7 @@ public class GLEarlyBirdFilter extends GLImageFilter {
     @Override
     public void release() {
         super.release();
-        GLES30.glDeleteTextures(5,
-                new int[] {
-                        mCurveTexture,
-                        mOverlayTexture,
-                        mVignetteTexture,
-                        mBlowoutTexture,
-                        mMapTexture
-                }, 0);
+        GLAssetTextureCache.releaseTextures(mCurveTexture, mOverlayTexture,
+                mVignetteTexture, mBlowoutTexture, mMapTexture);
     }
 }
@@ -2,9 +2,8 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
-import com.cgfay.cainfilter.utils.GlUtil;
 
 /**
  * 佛洛伊特
@@ -168,8 +167,7 @@ public class GLFreudFilter extends GLImageFilter {
     }
 
     private void createTexture() {
-        mRandTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/freud_rand.png");
+        mRandTexture = GLAssetTextureCache.acquireTexture("filters/freud_rand.png");
     }
 
     @Override
@@ -190,6 +188,6 @@ public class GLFreudFilter extends GLImageFilter {
     @Override
     public void release() {
         super.release();
-        GLES30.glDeleteTextures(1, new int[]{mRandTexture}, 0);
+        GLAssetTextureCache.releaseTextures(mRandTexture);
     }
 }
@@ -2,7 +2,7 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
 import com.cgfay.cainfilter.utils.GlUtil;
 
@@ -164,8 +164,7 @@ public class GLHealthyFilter extends GLImageFilter {
             arrayOfByte[(3 + i * 4)] = -1;
         }
         mCurveTexture = GlUtil.createTexture(arrayOfByte, 256, 1);
-        mMaskTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/freud_rand.png");
+        mMaskTexture = GLAssetTextureCache.acquireTexture("filters/freud_rand.png");
     }
 
 
@@ -192,7 +191,8 @@ public class GLHealthyFilter extends GLImageFilter {
     @Override
     public void release() {
         super.release();
-        GLES30.glDeleteTextures(2, new int[]{mCurveTexture, mMaskTexture}, 0);
+        GLAssetTextureCache.releaseTextures(mMaskTexture);
+        GLES30.glDeleteTextures(1, new int[]{mCurveTexture}, 0);
     }
 
 }
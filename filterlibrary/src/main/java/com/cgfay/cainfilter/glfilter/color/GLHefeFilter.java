@@ -2,9 +2,8 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
-import com.cgfay.cainfilter.utils.GlUtil;
 
 /**
  * 酵母
@@ -96,16 +95,11 @@ public class GLHefeFilter extends GLImageFilter {
     }
 
     private void createTexture() {
-        mEdgeBurnTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/hefe_edgeburn.png");
-        mMapTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/hefe_map.png");
-        mGradientMapTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/hefe_gradientmap.png");
-        mSoftLightTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/hefe_softlight.png");
-        mMetalTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/hefe_metal.png");
+        mEdgeBurnTexture = GLAssetTextureCache.acquireTexture("filters/hefe_edgeburn.png");
+        mMapTexture = GLAssetTextureCache.acquireTexture("filters/hefe_map.png");
+        mGradientMapTexture = GLAssetTextureCache.acquireTexture("filters/hefe_gradientmap.png");
+        mSoftLightTexture = GLAssetTextureCache.acquireTexture("filters/hefe_softlight.png");
+        mMetalTexture = GLAssetTextureCache.acquireTexture("filters/hefe_metal.png");
     }
 
     @Override
@@ -135,13 +129,7 @@ public class GLHefeFilter extends GLImageFilter {
     @Override
     public void release() {
         super.release();
-        GLES30.glDeleteTextures(5,
-                new int[]{
-                        mEdgeBurnTexture,
-                        mMapTexture,
-                        mGradientMapTexture,
-                        mSoftLightTexture,
-                        mMetalTexture
-                }, 0);
+        GLAssetTextureCache.releaseTextures(mEdgeBurnTexture, mMapTexture,
+                mGradientMapTexture, mSoftLightTexture, mMetalTexture);
     }
 }
@@ -2,9 +2,8 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
-import com.cgfay.cainfilter.utils.GlUtil;
 
 /**
  * 哈德森
@@ -79,14 +78,11 @@ public class GLHudsonFilter extends GLImageFilter {
     }
 
     private void createTexture() {
-        mBlowoutTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/hudson_blowout.png");
+        mBlowoutTexture = GLAssetTextureCache.acquireTexture("filters/hudson_blowout.png");
 
-        mOverlayTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/hudson_overlay.png");
+        mOverlayTexture = GLAssetTextureCache.acquireTexture("filters/hudson_overlay.png");
 
-        mMapTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/hudson_map.png");
+        mMapTexture = GLAssetTextureCache.acquireTexture("filters/hudson_map.png");
     }
 
     @Override
@@ -110,6 +106,6 @@ public class GLHudsonFilter extends GLImageFilter {
     @Override
     public void release() {
         super.release();
-        GLES30.glDeleteTextures(3, new int[]{mBlowoutTexture, mOverlayTexture, mMapTexture}, 0);
+        GLAssetTextureCache.releaseTextures(mBlowoutTexture, mOverlayTexture, mMapTexture);
     }
 }
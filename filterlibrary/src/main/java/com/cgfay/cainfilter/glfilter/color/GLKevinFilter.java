@@ -2,9 +2,8 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
-import com.cgfay.cainfilter.utils.GlUtil;
 
 /**
  * 凯文
@@ -54,8 +53,7 @@ public class GLKevinFilter extends GLImageFilter {
     }
 
     private void createTexture() {
-        mMapTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/kevin_map.png");
+        mMapTexture = GLAssetTextureCache.acquireTexture("filters/kevin_map.png");
     }
 
     @Override
@@ -69,6 +67,6 @@ public class GLKevinFilter extends GLImageFilter {
     @Override
     public void release() {
         super.release();
-        GLES30.glDeleteTextures(1, new int[]{mMapTexture}, 0);
+        GLAssetTextureCache.releaseTextures(mMapTexture);
     }
 }
@@ -2,9 +2,8 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
-import com.cgfay.cainfilter.utils.GlUtil;
 
 /**
  * LOMO
@@ -76,10 +75,8 @@ public class GLLomoFilter extends GLImageFilter {
     }
 
     private void createTexture() {
-        mMapTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/lomo_map.png");
-        mVignetteTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/lomo_vignette.png");
+        mMapTexture = GLAssetTextureCache.acquireTexture("filters/lomo_map.png");
+        mVignetteTexture = GLAssetTextureCache.acquireTexture("filters/lomo_vignette.png");
     }
 
     @Override
@@ -97,6 +94,6 @@ public class GLLomoFilter extends GLImageFilter {
     @Override
     public void release() {
         super.release();
-        GLES30.glDeleteTextures(2, new int[]{mMapTexture, mVignetteTexture}, 0);
+        GLAssetTextureCache.releaseTextures(mMapTexture, mVignetteTexture);
     }
 }
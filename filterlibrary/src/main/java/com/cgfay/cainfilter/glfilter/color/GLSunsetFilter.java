@@ -2,7 +2,7 @@ package com.cgfay.cainfilter.glfilter.color;
 
 import android.opengl.GLES30;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLAssetTextureCache;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
 import com.cgfay.cainfilter.utils.GlUtil;
 
@@ -155,11 +155,9 @@ public class GLSunsetFilter extends GLImageFilter {
         }
         mCurveTexture = GlUtil.createTexture(arrayOfByte, 256, 2);
 
-        mMaskTexture = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/sunset_mask.png");
+        mMaskTexture = GLAssetTextureCache.acquireTexture("filters/sunset_mask.png");
 
-        mMaskTexture1 = GlUtil.createTextureFromAssets(ParamsManager.context,
-                "filters/sunset_mask1.png");
+        mMaskTexture1 = GLAssetTextureCache.acquireTexture("filters/sunset_mask1.png");
 
     }
 
@@ -182,6 +180,7 @@ public class GLSunsetFilter extends GLImageFilter {
     @Override
     public void release() {
         super.release();
-        GLES30.glDeleteTextures(3, new int[]{mCurveTexture, mMaskTexture, mMaskTexture1}, 0);
+        GLAssetTextureCache.releaseTextures(mMaskTexture, mMaskTexture1);
+        GLES30.glDeleteTextures(1, new int[]{mCurveTexture}, 0);
     }
 }
@@ -2,13 +2,10 @@ package com.cgfay.cainfilter.glfilter.group;
 
 import com.cgfay.cainfilter.camerarender.FilterManager;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
+import com.cgfay.cainfilter.glfilter.image.GLColorAdjustFilter;
+import com.cgfay.cainfilter.glfilter.image.GLGuassFilter;
 import com.cgfay.cainfilter.type.GLFilterIndex;
 import com.cgfay.cainfilter.type.GLFilterType;
-import com.cgfay.cainfilter.glfilter.image.GLBrightnessFilter;
-import com.cgfay.cainfilter.glfilter.image.GLContrastFilter;
-import com.cgfay.cainfilter.glfilter.image.GLExposureFilter;
-import com.cgfay.cainfilter.glfilter.image.GLHueFilter;
-import com.cgfay.cainfilter.glfilter.image.GLSaturationFilter;
 import com.cgfay.cainfilter.glfilter.image.GLSharpnessFilter;
 
 import java.util.ArrayList;
@@ -16,17 +13,17 @@ import java.util.List;
 
 /**
  * 图片编辑滤镜组，主要用来编辑图片的色温、亮度、饱和度、对比度等
+ * 亮度、对比度、曝光、色调、饱和度合并成一个颜色矩阵pass，锐度需要采样相邻像素，单独一个pass，
+ * 虚化使用双重Kawase金字塔模糊，默认半径为0，
+ * 处于原图状态的pass由滤镜组规划时直接跳过
  * Created by cain on 17-7-25.
  */
 public class GLImageEditFilterGroup extends com.cgfay.cainfilter.glfilter.base.GLImageFilterGroup {
 
-    private static final int BRIGHTNESS = 0;
-    private static final int CONTRAST = 1;
-    private static final int EXPOSURE = 2;
-    private static final int HUE = 3;
-    private static final int SATURATION = 4;
-    private static final int SHARPNESS = 5;
-    private static final int FILTERS = 6;
+    private static final int COLOR_ADJUST = 0;
+    private static final int SHARPNESS = 1;
+    private static final int BLUR = 2;
+    private static final int FILTERS = 3;
 
     public GLImageEditFilterGroup() {
         this(initFilters());
@@ -43,12 +40,11 @@ public class GLImageEditFilterGroup extends com.cgfay.cainfilter.glfilter.base.G
     private static List<GLImageFilter> initFilters() {
         List<GLImageFilter> filters = new ArrayList<GLImageFilter>();
 
-        filters.add(BRIGHTNESS, FilterManager.getFilter(GLFilterType.BRIGHTNESS)); // 亮度
-        filters.add(CONTRAST, FilterManager.getFilter(GLFilterType.CONTRAST)); // 对比度
-        filters.add(EXPOSURE, FilterManager.getFilter(GLFilterType.EXPOSURE)); // 曝光
-        filters.add(HUE, FilterManager.getFilter(GLFilterType.HUE)); // 色调
-        filters.add(SATURATION, FilterManager.getFilter(GLFilterType.SATURATION)); // 饱和度
+        filters.add(COLOR_ADJUST, FilterManager.getFilter(GLFilterType.COLORADJUST)); // 颜色调节
         filters.add(SHARPNESS, FilterManager.getFilter(GLFilterType.SHARPNESS)); // 锐度
+        GLGuassFilter blur = (GLGuassFilter) FilterManager.getFilter(GLFilterType.GUASS);
+        blur.setGuassRadius(0);
+        filters.add(BLUR, blur); // 虚化
         filters.add(FILTERS, FilterManager.getFilter(GLFilterType.NONE)); // 滤镜
 
         return filters;
@@ -58,7 +54,7 @@ public class GLImageEditFilterGroup extends com.cgfay.cainfilter.glfilter.base.G
      * 设置图片亮度
      */
     public void setBrightness(float brightness) {
-        ((GLBrightnessFilter)mFilters.get(BRIGHTNESS)).setBrightness(brightness);
+        ((GLColorAdjustFilter)mFilters.get(COLOR_ADJUST)).setBrightness(brightness);
     }
 
     /**
@@ -66,7 +62,7 @@ public class GLImageEditFilterGroup extends com.cgfay.cainfilter.glfilter.base.G
      * @param contrast
      */
     public void setContrast(float contrast) {
-        ((GLContrastFilter)mFilters.get(CONTRAST)).setContrast(contrast);
+        ((GLColorAdjustFilter)mFilters.get(COLOR_ADJUST)).setContrast(contrast);
     }
 
     /**
@@ -74,7 +70,7 @@ public class GLImageEditFilterGroup extends com.cgfay.cainfilter.glfilter.base.G
      * @param exposure
      */
     public void setExposure(float exposure) {
-        ((GLExposureFilter)mFilters.get(EXPOSURE)).setExposure(exposure);
+        ((GLColorAdjustFilter)mFilters.get(COLOR_ADJUST)).setExposure(exposure);
     }
 
     /**
@@ -82,7 +78,7 @@ public class GLImageEditFilterGroup extends com.cgfay.cainfilter.glfilter.base.G
      * @param hue
      */
     public void setHue(float hue) {
-        ((GLHueFilter)mFilters.get(HUE)).setHue(hue);
+        ((GLColorAdjustFilter)mFilters.get(COLOR_ADJUST)).setHue(hue);
     }
 
     /**
@@ -90,7 +86,7 @@ public class GLImageEditFilterGroup extends com.cgfay.cainfilter.glfilter.base.G
      * @param saturation
      */
     public void setSaturation(float saturation) {
-        ((GLSaturationFilter)mFilters.get(SATURATION)).setSaturationLevel(saturation);
+        ((GLColorAdjustFilter)mFilters.get(COLOR_ADJUST)).setSaturation(saturation);
     }
 
     /**
@@ -101,6 +97,14 @@ public class GLImageEditFilterGroup extends com.cgfay.cainfilter.glfilter.base.G
         ((GLSharpnessFilter)mFilters.get(SHARPNESS)).setSharpness(sharpness);
     }
 
+    /**
+     * 设置虚化半径
+     * @param radius 等价高斯模糊的标准差，单位为像素，0表示不虚化
+     */
+    public void setBlurRadius(float radius) {
+        ((GLGuassFilter)mFilters.get(BLUR)).setGuassRadius(radius);
+    }
+
     @Override
     public void setBeautifyLevel(float percent) {
         // do nothing
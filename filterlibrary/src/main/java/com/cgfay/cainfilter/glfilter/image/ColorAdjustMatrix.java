@@ -0,0 +1,448 @@
+package com.cgfay.cainfilter.glfilter.image;
+
+import com.cgfay.cainfilter.glfilter.base.ColorStage;
+
+/**
+ * 颜色调节矩阵
+ * 亮度、对比度、曝光、色调、饱和度都是逐像素的线性变换，可以合并成一个4x5的颜色矩阵，
+ * 只需要一个pass就可以完成全部调节。矩阵按行存放，每行为 r, g, b, a, offset：
+ *   R' = m[0] * R + m[1] * G + m[2] * B + m[3] * A + m[4]
+ * 原来每个调节项的结果写入RGBA8的FBO，中间会截断到[0, 1]，单纯的矩阵在参数较大时与之不同。
+ * 因此GLColorAdjustFilter按三段计算并在每段之后截断：
+ *   1、亮度、对比度、曝光都是各通道相同的单调仿射变换，连同中间的截断合并成
+ *      clamp(x * scale + offset, min, max)，与逐个截断完全一致
+ *   2、色调的3x3矩阵，之后截断
+ *   3、饱和度的3x3矩阵，之后截断
+ * 与原来逐个pass的结果只差中间结果的8位量化误差：每一步0.5级，会被后面的对比度、曝光、
+ * 色调和饱和度按各自的增益放大，常用范围内在4级以内，曝光较大时差别更大，但此时大部分颜色已经截断
+ * 本类同时提供各个调节项与对应shader一致的CPU参考实现，方便在JVM上验证合并后的结果
+ * 作为ColorStage时按截断后的三段计算，与GLColorAdjustFilter一致
+ * Created by cain on 2018/3/22.
+ */
+public final class ColorAdjustMatrix implements ColorStage {
+
+    // 饱和度使用的亮度权重，与GLSaturationFilter一致
+    private static final float[] LUMINANCE_WEIGHTING = { 0.2125f, 0.7154f, 0.0721f };
+
+    // RGB <-> YIQ，与GLHueFilter一致
+    private static final float[][] RGB_TO_YIQ = {
+            { 0.299f, 0.587f, 0.114f },
+            { 0.595716f, -0.274453f, -0.321263f },
+            { 0.211456f, -0.522591f, 0.31135f },
+    };
+    private static final float[][] YIQ_TO_RGB = {
+            { 1.0f, 0.9563f, 0.6210f },
+            { 1.0f, -0.2721f, -0.6474f },
+            { 1.0f, -1.1070f, 1.7046f },
+    };
+
+    // 默认值
+    public static final float DEFAULT_BRIGHTNESS = 0.0f;
+    public static final float DEFAULT_CONTRAST = 1.0f;
+    public static final float DEFAULT_EXPOSURE = 0.0f;
+    public static final float DEFAULT_HUE = 0.0f;
+    public static final float DEFAULT_SATURATION = 1.0f;
+
+    private float mBrightness = DEFAULT_BRIGHTNESS;
+    private float mContrast = DEFAULT_CONTRAST;
+    private float mExposure = DEFAULT_EXPOSURE;
+    private float mHue = DEFAULT_HUE;
+    private float mSaturation = DEFAULT_SATURATION;
+
+    // 合并后的矩阵，不包含中间的截断
+    private final float[] mMatrix = new float[20];
+    // 亮度、对比度、曝光合并后的各通道变换：clamp(x * scale + offset, min, max)
+    private final float[] mTone = new float[4];
+    // 色调和饱和度的3x3矩阵，按行存放
+    private final float[] mHueMatrix = new float[9];
+    private final float[] mSaturationMatrix = new float[9];
+    // 计算用的临时矩阵
+    private final float[] mStage = new float[20];
+    private final float[] mTemp = new float[20];
+    private boolean mDirty = true;
+
+    public ColorAdjustMatrix() {
+        setIdentity(mMatrix);
+    }
+
+    /**
+     * 设置亮度
+     * @param brightness -1.0 ~ 1.0, 0.0为原图
+     */
+    public void setBrightness(float brightness) {
+        mBrightness = brightness;
+        mDirty = true;
+    }
+
+    /**
+     * 设置对比度
+     * @param contrast 0.0 ~ 4.0, 1.0为原图
+     */
+    public void setContrast(float contrast) {
+        mContrast = contrast;
+        mDirty = true;
+    }
+
+    /**
+     * 设置曝光
+     * @param exposure -10.0 ~ 10.0, 0.0为原图
+     */
+    public void setExposure(float exposure) {
+        mExposure = exposure;
+        mDirty = true;
+    }
+
+    /**
+     * 设置色调
+     * @param hue 0 ~ 360度, 0为原图
+     */
+    public void setHue(float hue) {
+        mHue = hue;
+        mDirty = true;
+    }
+
+    /**
+     * 设置饱和度
+     * @param saturation 0.0 ~ 2.0, 1.0为原图
+     */
+    public void setSaturation(float saturation) {
+        mSaturation = saturation;
+        mDirty = true;
+    }
+
+    public float getBrightness() {
+        return mBrightness;
+    }
+
+    public float getContrast() {
+        return mContrast;
+    }
+
+    public float getExposure() {
+        return mExposure;
+    }
+
+    public float getHue() {
+        return mHue;
+    }
+
+    public float getSaturation() {
+        return mSaturation;
+    }
+
+    /**
+     * 全部调节项是否都处于原图状态
+     * @return
+     */
+    public boolean isIdentity() {
+        return mBrightness == DEFAULT_BRIGHTNESS
+                && mContrast == DEFAULT_CONTRAST
+                && mExposure == DEFAULT_EXPOSURE
+                && (mHue % 360.0f) == DEFAULT_HUE
+                && mSaturation == DEFAULT_SATURATION;
+    }
+
+    /**
+     * 获取合并后的4x5矩阵，按行存放，不包含中间的截断，中间结果不超出[0, 1]时与逐个计算一致
+     * @return
+     */
+    public float[] getMatrix() {
+        ensureComposed();
+        return mMatrix;
+    }
+
+    private void ensureComposed() {
+        if (mDirty) {
+            compose();
+            mDirty = false;
+        }
+    }
+
+    /**
+     * 获取GLSL使用的uniform
+     * @param tone 长度为4：scale, offset, min, max
+     * @param hueMat3 色调矩阵，按列存放，长度为9
+     * @param saturationMat3 饱和度矩阵，按列存放，长度为9
+     */
+    public void getShaderUniforms(float[] tone, float[] hueMat3, float[] saturationMat3) {
+        ensureComposed();
+        System.arraycopy(mTone, 0, tone, 0, 4);
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                hueMat3[col * 3 + row] = mHueMatrix[row * 3 + col];
+                saturationMat3[col * 3 + row] = mSaturationMatrix[row * 3 + col];
+            }
+        }
+    }
+
+    /**
+     * 按GLColorAdjustFilter的三段计算一个像素，每段之后截断到[0, 1]，alpha不变
+     * @param src rgba，0 ~ 1
+     * @param srcOffset
+     * @param dst rgba，可以与src相同
+     * @param dstOffset
+     */
+    public void evaluate(float[] src, int srcOffset, float[] dst, int dstOffset) {
+        ensureComposed();
+        float r = clamp(src[srcOffset] * mTone[0] + mTone[1], mTone[2], mTone[3]);
+        float g = clamp(src[srcOffset + 1] * mTone[0] + mTone[1], mTone[2], mTone[3]);
+        float b = clamp(src[srcOffset + 2] * mTone[0] + mTone[1], mTone[2], mTone[3]);
+        float[] m = mHueMatrix;
+        float hr = clamp(m[0] * r + m[1] * g + m[2] * b, 0.0f, 1.0f);
+        float hg = clamp(m[3] * r + m[4] * g + m[5] * b, 0.0f, 1.0f);
+        float hb = clamp(m[6] * r + m[7] * g + m[8] * b, 0.0f, 1.0f);
+        m = mSaturationMatrix;
+        dst[dstOffset] = clamp(m[0] * hr + m[1] * hg + m[2] * hb, 0.0f, 1.0f);
+        dst[dstOffset + 1] = clamp(m[3] * hr + m[4] * hg + m[5] * hb, 0.0f, 1.0f);
+        dst[dstOffset + 2] = clamp(m[6] * hr + m[7] * hg + m[8] * hb, 0.0f, 1.0f);
+        dst[dstOffset + 3] = src[srcOffset + 3];
+    }
+
+    @Override
+    public void apply(float[] rgba, int offset) {
+        evaluate(rgba, offset, rgba, offset);
+    }
+
+    @Override
+    public long getParameterHash() {
+        long hash = Float.floatToIntBits(mBrightness);
+        hash = hash * 31 + Float.floatToIntBits(mContrast);
+        hash = hash * 31 + Float.floatToIntBits(mExposure);
+        hash = hash * 31 + Float.floatToIntBits(mHue % 360.0f);
+        hash = hash * 31 + Float.floatToIntBits(mSaturation);
+        return hash;
+    }
+
+    @Override
+    public boolean hasSameParameters(ColorStage other) {
+        if (!(other instanceof ColorAdjustMatrix)) {
+            return false;
+        }
+        ColorAdjustMatrix matrix = (ColorAdjustMatrix) other;
+        return Float.floatToIntBits(mBrightness) == Float.floatToIntBits(matrix.mBrightness)
+                && Float.floatToIntBits(mContrast) == Float.floatToIntBits(matrix.mContrast)
+                && Float.floatToIntBits(mExposure) == Float.floatToIntBits(matrix.mExposure)
+                && Float.floatToIntBits(mHue % 360.0f)
+                        == Float.floatToIntBits(matrix.mHue % 360.0f)
+                && Float.floatToIntBits(mSaturation) == Float.floatToIntBits(matrix.mSaturation);
+    }
+
+    @Override
+    public ColorAdjustMatrix snapshot() {
+        ColorAdjustMatrix matrix = new ColorAdjustMatrix();
+        matrix.mBrightness = mBrightness;
+        matrix.mContrast = mContrast;
+        matrix.mExposure = mExposure;
+        matrix.mHue = mHue;
+        matrix.mSaturation = mSaturation;
+        return matrix;
+    }
+
+    /**
+     * 按顺序合并：亮度 -> 对比度 -> 曝光 -> 色调 -> 饱和度，与GLImageEditFilterGroup原来的pass顺序一致
+     */
+    private void compose() {
+        setIdentity(mMatrix);
+        // 输入纹理的范围为[0, 1]
+        mTone[0] = 1.0f;
+        mTone[1] = 0.0f;
+        mTone[2] = 0.0f;
+        mTone[3] = 1.0f;
+        if (mBrightness != DEFAULT_BRIGHTNESS) {
+            setIdentity(mStage);
+            mStage[4] = mStage[9] = mStage[14] = mBrightness;
+            postConcat(mStage);
+            postConcatTone(1.0f, mBrightness);
+        }
+        if (mContrast != DEFAULT_CONTRAST) {
+            setIdentity(mStage);
+            float offset = 0.5f * (1.0f - mContrast);
+            for (int i = 0; i < 3; i++) {
+                mStage[i * 5 + i] = mContrast;
+                mStage[i * 5 + 4] = offset;
+            }
+            postConcat(mStage);
+            postConcatTone(mContrast, offset);
+        }
+        if (mExposure != DEFAULT_EXPOSURE) {
+            setIdentity(mStage);
+            float scale = (float) Math.pow(2.0, mExposure);
+            for (int i = 0; i < 3; i++) {
+                mStage[i * 5 + i] = scale;
+            }
+            postConcat(mStage);
+            postConcatTone(scale, 0.0f);
+        }
+        setIdentity(mStage);
+        if ((mHue % 360.0f) != DEFAULT_HUE) {
+            setHueMatrix(mStage, mHue);
+            postConcat(mStage);
+        }
+        copyMat3(mStage, mHueMatrix);
+        setIdentity(mStage);
+        if (mSaturation != DEFAULT_SATURATION) {
+            for (int row = 0; row < 3; row++) {
+                for (int col = 0; col < 3; col++) {
+                    mStage[row * 5 + col] = (1.0f - mSaturation) * LUMINANCE_WEIGHTING[col]
+                            + (row == col ? mSaturation : 0.0f);
+                }
+            }
+            postConcat(mStage);
+        }
+        copyMat3(mStage, mSaturationMatrix);
+    }
+
+    /**
+     * 在当前的各通道变换之后再执行clamp(x * scale + offset, 0, 1)
+     * clamp(scale * clamp(v, min, max) + offset, 0, 1)
+     *   = clamp(scale * v + offset, clamp01(min'), clamp01(max'))
+     * 其中min'、max'是scale * min + offset与scale * max + offset中较小和较大的一个
+     */
+    private void postConcatTone(float scale, float offset) {
+        float low = scale * mTone[2] + offset;
+        float high = scale * mTone[3] + offset;
+        mTone[0] *= scale;
+        mTone[1] = mTone[1] * scale + offset;
+        mTone[2] = clamp(Math.min(low, high), 0.0f, 1.0f);
+        mTone[3] = clamp(Math.max(low, high), 0.0f, 1.0f);
+    }
+
+    private static void copyMat3(float[] matrix4x5, float[] mat3) {
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                mat3[row * 3 + col] = matrix4x5[row * 5 + col];
+            }
+        }
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    /**
+     * 色调在YIQ空间中是绕Y轴旋转，对RGB来说同样是线性变换
+     */
+    private static void setHueMatrix(float[] matrix, float hue) {
+        // 与GLHueFilter一致，旋转方向为负
+        double angle = -(hue % 360.0f) * Math.PI / 180.0;
+        float cos = (float) Math.cos(angle);
+        float sin = (float) Math.sin(angle);
+        float[][] rotate = {
+                { 1, 0, 0 },
+                { 0, cos, -sin },
+                { 0, sin, cos },
+        };
+        setIdentity(matrix);
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                float sum = 0;
+                for (int i = 0; i < 3; i++) {
+                    for (int j = 0; j < 3; j++) {
+                        sum += YIQ_TO_RGB[row][i] * rotate[i][j] * RGB_TO_YIQ[j][col];
+                    }
+                }
+                matrix[row * 5 + col] = sum;
+            }
+        }
+    }
+
+    /**
+     * mMatrix = stage * mMatrix，即在当前变换之后再应用stage
+     */
+    private void postConcat(float[] stage) {
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 5; col++) {
+                float sum = col == 4 ? stage[row * 5 + 4] : 0.0f;
+                for (int i = 0; i < 4; i++) {
+                    sum += stage[row * 5 + i] * mMatrix[i * 5 + col];
+                }
+                mTemp[row * 5 + col] = sum;
+            }
+        }
+        System.arraycopy(mTemp, 0, mMatrix, 0, 20);
+    }
+
+    private static void setIdentity(float[] matrix) {
+        for (int i = 0; i < 20; i++) {
+            matrix[i] = 0.0f;
+        }
+        matrix[0] = matrix[6] = matrix[12] = matrix[18] = 1.0f;
+    }
+
+    /**
+     * 使用4x5矩阵变换一个像素
+     */
+    public static void transform(float[] matrix, float[] src, int srcOffset,
+                                 float[] dst, int dstOffset) {
+        float r = src[srcOffset];
+        float g = src[srcOffset + 1];
+        float b = src[srcOffset + 2];
+        float a = src[srcOffset + 3];
+        for (int row = 0; row < 4; row++) {
+            int i = row * 5;
+            dst[dstOffset + row] = matrix[i] * r + matrix[i + 1] * g + matrix[i + 2] * b
+                    + matrix[i + 3] * a + matrix[i + 4];
+        }
+    }
+
+    ///------------------ 各个调节项的CPU参考实现，与对应的shader一致 ------------------------///
+
+    /**
+     * GLBrightnessFilter
+     */
+    public static void applyBrightness(float[] rgba, int offset, float brightness) {
+        for (int i = 0; i < 3; i++) {
+            rgba[offset + i] += brightness;
+        }
+    }
+
+    /**
+     * GLContrastFilter
+     */
+    public static void applyContrast(float[] rgba, int offset, float contrast) {
+        for (int i = 0; i < 3; i++) {
+            rgba[offset + i] = (rgba[offset + i] - 0.5f) * contrast + 0.5f;
+        }
+    }
+
+    /**
+     * GLExposureFilter
+     */
+    public static void applyExposure(float[] rgba, int offset, float exposure) {
+        float scale = (float) Math.pow(2.0, exposure);
+        for (int i = 0; i < 3; i++) {
+            rgba[offset + i] *= scale;
+        }
+    }
+
+    /**
+     * GLHueFilter，按shader的方式先转换到色相和色度，再转换回RGB
+     */
+    public static void applyHue(float[] rgba, int offset, float hue) {
+        float r = rgba[offset];
+        float g = rgba[offset + 1];
+        float b = rgba[offset + 2];
+        float y = RGB_TO_YIQ[0][0] * r + RGB_TO_YIQ[0][1] * g + RGB_TO_YIQ[0][2] * b;
+        float i = RGB_TO_YIQ[1][0] * r + RGB_TO_YIQ[1][1] * g + RGB_TO_YIQ[1][2] * b;
+        float q = RGB_TO_YIQ[2][0] * r + RGB_TO_YIQ[2][1] * g + RGB_TO_YIQ[2][2] * b;
+        double angle = Math.atan2(q, i) - (hue % 360.0f) * Math.PI / 180.0;
+        double chroma = Math.sqrt(i * i + q * q);
+        q = (float) (chroma * Math.sin(angle));
+        i = (float) (chroma * Math.cos(angle));
+        for (int c = 0; c < 3; c++) {
+            rgba[offset + c] = YIQ_TO_RGB[c][0] * y + YIQ_TO_RGB[c][1] * i + YIQ_TO_RGB[c][2] * q;
+        }
+    }
+
+    /**
+     * GLSaturationFilter
+     */
+    public static void applySaturation(float[] rgba, int offset, float saturation) {
+        float luminance = LUMINANCE_WEIGHTING[0] * rgba[offset]
+                + LUMINANCE_WEIGHTING[1] * rgba[offset + 1]
+                + LUMINANCE_WEIGHTING[2] * rgba[offset + 2];
+        for (int i = 0; i < 3; i++) {
+            rgba[offset + i] = luminance + (rgba[offset + i] - luminance) * saturation;
+        }
+    }
+}
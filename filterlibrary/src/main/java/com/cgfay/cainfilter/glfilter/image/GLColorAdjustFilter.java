@@ -0,0 +1,126 @@
+package com.cgfay.cainfilter.glfilter.image;
+
+import android.opengl.GLES30;
+
+import com.cgfay.cainfilter.glfilter.base.ColorStage;
+import com.cgfay.cainfilter.glfilter.base.FilterChainPlanner;
+import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
+
+/**
+ * 颜色调节滤镜，亮度、对比度、曝光、色调、饱和度合并成一个pass完成
+ * 按ColorAdjustMatrix的三段计算，每段之后截断，参数较大时与原来逐个pass的结果一致
+ * 与相邻的颜色滤镜可以进一步合并成一张查找表
+ * Created by cain on 2018/3/22.
+ */
+public class GLColorAdjustFilter extends GLImageFilter implements FilterChainPlanner.BakeablePass {
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;                                           \n" +
+            "varying highp vec2 textureCoordinate;                              \n" +
+            "uniform sampler2D inputTexture;                                    \n" +
+            "// 亮度、对比度、曝光合并后的scale, offset, min, max                  \n" +
+            "uniform highp vec4 tone;                                           \n" +
+            "uniform highp mat3 hueMatrix;                                      \n" +
+            "uniform highp mat3 saturationMatrix;                               \n" +
+            "void main() {                                                      \n" +
+            "    highp vec4 textureColor = texture2D(inputTexture, textureCoordinate); \n" +
+            "    highp vec3 color = clamp(textureColor.rgb * tone.x + tone.y, tone.z, tone.w); \n" +
+            "    color = clamp(hueMatrix * color, 0.0, 1.0);                    \n" +
+            "    color = clamp(saturationMatrix * color, 0.0, 1.0);             \n" +
+            "    gl_FragColor = vec4(color, textureColor.a);                    \n" +
+            "}                                                                  ";
+
+    private int mToneLoc;
+    private int mHueMatrixLoc;
+    private int mSaturationMatrixLoc;
+
+    private final ColorAdjustMatrix mColorMatrix = new ColorAdjustMatrix();
+    private final float[] mTone = new float[4];
+    private final float[] mHueMatrix = new float[9];
+    private final float[] mSaturationMatrix = new float[9];
+
+    public GLColorAdjustFilter() {
+        this(VERTEX_SHADER, FRAGMENT_SHADER);
+    }
+
+    public GLColorAdjustFilter(String vertexShader, String fragmentShader) {
+        super(vertexShader, fragmentShader);
+        mToneLoc = GLES30.glGetUniformLocation(mProgramHandle, "tone");
+        mHueMatrixLoc = GLES30.glGetUniformLocation(mProgramHandle, "hueMatrix");
+        mSaturationMatrixLoc = GLES30.glGetUniformLocation(mProgramHandle, "saturationMatrix");
+        updateColorMatrix();
+    }
+
+    /**
+     * 设置亮度
+     * @param brightness
+     */
+    public void setBrightness(float brightness) {
+        mColorMatrix.setBrightness(brightness);
+        updateColorMatrix();
+    }
+
+    /**
+     * 设置对比度
+     * @param contrast
+     */
+    public void setContrast(float contrast) {
+        mColorMatrix.setContrast(contrast);
+        updateColorMatrix();
+    }
+
+    /**
+     * 设置曝光
+     * @param exposure
+     */
+    public void setExposure(float exposure) {
+        mColorMatrix.setExposure(exposure);
+        updateColorMatrix();
+    }
+
+    /**
+     * 设置色调 0 ~ 360
+     * @param hue
+     */
+    public void setHue(float hue) {
+        mColorMatrix.setHue(hue);
+        updateColorMatrix();
+    }
+
+    /**
+     * 设置饱和度
+     * @param saturation
+     */
+    public void setSaturation(float saturation) {
+        mColorMatrix.setSaturation(saturation);
+        updateColorMatrix();
+    }
+
+    /**
+     * 是否所有调节项都处于原图状态
+     * @return
+     */
+    public boolean isIdentity() {
+        return mColorMatrix.isIdentity();
+    }
+
+    @Override
+    public boolean isNoOp() {
+        return isIdentity();
+    }
+
+    @Override
+    public ColorStage getColorStage() {
+        return mColorMatrix;
+    }
+
+    /**
+     * 更新颜色矩阵，uniform设置时会拷贝数值，可以复用数组
+     */
+    private void updateColorMatrix() {
+        mColorMatrix.getShaderUniforms(mTone, mHueMatrix, mSaturationMatrix);
+        setFloatVec4(mToneLoc, mTone);
+        setUniformMatrix3f(mHueMatrixLoc, mHueMatrix);
+        setUniformMatrix3f(mSaturationMatrixLoc, mSaturationMatrix);
+    }
+}
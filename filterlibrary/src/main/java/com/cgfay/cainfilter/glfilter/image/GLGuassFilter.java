@@ -2,101 +2,293 @@ package com.cgfay.cainfilter.glfilter.image;
 
 import android.opengl.GLES30;
 
+import com.cgfay.cainfilter.gles.GLRenderTargetPool;
+import com.cgfay.cainfilter.gles.RenderTarget;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
+import com.cgfay.cainfilter.utils.GlUtil;
+
+import java.nio.FloatBuffer;
 
 /**
- * 高斯模糊滤镜
+ * 高斯模糊滤镜，使用双重Kawase(dual filter)金字塔近似高斯模糊
+ * 1、逐级缩小一半，每级5次采样
+ * 2、逐级放大，每级8次采样，最后一级由滤镜本身的program直接放大到输出，并按比例与原图混合
+ * 每个像素的计算量与半径几乎无关，半径连续可调，金字塔的规划见KawaseBlurPlan
+ * 中间结果从渲染目标池借出，同一时刻最多占用两个，绘制结束后全部归还
  * Created by cain.huang on 2017/7/21.
  */
 public class GLGuassFilter extends GLImageFilter {
 
+    // 最后一级放大，额外输出模糊结果在小图中的纹理坐标
+    private static final String UPSAMPLE_VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;                                   \n" +
+            "attribute vec4 aPosition;                                  \n" +
+            "attribute vec4 aTextureCoord;                              \n" +
+            "varying vec2 textureCoordinate;                            \n" +
+            "varying vec2 blurCoordinate;                               \n" +
+            "void main() {                                              \n" +
+            "    gl_Position = uMVPMatrix * aPosition;                  \n" +
+            "    textureCoordinate = aTextureCoord.xy;                  \n" +
+            "    blurCoordinate = gl_Position.xy / gl_Position.w * 0.5 + 0.5;\n" +
+            "}                                                          \n";
+
+    /**
+     * 放大一级：水平竖直四个采样权重1，四个对角采样权重2
+     * @param sampler 输入纹理的名字
+     * @return 计算sum的shader片段
+     */
+    private static String upsampleSum(String sampler) {
+        return "    vec2 step = halfPixel * offset;\n" +
+                "    vec4 sum = texture2D(" + sampler + ", uv + vec2(-step.x * 2.0, 0.0));\n" +
+                "    sum += texture2D(" + sampler + ", uv + vec2(step.x * 2.0, 0.0));\n" +
+                "    sum += texture2D(" + sampler + ", uv + vec2(0.0, -step.y * 2.0));\n" +
+                "    sum += texture2D(" + sampler + ", uv + vec2(0.0, step.y * 2.0));\n" +
+                "    sum += texture2D(" + sampler + ", uv + vec2(-step.x, step.y)) * 2.0;\n" +
+                "    sum += texture2D(" + sampler + ", uv + vec2(step.x, step.y)) * 2.0;\n" +
+                "    sum += texture2D(" + sampler + ", uv + vec2(step.x, -step.y)) * 2.0;\n" +
+                "    sum += texture2D(" + sampler + ", uv + vec2(-step.x, -step.y)) * 2.0;\n" +
+                "    sum /= 12.0;\n";
+    }
+
     private static final String FRAGMENT_SHADER =
-            "precision mediump float;                                                         \n" +
-            "varying mediump vec2 textureCoordinate;                                              \n" +
-            "uniform sampler2D inputTexture;                                                      \n" +
-            "uniform mediump float radius;                                                    \n" +
-            "uniform mediump vec2 offset;                                                     \n" +
-            "uniform mediump vec2 imageSize;                                                  \n" +
-            "uniform mediump float blurSize;                                                  \n" +
-            "void main(void) {                                                                \n" +
-            "    mediump int guassRadius = int(radius);                                       \n" +
-            "    mediump float fTemplateLen = 2.0 * radius + 1.0;                             \n" +
-            "    mediump vec2 myOffset = offset * vec2(blurSize) / imageSize;                 \n" +
-            "    mediump vec4 sum = vec4(0.0);                                                \n" +
-            "                                                                                 \n" +
-            "    mediump float Guass[6];                                                      \n" +
-            "    Guass[0] = 0.062745;                                                         \n" +
-            "    Guass[1] = 0.078431;                                                         \n" +
-            "    Guass[2] = 0.090196;                                                         \n" +
-            "    Guass[3] = 0.098039;                                                         \n" +
-            "    Guass[4] = 0.105882;                                                         \n" +
-            "    Guass[5] = 0.105882;                                                         \n" +
-            "                                                                                 \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (-5.0 * myOffset)) * Guass[0];    \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (-4.0 * myOffset)) * Guass[1];    \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (-3.0 * myOffset)) * Guass[2];    \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (-2.0 * myOffset)) * Guass[3];    \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (-1.0 * myOffset)) * Guass[4];    \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (0.0 * myOffset)) * Guass[5];     \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (1.0 * myOffset)) * Guass[4];     \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (2.0 * myOffset)) * Guass[3];     \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (3.0 * myOffset)) * Guass[2];     \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (4.0 * myOffset)) * Guass[1];     \n" +
-            "    sum += texture2D(inputTexture, textureCoordinate + (5.0 * myOffset)) * Guass[0];     \n" +
-            "                                                                                 \n" +
-            "    gl_FragColor = sum;                                                          \n" +
-            "}                                                                                \n";
-
-    private int mRadiusLoc;
+            "precision mediump float;\n" +
+            "varying vec2 textureCoordinate;\n" +
+            "varying vec2 blurCoordinate;\n" +
+            "uniform sampler2D inputTexture;\n" +
+            "uniform sampler2D blurTexture;\n" +
+            "// 输入小图的半个像素\n" +
+            "uniform vec2 halfPixel;\n" +
+            "// 采样间隔，单位为半像素\n" +
+            "uniform float offset;\n" +
+            "// 模糊结果所占的比例\n" +
+            "uniform float blurMix;\n" +
+            "void main() {\n" +
+            "    vec2 uv = blurCoordinate;\n" +
+            upsampleSum("blurTexture") +
+            "    vec4 color = texture2D(inputTexture, textureCoordinate);\n" +
+            "    gl_FragColor = mix(color, sum, blurMix);\n" +
+            "}\n";
+
+    // 默认半径
+    private static final float DEFAULT_RADIUS = 8.0f;
+
+    private final DownsamplePass mDownsamplePass;
+    private final UpsamplePass mUpsamplePass;
+
+    private int mBlurTextureLoc;
+    private int mHalfPixelLoc;
     private int mOffsetLoc;
-    private int mImageSizeLoc;
-    private int mBlurSizeLoc;
+    private int mBlurMixLoc;
+    private int mBlurTexture = GlUtil.GL_NOT_INIT;
 
-    public GLGuassFilter() {
-        this(VERTEX_SHADER, FRAGMENT_SHADER);
-    }
+    private KawaseBlurPlan mPlan;
+    private final float[] mHalfPixel = new float[2];
 
-    public GLGuassFilter(String vertexShader, String fragmentShader) {
-        super(vertexShader, fragmentShader);
-        mRadiusLoc = GLES30.glGetUniformLocation(mProgramHandle, "radius");
+    // 保存和恢复外部的FBO和视口
+    private final int[] mFramebuffer = new int[1];
+    private final int[] mViewport = new int[4];
+
+    public GLGuassFilter() {
+        super(UPSAMPLE_VERTEX_SHADER, FRAGMENT_SHADER);
+        mBlurTextureLoc = GLES30.glGetUniformLocation(mProgramHandle, "blurTexture");
+        mHalfPixelLoc = GLES30.glGetUniformLocation(mProgramHandle, "halfPixel");
         mOffsetLoc = GLES30.glGetUniformLocation(mProgramHandle, "offset");
-        mImageSizeLoc = GLES30.glGetUniformLocation(mProgramHandle, "imageSize");
-        mBlurSizeLoc = GLES30.glGetUniformLocation(mProgramHandle, "blurSize");
-        setGuassRadius(20.0f);
-        setOffset(new float[]{540f, 960f});
-        setImageSize(new float[]{1080, 1920});
-        setBlurSize(new float[]{100.0f, 100.0f});
+        mBlurMixLoc = GLES30.glGetUniformLocation(mProgramHandle, "blurMix");
+        mDownsamplePass = new DownsamplePass();
+        mUpsamplePass = new UpsamplePass();
+        setGuassRadius(DEFAULT_RADIUS);
     }
 
     /**
      * 设置高斯模糊半径
-     * @param value
+     * @param value 等价高斯核的标准差，单位为像素，0表示不模糊，超过KawaseBlurPlan.getMaxRadius()时取最大值
      */
     public void setGuassRadius(float value) {
-        setFloat(mRadiusLoc, value);
+        mPlan = KawaseBlurPlan.forRadius(value);
+        setFloat(mOffsetLoc, mPlan.getOffset());
+        setFloat(mBlurMixLoc, mPlan.getLevels() == 0 ? 0 : mPlan.getMix());
+        mDownsamplePass.setOffset(mPlan.getOffset());
+        mUpsamplePass.setOffset(mPlan.getOffset());
     }
 
     /**
-     * 设置偏移量
-     * @param values
+     * 当前的金字塔规划
+     * @return
      */
-    public void setOffset(float[] values) {
-        setFloatVec2(mOffsetLoc, values);
+    public KawaseBlurPlan getPlan() {
+        return mPlan;
+    }
+
+    @Override
+    public boolean isNoOp() {
+        return mPlan.getLevels() == 0;
+    }
+
+    @Override
+    public boolean drawFrame(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (textureId == GlUtil.GL_NOT_INIT) {
+            return false;
+        }
+        // 不模糊时混合比例为0，直接输出原图
+        if (isNoOp() || mImageWidth <= 0 || mImageHeight <= 0) {
+            mBlurTexture = textureId;
+            boolean drawn = super.drawFrame(textureId, vertexBuffer, textureBuffer);
+            mBlurTexture = GlUtil.GL_NOT_INIT;
+            return drawn;
+        }
+        RenderTarget blur = drawPyramid(textureId, vertexBuffer, textureBuffer);
+        mBlurTexture = blur.getTextureId();
+        setHalfPixel(mHalfPixel, blur.getWidth(), blur.getHeight());
+        setFloatVec2(mHalfPixelLoc, mHalfPixel);
+        boolean drawn = super.drawFrame(textureId, vertexBuffer, textureBuffer);
+        mBlurTexture = GlUtil.GL_NOT_INIT;
+        GLRenderTargetPool.recycle(blur);
+        return drawn;
     }
 
     /**
-     * 设置图片大小
-     * @param values
+     * 逐级缩小到最小一级，再放大到第1级，结束后恢复调用方的FBO和视口
+     * @return 第1级的模糊结果，使用完后需要归还
      */
-    public void setImageSize(float[] values) {
-        setFloatVec2(mImageSizeLoc, values);
+    private RenderTarget drawPyramid(int textureId, FloatBuffer vertexBuffer,
+                                     FloatBuffer textureBuffer) {
+        GLES30.glGetIntegerv(GLES30.GL_FRAMEBUFFER_BINDING, mFramebuffer, 0);
+        GLES30.glGetIntegerv(GLES30.GL_VIEWPORT, mViewport, 0);
+        int levels = mPlan.getLevels();
+
+        // 第一次缩小使用与输出相同的顶点和纹理坐标，之后每一级都与输出画面一一对应
+        RenderTarget current = obtainLevel(1);
+        mDownsamplePass.setInputSize(mImageWidth, mImageHeight);
+        mDownsamplePass.drawFrame(textureId, vertexBuffer, textureBuffer);
+        for (int level = 2; level <= levels; level++) {
+            RenderTarget next = obtainLevel(level);
+            mDownsamplePass.setInputSize(current.getWidth(), current.getHeight());
+            mDownsamplePass.drawFrame(current.getTextureId());
+            GLRenderTargetPool.recycle(current);
+            current = next;
+        }
+        for (int level = levels - 1; level >= 1; level--) {
+            RenderTarget next = obtainLevel(level);
+            mUpsamplePass.setInputSize(current.getWidth(), current.getHeight());
+            mUpsamplePass.drawFrame(current.getTextureId());
+            GLRenderTargetPool.recycle(current);
+            current = next;
+        }
+
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffer[0]);
+        GLES30.glViewport(mViewport[0], mViewport[1], mViewport[2], mViewport[3]);
+        return current;
     }
 
     /**
-     * 设置高斯模糊的大小
-     * @param values
+     * 借出第level级的渲染目标，并设置为当前的绘制目标
      */
-    public void setBlurSize(float[] values) {
-        setFloatVec2(mBlurSizeLoc, values);
+    private RenderTarget obtainLevel(int level) {
+        int width = KawaseBlurPlan.getLevelSize(mImageWidth, level);
+        int height = KawaseBlurPlan.getLevelSize(mImageHeight, level);
+        RenderTarget target = GLRenderTargetPool.obtain(width, height);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, target.getFramebufferId());
+        GLES30.glViewport(0, 0, width, height);
+        return target;
+    }
+
+    private static void setHalfPixel(float[] halfPixel, int width, int height) {
+        halfPixel[0] = 0.5f / width;
+        halfPixel[1] = 0.5f / height;
+    }
+
+    @Override
+    public void onDrawArraysBegin() {
+        super.onDrawArraysBegin();
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D,
+                mBlurTexture == GlUtil.GL_NOT_INIT ? 0 : mBlurTexture);
+        GLES30.glUniform1i(mBlurTextureLoc, 1);
+    }
+
+    @Override
+    public void onDrawArraysAfter() {
+        super.onDrawArraysAfter();
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    }
+
+    @Override
+    public void release() {
+        mDownsamplePass.release();
+        mUpsamplePass.release();
+        super.release();
+    }
+
+    /**
+     * 缩小一级：中心权重4，四个对角各1
+     */
+    private static class DownsamplePass extends GLImageFilter {
+
+        private static final String FRAGMENT_SHADER =
+                "precision mediump float;\n" +
+                "varying vec2 textureCoordinate;\n" +
+                "uniform sampler2D inputTexture;\n" +
+                "uniform vec2 halfPixel;\n" +
+                "uniform float offset;\n" +
+                "void main() {\n" +
+                "    vec2 uv = textureCoordinate;\n" +
+                "    vec2 step = halfPixel * offset;\n" +
+                "    vec4 sum = texture2D(inputTexture, uv) * 4.0;\n" +
+                "    sum += texture2D(inputTexture, uv - step);\n" +
+                "    sum += texture2D(inputTexture, uv + step);\n" +
+                "    sum += texture2D(inputTexture, uv + vec2(step.x, -step.y));\n" +
+                "    sum += texture2D(inputTexture, uv - vec2(step.x, -step.y));\n" +
+                "    gl_FragColor = sum / 8.0;\n" +
+                "}\n";
+
+        private int mHalfPixelLoc;
+        private int mOffsetLoc;
+        private final float[] mHalfPixel = new float[2];
+
+        DownsamplePass() {
+            this(VERTEX_SHADER, FRAGMENT_SHADER);
+        }
+
+        DownsamplePass(String vertexShader, String fragmentShader) {
+            super(vertexShader, fragmentShader);
+            mHalfPixelLoc = GLES30.glGetUniformLocation(mProgramHandle, "halfPixel");
+            mOffsetLoc = GLES30.glGetUniformLocation(mProgramHandle, "offset");
+        }
+
+        void setOffset(float offset) {
+            setFloat(mOffsetLoc, offset);
+        }
+
+        /**
+         * 设置输入纹理的大小，数值拷贝到uniform槽位中，不产生内存分配
+         */
+        void setInputSize(int width, int height) {
+            setHalfPixel(mHalfPixel, width, height);
+            setFloatVec2(mHalfPixelLoc, mHalfPixel);
+        }
+    }
+
+    /**
+     * 放大一级的中间pass，输入为上一级的渲染目标
+     */
+    private static class UpsamplePass extends DownsamplePass {
+
+        private static final String FRAGMENT_SHADER =
+                "precision mediump float;\n" +
+                "varying vec2 textureCoordinate;\n" +
+                "uniform sampler2D inputTexture;\n" +
+                "uniform vec2 halfPixel;\n" +
+                "uniform float offset;\n" +
+                "void main() {\n" +
+                "    vec2 uv = textureCoordinate;\n" +
+                upsampleSum("inputTexture") +
+                "    gl_FragColor = sum;\n" +
+                "}\n";
+
+        UpsamplePass() {
+            super(VERTEX_SHADER, FRAGMENT_SHADER);
+        }
     }
 }
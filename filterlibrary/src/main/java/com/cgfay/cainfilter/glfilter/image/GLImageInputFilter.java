@@ -47,10 +47,9 @@ public class GLImageInputFilter extends GLImageFilter {
         if (mFramebuffers == null) {
             return textureId;
         }
-        runPendingOnDrawTasks();
         GLES30.glViewport(0, 0, mFrameWidth, mFrameHeight);
         GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffers[0]);
-        GLES30.glUseProgram(mProgramHandle);
+        useProgram();
         vertexBuffer.position(0);
         GLES30.glVertexAttribPointer(maPositionLoc, mCoordsPerVertex,
                 GLES30.GL_FLOAT, false, 0, vertexBuffer);
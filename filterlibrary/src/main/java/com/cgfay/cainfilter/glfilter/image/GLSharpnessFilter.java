@@ -108,4 +108,9 @@ public class GLSharpnessFilter extends GLImageFilter {
         mSharpness = sharpness;
         setFloat(mSharpnessLoc, mSharpness);
     }
+
+    @Override
+    public boolean isNoOp() {
+        return mSharpness == 0;
+    }
 }
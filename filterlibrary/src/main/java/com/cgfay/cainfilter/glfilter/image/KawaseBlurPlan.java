@@ -0,0 +1,213 @@
+package com.cgfay.cainfilter.glfilter.image;
+
+/**
+ * 双重Kawase模糊(dual filter)的金字塔规划
+ * 1、先逐级缩小一半(每级5次采样)，再逐级放大回原尺寸(每级8次采样)，
+ *    采样间隔为offset个半像素，模糊范围随级数成倍增长，总的计算量与半径几乎无关
+ * 2、每一级都是以采样点为中心对称的线性插值，整个金字塔等价滤波核的方差等于各级方差之和，
+ *    可以按采样位置精确计算，半径定义为方差相同的高斯核的标准差
+ * 3、半径连续变化时先选尽可能多的级数(采样间隔小，画面更平滑)，再用二分法求出采样间隔，
+ *    半径小于一级的最小模糊时与原图按方差比例混合，保证半径从0开始连续
+ * 纯Java实现，GL滤镜和CPU参考实现共用
+ * Created by cain on 2018/3/25.
+ */
+public final class KawaseBlurPlan {
+
+    // 最多的级数
+    public static final int MAX_LEVELS = 7;
+    // 采样间隔的范围，单位为半像素，相邻两级的可调范围有重叠，保证任意半径都能找到采样间隔
+    public static final float MIN_OFFSET = 1.0f;
+    public static final float MAX_OFFSET = 3.0f;
+
+    // 不模糊
+    private static final KawaseBlurPlan NONE = new KawaseBlurPlan(0, 0, MIN_OFFSET, 1.0f);
+
+    private final float mRadius;
+    private final int mLevels;
+    private final float mOffset;
+    private final float mMix;
+
+    private KawaseBlurPlan(float radius, int levels, float offset, float mix) {
+        mRadius = radius;
+        mLevels = levels;
+        mOffset = offset;
+        mMix = mix;
+    }
+
+    /**
+     * 根据半径规划金字塔
+     * @param radius 等价高斯核的标准差，单位为像素，不大于getMaxRadius()
+     * @return
+     */
+    public static KawaseBlurPlan forRadius(float radius) {
+        if (!(radius > 0)) {
+            return NONE;
+        }
+        double target = (double) radius * radius;
+        double minimum = variance(1, MIN_OFFSET);
+        if (target <= minimum) {
+            // 一级的最小模糊再与原图混合
+            return new KawaseBlurPlan(radius, 1, MIN_OFFSET, (float) (target / minimum));
+        }
+        int levels = 1;
+        while (levels < MAX_LEVELS && variance(levels + 1, MIN_OFFSET) <= target) {
+            levels++;
+        }
+        if (target >= variance(levels, MAX_OFFSET)) {
+            return new KawaseBlurPlan((float) Math.sqrt(variance(levels, MAX_OFFSET)),
+                    levels, MAX_OFFSET, 1.0f);
+        }
+        double low = MIN_OFFSET;
+        double high = MAX_OFFSET;
+        for (int i = 0; i < 24; i++) {
+            double middle = (low + high) / 2;
+            if (variance(levels, middle) < target) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return new KawaseBlurPlan(radius, levels, (float) ((low + high) / 2), 1.0f);
+    }
+
+    /**
+     * 能达到的最大半径
+     * @return
+     */
+    public static float getMaxRadius() {
+        return (float) Math.sqrt(variance(MAX_LEVELS, MAX_OFFSET));
+    }
+
+    /**
+     * 金字塔等价滤波核在单个方向上的方差，单位为像素的平方
+     * @param levels 级数
+     * @param offset 采样间隔，单位为半像素
+     * @return
+     */
+    public static double variance(int levels, double offset) {
+        double down = downsampleVariance(offset);
+        double up = upsampleVariance(offset);
+        double total = 0;
+        for (int i = 0; i < levels; i++) {
+            // 第i级缩小时输入的像素大小为2^i，放大时输入的像素大小为2^(i + 1)
+            double texel = 1 << i;
+            total += down * texel * texel + up * 4 * texel * texel;
+        }
+        return total;
+    }
+
+    /**
+     * 缩小一级的方差，单位为输入像素，输出像素中心落在四个输入像素的交点上
+     * 中心权重4，四个对角各1，对角采样距离中心offset / 2个像素
+     */
+    private static double downsampleVariance(double offset) {
+        double diagonal = offset / 2;
+        return (4 * secondMoment(0, 0.5)
+                + 2 * secondMoment(diagonal, 0.5) + 2 * secondMoment(-diagonal, 0.5)) / 8;
+    }
+
+    /**
+     * 放大一级的方差，单位为输入像素，输出像素中心距离最近的输入像素中心0.25或0.75个像素
+     * 水平、竖直方向各两个采样(距离offset)权重1，四个对角采样(距离offset / 2)权重2
+     */
+    private static double upsampleVariance(double offset) {
+        double diagonal = offset / 2;
+        double total = 0;
+        for (double phase : new double[] { 0.25, 0.75 }) {
+            total += (secondMoment(offset, phase) + secondMoment(-offset, phase)
+                    + 2 * secondMoment(0, phase)
+                    + 4 * secondMoment(diagonal, phase) + 4 * secondMoment(-diagonal, phase)) / 12;
+        }
+        return total / 2;
+    }
+
+    /**
+     * 在position处双线性采样时，相对于输出像素中心的二阶矩，单位为输入像素
+     * @param position 采样位置
+     * @param phase 输入像素中心的位置为phase + 整数
+     */
+    private static double secondMoment(double position, double phase) {
+        double x = position - phase;
+        double index = Math.floor(x);
+        double fraction = x - index;
+        double left = index + phase;
+        double right = left + 1;
+        return (1 - fraction) * left * left + fraction * right * right;
+    }
+
+    /**
+     * 第level级的尺寸，第0级为原图，每一级缩小一半并向上取整
+     * @param size 原图尺寸
+     * @param level
+     * @return
+     */
+    public static int getLevelSize(int size, int level) {
+        for (int i = 0; i < level; i++) {
+            size = Math.max(1, (size + 1) / 2);
+        }
+        return size;
+    }
+
+    /**
+     * 每个输出像素平均的纹理采样次数，最后与原图混合时多一次采样
+     * @return
+     */
+    public double getFetchesPerPixel() {
+        double total = 0;
+        for (int i = 0; i < mLevels; i++) {
+            double scale = 1.0 / (1L << (2 * i));
+            // 缩小到第i + 1级，放大到第i级
+            total += 5 * scale / 4 + 8 * scale;
+        }
+        if (mMix < 1.0f) {
+            total += 1;
+        }
+        return total;
+    }
+
+    /**
+     * 实际的半径，超出最大半径时为最大半径
+     * @return
+     */
+    public float getRadius() {
+        return mRadius;
+    }
+
+    /**
+     * 级数，0表示不模糊
+     * @return
+     */
+    public int getLevels() {
+        return mLevels;
+    }
+
+    /**
+     * 采样间隔，单位为半像素
+     * @return
+     */
+    public float getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * 模糊结果所占的比例，小于1时与原图混合
+     * @return
+     */
+    public float getMix() {
+        return mMix;
+    }
+
+    /**
+     * 缩小和放大的pass个数
+     * @return
+     */
+    public int getPassCount() {
+        return mLevels * 2;
+    }
+
+    @Override
+    public String toString() {
+        return "KawaseBlurPlan{radius=" + mRadius + ", levels=" + mLevels
+                + ", offset=" + mOffset + ", mix=" + mMix + "}";
+    }
+}
@@ -0,0 +1,190 @@
+package com.cgfay.cainfilter.glfilter.image;
+
+import com.cgfay.cainfilter.utils.FloatImage;
+
+/**
+ * 模糊的CPU参考实现
+ * 1、双重Kawase模糊，逐像素与GLGuassFilter的各个pass保持一致
+ * 2、可分离的高斯模糊，作为比较的基准
+ * 纹理采样统一使用FloatImage的双线性采样，不模拟中间渲染目标的8位量化
+ * Created by cain on 2018/3/25.
+ */
+public final class KawaseBlurReference {
+
+    private static final int CHANNELS = FloatImage.CHANNELS;
+
+    private KawaseBlurReference() {}
+
+    /**
+     * 按规划做双重Kawase模糊
+     * @param source
+     * @param plan
+     * @return
+     */
+    public static FloatImage blur(FloatImage source, KawaseBlurPlan plan) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        FloatImage result = new FloatImage(width, height);
+        if (plan.getLevels() == 0) {
+            System.arraycopy(source.getData(), 0, result.getData(), 0, source.getData().length);
+            return result;
+        }
+        int levels = plan.getLevels();
+        float offset = plan.getOffset();
+        // 逐级缩小
+        float[][] pyramid = new float[levels + 1][];
+        pyramid[0] = source.getData();
+        for (int i = 0; i < levels; i++) {
+            pyramid[i + 1] = downsample(pyramid[i],
+                    KawaseBlurPlan.getLevelSize(width, i), KawaseBlurPlan.getLevelSize(height, i),
+                    KawaseBlurPlan.getLevelSize(width, i + 1),
+                    KawaseBlurPlan.getLevelSize(height, i + 1), offset);
+        }
+        // 逐级放大，最后一级直接放大到原图尺寸
+        float[] current = pyramid[levels];
+        for (int i = levels; i > 0; i--) {
+            current = upsample(current,
+                    KawaseBlurPlan.getLevelSize(width, i), KawaseBlurPlan.getLevelSize(height, i),
+                    KawaseBlurPlan.getLevelSize(width, i - 1),
+                    KawaseBlurPlan.getLevelSize(height, i - 1), offset);
+        }
+        float mix = plan.getMix();
+        float[] data = result.getData();
+        float[] original = source.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = original[i] * (1 - mix) + current[i] * mix;
+        }
+        return result;
+    }
+
+    /**
+     * 缩小一级，中心权重4，四个对角各1
+     */
+    private static float[] downsample(float[] input, int inputWidth, int inputHeight,
+                                      int width, int height, float offset) {
+        float[] output = new float[width * height * CHANNELS];
+        float dx = 0.5f / inputWidth * offset;
+        float dy = 0.5f / inputHeight * offset;
+        for (int y = 0; y < height; y++) {
+            float v = (y + 0.5f) / height;
+            for (int x = 0; x < width; x++) {
+                float u = (x + 0.5f) / width;
+                int index = (y * width + x) * CHANNELS;
+                for (int c = 0; c < CHANNELS; c++) {
+                    float sum = sample(input, inputWidth, inputHeight, u, v, c) * 4
+                            + sample(input, inputWidth, inputHeight, u - dx, v - dy, c)
+                            + sample(input, inputWidth, inputHeight, u + dx, v + dy, c)
+                            + sample(input, inputWidth, inputHeight, u + dx, v - dy, c)
+                            + sample(input, inputWidth, inputHeight, u - dx, v + dy, c);
+                    output[index + c] = sum / 8;
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * 放大一级，水平竖直四个采样权重1，四个对角采样权重2
+     */
+    private static float[] upsample(float[] input, int inputWidth, int inputHeight,
+                                    int width, int height, float offset) {
+        float[] output = new float[width * height * CHANNELS];
+        float dx = 0.5f / inputWidth * offset;
+        float dy = 0.5f / inputHeight * offset;
+        for (int y = 0; y < height; y++) {
+            float v = (y + 0.5f) / height;
+            for (int x = 0; x < width; x++) {
+                float u = (x + 0.5f) / width;
+                int index = (y * width + x) * CHANNELS;
+                for (int c = 0; c < CHANNELS; c++) {
+                    float sum = sample(input, inputWidth, inputHeight, u - 2 * dx, v, c)
+                            + sample(input, inputWidth, inputHeight, u + 2 * dx, v, c)
+                            + sample(input, inputWidth, inputHeight, u, v - 2 * dy, c)
+                            + sample(input, inputWidth, inputHeight, u, v + 2 * dy, c)
+                            + (sample(input, inputWidth, inputHeight, u - dx, v + dy, c)
+                            + sample(input, inputWidth, inputHeight, u + dx, v + dy, c)
+                            + sample(input, inputWidth, inputHeight, u + dx, v - dy, c)
+                            + sample(input, inputWidth, inputHeight, u - dx, v - dy, c)) * 2;
+                    output[index + c] = sum / 12;
+                }
+            }
+        }
+        return output;
+    }
+
+    private static float sample(float[] data, int width, int height, float u, float v, int c) {
+        return FloatImage.sample(data, width, height, CHANNELS, u, v, c);
+    }
+
+    /**
+     * 可分离的高斯模糊，核半径为4倍标准差，边缘取边缘像素
+     * @param source
+     * @param sigma 标准差，单位为像素
+     * @return
+     */
+    public static FloatImage gaussian(FloatImage source, float sigma) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        FloatImage result = new FloatImage(width, height);
+        if (!(sigma > 0)) {
+            System.arraycopy(source.getData(), 0, result.getData(), 0, source.getData().length);
+            return result;
+        }
+        int radius = getGaussianRadius(sigma);
+        float[] kernel = new float[radius * 2 + 1];
+        float total = 0;
+        for (int i = -radius; i <= radius; i++) {
+            kernel[i + radius] = (float) Math.exp(-i * i / (2.0 * sigma * sigma));
+            total += kernel[i + radius];
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= total;
+        }
+        float[] input = source.getData();
+        float[] temp = new float[input.length];
+        float[] output = result.getData();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int c = 0; c < CHANNELS; c++) {
+                    float sum = 0;
+                    for (int i = -radius; i <= radius; i++) {
+                        int sx = Math.max(0, Math.min(width - 1, x + i));
+                        sum += input[(y * width + sx) * CHANNELS + c] * kernel[i + radius];
+                    }
+                    temp[(y * width + x) * CHANNELS + c] = sum;
+                }
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int c = 0; c < CHANNELS; c++) {
+                    float sum = 0;
+                    for (int i = -radius; i <= radius; i++) {
+                        int sy = Math.max(0, Math.min(height - 1, y + i));
+                        sum += temp[(sy * width + x) * CHANNELS + c] * kernel[i + radius];
+                    }
+                    output[(y * width + x) * CHANNELS + c] = sum;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 高斯核的半径
+     * @param sigma
+     * @return
+     */
+    public static int getGaussianRadius(float sigma) {
+        return (int) Math.ceil(sigma * 4);
+    }
+
+    /**
+     * 可分离高斯模糊每个像素的采样次数
+     * @param sigma
+     * @return
+     */
+    public static int getGaussianFetchesPerPixel(float sigma) {
+        return 2 * (2 * getGaussianRadius(sigma) + 1);
+    }
+}
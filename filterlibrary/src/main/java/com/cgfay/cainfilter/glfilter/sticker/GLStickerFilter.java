@@ -1,5 +1,6 @@
 package com.cgfay.cainfilter.glfilter.sticker;
 
+import com.cgfay.cainfilter.facetracker.FacePointsManager;
 import com.cgfay.cainfilter.glfilter.base.GLImageFilter;
 
 /**
@@ -53,6 +54,13 @@ public class GLStickerFilter extends GLImageFilter {
         }
     }
 
+    @Override
+    public boolean isNoOp() {
+        // 没有贴纸或者没有检测到人脸时只是拷贝原图
+        return mStickerFilterSet == null || mStickerFilterSet.isEmpty()
+                || FacePointsManager.getInstance().getFaceCount() == 0;
+    }
+
     @Override
     protected void unBindValue() {
         super.unBindValue();
@@ -2,16 +2,38 @@ package com.cgfay.cainfilter.glfilter.sticker;
 
 import android.opengl.GLES30;
 
+import com.cgfay.cainfilter.facetracker.FacePointsManager;
+import com.cgfay.cainfilter.gles.GLGeometryManager;
+import com.cgfay.cainfilter.gles.GLTextureLoader;
+import com.cgfay.cainfilter.trace.RenderTracer;
+
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * 动态贴纸集合
+ * 所有部位的帧装进同一个图集，同一页上的部位在所有人脸上合成一次绘制
  * Created by cain on 2018/1/13.
  */
 
 public class GLStickerFilterSet {
 
+    private static final RenderTracer mTracer = RenderTracer.getInstance();
+    private static final int TRACE_STICKER_UPLOAD = mTracer.registerStage("StickerUpload");
+
+    // 最多绘制贴纸的人脸数
+    private static final int MAX_FACES = 5;
+    // 顶点已经是裁剪坐标，总变换矩阵使用单位矩阵
+    private static final float[] IDENTITY_MATRIX = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1,
+    };
+
+    // 当前相机帧的时间戳(ns)，由渲染线程在绘制之前设置，0表示没有时间戳
+    private static long mFrameTimestamp;
+
     private int mProgramHandle;
     private int muMVPMatrixLoc;
     private int maPositionLoc;
@@ -20,6 +42,12 @@ public class GLStickerFilterSet {
 
     // 贴纸集合
     private ArrayList<GLStickerItemFilter> mStickerItems;
+    // 部位改变之后需要重新分配共用的图集
+    private boolean mAtlasDirty;
+    // 合批绘制的贴纸四边形
+    private final StickerQuadBatch mBatch = new StickerQuadBatch();
+    // 每个人脸的姿态角
+    private final float[] mFacePoses = new float[MAX_FACES * 3];
 
     /**
      * 构造时使用已存在的program，这里需要传句柄进来，方便某个部位的贴纸使用
@@ -51,6 +79,7 @@ public class GLStickerFilterSet {
      * @param height
      */
     public void onInputSizeChanged(int width, int height) {
+        mBatch.setAspectRatio((float) width / height);
         if (mStickerItems != null && mStickerItems.size() > 0) {
             for (int i = 0; i < mStickerItems.size(); i++) {
                 mStickerItems.get(i).onInputSizeChanged(width, height);
@@ -59,55 +88,134 @@ public class GLStickerFilterSet {
     }
 
     /**
-     * 绘制贴纸
+     * 设置当前相机帧的时间戳，贴纸动画按时间戳播放，与渲染帧率无关
+     * @param timestamp SurfaceTexture的时间戳(ns)
+     */
+    public static void setFrameTimestamp(long timestamp) {
+        mFrameTimestamp = timestamp;
+    }
+
+    /**
+     * 绘制贴纸，所有人脸上的所有贴纸合成一批，每个纹理只绘制一次
      */
     public void drawSubSticker() {
         if (mStickerItems != null && mStickerItems.size() > 0) {
-            // 开启混合
-            GLES30.glEnable(GLES30.GL_BLEND);
-            GLES30.glBlendFunc(GLES30.GL_ONE, GLES30.GL_ONE_MINUS_SRC_ALPHA);
-            // 使用当前的program
-            GLES30.glUseProgram(mProgramHandle);
-            // 逐个绘制贴纸集合中的的所有贴纸
+            // 发布后台上传完成的贴纸帧
+            mTracer.begin(TRACE_STICKER_UPLOAD);
+            GLTextureLoader.getCurrent().dispatch();
+            updateSharedAtlas();
+            // 部分设备的SurfaceTexture没有时间戳，使用系统时间
+            long timestamp = mFrameTimestamp != 0 ? mFrameTimestamp : System.nanoTime();
+            int actions = FacePointsManager.getInstance().getFaceActions();
             for (int i = 0; i < mStickerItems.size(); i++) {
-                drawSubItem(mStickerItems.get(i));
+                mStickerItems.get(i).updateTexture(timestamp, actions);
             }
-            // 关闭混合
-            GLES30.glDisable(GLES30.GL_BLEND);
+            mTracer.end(TRACE_STICKER_UPLOAD);
+            buildBatch();
+            if (mBatch.getQuadCount() == 0) {
+                return;
+            }
+            drawBatch();
         }
     }
 
     /**
-     * 绘制某个部位的贴纸
-     * @param itemFilter
+     * 部位或者部位的帧数改变之后，把所有部位合成一个图集重新分配给每个部位
      */
-    private void drawSubItem(GLStickerItemFilter itemFilter) {
-        // 绑定顶点坐标缓冲
-        GLES30.glVertexAttribPointer(maPositionLoc, itemFilter.getCoordsPerVertex(),
-                GLES30.GL_FLOAT, false, 0, itemFilter.getVertexBuffer());
-        GLES30.glEnableVertexAttribArray(maPositionLoc);
+    private void updateSharedAtlas() {
+        boolean dirty = mAtlasDirty;
+        for (int i = 0; i < mStickerItems.size() && !dirty; i++) {
+            dirty = mStickerItems.get(i).needsSharedAtlas();
+        }
+        if (!dirty) {
+            return;
+        }
+        mAtlasDirty = false;
+        List<String> parts = new ArrayList<String>();
+        for (int i = 0; i < mStickerItems.size(); i++) {
+            String part = mStickerItems.get(i).getAtlasPart();
+            if (part != null) {
+                parts.add(part);
+            }
+        }
+        if (parts.isEmpty()) {
+            return;
+        }
+        String atlas = StickerAtlasLoader.joinAtlasParts(parts);
+        int frameOffset = 0;
+        for (int i = 0; i < mStickerItems.size(); i++) {
+            GLStickerItemFilter item = mStickerItems.get(i);
+            if (item.getAtlasPart() != null) {
+                item.setSharedAtlas(atlas, frameOffset);
+                frameOffset += item.getStickerSum();
+            }
+        }
+    }
 
-        // 绑定纹理坐标缓冲
-        GLES30.glVertexAttribPointer(maTextureCoordLoc, itemFilter.getCoordsPerTexture(),
-                GLES30.GL_FLOAT, false, 0, itemFilter.getTextureBuffer());
+    /**
+     * 按部位、再按人脸添加四边形，所有部位的帧在同一页图集时使用同一个纹理，合并为一次绘制
+     * 没有检测到人脸时不绘制贴纸，与GLStickerFilter.isNoOp一致
+     */
+    private void buildBatch() {
+        int faceCount = FacePointsManager.getInstance().getFacePoses(mFacePoses, MAX_FACES);
+        mBatch.begin();
+        if (faceCount == 0) {
+            return;
+        }
+        for (int i = 0; i < mStickerItems.size(); i++) {
+            GLStickerItemFilter item = mStickerItems.get(i);
+            // 等待触发动作或者第一帧还没有上传完成
+            if (!item.isTextureReady()) {
+                continue;
+            }
+            for (int face = 0; face < faceCount; face++) {
+                // Face++的姿态角是弧度
+                mBatch.addQuad(item.getTexture(),
+                        (float) Math.toDegrees(mFacePoses[face * 3]),
+                        (float) Math.toDegrees(mFacePoses[face * 3 + 1]),
+                        (float) Math.toDegrees(mFacePoses[face * 3 + 2]),
+                        item.getVertexCoords(), 0, item.getTextureCoords(), 0);
+            }
+        }
+    }
+
+    /**
+     * 上传合批的顶点，每一段相同纹理的四边形绘制一次，图集只有一页时只绘制一次
+     */
+    private void drawBatch() {
+        // 开启混合
+        GLES30.glEnable(GLES30.GL_BLEND);
+        GLES30.glBlendFunc(GLES30.GL_ONE, GLES30.GL_ONE_MINUS_SRC_ALPHA);
+        // 使用当前的program
+        GLES30.glUseProgram(mProgramHandle);
+
+        // 顶点已经变换到裁剪坐标，一次写入流式VBO
+        GLGeometryManager geometryManager = GLGeometryManager.getCurrent();
+        int offset = geometryManager.streamVertices(mBatch.getData(), 0, mBatch.getFloatCount());
+        GLES30.glVertexAttribPointer(maPositionLoc, StickerQuadBatch.POSITION_SIZE,
+                GLES30.GL_FLOAT, false, StickerQuadBatch.STRIDE, offset);
+        GLES30.glEnableVertexAttribArray(maPositionLoc);
+        GLES30.glVertexAttribPointer(maTextureCoordLoc, StickerQuadBatch.TEXTURE_SIZE,
+                GLES30.GL_FLOAT, false, StickerQuadBatch.STRIDE,
+                offset + StickerQuadBatch.TEXTURE_OFFSET);
         GLES30.glEnableVertexAttribArray(maTextureCoordLoc);
+        geometryManager.unbindStream();
 
-        // 计算并绑定总变换矩阵
-        itemFilter.calculateMVPMatrix();
-        GLES30.glUniformMatrix4fv(muMVPMatrixLoc, 1, false,
-                itemFilter.getMVPMatrix(), 0);
-        // 绑定纹理
+        GLES30.glUniformMatrix4fv(muMVPMatrixLoc, 1, false, IDENTITY_MATRIX, 0);
         GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
-        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, itemFilter.getTexture());
         GLES30.glUniform1i(mInputTextureLoc, 0);
-        // 绘制纹理
-        GLES30.glDrawArrays(GLES30.GL_TRIANGLE_STRIP, 0, 4);
+        for (int run = 0; run < mBatch.getRunCount(); run++) {
+            GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, mBatch.getRunTexture(run));
+            GLES30.glDrawArrays(GLES30.GL_TRIANGLES, mBatch.getRunFirstVertex(run),
+                    mBatch.getRunVertexCount(run));
+        }
+
         // 解绑数据
         GLES30.glDisableVertexAttribArray(maPositionLoc);
         GLES30.glDisableVertexAttribArray(maTextureCoordLoc);
         GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
-        // 更新贴纸
-        itemFilter.updateTexture();
+        // 关闭混合
+        GLES30.glDisable(GLES30.GL_BLEND);
     }
 
     /**
@@ -129,6 +237,7 @@ public class GLStickerFilterSet {
      */
     public void addSubSticker(GLStickerItemFilter itemFilter) {
         mStickerItems.add(itemFilter);
+        mAtlasDirty = true;
     }
 
     /**
@@ -137,6 +246,7 @@ public class GLStickerFilterSet {
      */
     public void addSubSticker(List<GLStickerItemFilter> itemFilters) {
         mStickerItems.addAll(itemFilters);
+        mAtlasDirty = true;
     }
 
     /**
@@ -150,4 +260,12 @@ public class GLStickerFilterSet {
             mStickerItems.clear();
         }
     }
+
+    /**
+     * 是否没有任何贴纸
+     * @return
+     */
+    public boolean isEmpty() {
+        return mStickerItems == null || mStickerItems.size() == 0;
+    }
 }
@@ -1,13 +1,12 @@
 package com.cgfay.cainfilter.glfilter.sticker;
 
-import android.graphics.Bitmap;
-import android.opengl.GLES30;
 import android.opengl.Matrix;
+import android.util.Log;
 
-import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLTextureLoader;
+import com.cgfay.cainfilter.gles.TextureLoadQueue;
 import com.cgfay.cainfilter.type.StickerType;
 import com.cgfay.cainfilter.utils.GlUtil;
-import com.cgfay.utilslibrary.BitmapUtils;
 
 import java.nio.FloatBuffer;
 
@@ -18,6 +17,8 @@ import java.nio.FloatBuffer;
 
 public class GLStickerItemFilter {
 
+    private static final String TAG = "GLStickerItemFilter";
+
     /**
      * 纹理坐标
      */
@@ -46,6 +47,7 @@ public class GLStickerItemFilter {
 
     private FloatBuffer mVertexBuffer;  // 顶点坐标缓冲
     private FloatBuffer mTextureBuffer; // 纹理坐标缓冲
+    private final float[] mVertexCoords = VertexCoords.clone(); // 顶点坐标，合批时使用
 
     private float[] mViewMatrix = new float[16];    // 视图矩阵
     private float[] mModelMatrix = new float[16];   // 模型矩阵
@@ -60,8 +62,6 @@ public class GLStickerItemFilter {
     // 贴纸的类型(默认没有)
     private StickerType mStickerType = StickerType.NONE;
 
-    // 贴纸的索引
-    private int mStickerIndex = 0;
     // 贴纸的总数
     private int mStickerSum = 12;
 
@@ -70,17 +70,45 @@ public class GLStickerItemFilter {
     private float mCenterY = 0.0f;
     private float mCenterZ = 0.0f;
 
-    // 贴纸持有的数据
-    private Bitmap mBitmap = null;
-
-    // 贴纸的路径
-    private String mStickerPath = null;
+    // 异步纹理加载队列
+    private TextureLoadQueue mLoadQueue;
+    // 帧路径前缀，没有贴纸时为null
+    private String mFramePrefix;
+    // 贴纸集合分配的共用图集，以及本部位的帧在图集中的起始编号，没有分配时只加载本部位的帧
+    private String mSharedAtlas;
+    private int mFrameOffset;
+    // 正在使用的图集
+    private String mAtlasKey;
+    // 第一页图集的请求，布局在合成第一页时计算
+    private TextureLoadQueue.Request mFirstPage;
+    // 图集布局，第一页加载完成之后才有
+    private StickerFrameAtlas mAtlas;
+    // 图集页的请求，只保留当前帧和预取窗口内的帧所在的页，其余的页释放到加载队列的空闲缓存
+    private TextureLoadQueue.Request[] mAtlasPages;
+    // 每一页是否在当前帧或者预取窗口内
+    private boolean[] mPagesInWindow;
+    // 动画时长(ms)，0表示使用默认的每帧时长
+    private long mDuration;
+    // 是否循环播放
+    private boolean mLooping = true;
+    // 触发动作
+    private int mTriggerAction = StickerAnimator.ACTION_NONE;
+    // 按时间戳播放的状态机
+    private StickerAnimator mAnimator;
+    // 预取窗口内的帧
+    private final int[] mPrefetchFrames = new int[StickerAnimator.DEFAULT_PREFETCH_FRAMES];
+    // 正在显示的帧，-1表示没有显示
+    private int mCurrentFrame = -1;
+    // 当前帧在图集页中的纹理坐标
+    private final float[] mFrameCoords = new float[8];
 
     public GLStickerItemFilter(StickerType type) {
         mStickerType = type;
         initIdentityMatrix();
         initBuffer();
-        updateTexture();
+        initFramePrefix();
+        StickerAtlasLoader.register();
+        mLoadQueue = GLTextureLoader.getCurrent();
     }
 
     /**
@@ -135,43 +163,43 @@ public class GLStickerItemFilter {
     }
 
     /**
-     * 更新贴纸
+     * 根据贴纸类型确定帧路径前缀和中心点
      */
-    public void updateTexture() {
-        mStickerPath = "stickers/";
+    private void initFramePrefix() {
+        mFramePrefix = "stickers/";
         switch (mStickerType) {
             // 头
             case HEAD:
-                mStickerPath  = mStickerPath + "tou/tou_";
+                mFramePrefix  = mFramePrefix + "tou/tou_";
                 mCenterX = 0.0f;
                 mCenterY = 0.6f;
                 break;
             // 耳朵
             case EAR:
-                mStickerPath  = mStickerPath + "erduo/erduo_";
+                mFramePrefix  = mFramePrefix + "erduo/erduo_";
                 mCenterX = 0.0f;
                 mCenterY = 0.1f;
                 break;
             // 人脸
             case FACE:
-                mStickerPath = mStickerPath + "lian/lian_";
+                mFramePrefix = mFramePrefix + "lian/lian_";
                 break;
             // 鼻子
             case NOSE:
-                mStickerPath = mStickerPath + "bizi/bizi_";
+                mFramePrefix = mFramePrefix + "bizi/bizi_";
                 mCenterX = 0.0f;
                 mCenterY = 0.1f;
                 break;
             // 胡子
             case BEARD:
-                mStickerPath = mStickerPath + "huzi/huzi_";
+                mFramePrefix = mFramePrefix + "huzi/huzi_";
                 mCenterX = 0.0f;
                 mCenterY = -0.5f;
                 break;
 
             // 没有贴纸
             case NONE:
-                mStickerPath = null;
+                mFramePrefix = null;
                 break;
 
             // 前景帧（暂未使用）
@@ -180,56 +208,158 @@ public class GLStickerItemFilter {
                 throw new IllegalStateException("unknown sticker type");
 
         }
-        if (mStickerPath != null) {
-            // 更新贴纸
-            mStickerPath += indexToString(mStickerIndex) + ".png";
-            mBitmap = BitmapUtils.getImageFromAssetsFile(ParamsManager.context, mStickerPath, mBitmap);
-            if (mTextureId == GlUtil.GL_NOT_INIT) {
-                mTextureId = GlUtil.createTexture(mBitmap);
-            } else {
-                mTextureId = GlUtil.createTextureWithOldTexture(mTextureId, mBitmap);
-            }
-            // 更新索引
-            mStickerIndex++;
-            mStickerIndex %= mStickerSum;
+    }
+
+    /**
+     * 请求第一页图集，全部帧只解码一次，第一次更新时调用，这样加入贴纸集合之后直接请求共用的图集
+     */
+    private void requestAtlas() {
+        mAtlasKey = mSharedAtlas != null ? mSharedAtlas : getAtlasPart();
+        StickerFrameTimeline timeline = mDuration > 0
+                ? StickerFrameTimeline.withDuration(mStickerSum, mDuration, mLooping)
+                : new StickerFrameTimeline(mStickerSum,
+                        StickerFrameTimeline.DEFAULT_FRAME_DURATION_MS, mLooping);
+        mAnimator = new StickerAnimator(timeline, mTriggerAction,
+                StickerAnimator.DEFAULT_PREFETCH_FRAMES);
+        mFirstPage = mLoadQueue.request(StickerAtlasLoader.getPageKey(mAtlasKey, 0));
+    }
+
+    /**
+     * 第一页加载完成之后取出布局，其余的页按预取窗口请求
+     * @return 布局是否可用
+     */
+    private boolean loadAtlasLayout() {
+        if (mFirstPage == null) {
+            return false;
         }
+        if (mFirstPage.isFailed()) {
+            Log.e(TAG, "unable to load sticker atlas: " + mAtlasKey);
+            mLoadQueue.release(mFirstPage);
+            mFirstPage = null;
+            return false;
+        }
+        if (!mFirstPage.isReady()) {
+            return false;
+        }
+        mAtlas = StickerAtlasLoader.peekLayout(mAtlasKey);
+        if (mAtlas == null) {
+            return false;
+        }
+        mAtlasPages = new TextureLoadQueue.Request[mAtlas.getPageCount()];
+        mPagesInWindow = new boolean[mAtlasPages.length];
+        mAtlasPages[0] = mFirstPage;
+        mFirstPage = null;
+        return true;
+    }
 
+    /**
+     * 请求当前帧、正在显示的帧和预取窗口内的帧所在的页，释放窗口之外的页
+     * 释放的页没有被淘汰时，再次请求直接从空闲缓存中取回
+     * @param frame 当前帧，-1表示没有显示
+     */
+    private void updatePageWindow(int frame) {
+        for (int i = 0; i < mPagesInWindow.length; i++) {
+            mPagesInWindow[i] = false;
+        }
+        if (frame >= 0) {
+            mPagesInWindow[getFramePage(frame)] = true;
+        }
+        // 新的一帧所在的页还没有上传完成时继续显示正在显示的帧
+        if (frame >= 0 && mCurrentFrame >= 0) {
+            mPagesInWindow[getFramePage(mCurrentFrame)] = true;
+        }
+        int count = mAnimator.getPrefetchFrames(mPrefetchFrames);
+        for (int i = 0; i < count; i++) {
+            mPagesInWindow[getFramePage(mPrefetchFrames[i])] = true;
+        }
+        for (int i = 0; i < mAtlasPages.length; i++) {
+            if (mPagesInWindow[i] && mAtlasPages[i] == null) {
+                mAtlasPages[i] = mLoadQueue.request(StickerAtlasLoader.getPageKey(mAtlasKey, i));
+            } else if (!mPagesInWindow[i] && mAtlasPages[i] != null) {
+                mLoadQueue.release(mAtlasPages[i]);
+                mAtlasPages[i] = null;
+            }
+        }
     }
 
     /**
-     * 将索引转成字符串
-     * @param index
+     * 动画中的帧所在的图集页
+     * @param frame 本部位的帧索引
      * @return
      */
-    String indexToString(int index) {
-        // 防止超出索引范围，找不到地址
-        index = index % mStickerSum;
-        String indexStr = "00";
-        if (index < 10) {
-            indexStr += String.valueOf(index);
-        } else if (index < 100) {
-            indexStr = "0" + String.valueOf(index);
-        } else if (index < 1000) {
-            indexStr = String.valueOf(index);
-        } else { // 超过1000张贴纸动画不支持
-            throw new IllegalStateException("cannot find sticker path!");
+    private int getFramePage(int frame) {
+        return mAtlas.getFramePage(mFrameOffset + frame);
+    }
+
+    /**
+     * 释放图集页的引用，纹理留在加载队列的空闲缓存中，没有开始上传的页直接取消
+     * 下一次更新时重新请求
+     */
+    private void releaseAtlas() {
+        mLoadQueue.release(mFirstPage);
+        mFirstPage = null;
+        if (mAtlasPages != null) {
+            for (TextureLoadQueue.Request page : mAtlasPages) {
+                mLoadQueue.release(page);
+            }
+            mAtlasPages = null;
         }
-        return indexStr;
+        mPagesInWindow = null;
+        mAtlas = null;
+        mAtlasKey = null;
+        mAnimator = null;
+        mCurrentFrame = -1;
+        mTextureId = GlUtil.GL_NOT_INIT;
+    }
+
+    /**
+     * 更新贴纸，按相机帧的时间戳选出当前帧，只切换图集页的纹理和帧的纹理坐标
+     * 帧所在的图集页还没有上传完成时继续显示当前帧
+     * @param timestamp 相机帧的时间戳(ns)
+     * @param actions 当前检测到的动作，StickerAnimator.ACTION_*按位组合
+     */
+    public void updateTexture(long timestamp, int actions) {
+        if (mFramePrefix == null) {
+            return;
+        }
+        if (mAnimator == null) {
+            requestAtlas();
+        }
+        if (mAtlas == null && !loadAtlasLayout()) {
+            return;
+        }
+        int frame = mAnimator.update(timestamp, actions);
+        updatePageWindow(frame);
+        if (frame < 0) {
+            // 等待触发动作，不显示
+            mCurrentFrame = -1;
+            mTextureId = GlUtil.GL_NOT_INIT;
+            return;
+        }
+        if (frame == mCurrentFrame) {
+            return;
+        }
+        TextureLoadQueue.Request page = mAtlasPages[getFramePage(frame)];
+        if (!page.isReady()) {
+            return;
+        }
+        mAtlas.getTextureCoords(mFrameOffset + frame, mFrameCoords, 0);
+        mTextureBuffer.clear();
+        mTextureBuffer.put(mFrameCoords);
+        mTextureBuffer.position(0);
+        mTextureId = page.getTexture();
+        mCurrentFrame = frame;
     }
 
     /**
      * 释放资源
      */
     public void release() {
-        // 释放Bitmap
-        if (mBitmap != null && !mBitmap.isRecycled()) {
-            mBitmap.recycle();
-        }
+        releaseAtlas();
         mVertexBuffer.clear();
         mVertexBuffer = null;
         mTextureBuffer.clear();
         mTextureBuffer = null;
-        GLES30.glDeleteTextures(1, new int[] {mTextureId}, 0);
     }
 
     /**
@@ -243,6 +373,7 @@ public class GLStickerItemFilter {
         mVertexBuffer.clear();
         mVertexBuffer.put(coords);
         mVertexBuffer.position(0);
+        System.arraycopy(coords, 0, mVertexCoords, 0, mVertexCoords.length);
     }
 
     /**
@@ -281,7 +412,75 @@ public class GLStickerItemFilter {
      * @param sum
      */
     public void setStickerSum(int sum) {
-        mStickerSum = sum;
+        if (mStickerSum != sum) {
+            // 帧数改变之后布局不同，重新加载图集，共用的图集也需要贴纸集合重新分配
+            releaseAtlas();
+            mStickerSum = sum;
+            mSharedAtlas = null;
+            mFrameOffset = 0;
+        }
+    }
+
+    /**
+     * 设置动画的播放方式，改变时重新开始播放
+     * @param duration 播放一遍的时长(ms)，0表示每帧使用默认时长
+     * @param looping 是否循环播放
+     * @param triggerAction 触发动作，StickerAnimator.ACTION_NONE表示直接播放
+     */
+    public void setAnimation(long duration, boolean looping, int triggerAction) {
+        if (mDuration != duration || mLooping != looping || mTriggerAction != triggerAction) {
+            releaseAtlas();
+            mDuration = duration;
+            mLooping = looping;
+            mTriggerAction = triggerAction;
+        }
+    }
+
+    /**
+     * 本部位在图集中的描述
+     * @return 没有贴纸时返回null
+     */
+    public String getAtlasPart() {
+        return mFramePrefix == null ? null
+                : StickerAtlasLoader.getAtlasPart(mFramePrefix, mStickerSum);
+    }
+
+    /**
+     * 是否需要贴纸集合分配共用的图集
+     * @return
+     */
+    public boolean needsSharedAtlas() {
+        return mFramePrefix != null && mSharedAtlas == null;
+    }
+
+    /**
+     * 使用贴纸集合中所有部位共用的图集，合批绘制时所有部位使用同一个纹理
+     * @param atlas 共用的图集
+     * @param frameOffset 本部位的第一帧在图集中的编号
+     */
+    public void setSharedAtlas(String atlas, int frameOffset) {
+        if (atlas.equals(mSharedAtlas) && mFrameOffset == frameOffset) {
+            return;
+        }
+        releaseAtlas();
+        mSharedAtlas = atlas;
+        mFrameOffset = frameOffset;
+    }
+
+    /**
+     * 当前是否有可以绘制的帧
+     * @return
+     */
+    public boolean isTextureReady() {
+        return mCurrentFrame >= 0;
+    }
+
+    /**
+     * 贴纸的总数
+     * @return
+     */
+    public int getStickerSum() {
+        return mStickerSum;
     }
 
     /**
@@ -292,6 +491,34 @@ public class GLStickerItemFilter {
         return mTextureId;
     }
 
+    /**
+     * 四个顶点的坐标，顺序为左下、右下、左上、右上
+     * @return
+     */
+    public float[] getVertexCoords() {
+        return mVertexCoords;
+    }
+
+    /**
+     * 当前帧在图集页中的纹理坐标，isTextureReady之后才有效
+     * @return
+     */
+    public float[] getTextureCoords() {
+        return mFrameCoords;
+    }
+
+    public float getPitchAngle() {
+        return mPitchAngle;
+    }
+
+    public float getYawAngle() {
+        return mYawAngle;
+    }
+
+    public float getRollAngle() {
+        return mRollAngle;
+    }
+
     /**
      * 获取顶点坐标缓冲
      * @return
@@ -0,0 +1,206 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 矩形装箱(Skyline Bottom-Left)
+ * 用一条由水平线段组成的天际线记录已经占用的区域，每次把矩形放到能让顶边最低的位置，
+ * 高度相同时选择左边的位置。矩形之间保留padding个像素，线性过滤时不会采样到相邻的帧
+ * 本类不依赖Android，可以在JVM上测试
+ * Created by cain on 2018/3/25.
+ */
+public final class RectPacker {
+
+    /**
+     * 装入的矩形
+     */
+    public static final class Rect {
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+
+        public Rect(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public String toString() {
+            return "Rect(" + x + ", " + y + ", " + width + "x" + height + ")";
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mPadding;
+
+    // 天际线，按x排列的线段，覆盖整个宽度
+    private final List<int[]> mSkyline = new ArrayList<int[]>();
+    // 已装入矩形的面积，不含padding
+    private long mUsedArea;
+    // 已装入矩形的最大高度，包含padding
+    private int mUsedHeight;
+
+    /**
+     * @param width 装箱的宽度
+     * @param height 装箱的高度
+     * @param padding 矩形右边和下边保留的像素
+     */
+    public RectPacker(int width, int height, int padding) {
+        if (width <= 0 || height <= 0 || padding < 0) {
+            throw new IllegalArgumentException("invalid packer size: " + width + "x" + height
+                    + ", padding " + padding);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPadding = padding;
+        reset();
+    }
+
+    /**
+     * 清空全部矩形
+     */
+    public void reset() {
+        mSkyline.clear();
+        // 线段: x, y, width
+        mSkyline.add(new int[] { 0, 0, mWidth });
+        mUsedArea = 0;
+        mUsedHeight = 0;
+    }
+
+    /**
+     * 装入一个矩形
+     * @param width
+     * @param height
+     * @return 矩形的位置，放不下时返回null
+     */
+    public Rect insert(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid rect size: " + width + "x" + height);
+        }
+        if (width > mWidth || height > mHeight) {
+            return null;
+        }
+        int bestIndex = -1;
+        int bestTop = Integer.MAX_VALUE;
+        int bestY = 0;
+        for (int i = 0; i < mSkyline.size(); i++) {
+            int y = fit(i, reservedWidth(i, width));
+            if (y < 0 || y + height > mHeight) {
+                continue;
+            }
+            // 贴着下边的矩形不需要padding
+            int top = Math.min(y + height + mPadding, mHeight);
+            if (top < bestTop) {
+                bestTop = top;
+                bestIndex = i;
+                bestY = y;
+            }
+        }
+        if (bestIndex < 0) {
+            return null;
+        }
+        int x = mSkyline.get(bestIndex)[0];
+        addLevel(bestIndex, x, bestTop, reservedWidth(bestIndex, width));
+        mUsedArea += (long) width * height;
+        mUsedHeight = Math.max(mUsedHeight, bestTop);
+        return new Rect(x, bestY, width, height);
+    }
+
+    /**
+     * 从第index条线段开始放置时实际占用的宽度，贴着右边的矩形不需要padding
+     */
+    private int reservedWidth(int index, int width) {
+        int x = mSkyline.get(index)[0];
+        return Math.min(width + mPadding, Math.max(width, mWidth - x));
+    }
+
+    /**
+     * 从第index条线段开始放置宽度为width的矩形时，矩形底边的高度
+     * @return 超出右边界时返回-1
+     */
+    private int fit(int index, int width) {
+        int x = mSkyline.get(index)[0];
+        if (x + width > mWidth) {
+            return -1;
+        }
+        int remaining = width;
+        int y = 0;
+        for (int i = index; remaining > 0; i++) {
+            int[] segment = mSkyline.get(i);
+            y = Math.max(y, segment[1]);
+            remaining -= segment[2];
+        }
+        return y;
+    }
+
+    /**
+     * 在index处插入新的线段，并截掉被它覆盖的线段
+     */
+    private void addLevel(int index, int x, int y, int width) {
+        mSkyline.add(index, new int[] { x, y, width });
+        int right = x + width;
+        int i = index + 1;
+        while (i < mSkyline.size()) {
+            int[] segment = mSkyline.get(i);
+            if (segment[0] >= right) {
+                break;
+            }
+            int segmentRight = segment[0] + segment[2];
+            if (segmentRight <= right) {
+                mSkyline.remove(i);
+            } else {
+                segment[2] = segmentRight - right;
+                segment[0] = right;
+                break;
+            }
+        }
+        // 合并高度相同的相邻线段
+        for (i = 0; i < mSkyline.size() - 1; ) {
+            int[] current = mSkyline.get(i);
+            int[] next = mSkyline.get(i + 1);
+            if (current[1] == next[1]) {
+                current[2] += next[2];
+                mSkyline.remove(i + 1);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 已经使用的高度，可以用来裁剪装箱的高度
+     * @return
+     */
+    public int getUsedHeight() {
+        return mUsedHeight;
+    }
+
+    /**
+     * 已装入矩形的面积
+     * @return
+     */
+    public long getUsedArea() {
+        return mUsedArea;
+    }
+
+    /**
+     * 装箱的利用率，按已使用的高度计算
+     * @return 0 ~ 1
+     */
+    public float getOccupancy() {
+        return mUsedHeight == 0 ? 0 : (float) mUsedArea / ((long) mWidth * mUsedHeight);
+    }
+}
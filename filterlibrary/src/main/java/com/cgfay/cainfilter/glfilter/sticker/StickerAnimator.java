@@ -0,0 +1,200 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+/**
+ * 贴纸动画的播放状态机
+ * 按SurfaceTexture的时间戳(ns)计算当前帧，预览掉到15fps或者录制时帧率变化，动画的速度都不变
+ * 支持循环播放和动作触发(张嘴、眨眼)：
+ * 1、没有触发动作时，第一次更新开始播放，循环播放一直播放，不循环时停在最后一帧
+ * 2、有触发动作时，动作开始(上升沿)才开始播放，不循环的播完一遍后隐藏，等待下一次动作；
+ *    循环的在动作保持期间一直播放，动作结束后播完当前这一遍再隐藏
+ * 时间戳回退或者间隔过大(切换相机、暂停预览)时，从上一次显示的位置继续播放，不会跳帧
+ * 另外给出接下来K帧的预取窗口，渲染线程据此提前请求帧所在的图集页
+ * 本类不依赖Android，可以在JVM上测试
+ * Created by cain on 2018/3/25.
+ */
+public final class StickerAnimator {
+
+    // 触发动作，按位组合
+    public static final int ACTION_NONE = 0;
+    // 张嘴
+    public static final int ACTION_MOUTH_OPEN = 1;
+    // 眨眼(闭眼)
+    public static final int ACTION_EYE_BLINK = 1 << 1;
+
+    // 等待触发，不显示
+    public static final int STATE_WAITING = 0;
+    // 播放中
+    public static final int STATE_PLAYING = 1;
+    // 不循环、没有触发动作的动画播放完，停在最后一帧
+    public static final int STATE_FINISHED = 2;
+
+    // 默认预取的帧数
+    public static final int DEFAULT_PREFETCH_FRAMES = 4;
+    // 相邻两次更新的最大间隔，超过时视为时间戳不连续
+    public static final long MAX_FRAME_INTERVAL_NS = 500 * 1000000L;
+
+    private final StickerFrameTimeline mTimeline;
+    private final int mTriggerAction;
+    private final int mPrefetchCount;
+
+    private int mState = STATE_WAITING;
+    // 开始播放的时间戳(ns)
+    private long mStartTime;
+    // 上一次更新的时间戳(ns)
+    private long mLastTimestamp;
+    private boolean mHasTimestamp;
+    // 上一次更新的动作
+    private int mLastActions;
+    // 循环动画在动作结束后停止的时间(ms)，-1表示不停止
+    private long mStopTime = -1;
+    // 当前帧，-1表示不显示
+    private int mFrameIndex = -1;
+
+    public StickerAnimator(StickerFrameTimeline timeline) {
+        this(timeline, ACTION_NONE, DEFAULT_PREFETCH_FRAMES);
+    }
+
+    /**
+     * @param timeline 帧时间轴
+     * @param triggerAction 触发动作，ACTION_NONE表示直接播放
+     * @param prefetchCount 预取的帧数
+     */
+    public StickerAnimator(StickerFrameTimeline timeline, int triggerAction, int prefetchCount) {
+        if (prefetchCount < 0) {
+            throw new IllegalArgumentException("invalid prefetch count: " + prefetchCount);
+        }
+        mTimeline = timeline;
+        mTriggerAction = triggerAction;
+        mPrefetchCount = prefetchCount;
+    }
+
+    /**
+     * 按时间戳更新状态
+     * @param timestamp 当前帧的时间戳(ns)
+     * @param actions 当前检测到的动作，ACTION_*按位组合
+     * @return 要显示的帧，-1表示不显示
+     */
+    public int update(long timestamp, int actions) {
+        if (mHasTimestamp) {
+            long interval = timestamp - mLastTimestamp;
+            if (interval < 0 || interval > MAX_FRAME_INTERVAL_NS) {
+                // 时间戳不连续，平移开始时间，保持已经播放的时长
+                mStartTime += interval;
+            }
+        }
+        mLastTimestamp = timestamp;
+        mHasTimestamp = true;
+
+        boolean held = (actions & mTriggerAction) != 0;
+        boolean triggered = held && (mLastActions & mTriggerAction) == 0;
+        mLastActions = actions;
+
+        if (mState == STATE_FINISHED) {
+            return mFrameIndex;
+        }
+        if (mState == STATE_WAITING) {
+            if (mTriggerAction != ACTION_NONE && !triggered) {
+                return mFrameIndex;
+            }
+            mState = STATE_PLAYING;
+            mStartTime = timestamp;
+            mStopTime = -1;
+        }
+
+        long elapsed = (timestamp - mStartTime) / 1000000L;
+        long duration = mTimeline.getDuration();
+        if (mTimeline.isLooping()) {
+            if (mTriggerAction != ACTION_NONE) {
+                if (held) {
+                    mStopTime = -1;
+                } else if (mStopTime < 0) {
+                    // 动作结束，播完当前这一遍
+                    mStopTime = (elapsed / duration + 1) * duration;
+                }
+            }
+            if (mStopTime >= 0 && elapsed >= mStopTime) {
+                return stop();
+            }
+        } else if (elapsed >= duration) {
+            if (mTriggerAction == ACTION_NONE) {
+                mState = STATE_FINISHED;
+                mFrameIndex = mTimeline.getFrameCount() - 1;
+                return mFrameIndex;
+            }
+            return stop();
+        }
+        mFrameIndex = mTimeline.getFrameIndex(elapsed);
+        return mFrameIndex;
+    }
+
+    /**
+     * 回到等待触发的状态
+     */
+    private int stop() {
+        mState = STATE_WAITING;
+        mFrameIndex = -1;
+        return mFrameIndex;
+    }
+
+    /**
+     * 接下来要显示的帧，按播放顺序排列，不包括当前帧
+     * 等待触发时是开头的几帧，触发之后可以马上显示
+     * @param frames 输出的帧索引
+     * @return 写入的帧数，不超过预取帧数和数组长度
+     */
+    public int getPrefetchFrames(int[] frames) {
+        if (mState == STATE_FINISHED) {
+            return 0;
+        }
+        int frameCount = mTimeline.getFrameCount();
+        int limit = Math.min(mPrefetchCount, frames.length);
+        int count = 0;
+        if (mState == STATE_WAITING) {
+            while (count < limit && count < frameCount) {
+                frames[count] = count;
+                count++;
+            }
+            return count;
+        }
+        // 循环播放和有触发动作的动画播完之后都会回到第一帧
+        boolean wrap = mTimeline.isLooping() || mTriggerAction != ACTION_NONE;
+        for (int i = 1; count < limit && i < frameCount; i++) {
+            int frame = mFrameIndex + i;
+            if (frame >= frameCount) {
+                if (!wrap) {
+                    break;
+                }
+                frame -= frameCount;
+            }
+            frames[count++] = frame;
+        }
+        return count;
+    }
+
+    /**
+     * 重置到初始状态，下一次更新重新计时
+     */
+    public void reset() {
+        mState = STATE_WAITING;
+        mHasTimestamp = false;
+        mLastActions = ACTION_NONE;
+        mStopTime = -1;
+        mFrameIndex = -1;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public int getFrameIndex() {
+        return mFrameIndex;
+    }
+
+    public int getTriggerAction() {
+        return mTriggerAction;
+    }
+
+    public StickerFrameTimeline getTimeline() {
+        return mTimeline;
+    }
+}
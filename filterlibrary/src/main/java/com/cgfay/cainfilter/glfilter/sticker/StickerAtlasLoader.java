@@ -0,0 +1,257 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import com.cgfay.cainfilter.camerarender.ParamsManager;
+import com.cgfay.cainfilter.gles.GLTextureLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 贴纸图集页的合成
+ * 图集页以"atlas://<图集>#<页>"为键交给GLTextureLoader加载，图集由一个或多个部位组成，
+ * 格式为"<帧路径前缀>?<帧数>;<帧路径前缀>?<帧数>..."，同一个贴纸的所有部位共用一个图集，
+ * 合批绘制时所有部位使用同一个纹理。图集中的帧按部位依次编号，每个部位的帧从前面部位的帧数之和开始
+ * 在解码线程中读取全部帧的尺寸计算布局，把属于这一页的帧解码后画到图集页上，上传线程再整页上传
+ * 布局按图集缓存，渲染线程在第一页加载完成之后通过peekLayout拿到帧的UV
+ * Created by cain on 2018/3/25.
+ */
+public final class StickerAtlasLoader {
+
+    private static final String TAG = "StickerAtlasLoader";
+
+    public static final String SCHEME = "atlas";
+
+    // 图集中部位之间的分隔符
+    private static final String PART_SEPARATOR = ";";
+
+    // 已经计算好的布局，键为图集
+    private static final HashMap<String, StickerFrameAtlas> mLayouts =
+            new HashMap<String, StickerFrameAtlas>();
+
+    private static boolean mRegistered;
+
+    private static final GLTextureLoader.BitmapDecoder mDecoder =
+            new GLTextureLoader.BitmapDecoder() {
+        @Override
+        public Bitmap decode(String path) {
+            int pageIndex = path.lastIndexOf('#');
+            if (pageIndex < 0) {
+                Log.e(TAG, "invalid atlas key: " + path);
+                return null;
+            }
+            String atlas = path.substring(0, pageIndex);
+            String[] parts = atlas.split(PART_SEPARATOR);
+            String[] prefixes = new String[parts.length];
+            int[] frameCounts = new int[parts.length];
+            try {
+                for (int i = 0; i < parts.length; i++) {
+                    int countIndex = parts[i].lastIndexOf('?');
+                    if (countIndex < 0) {
+                        Log.e(TAG, "invalid atlas key: " + path);
+                        return null;
+                    }
+                    prefixes[i] = parts[i].substring(0, countIndex);
+                    frameCounts[i] = Integer.parseInt(parts[i].substring(countIndex + 1));
+                }
+                int page = Integer.parseInt(path.substring(pageIndex + 1));
+                return decodePage(atlas, prefixes, frameCounts, page);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "invalid atlas key: " + path, e);
+                return null;
+            }
+        }
+    };
+
+    private StickerAtlasLoader() {}
+
+    /**
+     * 向GLTextureLoader注册图集页的解码器，重复调用无效
+     */
+    public static synchronized void register() {
+        if (!mRegistered) {
+            GLTextureLoader.registerDecoder(SCHEME, mDecoder);
+            mRegistered = true;
+        }
+    }
+
+    /**
+     * 帧图片在assets中的路径，例如stickers/tou/tou_000.png
+     * @param prefix
+     * @param index
+     * @return
+     */
+    public static String getFramePath(String prefix, int index) {
+        if (index >= 1000) {
+            // 超过1000张贴纸动画不支持
+            throw new IllegalStateException("cannot find sticker path!");
+        }
+        return prefix + String.format(Locale.US, "%03d", index) + ".png";
+    }
+
+    /**
+     * 一个部位在图集中的描述
+     * @param prefix 帧路径前缀
+     * @param frameCount 帧数
+     * @return
+     */
+    public static String getAtlasPart(String prefix, int frameCount) {
+        return prefix + "?" + frameCount;
+    }
+
+    /**
+     * 把多个部位合成一个图集
+     * @param parts getAtlasPart返回的部位描述，按帧编号的顺序排列
+     * @return
+     */
+    public static String joinAtlasParts(List<String> parts) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) {
+                builder.append(PART_SEPARATOR);
+            }
+            builder.append(parts.get(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 图集页的键
+     * @param atlas 图集
+     * @param page 页索引
+     * @return
+     */
+    public static String getPageKey(String atlas, int page) {
+        return SCHEME + "://" + atlas + "#" + page;
+    }
+
+    /**
+     * 获取已经计算好的布局，不读取文件
+     * @param atlas
+     * @return 还没有计算时返回null
+     */
+    public static StickerFrameAtlas peekLayout(String atlas) {
+        synchronized (mLayouts) {
+            return mLayouts.get(atlas);
+        }
+    }
+
+    /**
+     * 读取所有部位全部帧的尺寸并计算布局，在解码线程调用
+     */
+    private static StickerFrameAtlas loadLayout(String key, String[] prefixes,
+                                                int[] frameCounts) {
+        StickerFrameAtlas atlas = peekLayout(key);
+        if (atlas != null) {
+            return atlas;
+        }
+        int total = 0;
+        for (int frameCount : frameCounts) {
+            total += frameCount;
+        }
+        AssetManager assets = ParamsManager.context.getAssets();
+        int[] widths = new int[total];
+        int[] heights = new int[total];
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        int frame = 0;
+        for (int part = 0; part < prefixes.length; part++) {
+            for (int i = 0; i < frameCounts[part]; i++, frame++) {
+                String path = getFramePath(prefixes[part], i);
+                options.outWidth = 0;
+                options.outHeight = 0;
+                InputStream is = null;
+                try {
+                    is = assets.open(path);
+                    BitmapFactory.decodeStream(is, null, options);
+                } catch (IOException e) {
+                    Log.e(TAG, "unable to read frame: " + path, e);
+                    return null;
+                } finally {
+                    closeQuietly(is);
+                }
+                if (options.outWidth <= 0 || options.outHeight <= 0) {
+                    return null;
+                }
+                widths[frame] = options.outWidth;
+                heights[frame] = options.outHeight;
+            }
+        }
+        atlas = StickerFrameAtlas.create(widths, heights);
+        if (atlas == null) {
+            Log.e(TAG, "sticker frames exceed atlas budget: " + key);
+            return null;
+        }
+        synchronized (mLayouts) {
+            mLayouts.put(key, atlas);
+        }
+        return atlas;
+    }
+
+    /**
+     * 合成一页图集
+     */
+    private static Bitmap decodePage(String key, String[] prefixes, int[] frameCounts,
+                                     int page) {
+        StickerFrameAtlas atlas = loadLayout(key, prefixes, frameCounts);
+        if (atlas == null || page >= atlas.getPageCount()) {
+            return null;
+        }
+        Bitmap pageBitmap = Bitmap.createBitmap(atlas.getPageWidth(page),
+                atlas.getPageHeight(page), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(pageBitmap);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = atlas.getSampleSize();
+        AssetManager assets = ParamsManager.context.getAssets();
+        Rect dst = new Rect();
+        int index = 0;
+        for (int part = 0; part < prefixes.length; part++) {
+            for (int i = 0; i < frameCounts[part]; i++, index++) {
+                if (atlas.getFramePage(index) != page) {
+                    continue;
+                }
+                String path = getFramePath(prefixes[part], i);
+                Bitmap frame = null;
+                InputStream is = null;
+                try {
+                    is = assets.open(path);
+                    frame = BitmapFactory.decodeStream(is, null, options);
+                } catch (IOException e) {
+                    Log.e(TAG, "unable to decode frame: " + path, e);
+                } finally {
+                    closeQuietly(is);
+                }
+                if (frame == null) {
+                    pageBitmap.recycle();
+                    return null;
+                }
+                RectPacker.Rect rect = atlas.getFrameRect(index);
+                dst.set(rect.x, rect.y, rect.x + rect.width, rect.y + rect.height);
+                canvas.drawBitmap(frame, null, dst, paint);
+                frame.recycle();
+            }
+        }
+        return pageBitmap;
+    }
+
+    private static void closeQuietly(InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 贴纸帧图集布局
+ * 一个动画的全部帧只解码一次，用RectPacker装进一张或几张图集页，渲染时只切换页的纹理和帧的UV，
+ * 不再每帧解码PNG、上传纹理
+ * 图集页按RGBA计算内存，超出预算时按2、4倍降采样重新布局(对应BitmapFactory的inSampleSize)，
+ * 仍然超出时返回null
+ * 本类只计算布局，不依赖Android，可以在JVM上测试，图集页的合成与上传见StickerAtlasLoader
+ * Created by cain on 2018/3/25.
+ */
+public final class StickerFrameAtlas {
+
+    // 图集页的最大边长，GLES2设备普遍支持2048
+    public static final int DEFAULT_MAX_PAGE_SIZE = 2048;
+    // 帧之间的间隔像素
+    public static final int DEFAULT_PADDING = 2;
+    // 一个动画的图集页的内存预算
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    // 依次尝试的降采样倍数
+    private static final int[] SAMPLE_SIZES = { 1, 2, 4 };
+    // 按列数计算的候选页宽的最大个数
+    private static final int MAX_COLUMN_CANDIDATES = 32;
+
+    private final int mSampleSize;
+    private final int[] mPageWidths;
+    private final int[] mPageHeights;
+    private final int[] mFramePages;
+    private final RectPacker.Rect[] mFrameRects;
+    private final long mUsedArea;
+
+    private StickerFrameAtlas(int sampleSize, int[] pageWidths, int[] pageHeights,
+                              int[] framePages, RectPacker.Rect[] frameRects, long usedArea) {
+        mSampleSize = sampleSize;
+        mPageWidths = pageWidths;
+        mPageHeights = pageHeights;
+        mFramePages = framePages;
+        mFrameRects = frameRects;
+        mUsedArea = usedArea;
+    }
+
+    /**
+     * 使用默认的页大小、间隔和预算计算布局
+     */
+    public static StickerFrameAtlas create(int[] widths, int[] heights) {
+        return create(widths, heights, DEFAULT_MAX_PAGE_SIZE, DEFAULT_PADDING, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * 计算图集布局
+     * @param widths 每一帧原图的宽度
+     * @param heights 每一帧原图的高度
+     * @param maxPageSize 图集页的最大边长
+     * @param padding 帧之间的间隔
+     * @param maxBytes 图集页的内存预算
+     * @return 布局，降采样之后仍然超出预算时返回null
+     */
+    public static StickerFrameAtlas create(int[] widths, int[] heights, int maxPageSize,
+                                           int padding, long maxBytes) {
+        if (widths.length != heights.length || widths.length == 0) {
+            throw new IllegalArgumentException("invalid frame sizes: " + widths.length
+                    + ", " + heights.length);
+        }
+        for (int sampleSize : SAMPLE_SIZES) {
+            StickerFrameAtlas atlas = layout(widths, heights, sampleSize, maxPageSize, padding);
+            if (atlas != null && atlas.getByteSize() <= maxBytes) {
+                return atlas;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 尝试不同的页宽，选出页数最少的布局，页数相同时选占用内存最少的，页数越少切换纹理越少
+     * 候选页宽包括2的幂和最宽的帧正好排满k列的宽度，贴纸帧一般尺寸相同，后者几乎没有浪费
+     */
+    private static StickerFrameAtlas layout(int[] widths, int[] heights, int sampleSize,
+                                            int maxPageSize, int padding) {
+        int maxWidth = 0;
+        for (int width : widths) {
+            maxWidth = Math.max(maxWidth, sampledSize(width, sampleSize));
+        }
+        if (maxWidth > maxPageSize) {
+            return null;
+        }
+        List<Integer> candidates = new ArrayList<Integer>();
+        for (int width = Integer.highestOneBit(maxWidth); width <= maxPageSize; width <<= 1) {
+            if (width >= maxWidth) {
+                candidates.add(width);
+            }
+        }
+        int column = maxWidth + padding;
+        int step = Math.max(1, maxPageSize / column / MAX_COLUMN_CANDIDATES);
+        for (int columns = 1; columns * column - padding <= maxPageSize; columns += step) {
+            candidates.add(columns * column - padding);
+        }
+        StickerFrameAtlas best = null;
+        for (int pageWidth : candidates) {
+            StickerFrameAtlas atlas = layout(widths, heights, sampleSize, pageWidth,
+                    maxPageSize, padding);
+            if (atlas == null) {
+                continue;
+            }
+            if (best == null || atlas.getPageCount() < best.getPageCount()
+                    || (atlas.getPageCount() == best.getPageCount()
+                    && atlas.getByteSize() < best.getByteSize())) {
+                best = atlas;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 降采样之后的边长，与BitmapFactory一样向下取整
+     */
+    public static int sampledSize(int size, int sampleSize) {
+        return Math.max(1, size / sampleSize);
+    }
+
+    private static StickerFrameAtlas layout(int[] widths, int[] heights, int sampleSize,
+                                            int pageWidth, int maxPageSize, int padding) {
+        final int count = widths.length;
+        final int[] sampledWidths = new int[count];
+        final int[] sampledHeights = new int[count];
+        for (int i = 0; i < count; i++) {
+            sampledWidths[i] = sampledSize(widths[i], sampleSize);
+            sampledHeights[i] = sampledSize(heights[i], sampleSize);
+            if (sampledHeights[i] > maxPageSize) {
+                return null;
+            }
+        }
+
+        // 先放高的帧，天际线更平整
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (sampledHeights[a] != sampledHeights[b]) {
+                    return sampledHeights[b] - sampledHeights[a];
+                }
+                return a - b;
+            }
+        });
+
+        int[] framePages = new int[count];
+        RectPacker.Rect[] frameRects = new RectPacker.Rect[count];
+        List<RectPacker> pages = new ArrayList<RectPacker>();
+        RectPacker packer = new RectPacker(pageWidth, maxPageSize, padding);
+        pages.add(packer);
+        long usedArea = 0;
+        for (Integer index : order) {
+            RectPacker.Rect rect = packer.insert(sampledWidths[index], sampledHeights[index]);
+            if (rect == null) {
+                // 当前页已满，开始新的一页
+                packer = new RectPacker(pageWidth, maxPageSize, padding);
+                pages.add(packer);
+                rect = packer.insert(sampledWidths[index], sampledHeights[index]);
+            }
+            framePages[index] = pages.size() - 1;
+            frameRects[index] = rect;
+            usedArea += (long) rect.width * rect.height;
+        }
+        int[] pageWidths = new int[pages.size()];
+        int[] pageHeights = new int[pages.size()];
+        // 页高按实际使用裁剪
+        for (int i = 0; i < pages.size(); i++) {
+            pageWidths[i] = pageWidth;
+            pageHeights[i] = pages.get(i).getUsedHeight();
+        }
+        return new StickerFrameAtlas(sampleSize, pageWidths, pageHeights,
+                framePages, frameRects, usedArea);
+    }
+
+    /**
+     * 帧的纹理坐标，顺序与GLStickerItemFilter的顶点一致：左下、右下、左上、右上
+     * 图集页按Bitmap的行顺序上传，第0行对应t = 0
+     * @param frame 帧索引
+     * @param coords 输出的8个浮点数
+     * @param offset
+     */
+    public void getTextureCoords(int frame, float[] coords, int offset) {
+        RectPacker.Rect rect = mFrameRects[frame];
+        int page = mFramePages[frame];
+        float width = mPageWidths[page];
+        float height = mPageHeights[page];
+        float left = rect.x / width;
+        float right = (rect.x + rect.width) / width;
+        float top = rect.y / height;
+        float bottom = (rect.y + rect.height) / height;
+        coords[offset] = left;
+        coords[offset + 1] = bottom;
+        coords[offset + 2] = right;
+        coords[offset + 3] = bottom;
+        coords[offset + 4] = left;
+        coords[offset + 5] = top;
+        coords[offset + 6] = right;
+        coords[offset + 7] = top;
+    }
+
+    public int getFrameCount() {
+        return mFrameRects.length;
+    }
+
+    /**
+     * 帧所在的图集页
+     * @param frame
+     * @return
+     */
+    public int getFramePage(int frame) {
+        return mFramePages[frame];
+    }
+
+    /**
+     * 帧在图集页中的位置，按降采样之后的像素计算
+     * @param frame
+     * @return
+     */
+    public RectPacker.Rect getFrameRect(int frame) {
+        return mFrameRects[frame];
+    }
+
+    public int getPageCount() {
+        return mPageWidths.length;
+    }
+
+    public int getPageWidth(int page) {
+        return mPageWidths[page];
+    }
+
+    public int getPageHeight(int page) {
+        return mPageHeights[page];
+    }
+
+    /**
+     * 降采样倍数，1表示原图大小
+     * @return
+     */
+    public int getSampleSize() {
+        return mSampleSize;
+    }
+
+    /**
+     * 全部图集页按RGBA计算的字节数
+     * @return
+     */
+    public long getByteSize() {
+        long bytes = 0;
+        for (int i = 0; i < mPageWidths.length; i++) {
+            bytes += (long) mPageWidths[i] * mPageHeights[i] * 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * 图集页的利用率，帧的面积占图集页总面积的比例
+     * @return 0 ~ 1
+     */
+    public float getOccupancy() {
+        long total = getByteSize() / 4;
+        return total == 0 ? 0 : (float) mUsedArea / total;
+    }
+}
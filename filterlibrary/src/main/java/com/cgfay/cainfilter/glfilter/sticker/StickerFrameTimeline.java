@@ -0,0 +1,95 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+/**
+ * 贴纸帧的时间轴，按开始播放之后经过的时间计算当前帧，与渲染帧率无关
+ * 本类不依赖Android，可以在JVM上测试
+ * Created by cain on 2018/3/25.
+ */
+public final class StickerFrameTimeline {
+
+    // 默认每帧的时长，与相机预览的帧率接近
+    public static final long DEFAULT_FRAME_DURATION_MS = 1000 / 30;
+
+    private final int mFrameCount;
+    private final long mFrameDuration;
+    private final boolean mLooping;
+
+    public StickerFrameTimeline(int frameCount) {
+        this(frameCount, DEFAULT_FRAME_DURATION_MS, true);
+    }
+
+    /**
+     * @param frameCount 帧数
+     * @param frameDuration 每帧的时长(ms)
+     * @param looping 是否循环播放，不循环时停在最后一帧
+     */
+    public StickerFrameTimeline(int frameCount, long frameDuration, boolean looping) {
+        if (frameCount <= 0 || frameDuration <= 0) {
+            throw new IllegalArgumentException("invalid timeline: " + frameCount
+                    + " frames, " + frameDuration + " ms");
+        }
+        mFrameCount = frameCount;
+        mFrameDuration = frameDuration;
+        mLooping = looping;
+    }
+
+    /**
+     * 按贴纸声明的总时长创建时间轴，每帧时长向下取整，至少1ms
+     * @param frameCount 帧数
+     * @param duration 播放一遍的时长(ms)
+     * @param looping 是否循环播放
+     * @return
+     */
+    public static StickerFrameTimeline withDuration(int frameCount, long duration, boolean looping) {
+        if (frameCount <= 0 || duration <= 0) {
+            throw new IllegalArgumentException("invalid timeline: " + frameCount
+                    + " frames, " + duration + " ms in total");
+        }
+        return new StickerFrameTimeline(frameCount, Math.max(1, duration / frameCount), looping);
+    }
+
+    /**
+     * 经过elapsed毫秒之后显示的帧
+     * @param elapsed 开始播放之后经过的时间(ms)
+     * @return 帧索引
+     */
+    public int getFrameIndex(long elapsed) {
+        if (elapsed <= 0) {
+            return 0;
+        }
+        long index = elapsed / mFrameDuration;
+        if (mLooping) {
+            return (int) (index % mFrameCount);
+        }
+        return (int) Math.min(index, mFrameCount - 1);
+    }
+
+    /**
+     * 不循环的动画是否已经播放完
+     * @param elapsed
+     * @return
+     */
+    public boolean isFinished(long elapsed) {
+        return !mLooping && elapsed >= getDuration();
+    }
+
+    /**
+     * 播放一遍的时长(ms)
+     * @return
+     */
+    public long getDuration() {
+        return mFrameDuration * mFrameCount;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getFrameDuration() {
+        return mFrameDuration;
+    }
+
+    public boolean isLooping() {
+        return mLooping;
+    }
+}
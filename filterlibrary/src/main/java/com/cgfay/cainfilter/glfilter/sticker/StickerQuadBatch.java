@@ -0,0 +1,346 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+/**
+ * 贴纸四边形的合批
+ * 每一帧把所有人脸上的所有贴纸部位在CPU上变换到裁剪坐标，写入同一个顶点数组，
+ * 渲染时只上传一次顶点，每个纹理只绘制一次，不再每个部位、每个人脸单独计算矩阵、绑定和绘制
+ * 变换与GLStickerItemFilter.calculateMVPMatrix一致：
+ * MVP = Projection * View * Rx(pitch) * Ry(yaw) * Rz(roll)，裁剪坐标 = MVP * (x, y, z, 1)
+ * 顶点格式为裁剪坐标xyzw + 纹理坐标st，绘制时uMVPMatrix设为单位矩阵
+ * 按部位依次添加时，同一部位在不同人脸上的四边形使用同一个纹理，相邻且纹理相同的四边形合并为一次绘制，
+ * 所有部位在同一页图集时只需要一次绘制
+ * 顶点数组只在容量不够时扩容，之后每一帧都不分配内存
+ * 本类不依赖Android，可以在JVM上测试，只在渲染线程使用
+ * Created by cain on 2018/3/25.
+ */
+public final class StickerQuadBatch {
+
+    // 顶点格式
+    public static final int POSITION_SIZE = 4;
+    public static final int TEXTURE_SIZE = 2;
+    public static final int VERTEX_SIZE = POSITION_SIZE + TEXTURE_SIZE;
+    public static final int STRIDE = VERTEX_SIZE * 4;
+    public static final int TEXTURE_OFFSET = POSITION_SIZE * 4;
+    // 每个四边形拆成两个三角形，用GL_TRIANGLES绘制
+    public static final int VERTICES_PER_QUAD = 6;
+
+    // 输入四边形的顶点顺序与GLStickerItemFilter一致：左下、右下、左上、右上
+    private static final int[] QUAD_INDICES = { 0, 1, 2, 2, 1, 3 };
+
+    // 投影矩阵 * 视图矩阵
+    private final float[] mViewProjection = new float[16];
+    // 模型矩阵的旋转部分，按列存放
+    private final float[] mRotation = new float[9];
+    private final float[] mTemp = new float[9];
+    private final float[] mMVPMatrix = new float[16];
+    // 四边形四个顶点的裁剪坐标
+    private final float[] mClipCoords = new float[16];
+
+    private float[] mData;
+    private int[] mQuadTextures;
+    private int mQuadCount;
+
+    // 相邻且纹理相同的四边形
+    private int[] mRunTextures;
+    private int[] mRunFirstQuads;
+    private int[] mRunQuadCounts;
+    private int mRunCount;
+
+    public StickerQuadBatch() {
+        this(16);
+    }
+
+    /**
+     * @param capacity 初始的四边形容量，超出时扩容
+     */
+    public StickerQuadBatch(int capacity) {
+        capacity = Math.max(1, capacity);
+        mData = new float[capacity * VERTICES_PER_QUAD * VERTEX_SIZE];
+        mQuadTextures = new int[capacity];
+        mRunTextures = new int[capacity];
+        mRunFirstQuads = new int[capacity];
+        mRunQuadCounts = new int[capacity];
+        setAspectRatio(1.0f);
+    }
+
+    /**
+     * 输入图像的宽高比变化时重新计算投影，与GLStickerItemFilter.onInputSizeChanged一致
+     * @param aspectRatio 宽 / 高
+     */
+    public void setAspectRatio(float aspectRatio) {
+        float[] view = new float[16];
+        float[] projection = new float[16];
+        // 相机在(0, 0, -4)看向原点
+        setLookAt(view, 0, 0, -4, 0, 0, 0, 0, 1, 0);
+        setFrustum(projection, -aspectRatio, aspectRatio, -1, 1, 2, 6);
+        multiply(mViewProjection, projection, view);
+    }
+
+    /**
+     * 开始新的一帧
+     */
+    public void begin() {
+        mQuadCount = 0;
+        mRunCount = 0;
+    }
+
+    /**
+     * 添加一个四边形
+     * @param texture 纹理
+     * @param pitch 绕X轴旋转的角度
+     * @param yaw 绕Y轴旋转的角度
+     * @param roll 绕Z轴旋转的角度
+     * @param positions 四个顶点的xyz坐标
+     * @param positionOffset
+     * @param textureCoords 四个顶点的纹理坐标
+     * @param textureOffset
+     */
+    public void addQuad(int texture, float pitch, float yaw, float roll,
+                        float[] positions, int positionOffset,
+                        float[] textureCoords, int textureOffset) {
+        ensureCapacity(mQuadCount + 1);
+        computeMVPMatrix(pitch, yaw, roll, mMVPMatrix, 0);
+        float[] m = mMVPMatrix;
+        for (int i = 0; i < 4; i++) {
+            int p = positionOffset + i * 3;
+            float x = positions[p];
+            float y = positions[p + 1];
+            float z = positions[p + 2];
+            for (int row = 0; row < 4; row++) {
+                mClipCoords[i * 4 + row] = m[row] * x + m[4 + row] * y + m[8 + row] * z
+                        + m[12 + row];
+            }
+        }
+        int out = mQuadCount * VERTICES_PER_QUAD * VERTEX_SIZE;
+        for (int index : QUAD_INDICES) {
+            mData[out] = mClipCoords[index * 4];
+            mData[out + 1] = mClipCoords[index * 4 + 1];
+            mData[out + 2] = mClipCoords[index * 4 + 2];
+            mData[out + 3] = mClipCoords[index * 4 + 3];
+            mData[out + 4] = textureCoords[textureOffset + index * 2];
+            mData[out + 5] = textureCoords[textureOffset + index * 2 + 1];
+            out += VERTEX_SIZE;
+        }
+        mQuadTextures[mQuadCount] = texture;
+        if (mRunCount > 0 && mRunTextures[mRunCount - 1] == texture) {
+            mRunQuadCounts[mRunCount - 1]++;
+        } else {
+            mRunTextures[mRunCount] = texture;
+            mRunFirstQuads[mRunCount] = mQuadCount;
+            mRunQuadCounts[mRunCount] = 1;
+            mRunCount++;
+        }
+        mQuadCount++;
+    }
+
+    /**
+     * 计算总变换矩阵，与GLStickerItemFilter.calculateMVPMatrix的结果相同
+     * @param pitch
+     * @param yaw
+     * @param roll
+     * @param matrix 输出的4x4矩阵，按列存放
+     * @param offset
+     */
+    public void computeMVPMatrix(float pitch, float yaw, float roll, float[] matrix, int offset) {
+        // Rx * Ry
+        double radians = Math.toRadians(pitch);
+        float sx = (float) Math.sin(radians);
+        float cx = (float) Math.cos(radians);
+        radians = Math.toRadians(yaw);
+        float sy = (float) Math.sin(radians);
+        float cy = (float) Math.cos(radians);
+        radians = Math.toRadians(roll);
+        float sz = (float) Math.sin(radians);
+        float cz = (float) Math.cos(radians);
+        float[] t = mTemp;
+        t[0] = cy;
+        t[1] = sx * sy;
+        t[2] = -cx * sy;
+        t[3] = 0;
+        t[4] = cx;
+        t[5] = sx;
+        t[6] = sy;
+        t[7] = -sx * cy;
+        t[8] = cx * cy;
+        // (Rx * Ry) * Rz
+        float[] r = mRotation;
+        for (int row = 0; row < 3; row++) {
+            r[row] = t[row] * cz + t[3 + row] * sz;
+            r[3 + row] = -t[row] * sz + t[3 + row] * cz;
+            r[6 + row] = t[6 + row];
+        }
+        // (Projection * View) * Model，模型矩阵没有平移
+        float[] vp = mViewProjection;
+        for (int column = 0; column < 3; column++) {
+            float r0 = r[column * 3];
+            float r1 = r[column * 3 + 1];
+            float r2 = r[column * 3 + 2];
+            for (int row = 0; row < 4; row++) {
+                matrix[offset + column * 4 + row] = vp[row] * r0 + vp[4 + row] * r1
+                        + vp[8 + row] * r2;
+            }
+        }
+        for (int row = 0; row < 4; row++) {
+            matrix[offset + 12 + row] = vp[12 + row];
+        }
+    }
+
+    private void ensureCapacity(int quads) {
+        if (quads <= mQuadTextures.length) {
+            return;
+        }
+        int capacity = Math.max(quads, mQuadTextures.length * 2);
+        float[] data = new float[capacity * VERTICES_PER_QUAD * VERTEX_SIZE];
+        System.arraycopy(mData, 0, data, 0, mQuadCount * VERTICES_PER_QUAD * VERTEX_SIZE);
+        mData = data;
+        mQuadTextures = copyOf(mQuadTextures, capacity, mQuadCount);
+        mRunTextures = copyOf(mRunTextures, capacity, mRunCount);
+        mRunFirstQuads = copyOf(mRunFirstQuads, capacity, mRunCount);
+        mRunQuadCounts = copyOf(mRunQuadCounts, capacity, mRunCount);
+    }
+
+    private static int[] copyOf(int[] values, int capacity, int count) {
+        int[] result = new int[capacity];
+        System.arraycopy(values, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * 与android.opengl.Matrix.setLookAtM相同
+     */
+    private static void setLookAt(float[] m, float eyeX, float eyeY, float eyeZ,
+                                  float centerX, float centerY, float centerZ,
+                                  float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+        // s = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+        // u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+        m[0] = sx;
+        m[1] = ux;
+        m[2] = -fx;
+        m[3] = 0.0f;
+        m[4] = sy;
+        m[5] = uy;
+        m[6] = -fy;
+        m[7] = 0.0f;
+        m[8] = sz;
+        m[9] = uz;
+        m[10] = -fz;
+        m[11] = 0.0f;
+        // 平移 -eye
+        for (int row = 0; row < 3; row++) {
+            m[12 + row] = -(m[row] * eyeX + m[4 + row] * eyeY + m[8 + row] * eyeZ);
+        }
+        m[15] = 1.0f;
+    }
+
+    /**
+     * 与android.opengl.Matrix.frustumM相同
+     */
+    private static void setFrustum(float[] m, float left, float right, float bottom, float top,
+                                   float near, float far) {
+        float rWidth = 1.0f / (right - left);
+        float rHeight = 1.0f / (top - bottom);
+        float rDepth = 1.0f / (near - far);
+        m[0] = 2.0f * (near * rWidth);
+        m[1] = 0.0f;
+        m[2] = 0.0f;
+        m[3] = 0.0f;
+        m[4] = 0.0f;
+        m[5] = 2.0f * (near * rHeight);
+        m[6] = 0.0f;
+        m[7] = 0.0f;
+        m[8] = (right + left) * rWidth;
+        m[9] = (top + bottom) * rHeight;
+        m[10] = (far + near) * rDepth;
+        m[11] = -1.0f;
+        m[12] = 0.0f;
+        m[13] = 0.0f;
+        m[14] = 2.0f * (far * near * rDepth);
+        m[15] = 0.0f;
+    }
+
+    /**
+     * result = lhs * rhs，按列存放
+     */
+    private static void multiply(float[] result, float[] lhs, float[] rhs) {
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[k * 4 + row] * rhs[column * 4 + k];
+                }
+                result[column * 4 + row] = sum;
+            }
+        }
+    }
+
+    /**
+     * 顶点数据，长度可能大于实际使用的部分
+     * @return
+     */
+    public float[] getData() {
+        return mData;
+    }
+
+    /**
+     * 实际使用的float个数
+     * @return
+     */
+    public int getFloatCount() {
+        return mQuadCount * VERTICES_PER_QUAD * VERTEX_SIZE;
+    }
+
+    public int getQuadCount() {
+        return mQuadCount;
+    }
+
+    public int getQuadTexture(int quad) {
+        return mQuadTextures[quad];
+    }
+
+    /**
+     * 合并之后的绘制次数
+     * @return
+     */
+    public int getRunCount() {
+        return mRunCount;
+    }
+
+    public int getRunTexture(int run) {
+        return mRunTextures[run];
+    }
+
+    /**
+     * 绘制的第一个顶点
+     * @param run
+     * @return
+     */
+    public int getRunFirstVertex(int run) {
+        return mRunFirstQuads[run] * VERTICES_PER_QUAD;
+    }
+
+    /**
+     * 绘制的顶点个数
+     * @param run
+     * @return
+     */
+    public int getRunVertexCount(int run) {
+        return mRunQuadCounts[run] * VERTICES_PER_QUAD;
+    }
+}
@@ -197,7 +197,8 @@ public class EncoderManager {
             mEglCore.release();
         }
         // 重新创建一个EglContext 和 Window Surface
-        mEglCore = new EglCore(eglContext, EglCore.FLAG_RECORDABLE);
+        // 与渲染上下文使用相同的GLES版本
+        mEglCore = new EglCore(eglContext, EglCore.FLAG_RECORDABLE | EglCore.FLAG_TRY_GLES3);
         if (mRecordWindowSurface != null) {
             mRecordWindowSurface.recreate(mEglCore);
         } else {
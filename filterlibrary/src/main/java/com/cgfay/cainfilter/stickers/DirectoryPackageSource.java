@@ -0,0 +1,34 @@
+package com.cgfay.cainfilter.stickers;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 解压到目录中的贴纸包
+ * Created by cain on 2018/3/25.
+ */
+public final class DirectoryPackageSource implements StickerPackageSource {
+
+    private final File mDirectory;
+
+    public DirectoryPackageSource(File directory) {
+        mDirectory = directory;
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        return new BufferedInputStream(new FileInputStream(new File(mDirectory, path)));
+    }
+
+    @Override
+    public void close() {
+        // 没有需要释放的资源
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+}
@@ -0,0 +1,433 @@
+package com.cgfay.cainfilter.stickers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 流式JSON读取器，接口与android.util.JsonReader相同，按顺序拉取记号，不构建整棵树
+ * 贴纸包的清单可能很大，只读取需要的字段，其余的用skipValue跳过
+ * android.util.JsonReader在JVM的单元测试中不可用，因此单独实现，本类不依赖Android
+ * Created by cain on 2018/3/25.
+ */
+public final class JsonStreamReader implements Closeable {
+
+    /**
+     * 下一个记号的类型
+     */
+    public enum Token {
+        BEGIN_ARRAY,
+        END_ARRAY,
+        BEGIN_OBJECT,
+        END_OBJECT,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    // 嵌套的作用域
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[1024];
+    private int mPosition;
+    private int mLimit;
+    // 已经读过的字符数，用于错误信息
+    private long mOffset;
+
+    private int[] mStack = new int[32];
+    private int mStackSize;
+
+    // 已经解析但还没有消费的记号
+    private Token mToken;
+    // 记号的值，名称、字符串、数字和布尔值
+    private String mValue;
+
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    public JsonStreamReader(Reader reader) {
+        if (reader == null) {
+            throw new NullPointerException("reader == null");
+        }
+        mReader = reader;
+        push(EMPTY_DOCUMENT);
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        mStackSize--;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        mStackSize--;
+    }
+
+    /**
+     * 当前数组或对象是否还有元素
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return mValue;
+    }
+
+    /**
+     * 读取字符串，数字也按原文返回
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw syntaxError("expected a string but was " + token);
+        }
+        mToken = null;
+        return mValue;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return "true".equals(mValue);
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * 读取数字，字符串形式的数字也可以读取
+     */
+    public double nextDouble() throws IOException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw syntaxError("expected a number but was " + token);
+        }
+        try {
+            double value = Double.parseDouble(mValue);
+            mToken = null;
+            return value;
+        } catch (NumberFormatException e) {
+            throw syntaxError("invalid number: " + mValue);
+        }
+    }
+
+    public long nextLong() throws IOException {
+        double value = nextDouble();
+        long result = (long) value;
+        if (result != value) {
+            throw syntaxError("expected a long but was " + mValue);
+        }
+        return result;
+    }
+
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw syntaxError("expected an int but was " + mValue);
+        }
+        return (int) value;
+    }
+
+    /**
+     * 跳过下一个值，包括嵌套的数组和对象
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("unexpected end of document");
+                default:
+                    mToken = null;
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * 下一个记号的类型，不消费
+     */
+    public Token peek() throws IOException {
+        if (mToken != null) {
+            return mToken;
+        }
+        int scope = mStack[mStackSize - 1];
+        switch (scope) {
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                return mToken = readValue(nextNonWhitespace());
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("multiple top-level values");
+                }
+                return mToken = Token.END_DOCUMENT;
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY: {
+                int c = nextNonWhitespace();
+                if (c == ']') {
+                    return mToken = Token.END_ARRAY;
+                }
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c != ',') {
+                        throw syntaxError("unterminated array");
+                    }
+                    c = nextNonWhitespace();
+                }
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                return mToken = readValue(c);
+            }
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT: {
+                int c = nextNonWhitespace();
+                if (c == '}') {
+                    return mToken = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("unterminated object");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("expected a name");
+                }
+                mValue = readString();
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("expected ':'");
+                }
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                return mToken = Token.NAME;
+            }
+            case DANGLING_NAME:
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                return mToken = readValue(nextNonWhitespace());
+            default:
+                throw new IllegalStateException("invalid scope: " + scope);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mToken = null;
+        mStackSize = 0;
+        mReader.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("expected " + expected + " but was " + token);
+        }
+        mToken = null;
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] stack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, stack, 0, mStackSize);
+            mStack = stack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    /**
+     * 读取以c开头的值，数组和对象只读取开始的括号
+     */
+    private Token readValue(int c) throws IOException {
+        switch (c) {
+            case -1:
+                throw syntaxError("unexpected end of document");
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                mValue = readString();
+                return Token.STRING;
+            case 't':
+                readKeyword("rue");
+                mValue = "true";
+                return Token.BOOLEAN;
+            case 'f':
+                readKeyword("alse");
+                mValue = "false";
+                return Token.BOOLEAN;
+            case 'n':
+                readKeyword("ull");
+                mValue = null;
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    mValue = readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw syntaxError("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void readKeyword(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntaxError("invalid literal");
+            }
+        }
+    }
+
+    private String readNumber(char first) throws IOException {
+        mBuilder.setLength(0);
+        mBuilder.append(first);
+        while (true) {
+            int c = peekChar();
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E'
+                    || c == '+' || c == '-') {
+                mBuilder.append((char) c);
+                mPosition++;
+            } else {
+                break;
+            }
+        }
+        return mBuilder.toString();
+    }
+
+    /**
+     * 读取字符串，起始的引号已经读过
+     */
+    private String readString() throws IOException {
+        mBuilder.setLength(0);
+        while (true) {
+            // 没有转义时整段拷贝
+            int start = mPosition;
+            while (mPosition < mLimit) {
+                char c = mBuffer[mPosition];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                mPosition++;
+            }
+            mBuilder.append(mBuffer, start, mPosition - start);
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("unterminated string");
+            } else if (c == '"') {
+                return mBuilder.toString();
+            } else if (c == '\\') {
+                mBuilder.append(readEscape());
+            } else {
+                // 缓冲区读完之后read()重新填充，读到的是普通字符
+                mBuilder.append((char) c);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'u': {
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            }
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("invalid escape sequence");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private int peekChar() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition];
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition++];
+    }
+
+    private boolean fill() throws IOException {
+        mOffset += mLimit;
+        mPosition = 0;
+        mLimit = 0;
+        int count = mReader.read(mBuffer, 0, mBuffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        mLimit = count;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at offset " + (mOffset + mPosition));
+    }
+}
@@ -0,0 +1,345 @@
+package com.cgfay.cainfilter.stickers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 贴纸帧的解码缓存，按(贴纸包, 部位, 帧)区分，按字节预算做LRU淘汰
+ * 当前贴纸在显示某一帧时用prefetch提示接下来的几帧，在后台线程中提前解码，
+ * 同一帧正在解码时不会重复提交
+ * 只有一项时即使超出预算也保留，保证大图也能显示
+ * 本类不依赖Android，解码和回收由Decoder实现
+ * Created by cain on 2018/3/25.
+ */
+public final class StickerFrameCache<V> {
+
+    // 默认的内存预算
+    public static final long DEFAULT_MAX_BYTES = 24 * 1024 * 1024;
+
+    /**
+     * 帧的解码器
+     */
+    public interface Decoder<V> {
+        /**
+         * 解码一帧，在调用load的线程或者预取线程调用
+         * @return 不能为null，失败时抛出异常
+         */
+        V decode(StickerPackage stickerPackage, int item, int frame) throws IOException;
+
+        /**
+         * 解码后占用的字节数
+         */
+        long getByteSize(V value);
+
+        /**
+         * 被淘汰或者清除时调用
+         */
+        void recycle(V value);
+    }
+
+    /**
+     * 缓存的键
+     */
+    private static final class FrameKey {
+        String mPackage;
+        int mItem;
+        int mFrame;
+
+        FrameKey(String packageName, int item, int frame) {
+            set(packageName, item, frame);
+        }
+
+        FrameKey set(String packageName, int item, int frame) {
+            mPackage = packageName;
+            mItem = item;
+            mFrame = frame;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FrameKey)) {
+                return false;
+            }
+            FrameKey other = (FrameKey) o;
+            return mItem == other.mItem && mFrame == other.mFrame
+                    && mPackage.equals(other.mPackage);
+        }
+
+        @Override
+        public int hashCode() {
+            return (mPackage.hashCode() * 31 + mItem) * 31 + mFrame;
+        }
+    }
+
+    private static final class Entry<V> {
+        final V mValue;
+        final long mBytes;
+
+        Entry(V value, long bytes) {
+            mValue = value;
+            mBytes = bytes;
+        }
+    }
+
+    private final Decoder<V> mDecoder;
+    private final Executor mPrefetchExecutor;
+    private final long mMaxBytes;
+
+    // 按访问顺序排列，最久没有访问的在前
+    private final LinkedHashMap<FrameKey, Entry<V>> mEntries =
+            new LinkedHashMap<FrameKey, Entry<V>>(64, 0.75f, true);
+    // 正在预取的帧
+    private final HashSet<FrameKey> mPrefetching = new HashSet<FrameKey>();
+    // 查询用的键，避免每次查询分配
+    private final FrameKey mProbe = new FrameKey("", 0, 0);
+
+    private long mUsedBytes;
+    private long mPeakBytes;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private int mPrefetchCount;
+    private int mFailedCount;
+
+    public StickerFrameCache(Decoder<V> decoder, Executor prefetchExecutor) {
+        this(decoder, prefetchExecutor, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param decoder 解码器
+     * @param prefetchExecutor 预取使用的线程
+     * @param maxBytes 内存预算
+     */
+    public StickerFrameCache(Decoder<V> decoder, Executor prefetchExecutor, long maxBytes) {
+        mDecoder = decoder;
+        mPrefetchExecutor = prefetchExecutor;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 获取已经解码的帧，不解码
+     * @return 没有缓存时返回null
+     */
+    public V get(StickerPackage stickerPackage, int item, int frame) {
+        synchronized (this) {
+            Entry<V> entry = mEntries.get(mProbe.set(stickerPackage.getName(), item, frame));
+            if (entry != null) {
+                mHitCount++;
+                return entry.mValue;
+            }
+            mMissCount++;
+            return null;
+        }
+    }
+
+    /**
+     * 获取一帧，没有缓存时在当前线程解码
+     * @throws IOException 解码失败
+     */
+    public V load(StickerPackage stickerPackage, int item, int frame) throws IOException {
+        V value = get(stickerPackage, item, frame);
+        if (value != null) {
+            return value;
+        }
+        value = mDecoder.decode(stickerPackage, item, frame);
+        List<V> recycled = new ArrayList<V>();
+        V result;
+        synchronized (this) {
+            result = insert(new FrameKey(stickerPackage.getName(), item, frame), value, recycled);
+        }
+        recycle(recycled);
+        return result;
+    }
+
+    /**
+     * 提示接下来要显示的帧，没有缓存也没有在解码的帧提交到预取线程
+     * @param stickerPackage 贴纸包
+     * @param item 部位
+     * @param frames 帧索引
+     * @param count 帧数
+     */
+    public void prefetch(final StickerPackage stickerPackage, final int item, int[] frames,
+                         int count) {
+        for (int i = 0; i < count; i++) {
+            final FrameKey key;
+            synchronized (this) {
+                mProbe.set(stickerPackage.getName(), item, frames[i]);
+                if (mEntries.containsKey(mProbe) || mPrefetching.contains(mProbe)) {
+                    continue;
+                }
+                key = new FrameKey(stickerPackage.getName(), item, frames[i]);
+                mPrefetching.add(key);
+                mPrefetchCount++;
+            }
+            mPrefetchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prefetchFrame(stickerPackage, key);
+                }
+            });
+        }
+    }
+
+    private void prefetchFrame(StickerPackage stickerPackage, FrameKey key) {
+        synchronized (this) {
+            // 等待期间贴纸包已经移除
+            if (!mPrefetching.contains(key)) {
+                return;
+            }
+        }
+        V value = null;
+        try {
+            value = mDecoder.decode(stickerPackage, key.mItem, key.mFrame);
+        } catch (IOException e) {
+            // 显示时重新加载
+        }
+        List<V> recycled = new ArrayList<V>();
+        synchronized (this) {
+            if (!mPrefetching.remove(key)) {
+                // 解码期间贴纸包已经移除
+                if (value != null) {
+                    recycled.add(value);
+                }
+            } else if (value == null) {
+                mFailedCount++;
+            } else {
+                insert(key, value, recycled);
+            }
+        }
+        recycle(recycled);
+    }
+
+    /**
+     * 插入一帧，已经存在时保留原来的值，新值放入回收列表
+     * @return 缓存中的值
+     */
+    private V insert(FrameKey key, V value, List<V> recycled) {
+        Entry<V> existing = mEntries.get(key);
+        if (existing != null) {
+            recycled.add(value);
+            return existing.mValue;
+        }
+        long bytes = mDecoder.getByteSize(value);
+        mEntries.put(key, new Entry<V>(value, bytes));
+        mUsedBytes += bytes;
+        mPeakBytes = Math.max(mPeakBytes, mUsedBytes);
+        trimToSize(mMaxBytes, recycled);
+        return value;
+    }
+
+    /**
+     * 从最久没有访问的帧开始淘汰，至少保留最新的一帧
+     */
+    private void trimToSize(long maxBytes, List<V> recycled) {
+        Iterator<Map.Entry<FrameKey, Entry<V>>> iterator = mEntries.entrySet().iterator();
+        while (mUsedBytes > maxBytes && mEntries.size() > 1 && iterator.hasNext()) {
+            Entry<V> entry = iterator.next().getValue();
+            iterator.remove();
+            mUsedBytes -= entry.mBytes;
+            mEvictionCount++;
+            recycled.add(entry.mValue);
+        }
+    }
+
+    /**
+     * 移除一个贴纸包的全部帧，正在预取的帧完成后直接回收
+     * @param packageName
+     */
+    public void removePackage(String packageName) {
+        List<V> recycled = new ArrayList<V>();
+        synchronized (this) {
+            Iterator<Map.Entry<FrameKey, Entry<V>>> iterator = mEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<FrameKey, Entry<V>> entry = iterator.next();
+                if (entry.getKey().mPackage.equals(packageName)) {
+                    iterator.remove();
+                    mUsedBytes -= entry.getValue().mBytes;
+                    recycled.add(entry.getValue().mValue);
+                }
+            }
+            Iterator<FrameKey> prefetching = mPrefetching.iterator();
+            while (prefetching.hasNext()) {
+                if (prefetching.next().mPackage.equals(packageName)) {
+                    prefetching.remove();
+                }
+            }
+        }
+        recycle(recycled);
+    }
+
+    /**
+     * 清除全部帧
+     */
+    public void clear() {
+        List<V> recycled = new ArrayList<V>();
+        synchronized (this) {
+            for (Entry<V> entry : mEntries.values()) {
+                recycled.add(entry.mValue);
+            }
+            mEntries.clear();
+            mPrefetching.clear();
+            mUsedBytes = 0;
+        }
+        recycle(recycled);
+    }
+
+    private void recycle(List<V> values) {
+        for (V value : values) {
+            mDecoder.recycle(value);
+        }
+    }
+
+    /**
+     * 是否已经缓存，不影响访问顺序
+     */
+    public synchronized boolean contains(StickerPackage stickerPackage, int item, int frame) {
+        return mEntries.containsKey(mProbe.set(stickerPackage.getName(), item, frame));
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    public synchronized int getPendingCount() {
+        return mPrefetching.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized int getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    public synchronized int getFailedCount() {
+        return mFailedCount;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+}
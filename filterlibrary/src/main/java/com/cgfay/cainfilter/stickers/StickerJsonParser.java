@@ -1,11 +1,46 @@
 package com.cgfay.cainfilter.stickers;
 
+import com.cgfay.cainfilter.glfilter.sticker.StickerAnimator;
+import com.cgfay.cainfilter.type.StickerType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
 /**
  * 贴纸Json解析器
+ * 用JsonStreamReader流式解析贴纸包根目录下的sticker.json，不认识的字段直接跳过，格式如下：
+ * {
+ *   "name": "cat",
+ *   "version": 1,
+ *   "items": [
+ *     {
+ *       "name": "head",          部位名称
+ *       "type": "head",          StickerType，默认none
+ *       "folder": "head",        帧所在的目录，默认与名称相同
+ *       "pattern": "head_%03d.png", 帧的文件名格式，默认为<目录>_%03d.png
+ *       "frames": 12,            帧数
+ *       "duration": 400,         播放一遍的时长(ms)，默认0
+ *       "looping": true,         是否循环，默认true
+ *       "trigger": "mouth_open", 触发动作：none、mouth_open、eye_blink
+ *       "width": 200, "height": 160,
+ *       "centerX": 0.0, "centerY": 0.6
+ *     }
+ *   ]
+ * }
+ * 本类不依赖Android
  * Created by cain.huang on 2017/11/24.
  */
 
 public class StickerJsonParser {
+
+    // 清单文件名
+    public static final String MANIFEST_NAME = "sticker.json";
+
     private static StickerJsonParser mInstance;
 
     public static StickerJsonParser getInstance() {
@@ -17,4 +52,135 @@ public class StickerJsonParser {
 
     private StickerJsonParser(){}
 
+    /**
+     * 读取并解析贴纸包的清单
+     * @param source 贴纸包
+     * @return
+     * @throws IOException 清单不存在或者格式错误
+     */
+    public StickerPackage parse(StickerPackageSource source) throws IOException {
+        InputStream is = source.open(MANIFEST_NAME);
+        try {
+            return parse(new InputStreamReader(is, "UTF-8"), source);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * 解析清单
+     * @param reader 清单内容
+     * @param source 帧所在的贴纸包
+     * @return
+     * @throws IOException 格式错误
+     */
+    public StickerPackage parse(Reader reader, StickerPackageSource source) throws IOException {
+        JsonStreamReader json = new JsonStreamReader(reader);
+        String name = null;
+        int version = 0;
+        List<StickerPackage.Item> items = new ArrayList<StickerPackage.Item>();
+        json.beginObject();
+        while (json.hasNext()) {
+            String key = json.nextName();
+            if ("name".equals(key)) {
+                name = json.nextString();
+            } else if ("version".equals(key)) {
+                version = json.nextInt();
+            } else if ("items".equals(key)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    items.add(parseItem(json));
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (name == null || name.length() == 0) {
+            throw new IOException("sticker package without name");
+        }
+        if (items.isEmpty()) {
+            throw new IOException("sticker package without items: " + name);
+        }
+        return new StickerPackage(name, version, items, source);
+    }
+
+    private static StickerPackage.Item parseItem(JsonStreamReader json) throws IOException {
+        String name = null;
+        StickerType type = StickerType.NONE;
+        String folder = null;
+        String pattern = null;
+        int frames = 0;
+        long duration = 0;
+        boolean looping = true;
+        int trigger = StickerAnimator.ACTION_NONE;
+        int width = 0;
+        int height = 0;
+        float centerX = 0;
+        float centerY = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            String key = json.nextName();
+            if ("name".equals(key)) {
+                name = json.nextString();
+            } else if ("type".equals(key)) {
+                type = parseType(json.nextString());
+            } else if ("folder".equals(key)) {
+                folder = json.nextString();
+            } else if ("pattern".equals(key)) {
+                pattern = json.nextString();
+            } else if ("frames".equals(key)) {
+                frames = json.nextInt();
+            } else if ("duration".equals(key)) {
+                duration = json.nextLong();
+            } else if ("looping".equals(key)) {
+                looping = json.nextBoolean();
+            } else if ("trigger".equals(key)) {
+                trigger = parseTrigger(json.nextString());
+            } else if ("width".equals(key)) {
+                width = json.nextInt();
+            } else if ("height".equals(key)) {
+                height = json.nextInt();
+            } else if ("centerX".equals(key)) {
+                centerX = (float) json.nextDouble();
+            } else if ("centerY".equals(key)) {
+                centerY = (float) json.nextDouble();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (name == null || frames <= 0 || duration < 0) {
+            throw new IOException("invalid sticker item: " + name + ", " + frames + " frames");
+        }
+        if (folder == null) {
+            folder = name;
+        }
+        if (pattern == null) {
+            pattern = (folder.length() > 0 ? folder.substring(folder.lastIndexOf('/') + 1) : name)
+                    + "_%03d.png";
+        }
+        return new StickerPackage.Item(name, type, folder, pattern, frames, duration, looping,
+                trigger, width, height, centerX, centerY);
+    }
+
+    private static StickerType parseType(String value) throws IOException {
+        try {
+            return StickerType.valueOf(value.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("unknown sticker type: " + value);
+        }
+    }
+
+    private static int parseTrigger(String value) throws IOException {
+        if ("none".equals(value)) {
+            return StickerAnimator.ACTION_NONE;
+        } else if ("mouth_open".equals(value)) {
+            return StickerAnimator.ACTION_MOUTH_OPEN;
+        } else if ("eye_blink".equals(value)) {
+            return StickerAnimator.ACTION_EYE_BLINK;
+        }
+        throw new IOException("unknown trigger: " + value);
+    }
 }
@@ -62,15 +62,15 @@ public class StickerManager {
     }
 
     /**
-     * 解析贴纸
-     * @param stickerId 贴纸对应的Id
+     * 解析贴纸，在解析线程中加载清单和第一帧
+     * @param path 贴纸包解压后的目录，或者没有解压的zip文件
      */
-    public void parserSticker(final int stickerId) {
+    public void parserSticker(final String path) {
         if (mParserHandler != null) {
             mParserHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    internalParserSticker(stickerId);
+                    internalParserSticker(path);
                 }
             });
         }
@@ -78,10 +78,10 @@ public class StickerManager {
 
     /**
      * 解析贴纸
-     * @param stickerId
+     * @param path
      */
-    private void internalParserSticker(int stickerId) {
-
+    private void internalParserSticker(String path) {
+        StickerResManager.getInstance().setCurrentSticker(path);
     }
 
 }
@@ -0,0 +1,201 @@
+package com.cgfay.cainfilter.stickers;
+
+import com.cgfay.cainfilter.type.StickerType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 贴纸包，由StickerJsonParser解析清单得到
+ * 一个贴纸包包含头、耳朵、鼻子等多个部位，每个部位是一段帧动画
+ * 帧不在清单中逐个列出，按部位的目录和文件名格式在第一次访问时生成路径
+ * 本类不依赖Android
+ * Created by cain on 2018/3/25.
+ */
+public final class StickerPackage {
+
+    private final String mName;
+    private final int mVersion;
+    private final List<Item> mItems;
+    private final StickerPackageSource mSource;
+
+    StickerPackage(String name, int version, List<Item> items, StickerPackageSource source) {
+        mName = name;
+        mVersion = version;
+        mItems = Collections.unmodifiableList(items);
+        mSource = source;
+    }
+
+    /**
+     * 贴纸包的名称，同时用作帧缓存的键
+     * @return
+     */
+    public String getName() {
+        return mName;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    public Item getItem(int index) {
+        return mItems.get(index);
+    }
+
+    public List<Item> getItems() {
+        return mItems;
+    }
+
+    public StickerPackageSource getSource() {
+        return mSource;
+    }
+
+    /**
+     * 打开某个部位的一帧
+     * @param item 部位索引
+     * @param frame 帧索引
+     * @return 调用方负责关闭
+     * @throws IOException
+     */
+    public InputStream openFrame(int item, int frame) throws IOException {
+        return mSource.open(mItems.get(item).getFramePath(frame));
+    }
+
+    /**
+     * 贴纸包中的一个部位
+     */
+    public static final class Item {
+
+        private final String mName;
+        private final StickerType mType;
+        private final String mFolder;
+        private final String mPattern;
+        private final int mFrameCount;
+        private final long mDuration;
+        private final boolean mLooping;
+        private final int mTriggerAction;
+        private final int mWidth;
+        private final int mHeight;
+        private final float mCenterX;
+        private final float mCenterY;
+
+        // 帧路径，第一次访问时才生成
+        private String[] mFramePaths;
+
+        Item(String name, StickerType type, String folder, String pattern, int frameCount,
+             long duration, boolean looping, int triggerAction, int width, int height,
+             float centerX, float centerY) {
+            mName = name;
+            mType = type;
+            mFolder = folder;
+            mPattern = pattern;
+            mFrameCount = frameCount;
+            mDuration = duration;
+            mLooping = looping;
+            mTriggerAction = triggerAction;
+            mWidth = width;
+            mHeight = height;
+            mCenterX = centerX;
+            mCenterY = centerY;
+        }
+
+        /**
+         * 帧在包中的路径
+         * @param frame 帧索引
+         * @return
+         */
+        public synchronized String getFramePath(int frame) {
+            if (frame < 0 || frame >= mFrameCount) {
+                throw new IndexOutOfBoundsException("frame " + frame + " of " + mFrameCount);
+            }
+            if (mFramePaths == null) {
+                mFramePaths = new String[mFrameCount];
+            }
+            String path = mFramePaths[frame];
+            if (path == null) {
+                path = String.format(Locale.US, mPattern, frame);
+                if (mFolder.length() > 0) {
+                    path = mFolder + "/" + path;
+                }
+                mFramePaths[frame] = path;
+            }
+            return path;
+        }
+
+        /**
+         * 已经生成的帧路径个数
+         * @return
+         */
+        public synchronized int getIndexedFrameCount() {
+            if (mFramePaths == null) {
+                return 0;
+            }
+            int count = 0;
+            for (String path : mFramePaths) {
+                if (path != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public StickerType getType() {
+            return mType;
+        }
+
+        public String getFolder() {
+            return mFolder;
+        }
+
+        public int getFrameCount() {
+            return mFrameCount;
+        }
+
+        /**
+         * 播放一遍的时长(ms)，0表示使用默认的每帧时长
+         * @return
+         */
+        public long getDuration() {
+            return mDuration;
+        }
+
+        public boolean isLooping() {
+            return mLooping;
+        }
+
+        /**
+         * 触发动作，StickerAnimator.ACTION_*
+         * @return
+         */
+        public int getTriggerAction() {
+            return mTriggerAction;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public float getCenterX() {
+            return mCenterX;
+        }
+
+        public float getCenterY() {
+            return mCenterY;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.cgfay.cainfilter.stickers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 贴纸包中文件的来源，例如解压后的目录
+ * Created by cain on 2018/3/25.
+ */
+public interface StickerPackageSource extends Closeable {
+
+    /**
+     * 打开包中的文件
+     * @param path 相对于包根目录的路径
+     * @return 调用方负责关闭
+     * @throws IOException 文件不存在或者无法读取
+     */
+    InputStream open(String path) throws IOException;
+}
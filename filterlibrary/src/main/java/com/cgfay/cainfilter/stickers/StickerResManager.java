@@ -1,11 +1,26 @@
 package com.cgfay.cainfilter.stickers;
 
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.util.Log;
+
 import com.cgfay.cainfilter.bean.Sticker;
+import com.cgfay.cainfilter.glfilter.sticker.StickerAnimator;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * 贴纸资源管理器
+ * 选中贴纸包时只解析清单和每个部位的第一帧，其余的帧在显示时按需解码，
+ * 并预取接下来的几帧，解码后的帧放在按字节预算淘汰的StickerFrameCache中
+ * 贴纸包可以是解压后的目录，也可以是没有解压的zip文件
  * Created by cain.huang on 2017/11/24.
  */
 
@@ -13,10 +28,45 @@ public final class StickerResManager {
 
     private static final String TAG = "StickerResManager";
 
+    // 每个部位预取的帧数
+    private static final int PREFETCH_FRAMES = StickerAnimator.DEFAULT_PREFETCH_FRAMES;
+
     private static StickerResManager mInstance;
 
-    // 一个贴纸压缩包所包含的所有贴纸
-    ArrayList<ArrayList> mStickerLists = new ArrayList<ArrayList>();
+    private static final StickerFrameCache.Decoder<Bitmap> mDecoder =
+            new StickerFrameCache.Decoder<Bitmap>() {
+        @Override
+        public Bitmap decode(StickerPackage stickerPackage, int item, int frame)
+                throws IOException {
+            InputStream is = stickerPackage.openFrame(item, frame);
+            try {
+                Bitmap bitmap = BitmapFactory.decodeStream(is);
+                if (bitmap == null) {
+                    throw new IOException("unable to decode "
+                            + stickerPackage.getItem(item).getFramePath(frame));
+                }
+                return bitmap;
+            } finally {
+                is.close();
+            }
+        }
+
+        @Override
+        public long getByteSize(Bitmap value) {
+            return value.getAllocationByteCount();
+        }
+
+        @Override
+        public void recycle(Bitmap value) {
+            // 淘汰的帧可能还在Sticker中使用，交给GC回收，不主动recycle
+        }
+    };
+
+    // 解码后的帧
+    private final StickerFrameCache<Bitmap> mFrameCache;
+
+    // 当前的贴纸包
+    private StickerPackage mPackage;
 
     // 当前索引
     private int mIndex = -1;
@@ -24,6 +74,9 @@ public final class StickerResManager {
     // 当前路径
     private String mCurrentPath;
 
+    // 预取的帧
+    private final int[] mPrefetchFrames = new int[PREFETCH_FRAMES];
+
     public static StickerResManager getInstance() {
         if (mInstance == null) {
             mInstance = new StickerResManager();
@@ -31,30 +84,74 @@ public final class StickerResManager {
         return mInstance;
     }
 
-    private StickerResManager() {}
+    private StickerResManager() {
+        Executor executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "StickerPrefetchThread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mFrameCache = new StickerFrameCache<Bitmap>(mDecoder, executor);
+    }
 
 
     // 获取贴纸一帧所有的图片，返回的集合包含了头、脸、鼻子、耳朵、胡子等类型和图片
-    ArrayList<Sticker> getStickerFrame() {
-        if (mStickerLists == null || mStickerLists.size() <= 0) {
+    public synchronized ArrayList<Sticker> getStickerFrame() {
+        if (mPackage == null) {
             return null;
         }
         mIndex++;
-        mIndex = mIndex % mStickerLists.size();
         ArrayList<Sticker> frames = new ArrayList<Sticker>();
         // 取出一帧所有的图片
-        for (int i = 0; i < mStickerLists.size(); i++) {
-            ArrayList<Sticker> mStickerFrames = mStickerLists.get(i);
-            frames.add(mStickerFrames.get(mIndex));
+        for (int i = 0; i < mPackage.getItemCount(); i++) {
+            StickerPackage.Item item = mPackage.getItem(i);
+            int frame = mIndex % item.getFrameCount();
+            Bitmap bitmap;
+            try {
+                bitmap = mFrameCache.load(mPackage, i, frame);
+            } catch (IOException e) {
+                Log.e(TAG, "unable to load sticker frame", e);
+                continue;
+            }
+            Sticker sticker = new Sticker();
+            sticker.setmType(item.getType());
+            sticker.setmBitmap(bitmap);
+            frames.add(sticker);
+            prefetch(i, frame);
         }
         return frames;
     }
 
+    /**
+     * 预取某个部位在frame之后的几帧
+     * @param item 部位
+     * @param frame 当前帧
+     */
+    public synchronized void prefetch(int item, int frame) {
+        if (mPackage == null) {
+            return;
+        }
+        int frameCount = mPackage.getItem(item).getFrameCount();
+        int count = Math.min(PREFETCH_FRAMES, frameCount - 1);
+        for (int i = 0; i < count; i++) {
+            mPrefetchFrames[i] = (frame + 1 + i) % frameCount;
+        }
+        mFrameCache.prefetch(mPackage, item, mPrefetchFrames, count);
+    }
+
     /**
      * 设置当年前选中的贴纸
-     * @param path
+     * @param path 贴纸包解压后的目录，或者没有解压的zip文件
      */
-    public void setCurrentSticker(String path) {
+    public synchronized void setCurrentSticker(String path) {
         if (mCurrentPath != null && mCurrentPath.equals(path)) {
             return;
         }
@@ -64,27 +161,67 @@ public final class StickerResManager {
         loadResources();
     }
 
+    /**
+     * 当前的贴纸包
+     * @return 没有选中或者加载失败时返回null
+     */
+    public synchronized StickerPackage getCurrentPackage() {
+        return mPackage;
+    }
+
     /**
      * 释放资源
      */
-    public void clearResources() {
-        for (int i = 0; i < mStickerLists.size(); i++) {
-            ArrayList<Sticker> frames = mStickerLists.get(i);
-            for (int j = 0; j < frames.size(); j++) {
-                frames.get(i).clear();
+    public synchronized void clearResources() {
+        if (mPackage != null) {
+            mFrameCache.removePackage(mPackage.getName());
+            try {
+                mPackage.getSource().close();
+            } catch (IOException e) {
+                Log.w(TAG, "unable to close sticker package", e);
             }
-            frames.clear();
+            mPackage = null;
         }
-        mStickerLists.clear();
-        mStickerLists = null;
+        mCurrentPath = null;
         mIndex = -1;
     }
 
     /**
-     * 加载资源
+     * 加载资源，只解析清单和每个部位的第一帧
      */
-    public void loadResources() {
+    public synchronized void loadResources() {
         // 判断是否存在贴纸
-        
+        if (mCurrentPath == null || !new File(mCurrentPath).exists()) {
+            Log.e(TAG, "sticker package not found: " + mCurrentPath);
+            return;
+        }
+        StickerPackageSource source = null;
+        try {
+            File file = new File(mCurrentPath);
+            // 压缩包不解压，直接从中读取
+            if (file.isDirectory()) {
+                source = new DirectoryPackageSource(file);
+            } else {
+                source = new ZipPackageSource(file);
+            }
+            mPackage = StickerJsonParser.getInstance().parse(source);
+        } catch (IOException e) {
+            Log.e(TAG, "unable to parse sticker package: " + mCurrentPath, e);
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < mPackage.getItemCount(); i++) {
+            try {
+                mFrameCache.load(mPackage, i, 0);
+            } catch (IOException e) {
+                Log.e(TAG, "unable to load sticker frame", e);
+            }
+            prefetch(i, 0);
+        }
     }
 }
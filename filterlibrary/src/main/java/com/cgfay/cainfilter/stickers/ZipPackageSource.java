@@ -0,0 +1,81 @@
+package com.cgfay.cainfilter.stickers;
+
+import com.cgfay.cainfilter.archiver.ZipArchive;
+import com.cgfay.cainfilter.archiver.ZipIndex;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 不解压直接从ZIP中读取的贴纸包
+ * 清单可以在压缩包的根目录，也可以在唯一的一层顶级目录中，例如cat/sticker.json
+ * Created by cain on 2018/3/25.
+ */
+public final class ZipPackageSource implements StickerPackageSource {
+
+    private final ZipArchive mArchive;
+    // 贴纸包根目录在压缩包中的前缀，为空或者以/结尾
+    private final String mRoot;
+
+    /**
+     * 打开压缩包并定位清单所在的目录
+     * @param file 压缩包
+     * @throws IOException 不是ZIP文件或者没有清单
+     */
+    public ZipPackageSource(File file) throws IOException {
+        mArchive = ZipArchive.open(file);
+        try {
+            mRoot = findRoot(mArchive);
+        } catch (IOException e) {
+            mArchive.close();
+            throw e;
+        }
+    }
+
+    private static String findRoot(ZipArchive archive) throws IOException {
+        ZipIndex index = archive.getIndex();
+        if (index.getEntry(StickerJsonParser.MANIFEST_NAME) != null) {
+            return "";
+        }
+        String root = null;
+        for (ZipIndex.Entry entry : index.getEntries()) {
+            String name = entry.getName();
+            int slash = name.indexOf('/');
+            if (slash > 0 && name.length() == slash + 1 + StickerJsonParser.MANIFEST_NAME.length()
+                    && name.endsWith("/" + StickerJsonParser.MANIFEST_NAME)) {
+                if (root != null) {
+                    throw new IOException("multiple sticker manifests in " + archive.getFile());
+                }
+                root = name.substring(0, slash + 1);
+            }
+        }
+        if (root == null) {
+            throw new FileNotFoundException(StickerJsonParser.MANIFEST_NAME + " not found in "
+                    + archive.getFile());
+        }
+        return root;
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        return mArchive.open(mRoot + path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mArchive.close();
+    }
+
+    public ZipArchive getArchive() {
+        return mArchive;
+    }
+
+    /**
+     * 贴纸包根目录在压缩包中的前缀
+     */
+    public String getRoot() {
+        return mRoot;
+    }
+}
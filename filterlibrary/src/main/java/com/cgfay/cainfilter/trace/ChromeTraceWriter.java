@@ -0,0 +1,153 @@
+package com.cgfay.cainfilter.trace;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * 将TraceBuffer写成Chrome/Perfetto的json跟踪格式(chrome://tracing、ui.perfetto.dev)
+ * 每条记录输出为一个完整事件("ph":"X")，时间单位为微秒，以最早的记录为零点。
+ * CPU阶段在渲染线程轨道上，GPU耗时在单独的GPU轨道上，起点对齐到对应阶段的CPU开始时间
+ * Created by cain on 2018/3/25.
+ */
+public final class ChromeTraceWriter {
+
+    // 进程id
+    static final int PID = 1;
+    // CPU轨道
+    static final int TID_CPU = 1;
+    // GPU轨道
+    static final int TID_GPU = 2;
+
+    private final Writer mWriter;
+    private boolean mFirstEvent;
+
+    public ChromeTraceWriter(Writer writer) {
+        mWriter = writer;
+    }
+
+    /**
+     * 写入全部记录
+     * @param buffer 跟踪记录
+     * @param stageNames 阶段名称，下标为阶段id
+     * @throws IOException
+     */
+    public void write(TraceBuffer buffer, String[] stageNames) throws IOException {
+        mFirstEvent = true;
+        mWriter.write("{\"traceEvents\":[");
+        writeThreadName(TID_CPU, "Render CPU");
+        writeThreadName(TID_GPU, "Render GPU");
+        int size = buffer.size();
+        long origin = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            origin = Math.min(origin, buffer.getBeginNs(i));
+        }
+        for (int i = 0; i < size; i++) {
+            int stage = buffer.getStage(i);
+            String name = stage >= 0 && stage < stageNames.length
+                    ? stageNames[stage] : "stage " + stage;
+            long begin = buffer.getBeginNs(i) - origin;
+            writeEvent(name, "cpu", TID_CPU, begin, buffer.getEndNs(i) - buffer.getBeginNs(i),
+                    buffer.getFrame(i), buffer.getDepth(i));
+            long gpuNs = buffer.getGpuNs(i);
+            if (gpuNs >= 0) {
+                writeEvent(name, "gpu", TID_GPU, begin, gpuNs,
+                        buffer.getFrame(i), buffer.getDepth(i));
+            }
+        }
+        mWriter.write("],\"displayTimeUnit\":\"ms\"}");
+        mWriter.flush();
+    }
+
+    private void writeThreadName(int tid, String name) throws IOException {
+        beginEvent();
+        mWriter.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":");
+        mWriter.write(Integer.toString(PID));
+        mWriter.write(",\"tid\":");
+        mWriter.write(Integer.toString(tid));
+        mWriter.write(",\"args\":{\"name\":");
+        writeString(name);
+        mWriter.write("}}");
+    }
+
+    private void writeEvent(String name, String category, int tid, long beginNs, long durationNs,
+                            int frame, int depth) throws IOException {
+        beginEvent();
+        mWriter.write("{\"name\":");
+        writeString(name);
+        mWriter.write(",\"cat\":\"");
+        mWriter.write(category);
+        mWriter.write("\",\"ph\":\"X\",\"ts\":");
+        writeMicros(beginNs);
+        mWriter.write(",\"dur\":");
+        writeMicros(durationNs);
+        mWriter.write(",\"pid\":");
+        mWriter.write(Integer.toString(PID));
+        mWriter.write(",\"tid\":");
+        mWriter.write(Integer.toString(tid));
+        mWriter.write(",\"args\":{\"frame\":");
+        mWriter.write(Integer.toString(frame));
+        mWriter.write(",\"depth\":");
+        mWriter.write(Integer.toString(depth));
+        mWriter.write("}}");
+    }
+
+    private void beginEvent() throws IOException {
+        if (!mFirstEvent) {
+            mWriter.write(',');
+        }
+        mFirstEvent = false;
+    }
+
+    /**
+     * 纳秒转换为保留三位小数的微秒
+     */
+    private void writeMicros(long ns) throws IOException {
+        if (ns < 0) {
+            mWriter.write('-');
+            ns = -ns;
+        }
+        mWriter.write(Long.toString(ns / 1000));
+        int fraction = (int) (ns % 1000);
+        mWriter.write('.');
+        mWriter.write((char) ('0' + fraction / 100));
+        mWriter.write((char) ('0' + fraction / 10 % 10));
+        mWriter.write((char) ('0' + fraction % 10));
+    }
+
+    private void writeString(String value) throws IOException {
+        mWriter.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    mWriter.write("\\\"");
+                    break;
+                case '\\':
+                    mWriter.write("\\\\");
+                    break;
+                case '\n':
+                    mWriter.write("\\n");
+                    break;
+                case '\r':
+                    mWriter.write("\\r");
+                    break;
+                case '\t':
+                    mWriter.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        String hex = Integer.toHexString(c);
+                        mWriter.write("\\u");
+                        for (int j = hex.length(); j < 4; j++) {
+                            mWriter.write('0');
+                        }
+                        mWriter.write(hex);
+                    } else {
+                        mWriter.write(c);
+                    }
+                    break;
+            }
+        }
+        mWriter.write('"');
+    }
+}
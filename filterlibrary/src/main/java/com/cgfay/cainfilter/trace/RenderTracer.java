@@ -0,0 +1,314 @@
+package com.cgfay.cainfilter.trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * 渲染阶段跟踪器
+ * 1、每个阶段用begin/end包围，记录CPU开始和结束时间，阶段可以嵌套，end必须与最近的begin对应
+ * 2、beginGpu的阶段同时发起GPU计时查询(EXT_disjoint_timer_query)，同一时间只能有一个
+ *    计时查询，嵌套在GPU阶段内的beginGpu只记录CPU时间。查询结果在之后的beginFrame中回收
+ * 3、记录写入预分配的TraceBuffer，跟踪过程中不分配内存，关闭时begin/end直接返回
+ * 4、导出为Chrome/Perfetto可以打开的json文件
+ * 阶段名称在初始化时注册，跟踪时只使用整数id。除开关外需要在同一个线程调用
+ * Created by cain on 2018/3/25.
+ */
+public final class RenderTracer {
+
+    /**
+     * 时钟，单位纳秒
+     */
+    public interface Clock {
+        long nanoTime();
+    }
+
+    /**
+     * GPU计时查询
+     */
+    public interface GpuTimer {
+        // 结果还没有返回
+        long RESULT_PENDING = -1;
+        // 计时期间GPU状态不连续(降频等)，结果无效
+        long RESULT_INVALID = -2;
+
+        /**
+         * 开始计时
+         * @return 查询id，没有可用的查询时返回-1
+         */
+        int beginQuery();
+
+        /**
+         * 结束计时
+         */
+        void endQuery(int query);
+
+        /**
+         * 获取计时结果
+         * @return 耗时纳秒，或者RESULT_PENDING、RESULT_INVALID
+         */
+        long getResult(int query);
+
+        /**
+         * 回收查询
+         */
+        void releaseQuery(int query);
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    // 默认记录条数
+    public static final int DEFAULT_CAPACITY = 4096;
+    // 最大嵌套深度
+    public static final int MAX_DEPTH = 16;
+    // 最多等待结果的GPU查询数
+    private static final int MAX_PENDING_QUERIES = 32;
+
+    private static RenderTracer mInstance;
+
+    private final Clock mClock;
+    private final TraceBuffer mBuffer;
+    private final ArrayList<String> mStageNames = new ArrayList<String>();
+
+    // 开关在下一次beginFrame时生效，保证begin/end成对
+    private volatile boolean mRequestEnabled;
+    private boolean mEnabled;
+    private int mFrame;
+
+    // 阶段栈
+    private final int[] mStackStages = new int[MAX_DEPTH];
+    private final long[] mStackBegin = new long[MAX_DEPTH];
+    private final int[] mStackQueries = new int[MAX_DEPTH];
+    private int mDepth;
+
+    // GPU计时
+    private GpuTimer mGpuTimer;
+    // 正在计时的查询
+    private int mActiveQuery = -1;
+    // 等待结果的查询以及对应的记录序号
+    private final int[] mPendingQueries = new int[MAX_PENDING_QUERIES];
+    private final long[] mPendingSequences = new long[MAX_PENDING_QUERIES];
+    private int mPendingCount;
+    private int mGpuDiscardCount;
+
+    public static RenderTracer getInstance() {
+        if (mInstance == null) {
+            mInstance = new RenderTracer(SYSTEM_CLOCK, DEFAULT_CAPACITY);
+        }
+        return mInstance;
+    }
+
+    /**
+     * @param clock 时钟
+     * @param capacity 记录条数，必须是2的幂
+     */
+    public RenderTracer(Clock clock, int capacity) {
+        mClock = clock;
+        mBuffer = new TraceBuffer(capacity);
+    }
+
+    /**
+     * 注册阶段名称，同名阶段返回同一个id
+     * @param name
+     * @return 阶段id
+     */
+    public synchronized int registerStage(String name) {
+        int stage = mStageNames.indexOf(name);
+        if (stage < 0) {
+            stage = mStageNames.size();
+            mStageNames.add(name);
+        }
+        return stage;
+    }
+
+    public synchronized String getStageName(int stage) {
+        return mStageNames.get(stage);
+    }
+
+    /**
+     * 开启或关闭跟踪，可以在任意线程调用，下一帧生效
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        mRequestEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * 设置GPU计时查询，传null时放弃还没有返回的查询(EGLContext销毁之前调用)
+     * @param timer
+     */
+    public void setGpuTimer(GpuTimer timer) {
+        if (mGpuTimer != null && timer != mGpuTimer) {
+            for (int i = 0; i < mPendingCount; i++) {
+                mGpuTimer.releaseQuery(mPendingQueries[i]);
+            }
+            mGpuDiscardCount += mPendingCount;
+        }
+        mPendingCount = 0;
+        mActiveQuery = -1;
+        for (int i = 0; i < mDepth; i++) {
+            mStackQueries[i] = -1;
+        }
+        mGpuTimer = timer;
+    }
+
+    /**
+     * 每帧开始时调用，应用开关并回收已经返回的GPU计时结果
+     */
+    public void beginFrame() {
+        if (mDepth == 0) {
+            mEnabled = mRequestEnabled;
+        }
+        if (!mEnabled && mPendingCount == 0) {
+            return;
+        }
+        mFrame++;
+        pollGpuResults();
+    }
+
+    /**
+     * 开始一个只记录CPU时间的阶段
+     * @param stage
+     */
+    public void begin(int stage) {
+        if (mEnabled) {
+            push(stage, false);
+        }
+    }
+
+    /**
+     * 开始一个同时记录GPU耗时的阶段
+     * @param stage
+     */
+    public void beginGpu(int stage) {
+        if (mEnabled) {
+            push(stage, true);
+        }
+    }
+
+    /**
+     * 结束阶段
+     * @param stage 必须与最近一次begin的阶段一致
+     */
+    public void end(int stage) {
+        if (!mEnabled) {
+            return;
+        }
+        if (mDepth == 0 || mStackStages[mDepth - 1] != stage) {
+            throw new IllegalStateException("end(" + stage + ") does not match "
+                    + (mDepth == 0 ? "empty stack" : "begin(" + mStackStages[mDepth - 1] + ")"));
+        }
+        long endNs = mClock.nanoTime();
+        mDepth--;
+        int query = mStackQueries[mDepth];
+        if (query >= 0) {
+            mGpuTimer.endQuery(query);
+            mActiveQuery = -1;
+        }
+        long sequence = mBuffer.write(stage, mDepth, mFrame, mStackBegin[mDepth], endNs);
+        if (query >= 0) {
+            mPendingQueries[mPendingCount] = query;
+            mPendingSequences[mPendingCount] = sequence;
+            mPendingCount++;
+        }
+    }
+
+    private void push(int stage, boolean gpu) {
+        if (mDepth == MAX_DEPTH) {
+            throw new IllegalStateException("trace spans nested deeper than " + MAX_DEPTH);
+        }
+        int query = -1;
+        if (gpu && mGpuTimer != null && mActiveQuery < 0
+                && mPendingCount < MAX_PENDING_QUERIES) {
+            query = mGpuTimer.beginQuery();
+            mActiveQuery = query;
+        }
+        mStackStages[mDepth] = stage;
+        mStackQueries[mDepth] = query;
+        mStackBegin[mDepth] = mClock.nanoTime();
+        mDepth++;
+    }
+
+    /**
+     * 回收已经返回的GPU计时结果，保持等待队列的顺序
+     */
+    private void pollGpuResults() {
+        int kept = 0;
+        for (int i = 0; i < mPendingCount; i++) {
+            int query = mPendingQueries[i];
+            long result = mGpuTimer.getResult(query);
+            if (result == GpuTimer.RESULT_PENDING) {
+                mPendingQueries[kept] = query;
+                mPendingSequences[kept] = mPendingSequences[i];
+                kept++;
+                continue;
+            }
+            if (result < 0 || !mBuffer.setGpuTime(mPendingSequences[i], result)) {
+                mGpuDiscardCount++;
+            }
+            mGpuTimer.releaseQuery(query);
+        }
+        mPendingCount = kept;
+    }
+
+    /**
+     * 当前嵌套深度
+     * @return
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public int getFrame() {
+        return mFrame;
+    }
+
+    public TraceBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * 等待结果的GPU查询数
+     * @return
+     */
+    public int getPendingGpuCount() {
+        return mPendingCount;
+    }
+
+    /**
+     * 无效或者记录已被覆盖而丢弃的GPU结果数
+     * @return
+     */
+    public int getGpuDiscardCount() {
+        return mGpuDiscardCount;
+    }
+
+    /**
+     * 清空已有记录
+     */
+    public void clear() {
+        mBuffer.clear();
+    }
+
+    /**
+     * 导出为Chrome trace json
+     * @param writer
+     * @throws IOException
+     */
+    public void export(Writer writer) throws IOException {
+        String[] names;
+        synchronized (this) {
+            names = mStageNames.toArray(new String[mStageNames.size()]);
+        }
+        new ChromeTraceWriter(writer).write(mBuffer, names);
+    }
+}
@@ -0,0 +1,148 @@
+package com.cgfay.cainfilter.trace;
+
+/**
+ * 预分配的环形跟踪缓冲区
+ * 每条记录包含阶段id、嵌套深度、帧序号、CPU开始/结束时间和GPU耗时，使用并行数组保存，
+ * 写入时不分配内存，写满后覆盖最旧的记录。每条记录有一个递增的序号，
+ * GPU查询结果几帧之后才返回，通过序号回填，记录已经被覆盖时直接丢弃
+ * Created by cain on 2018/3/25.
+ */
+public final class TraceBuffer {
+
+    // 没有GPU耗时
+    public static final long NO_GPU_TIME = -1;
+
+    private final int mCapacity;
+    private final int mMask;
+
+    private final int[] mStages;
+    private final int[] mDepths;
+    private final int[] mFrames;
+    private final long[] mBeginNs;
+    private final long[] mEndNs;
+    private final long[] mGpuNs;
+
+    // 已写入的记录总数，也是下一条记录的序号
+    private long mWriteCount;
+
+    /**
+     * @param capacity 记录条数，必须是2的幂
+     */
+    public TraceBuffer(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mCapacity = capacity;
+        mMask = capacity - 1;
+        mStages = new int[capacity];
+        mDepths = new int[capacity];
+        mFrames = new int[capacity];
+        mBeginNs = new long[capacity];
+        mEndNs = new long[capacity];
+        mGpuNs = new long[capacity];
+    }
+
+    /**
+     * 写入一条记录
+     * @return 记录的序号
+     */
+    public long write(int stage, int depth, int frame, long beginNs, long endNs) {
+        long sequence = mWriteCount++;
+        int slot = (int) (sequence & mMask);
+        mStages[slot] = stage;
+        mDepths[slot] = depth;
+        mFrames[slot] = frame;
+        mBeginNs[slot] = beginNs;
+        mEndNs[slot] = endNs;
+        mGpuNs[slot] = NO_GPU_TIME;
+        return sequence;
+    }
+
+    /**
+     * 回填GPU耗时
+     * @param sequence 记录序号
+     * @param gpuNs
+     * @return 记录已经被覆盖时返回false
+     */
+    public boolean setGpuTime(long sequence, long gpuNs) {
+        if (!contains(sequence)) {
+            return false;
+        }
+        mGpuNs[(int) (sequence & mMask)] = gpuNs;
+        return true;
+    }
+
+    /**
+     * 序号对应的记录是否仍在缓冲区中
+     * @param sequence
+     * @return
+     */
+    public boolean contains(long sequence) {
+        return sequence >= 0 && sequence < mWriteCount && sequence >= mWriteCount - mCapacity;
+    }
+
+    /**
+     * 清空全部记录
+     */
+    public void clear() {
+        mWriteCount = 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 当前保存的记录条数
+     * @return
+     */
+    public int size() {
+        return (int) Math.min(mWriteCount, mCapacity);
+    }
+
+    /**
+     * 被覆盖的记录条数
+     * @return
+     */
+    public long getOverwrittenCount() {
+        return Math.max(0, mWriteCount - mCapacity);
+    }
+
+    ///------------------ 按时间顺序读取，0为最旧的记录 ------------------------///
+
+    private int slot(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + " size " + size());
+        }
+        return (int) ((mWriteCount - size() + index) & mMask);
+    }
+
+    public long getSequence(int index) {
+        slot(index);
+        return mWriteCount - size() + index;
+    }
+
+    public int getStage(int index) {
+        return mStages[slot(index)];
+    }
+
+    public int getDepth(int index) {
+        return mDepths[slot(index)];
+    }
+
+    public int getFrame(int index) {
+        return mFrames[slot(index)];
+    }
+
+    public long getBeginNs(int index) {
+        return mBeginNs[slot(index)];
+    }
+
+    public long getEndNs(int index) {
+        return mEndNs[slot(index)];
+    }
+
+    public long getGpuNs(int index) {
+        return mGpuNs[slot(index)];
+    }
+}
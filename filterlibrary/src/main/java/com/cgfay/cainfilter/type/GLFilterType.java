@@ -16,11 +16,13 @@ public enum GLFilterType {
     MIRROR, // 镜像
     SATURATION, // 饱和度
     SHARPNESS, // 锐度
+    COLORADJUST, // 颜色调节(亮度、对比度、曝光、色调、饱和度)
 
     WATERMASK, // 水印
 
     // 人脸美颜美妆贴纸
     REALTIMEBEAUTY, // 实时美颜
+    SEPARABLEBEAUTY, // 实时美颜(降采样可分离磨皮)
     FACESTRETCH, // 人脸变形(瘦脸大眼等)
 
     STICKER,    // 贴纸
@@ -0,0 +1,179 @@
+package com.cgfay.cainfilter.utils;
+
+/**
+ * 浮点RGB图像，取值范围0 ~ 1
+ * 用于在JVM上实现shader的CPU参考版本，采样方式与GL_LINEAR + GL_CLAMP_TO_EDGE的纹理一致，
+ * 纹理坐标(0, 0)为第一个像素的左上角，像素中心为(x + 0.5) / width
+ * Created by cain on 2018/3/25.
+ */
+public final class FloatImage {
+
+    public static final int CHANNELS = 3;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final float[] mData;
+
+    public FloatImage(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mData = new float[width * height * CHANNELS];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 按行排列的RGB数据
+     * @return
+     */
+    public float[] getData() {
+        return mData;
+    }
+
+    public float get(int x, int y, int channel) {
+        return mData[(y * mWidth + x) * CHANNELS + channel];
+    }
+
+    public void set(int x, int y, int channel, float value) {
+        mData[(y * mWidth + x) * CHANNELS + channel] = value;
+    }
+
+    public void set(int x, int y, float r, float g, float b) {
+        int index = (y * mWidth + x) * CHANNELS;
+        mData[index] = r;
+        mData[index + 1] = g;
+        mData[index + 2] = b;
+    }
+
+    /**
+     * 双线性采样，超出边界时取边缘像素
+     * @param u 纹理坐标
+     * @param v 纹理坐标
+     * @param channel
+     * @return
+     */
+    public float sample(float u, float v, int channel) {
+        return sample(mData, mWidth, mHeight, CHANNELS, u, v, channel);
+    }
+
+    /**
+     * 对按行排列的多通道数据做双线性采样，超出边界时取边缘像素
+     * @param data
+     * @param width
+     * @param height
+     * @param channels 通道数
+     * @param u 纹理坐标
+     * @param v 纹理坐标
+     * @param channel
+     * @return
+     */
+    public static float sample(float[] data, int width, int height, int channels,
+                               float u, float v, int channel) {
+        float x = u * width - 0.5f;
+        float y = v * height - 0.5f;
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        float fx = x - x0;
+        float fy = y - y0;
+        int x1 = clamp(x0 + 1, width);
+        int y1 = clamp(y0 + 1, height);
+        x0 = clamp(x0, width);
+        y0 = clamp(y0, height);
+        float top = data[(y0 * width + x0) * channels + channel] * (1 - fx)
+                + data[(y0 * width + x1) * channels + channel] * fx;
+        float bottom = data[(y1 * width + x0) * channels + channel] * (1 - fx)
+                + data[(y1 * width + x1) * channels + channel] * fx;
+        return top * (1 - fy) + bottom * fy;
+    }
+
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+
+    /**
+     * 峰值信噪比，单位dB，两幅图完全相同时返回正无穷
+     * @param other 相同大小的图像
+     * @return
+     */
+    public double psnr(FloatImage other) {
+        checkSize(other);
+        double sum = 0;
+        for (int i = 0; i < mData.length; i++) {
+            double diff = mData[i] - other.mData[i];
+            sum += diff * diff;
+        }
+        if (sum == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return 10 * Math.log10(mData.length / sum);
+    }
+
+    /**
+     * 亮度的结构相似性(SSIM)，8x8窗口，步长4，取所有窗口的平均值
+     * @param other 相同大小的图像
+     * @return -1 ~ 1，完全相同时为1
+     */
+    public double ssim(FloatImage other) {
+        checkSize(other);
+        final int window = 8;
+        final int stride = 4;
+        final double c1 = 0.01 * 0.01;
+        final double c2 = 0.03 * 0.03;
+        int count = 0;
+        double total = 0;
+        for (int y = 0; y + window <= mHeight; y += stride) {
+            for (int x = 0; x + window <= mWidth; x += stride) {
+                double sumA = 0;
+                double sumB = 0;
+                double sumAA = 0;
+                double sumBB = 0;
+                double sumAB = 0;
+                for (int j = y; j < y + window; j++) {
+                    for (int i = x; i < x + window; i++) {
+                        double a = luma(i, j);
+                        double b = other.luma(i, j);
+                        sumA += a;
+                        sumB += b;
+                        sumAA += a * a;
+                        sumBB += b * b;
+                        sumAB += a * b;
+                    }
+                }
+                int n = window * window;
+                double meanA = sumA / n;
+                double meanB = sumB / n;
+                double varA = sumAA / n - meanA * meanA;
+                double varB = sumBB / n - meanB * meanB;
+                double covariance = sumAB / n - meanA * meanB;
+                total += (2 * meanA * meanB + c1) * (2 * covariance + c2)
+                        / ((meanA * meanA + meanB * meanB + c1) * (varA + varB + c2));
+                count++;
+            }
+        }
+        return total / count;
+    }
+
+    /**
+     * BT.601亮度
+     */
+    private double luma(int x, int y) {
+        int index = (y * mWidth + x) * CHANNELS;
+        return 0.299 * mData[index] + 0.587 * mData[index + 1] + 0.114 * mData[index + 2];
+    }
+
+    private void checkSize(FloatImage other) {
+        if (other.mWidth != mWidth || other.mHeight != mHeight) {
+            throw new IllegalArgumentException("size mismatch " + mWidth + "x" + mHeight
+                    + " vs " + other.mWidth + "x" + other.mHeight);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.cgfay.cainfilter.archiver;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * ZipIndex、ZipArchive单元测试，压缩包由java.util.zip生成
+ */
+public class ZipArchiveTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        ZipArchive.clearIndexCache();
+    }
+
+    /**
+     * 生成压缩包
+     * @param file 输出文件
+     * @param entries 条目名称和内容，名称以!开头的条目不压缩
+     * @param comment 压缩包注释，可以为null
+     */
+    public static void writeZip(File file, Map<String, byte[]> entries, String comment)
+            throws IOException {
+        ZipOutputStream os = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String, byte[]> item : entries.entrySet()) {
+                String name = item.getKey();
+                byte[] data = item.getValue();
+                boolean stored = name.startsWith("!");
+                ZipEntry entry = new ZipEntry(stored ? name.substring(1) : name);
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCompressedSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                os.putNextEntry(entry);
+                os.write(data);
+                os.closeEntry();
+            }
+            if (comment != null) {
+                os.setComment(comment);
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    public static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                os.write(buffer, 0, count);
+            }
+            return os.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    static byte[] randomBytes(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 容易压缩的内容
+     */
+    static byte[] textBytes(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + (i * 7 / 13) % 26);
+        }
+        return data;
+    }
+
+    private Map<String, byte[]> createEntries() {
+        Random random = new Random(3);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("sticker.json", "{\"name\": \"cat\"}".getBytes());
+        entries.put("head/", new byte[0]);
+        entries.put("!head/head_000.png", randomBytes(random, 40000));
+        entries.put("head/head_001.png", textBytes(100000));
+        entries.put("!empty.txt", new byte[0]);
+        entries.put("empty_deflated.txt", new byte[0]);
+        entries.put("贴纸/说明.txt", "中文".getBytes());
+        return entries;
+    }
+
+    @Test
+    public void indexesCentralDirectory() throws IOException {
+        File file = mFolder.newFile("index.zip");
+        Map<String, byte[]> entries = createEntries();
+        writeZip(file, entries, "comment with PK\u0005\u0006 inside");
+        ZipArchive archive = ZipArchive.open(file);
+        try {
+            ZipIndex index = archive.getIndex();
+            assertEquals(entries.size(), index.size());
+            assertEquals(file.length(), index.getArchiveLength());
+            ZipIndex.Entry stored = index.getEntry("head/head_000.png");
+            assertEquals(ZipIndex.METHOD_STORED, stored.getMethod());
+            assertEquals(40000, stored.getSize());
+            assertEquals(40000, stored.getCompressedSize());
+            ZipIndex.Entry deflated = index.getEntry("head/head_001.png");
+            assertEquals(ZipIndex.METHOD_DEFLATED, deflated.getMethod());
+            assertEquals(100000, deflated.getSize());
+            assertTrue(deflated.getCompressedSize() < 100000);
+            assertTrue(index.getEntry("head/").isDirectory());
+            assertFalse(deflated.isEncrypted());
+            assertNotNull(index.getEntry("贴纸/说明.txt"));
+            assertNull(index.getEntry("missing.png"));
+            assertEquals("sticker.json", index.getEntries().get(0).getName());
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void readsStoredAndDeflatedEntries() throws IOException {
+        File file = mFolder.newFile("read.zip");
+        Map<String, byte[]> entries = createEntries();
+        writeZip(file, entries, null);
+        ZipArchive archive = ZipArchive.open(file);
+        try {
+            for (Map.Entry<String, byte[]> item : entries.entrySet()) {
+                String name = item.getKey().startsWith("!")
+                        ? item.getKey().substring(1) : item.getKey();
+                if (name.endsWith("/")) {
+                    continue;
+                }
+                assertArrayEquals(name, item.getValue(), readFully(archive.open(name)));
+            }
+            // 单字节读取
+            InputStream is = archive.open("sticker.json");
+            assertEquals('{', is.read());
+            is.close();
+            try {
+                archive.open("head/");
+                fail();
+            } catch (FileNotFoundException e) {
+                // 目录不能打开
+            }
+            try {
+                archive.open("missing.png");
+                fail();
+            } catch (FileNotFoundException e) {
+                // 期望的错误
+            }
+        } finally {
+            archive.close();
+        }
+        try {
+            archive.open("sticker.json");
+            fail();
+        } catch (IOException e) {
+            // 已经关闭
+        }
+    }
+
+    @Test
+    public void concurrentStreamsAreIndependent() throws IOException {
+        File file = mFolder.newFile("concurrent.zip");
+        Map<String, byte[]> entries = createEntries();
+        writeZip(file, entries, null);
+        ZipArchive archive = ZipArchive.open(file);
+        try {
+            InputStream first = archive.open("head/head_001.png");
+            InputStream second = archive.open("head/head_001.png");
+            InputStream third = archive.open("head/head_000.png");
+            ByteArrayOutputStream a = new ByteArrayOutputStream();
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            ByteArrayOutputStream c = new ByteArrayOutputStream();
+            byte[] buffer = new byte[777];
+            boolean done = false;
+            while (!done) {
+                done = true;
+                int count = first.read(buffer);
+                if (count > 0) {
+                    a.write(buffer, 0, count);
+                    done = false;
+                }
+                count = second.read(buffer, 0, 100);
+                if (count > 0) {
+                    b.write(buffer, 0, count);
+                    done = false;
+                }
+                count = third.read(buffer);
+                if (count > 0) {
+                    c.write(buffer, 0, count);
+                    done = false;
+                }
+            }
+            first.close();
+            second.close();
+            third.close();
+            assertArrayEquals(entries.get("head/head_001.png"), a.toByteArray());
+            assertArrayEquals(entries.get("head/head_001.png"), b.toByteArray());
+            assertArrayEquals(entries.get("!head/head_000.png"), c.toByteArray());
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void detectsCorruptedData() throws IOException {
+        File file = mFolder.newFile("corrupt.zip");
+        Map<String, byte[]> entries = createEntries();
+        writeZip(file, entries, null);
+        long offset;
+        ZipArchive archive = ZipArchive.open(file);
+        try {
+            ZipIndex.Entry entry = archive.getIndex().getEntry("head/head_000.png");
+            offset = entry.getLocalHeaderOffset() + 30 + entry.getName().length() + 100;
+        } finally {
+            archive.close();
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(offset);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(offset);
+            randomAccessFile.write(value ^ 0xff);
+        } finally {
+            randomAccessFile.close();
+        }
+        archive = ZipArchive.open(file);
+        try {
+            readFully(archive.open("head/head_000.png"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("crc"));
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void rejectsInvalidArchives() throws IOException {
+        File file = mFolder.newFile("invalid.zip");
+        FileOutputStream os = new FileOutputStream(file);
+        os.write(textBytes(1000));
+        os.close();
+        try {
+            ZipArchive.open(file);
+            fail();
+        } catch (IOException e) {
+            // 不是ZIP文件
+        }
+
+        // 截断的压缩包
+        File zip = mFolder.newFile("truncated.zip");
+        writeZip(zip, createEntries(), null);
+        byte[] data = readFully(new FileInputStream(zip));
+        os = new FileOutputStream(file);
+        os.write(Arrays.copyOfRange(data, data.length / 2, data.length));
+        os.close();
+        try {
+            ZipArchive.open(file);
+            fail();
+        } catch (IOException e) {
+            // 中央目录位置超出文件
+        }
+    }
+
+    @Test
+    public void cachesIndexUntilFileChanges() throws IOException {
+        File file = mFolder.newFile("cache.zip");
+        Map<String, byte[]> entries = createEntries();
+        writeZip(file, entries, null);
+        ZipArchive first = ZipArchive.open(file);
+        ZipArchive second = ZipArchive.open(file);
+        assertSame(first.getIndex(), second.getIndex());
+        first.close();
+        second.close();
+
+        entries.put("extra.txt", textBytes(10));
+        writeZip(file, entries, "changed");
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        ZipArchive third = ZipArchive.open(file);
+        try {
+            assertNotSame(first.getIndex(), third.getIndex());
+            assertNotNull(third.getIndex().getEntry("extra.txt"));
+        } finally {
+            third.close();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.cgfay.cainfilter.archiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * ZipExtractor单元测试
+ */
+public class ZipExtractorTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        ZipArchive.clearIndexCache();
+    }
+
+    /**
+     * 记录每次进度回调
+     */
+    private static class RecordingListener implements ZipExtractor.ProgressListener {
+        final List<long[]> mEvents = new ArrayList<long[]>();
+
+        @Override
+        public void onProgress(long extractedBytes, long totalBytes, int extractedEntries,
+                               int totalEntries) {
+            mEvents.add(new long[] { extractedBytes, totalBytes, extractedEntries,
+                    totalEntries });
+        }
+
+        long[] last() {
+            return mEvents.get(mEvents.size() - 1);
+        }
+    }
+
+    static Map<String, byte[]> createEntries(int files, int size) {
+        Random random = new Random(5);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("filters/", new byte[0]);
+        for (int i = 0; i < files; i++) {
+            byte[] data = new byte[size + random.nextInt(size)];
+            if (i % 2 == 0) {
+                random.nextBytes(data);
+            } else {
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = (byte) ('a' + (j * 31 / 7 + i) % 26);
+                }
+            }
+            entries.put((i % 3 == 0 ? "!" : "") + "filters/" + (i % 4) + "/file" + i + ".bin",
+                    data);
+        }
+        entries.put("!empty.txt", new byte[0]);
+        return entries;
+    }
+
+    static long totalSize(Map<String, byte[]> entries) {
+        long total = 0;
+        for (byte[] data : entries.values()) {
+            total += data.length;
+        }
+        return total;
+    }
+
+    static void assertExtracted(File directory, Map<String, byte[]> entries)
+            throws IOException {
+        for (Map.Entry<String, byte[]> item : entries.entrySet()) {
+            String name = item.getKey().startsWith("!")
+                    ? item.getKey().substring(1) : item.getKey();
+            File file = new File(directory, name);
+            if (name.endsWith("/")) {
+                assertTrue(name, file.isDirectory());
+            } else {
+                assertArrayEquals(name, item.getValue(),
+                        ZipArchiveTest.readFully(new FileInputStream(file)));
+                assertFalse(new File(file.getPath() + ".part").exists());
+            }
+        }
+        assertFalse(new File(directory, ZipExtractor.JOURNAL_NAME).exists());
+    }
+
+    @Test
+    public void extractsAllEntriesInParallel() throws IOException {
+        Map<String, byte[]> entries = createEntries(40, 20000);
+        File zip = mFolder.newFile("pack.zip");
+        ZipArchiveTest.writeZip(zip, entries, null);
+        assertTrue(ZipExtractor.canExtract(zip));
+        File directory = new File(mFolder.getRoot(), "out");
+        BufferPool pool = new BufferPool(16 * 1024, 4);
+        ZipExtractor extractor = new ZipExtractor(mExecutor, 4, pool);
+        RecordingListener listener = new RecordingListener();
+        extractor.setProgressListener(listener, 1);
+        assertTrue(extractor.extract(zip, directory));
+        assertExtracted(directory, entries);
+
+        // 进度单调递增，最后一次是全部完成
+        long previous = -1;
+        for (long[] event : listener.mEvents) {
+            assertTrue(event[0] >= previous);
+            assertEquals(totalSize(entries), event[1]);
+            previous = event[0];
+        }
+        assertArrayEquals(new long[] { totalSize(entries), totalSize(entries),
+                entries.size(), entries.size() }, listener.last());
+        assertEquals(0, extractor.getSkippedEntryCount());
+        // 缓冲区在条目之间复用
+        assertTrue(pool.getAllocatedCount() <= 4);
+    }
+
+    @Test
+    public void throttlesProgress() throws IOException {
+        Map<String, byte[]> entries = createEntries(20, 10000);
+        File zip = mFolder.newFile("throttle.zip");
+        ZipArchiveTest.writeZip(zip, entries, null);
+        ZipExtractor extractor = new ZipExtractor(mExecutor, 2,
+                new BufferPool(4096, 2));
+        RecordingListener listener = new RecordingListener();
+        extractor.setProgressListener(listener, 60 * 1000);
+        assertTrue(extractor.extract(zip, mFolder.newFolder("throttle")));
+        // 间隔足够长时只有完成时的一次
+        assertEquals(1, listener.mEvents.size());
+        assertEquals(totalSize(entries), listener.last()[0]);
+    }
+
+    @Test
+    public void resumesAfterCancel() throws IOException {
+        final Map<String, byte[]> entries = createEntries(200, 30000);
+        File zip = mFolder.newFile("resume.zip");
+        ZipArchiveTest.writeZip(zip, entries, null);
+        File directory = mFolder.newFolder("resume");
+
+        // 单线程按顺序解压，完成一部分之后取消，条目足够多，取消时不会已经全部完成
+        final ZipExtractor first = new ZipExtractor(mExecutor, 1, new BufferPool(4096, 1));
+        first.setProgressListener(new ZipExtractor.ProgressListener() {
+            @Override
+            public void onProgress(long extractedBytes, long totalBytes, int extractedEntries,
+                                   int totalEntries) {
+                if (extractedEntries >= 5) {
+                    first.cancel();
+                }
+            }
+        }, 1);
+        assertFalse(first.extract(zip, directory));
+        assertTrue(first.isCancelled());
+        int finished = first.getExtractedEntryCount();
+        assertTrue(finished >= 5);
+        assertTrue(finished < entries.size());
+        assertTrue(new File(directory, ZipExtractor.JOURNAL_NAME).isFile());
+        // 取消时正在写入的临时文件已经删除
+        for (String name : entries.keySet()) {
+            String path = name.startsWith("!") ? name.substring(1) : name;
+            assertFalse(new File(directory, path + ".part").exists());
+        }
+
+        ZipExtractor second = new ZipExtractor(mExecutor, 4, new BufferPool(4096, 4));
+        RecordingListener listener = new RecordingListener();
+        second.setProgressListener(listener, 1);
+        assertTrue(second.extract(zip, directory));
+        // 目录条目不记录在日志中
+        assertEquals(finished - 1, second.getSkippedEntryCount());
+        assertEquals(entries.size(), second.getExtractedEntryCount());
+        assertExtracted(directory, entries);
+    }
+
+    @Test
+    public void reextractsChangedFilesOnResume() throws IOException {
+        Map<String, byte[]> entries = createEntries(6, 1000);
+        File zip = mFolder.newFile("changed.zip");
+        ZipArchiveTest.writeZip(zip, entries, null);
+        File directory = mFolder.newFolder("changed");
+        ZipExtractor cancelled = new ZipExtractor(mExecutor, 2, new BufferPool(4096, 2));
+        cancelled.cancel();
+        assertFalse(cancelled.extract(zip, directory));
+
+        // 日志中记录了完成，但文件长度已经不对
+        File journal = new File(directory, ZipExtractor.JOURNAL_NAME);
+        File file = new File(directory, "filters/1/file1.bin");
+        file.getParentFile().mkdirs();
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.setLength(3);
+        output.close();
+        RandomAccessFile log = new RandomAccessFile(journal, "rw");
+        log.seek(log.length());
+        log.write("0 filters/1/file1.bin\nbroken\n".getBytes("UTF-8"));
+        log.close();
+
+        ZipExtractor extractor = new ZipExtractor(mExecutor, 2, new BufferPool(4096, 2));
+        assertTrue(extractor.extract(zip, directory));
+        assertEquals(0, extractor.getSkippedEntryCount());
+        assertExtracted(directory, entries);
+    }
+
+    @Test
+    public void failsOnCrcMismatch() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("!a.bin", new byte[5000]);
+        entries.put("b.bin", new byte[5000]);
+        File zip = mFolder.newFile("crc.zip");
+        ZipArchiveTest.writeZip(zip, entries, null);
+        // 修改存储条目中的一个字节
+        RandomAccessFile file = new RandomAccessFile(zip, "rw");
+        file.seek(30 + "a.bin".length() + 2500);
+        file.write(1);
+        file.close();
+        File directory = mFolder.newFolder("crc");
+        ZipExtractor extractor = new ZipExtractor(mExecutor, 2, new BufferPool(4096, 2));
+        try {
+            extractor.extract(zip, directory);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("crc"));
+        }
+        assertFalse(new File(directory, "a.bin").exists());
+        assertFalse(new File(directory, "a.bin.part").exists());
+    }
+
+    @Test
+    public void rejectsEntriesOutsideDirectory() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("../evil.txt", new byte[] { 1 });
+        File zip = mFolder.newFile("slip.zip");
+        ZipArchiveTest.writeZip(zip, entries, null);
+        File directory = mFolder.newFolder("slip");
+        try {
+            new ZipExtractor(mExecutor, 1, new BufferPool(4096, 1)).extract(zip, directory);
+            fail();
+        } catch (IOException e) {
+            // 期望的错误
+        }
+        assertFalse(new File(mFolder.getRoot(), "evil.txt").exists());
+    }
+}
@@ -0,0 +1,312 @@
+package com.cgfay.cainfilter.camerarender;
+
+import com.cgfay.cainfilter.gles.LookupTextureCache;
+import com.cgfay.cainfilter.gles.ProgramCache;
+import com.cgfay.cainfilter.type.GLFilterType;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * FilterWarmUpScheduler 单元测试，使用假的GL后端模拟program编译和贴图上传
+ */
+public class FilterWarmUpSchedulerTest {
+
+    private static final List<GLFilterType> FILTERS = Arrays.asList(
+            GLFilterType.SOURCE, GLFilterType.AMARO, GLFilterType.ANTIQUE,
+            GLFilterType.BLACKCAT, GLFilterType.BLACKWHITE, GLFilterType.BROOKLYN,
+            GLFilterType.CALM, GLFilterType.COOL, GLFilterType.EARLYBIRD,
+            GLFilterType.EMERALD, GLFilterType.EVERGREEN, GLFilterType.FAIRYTALE);
+
+    /**
+     * 假的GL：共享组中的program缓存和贴图缓存，记录在哪个线程上编译和上传
+     */
+    private static class FakeGL implements ProgramCache.ProgramCompiler,
+            LookupTextureCache.TextureLoader {
+        final ProgramCache programs = new ProgramCache(this);
+        final LookupTextureCache textures = new LookupTextureCache(this, 64);
+        int nextHandle = 1;
+        // 是否在后台线程，编译和上传计入不同的统计
+        boolean background;
+        int backgroundWork;
+        int renderThreadWork;
+
+        @Override
+        public int createProgram(String vertexSource, String fragmentSource) {
+            countWork();
+            return nextHandle++;
+        }
+
+        @Override
+        public void deleteProgram(int program) {
+        }
+
+        @Override
+        public int loadTexture(String name) {
+            countWork();
+            return nextHandle++;
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+        }
+
+        private void countWork() {
+            if (background) {
+                backgroundWork++;
+            } else {
+                renderThreadWork++;
+            }
+        }
+
+        /**
+         * 创建再释放一次滤镜：一个program加两张贴图
+         */
+        void createAndRelease(GLFilterType type) {
+            int program = programs.acquire("vertex", type.name());
+            int first = textures.acquire(type.name() + "_map.png");
+            int second = textures.acquire(type.name() + "_curve.png");
+            programs.release(program);
+            textures.release(first);
+            textures.release(second);
+        }
+    }
+
+    /**
+     * 在假GL的后台上下文中预热
+     */
+    private static class FakeBackend implements FilterWarmUpScheduler.WarmUpBackend {
+        final FakeGL gl;
+        final List<GLFilterType> warmed = new ArrayList<GLFilterType>();
+        final Set<GLFilterType> failing = new HashSet<GLFilterType>();
+
+        FakeBackend(FakeGL gl) {
+            this.gl = gl;
+        }
+
+        @Override
+        public boolean warmUp(GLFilterType type) {
+            if (failing.contains(type)) {
+                return false;
+            }
+            gl.background = true;
+            gl.createAndRelease(type);
+            gl.background = false;
+            warmed.add(type);
+            return true;
+        }
+    }
+
+    private static FilterWarmUpScheduler createScheduler(FakeBackend backend) {
+        FilterWarmUpScheduler scheduler = new FilterWarmUpScheduler(backend, 2, 3, 12);
+        scheduler.setFilterList(FILTERS);
+        return scheduler;
+    }
+
+    private static void runAll(FilterWarmUpScheduler scheduler) {
+        while (scheduler.runNext()) {
+            // 执行全部等待中的任务
+        }
+    }
+
+    @Test
+    public void startupWarmsCurrentThenNearestNeighbours() {
+        FakeBackend backend = new FakeBackend(new FakeGL());
+        FilterWarmUpScheduler scheduler = createScheduler(backend);
+        scheduler.setCurrentFilter(GLFilterType.CALM);
+        assertEquals(Arrays.asList(GLFilterType.CALM, GLFilterType.COOL, GLFilterType.BROOKLYN,
+                GLFilterType.EARLYBIRD, GLFilterType.BLACKWHITE), scheduler.getPendingFilters());
+        runAll(scheduler);
+        assertEquals(5, backend.warmed.size());
+        assertEquals(0, scheduler.getPendingFilters().size());
+        assertTrue(scheduler.isWarmed(GLFilterType.BLACKWHITE));
+    }
+
+    @Test
+    public void neighboursWrapAroundTheFilterList() {
+        FilterWarmUpScheduler scheduler = createScheduler(new FakeBackend(new FakeGL()));
+        scheduler.setCurrentFilter(GLFilterType.SOURCE);
+        assertEquals(Arrays.asList(GLFilterType.SOURCE, GLFilterType.AMARO, GLFilterType.FAIRYTALE,
+                GLFilterType.ANTIQUE, GLFilterType.EVERGREEN), scheduler.getPendingFilters());
+    }
+
+    @Test
+    public void reselectionCancelsStaleTasksAndReprioritizes() {
+        FakeBackend backend = new FakeBackend(new FakeGL());
+        FilterWarmUpScheduler scheduler = createScheduler(backend);
+        scheduler.setCurrentFilter(GLFilterType.CALM);
+        // 还没有开始预热就跳到了列表的另一端
+        scheduler.onFilterSelected(GLFilterType.EVERGREEN);
+        List<GLFilterType> pending = scheduler.getPendingFilters();
+        // CALM是最近使用的滤镜，优先级降到最后；CALM周围的滤镜被取消
+        assertEquals(Arrays.asList(GLFilterType.FAIRYTALE, GLFilterType.EMERALD,
+                GLFilterType.SOURCE, GLFilterType.EARLYBIRD, GLFilterType.CALM), pending);
+        // COOL、BROOKLYN、BLACKWHITE被取消，EARLYBIRD也与EVERGREEN相邻，保留下来
+        assertEquals(3, scheduler.getCancelledCount());
+        assertFalse(pending.contains(GLFilterType.BROOKLYN));
+        assertTrue(scheduler.cancel(GLFilterType.SOURCE));
+        assertFalse(scheduler.cancel(GLFilterType.SOURCE));
+        runAll(scheduler);
+        assertFalse(backend.warmed.contains(GLFilterType.SOURCE));
+        assertFalse(backend.warmed.contains(GLFilterType.EVERGREEN));
+    }
+
+    @Test
+    public void warmedFiltersAreNotRequestedAgain() {
+        FakeBackend backend = new FakeBackend(new FakeGL());
+        FilterWarmUpScheduler scheduler = createScheduler(backend);
+        scheduler.setCurrentFilter(GLFilterType.CALM);
+        runAll(scheduler);
+        scheduler.onFilterSelected(GLFilterType.COOL);
+        // COOL周围只有EMERALD是新的
+        assertEquals(Arrays.asList(GLFilterType.EMERALD), scheduler.getPendingFilters());
+        assertFalse(scheduler.request(GLFilterType.CALM, FilterWarmUpScheduler.PRIORITY_CURRENT));
+    }
+
+    @Test
+    public void swipingThroughFiltersHitsWarmCaches() {
+        FakeGL gl = new FakeGL();
+        FakeBackend backend = new FakeBackend(gl);
+        FilterWarmUpScheduler scheduler = createScheduler(backend);
+        scheduler.setCurrentFilter(GLFilterType.SOURCE);
+        runAll(scheduler);
+        for (int i = 1; i < FILTERS.size(); i++) {
+            GLFilterType type = FILTERS.get(i);
+            scheduler.onFilterSelected(type);
+            // 渲染线程创建滤镜
+            gl.createAndRelease(type);
+            // 两次切换之间后台线程有足够的时间
+            runAll(scheduler);
+        }
+        assertEquals(1.0f, scheduler.getHitRate(), 0);
+        // 编译和上传全部在后台线程完成，渲染线程上没有
+        assertTrue(gl.backgroundWork > 0);
+        assertEquals(0, gl.renderThreadWork);
+    }
+
+    @Test
+    public void withoutWarmUpEveryFirstUseMisses() {
+        FakeGL gl = new FakeGL();
+        FilterWarmUpScheduler scheduler = createScheduler(new FakeBackend(gl));
+        for (int i = 1; i < FILTERS.size(); i++) {
+            scheduler.onFilterSelected(FILTERS.get(i));
+            gl.createAndRelease(FILTERS.get(i));
+        }
+        // 切换回用过的滤镜命中缓存
+        scheduler.onFilterSelected(FILTERS.get(1));
+        gl.createAndRelease(FILTERS.get(1));
+        assertEquals(1, scheduler.getHitCount());
+        assertEquals(FILTERS.size() - 1, scheduler.getMissCount());
+        assertEquals((FILTERS.size() - 1) * 3, gl.renderThreadWork);
+    }
+
+    @Test
+    public void jumpsBeyondTheWindowMissAndLimitIsEnforced() {
+        FakeBackend backend = new FakeBackend(new FakeGL());
+        FilterWarmUpScheduler scheduler = new FilterWarmUpScheduler(backend, 1, 0, 3);
+        scheduler.setFilterList(FILTERS);
+        scheduler.setCurrentFilter(GLFilterType.CALM);
+        runAll(scheduler);
+        scheduler.onFilterSelected(GLFilterType.COOL);
+        runAll(scheduler);
+        scheduler.onFilterSelected(GLFilterType.SOURCE);
+        assertEquals(1, scheduler.getHitCount());
+        assertEquals(1, scheduler.getMissCount());
+        assertEquals(0.5f, scheduler.getHitRate(), 0);
+        runAll(scheduler);
+        // 只记录3个已预热的滤镜，最早的CALM视为已被缓存淘汰
+        assertFalse(scheduler.isWarmed(GLFilterType.CALM));
+        scheduler.onFilterSelected(GLFilterType.CALM);
+        assertEquals(2, scheduler.getMissCount());
+    }
+
+    @Test
+    public void failedWarmUpIsCountedAndRetried() {
+        FakeBackend backend = new FakeBackend(new FakeGL());
+        backend.failing.add(GLFilterType.COOL);
+        FilterWarmUpScheduler scheduler = createScheduler(backend);
+        scheduler.setCurrentFilter(GLFilterType.CALM);
+        runAll(scheduler);
+        assertEquals(1, scheduler.getFailedCount());
+        assertEquals(4, scheduler.getWarmedCount());
+        assertFalse(scheduler.isWarmed(GLFilterType.COOL));
+        // 再次规划时重新请求
+        scheduler.onFilterSelected(GLFilterType.BROOKLYN);
+        assertTrue(scheduler.getPendingFilters().contains(GLFilterType.COOL));
+    }
+
+    @Test
+    public void restartForgetsWarmedResourcesButKeepsStatistics() {
+        FakeBackend backend = new FakeBackend(new FakeGL());
+        FilterWarmUpScheduler scheduler = createScheduler(backend);
+        scheduler.setCurrentFilter(GLFilterType.CALM);
+        runAll(scheduler);
+        scheduler.onFilterSelected(GLFilterType.COOL);
+        scheduler.shutdown();
+        assertFalse(scheduler.runNext());
+        assertFalse(scheduler.request(GLFilterType.LATTE, FilterWarmUpScheduler.PRIORITY_CURRENT));
+        scheduler.restart();
+        assertFalse(scheduler.isWarmed(GLFilterType.COOL));
+        assertEquals(1, scheduler.getHitCount());
+        scheduler.setCurrentFilter(GLFilterType.COOL);
+        assertEquals(GLFilterType.COOL, scheduler.getPendingFilters().get(0));
+    }
+
+    @Test
+    public void backgroundThreadRunsUntilShutdown() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<GLFilterType> warmed = new ArrayList<GLFilterType>();
+        final FilterWarmUpScheduler scheduler = new FilterWarmUpScheduler(
+                new FilterWarmUpScheduler.WarmUpBackend() {
+                    @Override
+                    public boolean warmUp(GLFilterType type) {
+                        started.countDown();
+                        try {
+                            release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            return false;
+                        }
+                        synchronized (warmed) {
+                            warmed.add(type);
+                        }
+                        return true;
+                    }
+                }, 2, 3, 12);
+        scheduler.setFilterList(FILTERS);
+        Thread worker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (scheduler.awaitAndRunNext()) {
+                        // 执行到停止为止
+                    }
+                } catch (InterruptedException e) {
+                    // 退出
+                }
+            }
+        };
+        worker.start();
+        scheduler.setCurrentFilter(GLFilterType.CALM);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // 正在执行CALM，不会重复请求
+        assertFalse(scheduler.request(GLFilterType.CALM, FilterWarmUpScheduler.PRIORITY_CURRENT));
+        scheduler.shutdown();
+        release.countDown();
+        worker.join(5000);
+        assertFalse(worker.isAlive());
+        // 正在执行的任务完成，等待中的任务全部取消
+        assertEquals(Arrays.asList(GLFilterType.CALM), warmed);
+        assertEquals(4, scheduler.getCancelledCount());
+        assertTrue(scheduler.isWarmed(GLFilterType.CALM));
+    }
+}
@@ -0,0 +1,240 @@
+package com.cgfay.cainfilter.camerarender;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameScheduler 单元测试，使用模拟的相机帧、vsync和人脸检测事件
+ */
+public class FrameSchedulerTest {
+
+    private static final long MS = 1000000L;
+    private static final long PERIOD = FrameScheduler.DEFAULT_VSYNC_PERIOD_NS;
+
+    private static class FakeClock implements FrameScheduler.Clock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        void advanceTo(long time) {
+            now = Math.max(now, time);
+        }
+    }
+
+    /**
+     * 模拟渲染线程：相机帧回调和vsync都在渲染线程处理，绘制期间到达的事件要等绘制结束
+     */
+    private static class Simulation {
+        final FakeClock clock = new FakeClock();
+        final FrameScheduler scheduler = new FrameScheduler(clock, PERIOD);
+        final Random random = new Random(5);
+        final List<Long> drawStarts = new ArrayList<Long>();
+        final List<Long> drawEnds = new ArrayList<Long>();
+
+        long frameInterval = 33 * MS;
+        long frameJitter = 0;
+        long drawDuration = 5 * MS;
+        long drawJitter = 0;
+        // 0表示不检测人脸
+        long trackerDuration = 0;
+
+        void run(long duration) {
+            scheduler.setTrackingEnabled(trackerDuration > 0);
+            long nextFrame = 3 * MS;
+            long nextVsync = PERIOD;
+            long trackerDoneAt = Long.MAX_VALUE;
+            long busyUntil = 0;
+            while (Math.min(nextFrame, nextVsync) < duration) {
+                if (trackerDoneAt <= nextFrame && trackerDoneAt <= nextVsync) {
+                    // 检测线程不受渲染线程影响
+                    clock.advanceTo(trackerDoneAt);
+                    scheduler.onTrackingFinished();
+                    trackerDoneAt = Long.MAX_VALUE;
+                } else if (nextFrame <= nextVsync) {
+                    clock.advanceTo(Math.max(nextFrame, busyUntil));
+                    scheduler.onFrameAvailable();
+                    // 检测线程空闲时才开始新的检测
+                    if (trackerDuration > 0 && trackerDoneAt == Long.MAX_VALUE) {
+                        scheduler.onTrackingStarted();
+                        trackerDoneAt = clock.now + trackerDuration;
+                    }
+                    nextFrame += frameInterval + jitter(frameJitter);
+                } else {
+                    // 绘制期间错过的vsync不会回调
+                    if (nextVsync >= busyUntil) {
+                        clock.advanceTo(nextVsync);
+                        if (scheduler.onVsync(nextVsync)) {
+                            drawStarts.add(clock.now);
+                            clock.advanceTo(clock.now + drawDuration + jitter(drawJitter));
+                            scheduler.onDrawFinished();
+                            drawEnds.add(clock.now);
+                            busyUntil = clock.now;
+                        }
+                    }
+                    nextVsync += PERIOD;
+                }
+            }
+        }
+
+        long jitter(long range) {
+            return range > 0 ? (long) (random.nextDouble() * range) : 0;
+        }
+
+        void assertAccounting() {
+            int pending = scheduler.hasPendingFrame() ? 1 : 0;
+            assertEquals(scheduler.getFrameCount(),
+                    scheduler.getDrawnCount() + scheduler.getTotalDropCount() + pending);
+            // 同一时刻最多一个绘制，一个vsync最多一次绘制
+            for (int i = 1; i < drawStarts.size(); i++) {
+                assertTrue(drawStarts.get(i) >= drawEnds.get(i - 1));
+                assertTrue(drawStarts.get(i) - drawStarts.get(i - 1) >= PERIOD);
+            }
+        }
+    }
+
+    @Test
+    public void lightLoadDrawsEveryFrameWithinOneVsync() {
+        Simulation sim = new Simulation();
+        sim.frameJitter = 2 * MS;
+        sim.drawJitter = 4 * MS;
+        sim.run(10000 * MS);
+        sim.assertAccounting();
+        FrameScheduler scheduler = sim.scheduler;
+        assertEquals(0, scheduler.getTotalDropCount());
+        assertTrue(scheduler.getFrameCount() > 290);
+        assertTrue(scheduler.getMaxLatency() <= PERIOD);
+        assertEquals(0, scheduler.getOverBudgetCount());
+    }
+
+    @Test
+    public void overloadKeepsOnlyNewestFrames() {
+        // 60fps的相机，每帧绘制需要约两个刷新周期
+        Simulation sim = new Simulation();
+        sim.frameInterval = PERIOD;
+        sim.drawDuration = 25 * MS;
+        sim.drawJitter = 5 * MS;
+        sim.run(10000 * MS);
+        sim.assertAccounting();
+        FrameScheduler scheduler = sim.scheduler;
+        assertTrue(scheduler.getOverBudgetCount() > 0);
+        assertTrue(scheduler.getDropCount(FrameScheduler.DropReason.SUPERSEDED) > 0);
+        // 绘制速率被限制在刷新率的一半左右，不会连续突发绘制
+        int drawn = scheduler.getDrawnCount();
+        assertTrue("drawn " + drawn, drawn > 250 && drawn <= 300);
+        for (int i = 1; i < sim.drawStarts.size(); i++) {
+            assertTrue(sim.drawStarts.get(i) - sim.drawStarts.get(i - 1) >= 2 * PERIOD - PERIOD / 2);
+        }
+        // 绘制的帧都不会太旧
+        assertTrue(scheduler.getMaxLatency() <= 3 * PERIOD);
+    }
+
+    @Test
+    public void slowTrackerDropsWaitingFrames() {
+        // 人脸检测需要45ms，检测期间到达的帧需要等待
+        Simulation sim = new Simulation();
+        sim.frameInterval = 20 * MS;
+        sim.trackerDuration = 45 * MS;
+        sim.run(10000 * MS);
+        sim.assertAccounting();
+        FrameScheduler scheduler = sim.scheduler;
+        assertTrue(scheduler.getDropCount(FrameScheduler.DropReason.TRACKER_BUSY) > 0);
+        // 检测约60ms完成一次，大部分检测结果都能绘制出来
+        assertTrue(scheduler.getDrawnCount() > 120);
+        assertTrue(scheduler.getMaxLatency() <= 3 * PERIOD);
+    }
+
+    @Test
+    public void fastTrackerDoesNotDropFrames() {
+        Simulation sim = new Simulation();
+        sim.trackerDuration = 10 * MS;
+        sim.frameJitter = 2 * MS;
+        sim.run(5000 * MS);
+        sim.assertAccounting();
+        assertEquals(0, sim.scheduler.getTotalDropCount());
+        assertTrue(sim.scheduler.getMaxLatency() <= 2 * PERIOD);
+    }
+
+    @Test
+    public void frameWaitingForTrackerIsDrawnAfterTimeout() {
+        FakeClock clock = new FakeClock();
+        FrameScheduler scheduler = new FrameScheduler(clock, PERIOD);
+        scheduler.setTrackingEnabled(true);
+        scheduler.onTrackingStarted();
+        scheduler.onFrameAvailable();
+        assertFalse(scheduler.onVsync(PERIOD));
+        // 检测超时为两个周期
+        clock.now = 2 * PERIOD;
+        assertTrue(scheduler.onVsync(2 * PERIOD));
+        scheduler.onDrawFinished();
+        assertEquals(0, scheduler.getTotalDropCount());
+    }
+
+    @Test
+    public void staleFrameIsDroppedAsLate() {
+        FakeClock clock = new FakeClock();
+        FrameScheduler scheduler = new FrameScheduler(clock, PERIOD);
+        scheduler.setTrackingEnabled(true);
+        scheduler.setTrackerTimeout(10 * PERIOD);
+        scheduler.onTrackingStarted();
+        scheduler.onFrameAvailable();
+        for (int i = 1; i <= 3; i++) {
+            assertFalse(scheduler.onVsync(i * PERIOD));
+        }
+        clock.now = 3 * PERIOD + MS;
+        scheduler.onTrackingFinished();
+        assertFalse(scheduler.onVsync(4 * PERIOD));
+        assertEquals(1, scheduler.getDropCount(FrameScheduler.DropReason.LATE));
+        assertFalse(scheduler.hasPendingFrame());
+    }
+
+    @Test
+    public void supersededFrameIsCounted() {
+        FakeClock clock = new FakeClock();
+        FrameScheduler scheduler = new FrameScheduler(clock, PERIOD);
+        scheduler.onFrameAvailable();
+        clock.now = 5 * MS;
+        scheduler.onFrameAvailable();
+        clock.now = PERIOD;
+        assertTrue(scheduler.onVsync(PERIOD));
+        scheduler.onDrawFinished();
+        assertEquals(1, scheduler.getDropCount(FrameScheduler.DropReason.SUPERSEDED));
+        // 绘制的是最新的帧
+        assertEquals(PERIOD - 5 * MS, scheduler.getMaxLatency());
+    }
+
+    @Test
+    public void overBudgetDrawHoldsFollowingVsyncs() {
+        FakeClock clock = new FakeClock();
+        FrameScheduler scheduler = new FrameScheduler(clock, PERIOD);
+        scheduler.onFrameAvailable();
+        clock.now = PERIOD;
+        assertTrue(scheduler.onVsync(PERIOD));
+        // 绘制用了两个半周期
+        clock.now = PERIOD + PERIOD * 5 / 2;
+        scheduler.onDrawFinished();
+        assertEquals(1, scheduler.getOverBudgetCount());
+        scheduler.onFrameAvailable();
+        // 下一次绘制在三个周期之后
+        assertFalse(scheduler.onVsync(3 * PERIOD));
+        assertEquals(1, scheduler.getHeldVsyncCount());
+        clock.now = 4 * PERIOD;
+        assertTrue(scheduler.onVsync(4 * PERIOD));
+    }
+
+    @Test
+    public void resetDiscardsPendingFrame() {
+        FrameScheduler scheduler = new FrameScheduler(new FakeClock(), PERIOD);
+        scheduler.onFrameAvailable();
+        scheduler.reset();
+        assertFalse(scheduler.hasPendingFrame());
+        assertFalse(scheduler.onVsync(PERIOD));
+    }
+}
@@ -0,0 +1,189 @@
+package com.cgfay.cainfilter.camerarender;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResolutionController 单元测试，绘制时间 = 固定开销 + 全分辨率开销 * 比例^2，可以叠加随机抖动
+ */
+public class ResolutionControllerTest {
+
+    private static final long MS = 1000000L;
+    private static final long TARGET = 33 * MS;
+
+    /**
+     * 负载曲线
+     */
+    private interface Load {
+        /**
+         * 第frame帧全分辨率下比例相关的开销，单位毫秒
+         */
+        double costMs(int frame);
+    }
+
+    private static Load constant(final double costMs) {
+        return new Load() {
+            @Override
+            public double costMs(int frame) {
+                return costMs;
+            }
+        };
+    }
+
+    /**
+     * 模拟结果
+     */
+    private static class Simulation {
+        final ResolutionController controller = new ResolutionController(TARGET);
+        final Random random = new Random(11);
+        double baseMs = 5;
+        double noise = 0;
+        float[] scales;
+        double[] times;
+        int[] changeFrames = new int[1000];
+        int changes;
+
+        void run(Load load, int frames) {
+            scales = new float[frames];
+            times = new double[frames];
+            for (int i = 0; i < frames; i++) {
+                float scale = controller.getScale();
+                double time = baseMs + load.costMs(i) * scale * scale;
+                time *= 1 + noise * (random.nextDouble() * 2 - 1);
+                scales[i] = scale;
+                times[i] = time;
+                if (controller.onFrameTime((long) (time * MS))) {
+                    changeFrames[changes++] = i;
+                }
+            }
+        }
+
+        int changesBetween(int from, int to) {
+            int count = 0;
+            for (int i = 0; i < changes; i++) {
+                if (changeFrames[i] >= from && changeFrames[i] < to) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        double averageTime(int from, int to) {
+            double total = 0;
+            for (int i = from; i < to; i++) {
+                total += times[i];
+            }
+            return total / (to - from);
+        }
+    }
+
+    @Test
+    public void lightLoadStaysAtFullResolution() {
+        Simulation simulation = new Simulation();
+        simulation.noise = 0.2;
+        simulation.run(constant(15), 600);
+        assertEquals(0, simulation.changes);
+        assertEquals(1.0f, simulation.controller.getScale(), 0);
+    }
+
+    @Test
+    public void heavyLoadConvergesWithinBudget() {
+        Simulation simulation = new Simulation();
+        // 全分辨率50ms，0.8档约33.8ms仍然超出，0.7档约27ms
+        simulation.run(constant(45), 1000);
+        int settled = simulation.changeFrames[simulation.changes - 1];
+        assertTrue("settled at " + settled, settled < 150);
+        assertEquals(0.7f, simulation.controller.getScale(), 0);
+        assertTrue(simulation.averageTime(settled + 20, 1000) < TARGET / (double) MS);
+        // 下降过程中不会回头
+        for (int i = 1; i < 1000; i++) {
+            assertTrue(simulation.scales[i] <= simulation.scales[i - 1]);
+        }
+    }
+
+    @Test
+    public void noisyLoadDoesNotOscillate() {
+        Simulation simulation = new Simulation();
+        simulation.noise = 0.15;
+        simulation.run(constant(45), 2000);
+        // 收敛之后的1800帧里最多偶尔调整一次
+        assertTrue("changes " + simulation.changes, simulation.changesBetween(200, 2000) <= 2);
+        float scale = simulation.controller.getScale();
+        assertTrue("scale " + scale, scale >= 0.6f && scale <= 0.8f);
+        assertTrue(simulation.averageTime(200, 2000) < TARGET * 1.02 / MS);
+    }
+
+    @Test
+    public void overloadClampsToMinimumScale() {
+        Simulation simulation = new Simulation();
+        simulation.run(constant(200), 600);
+        assertEquals(ResolutionController.DEFAULT_MIN_SCALE, simulation.controller.getScale(), 0);
+        assertEquals(0, simulation.changesBetween(100, 600));
+    }
+
+    @Test
+    public void recoversWhenLoadDrops() {
+        Simulation simulation = new Simulation();
+        simulation.noise = 0.1;
+        simulation.run(new Load() {
+            @Override
+            public double costMs(int frame) {
+                // 开启美颜一段时间后关闭，再开启
+                return frame < 300 || frame >= 600 ? 45 : 10;
+            }
+        }, 900);
+        assertTrue(simulation.scales[299] < 1.0f);
+        // 升档比降档保守，负载下降后三秒内逐档回到全分辨率，中间不会回头
+        assertEquals(1.0f, simulation.scales[390], 0);
+        for (int i = 301; i < 600; i++) {
+            assertTrue("frame " + i, simulation.scales[i] >= simulation.scales[i - 1]);
+        }
+        assertEquals(1.0f, simulation.scales[599], 0);
+        assertTrue(simulation.scales[899] < 1.0f);
+        assertTrue(simulation.averageTime(700, 900) < TARGET * 1.02 / MS);
+    }
+
+    @Test
+    public void slowRampStepsMonotonically() {
+        Simulation simulation = new Simulation();
+        simulation.run(new Load() {
+            @Override
+            public double costMs(int frame) {
+                // 15秒内从20ms缓慢上升到80ms，之后保持
+                return 20 + 60.0 * Math.min(frame, 450) / 450;
+            }
+        }, 600);
+        for (int i = 1; i < 600; i++) {
+            assertTrue("frame " + i, simulation.scales[i] <= simulation.scales[i - 1]);
+        }
+        // 1.0到0.5共5档，每档只切换一次
+        assertTrue("changes " + simulation.changes, simulation.changes <= 5);
+        assertEquals(0.5f, simulation.controller.getScale(), 0);
+    }
+
+    @Test
+    public void disabledControllerKeepsFullResolution() {
+        ResolutionController controller = new ResolutionController(TARGET);
+        for (int i = 0; i < 50; i++) {
+            controller.onFrameTime(80 * MS);
+        }
+        assertTrue(controller.getScale() < 1.0f);
+        controller.setEnabled(false);
+        assertEquals(1.0f, controller.getScale(), 0);
+        for (int i = 0; i < 50; i++) {
+            assertFalse(controller.onFrameTime(80 * MS));
+        }
+        assertEquals(1.0f, controller.getScale(), 0);
+    }
+
+    @Test
+    public void scaledSizesAreEven() {
+        assertEquals(1008, ResolutionController.scaleSize(1440, 0.7f));
+        assertEquals(540, ResolutionController.scaleSize(1080, 0.5f));
+        assertEquals(2, ResolutionController.scaleSize(3, 0.1f));
+        assertEquals(0, ResolutionController.scaleSize(1279, 0.8f) % 2);
+    }
+}
@@ -0,0 +1,283 @@
+package com.cgfay.cainfilter.capture;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * BurstCapture 单元测试，使用合成帧和可替换的编码器
+ */
+public class BurstCaptureTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private BurstCapture mBurst;
+
+    /**
+     * 写出帧的第一个像素和像素校验和，可以阻塞，可以模拟每个像素的编码开销
+     */
+    static class SyntheticEncoder implements ImageEncoder {
+        final int workPerPixel;
+        volatile CountDownLatch gate;
+        final CountDownLatch started = new CountDownLatch(1);
+        boolean released;
+
+        SyntheticEncoder(int workPerPixel) {
+            this.workPerPixel = workPerPixel;
+        }
+
+        @Override
+        public void encode(int[] argb, int width, int height, OutputStream out)
+                throws IOException {
+            started.countDown();
+            CountDownLatch latch = gate;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            int hash = 0;
+            for (int i = 0; i < width * height; i++) {
+                int value = argb[i];
+                for (int j = 0; j < workPerPixel; j++) {
+                    value = value * 31 + j;
+                }
+                hash = hash * 17 + value;
+            }
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(argb[0]);
+            data.writeInt(hash);
+            data.flush();
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    static class Factory implements BurstCapture.EncoderFactory {
+        final int workPerPixel;
+        final List<SyntheticEncoder> encoders =
+                Collections.synchronizedList(new ArrayList<SyntheticEncoder>());
+        volatile CountDownLatch gate;
+
+        Factory(int workPerPixel) {
+            this.workPerPixel = workPerPixel;
+        }
+
+        @Override
+        public ImageEncoder create() {
+            SyntheticEncoder encoder = new SyntheticEncoder(workPerPixel);
+            encoder.gate = gate;
+            encoders.add(encoder);
+            return encoder;
+        }
+    }
+
+    static class Recorder implements BurstCapture.Listener {
+        final List<Integer> saved = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger finishedCount = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile int[] result;
+
+        @Override
+        public void onFrameSaved(int index, String path, CaptureLatency latency) {
+            saved.add(index);
+        }
+
+        @Override
+        public void onFrameDropped(int index) {
+            dropped.add(index);
+        }
+
+        @Override
+        public void onFrameFailed(int index, String path, Exception e) {
+            fail("frame " + index + " failed: " + e);
+        }
+
+        @Override
+        public void onBurstFinished(int saved, int dropped, int failed) {
+            result = new int[] { saved, dropped, failed };
+            finishedCount.incrementAndGet();
+            finished.countDown();
+        }
+    }
+
+    private final BurstCapture.PathGenerator mPaths = new BurstCapture.PathGenerator() {
+        @Override
+        public String getPath(int index) {
+            return new File(mFolder.getRoot(), "burst/" + index + ".raw").getPath();
+        }
+    };
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (mBurst != null) {
+            mBurst.release();
+            assertTrue(mBurst.awaitRelease(5000));
+        }
+    }
+
+    /**
+     * 每个像素都是 (index, 0, 0, 255) 的合成帧
+     */
+    static ByteBuffer frame(int index, int width, int height) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * 4);
+        for (int i = 0; i < width * height; i++) {
+            buffer.put((byte) index).put((byte) 0).put((byte) 0).put((byte) 255);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private int firstPixel(int index) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(mPaths.getPath(index)));
+        try {
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static List<Integer> sorted(List<Integer> values) {
+        List<Integer> copy = new ArrayList<Integer>(values);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void savesEveryFrameWhenWorkersKeepUp() throws Exception {
+        Factory factory = new Factory(0);
+        Recorder recorder = new Recorder();
+        mBurst = new BurstCapture(new PixelTransform(PixelTransform.ROTATION_0, false), factory,
+                3, 8, 16, DropPolicy.DROP_NEWEST, recorder);
+        mBurst.begin(6, mPaths);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(mBurst.submit(frame(i + 1, 4, 4), 4, 4, i * 33000000L));
+        }
+        // 连拍已经收满
+        assertFalse(mBurst.submit(frame(9, 4, 4), 4, 4, 0));
+        assertTrue(recorder.finished.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new int[] { 6, 0, 0 }, recorder.result);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), sorted(recorder.saved));
+        for (int i = 0; i < 6; i++) {
+            assertEquals(0xFF000000 | (i + 1) << 16, firstPixel(i));
+        }
+        assertFalse(mBurst.isRunning());
+        // 编码器在各自的线程启动时创建，连拍可能在最后一个线程启动之前就已经完成
+        while (factory.encoders.size() < 3) {
+            Thread.sleep(1);
+        }
+        assertEquals(3, factory.encoders.size());
+        assertEquals(6, mBurst.getTotalHistogram().getTotalCount());
+    }
+
+    /**
+     * 一个编码线程卡在第0帧，帧环有三个槽位，再提交5帧
+     */
+    private Recorder runBackedUpBurst(DropPolicy policy) throws Exception {
+        Factory factory = new Factory(0);
+        factory.gate = new CountDownLatch(1);
+        Recorder recorder = new Recorder();
+        mBurst = new BurstCapture(new PixelTransform(PixelTransform.ROTATION_0, false), factory,
+                1, 3, 16, policy, recorder);
+        mBurst.begin(6, mPaths);
+        mBurst.submit(frame(1, 4, 4), 4, 4, 0);
+        while (factory.encoders.isEmpty()) {
+            Thread.sleep(1);
+        }
+        assertTrue(factory.encoders.get(0).started.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        for (int i = 1; i < 6; i++) {
+            mBurst.submit(frame(i + 1, 4, 4), 4, 4, i * 10);
+        }
+        // 编码线程阻塞时提交也不会等待
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(mBurst.isRunning());
+        factory.gate.countDown();
+        assertTrue(recorder.finished.await(5, TimeUnit.SECONDS));
+        assertEquals(1, recorder.finishedCount.get());
+        return recorder;
+    }
+
+    @Test
+    public void dropNewestKeepsBurstStart() throws Exception {
+        Recorder recorder = runBackedUpBurst(DropPolicy.DROP_NEWEST);
+        assertEquals(Arrays.asList(0, 1, 2), recorder.saved);
+        assertEquals(Arrays.asList(3, 4, 5), recorder.dropped);
+        assertArrayEquals(new int[] { 3, 3, 0 }, recorder.result);
+    }
+
+    @Test
+    public void dropOldestKeepsBurstEnd() throws Exception {
+        Recorder recorder = runBackedUpBurst(DropPolicy.DROP_OLDEST);
+        assertEquals(Arrays.asList(0, 4, 5), recorder.saved);
+        assertEquals(Arrays.asList(1, 2, 3), recorder.dropped);
+        assertEquals(0xFF050000, firstPixel(4));
+    }
+
+    @Test
+    public void endFinishesWithAcceptedFrames() throws Exception {
+        Factory factory = new Factory(0);
+        Recorder recorder = new Recorder();
+        mBurst = new BurstCapture(new PixelTransform(PixelTransform.ROTATION_0, false), factory,
+                2, 4, 16, DropPolicy.DROP_NEWEST, recorder);
+        mBurst.begin(10, mPaths);
+        mBurst.submit(frame(1, 4, 4), 4, 4, 0);
+        mBurst.submit(frame(2, 4, 4), 4, 4, 10);
+        mBurst.end();
+        assertFalse(mBurst.isAccepting());
+        assertTrue(recorder.finished.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new int[] { 2, 0, 0 }, recorder.result);
+        // 结束后可以开始下一次连拍
+        mBurst.begin(1, mPaths);
+        assertTrue(mBurst.isAccepting());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void beginWhileRunningThrows() {
+        mBurst = new BurstCapture(new PixelTransform(PixelTransform.ROTATION_0, false),
+                new Factory(0), 1, 2, 16, DropPolicy.DROP_NEWEST, new Recorder());
+        mBurst.begin(3, mPaths);
+        mBurst.begin(3, mPaths);
+    }
+
+    @Test
+    public void releaseStopsWorkersAndReleasesEncoders() throws Exception {
+        Factory factory = new Factory(0);
+        mBurst = new BurstCapture(new PixelTransform(PixelTransform.ROTATION_0, false), factory,
+                2, 2, 16, DropPolicy.DROP_NEWEST, new Recorder());
+        while (factory.encoders.size() < 2) {
+            Thread.sleep(1);
+        }
+        mBurst.release();
+        assertTrue(mBurst.awaitRelease(5000));
+        for (SyntheticEncoder encoder : factory.encoders) {
+            assertTrue(encoder.released);
+        }
+        mBurst = null;
+    }
+}
@@ -0,0 +1,249 @@
+package com.cgfay.cainfilter.capture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * CapturePipeline 单元测试，用原样写出像素的编码器代替JPEG
+ */
+public class CapturePipelineTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private RawEncoder mEncoder;
+    private Recorder mRecorder;
+    private CapturePipeline mPipeline;
+
+    /**
+     * 写出宽高和像素，可以阻塞或者失败
+     */
+    private static class RawEncoder implements ImageEncoder {
+        volatile CountDownLatch gate;
+        volatile boolean fail;
+        final CountDownLatch started = new CountDownLatch(1);
+        volatile boolean released;
+
+        @Override
+        public void encode(int[] argb, int width, int height, OutputStream out)
+                throws IOException {
+            started.countDown();
+            CountDownLatch latch = gate;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(width);
+            data.writeInt(height);
+            if (fail) {
+                throw new IOException("disk full");
+            }
+            for (int i = 0; i < width * height; i++) {
+                data.writeInt(argb[i]);
+            }
+            data.flush();
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    private static class Recorder implements CapturePipeline.Listener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final List<CaptureLatency> latencies =
+                Collections.synchronizedList(new ArrayList<CaptureLatency>());
+        final CountDownLatch finished;
+
+        Recorder(int expected) {
+            finished = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onCaptureAccepted(int id, String path) {
+            events.add("accepted " + id);
+        }
+
+        @Override
+        public void onCaptureSaved(int id, String path, CaptureLatency latency) {
+            events.add("saved " + id);
+            latencies.add(latency);
+            finished.countDown();
+        }
+
+        @Override
+        public void onCaptureFailed(int id, String path, Exception e) {
+            events.add("failed " + id);
+            finished.countDown();
+        }
+    }
+
+    private void createPipeline(int queueCapacity, int expected) {
+        mEncoder = new RawEncoder();
+        mRecorder = new Recorder(expected);
+        mPipeline = new CapturePipeline(new PixelTransform(PixelTransform.ROTATION_90, false),
+                mEncoder, queueCapacity, mRecorder);
+    }
+
+    @Before
+    public void setUp() {
+        mPipeline = null;
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (mPipeline != null) {
+            mPipeline.release();
+            assertTrue(mPipeline.awaitRelease(5000));
+        }
+    }
+
+    /**
+     * 2x1的帧，像素为 (r, 0, 0, 255) 和 (0, g, 0, 255)
+     */
+    private static ByteBuffer frame(int r, int g) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+        buffer.put(new byte[] { (byte) r, 0, 0, (byte) 255, 0, (byte) g, 0, (byte) 255 });
+        buffer.flip();
+        return buffer;
+    }
+
+    private String path(String name) {
+        return new File(mFolder.getRoot(), "sub/" + name).getPath();
+    }
+
+    private static int[] readRaw(String path) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(path));
+        try {
+            int width = in.readInt();
+            int height = in.readInt();
+            int[] result = new int[2 + width * height];
+            result[0] = width;
+            result[1] = height;
+            for (int i = 2; i < result.length; i++) {
+                result[i] = in.readInt();
+            }
+            assertEquals(-1, in.read());
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void savesTransformedPixelsInOrder() throws Exception {
+        createPipeline(4, 3);
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer buffer = frame(i + 1, 0x80);
+            assertEquals(i, mPipeline.submit(buffer, 2, 1, path("shot" + i + ".raw")));
+            // 提交后调用方可以立即复用缓冲
+            buffer.put(0, (byte) 0x55);
+        }
+        assertTrue(mRecorder.finished.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            // 顺时针旋转90度后变成1x2
+            assertArrayEquals(new int[] { 1, 2, 0xFF000000 | (i + 1) << 16, 0xFF008000 },
+                    readRaw(path("shot" + i + ".raw")));
+            assertTrue(mRecorder.events.indexOf("accepted " + i)
+                    < mRecorder.events.indexOf("saved " + i));
+        }
+        assertEquals(3, mPipeline.getAcceptedCount());
+        assertEquals(3, mPipeline.getSavedCount());
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() throws Exception {
+        createPipeline(2, 3);
+        mEncoder.gate = new CountDownLatch(1);
+        assertEquals(0, mPipeline.submit(frame(1, 1), 2, 1, path("a.raw")));
+        // 第一张正在编码，再占满队列
+        assertTrue(mEncoder.started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mPipeline.submit(frame(2, 2), 2, 1, path("b.raw")));
+        assertEquals(2, mPipeline.submit(frame(3, 3), 2, 1, path("c.raw")));
+        assertEquals(2, mPipeline.getQueuedCount());
+        assertEquals(CapturePipeline.REJECTED,
+                mPipeline.submit(frame(4, 4), 2, 1, path("d.raw")));
+        assertEquals(1, mPipeline.getRejectedCount());
+        mEncoder.gate.countDown();
+        assertTrue(mRecorder.finished.await(5, TimeUnit.SECONDS));
+        assertEquals(3, mPipeline.getSavedCount());
+        assertFalse(new File(path("d.raw")).exists());
+        assertFalse(mRecorder.events.contains("accepted 3"));
+        // 等待的请求记录了排队时间
+        CaptureLatency last = mRecorder.latencies.get(2);
+        assertTrue(last.getQueueNs() > 0);
+    }
+
+    @Test
+    public void failedCaptureDeletesFileAndReusesBuffer() throws Exception {
+        createPipeline(2, 2);
+        mEncoder.fail = true;
+        mPipeline.submit(frame(1, 1), 2, 1, path("bad.raw"));
+        // 等第一张失败后再提交，第二张复用同一个像素数组
+        while (!mRecorder.events.contains("failed 0")) {
+            Thread.sleep(1);
+        }
+        mEncoder.fail = false;
+        mPipeline.submit(frame(2, 2), 2, 1, path("good.raw"));
+        assertTrue(mRecorder.finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("accepted 0", "failed 0", "accepted 1", "saved 1"),
+                mRecorder.events);
+        assertFalse(new File(path("bad.raw")).exists());
+        assertTrue(new File(path("good.raw")).exists());
+        assertEquals(1, mPipeline.getBufferPool().getAllocateCount());
+        assertEquals(1, mPipeline.getBufferPool().getReuseCount());
+    }
+
+    @Test
+    public void reportsStageLatencies() throws Exception {
+        createPipeline(2, 1);
+        mPipeline.submit(frame(1, 1), 2, 1, path("a.raw"));
+        assertTrue(mRecorder.finished.await(5, TimeUnit.SECONDS));
+        CaptureLatency latency = mRecorder.latencies.get(0);
+        assertTrue(latency.getEncodeNs() > 0);
+        assertEquals(latency.getTotalNs(), latency.getTransformNs() + latency.getQueueNs()
+                + latency.getEncodeNs());
+        assertEquals(1, mPipeline.getTotalHistogram().getTotalCount());
+        assertEquals(1, mPipeline.getEncodeHistogram().getTotalCount());
+        assertEquals(latency.getTotalNs(), mPipeline.getTotalHistogram().getMaxValue());
+    }
+
+    @Test
+    public void releaseDrainsAcceptedCapturesThenRejects() throws Exception {
+        createPipeline(2, 2);
+        mEncoder.gate = new CountDownLatch(1);
+        mPipeline.submit(frame(1, 1), 2, 1, path("a.raw"));
+        mPipeline.submit(frame(2, 2), 2, 1, path("b.raw"));
+        mEncoder.gate.countDown();
+        mPipeline.release();
+        assertEquals(CapturePipeline.REJECTED,
+                mPipeline.submit(frame(3, 3), 2, 1, path("c.raw")));
+        assertTrue(mPipeline.awaitRelease(5000));
+        assertEquals(2, mPipeline.getSavedCount());
+        assertTrue(mEncoder.released);
+    }
+}
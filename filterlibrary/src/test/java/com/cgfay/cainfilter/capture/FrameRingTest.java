@@ -0,0 +1,162 @@
+package com.cgfay.cainfilter.capture;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameRing 单元测试
+ */
+public class FrameRingTest {
+
+    private static FrameRing.Slot publish(FrameRing ring, int index, long timestamp) {
+        FrameRing.Slot slot = ring.claim(index, timestamp);
+        assertNotNull("frame " + index, slot);
+        ring.publish(slot);
+        return slot;
+    }
+
+    /**
+     * 依次取出全部等待帧的序号
+     */
+    private static String drain(FrameRing ring) throws InterruptedException {
+        StringBuilder builder = new StringBuilder();
+        while (ring.getPendingCount() > 0) {
+            FrameRing.Slot slot = ring.take();
+            builder.append(slot.getFrameIndex()).append(' ');
+            ring.recycle(slot);
+        }
+        return builder.toString().trim();
+    }
+
+    @Test
+    public void slotsArePreallocatedAndTakenInOrder() throws InterruptedException {
+        FrameRing ring = new FrameRing(3, 100, DropPolicy.DROP_NEWEST);
+        FrameRing.Slot first = publish(ring, 0, 0);
+        publish(ring, 1, 10);
+        assertEquals(100, first.getPixels().length);
+        assertEquals(1, ring.getFreeCount());
+        assertEquals("0 1", drain(ring));
+        assertEquals(3, ring.getFreeCount());
+        // 槽位复用，不再分配
+        assertSame(first.getPixels(), ring.claim(2, 20).getPixels());
+    }
+
+    @Test
+    public void dropNewestKeepsPendingFrames() throws InterruptedException {
+        FrameRing ring = new FrameRing(2, 4, DropPolicy.DROP_NEWEST);
+        publish(ring, 0, 0);
+        publish(ring, 1, 10);
+        assertNull(ring.claim(2, 20));
+        assertEquals(1, ring.getDroppedCount());
+        assertEquals("0 1", drain(ring));
+    }
+
+    @Test
+    public void dropOldestReplacesOldestPendingFrame() throws InterruptedException {
+        FrameRing ring = new FrameRing(2, 4, DropPolicy.DROP_OLDEST);
+        publish(ring, 0, 0);
+        publish(ring, 1, 10);
+        FrameRing.Slot slot = ring.claim(2, 20);
+        assertEquals(0, slot.getReplacedIndex());
+        ring.publish(slot);
+        assertEquals(1, ring.getReplacedCount());
+        assertEquals("1 2", drain(ring));
+    }
+
+    @Test
+    public void thinDropsFrameLeavingSmallestGap() throws InterruptedException {
+        FrameRing ring = new FrameRing(4, 4, DropPolicy.THIN);
+        publish(ring, 0, 0);
+        publish(ring, 1, 10);
+        publish(ring, 2, 20);
+        publish(ring, 3, 25);
+        // 去掉3后20到30的空隙最小
+        FrameRing.Slot slot = ring.claim(4, 30);
+        assertEquals(3, slot.getReplacedIndex());
+        ring.publish(slot);
+        assertEquals("0 1 2 4", drain(ring));
+    }
+
+    @Test
+    public void thinPrefersOlderFrameOnTie() throws InterruptedException {
+        FrameRing ring = new FrameRing(3, 4, DropPolicy.THIN);
+        publish(ring, 0, 0);
+        publish(ring, 1, 5);
+        publish(ring, 2, 20);
+        // 去掉1留下0~20，去掉2留下5~25，空隙相同取较旧的1
+        FrameRing.Slot slot = ring.claim(3, 25);
+        assertEquals(1, slot.getReplacedIndex());
+        ring.publish(slot);
+        assertEquals("0 2 3", drain(ring));
+    }
+
+    @Test
+    public void thinKeepsOldestPendingFrame() throws InterruptedException {
+        FrameRing ring = new FrameRing(2, 4, DropPolicy.THIN);
+        FrameRing.Slot encoding = publish(ring, 0, 0);
+        assertSame(encoding, ring.take());
+        publish(ring, 1, 10);
+        // 只有一个等待帧时丢弃新帧
+        assertNull(ring.claim(2, 20));
+        assertEquals(1, ring.getDroppedCount());
+    }
+
+    @Test
+    public void encodingSlotsAreNeverReplaced() throws InterruptedException {
+        FrameRing ring = new FrameRing(2, 4, DropPolicy.DROP_OLDEST);
+        publish(ring, 0, 0);
+        publish(ring, 1, 10);
+        ring.take();
+        ring.take();
+        assertNull(ring.claim(2, 20));
+        assertEquals(0, ring.getReplacedCount());
+    }
+
+    @Test
+    public void takeWaitsForPublishAndReturnsNullAfterClose() throws Exception {
+        final FrameRing ring = new FrameRing(2, 4, DropPolicy.DROP_NEWEST);
+        final AtomicInteger taken = new AtomicInteger(FrameRing.NO_FRAME);
+        final AtomicBoolean closed = new AtomicBoolean();
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FrameRing.Slot slot = ring.take();
+                    taken.set(slot.getFrameIndex());
+                    ring.recycle(slot);
+                    closed.set(ring.take() == null);
+                } catch (InterruptedException e) {
+                    // do nothing
+                }
+            }
+        });
+        worker.start();
+        Thread.sleep(20);
+        assertEquals(FrameRing.NO_FRAME, taken.get());
+        publish(ring, 7, 0);
+        while (taken.get() == FrameRing.NO_FRAME) {
+            Thread.sleep(1);
+        }
+        assertEquals(7, taken.get());
+        ring.close();
+        worker.join(5000);
+        assertFalse(worker.isAlive());
+        assertTrue(closed.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedFrameIsRejected() {
+        FrameRing ring = new FrameRing(1, 4, DropPolicy.DROP_NEWEST);
+        ring.claim(0, 0).setSize(3, 2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recyclingPendingSlotThrows() {
+        FrameRing ring = new FrameRing(1, 4, DropPolicy.DROP_NEWEST);
+        ring.recycle(publish(ring, 0, 0));
+    }
+}
@@ -0,0 +1,44 @@
+package com.cgfay.cainfilter.capture;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PixelBufferPool 单元测试
+ */
+public class PixelBufferPoolTest {
+
+    @Test
+    public void shortestFittingBufferIsReused() {
+        PixelBufferPool pool = new PixelBufferPool(4);
+        int[] large = pool.acquire(400);
+        int[] small = pool.acquire(100);
+        pool.release(large);
+        pool.release(small);
+        assertSame(small, pool.acquire(50));
+        assertSame(large, pool.acquire(101));
+        assertEquals(2, pool.getAllocateCount());
+        assertEquals(2, pool.getReuseCount());
+    }
+
+    @Test
+    public void idleCountIsBounded() {
+        PixelBufferPool pool = new PixelBufferPool(1);
+        int[] a = pool.acquire(10);
+        int[] b = pool.acquire(10);
+        pool.release(a);
+        pool.release(b);
+        assertEquals(1, pool.getIdleCount());
+        pool.clear();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleReleaseThrows() {
+        PixelBufferPool pool = new PixelBufferPool(4);
+        int[] buffer = pool.acquire(10);
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+}
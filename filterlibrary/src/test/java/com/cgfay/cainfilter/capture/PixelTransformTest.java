@@ -0,0 +1,156 @@
+package com.cgfay.cainfilter.capture;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * PixelTransform 单元测试，与逐步旋转、镜像的参考实现比较
+ */
+public class PixelTransformTest {
+
+    private static final int[] ROTATIONS = {
+            PixelTransform.ROTATION_0, PixelTransform.ROTATION_90,
+            PixelTransform.ROTATION_180, PixelTransform.ROTATION_270
+    };
+
+    static ByteBuffer randomFrame(int width, int height, long seed) {
+        byte[] bytes = new byte[width * height * 4];
+        new Random(seed).nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 参考实现：先转成ARGB，再分别旋转和镜像
+     */
+    static int[] reference(ByteBuffer rgba, int width, int height,
+                                   int rotation, boolean mirror) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int offset = rgba.position() + i * 4;
+            int r = rgba.get(offset) & 0xFF;
+            int g = rgba.get(offset + 1) & 0xFF;
+            int b = rgba.get(offset + 2) & 0xFF;
+            int a = rgba.get(offset + 3) & 0xFF;
+            pixels[i] = a << 24 | r << 16 | g << 8 | b;
+        }
+        int w = width;
+        int h = height;
+        for (int turn = 0; turn < rotation / 90; turn++) {
+            // 顺时针旋转90度
+            int[] rotated = new int[w * h];
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    rotated[x * h + (h - 1 - y)] = pixels[y * w + x];
+                }
+            }
+            pixels = rotated;
+            int t = w;
+            w = h;
+            h = t;
+        }
+        if (mirror) {
+            int[] mirrored = new int[w * h];
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    mirrored[y * w + (w - 1 - x)] = pixels[y * w + x];
+                }
+            }
+            pixels = mirrored;
+        }
+        return pixels;
+    }
+
+    private static void assertMatches(int width, int height) {
+        ByteBuffer frame = randomFrame(width, height, width * 31 + height);
+        for (int rotation : ROTATIONS) {
+            for (boolean mirror : new boolean[] { false, true }) {
+                PixelTransform transform = new PixelTransform(rotation, mirror);
+                int[] output = new int[width * height];
+                transform.apply(frame, width, height, output);
+                String message = width + "x" + height + " rotation " + rotation
+                        + " mirror " + mirror;
+                assertArrayEquals(message, reference(frame, width, height, rotation, mirror),
+                        output);
+                assertEquals(0, frame.position());
+            }
+        }
+    }
+
+    @Test
+    public void matchesReferenceForAllOrientations() {
+        assertMatches(7, 5);
+        assertMatches(16, 9);
+    }
+
+    @Test
+    public void handlesSingleRowAndColumn() {
+        assertMatches(1, 6);
+        assertMatches(6, 1);
+        assertMatches(1, 1);
+    }
+
+    @Test
+    public void outputSizeFollowsRotation() {
+        PixelTransform upright = new PixelTransform(PixelTransform.ROTATION_180, true);
+        assertEquals(640, upright.getOutputWidth(640, 480));
+        assertEquals(480, upright.getOutputHeight(640, 480));
+        PixelTransform portrait = new PixelTransform(PixelTransform.ROTATION_90, false);
+        assertEquals(480, portrait.getOutputWidth(640, 480));
+        assertEquals(640, portrait.getOutputHeight(640, 480));
+    }
+
+    @Test
+    public void readsFromBufferPosition() {
+        ByteBuffer frame = ByteBuffer.allocate(8 + 4);
+        frame.put(new byte[] { 9, 9, 9, 9 });
+        frame.put(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        frame.position(4);
+        int[] output = new int[2];
+        new PixelTransform(PixelTransform.ROTATION_0, true).apply(frame, 2, 1, output);
+        assertEquals(0x08050607, output[0]);
+        assertEquals(0x04010203, output[1]);
+        assertEquals(4, frame.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedRotation() {
+        new PixelTransform(45, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortOutput() {
+        new PixelTransform(PixelTransform.ROTATION_0, false)
+                .apply(randomFrame(4, 4, 1), 4, 4, new int[15]);
+    }
+
+    @Test
+    public void fusedPassIsAllocationFree() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int width = 1920;
+        int height = 1080;
+        ByteBuffer frame = randomFrame(width, height, 7);
+        int[] output = new int[width * height];
+        PixelTransform transform = new PixelTransform(PixelTransform.ROTATION_180, true);
+        for (int i = 0; i < 10; i++) {
+            transform.apply(frame, width, height, output);
+        }
+        int iterations = 20;
+        long allocatedBefore = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            transform.apply(frame, width, height, output);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        // 每次只有几个缓冲视图对象
+        assertTrue("allocated " + allocated, allocated < 64 * iterations * 4);
+    }
+}
@@ -0,0 +1,82 @@
+package com.cgfay.cainfilter.facetracker;
+
+import com.cgfay.cainfilter.bean.face.Face106PointsLandmark;
+import com.cgfay.cainfilter.glfilter.sticker.StickerAnimator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FaceActionDetector 单元测试，用106点的索引构造关键点
+ */
+public class FaceActionDetectorTest {
+
+    private static final Face106PointsLandmark LANDMARK = new Face106PointsLandmark();
+
+    private static void set(float[] points, int index, float x, float y) {
+        points[index * 2] = x;
+        points[index * 2 + 1] = y;
+    }
+
+    /**
+     * 构造一个人脸的关键点，像素坐标
+     * @param mouthGap 上下嘴唇内侧的距离，嘴宽100
+     * @param eyeGap 上下眼睑的距离，眼宽40
+     */
+    private static float[] face(float mouthGap, float eyeGap) {
+        float[] points = new float[106 * 2];
+        set(points, LANDMARK.mouthLeftCorner, 200, 400);
+        set(points, LANDMARK.mouthRightCorner, 300, 400);
+        set(points, LANDMARK.mouthUpperLipBottom, 250, 400 - mouthGap / 2);
+        set(points, LANDMARK.mouthLowerLipTop, 250, 400 + mouthGap / 2);
+        set(points, LANDMARK.leftEyeLeftCorner, 170, 250);
+        set(points, LANDMARK.leftEyeRightCorner, 210, 250);
+        set(points, LANDMARK.leftEyeTop, 190, 250 - eyeGap / 2);
+        set(points, LANDMARK.leftEyeBottom, 190, 250 + eyeGap / 2);
+        set(points, LANDMARK.rightEyeLeftCorner, 290, 250);
+        set(points, LANDMARK.rightEyeRightCorner, 330, 250);
+        set(points, LANDMARK.rightEyeTop, 310, 250 - eyeGap / 2);
+        set(points, LANDMARK.rightEyeBottom, 310, 250 + eyeGap / 2);
+        return points;
+    }
+
+    @Test
+    public void neutralFaceHasNoAction() {
+        FaceActionDetector detector = FaceActionDetector.for106Points();
+        assertEquals(StickerAnimator.ACTION_NONE, detector.detect(face(5, 14)));
+        assertEquals(0.05f, detector.getMouthRatio(face(5, 14)), 1e-5);
+        assertEquals(0.35f, detector.getEyeRatio(face(5, 14)), 1e-5);
+    }
+
+    @Test
+    public void detectsMouthOpenAndClosedEyes() {
+        FaceActionDetector detector = FaceActionDetector.for106Points();
+        assertEquals(StickerAnimator.ACTION_MOUTH_OPEN, detector.detect(face(40, 14)));
+        assertEquals(StickerAnimator.ACTION_EYE_BLINK, detector.detect(face(5, 2)));
+        assertEquals(StickerAnimator.ACTION_MOUTH_OPEN | StickerAnimator.ACTION_EYE_BLINK,
+                detector.detect(face(40, 2)));
+    }
+
+    @Test
+    public void oneClosedEyeIsNotABlink() {
+        float[] points = face(5, 14);
+        // 只闭上左眼
+        set(points, LANDMARK.leftEyeTop, 190, 250);
+        set(points, LANDMARK.leftEyeBottom, 190, 250);
+        FaceActionDetector detector = FaceActionDetector.for106Points();
+        assertEquals(StickerAnimator.ACTION_NONE, detector.detect(points));
+    }
+
+    @Test
+    public void ratiosDoNotDependOnFaceSize() {
+        float[] points = face(40, 2);
+        float[] scaled = new float[points.length];
+        for (int i = 0; i < points.length; i++) {
+            scaled[i] = points[i] * 3;
+        }
+        FaceActionDetector detector = FaceActionDetector.for106Points();
+        assertEquals(detector.getMouthRatio(points), detector.getMouthRatio(scaled), 1e-5);
+        assertEquals(detector.detect(points), detector.detect(scaled));
+    }
+}
@@ -0,0 +1,281 @@
+package com.cgfay.cainfilter.gles;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * AsyncReadback 单元测试，模拟GPU延迟完成的fence
+ */
+public class AsyncReadbackTest {
+
+    /**
+     * 模拟GL：每次readPixels把当前帧号写入像素缓冲，fence在指定的帧数之后完成
+     */
+    private static class FakeGL implements AsyncReadback.ReadbackGL {
+        final HashMap<Integer, byte[]> buffers = new HashMap<Integer, byte[]>();
+        final HashMap<Long, Integer> fenceReadyFrame = new HashMap<Long, Integer>();
+        final List<Long> deletedFences = new ArrayList<Long>();
+        int nextBuffer = 1;
+        long nextFence = 100;
+        int frame;
+        // 每个fence完成需要的帧数，可以按请求顺序单独指定
+        final List<Integer> latencies = new ArrayList<Integer>();
+        int defaultLatency = 1;
+        int content;
+        int waitCount;
+        int createCount;
+
+        @Override
+        public int createBuffer(int size) {
+            createCount++;
+            buffers.put(nextBuffer, new byte[size]);
+            return nextBuffer++;
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            assertNotNull(buffers.remove(buffer));
+        }
+
+        @Override
+        public void readPixels(int buffer, int width, int height) {
+            byte[] data = buffers.get(buffer);
+            assertTrue(data.length >= width * height * 4);
+            for (int i = 0; i < width * height * 4; i++) {
+                data[i] = (byte) content;
+            }
+        }
+
+        @Override
+        public long insertFence() {
+            int latency = latencies.isEmpty() ? defaultLatency : latencies.remove(0);
+            fenceReadyFrame.put(nextFence, frame + latency);
+            return nextFence++;
+        }
+
+        @Override
+        public boolean isFenceSignaled(long fence) {
+            return frame >= fenceReadyFrame.get(fence);
+        }
+
+        @Override
+        public void waitFence(long fence) {
+            waitCount++;
+            fenceReadyFrame.put(fence, frame);
+        }
+
+        @Override
+        public void deleteFence(long fence) {
+            assertNotNull(fenceReadyFrame.remove(fence));
+            deletedFences.add(fence);
+        }
+
+        @Override
+        public void copyBuffer(int buffer, int size, ByteBuffer dst) {
+            dst.put(buffers.get(buffer), 0, size);
+        }
+    }
+
+    /**
+     * 记录回调顺序和内容
+     */
+    private static class Recorder implements AsyncReadback.Callback {
+        final List<Integer> contents = new ArrayList<Integer>();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+        @Override
+        public void onReadbackComplete(ByteBuffer buffer, int width, int height) {
+            assertEquals(0, buffer.position());
+            assertEquals(width * height * 4, buffer.remaining());
+            contents.add((int) buffer.get(0));
+            sizes.add(width * height);
+            buffers.add(buffer);
+        }
+    }
+
+    /**
+     * 手动执行的回调线程
+     */
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private FakeGL mGL;
+    private DirectBufferPool mPool;
+    private QueueExecutor mExecutor;
+    private AsyncReadback mReadback;
+    private Recorder mRecorder;
+
+    @Before
+    public void setUp() {
+        mGL = new FakeGL();
+        mPool = new DirectBufferPool(1 << 20);
+        mExecutor = new QueueExecutor();
+        mReadback = new AsyncReadback(mGL, mPool, mExecutor, 2);
+        mRecorder = new Recorder();
+    }
+
+    private void request(int content) {
+        mGL.content = content;
+        mReadback.request(4, 4, mRecorder);
+    }
+
+    private void nextFrame() {
+        mGL.frame++;
+        mReadback.poll();
+        mExecutor.runAll();
+    }
+
+    @Test
+    public void readbackCompletesAFrameLaterWithoutWaiting() {
+        request(7);
+        assertEquals(1, mReadback.getPendingCount());
+        // 同一帧内fence还没有完成
+        assertEquals(0, mReadback.poll());
+        assertTrue(mRecorder.contents.isEmpty());
+        nextFrame();
+        assertEquals(1, mRecorder.contents.size());
+        assertEquals(7, (int) mRecorder.contents.get(0));
+        assertEquals(0, mGL.waitCount);
+        assertFalse(mReadback.hasPending());
+        assertEquals(1, mGL.deletedFences.size());
+    }
+
+    @Test
+    public void completionFollowsRequestOrder() {
+        // 第一个请求3帧后完成，第二个1帧后完成
+        mGL.latencies.add(3);
+        mGL.latencies.add(1);
+        request(1);
+        request(2);
+        nextFrame();
+        // 第二个已经完成，但必须等第一个
+        assertTrue(mRecorder.contents.isEmpty());
+        nextFrame();
+        assertTrue(mRecorder.contents.isEmpty());
+        nextFrame();
+        assertEquals(2, mRecorder.contents.size());
+        assertEquals(1, (int) mRecorder.contents.get(0));
+        assertEquals(2, (int) mRecorder.contents.get(1));
+    }
+
+    @Test
+    public void fullRingWaitsForOldestRequest() {
+        mGL.defaultLatency = 10;
+        request(1);
+        request(2);
+        assertEquals(0, mReadback.getStallCount());
+        request(3);
+        assertEquals(1, mReadback.getStallCount());
+        assertEquals(1, mGL.waitCount);
+        mExecutor.runAll();
+        assertEquals(1, mRecorder.contents.size());
+        assertEquals(1, (int) mRecorder.contents.get(0));
+        mReadback.finish();
+        mExecutor.runAll();
+        assertEquals(3, mRecorder.contents.size());
+        assertEquals(2, (int) mRecorder.contents.get(1));
+        assertEquals(3, (int) mRecorder.contents.get(2));
+        // 两个像素缓冲轮流使用
+        assertEquals(2, mGL.createCount);
+    }
+
+    @Test
+    public void steadyStreamReusesBuffers() {
+        for (int i = 0; i < 100; i++) {
+            request(i);
+            nextFrame();
+        }
+        assertEquals(100, mRecorder.contents.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals((byte) i, (int) mRecorder.contents.get(i));
+        }
+        assertEquals(0, mReadback.getStallCount());
+        assertEquals(2, mGL.createCount);
+        // 回调结束后输出缓冲归还，只分配了一次
+        assertEquals(1, mPool.getAllocateCount());
+        assertEquals(99, mPool.getReuseCount());
+    }
+
+    @Test
+    public void largerFrameRecreatesPixelBuffer() {
+        request(1);
+        nextFrame();
+        request(2);
+        nextFrame();
+        // 回到第一个像素缓冲，按4x4创建的缓冲不够大
+        mGL.content = 3;
+        mReadback.request(8, 8, mRecorder);
+        nextFrame();
+        assertEquals(3, mRecorder.contents.size());
+        assertEquals(3, (int) mRecorder.contents.get(2));
+        assertEquals(64, (int) mRecorder.sizes.get(2));
+        assertEquals(3, mGL.createCount);
+        assertEquals(2, mGL.buffers.size());
+    }
+
+    @Test
+    public void callbackExceptionStillReturnsBuffer() {
+        mReadback.request(4, 4, new AsyncReadback.Callback() {
+            @Override
+            public void onReadbackComplete(ByteBuffer buffer, int width, int height) {
+                throw new RuntimeException("boom");
+            }
+        });
+        mGL.frame++;
+        mReadback.poll();
+        try {
+            mExecutor.runAll();
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        assertEquals(1, mPool.getIdleCount());
+    }
+
+    @Test
+    public void releaseDropsPendingAndDeletesBuffers() {
+        request(1);
+        request(2);
+        mReadback.release();
+        assertFalse(mReadback.hasPending());
+        assertTrue(mGL.buffers.isEmpty());
+        assertTrue(mGL.fenceReadyFrame.isEmpty());
+        mExecutor.runAll();
+        assertTrue(mRecorder.contents.isEmpty());
+        // 释放后还可以继续使用
+        request(3);
+        nextFrame();
+        assertEquals(3, (int) mRecorder.contents.get(0));
+    }
+
+    @Test
+    public void abandonForgetsBuffersWithoutGL() {
+        request(1);
+        mReadback.abandon();
+        assertFalse(mReadback.hasPending());
+        assertEquals(1, mGL.buffers.size());
+        request(2);
+        assertEquals(2, mGL.createCount);
+    }
+}
@@ -0,0 +1,78 @@
+package com.cgfay.cainfilter.gles;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * DirectBufferPool 单元测试
+ */
+public class DirectBufferPoolTest {
+
+    @Test
+    public void releasedBufferIsReused() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        ByteBuffer first = pool.acquire(1000);
+        assertTrue(first.isDirect());
+        assertEquals(0, first.position());
+        assertEquals(1000, first.limit());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, first.order());
+        first.putInt(42);
+        pool.release(first);
+        ByteBuffer second = pool.acquire(800);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(800, second.limit());
+        assertEquals(1, pool.getAllocateCount());
+        assertEquals(1, pool.getReuseCount());
+    }
+
+    @Test
+    public void smallestFittingBufferIsChosen() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        ByteBuffer large = pool.acquire(4000);
+        ByteBuffer small = pool.acquire(1000);
+        ByteBuffer medium = pool.acquire(2000);
+        pool.release(large);
+        pool.release(small);
+        pool.release(medium);
+        assertSame(medium, pool.acquire(1500));
+        assertSame(small, pool.acquire(10));
+        // 没有足够大的缓冲时重新分配
+        ByteBuffer huge = pool.acquire(5000);
+        assertNotSame(large, huge);
+        assertEquals(4, pool.getAllocateCount());
+    }
+
+    @Test
+    public void idleBytesAreBounded() {
+        DirectBufferPool pool = new DirectBufferPool(3000);
+        ByteBuffer a = pool.acquire(2000);
+        ByteBuffer b = pool.acquire(2000);
+        pool.release(a);
+        pool.release(b);
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2000, pool.getIdleBytes());
+        pool.clear();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleReleaseThrows() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        ByteBuffer buffer = pool.acquire(16);
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+
+    @Test
+    public void heapBuffersAreIgnored() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        pool.release(ByteBuffer.allocate(16));
+        pool.release(null);
+        assertEquals(0, pool.getIdleCount());
+    }
+}
@@ -0,0 +1,109 @@
+package com.cgfay.cainfilter.gles;
+
+import com.cgfay.cainfilter.utils.TextureRotationUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * GeometryLayout 单元测试
+ */
+public class GeometryLayoutTest {
+
+    private static final float[][] TEXTURES = {
+            TextureRotationUtils.TextureVertices,
+            TextureRotationUtils.TextureVertices_90,
+            TextureRotationUtils.TextureVertices_180,
+            TextureRotationUtils.TextureVertices_270,
+    };
+
+    private GeometryLayout mLayout;
+
+    private static FloatBuffer createFloatBuffer(float[] coords) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(coords.length * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(coords).position(0);
+        return buffer;
+    }
+
+    @Before
+    public void setUp() {
+        mLayout = new GeometryLayout();
+        for (float[] texture : TEXTURES) {
+            mLayout.addQuad(TextureRotationUtils.CubeVertices, texture);
+        }
+    }
+
+    @Test
+    public void quadsAreInterleavedBackToBack() {
+        float[] data = mLayout.build();
+        assertEquals(TEXTURES.length * 4 * GeometryLayout.FLOATS_PER_VERTEX, data.length);
+        assertEquals(data.length * 4, mLayout.getByteSize());
+        for (int quad = 0; quad < TEXTURES.length; quad++) {
+            assertEquals(quad * 4, mLayout.getFirstVertex(quad));
+            assertEquals(quad * 4 * GeometryLayout.STRIDE, mLayout.getByteOffset(quad));
+            for (int vertex = 0; vertex < 4; vertex++) {
+                // 按glVertexAttribPointer的偏移和步长读取
+                int base = (mLayout.getByteOffset(quad) + vertex * GeometryLayout.STRIDE) / 4;
+                int texture = base + GeometryLayout.TEXTURE_OFFSET / 4;
+                assertEquals(TextureRotationUtils.CubeVertices[vertex * 2], data[base], 0.0f);
+                assertEquals(TextureRotationUtils.CubeVertices[vertex * 2 + 1], data[base + 1], 0.0f);
+                assertEquals(TEXTURES[quad][vertex * 2], data[texture], 0.0f);
+                assertEquals(TEXTURES[quad][vertex * 2 + 1], data[texture + 1], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void findQuadMatchesByContent() {
+        FloatBuffer vertices = createFloatBuffer(TextureRotationUtils.CubeVertices);
+        for (int quad = 0; quad < TEXTURES.length; quad++) {
+            FloatBuffer textures = createFloatBuffer(TEXTURES[quad]);
+            assertEquals(quad, mLayout.findQuad(vertices, textures));
+        }
+        // 缓冲内容被修改后不再匹配
+        FloatBuffer textures = createFloatBuffer(TextureRotationUtils.TextureVertices);
+        textures.put(0, 0.1f);
+        assertEquals(-1, mLayout.findQuad(vertices, textures));
+        textures.put(0, 0.0f);
+        assertEquals(0, mLayout.findQuad(vertices, textures));
+    }
+
+    @Test
+    public void findQuadIgnoresOtherLayouts() {
+        FloatBuffer textures = createFloatBuffer(TextureRotationUtils.TextureVertices);
+        // 三维顶点
+        FloatBuffer vertices3d = createFloatBuffer(new float[12]);
+        assertEquals(-1, mLayout.findQuad(vertices3d, textures));
+        assertEquals(-1, mLayout.findQuad(null, textures));
+        // 位置不同
+        FloatBuffer vertices = createFloatBuffer(new float[] { 0, 0, 1, 0, 0, 1, 1, 1 });
+        assertEquals(-1, mLayout.findQuad(vertices, textures));
+    }
+
+    @Test
+    public void findQuadDoesNotMovePosition() {
+        FloatBuffer vertices = createFloatBuffer(TextureRotationUtils.CubeVertices);
+        FloatBuffer textures = createFloatBuffer(TextureRotationUtils.TextureVertices_90);
+        vertices.position(2);
+        mLayout.findQuad(vertices, textures);
+        assertEquals(2, vertices.position());
+        assertEquals(0, textures.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongQuadSizeFails() {
+        mLayout.addQuad(new float[12], TextureRotationUtils.TextureVertices);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void unknownQuadFails() {
+        mLayout.getFirstVertex(TEXTURES.length);
+    }
+}
@@ -0,0 +1,240 @@
+package com.cgfay.cainfilter.gles;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * LookupTextureCache 单元测试
+ */
+public class LookupTextureCacheTest {
+
+    /**
+     * 记录加载次数的假加载器
+     */
+    private static class FakeLoader implements LookupTextureCache.TextureLoader {
+        int loadCount;
+        int nextTexture = 1;
+        final Set<Integer> liveTextures = new HashSet<Integer>();
+        final Set<String> failing = new HashSet<String>();
+
+        @Override
+        public int loadTexture(String name) {
+            loadCount++;
+            if (failing.contains(name)) {
+                return 0;
+            }
+            int texture = nextTexture++;
+            liveTextures.add(texture);
+            return texture;
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            assertTrue("double delete " + texture, liveTextures.remove(texture));
+        }
+    }
+
+    private FakeLoader mLoader;
+    private LookupTextureCache mCache;
+
+    @Before
+    public void setUp() {
+        mLoader = new FakeLoader();
+        mCache = new LookupTextureCache(mLoader, 2);
+    }
+
+    @Test
+    public void sameLookupIsSharedAndRefcounted() {
+        int first = mCache.acquire("filters/a.png");
+        int second = mCache.acquire("filters/a.png");
+        assertEquals(first, second);
+        assertEquals(1, mLoader.loadCount);
+        assertEquals(2, mCache.getRefCount(first));
+        mCache.release(first);
+        assertEquals(1, mCache.getRefCount(first));
+        assertEquals(0, mCache.idleSize());
+        mCache.release(first);
+        assertEquals(0, mCache.getRefCount(first));
+        assertEquals(1, mCache.idleSize());
+        // 空闲的纹理没有被删除
+        assertTrue(mLoader.liveTextures.contains(first));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void idleTextureIsReusedWithoutReload() {
+        int texture = mCache.acquire("filters/a.png");
+        mCache.release(texture);
+        assertEquals(texture, mCache.acquire("filters/a.png"));
+        assertEquals(1, mLoader.loadCount);
+        assertEquals(0, mCache.idleSize());
+    }
+
+    @Test
+    public void idleBudgetEvictsLeastRecentlyUsed() {
+        int a = mCache.acquire("a");
+        int b = mCache.acquire("b");
+        int c = mCache.acquire("c");
+        mCache.release(a);
+        mCache.release(b);
+        mCache.release(c);
+        // 空闲预算为2，最久未使用的a被删除
+        assertEquals(2, mCache.idleSize());
+        assertFalse(mLoader.liveTextures.contains(a));
+        assertTrue(mLoader.liveTextures.contains(b));
+        assertTrue(mLoader.liveTextures.contains(c));
+        assertNotEquals(a, mCache.acquire("a"));
+        assertEquals(4, mLoader.loadCount);
+    }
+
+    @Test
+    public void textureInUseIsNeverEvicted() {
+        int a = mCache.acquire("a");
+        for (int i = 0; i < 5; i++) {
+            mCache.release(mCache.acquire("other" + i));
+        }
+        mCache.trimToSize(0);
+        assertTrue(mLoader.liveTextures.contains(a));
+        assertEquals(1, mCache.size());
+    }
+
+    @Test
+    public void failedLoadIsNotCached() {
+        mLoader.failing.add("broken");
+        assertEquals(0, mCache.acquire("broken"));
+        assertEquals(0, mCache.acquire("broken"));
+        assertEquals(2, mLoader.loadCount);
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void extraReleaseIsIgnored() {
+        int texture = mCache.acquire("a");
+        mCache.release(texture);
+        mCache.release(texture);
+        mCache.release(12345);
+        assertEquals(0, mCache.getRefCount(texture));
+        assertEquals(1, mCache.idleSize());
+    }
+
+    @Test
+    public void clearDeletesAndAbandonForgets() {
+        mCache.acquire("a");
+        mCache.release(mCache.acquire("b"));
+        mCache.clear();
+        assertTrue(mLoader.liveTextures.isEmpty());
+        assertEquals(0, mCache.size());
+
+        mCache.acquire("c");
+        mCache.abandon();
+        assertEquals(1, mLoader.liveTextures.size());
+        assertEquals(0, mCache.size());
+    }
+
+    /**
+     * 加载"slow"时阻塞，直到测试放行
+     */
+    private static class BlockingLoader implements LookupTextureCache.TextureLoader {
+        final FakeLoader loader = new FakeLoader();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public int loadTexture(String name) {
+            if (name.equals("slow")) {
+                started.countDown();
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return 0;
+                }
+            }
+            synchronized (loader) {
+                return loader.loadTexture(name);
+            }
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            synchronized (loader) {
+                loader.deleteTexture(texture);
+            }
+        }
+    }
+
+    private static Thread acquireInBackground(final LookupTextureCache cache, final String name,
+                                              final AtomicInteger result) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(cache.acquire(name));
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test(timeout = 10000)
+    public void loadInProgressDoesNotBlockOtherLookups() throws Exception {
+        BlockingLoader loader = new BlockingLoader();
+        LookupTextureCache cache = new LookupTextureCache(loader);
+
+        // 后台线程预热"slow"
+        AtomicInteger warmed = new AtomicInteger();
+        Thread warmUp = acquireInBackground(cache, "slow", warmed);
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+
+        // 切换到其他滤镜时直接加载，不等待预热
+        int other = cache.acquire("other");
+        assertTrue(other != 0);
+        cache.release(other);
+
+        // 同一个查找表的其他调用方等待加载完成，不会重复加载
+        AtomicInteger waited = new AtomicInteger();
+        Thread waiter = acquireInBackground(cache, "slow", waited);
+        while (waiter.getState() != Thread.State.WAITING) {
+            assertTrue(waiter.isAlive());
+            Thread.sleep(1);
+        }
+        loader.gate.countDown();
+        warmUp.join();
+        waiter.join();
+        assertTrue(warmed.get() != 0);
+        assertEquals(warmed.get(), waited.get());
+        assertEquals(2, cache.getRefCount(warmed.get()));
+        assertEquals(2, loader.loader.loadCount);
+    }
+
+    @Test(timeout = 10000)
+    public void failedLoadWakesWaitersToRetry() throws Exception {
+        BlockingLoader loader = new BlockingLoader();
+        loader.loader.failing.add("slow");
+        LookupTextureCache cache = new LookupTextureCache(loader);
+        AtomicInteger first = new AtomicInteger(-1);
+        Thread thread = acquireInBackground(cache, "slow", first);
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        AtomicInteger second = new AtomicInteger(-1);
+        Thread waiter = acquireInBackground(cache, "slow", second);
+        while (waiter.getState() != Thread.State.WAITING) {
+            assertTrue(waiter.isAlive());
+            Thread.sleep(1);
+        }
+        loader.gate.countDown();
+        thread.join();
+        waiter.join();
+        assertEquals(0, first.get());
+        assertEquals(0, second.get());
+        // 等待方重新加载了一次
+        assertEquals(2, loader.loader.loadCount);
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,275 @@
+package com.cgfay.cainfilter.gles;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * ProgramCache 单元测试
+ */
+public class ProgramCacheTest {
+
+    private static final String VERTEX = "vertex";
+
+    /**
+     * 记录编译次数的假编译器
+     */
+    private static class FakeCompiler implements ProgramCache.ProgramCompiler {
+        int compileCount;
+        int nextProgram = 1;
+        final Set<Integer> livePrograms = new HashSet<Integer>();
+        final Set<String> failing = new HashSet<String>();
+
+        @Override
+        public int createProgram(String vertexSource, String fragmentSource) {
+            compileCount++;
+            if (failing.contains(fragmentSource)) {
+                return 0;
+            }
+            int program = nextProgram++;
+            livePrograms.add(program);
+            return program;
+        }
+
+        @Override
+        public void deleteProgram(int program) {
+            assertTrue("double delete " + program, livePrograms.remove(program));
+        }
+    }
+
+    private FakeCompiler mCompiler;
+    private ProgramCache mCache;
+
+    @Before
+    public void setUp() {
+        mCompiler = new FakeCompiler();
+        mCache = new ProgramCache(mCompiler, 2);
+    }
+
+    @Test
+    public void sameSourcesShareProgram() {
+        int first = mCache.acquire(VERTEX, "a");
+        int second = mCache.acquire(VERTEX, "a");
+        assertEquals(first, second);
+        assertEquals(1, mCompiler.compileCount);
+        assertEquals(2, mCache.getRefCount(first));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void differentSourcesCompileSeparately() {
+        int a = mCache.acquire(VERTEX, "a");
+        int b = mCache.acquire(VERTEX, "b");
+        int c = mCache.acquire("other", "a");
+        assertNotEquals(a, b);
+        assertNotEquals(a, c);
+        assertEquals(3, mCompiler.compileCount);
+    }
+
+    @Test
+    public void releasedProgramIsReusedWithoutRecompile() {
+        int a = mCache.acquire(VERTEX, "a");
+        mCache.release(a);
+        assertEquals(1, mCache.idleSize());
+        assertEquals(a, mCache.acquire(VERTEX, "a"));
+        assertEquals(1, mCompiler.compileCount);
+        assertEquals(0, mCache.idleSize());
+        assertTrue(mCompiler.livePrograms.contains(a));
+    }
+
+    @Test
+    public void idleProgramsEvictedLeastRecentlyUsedFirst() {
+        int a = mCache.acquire(VERTEX, "a");
+        int b = mCache.acquire(VERTEX, "b");
+        int c = mCache.acquire(VERTEX, "c");
+        mCache.release(a);
+        mCache.release(b);
+        // 重新使用a，使b成为最久未使用的空闲program
+        mCache.release(mCache.acquire(VERTEX, "a"));
+        mCache.release(c);
+        assertEquals(2, mCache.idleSize());
+        assertFalse(mCompiler.livePrograms.contains(b));
+        assertTrue(mCompiler.livePrograms.contains(a));
+        assertTrue(mCompiler.livePrograms.contains(c));
+        // b被删除后需要重新编译
+        mCache.acquire(VERTEX, "b");
+        assertEquals(4, mCompiler.compileCount);
+    }
+
+    @Test
+    public void referencedProgramsAreNeverEvicted() {
+        int a = mCache.acquire(VERTEX, "a");
+        mCache.acquire(VERTEX, "a");
+        mCache.release(a);
+        mCache.trimToSize(0);
+        assertTrue(mCompiler.livePrograms.contains(a));
+        mCache.release(a);
+        mCache.trimToSize(0);
+        assertFalse(mCompiler.livePrograms.contains(a));
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void extraReleaseIsIgnored() {
+        int a = mCache.acquire(VERTEX, "a");
+        mCache.release(a);
+        mCache.release(a);
+        mCache.release(12345);
+        assertEquals(0, mCache.getRefCount(a));
+        assertEquals(1, mCache.idleSize());
+    }
+
+    @Test
+    public void failedCompileIsNotCached() {
+        mCompiler.failing.add("bad");
+        assertEquals(0, mCache.acquire(VERTEX, "bad"));
+        assertEquals(0, mCache.acquire(VERTEX, "bad"));
+        assertEquals(2, mCompiler.compileCount);
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void ownerChangeRequiresUniformRebind() {
+        Object filterA = new Object();
+        Object filterB = new Object();
+        int program = mCache.acquire(VERTEX, "a");
+        mCache.acquire(VERTEX, "a");
+        assertTrue(mCache.bindOwner(program, filterA));
+        assertFalse(mCache.bindOwner(program, filterA));
+        assertTrue(mCache.bindOwner(program, filterB));
+        assertTrue(mCache.bindOwner(program, filterA));
+        // 释放后，新的使用者必须重新设置uniform
+        mCache.release(program, filterA);
+        assertTrue(mCache.bindOwner(program, filterA));
+    }
+
+    @Test
+    public void clearDeletesEverythingAndAbandonDeletesNothing() {
+        mCache.acquire(VERTEX, "a");
+        mCache.release(mCache.acquire(VERTEX, "b"));
+        mCache.clear();
+        assertTrue(mCompiler.livePrograms.isEmpty());
+        assertEquals(0, mCache.size());
+
+        int c = mCache.acquire(VERTEX, "c");
+        mCache.abandon();
+        assertTrue(mCompiler.livePrograms.contains(c));
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void swipingThroughFiltersCompilesEachOnce() {
+        ProgramCache cache = new ProgramCache(mCompiler);
+        int current = cache.acquire(VERTEX, "filter0");
+        for (int round = 0; round < 3; round++) {
+            for (int i = 1; i <= 25; i++) {
+                cache.release(current);
+                current = cache.acquire(VERTEX, "filter" + (i % 25));
+            }
+        }
+        assertEquals(25, mCompiler.compileCount);
+    }
+
+    /**
+     * 编译"slow"时阻塞，直到测试放行
+     */
+    private static class BlockingCompiler implements ProgramCache.ProgramCompiler {
+        final FakeCompiler compiler = new FakeCompiler();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public int createProgram(String vertexSource, String fragmentSource) {
+            if (fragmentSource.equals("slow")) {
+                started.countDown();
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return 0;
+                }
+            }
+            synchronized (compiler) {
+                return compiler.createProgram(vertexSource, fragmentSource);
+            }
+        }
+
+        @Override
+        public void deleteProgram(int program) {
+            synchronized (compiler) {
+                compiler.deleteProgram(program);
+            }
+        }
+    }
+
+    private static Thread acquireInBackground(final ProgramCache cache, final String fragment,
+                                              final AtomicInteger result) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(cache.acquire(VERTEX, fragment));
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test(timeout = 10000)
+    public void compileInProgressDoesNotBlockOtherCallers() throws Exception {
+        BlockingCompiler compiler = new BlockingCompiler();
+        ProgramCache cache = new ProgramCache(compiler);
+        int current = cache.acquire(VERTEX, "current");
+        Object filter = new Object();
+        ProgramCache.ProgramOwner owner = cache.getOwner(current);
+
+        // 后台线程预热"slow"
+        AtomicInteger warmed = new AtomicInteger();
+        Thread warmUp = acquireInBackground(cache, "slow", warmed);
+        assertTrue(compiler.started.await(5, TimeUnit.SECONDS));
+
+        // 渲染线程在编译期间照常绘制和切换滤镜
+        assertTrue(owner.bind(filter));
+        assertFalse(cache.bindOwner(current, filter));
+        int other = cache.acquire(VERTEX, "other");
+        assertTrue(other != 0);
+        cache.release(other);
+
+        // 同一个program的其他调用方等待编译完成，不会重复编译
+        AtomicInteger waited = new AtomicInteger();
+        Thread waiter = acquireInBackground(cache, "slow", waited);
+        while (waiter.getState() != Thread.State.WAITING) {
+            assertTrue(waiter.isAlive());
+            Thread.sleep(1);
+        }
+        compiler.gate.countDown();
+        warmUp.join();
+        waiter.join();
+        assertTrue(warmed.get() != 0);
+        assertEquals(warmed.get(), waited.get());
+        assertEquals(2, cache.getRefCount(warmed.get()));
+        assertEquals(3, compiler.compiler.compileCount);
+    }
+
+    @Test(timeout = 10000)
+    public void clearDuringCompileDropsTheResult() throws Exception {
+        BlockingCompiler compiler = new BlockingCompiler();
+        ProgramCache cache = new ProgramCache(compiler);
+        AtomicInteger warmed = new AtomicInteger();
+        Thread warmUp = acquireInBackground(cache, "slow", warmed);
+        assertTrue(compiler.started.await(5, TimeUnit.SECONDS));
+        cache.clear();
+        compiler.gate.countDown();
+        warmUp.join();
+        // 调用方仍然拿到program，但缓存已经清空
+        assertTrue(warmed.get() != 0);
+        assertEquals(0, cache.size());
+        assertNull(cache.getOwner(warmed.get()));
+    }
+}
@@ -0,0 +1,166 @@
+package com.cgfay.cainfilter.gles;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * RenderTargetPool 单元测试
+ */
+public class RenderTargetPoolTest {
+
+    private static final int RGBA = 0x1908;
+    private static final int RGB = 0x1907;
+
+    /**
+     * 记录存活对象的假分配器
+     */
+    private static class FakeAllocator implements RenderTargetPool.RenderTargetAllocator {
+        int nextId = 1;
+        final Set<RenderTarget> liveTargets = new HashSet<RenderTarget>();
+        long liveBytes;
+        long peakBytes;
+
+        @Override
+        public RenderTarget createRenderTarget(int width, int height, int format) {
+            int bytesPerPixel = format == RGB ? 3 : 4;
+            RenderTarget target = new RenderTarget(nextId++, nextId++, width, height, format,
+                    (long) width * height * bytesPerPixel);
+            liveTargets.add(target);
+            liveBytes += target.getByteSize();
+            peakBytes = Math.max(peakBytes, liveBytes);
+            return target;
+        }
+
+        @Override
+        public void destroyRenderTarget(RenderTarget target) {
+            assertTrue("double destroy", liveTargets.remove(target));
+            liveBytes -= target.getByteSize();
+        }
+    }
+
+    private FakeAllocator mAllocator;
+    private RenderTargetPool mPool;
+
+    @Before
+    public void setUp() {
+        mAllocator = new FakeAllocator();
+        mPool = new RenderTargetPool(mAllocator);
+    }
+
+    /**
+     * 模拟滤镜组的绘制流程：每个pass借出输出，归还输入，最后的输出保留到下一帧
+     */
+    private RenderTarget drawChain(RenderTarget previousOutput, int passCount, int width, int height) {
+        mPool.recycle(previousOutput);
+        RenderTarget input = null;
+        for (int i = 0; i < passCount; i++) {
+            RenderTarget output = mPool.obtain(width, height, RGBA);
+            assertNotSame(input, output);
+            mPool.recycle(input);
+            input = output;
+        }
+        return input;
+    }
+
+    @Test
+    public void chainOfManyFiltersUsesTwoTargets() {
+        RenderTarget output = null;
+        for (int frame = 0; frame < 30; frame++) {
+            output = drawChain(output, 7, 720, 1280);
+        }
+        assertEquals(2, mAllocator.liveTargets.size());
+        assertEquals(2, mPool.getAllocateCount());
+        assertEquals(2L * 720 * 1280 * 4, mAllocator.peakBytes);
+        assertEquals(mAllocator.peakBytes, mPool.getPeakBytes());
+        assertEquals(1, mPool.getLeasedCount());
+    }
+
+    @Test
+    public void switchingGroupsReusesTargets() {
+        RenderTarget output = drawChain(null, 4, 720, 1280);
+        // 旧的滤镜组释放，新的滤镜组继续使用同一个池
+        mPool.recycle(output);
+        output = drawChain(null, 3, 720, 1280);
+        assertEquals(2, mPool.getAllocateCount());
+        mPool.recycle(output);
+        assertEquals(0, mPool.getLeasedCount());
+        assertEquals(2, mPool.getIdleCount());
+    }
+
+    @Test
+    public void targetsAreBucketedBySizeAndFormat() {
+        RenderTarget a = mPool.obtain(100, 100, RGBA);
+        mPool.recycle(a);
+        RenderTarget b = mPool.obtain(100, 200, RGBA);
+        RenderTarget c = mPool.obtain(100, 100, RGB);
+        assertNotSame(a, b);
+        assertNotSame(a, c);
+        assertSame(a, mPool.obtain(100, 100, RGBA));
+        assertEquals(3, mPool.getLiveCount());
+        assertEquals(100L * 100 * 4 + 100L * 200 * 4 + 100L * 100 * 3, mPool.getLiveBytes());
+    }
+
+    @Test
+    public void idleBudgetEvictsOldestFirst() {
+        RenderTargetPool pool = new RenderTargetPool(mAllocator, 2 * 100 * 100 * 4);
+        RenderTarget a = pool.obtain(100, 100, RGBA);
+        RenderTarget b = pool.obtain(100, 100, RGBA);
+        RenderTarget c = pool.obtain(100, 100, RGBA);
+        pool.recycle(a);
+        pool.recycle(b);
+        pool.recycle(c);
+        assertEquals(2, pool.getIdleCount());
+        assertFalse(mAllocator.liveTargets.contains(a));
+        assertTrue(mAllocator.liveTargets.contains(b));
+        assertTrue(mAllocator.liveTargets.contains(c));
+        assertEquals(mAllocator.liveBytes, pool.getLiveBytes());
+    }
+
+    @Test
+    public void resizeDropsStaleBucketsWithinBudget() {
+        RenderTargetPool pool = new RenderTargetPool(mAllocator, 2L * 720 * 1280 * 4);
+        RenderTarget output = null;
+        for (int frame = 0; frame < 5; frame++) {
+            pool.recycle(output);
+            output = pool.obtain(720, 1280, RGBA);
+        }
+        pool.recycle(output);
+        for (int frame = 0; frame < 5; frame++) {
+            RenderTarget first = pool.obtain(1080, 1920, RGBA);
+            RenderTarget second = pool.obtain(1080, 1920, RGBA);
+            pool.recycle(first);
+            pool.recycle(second);
+        }
+        // 旧尺寸的渲染目标已被淘汰
+        for (RenderTarget target : mAllocator.liveTargets) {
+            assertEquals(1080, target.getWidth());
+        }
+    }
+
+    @Test
+    public void clearDestroysIdleTargets() {
+        RenderTarget leased = mPool.obtain(64, 64, RGBA);
+        mPool.recycle(mPool.obtain(32, 32, RGBA));
+        mPool.clear();
+        assertEquals(1, mAllocator.liveTargets.size());
+        assertTrue(mAllocator.liveTargets.contains(leased));
+        assertEquals(1, mPool.getLiveCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleRecycleFails() {
+        RenderTarget target = mPool.obtain(64, 64, RGBA);
+        mPool.recycle(target);
+        mPool.recycle(target);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalSizeFails() {
+        mPool.obtain(0, 64, RGBA);
+    }
+}
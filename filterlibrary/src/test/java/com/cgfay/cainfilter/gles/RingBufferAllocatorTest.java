@@ -0,0 +1,85 @@
+package com.cgfay.cainfilter.gles;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * RingBufferAllocator 单元测试
+ */
+public class RingBufferAllocatorTest {
+
+    @Test
+    public void firstWriteOrphansStorage() {
+        RingBufferAllocator allocator = new RingBufferAllocator(1024, 16);
+        assertEquals(0, allocator.allocate(80));
+        assertTrue(allocator.takeOrphanRequest());
+        assertFalse(allocator.takeOrphanRequest());
+        assertEquals(80, allocator.allocate(12));
+        // 对齐到16字节
+        assertEquals(96, allocator.allocate(4));
+        assertFalse(allocator.takeOrphanRequest());
+    }
+
+    @Test
+    public void wrapRequestsOrphan() {
+        RingBufferAllocator allocator = new RingBufferAllocator(256, 16);
+        allocator.allocate(200);
+        allocator.takeOrphanRequest();
+        assertEquals(0, allocator.allocate(64));
+        assertTrue(allocator.takeOrphanRequest());
+        assertEquals(2, allocator.getOrphanCount());
+        // 刚好填满
+        assertEquals(64, allocator.allocate(192));
+        assertFalse(allocator.takeOrphanRequest());
+        assertEquals(256, allocator.getHead());
+        assertEquals(0, allocator.allocate(16));
+        assertTrue(allocator.takeOrphanRequest());
+    }
+
+    @Test
+    public void allocationsNeverOverlapWithinOneStorage() {
+        // 模拟每帧写入不同数量的贴纸和关键点
+        RingBufferAllocator allocator = new RingBufferAllocator(64 * 1024, 16);
+        Random random = new Random(4);
+        boolean[] used = new boolean[allocator.getCapacity()];
+        allocator.takeOrphanRequest();
+        for (int n = 0; n < 20000; n++) {
+            int size = 4 + random.nextInt(2048);
+            int offset = allocator.allocate(size);
+            if (allocator.takeOrphanRequest()) {
+                used = new boolean[allocator.getCapacity()];
+            }
+            assertEquals(0, offset % 16);
+            assertTrue(offset + size <= allocator.getCapacity());
+            for (int i = offset; i < offset + size; i++) {
+                assertFalse("overlap at " + i, used[i]);
+                used[i] = true;
+            }
+        }
+        assertTrue(allocator.getOrphanCount() > 1);
+        assertEquals(20000, allocator.getAllocateCount());
+    }
+
+    @Test
+    public void resetForcesOrphan() {
+        RingBufferAllocator allocator = new RingBufferAllocator(256, 16);
+        allocator.allocate(32);
+        allocator.takeOrphanRequest();
+        allocator.reset();
+        assertEquals(0, allocator.allocate(32));
+        assertTrue(allocator.takeOrphanRequest());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedAllocationFails() {
+        new RingBufferAllocator(256, 16).allocate(257);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void alignmentMustBePowerOfTwo() {
+        new RingBufferAllocator(240, 12);
+    }
+}
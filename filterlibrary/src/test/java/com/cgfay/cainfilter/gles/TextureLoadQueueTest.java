@@ -0,0 +1,457 @@
+package com.cgfay.cainfilter.gles;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * TextureLoadQueue 单元测试，解码、上传任务手动执行，fence由测试控制
+ */
+public class TextureLoadQueueTest {
+
+    // 每张图像 16x16，占用1024字节
+    private static final int SIZE = 16;
+    private static final long IMAGE_BYTES = SIZE * SIZE * 4;
+
+    /**
+     * 手动执行的线程池
+     */
+    private static final class ManualExecutor implements Executor {
+        final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        synchronized int size() {
+            return tasks.size();
+        }
+
+        void runAll() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        return;
+                    }
+                    task = tasks.removeFirst();
+                }
+                task.run();
+            }
+        }
+    }
+
+    private static final class FakeDecoder implements TextureLoadQueue.Decoder {
+        final List<String> decoded = new ArrayList<String>();
+        final Set<String> broken = new HashSet<String>();
+        // 解码过程中执行，模拟解码期间渲染线程的操作
+        Runnable duringDecode;
+        int recycled;
+
+        @Override
+        public synchronized TextureLoadQueue.Image decode(String key) {
+            decoded.add(key);
+            if (duringDecode != null) {
+                duringDecode.run();
+            }
+            if (broken.contains(key)) {
+                return null;
+            }
+            return new TextureLoadQueue.Image(key, SIZE, SIZE);
+        }
+
+        @Override
+        public synchronized void recycle(TextureLoadQueue.Image image) {
+            recycled++;
+        }
+    }
+
+    private static final class FakeUploader implements TextureLoadQueue.Uploader {
+        final List<Object> uploaded = new ArrayList<Object>();
+        final Set<Long> signaled = new HashSet<Long>();
+        final List<Integer> deletedTextures = new ArrayList<Integer>();
+        final List<Long> deletedFences = new ArrayList<Long>();
+        boolean signalImmediately;
+        // 模拟上传线程已经退出，上传直接返回0
+        boolean dead;
+        int nextTexture = 1;
+        long nextFence = 100;
+
+        @Override
+        public synchronized int upload(TextureLoadQueue.Image image) {
+            if (dead) {
+                return 0;
+            }
+            uploaded.add(image.pixels);
+            return nextTexture++;
+        }
+
+        @Override
+        public synchronized long insertFence() {
+            long fence = nextFence++;
+            if (signalImmediately) {
+                signaled.add(fence);
+            }
+            return fence;
+        }
+
+        @Override
+        public synchronized boolean isFenceSignaled(long fence) {
+            return signaled.contains(fence);
+        }
+
+        @Override
+        public synchronized void deleteFence(long fence) {
+            deletedFences.add(fence);
+        }
+
+        @Override
+        public synchronized void deleteTexture(int texture) {
+            deletedTextures.add(texture);
+        }
+
+        synchronized void signalAll() {
+            for (long fence = 100; fence < nextFence; fence++) {
+                signaled.add(fence);
+            }
+        }
+    }
+
+    private final FakeDecoder mDecoder = new FakeDecoder();
+    private final FakeUploader mUploader = new FakeUploader();
+    private final ManualExecutor mDecodeExecutor = new ManualExecutor();
+    private final ManualExecutor mUploadExecutor = new ManualExecutor();
+
+    private TextureLoadQueue createQueue(int maxDecoding, long maxBytes) {
+        return new TextureLoadQueue(mDecoder, mUploader, mDecodeExecutor, mUploadExecutor,
+                maxDecoding, maxBytes);
+    }
+
+    private void runAll() {
+        mDecodeExecutor.runAll();
+        mUploadExecutor.runAll();
+    }
+
+    @Test
+    public void publishesOnlyAfterFenceSignals() {
+        TextureLoadQueue queue = createQueue(2, 100 * IMAGE_BYTES);
+        TextureLoadQueue.Request request = queue.request("a");
+        runAll();
+        assertEquals(1, mUploader.uploaded.size());
+        // 已经上传但fence没有完成，渲染线程不能使用
+        assertEquals(0, queue.dispatch());
+        assertFalse(request.isReady());
+        assertEquals(0, request.getTexture());
+
+        mUploader.signalAll();
+        assertEquals(1, queue.dispatch());
+        assertTrue(request.isReady());
+        assertEquals(1, request.getTexture());
+        assertEquals(SIZE, request.getWidth());
+        // 发布之后删除fence，图像已经回收
+        assertEquals(1, mUploader.deletedFences.size());
+        assertEquals(1, mDecoder.recycled);
+        assertEquals(IMAGE_BYTES, queue.getUsedBytes());
+    }
+
+    @Test
+    public void sameKeySharesOneLoad() {
+        TextureLoadQueue queue = createQueue(2, 100 * IMAGE_BYTES);
+        TextureLoadQueue.Request first = queue.request("a");
+        TextureLoadQueue.Request second = queue.request("a");
+        assertEquals(1, mDecodeExecutor.size());
+        runAll();
+        mUploader.signalAll();
+        queue.dispatch();
+        assertEquals(1, mDecoder.decoded.size());
+        assertEquals(first.getTexture(), second.getTexture());
+        assertEquals(1, queue.getDedupCount());
+
+        // 一个请求释放之后另一个仍然可用
+        queue.release(first);
+        assertFalse(first.isReady());
+        assertTrue(second.isReady());
+        assertEquals(0, queue.idleSize());
+
+        // 全部释放之后进入空闲队列，再次请求直接命中
+        queue.release(second);
+        assertEquals(1, queue.idleSize());
+        TextureLoadQueue.Request third = queue.request("a");
+        assertTrue(third.isReady());
+        assertEquals(1, queue.getHitCount());
+        assertEquals(1, queue.getMissCount());
+        assertEquals(0, mDecodeExecutor.size());
+    }
+
+    @Test
+    public void cancelsPendingRequestBeforeDecode() {
+        TextureLoadQueue queue = createQueue(1, 100 * IMAGE_BYTES);
+        queue.request("a");
+        TextureLoadQueue.Request stale = queue.request("b");
+        assertEquals(1, queue.getPendingCount());
+        queue.release(stale);
+        assertEquals(0, queue.getPendingCount());
+        runAll();
+        assertEquals(1, mDecoder.decoded.size());
+        assertEquals("a", mDecoder.decoded.get(0));
+        assertEquals(1, queue.getCancelledCount());
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void cancelsDecodingAndDecodedRequests() {
+        final TextureLoadQueue queue = createQueue(1, 100 * IMAGE_BYTES);
+        final TextureLoadQueue.Request decoding = queue.request("a");
+        TextureLoadQueue.Request decoded = queue.request("b");
+
+        // a在解码中被取消，解码完成后直接回收
+        mDecoder.duringDecode = new Runnable() {
+            @Override
+            public void run() {
+                queue.release(decoding);
+            }
+        };
+        mDecodeExecutor.runAll();
+        mDecoder.duringDecode = null;
+        assertEquals(1, mDecoder.recycled);
+        // b在a取消之后开始解码
+        assertEquals(2, mDecoder.decoded.size());
+        assertEquals(IMAGE_BYTES, queue.getUsedBytes());
+
+        // b解码完成等待上传时被取消，上传任务直接回收图像
+        queue.release(decoded);
+        mUploadExecutor.runAll();
+        assertTrue(mUploader.uploaded.isEmpty());
+        assertEquals(2, mDecoder.recycled);
+        assertEquals(0, queue.getUsedBytes());
+        assertEquals(2, queue.getCancelledCount());
+        assertEquals(0, queue.size());
+
+        // 取消之后重新请求会重新加载
+        TextureLoadQueue.Request again = queue.request("a");
+        runAll();
+        mUploader.signalAll();
+        queue.dispatch();
+        assertTrue(again.isReady());
+    }
+
+    @Test
+    public void cancelledBeforeDecodeSkipsDecoder() {
+        TextureLoadQueue queue = createQueue(2, 100 * IMAGE_BYTES);
+        // 解码任务已经提交但还没有执行
+        queue.release(queue.request("a"));
+        runAll();
+        assertTrue(mDecoder.decoded.isEmpty());
+        assertEquals(1, queue.getCancelledCount());
+    }
+
+    @Test
+    public void releaseDuringUploadKeepsTextureIdle() {
+        TextureLoadQueue queue = createQueue(2, 100 * IMAGE_BYTES);
+        TextureLoadQueue.Request request = queue.request("a");
+        runAll();
+        // 已经上传，fence还没有完成
+        queue.release(request);
+        assertEquals(0, queue.getCancelledCount());
+        mUploader.signalAll();
+        queue.dispatch();
+        assertEquals(1, queue.idleSize());
+        assertTrue(mUploader.deletedTextures.isEmpty());
+        assertTrue(queue.request("a").isReady());
+    }
+
+    @Test
+    public void budgetEvictsIdleTexturesBeforeDecoding() {
+        TextureLoadQueue queue = createQueue(4, 3 * IMAGE_BYTES);
+        TextureLoadQueue.Request a = queue.request("a");
+        TextureLoadQueue.Request b = queue.request("b");
+        TextureLoadQueue.Request c = queue.request("c");
+        runAll();
+        mUploader.signalAll();
+        queue.dispatch();
+        assertEquals(3 * IMAGE_BYTES, queue.getUsedBytes());
+
+        // 预算已满并且没有空闲纹理，新的请求等待
+        TextureLoadQueue.Request d = queue.request("d");
+        assertEquals(1, queue.getPendingCount());
+        assertEquals(0, mDecodeExecutor.size());
+
+        // 释放a之后a被淘汰，d开始解码
+        queue.release(a);
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(1, queue.getEvictedCount());
+        runAll();
+        mUploader.signalAll();
+        queue.dispatch();
+        assertTrue(d.isReady());
+        assertTrue(mUploader.deletedTextures.contains(1));
+        assertEquals(3 * IMAGE_BYTES, queue.getUsedBytes());
+        assertTrue(queue.getPeakBytes() <= 3 * IMAGE_BYTES);
+
+        // 最近使用的空闲纹理保留，最久未使用的先被淘汰
+        queue.release(b);
+        queue.release(c);
+        queue.release(queue.request("b"));
+        queue.request("e");
+        assertEquals(2, queue.getEvictedCount());
+        assertTrue(queue.request("b").isReady());
+        assertFalse(queue.request("c").isReady());
+    }
+
+    @Test
+    public void oversizedImageIsAdmittedWhenNothingElseIsLoaded() {
+        TextureLoadQueue queue = createQueue(1, IMAGE_BYTES / 2);
+        TextureLoadQueue.Request first = queue.request("a");
+        TextureLoadQueue.Request second = queue.request("b");
+        runAll();
+        mUploader.signalAll();
+        queue.dispatch();
+        assertTrue(first.isReady());
+        // 超出预算之后其余请求等待
+        assertFalse(second.isReady());
+        assertEquals(1, queue.getPendingCount());
+        queue.release(first);
+        queue.dispatch();
+        runAll();
+        mUploader.signalAll();
+        queue.dispatch();
+        assertTrue(second.isReady());
+        assertEquals(1, mUploader.deletedTextures.size());
+    }
+
+    @Test
+    public void failedDecodeIsReportedAndRetried() {
+        mDecoder.broken.add("broken");
+        TextureLoadQueue queue = createQueue(2, 100 * IMAGE_BYTES);
+        TextureLoadQueue.Request request = queue.request("broken");
+        runAll();
+        assertTrue(request.isFailed());
+        assertFalse(request.isReady());
+        assertEquals(1, queue.getFailedCount());
+        queue.dispatch();
+        assertEquals(0, queue.size());
+        queue.release(request);
+
+        mDecoder.broken.clear();
+        TextureLoadQueue.Request retry = queue.request("broken");
+        runAll();
+        mUploader.signalAll();
+        queue.dispatch();
+        assertTrue(retry.isReady());
+        assertEquals(2, queue.getMissCount());
+    }
+
+    @Test
+    public void unavailableUploaderFailsRequestsAndRecyclesImages() {
+        TextureLoadQueue queue = createQueue(1, 100 * IMAGE_BYTES);
+        TextureLoadQueue.Request decoded = queue.request("a");
+        TextureLoadQueue.Request decoding = queue.request("b");
+        TextureLoadQueue.Request pending = queue.request("c");
+        // a解码完成等待上传，b开始解码，c仍在等待
+        mDecodeExecutor.tasks.removeFirst().run();
+        assertEquals(1, mUploadExecutor.size());
+        assertEquals(IMAGE_BYTES, queue.getUsedBytes());
+
+        // 上传线程的上下文创建失败
+        mUploader.dead = true;
+        queue.setUploadUnavailable();
+        assertTrue(pending.isFailed());
+        TextureLoadQueue.Request late = queue.request("d");
+        assertTrue(late.isFailed());
+        // 只有b的解码任务，新的请求不再解码
+        assertEquals(1, mDecodeExecutor.size());
+
+        runAll();
+        assertTrue(decoded.isFailed());
+        assertTrue(decoding.isFailed());
+        // 解码好的图像全部回收，不再占用预算
+        assertEquals(2, mDecoder.recycled);
+        assertEquals(0, queue.getUsedBytes());
+        assertEquals(0, mUploader.uploaded.size());
+        assertEquals(2, mDecoder.decoded.size());
+        queue.dispatch();
+        assertEquals(0, queue.size());
+        assertEquals(4, queue.getFailedCount());
+    }
+
+    @Test
+    public void releaseDeletesTexturesAndFences() {
+        TextureLoadQueue queue = createQueue(2, 100 * IMAGE_BYTES);
+        queue.request("a");
+        queue.release(queue.request("b"));
+        queue.request("c");
+        queue.request("d");
+        runAll();
+        mUploader.signalAll();
+        queue.dispatch();
+        // e还在等待fence
+        queue.request("e");
+        runAll();
+        queue.release();
+        assertEquals(4, mUploader.deletedTextures.size());
+        assertTrue(mUploader.deletedFences.contains(103L));
+        assertEquals(0, queue.getUsedBytes());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void concurrentLoadsPublishUniqueTextures() throws Exception {
+        ExecutorService decodeExecutor = Executors.newFixedThreadPool(2);
+        ExecutorService uploadExecutor = Executors.newSingleThreadExecutor();
+        mUploader.signalImmediately = true;
+        TextureLoadQueue queue = new TextureLoadQueue(mDecoder, mUploader,
+                decodeExecutor, uploadExecutor, 2, 24 * IMAGE_BYTES);
+        Random random = new Random(3);
+        List<TextureLoadQueue.Request> held = new ArrayList<TextureLoadQueue.Request>();
+        // 模拟渲染线程：每帧请求若干帧，随机释放旧的请求
+        for (int frame = 0; frame < 200; frame++) {
+            held.add(queue.request("frame_" + random.nextInt(40)));
+            if (held.size() > 8) {
+                queue.release(held.remove(random.nextInt(held.size())));
+            }
+            queue.dispatch();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            queue.dispatch();
+            boolean ready = true;
+            for (TextureLoadQueue.Request request : held) {
+                ready &= request.isReady();
+            }
+            if (ready) {
+                break;
+            }
+            Thread.sleep(1);
+        }
+        Set<Integer> textures = new HashSet<Integer>();
+        Set<String> keys = new HashSet<String>();
+        for (TextureLoadQueue.Request request : held) {
+            assertTrue(request.getKey(), request.isReady());
+            if (keys.add(request.getKey())) {
+                assertTrue(textures.add(request.getTexture()));
+            }
+        }
+        assertTrue(queue.getPeakBytes() <= 24 * IMAGE_BYTES + 2 * IMAGE_BYTES);
+        // 与GLTextureLoader一样，先停止后台线程再释放
+        decodeExecutor.shutdown();
+        assertTrue(decodeExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        uploadExecutor.shutdown();
+        assertTrue(uploadExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        queue.release();
+        // 全部纹理都被删除，没有重复删除
+        assertEquals(mUploader.uploaded.size(), new HashSet<Integer>(mUploader.deletedTextures).size());
+        assertEquals(mUploader.uploaded.size(), mUploader.deletedTextures.size());
+    }
+}
@@ -0,0 +1,328 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+import com.cgfay.cainfilter.glfilter.color.CoolColorStage;
+import com.cgfay.cainfilter.glfilter.image.ColorAdjustMatrix;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColorLutBaker 单元测试，烘焙出来的查找表与逐个阶段计算比较
+ */
+public class ColorLutBakerTest {
+
+    private static ColorAdjustMatrix createAdjust() {
+        ColorAdjustMatrix matrix = new ColorAdjustMatrix();
+        matrix.setBrightness(0.05f);
+        matrix.setContrast(1.15f);
+        matrix.setHue(20.0f);
+        matrix.setSaturation(1.3f);
+        return matrix;
+    }
+
+    /**
+     * 16级的二维查找图，类似滤镜的非线性调色
+     */
+    private static LookupTable createLookup() {
+        int size = 16;
+        int width = 64;
+        int[] pixels = new int[width * width];
+        for (int b = 0; b < size; b++) {
+            int left = (b % 4) * size;
+            int top = (b / 4) * size;
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    float rf = r / 15f;
+                    float gf = g / 15f;
+                    float bf = b / 15f;
+                    int red = Math.round((float) Math.pow(rf, 0.8) * 0.9f * 255 + 0.1f * gf * 255);
+                    int green = Math.round((float) Math.sqrt(gf) * 0.8f * 255 + 0.2f * bf * 255);
+                    int blue = Math.round(bf * bf * 0.85f * 255 + 0.15f * rf * 255);
+                    pixels[(top + g) * width + left + r] = 0xff000000
+                            | Math.min(255, red) << 16 | Math.min(255, green) << 8 | Math.min(255, blue);
+                }
+            }
+        }
+        return LookupTable.fromLookupImage(pixels, width, width);
+    }
+
+    static List<ColorStage> createChain() {
+        return Arrays.<ColorStage>asList(createAdjust(), CoolColorStage.INSTANCE, createLookup());
+    }
+
+    /**
+     * 随机颜色上烘焙查找表与逐个阶段计算的误差(8位量化级)，从小到大排序
+     */
+    private static double[] errors(List<ColorStage> stages, LookupTable table, int samples) {
+        Random random = new Random(7);
+        float[] expected = new float[4];
+        float[] actual = new float[3];
+        double[] errors = new double[samples];
+        for (int i = 0; i < samples; i++) {
+            expected[0] = random.nextFloat();
+            expected[1] = random.nextFloat();
+            expected[2] = random.nextFloat();
+            expected[3] = 1.0f;
+            table.sample(expected[0], expected[1], expected[2], actual);
+            ColorLutBaker.evaluate(stages, expected);
+            for (int c = 0; c < 3; c++) {
+                errors[i] = Math.max(errors[i], Math.abs(expected[c] - actual[c]) * 255);
+            }
+        }
+        Arrays.sort(errors);
+        return errors;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(sorted.length * p))];
+    }
+
+    @Test
+    public void gridPointsMatchSequentialEvaluation() {
+        List<ColorStage> stages = createChain();
+        int size = ColorLutBaker.SIZE_SMALL;
+        LookupTable table = ColorLutBaker.bake(stages, size);
+        float[] expected = new float[4];
+        float[] actual = new float[3];
+        for (int b = 0; b < size; b += 4) {
+            for (int g = 0; g < size; g += 3) {
+                for (int r = 0; r < size; r += 2) {
+                    expected[0] = r / (size - 1f);
+                    expected[1] = g / (size - 1f);
+                    expected[2] = b / (size - 1f);
+                    expected[3] = 1.0f;
+                    table.sample(expected[0], expected[1], expected[2], actual);
+                    ColorLutBaker.evaluate(stages, expected);
+                    for (int c = 0; c < 3; c++) {
+                        // 格点上只有8位量化误差
+                        assertEquals(expected[c], actual[c], 0.5 / 255 + 1e-5);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bakedChainMatchesSequentialEvaluation() {
+        List<ColorStage> stages = createChain();
+        double[] small = errors(stages, ColorLutBaker.bake(stages, ColorLutBaker.SIZE_SMALL), 20000);
+        double[] large = errors(stages, ColorLutBaker.bake(stages, ColorLutBaker.SIZE_LARGE), 20000);
+        // 冷色调曲线在暗部有一段截断，拐点附近的格点之间误差最大，其余地方在量化误差附近
+        // 33级约为：平均0.8，p99 10，最大21，与GLImageFilterGroup.setMergeColorRuns的说明一致
+        assertTrue("33^3 mean " + mean(small), mean(small) < 1.0);
+        assertTrue("33^3 p99 " + percentile(small, 0.99), percentile(small, 0.99) < 12);
+        assertTrue("33^3 max " + small[small.length - 1], small[small.length - 1] < 24);
+        assertTrue("64^3 mean " + mean(large), mean(large) < 0.5);
+        assertTrue("64^3 p99 " + percentile(large, 0.99), percentile(large, 0.99) < 5);
+        assertTrue("64^3 max " + large[large.length - 1], large[large.length - 1] < 12);
+        assertTrue(mean(large) < mean(small));
+        assertTrue(large[large.length - 1] < small[small.length - 1]);
+    }
+
+    @Test
+    public void singleMatrixStageIsNearlyExact() {
+        // 颜色矩阵是线性的，三线性插值只剩截断处的误差
+        List<ColorStage> stages = new ArrayList<ColorStage>();
+        ColorAdjustMatrix matrix = new ColorAdjustMatrix();
+        matrix.setSaturation(0.7f);
+        matrix.setBrightness(0.02f);
+        stages.add(matrix);
+        double[] errors = errors(stages, ColorLutBaker.bake(stages, ColorLutBaker.SIZE_SMALL), 5000);
+        double max = errors[errors.length - 1];
+        // 格点量化误差0.5级，加上截断处插值的误差
+        assertTrue("error " + max, max < 2.0);
+        assertTrue("mean " + mean(errors), mean(errors) < 0.5);
+    }
+
+    @Test
+    public void cacheHitsOnSameParametersAndMissesOnChange() {
+        ColorLutBaker baker = new ColorLutBaker(2);
+        ColorAdjustMatrix matrix = createAdjust();
+        List<ColorStage> stages = Arrays.<ColorStage>asList(matrix, CoolColorStage.INSTANCE);
+        LookupTable first = baker.obtain(stages, ColorLutBaker.SIZE_SMALL);
+        assertSame(first, baker.obtain(stages, ColorLutBaker.SIZE_SMALL));
+        assertEquals(1, baker.getHitCount());
+        assertEquals(1, baker.getMissCount());
+
+        // 参数改变重新烘焙
+        matrix.setSaturation(0.5f);
+        LookupTable second = baker.obtain(stages, ColorLutBaker.SIZE_SMALL);
+        assertNotSame(first, second);
+        assertEquals(2, baker.getMissCount());
+
+        // 改回原来的参数命中缓存
+        matrix.setSaturation(1.3f);
+        assertSame(first, baker.obtain(stages, ColorLutBaker.SIZE_SMALL));
+        assertEquals(2, baker.getHitCount());
+
+        // 顺序不同、级数不同都是不同的查找表
+        List<ColorStage> reversed = Arrays.<ColorStage>asList(CoolColorStage.INSTANCE, matrix);
+        assertNotSame(first, baker.obtain(reversed, ColorLutBaker.SIZE_SMALL));
+        assertEquals(2, baker.size());
+        assertNotSame(first, baker.obtain(stages, ColorLutBaker.SIZE_LARGE));
+        assertEquals(4, baker.getMissCount());
+    }
+
+    /**
+     * 哈希总是相同的阶段，只能靠参数比较区分
+     */
+    private static final class CollidingStage implements ColorStage {
+        float gain;
+
+        CollidingStage(float gain) {
+            this.gain = gain;
+        }
+
+        @Override
+        public void apply(float[] rgba, int offset) {
+            for (int c = 0; c < 3; c++) {
+                rgba[offset + c] *= gain;
+            }
+        }
+
+        @Override
+        public long getParameterHash() {
+            return 0;
+        }
+
+        @Override
+        public boolean hasSameParameters(ColorStage other) {
+            return other instanceof CollidingStage && ((CollidingStage) other).gain == gain;
+        }
+
+        @Override
+        public ColorStage snapshot() {
+            return new CollidingStage(gain);
+        }
+    }
+
+    @Test
+    public void hashCollisionDoesNotReturnWrongTable() {
+        ColorLutBaker baker = new ColorLutBaker();
+        CollidingStage stage = new CollidingStage(0.5f);
+        List<ColorStage> stages = Arrays.<ColorStage>asList(stage);
+        LookupTable half = baker.obtain(stages, 5);
+        // 修改同一个对象的参数，哈希不变，缓存键保存的是烘焙时的参数
+        stage.gain = 0.25f;
+        LookupTable quarter = baker.obtain(stages, 5);
+        assertNotSame(half, quarter);
+        assertEquals(2, baker.getMissCount());
+        float[] out = new float[3];
+        quarter.sample(1.0f, 1.0f, 1.0f, out);
+        assertEquals(0.25f, out[0], 0.5 / 255 + 1e-5);
+
+        stage.gain = 0.5f;
+        assertSame(half, baker.obtain(stages, 5));
+        assertSame(half, baker.obtain(Arrays.<ColorStage>asList(new CollidingStage(0.5f)), 5));
+        assertEquals(2, baker.getHitCount());
+    }
+
+    /**
+     * 手动执行的后台线程
+     */
+    private static final class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    @Test
+    public void asyncBakeReturnsNullUntilBaked() {
+        ColorLutBaker baker = new ColorLutBaker();
+        ManualExecutor executor = new ManualExecutor();
+        ColorAdjustMatrix matrix = createAdjust();
+        List<ColorStage> stages = Arrays.<ColorStage>asList(matrix, CoolColorStage.INSTANCE);
+        assertNull(baker.obtainAsync(stages, 9, executor));
+        // 同样的请求不重复提交
+        assertNull(baker.obtainAsync(stages, 9, executor));
+        assertEquals(1, executor.tasks.size());
+        // 烘焙用的是提交时的参数
+        matrix.setSaturation(0.2f);
+        matrix.setSaturation(1.3f);
+        executor.runAll();
+        LookupTable table = baker.obtainAsync(stages, 9, executor);
+        assertNotNull(table);
+        assertSame(table, baker.obtain(stages, 9));
+        assertEquals(0, executor.tasks.size());
+    }
+
+    @Test
+    public void asyncBakeKeepsOnlyLatestQueuedRequest() {
+        ColorLutBaker baker = new ColorLutBaker();
+        ManualExecutor executor = new ManualExecutor();
+        ColorAdjustMatrix matrix = createAdjust();
+        List<ColorStage> stages = Arrays.<ColorStage>asList(matrix, CoolColorStage.INSTANCE);
+        assertNull(baker.obtainAsync(stages, 9, executor));
+        // 烘焙期间参数连续变化，只有最后一次排队
+        matrix.setContrast(1.2f);
+        assertNull(baker.obtainAsync(stages, 9, executor));
+        matrix.setContrast(1.3f);
+        assertNull(baker.obtainAsync(stages, 9, executor));
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(2, baker.size());
+        assertNotNull(baker.obtainAsync(stages, 9, executor));
+        matrix.setContrast(1.15f);
+        assertNotNull(baker.obtainAsync(stages, 9, executor));
+        matrix.setContrast(1.2f);
+        assertNull(baker.obtainAsync(stages, 9, executor));
+    }
+
+    @Test
+    public void clearDropsBakeInProgress() {
+        ColorLutBaker baker = new ColorLutBaker();
+        ManualExecutor executor = new ManualExecutor();
+        List<ColorStage> stages = Arrays.<ColorStage>asList(createAdjust());
+        assertNull(baker.obtainAsync(stages, 9, executor));
+        baker.clear();
+        executor.runAll();
+        assertEquals(0, baker.size());
+        // 之后的请求重新烘焙
+        assertNull(baker.obtainAsync(stages, 9, executor));
+        executor.runAll();
+        assertNotNull(baker.obtainAsync(stages, 9, executor));
+    }
+
+    @Test
+    public void hashDependsOnParametersOrderAndSize() {
+        ColorAdjustMatrix a = createAdjust();
+        ColorAdjustMatrix b = createAdjust();
+        List<ColorStage> first = Arrays.<ColorStage>asList(a, CoolColorStage.INSTANCE);
+        List<ColorStage> second = Arrays.<ColorStage>asList(b, CoolColorStage.INSTANCE);
+        assertEquals(ColorLutBaker.hash(first, 33), ColorLutBaker.hash(second, 33));
+        assertNotEquals(ColorLutBaker.hash(first, 33), ColorLutBaker.hash(first, 64));
+        b.setContrast(1.0f);
+        assertNotEquals(ColorLutBaker.hash(first, 33), ColorLutBaker.hash(second, 33));
+        assertNotEquals(ColorLutBaker.hash(first, 33),
+                ColorLutBaker.hash(Arrays.<ColorStage>asList(CoolColorStage.INSTANCE, a), 33));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTinyLut() {
+        ColorLutBaker.bake(createChain(), 1);
+    }
+}
@@ -0,0 +1,254 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * FilterChainPlanner 单元测试，枚举所有的跳过组合
+ */
+public class FilterChainPlannerTest {
+
+    private static class FakePass implements FilterChainPlanner.Pass {
+        final boolean noOp;
+
+        FakePass(boolean noOp) {
+            this.noOp = noOp;
+        }
+
+        @Override
+        public boolean isNoOp() {
+            return noOp;
+        }
+    }
+
+    private static final ColorStage INVERT = new ColorStage() {
+        @Override
+        public void apply(float[] rgba, int offset) {
+            for (int c = 0; c < 3; c++) {
+                rgba[offset + c] = 1.0f - rgba[offset + c];
+            }
+        }
+
+        @Override
+        public long getParameterHash() {
+            return 0;
+        }
+
+        @Override
+        public boolean hasSameParameters(ColorStage other) {
+            return other == this;
+        }
+
+        @Override
+        public ColorStage snapshot() {
+            return this;
+        }
+    };
+
+    private static class FakeColorPass extends FakePass implements FilterChainPlanner.BakeablePass {
+        FakeColorPass(boolean noOp) {
+            super(noOp);
+        }
+
+        @Override
+        public ColorStage getColorStage() {
+            return INVERT;
+        }
+    }
+
+    /**
+     * 第i位为1表示第i个pass是空操作
+     */
+    private static List<FakePass> createChain(int size, int noOpMask) {
+        List<FakePass> passes = new ArrayList<FakePass>();
+        for (int i = 0; i < size; i++) {
+            passes.add(new FakePass((noOpMask & (1 << i)) != 0));
+        }
+        return passes;
+    }
+
+    /**
+     * bakeableMask的第i位为1表示第i个pass可以烘焙
+     */
+    private static List<FakePass> createColorChain(int size, int noOpMask, int bakeableMask) {
+        List<FakePass> passes = new ArrayList<FakePass>();
+        for (int i = 0; i < size; i++) {
+            boolean noOp = (noOpMask & (1 << i)) != 0;
+            passes.add((bakeableMask & (1 << i)) != 0 ? new FakeColorPass(noOp) : new FakePass(noOp));
+        }
+        return passes;
+    }
+
+    private static List<Integer> livePasses(int size, int noOpMask) {
+        List<Integer> live = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            if ((noOpMask & (1 << i)) == 0) {
+                live.add(i);
+            }
+        }
+        return live;
+    }
+
+    private static List<Integer> plannedPasses(FilterChainPlanner planner) {
+        List<Integer> planned = new ArrayList<Integer>();
+        for (int i = 0; i < planner.getPassCount(); i++) {
+            planned.add(planner.getPassIndex(i));
+        }
+        return planned;
+    }
+
+    @Test
+    public void framebufferChainSkipsEveryNoOpCombination() {
+        FilterChainPlanner planner = new FilterChainPlanner();
+        for (int size = 0; size <= 6; size++) {
+            for (int mask = 0; mask < (1 << size); mask++) {
+                planner.plan(createChain(size, mask), false);
+                List<Integer> live = livePasses(size, mask);
+                assertEquals(live, plannedPasses(planner));
+                assertEquals(live.size(), planner.getFramebufferPassCount());
+                assertEquals(size - live.size(), planner.getSkippedCount());
+                for (int i = 0; i < planner.getPassCount(); i++) {
+                    assertFalse(planner.isOutputPass(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void outputChainDrawsLastLivePassToOutput() {
+        FilterChainPlanner planner = new FilterChainPlanner();
+        for (int size = 1; size <= 6; size++) {
+            for (int mask = 0; mask < (1 << size); mask++) {
+                planner.plan(createChain(size, mask), true);
+                List<Integer> expected = livePasses(size, mask);
+                if (expected.isEmpty()) {
+                    // 全部跳过时，最后一个pass做拷贝
+                    expected.add(size - 1);
+                }
+                assertEquals(expected, plannedPasses(planner));
+                int count = planner.getPassCount();
+                assertEquals(count - 1, planner.getFramebufferPassCount());
+                for (int i = 0; i < count; i++) {
+                    assertEquals(i == count - 1, planner.isOutputPass(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keepOnePassWhenAllSkipped() {
+        FilterChainPlanner planner = new FilterChainPlanner();
+        planner.plan(createChain(4, 0xF), false, true);
+        assertEquals(1, planner.getPassCount());
+        assertEquals(3, planner.getPassIndex(0));
+        assertEquals(1, planner.getFramebufferPassCount());
+        assertEquals(3, planner.getSkippedCount());
+
+        planner.plan(createChain(4, 0xB), false, true);
+        assertEquals(1, planner.getPassCount());
+        assertEquals(2, planner.getPassIndex(0));
+    }
+
+    @Test
+    public void defaultCameraSessionSkipsThreePasses() {
+        // 美颜程度为0、原图滤镜、没有瘦脸、没有贴纸
+        FilterChainPlanner planner = new FilterChainPlanner();
+        planner.plan(createChain(4, 0xF), false);
+        assertEquals(0, planner.getPassCount());
+        assertEquals(4, planner.getSkippedCount());
+
+        // 只开启美颜
+        planner.plan(createChain(4, 0xE), false);
+        assertEquals(1, planner.getPassCount());
+        assertEquals(3, planner.getSkippedCount());
+    }
+
+    @Test
+    public void emptyAndNullChains() {
+        FilterChainPlanner planner = new FilterChainPlanner();
+        planner.plan(null, true);
+        assertEquals(0, planner.getPassCount());
+        planner.plan(new ArrayList<FakePass>(), true);
+        assertEquals(0, planner.getPassCount());
+        assertEquals(0, planner.getFramebufferPassCount());
+    }
+
+    @Test
+    public void longChainGrowsPlan() {
+        FilterChainPlanner planner = new FilterChainPlanner();
+        planner.plan(createChain(20, 0x55555), false);
+        assertEquals(10, planner.getPassCount());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * 2 + 1, planner.getPassIndex(i));
+        }
+    }
+
+    @Test
+    public void mergedRunsCoverEveryLivePassInOrder() {
+        FilterChainPlanner planner = new FilterChainPlanner();
+        planner.setMergeColorRuns(true);
+        int size = 5;
+        for (int noOp = 0; noOp < (1 << size); noOp++) {
+            for (int bakeable = 0; bakeable < (1 << size); bakeable++) {
+                planner.plan(createColorChain(size, noOp, bakeable), false);
+                List<Integer> live = livePasses(size, noOp);
+                // 展开所有步骤后与不合并时的pass顺序相同
+                List<Integer> flattened = new ArrayList<Integer>();
+                int expectedSteps = 0;
+                for (int i = 0; i < planner.getPassCount(); i++) {
+                    int length = planner.getRunLength(i);
+                    assertEquals(planner.getPassIndex(i), planner.getRunPassIndex(i, 0));
+                    for (int j = 0; j < length; j++) {
+                        int index = planner.getRunPassIndex(i, j);
+                        flattened.add(index);
+                        if (length > 1) {
+                            assertTrue((bakeable & (1 << index)) != 0);
+                        }
+                    }
+                }
+                assertEquals(live, flattened);
+                // 可烘焙的连续pass必须合并成一步
+                for (int k = 0; k < live.size(); k++) {
+                    boolean colorPass = (bakeable & (1 << live.get(k))) != 0;
+                    boolean previousColor = k > 0 && (bakeable & (1 << live.get(k - 1))) != 0;
+                    if (!(colorPass && previousColor)) {
+                        expectedSteps++;
+                    }
+                }
+                assertEquals(expectedSteps, planner.getPassCount());
+                assertEquals(live.size() - expectedSteps, planner.getMergedCount());
+            }
+        }
+    }
+
+    @Test
+    public void mergingIsOffByDefault() {
+        FilterChainPlanner planner = new FilterChainPlanner();
+        planner.plan(createColorChain(3, 0, 0x7), true);
+        assertEquals(3, planner.getPassCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, planner.getRunLength(i));
+        }
+        assertEquals(0, planner.getMergedCount());
+
+        // 颜色调节 + 滤镜合并成一步，直接绘制到输出
+        planner.setMergeColorRuns(true);
+        planner.plan(createColorChain(4, 0, 0x6), true);
+        assertEquals(3, planner.getPassCount());
+        assertEquals(2, planner.getRunLength(1));
+        assertEquals(2, planner.getRunPassIndex(1, 1));
+        assertEquals(2, planner.getFramebufferPassCount());
+        assertTrue(planner.isOutputPass(2));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void passIndexOutOfPlanFails() {
+        FilterChainPlanner planner = new FilterChainPlanner();
+        planner.plan(createChain(3, 0x2), false);
+        planner.getPassIndex(2);
+    }
+}
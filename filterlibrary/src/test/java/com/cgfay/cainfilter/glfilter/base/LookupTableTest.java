@@ -0,0 +1,160 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * LookupTable 单元测试，三维查找表的三线性采样与二维查找图的shader算法比较
+ */
+public class LookupTableTest {
+
+    /**
+     * 生成二维查找图，每个格点的颜色由transform给出
+     */
+    private static int[] lookupImage(int size, Transform transform) {
+        int tiles = (int) Math.round(Math.sqrt(size));
+        int width = tiles * size;
+        int[] pixels = new int[width * width];
+        float[] color = new float[3];
+        for (int b = 0; b < size; b++) {
+            int left = (b % tiles) * size;
+            int top = (b / tiles) * size;
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    transform.apply(r / (size - 1.0f), g / (size - 1.0f), b / (size - 1.0f), color);
+                    pixels[(top + g) * width + left + r] = 0xff000000
+                            | toByte(color[0]) << 16 | toByte(color[1]) << 8 | toByte(color[2]);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static int toByte(float value) {
+        return Math.round(Math.max(0, Math.min(1, value)) * 255);
+    }
+
+    private interface Transform {
+        void apply(float r, float g, float b, float[] out);
+    }
+
+    private static final Transform IDENTITY = new Transform() {
+        @Override
+        public void apply(float r, float g, float b, float[] out) {
+            out[0] = r;
+            out[1] = g;
+            out[2] = b;
+        }
+    };
+
+    // 类似滤镜的非线性调色：暖色、提亮阴影、通道串扰
+    private static final Transform GRADE = new Transform() {
+        @Override
+        public void apply(float r, float g, float b, float[] out) {
+            out[0] = (float) Math.pow(r, 0.8) * 0.9f + 0.1f * g;
+            out[1] = (float) Math.sqrt(g) * 0.7f + 0.2f * b;
+            out[2] = b * b * 0.8f + 0.15f * r;
+        }
+    };
+
+    @Test
+    public void trilinearMatchesLookupImage() {
+        for (Transform transform : new Transform[] { IDENTITY, GRADE }) {
+            for (int size : new int[] { 16, 64 }) {
+                int width = (int) Math.round(Math.sqrt(size)) * size;
+                int[] pixels = lookupImage(size, transform);
+                LookupTable table = LookupTable.fromLookupImage(pixels, width, width);
+                assertEquals(size, table.getSize());
+                Random random = new Random(size);
+                float[] expected = new float[3];
+                float[] actual = new float[3];
+                double maxError = 0;
+                for (int i = 0; i < 20000; i++) {
+                    float r = random.nextFloat();
+                    float g = random.nextFloat();
+                    float b = random.nextFloat();
+                    LookupTable.sampleLookupImage(pixels, width, width, r, g, b, expected);
+                    table.sample(r, g, b, actual);
+                    for (int c = 0; c < 3; c++) {
+                        maxError = Math.max(maxError, Math.abs(expected[c] - actual[c]));
+                    }
+                }
+                // 两种方式对同样的格点做同样的三线性插值，只有浮点舍入误差
+                assertEquals(0, maxError, 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void gridPointsAreExact() {
+        int[] pixels = lookupImage(64, GRADE);
+        LookupTable table = LookupTable.fromLookupImage(pixels, 512, 512);
+        float[] expected = new float[3];
+        float[] actual = new float[3];
+        for (int b = 0; b < 64; b += 7) {
+            for (int g = 0; g < 64; g += 9) {
+                for (int r = 0; r < 64; r += 5) {
+                    GRADE.apply(r / 63f, g / 63f, b / 63f, expected);
+                    table.sample(r / 63f, g / 63f, b / 63f, actual);
+                    for (int c = 0; c < 3; c++) {
+                        assertEquals(toByte(expected[c]) / 255f, actual[c], 1e-5);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void identityLookupKeepsColors() {
+        int[] pixels = lookupImage(64, IDENTITY);
+        LookupTable table = LookupTable.fromLookupImage(pixels, 512, 512);
+        Random random = new Random(3);
+        float[] out = new float[3];
+        for (int i = 0; i < 1000; i++) {
+            float r = random.nextFloat();
+            float g = random.nextFloat();
+            float b = random.nextFloat();
+            table.sample(r, g, b, out);
+            assertEquals(r, out[0], 0.5 / 255 + 1e-5);
+            assertEquals(g, out[1], 0.5 / 255 + 1e-5);
+            assertEquals(b, out[2], 0.5 / 255 + 1e-5);
+        }
+    }
+
+    @Test
+    public void layoutAndTextureMapping() {
+        int[] pixels = lookupImage(64, GRADE);
+        LookupTable table = LookupTable.fromLookupImage(pixels, 512, 512);
+        assertEquals(64 * 64 * 64 * 3, table.getByteSize());
+        // 蓝色第9个小块位于第二行第二列，r变化最快
+        int pixel = pixels[(64 + 5) * 512 + 64 + 3];
+        int index = ((9 * 64 + 5) * 64 + 3) * 3;
+        byte[] data = table.getData();
+        assertEquals((pixel >> 16) & 0xff, data[index] & 0xff);
+        assertEquals((pixel >> 8) & 0xff, data[index + 1] & 0xff);
+        assertEquals(pixel & 0xff, data[index + 2] & 0xff);
+        // 0和1落在首尾格点的中心
+        assertEquals(0.5f / 64, table.getTextureOffset(), 0);
+        assertEquals(63.5f / 64, table.getTextureScale() + table.getTextureOffset(), 1e-6);
+    }
+
+    @Test
+    public void lutSizes() {
+        assertEquals(64, LookupTable.getLutSize(512, 512));
+        assertEquals(16, LookupTable.getLutSize(64, 64));
+        assertEquals(4, LookupTable.getLutSize(8, 8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonSquareImage() {
+        LookupTable.getLutSize(512, 256);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedSize() {
+        LookupTable.fromLookupImage(new int[256 * 256], 256, 256);
+    }
+}
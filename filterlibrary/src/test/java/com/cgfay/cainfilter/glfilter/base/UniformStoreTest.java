@@ -0,0 +1,403 @@
+package com.cgfay.cainfilter.glfilter.base;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * UniformStore 单元测试，包括与原来Runnable队列的内存分配对比
+ */
+public class UniformStoreTest {
+
+    /**
+     * 记录上传内容的假GL
+     */
+    private static class FakeUploader implements UniformStore.UniformUploader {
+        final List<String> calls = new ArrayList<String>();
+        final float[] lastMatrix = new float[16];
+        final float[] lastVec4 = new float[4];
+        boolean record = true;
+        int uploadCount;
+
+        /**
+         * 统计上传次数，返回是否需要记录调用内容
+         */
+        private boolean upload() {
+            uploadCount++;
+            return record;
+        }
+
+        @Override
+        public void uniform1i(int location, int value) {
+            if (upload()) {
+                calls.add("1i " + location + " " + value);
+            }
+        }
+
+        @Override
+        public void uniform1fv(int location, int count, float[] value, int offset) {
+            if (upload()) {
+                StringBuilder builder = new StringBuilder("1fv " + location);
+                for (int i = 0; i < count; i++) {
+                    builder.append(' ').append(value[offset + i]);
+                }
+                calls.add(builder.toString());
+            }
+        }
+
+        @Override
+        public void uniform2fv(int location, float[] value, int offset) {
+            if (upload()) {
+                calls.add("2fv " + location + " " + value[offset] + " " + value[offset + 1]);
+            }
+        }
+
+        @Override
+        public void uniform3fv(int location, float[] value, int offset) {
+            if (upload()) {
+                calls.add("3fv " + location);
+            }
+        }
+
+        @Override
+        public void uniform4fv(int location, float[] value, int offset) {
+            System.arraycopy(value, offset, lastVec4, 0, 4);
+            if (upload()) {
+                calls.add("4fv " + location + " " + value[offset + 3]);
+            }
+        }
+
+        @Override
+        public void uniformMatrix3fv(int location, float[] value, int offset) {
+            if (upload()) {
+                calls.add("m3 " + location);
+            }
+        }
+
+        @Override
+        public void uniformMatrix4fv(int location, float[] value, int offset) {
+            System.arraycopy(value, offset, lastMatrix, 0, 16);
+            if (upload()) {
+                calls.add("m4 " + location);
+            }
+        }
+    }
+
+    private UniformStore mStore;
+    private FakeUploader mUploader;
+
+    @Before
+    public void setUp() {
+        mStore = new UniformStore();
+        mUploader = new FakeUploader();
+    }
+
+    @Test
+    public void onlyDirtyUniformsAreUploaded() {
+        mStore.setFloat(1, 0.5f);
+        mStore.setInt(2, 7);
+        assertEquals(2, mStore.apply(mUploader, false));
+        assertEquals("1fv 1 0.5", mUploader.calls.get(0));
+        assertEquals("1i 2 7", mUploader.calls.get(1));
+
+        assertEquals(0, mStore.apply(mUploader, false));
+        assertFalse(mStore.hasPendingUniforms());
+
+        // 同一帧多次设置只上传最后一次的值
+        mStore.setFloat(1, 0.6f);
+        mStore.setFloat(1, 0.7f);
+        assertTrue(mStore.hasPendingUniforms());
+        mUploader.calls.clear();
+        assertEquals(1, mStore.apply(mUploader, false));
+        assertEquals("1fv 1 0.7", mUploader.calls.get(0));
+    }
+
+    @Test
+    public void uploadAllReplaysLatestValues() {
+        mStore.setFloat(3, 1.0f);
+        mStore.setFloatVec2(4, 0.25f, 0.75f);
+        mStore.setFloats(5, UniformStore.TYPE_VEC4, new float[] { 0, 0, 0, 2 });
+        mStore.apply(mUploader, false);
+        mUploader.calls.clear();
+
+        // program被其他滤镜使用过
+        assertEquals(3, mStore.apply(mUploader, true));
+        assertEquals("1fv 3 1.0", mUploader.calls.get(0));
+        assertEquals("2fv 4 0.25 0.75", mUploader.calls.get(1));
+        assertEquals("4fv 5 2.0", mUploader.calls.get(2));
+    }
+
+    @Test
+    public void valuesAreCopied() {
+        float[] matrix = new float[16];
+        matrix[0] = 1.0f;
+        mStore.setFloats(0, UniformStore.TYPE_MAT4, matrix);
+        matrix[0] = 2.0f;
+        mStore.apply(mUploader, false);
+        assertEquals(1.0f, mUploader.lastMatrix[0], 0.0f);
+    }
+
+    @Test
+    public void intValuesRoundTripExactly() {
+        int[] values = { 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 0x7fc00001 };
+        for (int value : values) {
+            mUploader.calls.clear();
+            mStore.setInt(9, value);
+            mStore.apply(mUploader, false);
+            assertEquals("1i 9 " + value, mUploader.calls.get(0));
+        }
+    }
+
+    @Test
+    public void floatArrayKeepsItsLength() {
+        mStore.setFloats(6, UniformStore.TYPE_FLOAT_ARRAY, new float[] { 1, 2, 3 });
+        mStore.apply(mUploader, false);
+        assertEquals("1fv 6 1.0 2.0 3.0", mUploader.calls.get(0));
+        try {
+            mStore.setFloats(6, UniformStore.TYPE_FLOAT_ARRAY, new float[] { 1, 2 });
+            fail();
+        } catch (IllegalArgumentException e) {
+            // 长度固定
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void changingTypeFails() {
+        mStore.setFloat(1, 0.5f);
+        mStore.setInt(1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortArrayFails() {
+        mStore.setFloats(1, UniformStore.TYPE_MAT4, new float[9]);
+    }
+
+    @Test
+    public void missingLocationsAreIgnored() {
+        mStore.setFloat(-1, 1.0f);
+        mStore.setFloats(-1, UniformStore.TYPE_MAT4, new float[16]);
+        assertEquals(0, mStore.getSlotCount());
+        assertEquals(0, mStore.apply(mUploader, true));
+    }
+
+    @Test
+    public void concurrentWritesNeverTear() throws Exception {
+        final int frames = 20000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] matrix = new float[16];
+                for (int n = 1; n <= frames; n++) {
+                    for (int i = 0; i < 16; i++) {
+                        matrix[i] = n;
+                    }
+                    mStore.setFloats(0, UniformStore.TYPE_MAT4, matrix);
+                }
+            }
+        });
+        mUploader.record = false;
+        writer.start();
+        while (writer.isAlive()) {
+            mStore.apply(mUploader, false);
+            assertUniform(mUploader.lastMatrix);
+        }
+        writer.join();
+        mStore.apply(mUploader, false);
+        assertUniform(mUploader.lastMatrix);
+        assertEquals(frames, mUploader.lastMatrix[0], 0.0f);
+    }
+
+    /**
+     * 多个写入线程同时写同一个mat4和vec4，每个线程写入自己的编号，
+     * GL线程上传的值不能混有两个线程的数据
+     */
+    @Test
+    public void concurrentWritersNeverMixVectors() throws Exception {
+        final int writers = 4;
+        final int frames = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            final float id = w + 1;
+            threads[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    float[] matrix = new float[16];
+                    float[] vector = new float[4];
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int n = 0; n < frames; n++) {
+                        float value = id * 100000 + n;
+                        for (int i = 0; i < 16; i++) {
+                            matrix[i] = value;
+                        }
+                        for (int i = 0; i < 4; i++) {
+                            vector[i] = value;
+                        }
+                        mStore.setFloats(0, UniformStore.TYPE_MAT4, matrix);
+                        mStore.setFloats(1, UniformStore.TYPE_VEC4, vector);
+                    }
+                }
+            });
+            threads[w].start();
+        }
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        mStore.apply(mUploader, false);
+                        assertUniform(mUploader.lastMatrix);
+                        assertUniform(mUploader.lastVec4);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        mUploader.record = false;
+        publisher.start();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        publisher.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        mStore.apply(mUploader, false);
+        assertUniform(mUploader.lastMatrix);
+        assertUniform(mUploader.lastVec4);
+        assertEquals(frames - 1, mUploader.lastMatrix[0] % 100000, 0.0f);
+    }
+
+    private static void assertUniform(float[] values) {
+        for (int i = 1; i < values.length; i++) {
+            assertEquals("torn uniform", values[0], values[i], 0.0f);
+        }
+    }
+
+    ///------------------ 内存分配对比 ------------------------///
+
+    /**
+     * 原来的实现：每次设置都创建Runnable并加入队列
+     */
+    private static class RunnableQueue {
+        final LinkedList<Runnable> runOnDraw = new LinkedList<Runnable>();
+        final FakeUploader uploader;
+
+        RunnableQueue(FakeUploader uploader) {
+            this.uploader = uploader;
+        }
+
+        void setFloat(final int location, final float value) {
+            runOnDraw(new Runnable() {
+                @Override
+                public void run() {
+                    uploader.uniform1fv(location, 1, new float[] { value }, 0);
+                }
+            });
+        }
+
+        void setUniformMatrix4f(final int location, final float[] matrix) {
+            runOnDraw(new Runnable() {
+                @Override
+                public void run() {
+                    uploader.uniformMatrix4fv(location, matrix, 0);
+                }
+            });
+        }
+
+        void runOnDraw(Runnable runnable) {
+            synchronized (runOnDraw) {
+                runOnDraw.addLast(runnable);
+            }
+        }
+
+        void runPendingOnDrawTasks() {
+            synchronized (runOnDraw) {
+                while (!runOnDraw.isEmpty()) {
+                    runOnDraw.removeFirst().run();
+                }
+            }
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+                return sunBean;
+            }
+        }
+        return null;
+    }
+
+    private long storeFrames(float[] matrix, int frames) {
+        for (int n = 0; n < frames; n++) {
+            matrix[0] = n;
+            mStore.setFloat(1, n);
+            mStore.setFloat(2, n * 0.5f);
+            mStore.setFloats(3, UniformStore.TYPE_MAT4, matrix);
+            mStore.apply(mUploader, false);
+        }
+        return mUploader.uploadCount;
+    }
+
+    private static long queueFrames(RunnableQueue queue, int frames) {
+        for (int n = 0; n < frames; n++) {
+            float[] matrix = new float[16];
+            matrix[0] = n;
+            queue.setFloat(1, n);
+            queue.setFloat(2, n * 0.5f);
+            queue.setUniformMatrix4f(3, matrix);
+            queue.runPendingOnDrawTasks();
+        }
+        return queue.uploader.uploadCount;
+    }
+
+    @Test
+    public void steadyStateUpdatesDoNotAllocate() {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        assumeTrue(bean != null);
+        long threadId = Thread.currentThread().getId();
+        final int frames = 10000;
+        mUploader.record = false;
+        float[] matrix = new float[16];
+
+        // 预热，第一次设置会分配槽位
+        storeFrames(matrix, frames);
+        long before = bean.getThreadAllocatedBytes(threadId);
+        storeFrames(matrix, frames);
+        long storeBytes = bean.getThreadAllocatedBytes(threadId) - before;
+
+        RunnableQueue queue = new RunnableQueue(new FakeUploader());
+        queue.uploader.record = false;
+        queueFrames(queue, frames);
+        before = bean.getThreadAllocatedBytes(threadId);
+        queueFrames(queue, frames);
+        long queueBytes = bean.getThreadAllocatedBytes(threadId) - before;
+
+        // 统计本身可能有少量的分配，每帧不超过1字节
+        assertTrue("store allocated " + storeBytes, storeBytes < frames);
+        assertTrue("queue allocated " + queueBytes, queueBytes > frames * 100L);
+    }
+}
@@ -0,0 +1,143 @@
+package com.cgfay.cainfilter.glfilter.beauty;
+
+import com.cgfay.cainfilter.utils.FloatImage;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * SkinSmoothReference 单元测试，在合成的皮肤图像上比较原始算法和可分离降采样算法
+ */
+public class SkinSmoothReferenceTest {
+
+    private static final int WIDTH = 240;
+    private static final int HEIGHT = 320;
+
+    /**
+     * 合成图像：缓慢变化的肤色 + 逐像素噪声(毛孔、斑点) + 深色的眼睛和一条清晰的边缘
+     */
+    private static FloatImage skin(long seed) {
+        Random random = new Random(seed);
+        FloatImage image = new FloatImage(WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                float shade = 0.8f + 0.15f * (float) Math.sin(x / 40.0) * (float) Math.cos(y / 55.0);
+                float noise = (float) random.nextGaussian() * 0.03f;
+                float r = 0.95f * shade + noise;
+                float g = 0.72f * shade + noise;
+                float b = 0.6f * shade + noise;
+                float ex = (x - 80) / 22.0f;
+                float ey = (y - 120) / 10.0f;
+                if (ex * ex + ey * ey < 1) {
+                    r = 0.2f;
+                    g = 0.15f;
+                    b = 0.12f;
+                }
+                if (y > 250) {
+                    r *= 0.45f;
+                    g *= 0.45f;
+                    b *= 0.45f;
+                }
+                image.set(x, y, clamp(r), clamp(g), clamp(b));
+            }
+        }
+        return image;
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    @Test
+    public void separableMatchesOriginalLook() {
+        FloatImage source = skin(7);
+        for (float level : new float[] { 0.3f, 0.6f, 1.0f }) {
+            float opacity = SkinSmoothKernel.getOpacity(level);
+            FloatImage original = SkinSmoothReference.applyOriginal(source, opacity, null);
+            FloatImage half = SkinSmoothReference.applySeparable(source, opacity,
+                    SkinSmoothKernel.DOWNSAMPLE_HALF, null);
+            FloatImage quarter = SkinSmoothReference.applySeparable(source, opacity,
+                    SkinSmoothKernel.DOWNSAMPLE_QUARTER, null);
+            double unchanged = original.psnr(source);
+            // 与原始输出的差异远小于磨皮本身带来的变化
+            assertTrue(original.psnr(half) > 44);
+            assertTrue(original.psnr(quarter) > 42);
+            assertTrue(original.psnr(half) > unchanged + 10);
+            assertTrue(original.ssim(half) > 0.98);
+            assertTrue(original.ssim(quarter) > 0.98);
+        }
+    }
+
+    @Test
+    public void zeroLevelLeavesImageUntouched() {
+        FloatImage source = skin(3);
+        float opacity = SkinSmoothKernel.getOpacity(0);
+        assertEquals(Double.POSITIVE_INFINITY,
+                SkinSmoothReference.applyOriginal(source, opacity, null).psnr(source), 0);
+        assertEquals(Double.POSITIVE_INFINITY, SkinSmoothReference.applySeparable(source, opacity,
+                SkinSmoothKernel.DOWNSAMPLE_QUARTER, null).psnr(source), 0);
+    }
+
+    @Test
+    public void smoothingReducesNoiseAndKeepsEdges() {
+        FloatImage source = skin(11);
+        float opacity = SkinSmoothKernel.getOpacity(1.0f);
+        FloatImage result = SkinSmoothReference.applySeparable(source, opacity,
+                SkinSmoothKernel.DOWNSAMPLE_HALF, null);
+        // 平坦区域的相邻像素差变小
+        assertTrue(roughness(result, 150, 40) < roughness(source, 150, 40) * 0.8);
+        // 边缘两侧的亮度差基本保持
+        float sourceEdge = source.get(120, 245, 1) - source.get(120, 256, 1);
+        float resultEdge = result.get(120, 245, 1) - result.get(120, 256, 1);
+        assertEquals(sourceEdge, resultEdge, 0.1);
+    }
+
+    /**
+     * 以(x, y)为左上角的32x32区域内相邻像素绿色通道差的平均值
+     */
+    private static double roughness(FloatImage image, int x, int y) {
+        double total = 0;
+        for (int j = y; j < y + 32; j++) {
+            for (int i = x; i < x + 32; i++) {
+                total += Math.abs(image.get(i + 1, j, 1) - image.get(i, j, 1));
+            }
+        }
+        return total / (32 * 32);
+    }
+
+    @Test
+    public void separableUsesFarFewerOperations() {
+        FloatImage source = skin(5);
+        float opacity = SkinSmoothKernel.getOpacity(0.6f);
+        SkinSmoothReference.OpCount original = new SkinSmoothReference.OpCount();
+        SkinSmoothReference.OpCount half = new SkinSmoothReference.OpCount();
+        SkinSmoothReference.OpCount quarter = new SkinSmoothReference.OpCount();
+        SkinSmoothReference.applyOriginal(source, opacity, original);
+        SkinSmoothReference.applySeparable(source, opacity, SkinSmoothKernel.DOWNSAMPLE_HALF, half);
+        SkinSmoothReference.applySeparable(source, opacity, SkinSmoothKernel.DOWNSAMPLE_QUARTER,
+                quarter);
+        assertEquals(22, original.getFetchesPerPixel(), 1e-9);
+        assertEquals(20, original.getWeightsPerPixel(), 1e-9);
+        // 每个小图像素: 缩小1次 + 水平9次 + 竖直9次，再加全分辨率合成2次
+        assertEquals(2 + 19 / 4.0, half.getFetchesPerPixel(), 1e-9);
+        assertEquals(2 + 22 / 16.0, quarter.getFetchesPerPixel(), 1e-9);
+        assertTrue(half.getFetchesPerPixel() * 3 < original.getFetchesPerPixel());
+        assertTrue(quarter.getWeightsPerPixel() * 10 < original.getWeightsPerPixel());
+    }
+
+    @Test
+    public void opacityMatchesBeautifyLevels() {
+        assertEquals(0, SkinSmoothKernel.getOpacity(0), 0);
+        assertEquals(0.99f, SkinSmoothKernel.getOpacity(1.0f), 1e-6);
+        assertEquals(0.99f, SkinSmoothKernel.getOpacity(2.0f), 1e-6);
+        assertEquals(0.74f, SkinSmoothKernel.getOpacity(0.5f), 1e-6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedDownsampleThrows() {
+        SkinSmoothReference.applySeparable(skin(1), 0.5f, 3, null);
+    }
+}
@@ -0,0 +1,292 @@
+package com.cgfay.cainfilter.glfilter.image;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColorAdjustMatrix 单元测试，合并后的单个pass与原来的逐个pass对比
+ */
+public class ColorAdjustMatrixTest {
+
+    // 中间结果的处理方式
+    private static final int STORE_NONE = 0;
+    // 截断到[0, 1]
+    private static final int STORE_CLAMP = 1;
+    // RGBA8的FBO，截断并量化
+    private static final int STORE_FRAMEBUFFER = 2;
+
+    // 各个滑杆的两端和中间值
+    private static final float[][] SLIDER_VALUES = {
+            { -1.0f, -0.5f, 0.0f, 0.5f, 1.0f },
+            { 0.0f, 0.5f, 1.0f, 2.0f, 4.0f },
+            { -10.0f, -2.0f, 0.0f, 2.0f, 10.0f },
+            { 0.0f, 90.0f, 180.0f, 270.0f, 359.0f },
+            { 0.0f, 0.5f, 1.0f, 1.5f, 2.0f },
+    };
+
+    /**
+     * 模拟原来的逐个pass
+     */
+    private static void sequential(float[] rgba, float brightness, float contrast, float exposure,
+                                   float hue, float saturation, int store) {
+        ColorAdjustMatrix.applyBrightness(rgba, 0, brightness);
+        store(rgba, store);
+        ColorAdjustMatrix.applyContrast(rgba, 0, contrast);
+        store(rgba, store);
+        ColorAdjustMatrix.applyExposure(rgba, 0, exposure);
+        store(rgba, store);
+        ColorAdjustMatrix.applyHue(rgba, 0, hue);
+        store(rgba, store);
+        ColorAdjustMatrix.applySaturation(rgba, 0, saturation);
+        store(rgba, store);
+    }
+
+    private static void store(float[] rgba, int store) {
+        if (store == STORE_NONE) {
+            return;
+        }
+        for (int i = 0; i < 4; i++) {
+            rgba[i] = Math.max(0.0f, Math.min(1.0f, rgba[i]));
+            if (store == STORE_FRAMEBUFFER) {
+                rgba[i] = Math.round(rgba[i] * 255.0f) / 255.0f;
+            }
+        }
+    }
+
+    /**
+     * 随机组合各个滑杆的取值，包括两端
+     */
+    private static float[] randomParams(Random random) {
+        float[] p = new float[SLIDER_VALUES.length];
+        for (int i = 0; i < p.length; i++) {
+            float[] values = SLIDER_VALUES[i];
+            if (random.nextBoolean()) {
+                p[i] = values[random.nextInt(values.length)];
+            } else {
+                float min = values[0];
+                float max = values[values.length - 1];
+                p[i] = min + random.nextFloat() * (max - min);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * 只用合并后的矩阵计算，没有中间的截断
+     */
+    private static float[] transform(ColorAdjustMatrix matrix, float[] pixel) {
+        float[] out = new float[4];
+        ColorAdjustMatrix.transform(matrix.getMatrix(), pixel, 0, out, 0);
+        return out;
+    }
+
+    private static float[] randomPixel(Random random) {
+        return new float[] {
+                random.nextInt(256) / 255.0f,
+                random.nextInt(256) / 255.0f,
+                random.nextInt(256) / 255.0f,
+                random.nextInt(256) / 255.0f,
+        };
+    }
+
+    @Test
+    public void defaultIsIdentity() {
+        ColorAdjustMatrix matrix = new ColorAdjustMatrix();
+        assertTrue(matrix.isIdentity());
+        float[] pixel = { 0.1f, 0.5f, 0.9f, 0.7f };
+        float[] out = new float[4];
+        matrix.evaluate(pixel, 0, out, 0);
+        assertArrayEquals(pixel, out, 0.0f);
+
+        matrix.setHue(360.0f);
+        assertTrue(matrix.isIdentity());
+        matrix.setSaturation(1.2f);
+        assertFalse(matrix.isIdentity());
+    }
+
+    @Test
+    public void singleStagesMatchShaderMath() {
+        Random random = new Random(1);
+        float[][] params = {
+                { 0.3f, 1, 0, 0, 1 },
+                { 0, 1.8f, 0, 0, 1 },
+                { 0, 1, -1.5f, 0, 1 },
+                { 0, 1, 0, 135, 1 },
+                { 0, 1, 0, 0, 0.2f },
+        };
+        for (float[] p : params) {
+            ColorAdjustMatrix matrix = createMatrix(p);
+            for (int n = 0; n < 200; n++) {
+                float[] expected = randomPixel(random);
+                float[] fused = transform(matrix, expected);
+                sequential(expected, p[0], p[1], p[2], p[3], p[4], STORE_NONE);
+                // 原来的色调pass即使在0度时，YIQ来回转换也有不到1e-3的误差
+                assertArrayEquals(expected, fused, 1e-3f);
+            }
+        }
+    }
+
+    @Test
+    public void composedMatrixMatchesSequentialMath() {
+        Random random = new Random(2);
+        for (int n = 0; n < 200; n++) {
+            float[] p = {
+                    random.nextFloat() - 0.5f,
+                    random.nextFloat() * 2,
+                    random.nextFloat() * 4 - 2,
+                    random.nextFloat() * 360,
+                    random.nextFloat() * 2,
+            };
+            ColorAdjustMatrix matrix = createMatrix(p);
+            float[] expected = randomPixel(random);
+            float[] fused = transform(matrix, expected);
+            sequential(expected, p[0], p[1], p[2], p[3], p[4], STORE_NONE);
+            assertArrayEquals(expected, fused, 1e-3f);
+        }
+    }
+
+    @Test
+    public void clampedEvaluationMatchesClampedPassesOverFullRange() {
+        // 全范围的输入和滑杆两端，中间结果会超出[0, 1]
+        Random random = new Random(4);
+        for (int n = 0; n < 2000; n++) {
+            float[] p = randomParams(random);
+            ColorAdjustMatrix matrix = createMatrix(p);
+            for (int k = 0; k < 10; k++) {
+                float[] expected = randomPixel(random);
+                float[] fused = new float[4];
+                matrix.evaluate(expected, 0, fused, 0);
+                sequential(expected, p[0], p[1], p[2], p[3], p[4], STORE_CLAMP);
+                assertArrayEquals(Arrays.toString(p), expected, fused, 1e-3f);
+            }
+        }
+    }
+
+    @Test
+    public void unclampedMatrixDiffersAtSliderExtremes() {
+        // 只用矩阵时，亮度加满再降低对比度会把截断掉的部分带回来
+        float[] p = { 1.0f, 0.5f, 0.0f, 0.0f, 1.0f };
+        ColorAdjustMatrix matrix = createMatrix(p);
+        float[] pixel = { 0.8f, 0.4f, 0.1f, 1.0f };
+        float[] expected = pixel.clone();
+        sequential(expected, p[0], p[1], p[2], p[3], p[4], STORE_CLAMP);
+        float[] fused = new float[4];
+        matrix.evaluate(pixel, 0, fused, 0);
+        assertArrayEquals(expected, fused, 1e-3f);
+        assertTrue(Math.abs(transform(matrix, pixel)[0] - expected[0]) > 0.1f);
+    }
+
+    @Test
+    public void fusedPassMatchesFramebufferPassesWithinTolerance() {
+        // 全范围的输入和滑杆两端，只差中间结果的8位量化误差
+        Random random = new Random(3);
+        for (int n = 0; n < 500; n++) {
+            float[] p = randomParams(random);
+            ColorAdjustMatrix matrix = createMatrix(p);
+            for (int k = 0; k < 10; k++) {
+                float[] pixel = randomPixel(random);
+                float[] expected = pixel.clone();
+                sequential(expected, p[0], p[1], p[2], p[3], p[4], STORE_FRAMEBUFFER);
+                float[] fused = new float[4];
+                matrix.evaluate(pixel, 0, fused, 0);
+                store(fused, STORE_FRAMEBUFFER);
+                assertArrayEquals(Arrays.toString(p), expected, fused, tolerance(matrix, p));
+            }
+        }
+    }
+
+    /**
+     * 逐个FBO pass时每一步有0.5级的量化误差，经过后面各步的增益放大，截断不会放大误差
+     * 再加上最后一次量化可能相差的1级和色调pass的浮点误差
+     */
+    private static float tolerance(ColorAdjustMatrix matrix, float[] p) {
+        float[] tone = new float[4];
+        float[] hue = new float[9];
+        float[] saturation = new float[9];
+        matrix.getShaderUniforms(tone, hue, saturation);
+        float saturationGain = norm(saturation);
+        float hueGain = norm(hue) * saturationGain;
+        float exposureGain = (float) Math.pow(2.0, p[2]) * hueGain;
+        float contrastGain = Math.abs(p[1]) * exposureGain;
+        float steps = contrastGain + exposureGain + hueGain + saturationGain + 1.0f;
+        return (0.5f * steps + 1.0f) / 255.0f + 1e-3f * saturationGain;
+    }
+
+    /**
+     * 按列存放的3x3矩阵的无穷范数
+     */
+    private static float norm(float[] columnMajor) {
+        float norm = 0;
+        for (int row = 0; row < 3; row++) {
+            float sum = 0;
+            for (int col = 0; col < 3; col++) {
+                sum += Math.abs(columnMajor[col * 3 + row]);
+            }
+            norm = Math.max(norm, sum);
+        }
+        return norm;
+    }
+
+    @Test
+    public void alphaIsPreserved() {
+        ColorAdjustMatrix matrix = createMatrix(new float[] { 0.2f, 1.5f, 1, 90, 0.5f });
+        float[] out = new float[4];
+        matrix.evaluate(new float[] { 0.3f, 0.6f, 0.9f, 0.25f }, 0, out, 0);
+        assertEquals(0.25f, out[3], 1e-6f);
+    }
+
+    @Test
+    public void shaderUniformsMatchEvaluation() {
+        Random random = new Random(5);
+        float[] tone = new float[4];
+        float[] hue = new float[9];
+        float[] saturation = new float[9];
+        for (int n = 0; n < 200; n++) {
+            ColorAdjustMatrix matrix = createMatrix(randomParams(random));
+            matrix.getShaderUniforms(tone, hue, saturation);
+            float[] pixel = randomPixel(random);
+            float[] expected = new float[4];
+            matrix.evaluate(pixel, 0, expected, 0);
+            // 与GLColorAdjustFilter的shader相同的计算，矩阵按列存放
+            float[] color = new float[3];
+            for (int c = 0; c < 3; c++) {
+                color[c] = clamp(pixel[c] * tone[0] + tone[1], tone[2], tone[3]);
+            }
+            color = multiplyClamped(hue, color);
+            color = multiplyClamped(saturation, color);
+            for (int c = 0; c < 3; c++) {
+                assertEquals(expected[c], color[c], 1e-6f);
+            }
+        }
+    }
+
+    private static float[] multiplyClamped(float[] columnMajor, float[] vector) {
+        float[] out = new float[3];
+        for (int row = 0; row < 3; row++) {
+            float value = 0;
+            for (int col = 0; col < 3; col++) {
+                value += columnMajor[col * 3 + row] * vector[col];
+            }
+            out[row] = clamp(value, 0.0f, 1.0f);
+        }
+        return out;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static ColorAdjustMatrix createMatrix(float[] p) {
+        ColorAdjustMatrix matrix = new ColorAdjustMatrix();
+        matrix.setBrightness(p[0]);
+        matrix.setContrast(p[1]);
+        matrix.setExposure(p[2]);
+        matrix.setHue(p[3]);
+        matrix.setSaturation(p[4]);
+        return matrix;
+    }
+}
@@ -0,0 +1,136 @@
+package com.cgfay.cainfilter.glfilter.image;
+
+import com.cgfay.cainfilter.utils.FloatImage;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * KawaseBlurPlan 和 KawaseBlurReference 单元测试，与真正的高斯模糊比较画面和计算量
+ */
+public class KawaseBlurTest {
+
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 256;
+
+    /**
+     * 合成图像：渐变背景 + 随机色块 + 逐像素噪声
+     */
+    static FloatImage scene(long seed) {
+        Random random = new Random(seed);
+        FloatImage image = new FloatImage(WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                float base = 0.3f + 0.4f * x / WIDTH;
+                image.set(x, y, base, 0.5f * y / HEIGHT + 0.2f, 0.6f - 0.3f * base);
+            }
+        }
+        for (int i = 0; i < 24; i++) {
+            int left = random.nextInt(WIDTH);
+            int top = random.nextInt(HEIGHT);
+            int size = 8 + random.nextInt(48);
+            float r = random.nextFloat();
+            float g = random.nextFloat();
+            float b = random.nextFloat();
+            for (int y = top; y < Math.min(HEIGHT, top + size); y++) {
+                for (int x = left; x < Math.min(WIDTH, left + size); x++) {
+                    image.set(x, y, r, g, b);
+                }
+            }
+        }
+        float[] data = image.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Math.max(0, Math.min(1, data[i] + (float) random.nextGaussian() * 0.05f));
+        }
+        return image;
+    }
+
+    @Test
+    public void planMatchesRequestedRadius() {
+        for (float radius = 0.1f; radius < KawaseBlurPlan.getMaxRadius(); radius *= 1.07f) {
+            KawaseBlurPlan plan = KawaseBlurPlan.forRadius(radius);
+            assertTrue(plan.toString(), plan.getLevels() >= 1);
+            assertTrue(plan.getLevels() <= KawaseBlurPlan.MAX_LEVELS);
+            assertTrue(plan.getOffset() >= KawaseBlurPlan.MIN_OFFSET);
+            assertTrue(plan.getOffset() <= KawaseBlurPlan.MAX_OFFSET);
+            double variance = KawaseBlurPlan.variance(plan.getLevels(), plan.getOffset())
+                    * plan.getMix();
+            assertEquals(plan.toString(), radius, Math.sqrt(variance), radius * 1e-4);
+            assertEquals(radius, plan.getRadius(), 0);
+        }
+    }
+
+    @Test
+    public void planIsMonotonicAndClamped() {
+        double previous = 0;
+        for (float radius = 0.05f; radius < 200; radius += 0.05f) {
+            KawaseBlurPlan plan = KawaseBlurPlan.forRadius(radius);
+            double effective = Math.sqrt(KawaseBlurPlan.variance(plan.getLevels(),
+                    plan.getOffset()) * plan.getMix());
+            assertTrue(effective >= previous - 1e-4);
+            previous = effective;
+        }
+        KawaseBlurPlan largest = KawaseBlurPlan.forRadius(10000);
+        assertEquals(KawaseBlurPlan.MAX_LEVELS, largest.getLevels());
+        assertEquals(KawaseBlurPlan.getMaxRadius(), largest.getRadius(), 1e-3);
+    }
+
+    @Test
+    public void zeroAndSmallRadius() {
+        KawaseBlurPlan none = KawaseBlurPlan.forRadius(0);
+        assertEquals(0, none.getLevels());
+        assertEquals(0, none.getPassCount());
+        assertEquals(0, KawaseBlurPlan.forRadius(-1).getLevels());
+        assertEquals(0, KawaseBlurPlan.forRadius(Float.NaN).getLevels());
+        FloatImage source = scene(1);
+        assertEquals(Double.POSITIVE_INFINITY,
+                KawaseBlurReference.blur(source, none).psnr(source), 0);
+        // 半径很小时一级模糊与原图混合
+        KawaseBlurPlan small = KawaseBlurPlan.forRadius(0.5f);
+        assertEquals(1, small.getLevels());
+        assertTrue(small.getMix() > 0 && small.getMix() < 1);
+        assertTrue(KawaseBlurReference.blur(source, small).psnr(source) > 25);
+    }
+
+    @Test
+    public void matchesGaussian() {
+        FloatImage source = scene(7);
+        for (float radius : new float[] { 1, 2, 4, 8, 16, 32 }) {
+            KawaseBlurPlan plan = KawaseBlurPlan.forRadius(radius);
+            FloatImage kawase = KawaseBlurReference.blur(source, plan);
+            FloatImage gaussian = KawaseBlurReference.gaussian(source, radius);
+            double psnr = gaussian.psnr(kawase);
+            double unchanged = gaussian.psnr(source);
+            if (radius < 2) {
+                // 与原图混合的小半径只保证比不模糊更接近高斯
+                assertTrue(psnr > unchanged + 5);
+                continue;
+            }
+            assertTrue(psnr > 30);
+            // 误差远小于模糊本身带来的变化
+            assertTrue(psnr > unchanged + 15);
+        }
+    }
+
+    @Test
+    public void costIsIndependentOfRadius() {
+        for (float radius : new float[] { 2, 4, 8, 16, 32 }) {
+            // 级数再多，每个像素的采样次数也不超过 (5 / 4 + 8) * 4 / 3 再加混合的一次
+            assertTrue(KawaseBlurPlan.forRadius(radius).getFetchesPerPixel() < 13.4);
+        }
+        assertTrue(KawaseBlurReference.getGaussianFetchesPerPixel(32)
+                > KawaseBlurPlan.forRadius(32).getFetchesPerPixel() * 20);
+    }
+
+    @Test
+    public void levelSizes() {
+        assertEquals(720, KawaseBlurPlan.getLevelSize(720, 0));
+        assertEquals(360, KawaseBlurPlan.getLevelSize(720, 1));
+        assertEquals(45, KawaseBlurPlan.getLevelSize(720, 4));
+        assertEquals(23, KawaseBlurPlan.getLevelSize(720, 5));
+        assertEquals(1, KawaseBlurPlan.getLevelSize(3, 7));
+    }
+}
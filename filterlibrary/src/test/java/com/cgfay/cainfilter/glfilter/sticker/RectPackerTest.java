@@ -0,0 +1,137 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * RectPacker 单元测试
+ */
+public class RectPackerTest {
+
+    /**
+     * 检查矩形在装箱内部，两两之间至少相隔padding
+     */
+    private static void assertValid(RectPacker packer, List<RectPacker.Rect> rects, int padding) {
+        for (RectPacker.Rect rect : rects) {
+            assertTrue(rect.toString(), rect.x >= 0 && rect.y >= 0);
+            assertTrue(rect.toString(), rect.x + rect.width <= packer.getWidth());
+            assertTrue(rect.toString(), rect.y + rect.height <= packer.getHeight());
+        }
+        for (int i = 0; i < rects.size(); i++) {
+            RectPacker.Rect a = rects.get(i);
+            for (int j = i + 1; j < rects.size(); j++) {
+                RectPacker.Rect b = rects.get(j);
+                boolean separated = a.x + a.width + padding <= b.x
+                        || b.x + b.width + padding <= a.x
+                        || a.y + a.height + padding <= b.y
+                        || b.y + b.height + padding <= a.y;
+                assertTrue(a + " overlaps " + b, separated);
+            }
+        }
+    }
+
+    @Test
+    public void uniformFramesFillTheBinExactly() {
+        RectPacker packer = new RectPacker(256, 256, 0);
+        List<RectPacker.Rect> rects = new ArrayList<RectPacker.Rect>();
+        for (int i = 0; i < 16; i++) {
+            RectPacker.Rect rect = packer.insert(64, 64);
+            assertNotNull(rect);
+            rects.add(rect);
+        }
+        assertValid(packer, rects, 0);
+        assertNull(packer.insert(1, 1));
+        assertEquals(256, packer.getUsedHeight());
+        assertEquals(1.0f, packer.getOccupancy(), 1e-6);
+    }
+
+    @Test
+    public void paddingIsKeptBetweenRectsButNotAtEdges() {
+        // 4个62像素的矩形加上3个2像素的间隔正好是254
+        RectPacker packer = new RectPacker(254, 254, 2);
+        List<RectPacker.Rect> rects = new ArrayList<RectPacker.Rect>();
+        for (int i = 0; i < 16; i++) {
+            RectPacker.Rect rect = packer.insert(62, 62);
+            assertNotNull("rect " + i, rect);
+            rects.add(rect);
+        }
+        assertValid(packer, rects, 2);
+        assertEquals(254, packer.getUsedHeight());
+    }
+
+    @Test
+    public void randomRectsDoNotOverlap() {
+        Random random = new Random(11);
+        for (int padding = 0; padding <= 2; padding++) {
+            RectPacker packer = new RectPacker(512, 512, padding);
+            List<RectPacker.Rect> rects = new ArrayList<RectPacker.Rect>();
+            for (int i = 0; i < 200; i++) {
+                RectPacker.Rect rect = packer.insert(8 + random.nextInt(60), 8 + random.nextInt(60));
+                if (rect != null) {
+                    rects.add(rect);
+                }
+            }
+            assertTrue(rects.size() > 50);
+            assertValid(packer, rects, padding);
+        }
+    }
+
+    @Test
+    public void rejectsRectsLargerThanTheBin() {
+        RectPacker packer = new RectPacker(128, 64, 0);
+        assertNull(packer.insert(129, 10));
+        assertNull(packer.insert(10, 65));
+        assertNotNull(packer.insert(128, 64));
+        assertNull(packer.insert(1, 1));
+        packer.reset();
+        assertNotNull(packer.insert(1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRect() {
+        new RectPacker(64, 64, 0).insert(0, 10);
+    }
+
+    /**
+     * 装箱效率：贴纸帧一般尺寸相同或相近，随机尺寸作为最差情况
+     */
+    @Test
+    public void packingEfficiency() {
+        Random random = new Random(5);
+        int[][] cases = {
+                // 帧数, 最小边长, 最大边长
+                { 24, 180, 180 },
+                { 24, 150, 200 },
+                { 200, 16, 128 },
+        };
+        String[] names = { "uniform 180x180", "similar 150~200", "random 16~128" };
+        // 按插入顺序装箱，1024的宽度排不满整数列，StickerFrameAtlas会排序并选择页宽
+        float[] minimum = { 0.8f, 0.65f, 0.75f };
+        for (int c = 0; c < cases.length; c++) {
+            RectPacker packer = new RectPacker(1024, 2048, 2);
+            int count = cases[c][0];
+            int min = cases[c][1];
+            int range = cases[c][2] - min + 1;
+            int[] widths = new int[count];
+            int[] heights = new int[count];
+            for (int i = 0; i < count; i++) {
+                widths[i] = min + random.nextInt(range);
+                heights[i] = min + random.nextInt(range);
+            }
+            int packed = 0;
+            for (int i = 0; i < count; i++) {
+                if (packer.insert(widths[i], heights[i]) != null) {
+                    packed++;
+                }
+            }
+            assertEquals(count, packed);
+            assertTrue(names[c] + " occupancy " + packer.getOccupancy(),
+                    packer.getOccupancy() > minimum[c]);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * StickerAnimator 单元测试，时间戳按可变帧率生成
+ */
+public class StickerAnimatorTest {
+
+    private static final long MS = 1000000L;
+    // 模拟SurfaceTexture的时间戳，不从0开始
+    private static final long BASE = 987654321000L;
+
+    /**
+     * 按帧率生成时间戳，带抖动和丢帧
+     * @param fps 帧率
+     * @param jitter 每帧的最大抖动(ms)
+     * @param dropRate 丢帧的概率
+     * @param duration 总时长(ms)
+     */
+    private static List<Long> timestamps(Random random, int fps, int jitter, float dropRate,
+                                         long duration) {
+        List<Long> result = new ArrayList<Long>();
+        long interval = 1000 * MS / fps;
+        for (long time = 0; time < duration * MS; time += interval) {
+            if (random.nextFloat() < dropRate) {
+                continue;
+            }
+            long offset = jitter > 0 ? (random.nextInt(jitter * 2 + 1) - jitter) * MS : 0;
+            result.add(BASE + Math.max(0, time + offset));
+        }
+        return result;
+    }
+
+    private static int[] prefetch(StickerAnimator animator) {
+        int[] frames = new int[StickerAnimator.DEFAULT_PREFETCH_FRAMES];
+        int count = animator.getPrefetchFrames(frames);
+        int[] result = new int[count];
+        System.arraycopy(frames, 0, result, 0, count);
+        return result;
+    }
+
+    @Test
+    public void frameIndexDependsOnTimestampNotFrameRate() {
+        Random random = new Random(21);
+        int[] rates = { 15, 24, 30, 60 };
+        for (int fps : rates) {
+            StickerAnimator animator = new StickerAnimator(new StickerFrameTimeline(12, 40, true));
+            List<Long> sequence = timestamps(random, fps, 4, 0.1f, 3000);
+            long start = sequence.get(0);
+            for (long timestamp : sequence) {
+                int expected = (int) ((timestamp - start) / MS / 40 % 12);
+                assertEquals(fps + " fps at " + (timestamp - start) / MS + " ms",
+                        expected, animator.update(timestamp, StickerAnimator.ACTION_NONE));
+            }
+            assertEquals(StickerAnimator.STATE_PLAYING, animator.getState());
+        }
+    }
+
+    @Test
+    public void discontinuousTimestampsResumeFromTheCurrentFrame() {
+        StickerAnimator animator = new StickerAnimator(new StickerFrameTimeline(12, 40, true));
+        assertEquals(0, animator.update(BASE, 0));
+        assertEquals(2, animator.update(BASE + 100 * MS, 0));
+        // 时间戳回退，例如切换相机
+        assertEquals(2, animator.update(BASE - 5000 * MS, 0));
+        assertEquals(3, animator.update(BASE - 4960 * MS, 0));
+        // 暂停预览之后的长间隔
+        assertEquals(3, animator.update(BASE + 60000 * MS, 0));
+        assertEquals(4, animator.update(BASE + 60040 * MS, 0));
+    }
+
+    @Test
+    public void oneShotHoldsTheLastFrame() {
+        StickerAnimator animator = new StickerAnimator(new StickerFrameTimeline(5, 100, false));
+        assertEquals(0, animator.update(BASE, 0));
+        assertEquals(4, animator.update(BASE + 499 * MS, 0));
+        assertEquals(4, animator.update(BASE + 500 * MS, 0));
+        assertEquals(StickerAnimator.STATE_FINISHED, animator.getState());
+        assertEquals(4, animator.update(BASE + 10000 * MS, StickerAnimator.ACTION_MOUTH_OPEN));
+        assertEquals(0, prefetch(animator).length);
+    }
+
+    @Test
+    public void mouthOpenTriggersOneShot() {
+        StickerAnimator animator = new StickerAnimator(new StickerFrameTimeline(5, 100, false),
+                StickerAnimator.ACTION_MOUTH_OPEN, StickerAnimator.DEFAULT_PREFETCH_FRAMES);
+        assertEquals(-1, animator.update(BASE, 0));
+        // 其他动作不触发
+        assertEquals(-1, animator.update(BASE + 33 * MS, StickerAnimator.ACTION_EYE_BLINK));
+        assertEquals(StickerAnimator.STATE_WAITING, animator.getState());
+        // 张嘴开始播放，从触发的时刻计时
+        long trigger = BASE + 66 * MS;
+        int open = StickerAnimator.ACTION_MOUTH_OPEN | StickerAnimator.ACTION_EYE_BLINK;
+        assertEquals(0, animator.update(trigger, open));
+        // 播放期间闭嘴不影响
+        assertEquals(2, animator.update(trigger + 250 * MS, 0));
+        assertEquals(3, animator.update(trigger + 350 * MS, StickerAnimator.ACTION_MOUTH_OPEN));
+        // 播完之后隐藏，嘴一直张着不会重新开始
+        assertEquals(-1, animator.update(trigger + 500 * MS, StickerAnimator.ACTION_MOUTH_OPEN));
+        assertEquals(-1, animator.update(trigger + 600 * MS, StickerAnimator.ACTION_MOUTH_OPEN));
+        assertEquals(-1, animator.update(trigger + 700 * MS, 0));
+        // 再次张嘴
+        assertEquals(0, animator.update(trigger + 800 * MS, StickerAnimator.ACTION_MOUTH_OPEN));
+        assertEquals(1, animator.update(trigger + 900 * MS, StickerAnimator.ACTION_MOUTH_OPEN));
+    }
+
+    @Test
+    public void loopingTriggerPlaysWhileHeldAndFinishesTheLoop() {
+        StickerAnimator animator = new StickerAnimator(new StickerFrameTimeline(4, 50, true),
+                StickerAnimator.ACTION_EYE_BLINK, StickerAnimator.DEFAULT_PREFETCH_FRAMES);
+        int blink = StickerAnimator.ACTION_EYE_BLINK;
+        assertEquals(0, animator.update(BASE, blink));
+        // 一遍200ms，保持期间循环
+        assertEquals(1, animator.update(BASE + 250 * MS, blink));
+        // 动作结束后播完第二遍
+        assertEquals(2, animator.update(BASE + 300 * MS, 0));
+        assertEquals(3, animator.update(BASE + 399 * MS, 0));
+        assertEquals(-1, animator.update(BASE + 400 * MS, 0));
+        assertEquals(StickerAnimator.STATE_WAITING, animator.getState());
+
+        // 在一遍结束之前再次眨眼，继续循环
+        long start = BASE + 1000 * MS;
+        assertEquals(0, animator.update(start, blink));
+        assertEquals(2, animator.update(start + 100 * MS, 0));
+        assertEquals(3, animator.update(start + 150 * MS, blink));
+        assertEquals(0, animator.update(start + 200 * MS, blink));
+        assertEquals(1, animator.update(start + 250 * MS, blink));
+    }
+
+    @Test
+    public void prefetchWindowFollowsPlayOrder() {
+        StickerAnimator looping = new StickerAnimator(new StickerFrameTimeline(12, 40, true));
+        // 开始之前预取开头的几帧
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, prefetch(looping));
+        assertEquals(0, looping.update(BASE + 400 * MS, 0));
+        assertEquals(5, looping.update(BASE + 600 * MS, 0));
+        assertEquals(10, looping.update(BASE + 800 * MS, 0));
+        assertArrayEquals(new int[] { 11, 0, 1, 2 }, prefetch(looping));
+
+        // 不循环的动画不回到开头
+        StickerAnimator oneShot = new StickerAnimator(new StickerFrameTimeline(12, 40, false));
+        oneShot.update(BASE, 0);
+        assertEquals(10, oneShot.update(BASE + 400 * MS, 0));
+        assertArrayEquals(new int[] { 11 }, prefetch(oneShot));
+
+        // 有触发动作的动画播完之后从头开始
+        StickerAnimator triggered = new StickerAnimator(new StickerFrameTimeline(12, 40, false),
+                StickerAnimator.ACTION_MOUTH_OPEN, 2);
+        assertArrayEquals(new int[] { 0, 1 }, prefetch(triggered));
+        triggered.update(BASE, StickerAnimator.ACTION_MOUTH_OPEN);
+        assertEquals(11, triggered.update(BASE + 440 * MS, 0));
+        assertArrayEquals(new int[] { 0, 1 }, prefetch(triggered));
+
+        // 输出数组比预取帧数短
+        int[] frames = new int[2];
+        assertEquals(2, looping.getPrefetchFrames(frames));
+        assertArrayEquals(new int[] { 11, 0 }, frames);
+    }
+
+    /**
+     * 低帧率时每次渲染会跳过几帧，渲染间隔不超过预取窗口的时长时，
+     * 下一次显示的帧都应该已经在上一次的预取窗口里，丢帧造成的长间隔不检查
+     */
+    @Test
+    public void prefetchWindowCoversVariableFrameRate() {
+        Random random = new Random(7);
+        int[] rates = { 15, 30, 60 };
+        long frameDuration = 33;
+        long windowDuration = frameDuration * StickerAnimator.DEFAULT_PREFETCH_FRAMES * MS;
+        for (int fps : rates) {
+            StickerAnimator animator = new StickerAnimator(
+                    new StickerFrameTimeline(24, frameDuration, true));
+            int[] window = null;
+            long last = 0;
+            int changes = 0;
+            int hits = 0;
+            for (long timestamp : timestamps(random, fps, 5, 0.05f, 5000)) {
+                int previous = animator.getFrameIndex();
+                int frame = animator.update(timestamp, 0);
+                if (window != null && frame != previous && timestamp - last <= windowDuration) {
+                    boolean prefetched = false;
+                    for (int candidate : window) {
+                        prefetched |= candidate == frame;
+                    }
+                    changes++;
+                    hits += prefetched ? 1 : 0;
+                }
+                window = prefetch(animator);
+                last = timestamp;
+            }
+            assertTrue(changes > 0);
+            assertEquals(fps + " fps", changes, hits);
+        }
+    }
+
+    @Test
+    public void resetRestartsOnTheNextUpdate() {
+        StickerAnimator animator = new StickerAnimator(new StickerFrameTimeline(12, 40, true));
+        animator.update(BASE, 0);
+        assertEquals(5, animator.update(BASE + 200 * MS, 0));
+        animator.reset();
+        assertEquals(-1, animator.getFrameIndex());
+        assertEquals(0, animator.update(BASE + 5000 * MS, 0));
+    }
+
+    @Test
+    public void timelineFromDeclaredDuration() {
+        StickerFrameTimeline timeline = StickerFrameTimeline.withDuration(12, 1000, false);
+        assertEquals(83, timeline.getFrameDuration());
+        assertEquals(11, timeline.getFrameIndex(999));
+        assertEquals(1, StickerFrameTimeline.withDuration(60, 30, true).getFrameDuration());
+    }
+}
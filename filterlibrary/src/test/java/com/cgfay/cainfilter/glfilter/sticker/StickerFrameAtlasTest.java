@@ -0,0 +1,192 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * StickerFrameAtlas、StickerFrameTimeline 单元测试
+ */
+public class StickerFrameAtlasTest {
+
+    private static int[] repeat(int value, int count) {
+        int[] values = new int[count];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    /**
+     * 检查同一页的帧不重叠，并且都在页内
+     */
+    private static void assertValid(StickerFrameAtlas atlas) {
+        for (int i = 0; i < atlas.getFrameCount(); i++) {
+            RectPacker.Rect a = atlas.getFrameRect(i);
+            int page = atlas.getFramePage(i);
+            assertTrue(a.x + a.width <= atlas.getPageWidth(page));
+            assertTrue(a.y + a.height <= atlas.getPageHeight(page));
+            for (int j = i + 1; j < atlas.getFrameCount(); j++) {
+                if (atlas.getFramePage(j) != page) {
+                    continue;
+                }
+                RectPacker.Rect b = atlas.getFrameRect(j);
+                assertTrue(a + " overlaps " + b, a.x + a.width <= b.x || b.x + b.width <= a.x
+                        || a.y + a.height <= b.y || b.y + b.height <= a.y);
+            }
+        }
+    }
+
+    @Test
+    public void stickerFramesFitOnePage() {
+        // 与内置贴纸相同，12帧
+        StickerFrameAtlas atlas = StickerFrameAtlas.create(repeat(200, 12), repeat(160, 12));
+        assertNotNull(atlas);
+        assertEquals(1, atlas.getPageCount());
+        assertEquals(1, atlas.getSampleSize());
+        assertValid(atlas);
+        assertTrue(atlas.getOccupancy() > 0.7f);
+        assertEquals(atlas.getByteSize(), (long) atlas.getPageWidth(0) * atlas.getPageHeight(0) * 4);
+    }
+
+    /**
+     * 一个贴纸的所有部位共用一个图集，按部位依次编号
+     */
+    @Test
+    public void sharedStickerPartsFitOnePage() {
+        // 头、耳朵、脸、鼻子、胡子各12帧，尺寸不同
+        int[][] sizes = { { 256, 200 }, { 300, 120 }, { 240, 240 }, { 96, 80 }, { 200, 100 } };
+        int frames = 12;
+        int[] widths = new int[sizes.length * frames];
+        int[] heights = new int[widths.length];
+        for (int part = 0; part < sizes.length; part++) {
+            Arrays.fill(widths, part * frames, (part + 1) * frames, sizes[part][0]);
+            Arrays.fill(heights, part * frames, (part + 1) * frames, sizes[part][1]);
+        }
+        StickerFrameAtlas atlas = StickerFrameAtlas.create(widths, heights);
+        assertNotNull(atlas);
+        // 只有一页，所有部位使用同一个纹理
+        assertEquals(1, atlas.getPageCount());
+        assertEquals(1, atlas.getSampleSize());
+        assertValid(atlas);
+        for (int part = 0; part < sizes.length; part++) {
+            RectPacker.Rect rect = atlas.getFrameRect(part * frames);
+            assertEquals(sizes[part][0], rect.width);
+            assertEquals(sizes[part][1], rect.height);
+        }
+    }
+
+    /**
+     * 与RectPackerTest相同的几组帧，按高度排序并选择页宽之后的利用率
+     */
+    @Test
+    public void atlasPackingEfficiency() {
+        Random random = new Random(5);
+        int[][] cases = {
+                { 24, 180, 180 },
+                { 24, 150, 200 },
+                { 200, 16, 128 },
+        };
+        String[] names = { "uniform 180x180", "similar 150~200", "random 16~128" };
+        float[] minimum = { 0.95f, 0.8f, 0.85f };
+        for (int c = 0; c < cases.length; c++) {
+            int count = cases[c][0];
+            int min = cases[c][1];
+            int range = cases[c][2] - min + 1;
+            int[] widths = new int[count];
+            int[] heights = new int[count];
+            for (int i = 0; i < count; i++) {
+                widths[i] = min + random.nextInt(range);
+                heights[i] = min + random.nextInt(range);
+            }
+            StickerFrameAtlas atlas = StickerFrameAtlas.create(widths, heights);
+            assertNotNull(atlas);
+            assertValid(atlas);
+            assertTrue(names[c] + " occupancy " + atlas.getOccupancy(),
+                    atlas.getOccupancy() > minimum[c]);
+        }
+    }
+
+    @Test
+    public void textureCoordsSelectTheFrameRect() {
+        StickerFrameAtlas atlas = StickerFrameAtlas.create(new int[] { 100, 50, 30 },
+                new int[] { 80, 60, 20 });
+        float[] coords = new float[10];
+        for (int i = 0; i < atlas.getFrameCount(); i++) {
+            atlas.getTextureCoords(i, coords, 2);
+            RectPacker.Rect rect = atlas.getFrameRect(i);
+            float width = atlas.getPageWidth(atlas.getFramePage(i));
+            float height = atlas.getPageHeight(atlas.getFramePage(i));
+            // 左下、右下、左上、右上，第0行对应t = 0
+            assertEquals(rect.x / width, coords[2], 1e-6);
+            assertEquals((rect.y + rect.height) / height, coords[3], 1e-6);
+            assertEquals((rect.x + rect.width) / width, coords[4], 1e-6);
+            assertEquals(coords[3], coords[5], 0);
+            assertEquals(coords[2], coords[6], 0);
+            assertEquals(rect.y / height, coords[7], 1e-6);
+            assertEquals(coords[4], coords[8], 0);
+            assertEquals(coords[7], coords[9], 0);
+            assertEquals(Math.round(coords[4] * width - coords[2] * width), rect.width);
+        }
+    }
+
+    @Test
+    public void largeAnimationsSpillOntoMorePages() {
+        StickerFrameAtlas atlas = StickerFrameAtlas.create(repeat(300, 40), repeat(300, 40),
+                1024, 2, Long.MAX_VALUE);
+        assertNotNull(atlas);
+        // 每页最多3x3帧
+        assertEquals(5, atlas.getPageCount());
+        assertValid(atlas);
+        for (int page = 0; page < atlas.getPageCount(); page++) {
+            assertTrue(atlas.getPageWidth(page) <= 1024);
+            assertTrue(atlas.getPageHeight(page) <= 1024);
+        }
+    }
+
+    @Test
+    public void budgetDownsamplesFrames() {
+        int[] widths = repeat(512, 12);
+        int[] heights = repeat(512, 12);
+        StickerFrameAtlas full = StickerFrameAtlas.create(widths, heights, 2048, 2, Long.MAX_VALUE);
+        assertEquals(1, full.getSampleSize());
+        // 原图需要12MB以上，4MB的预算降采样到一半
+        StickerFrameAtlas half = StickerFrameAtlas.create(widths, heights, 2048, 2, 4 * 1024 * 1024);
+        assertNotNull(half);
+        assertEquals(2, half.getSampleSize());
+        assertEquals(256, half.getFrameRect(0).width);
+        assertTrue(half.getByteSize() <= 4 * 1024 * 1024);
+        assertValid(half);
+        // 降采样4倍仍然放不下
+        assertNull(StickerFrameAtlas.create(widths, heights, 2048, 2, 512 * 1024));
+    }
+
+    @Test
+    public void sampledSizeRoundsDownLikeBitmapFactory() {
+        assertEquals(100, StickerFrameAtlas.sampledSize(201, 2));
+        assertEquals(1, StickerFrameAtlas.sampledSize(3, 4));
+    }
+
+    @Test
+    public void loopingTimelineWrapsAround() {
+        StickerFrameTimeline timeline = new StickerFrameTimeline(12, 40, true);
+        assertEquals(0, timeline.getFrameIndex(-5));
+        assertEquals(0, timeline.getFrameIndex(39));
+        assertEquals(1, timeline.getFrameIndex(40));
+        assertEquals(11, timeline.getFrameIndex(479));
+        assertEquals(0, timeline.getFrameIndex(480));
+        assertEquals(5, timeline.getFrameIndex(480 * 1000 + 200));
+        assertFalse(timeline.isFinished(10000));
+    }
+
+    @Test
+    public void oneShotTimelineHoldsTheLastFrame() {
+        StickerFrameTimeline timeline = new StickerFrameTimeline(5, 100, false);
+        assertEquals(4, timeline.getFrameIndex(450));
+        assertEquals(4, timeline.getFrameIndex(100000));
+        assertFalse(timeline.isFinished(499));
+        assertTrue(timeline.isFinished(500));
+        assertEquals(500, timeline.getDuration());
+    }
+}
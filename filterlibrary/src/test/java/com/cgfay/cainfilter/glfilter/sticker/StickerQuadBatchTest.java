@@ -0,0 +1,385 @@
+package com.cgfay.cainfilter.glfilter.sticker;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * StickerQuadBatch 单元测试
+ * android.opengl.Matrix的矩阵乘法是native方法，JVM上无法调用，这里按AOSP的实现移植了
+ * GLStickerItemFilter.calculateMVPMatrix用到的几个方法作为逐个贴纸绘制时的参考结果
+ */
+public class StickerQuadBatchTest {
+
+    private static final float[] VERTICES = {
+            -1.0f, -1.0f, 0.0f,
+            1.0f, -1.0f, 0.0f,
+            -1.0f, 1.0f, 0.0f,
+            1.0f, 1.0f, 0.0f,
+    };
+
+    private static final float[] TEXTURE_COORDS = {
+            0.1f, 0.9f,
+            0.4f, 0.9f,
+            0.1f, 0.5f,
+            0.4f, 0.5f,
+    };
+
+    // 头、耳朵、脸、鼻子、胡子
+    static final int ITEMS = 5;
+
+    /**
+     * 逐个贴纸计算矩阵，与GLStickerItemFilter相同
+     */
+    static final class ReferenceItem {
+        final float[] view = new float[16];
+        final float[] projection = new float[16];
+        final float[] model = new float[16];
+        final float[] mvp = new float[16];
+
+        ReferenceItem(float aspectRatio) {
+            setIdentityM(view, 0);
+            setIdentityM(projection, 0);
+            setLookAtM(view, 0, 0, 0, -4, 0f, 0f, 0f, 0f, 1f, 0f);
+            frustumM(projection, 0, -aspectRatio, aspectRatio, -1, 1, 2, 6);
+        }
+
+        float[] calculateMVPMatrix(float pitch, float yaw, float roll) {
+            setIdentityM(model, 0);
+            rotateM(model, 0, pitch, 1.0f, 0, 0);
+            rotateM(model, 0, yaw, 0, 1.0f, 0);
+            rotateM(model, 0, roll, 0, 0, 1.0f);
+            multiplyMM(mvp, 0, view, 0, model, 0);
+            multiplyMM(mvp, 0, projection, 0, mvp, 0);
+            return mvp;
+        }
+    }
+
+    @Test
+    public void mvpMatchesPerItemMatrix() {
+        Random random = new Random(22);
+        float[] aspects = { 1.0f, 720f / 1280f, 1080f / 1920f, 4f / 3f };
+        float[] actual = new float[16];
+        for (float aspect : aspects) {
+            ReferenceItem reference = new ReferenceItem(aspect);
+            StickerQuadBatch batch = new StickerQuadBatch();
+            batch.setAspectRatio(aspect);
+            for (int i = 0; i < 200; i++) {
+                float pitch = random.nextFloat() * 360 - 180;
+                float yaw = random.nextFloat() * 360 - 180;
+                float roll = random.nextFloat() * 360 - 180;
+                float[] expected = reference.calculateMVPMatrix(pitch, yaw, roll);
+                batch.computeMVPMatrix(pitch, yaw, roll, actual, 0);
+                for (int k = 0; k < 16; k++) {
+                    assertEquals("aspect " + aspect + " element " + k, expected[k], actual[k],
+                            1e-5f * Math.max(1, Math.abs(expected[k])));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void quadVerticesMatchPerItemTransform() {
+        float aspect = 720f / 1280f;
+        ReferenceItem reference = new ReferenceItem(aspect);
+        StickerQuadBatch batch = new StickerQuadBatch();
+        batch.setAspectRatio(aspect);
+        float[] vertices = { -0.3f, 0.2f, 0.1f, 0.5f, 0.25f, 0.1f, -0.35f, 0.9f, 0.0f,
+                0.45f, 0.85f, -0.2f };
+        batch.begin();
+        batch.addQuad(7, 12.5f, -30f, 8f, vertices, 0, TEXTURE_COORDS, 0);
+        float[] mvp = reference.calculateMVPMatrix(12.5f, -30f, 8f);
+        float[] vertex = new float[4];
+        float[] clip = new float[4];
+        // 两个三角形：左下、右下、左上；左上、右下、右上
+        int[] order = { 0, 1, 2, 2, 1, 3 };
+        float[] data = batch.getData();
+        for (int v = 0; v < order.length; v++) {
+            int index = order[v];
+            vertex[0] = vertices[index * 3];
+            vertex[1] = vertices[index * 3 + 1];
+            vertex[2] = vertices[index * 3 + 2];
+            vertex[3] = 1.0f;
+            multiplyMV(clip, 0, mvp, 0, vertex, 0);
+            int base = v * StickerQuadBatch.VERTEX_SIZE;
+            for (int k = 0; k < 4; k++) {
+                assertEquals(clip[k], data[base + k], 1e-5f);
+            }
+            assertEquals(TEXTURE_COORDS[index * 2], data[base + 4], 0);
+            assertEquals(TEXTURE_COORDS[index * 2 + 1], data[base + 5], 0);
+        }
+        assertEquals(StickerQuadBatch.VERTICES_PER_QUAD * StickerQuadBatch.VERTEX_SIZE,
+                batch.getFloatCount());
+    }
+
+    @Test
+    public void sameTextureQuadsShareOneDraw() {
+        StickerQuadBatch batch = new StickerQuadBatch(2);
+        batch.begin();
+        // 按部位添加，每个部位3个人脸
+        int[] textures = { 10, 10, 10, 11, 11, 11, 10, 10, 10 };
+        for (int texture : textures) {
+            batch.addQuad(texture, 0, 0, 0, VERTICES, 0, TEXTURE_COORDS, 0);
+        }
+        assertEquals(9, batch.getQuadCount());
+        assertEquals(3, batch.getRunCount());
+        assertEquals(10, batch.getRunTexture(0));
+        assertEquals(0, batch.getRunFirstVertex(0));
+        assertEquals(18, batch.getRunVertexCount(0));
+        assertEquals(11, batch.getRunTexture(1));
+        assertEquals(18, batch.getRunFirstVertex(1));
+        assertEquals(10, batch.getRunTexture(2));
+        assertEquals(36, batch.getRunFirstVertex(2));
+        assertEquals(18, batch.getRunVertexCount(2));
+
+        // 所有部位在同一页图集
+        batch.begin();
+        for (int i = 0; i < ITEMS * 5; i++) {
+            batch.addQuad(3, 0, 0, 0, VERTICES, 0, TEXTURE_COORDS, 0);
+        }
+        assertEquals(1, batch.getRunCount());
+        assertEquals(ITEMS * 5 * StickerQuadBatch.VERTICES_PER_QUAD, batch.getRunVertexCount(0));
+    }
+
+    @Test
+    public void growingKeepsEarlierQuads() {
+        StickerQuadBatch batch = new StickerQuadBatch(1);
+        batch.begin();
+        batch.addQuad(1, 10, 20, 30, VERTICES, 0, TEXTURE_COORDS, 0);
+        float[] first = new float[StickerQuadBatch.VERTICES_PER_QUAD
+                * StickerQuadBatch.VERTEX_SIZE];
+        System.arraycopy(batch.getData(), 0, first, 0, first.length);
+        batch.addQuad(2, 0, 0, 0, VERTICES, 0, TEXTURE_COORDS, 0);
+        batch.addQuad(2, 0, 0, 0, VERTICES, 0, TEXTURE_COORDS, 0);
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], batch.getData()[i], 0);
+        }
+        assertEquals(2, batch.getRunCount());
+        assertEquals(1, batch.getQuadTexture(0));
+        assertEquals(2, batch.getQuadTexture(2));
+    }
+
+    /**
+     * 与GLStickerFilterSet.buildBatch相同，所有部位共用一页图集
+     */
+    static void buildFrame(StickerQuadBatch batch, float[] poses, int faces) {
+        batch.begin();
+        for (int item = 0; item < ITEMS; item++) {
+            for (int face = 0; face < faces; face++) {
+                batch.addQuad(1, poses[face * 3], poses[face * 3 + 1],
+                        poses[face * 3 + 2], VERTICES, 0, TEXTURE_COORDS, 0);
+            }
+        }
+    }
+
+    @Test
+    public void steadyStateFramesDoNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        StickerQuadBatch batch = new StickerQuadBatch();
+        float[] poses = { 5, -10, 3, -8, 20, 0, 12, 4, -6, 0, 0, 0, 30, -30, 15 };
+        // 预热，扩容到5个人脸所需的容量
+        for (int i = 0; i < 2000; i++) {
+            buildFrame(batch, poses, 5);
+        }
+        float[] data = batch.getData();
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 1000; i++) {
+            buildFrame(batch, poses, 1 + i % 5);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertSame(data, batch.getData());
+        // 测量本身可能分配少量内存
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void sharedAtlasDrawsOncePerFrame() {
+        float[] poses = new float[15];
+        StickerQuadBatch batch = new StickerQuadBatch();
+        batch.setAspectRatio(720f / 1280f);
+        for (int faces : new int[] { 1, 3, 5 }) {
+            buildFrame(batch, poses, faces);
+            assertEquals(faces * ITEMS, batch.getQuadCount());
+            // 所有部位在同一页图集，与人脸数、部位数无关
+            assertEquals(1, batch.getRunCount());
+            assertEquals(faces * ITEMS * StickerQuadBatch.VERTICES_PER_QUAD,
+                    batch.getRunVertexCount(0));
+        }
+    }
+
+    // ------------------------- 按AOSP android.opengl.Matrix移植 -------------------------
+
+    private static void setIdentityM(float[] sm, int smOffset) {
+        for (int i = 0; i < 16; i++) {
+            sm[smOffset + i] = 0;
+        }
+        for (int i = 0; i < 16; i += 5) {
+            sm[smOffset + i] = 1.0f;
+        }
+    }
+
+    private static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+                                   float[] rhs, int rhsOffset) {
+        float[] temp = new float[16];
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[lhsOffset + k * 4 + j] * rhs[rhsOffset + i * 4 + k];
+                }
+                temp[i * 4 + j] = sum;
+            }
+        }
+        System.arraycopy(temp, 0, result, resultOffset, 16);
+    }
+
+    private static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat,
+                                   int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+        for (int j = 0; j < 4; j++) {
+            float sum = 0;
+            for (int k = 0; k < 4; k++) {
+                sum += lhsMat[lhsMatOffset + k * 4 + j] * rhsVec[rhsVecOffset + k];
+            }
+            resultVec[resultVecOffset + j] = sum;
+        }
+    }
+
+    private static void frustumM(float[] m, int offset, float left, float right,
+                                 float bottom, float top, float near, float far) {
+        final float r_width = 1.0f / (right - left);
+        final float r_height = 1.0f / (top - bottom);
+        final float r_depth = 1.0f / (near - far);
+        final float x = 2.0f * (near * r_width);
+        final float y = 2.0f * (near * r_height);
+        final float A = (right + left) * r_width;
+        final float B = (top + bottom) * r_height;
+        final float C = (far + near) * r_depth;
+        final float D = 2.0f * (far * near * r_depth);
+        m[offset + 0] = x;
+        m[offset + 5] = y;
+        m[offset + 8] = A;
+        m[offset + 9] = B;
+        m[offset + 10] = C;
+        m[offset + 14] = D;
+        m[offset + 11] = -1.0f;
+        m[offset + 1] = 0.0f;
+        m[offset + 2] = 0.0f;
+        m[offset + 3] = 0.0f;
+        m[offset + 4] = 0.0f;
+        m[offset + 6] = 0.0f;
+        m[offset + 7] = 0.0f;
+        m[offset + 12] = 0.0f;
+        m[offset + 13] = 0.0f;
+        m[offset + 15] = 0.0f;
+    }
+
+    private static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z) {
+        rm[rmOffset + 3] = 0;
+        rm[rmOffset + 7] = 0;
+        rm[rmOffset + 11] = 0;
+        rm[rmOffset + 12] = 0;
+        rm[rmOffset + 13] = 0;
+        rm[rmOffset + 14] = 0;
+        rm[rmOffset + 15] = 1;
+        a *= (float) (Math.PI / 180.0f);
+        float s = (float) Math.sin(a);
+        float c = (float) Math.cos(a);
+        if (1.0f == x && 0.0f == y && 0.0f == z) {
+            rm[rmOffset + 5] = c;
+            rm[rmOffset + 10] = c;
+            rm[rmOffset + 6] = s;
+            rm[rmOffset + 9] = -s;
+            rm[rmOffset + 1] = 0;
+            rm[rmOffset + 2] = 0;
+            rm[rmOffset + 4] = 0;
+            rm[rmOffset + 8] = 0;
+            rm[rmOffset + 0] = 1;
+        } else if (0.0f == x && 1.0f == y && 0.0f == z) {
+            rm[rmOffset + 0] = c;
+            rm[rmOffset + 10] = c;
+            rm[rmOffset + 8] = s;
+            rm[rmOffset + 2] = -s;
+            rm[rmOffset + 1] = 0;
+            rm[rmOffset + 4] = 0;
+            rm[rmOffset + 6] = 0;
+            rm[rmOffset + 9] = 0;
+            rm[rmOffset + 5] = 1;
+        } else if (0.0f == x && 0.0f == y && 1.0f == z) {
+            rm[rmOffset + 0] = c;
+            rm[rmOffset + 5] = c;
+            rm[rmOffset + 1] = s;
+            rm[rmOffset + 4] = -s;
+            rm[rmOffset + 2] = 0;
+            rm[rmOffset + 6] = 0;
+            rm[rmOffset + 8] = 0;
+            rm[rmOffset + 9] = 0;
+            rm[rmOffset + 10] = 1;
+        } else {
+            throw new UnsupportedOperationException("only axis-aligned rotations are ported");
+        }
+    }
+
+    private static void rotateM(float[] m, int mOffset, float a, float x, float y, float z) {
+        float[] temp = new float[32];
+        setRotateM(temp, 0, a, x, y, z);
+        multiplyMM(temp, 16, m, mOffset, temp, 0);
+        System.arraycopy(temp, 16, m, mOffset, 16);
+    }
+
+    private static void translateM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int mi = mOffset + i;
+            m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+        }
+    }
+
+    private static void setLookAtM(float[] rm, int rmOffset, float eyeX, float eyeY, float eyeZ,
+                                   float centerX, float centerY, float centerZ,
+                                   float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+        rm[rmOffset + 0] = sx;
+        rm[rmOffset + 1] = ux;
+        rm[rmOffset + 2] = -fx;
+        rm[rmOffset + 3] = 0.0f;
+        rm[rmOffset + 4] = sy;
+        rm[rmOffset + 5] = uy;
+        rm[rmOffset + 6] = -fy;
+        rm[rmOffset + 7] = 0.0f;
+        rm[rmOffset + 8] = sz;
+        rm[rmOffset + 9] = uz;
+        rm[rmOffset + 10] = -fz;
+        rm[rmOffset + 11] = 0.0f;
+        rm[rmOffset + 12] = 0.0f;
+        rm[rmOffset + 13] = 0.0f;
+        rm[rmOffset + 14] = 0.0f;
+        rm[rmOffset + 15] = 1.0f;
+        translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+    }
+}
@@ -0,0 +1,121 @@
+package com.cgfay.cainfilter.stickers;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * JsonStreamReader 单元测试
+ */
+public class JsonStreamReaderTest {
+
+    private static JsonStreamReader reader(String json) {
+        return new JsonStreamReader(new StringReader(json));
+    }
+
+    @Test
+    public void readsNestedValues() throws IOException {
+        JsonStreamReader json = reader(" {\"a\": [1, -2.5, 3e2], \"b\": {\"c\": true, \"d\": null},"
+                + " \"e\": \"x\" }\n");
+        json.beginObject();
+        assertEquals("a", json.nextName());
+        json.beginArray();
+        assertEquals(1, json.nextInt());
+        assertEquals(-2.5, json.nextDouble(), 0);
+        assertEquals(300, json.nextLong());
+        assertFalse(json.hasNext());
+        json.endArray();
+        assertEquals("b", json.nextName());
+        json.beginObject();
+        assertEquals("c", json.nextName());
+        assertTrue(json.nextBoolean());
+        assertEquals("d", json.nextName());
+        assertEquals(JsonStreamReader.Token.NULL, json.peek());
+        json.nextNull();
+        json.endObject();
+        assertEquals("e", json.nextName());
+        assertEquals("x", json.nextString());
+        json.endObject();
+        assertEquals(JsonStreamReader.Token.END_DOCUMENT, json.peek());
+    }
+
+    @Test
+    public void decodesEscapes() throws IOException {
+        JsonStreamReader json = reader("[\"a\\\"b\\\\c\\/d\\n\\t\\u4e2d\"]");
+        json.beginArray();
+        assertEquals("a\"b\\c/d\n\t中", json.nextString());
+        json.endArray();
+    }
+
+    @Test
+    public void skipsNestedValues() throws IOException {
+        JsonStreamReader json = reader("{\"skip\": {\"x\": [1, {\"y\": [\"]\"]}], \"z\": \"}\"},"
+                + " \"keep\": 7}");
+        json.beginObject();
+        assertEquals("skip", json.nextName());
+        json.skipValue();
+        assertEquals("keep", json.nextName());
+        assertEquals(7, json.nextInt());
+        json.endObject();
+    }
+
+    /**
+     * 字符串和转义跨越读取缓冲区的边界
+     */
+    @Test
+    public void stringsSpanBufferBoundaries() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        StringBuilder source = new StringBuilder("[\"");
+        for (int i = 0; i < 5000; i++) {
+            if (i % 7 == 0) {
+                expected.append('"');
+                source.append("\\\"");
+            } else {
+                char c = (char) ('a' + i % 26);
+                expected.append(c);
+                source.append(c);
+            }
+        }
+        source.append("\", 42]");
+        // 每次只返回少量字符
+        Reader slow = new StringReader(source.toString()) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 13));
+            }
+        };
+        JsonStreamReader json = new JsonStreamReader(slow);
+        json.beginArray();
+        assertEquals(expected.toString(), json.nextString());
+        assertEquals(42, json.nextInt());
+        json.endArray();
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        String[] inputs = { "{\"a\" 1}", "[1 2]", "{\"a\": tru}", "[\"open", "{a: 1}", "[1,",
+                "1 2" };
+        for (String input : inputs) {
+            try {
+                JsonStreamReader json = reader(input);
+                json.skipValue();
+                json.peek();
+                fail("accepted " + input);
+            } catch (IOException e) {
+                // 期望的错误
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsWrongToken() throws IOException {
+        JsonStreamReader json = reader("{\"a\": \"text\"}");
+        json.beginObject();
+        json.nextName();
+        json.nextInt();
+    }
+}
@@ -0,0 +1,328 @@
+package com.cgfay.cainfilter.stickers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * StickerFrameCache单元测试
+ */
+public class StickerFrameCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * 手动执行的线程
+     */
+    static final class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mTasks.add(runnable);
+        }
+
+        int runAll() {
+            int count = 0;
+            while (!mTasks.isEmpty()) {
+                mTasks.poll().run();
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 每帧固定大小的解码器，记录解码和回收
+     */
+    private static final class FakeDecoder implements StickerFrameCache.Decoder<byte[]> {
+        final int mFrameBytes;
+        final List<String> mDecoded = new ArrayList<String>();
+        final Set<byte[]> mRecycled = new HashSet<byte[]>();
+        final Set<String> mBroken = new HashSet<String>();
+
+        FakeDecoder(int frameBytes) {
+            mFrameBytes = frameBytes;
+        }
+
+        @Override
+        public byte[] decode(StickerPackage stickerPackage, int item, int frame)
+                throws IOException {
+            String key = stickerPackage.getName() + ":" + item + ":" + frame;
+            if (mBroken.contains(key)) {
+                throw new IOException("broken " + key);
+            }
+            mDecoded.add(key);
+            return new byte[mFrameBytes];
+        }
+
+        @Override
+        public long getByteSize(byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        public void recycle(byte[] value) {
+            assertTrue("recycled twice", mRecycled.add(value));
+        }
+    }
+
+    /**
+     * 读取帧文件并计算CRC的解码器，模拟真实的读取和解码开销
+     */
+    static final class FileDecoder implements StickerFrameCache.Decoder<byte[]> {
+        int mDecodeCount;
+
+        @Override
+        public byte[] decode(StickerPackage stickerPackage, int item, int frame)
+                throws IOException {
+            InputStream is = stickerPackage.openFrame(item, frame);
+            try {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = is.read(buffer)) > 0) {
+                    os.write(buffer, 0, count);
+                }
+                byte[] data = os.toByteArray();
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                if (crc.getValue() == 0) {
+                    throw new IOException("unexpected crc");
+                }
+                mDecodeCount++;
+                return data;
+            } finally {
+                is.close();
+            }
+        }
+
+        @Override
+        public long getByteSize(byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        public void recycle(byte[] value) {
+        }
+    }
+
+    private static StickerPackage createPackage(String name, int items, int frames)
+            throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("{\"name\": \"").append(name).append("\", \"items\": [");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                manifest.append(',');
+            }
+            manifest.append("{\"name\": \"part").append(i).append("\", \"frames\": ")
+                    .append(frames).append('}');
+        }
+        manifest.append("]}");
+        return StickerJsonParser.getInstance().parse(new StringReader(manifest.toString()),
+                null);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWithinBudget() throws IOException {
+        FakeDecoder decoder = new FakeDecoder(100);
+        StickerFrameCache<byte[]> cache =
+                new StickerFrameCache<byte[]>(decoder, new ManualExecutor(), 300);
+        StickerPackage stickerPackage = createPackage("p", 1, 10);
+        byte[] frame0 = cache.load(stickerPackage, 0, 0);
+        byte[] frame1 = cache.load(stickerPackage, 0, 1);
+        cache.load(stickerPackage, 0, 2);
+        assertEquals(300, cache.getUsedBytes());
+        // 访问第0帧之后第1帧变成最久没有访问的
+        assertSame(frame0, cache.load(stickerPackage, 0, 0));
+        cache.load(stickerPackage, 0, 3);
+        assertEquals(3, cache.size());
+        assertEquals(300, cache.getUsedBytes());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(decoder.mRecycled.contains(frame1));
+        assertFalse(cache.contains(stickerPackage, 0, 1));
+        assertTrue(cache.contains(stickerPackage, 0, 0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(400, cache.getPeakBytes());
+    }
+
+    @Test
+    public void keepsSingleOversizedFrame() throws IOException {
+        FakeDecoder decoder = new FakeDecoder(500);
+        StickerFrameCache<byte[]> cache =
+                new StickerFrameCache<byte[]>(decoder, new ManualExecutor(), 300);
+        StickerPackage stickerPackage = createPackage("p", 1, 2);
+        byte[] frame0 = cache.load(stickerPackage, 0, 0);
+        assertSame(frame0, cache.get(stickerPackage, 0, 0));
+        byte[] frame1 = cache.load(stickerPackage, 0, 1);
+        assertEquals(1, cache.size());
+        assertSame(frame1, cache.get(stickerPackage, 0, 1));
+        assertTrue(decoder.mRecycled.contains(frame0));
+    }
+
+    @Test
+    public void prefetchSkipsCachedAndPendingFrames() throws IOException {
+        FakeDecoder decoder = new FakeDecoder(10);
+        ManualExecutor executor = new ManualExecutor();
+        StickerFrameCache<byte[]> cache = new StickerFrameCache<byte[]>(decoder, executor);
+        StickerPackage stickerPackage = createPackage("p", 2, 10);
+        cache.load(stickerPackage, 0, 1);
+        cache.prefetch(stickerPackage, 0, new int[] { 1, 2, 3 }, 3);
+        cache.prefetch(stickerPackage, 0, new int[] { 2, 3, 4 }, 3);
+        cache.prefetch(stickerPackage, 1, new int[] { 2, 9 }, 1);
+        assertEquals(4, cache.getPendingCount());
+        assertEquals(4, cache.getPrefetchCount());
+        assertEquals(4, executor.runAll());
+        assertEquals(0, cache.getPendingCount());
+        assertEquals(5, cache.size());
+        assertTrue(cache.contains(stickerPackage, 1, 2));
+        assertFalse(cache.contains(stickerPackage, 1, 9));
+        // 预取的帧直接命中，不再解码
+        int decoded = decoder.mDecoded.size();
+        cache.load(stickerPackage, 0, 4);
+        assertEquals(decoded, decoder.mDecoded.size());
+        cache.prefetch(stickerPackage, 0, new int[] { 2, 3, 4 }, 3);
+        assertEquals(0, executor.runAll());
+    }
+
+    @Test
+    public void loadWhilePrefetchingKeepsOneValue() throws IOException {
+        FakeDecoder decoder = new FakeDecoder(10);
+        ManualExecutor executor = new ManualExecutor();
+        StickerFrameCache<byte[]> cache = new StickerFrameCache<byte[]>(decoder, executor);
+        StickerPackage stickerPackage = createPackage("p", 1, 4);
+        cache.prefetch(stickerPackage, 0, new int[] { 1 }, 1);
+        byte[] loaded = cache.load(stickerPackage, 0, 1);
+        executor.runAll();
+        assertSame(loaded, cache.get(stickerPackage, 0, 1));
+        assertEquals(1, cache.size());
+        assertEquals(1, decoder.mRecycled.size());
+        assertEquals(10, cache.getUsedBytes());
+    }
+
+    @Test
+    public void removePackageDropsFramesAndPendingPrefetches() throws IOException {
+        FakeDecoder decoder = new FakeDecoder(10);
+        ManualExecutor executor = new ManualExecutor();
+        StickerFrameCache<byte[]> cache = new StickerFrameCache<byte[]>(decoder, executor);
+        StickerPackage first = createPackage("first", 1, 4);
+        StickerPackage second = createPackage("second", 1, 4);
+        byte[] frame = cache.load(first, 0, 0);
+        cache.load(second, 0, 0);
+        cache.prefetch(first, 0, new int[] { 1, 2 }, 2);
+        cache.prefetch(second, 0, new int[] { 1 }, 1);
+        cache.removePackage("first");
+        assertTrue(decoder.mRecycled.contains(frame));
+        assertEquals(1, cache.getPendingCount());
+        executor.runAll();
+        // 已经移除的贴纸包不再解码
+        assertEquals(3, decoder.mDecoded.size());
+        assertEquals(2, cache.size());
+        assertFalse(cache.contains(first, 0, 1));
+        assertTrue(cache.contains(second, 0, 1));
+        assertEquals(20, cache.getUsedBytes());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getUsedBytes());
+        assertEquals(3, decoder.mRecycled.size());
+    }
+
+    @Test
+    public void failedPrefetchIsRetriedOnLoad() throws IOException {
+        FakeDecoder decoder = new FakeDecoder(10);
+        ManualExecutor executor = new ManualExecutor();
+        StickerFrameCache<byte[]> cache = new StickerFrameCache<byte[]>(decoder, executor);
+        StickerPackage stickerPackage = createPackage("p", 1, 4);
+        decoder.mBroken.add("p:0:2");
+        cache.prefetch(stickerPackage, 0, new int[] { 2 }, 1);
+        executor.runAll();
+        assertEquals(1, cache.getFailedCount());
+        assertEquals(0, cache.getPendingCount());
+        try {
+            cache.load(stickerPackage, 0, 2);
+            fail();
+        } catch (IOException e) {
+            // 期望的错误
+        }
+        decoder.mBroken.clear();
+        assertNotNull(cache.load(stickerPackage, 0, 2));
+    }
+
+    /**
+     * 在目录中写出items个部位、每个部位frames帧随机内容的贴纸包
+     */
+    static void writePackage(File root, int items, int frames, int frameBytes)
+            throws IOException {
+        StringBuilder manifest = new StringBuilder("{\"name\": \"bench\", \"items\": [");
+        Random random = new Random(7);
+        byte[] data = new byte[frameBytes];
+        for (int i = 0; i < items; i++) {
+            manifest.append(i > 0 ? "," : "").append("{\"name\": \"part").append(i)
+                    .append("\", \"type\": \"head\", \"frames\": ").append(frames)
+                    .append(", \"duration\": 1000}");
+            for (int j = 0; j < frames; j++) {
+                random.nextBytes(data);
+                StickerJsonParserTest.write(new File(root,
+                        String.format("part%d/part%d_%03d.png", i, i, j)), data);
+            }
+        }
+        manifest.append("]}");
+        StickerJsonParserTest.write(new File(root, StickerJsonParser.MANIFEST_NAME),
+                manifest.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * 按需加载只解析清单和每个部位的第一帧，原来的做法在选中时解码全部帧
+     */
+    @Test
+    public void loadToFirstFrameDecodesOneFramePerItem() throws IOException {
+        final int items = 5;
+        final int frames = 30;
+        final int frameBytes = 4 * 1024;
+        File root = mFolder.getRoot();
+        writePackage(root, items, frames, frameBytes);
+
+        FileDecoder decoder = new FileDecoder();
+        ManualExecutor executor = new ManualExecutor();
+        StickerFrameCache<byte[]> cache = new StickerFrameCache<byte[]>(decoder, executor);
+        StickerPackage stickerPackage = StickerJsonParser.getInstance()
+                .parse(new DirectoryPackageSource(root));
+        for (int i = 0; i < stickerPackage.getItemCount(); i++) {
+            assertNotNull(cache.load(stickerPackage, i, 0));
+            cache.prefetch(stickerPackage, i, new int[] { 1, 2, 3, 4 }, 4);
+        }
+        assertEquals(items, decoder.mDecodeCount);
+        assertEquals((long) items * frameBytes, cache.getUsedBytes());
+        stickerPackage.getSource().close();
+
+        decoder = new FileDecoder();
+        cache = new StickerFrameCache<byte[]>(decoder, executor, Long.MAX_VALUE);
+        stickerPackage = StickerJsonParser.getInstance().parse(new DirectoryPackageSource(root));
+        for (int i = 0; i < stickerPackage.getItemCount(); i++) {
+            for (int j = 0; j < stickerPackage.getItem(i).getFrameCount(); j++) {
+                cache.load(stickerPackage, i, j);
+            }
+        }
+        assertEquals(items * frames, decoder.mDecodeCount);
+        stickerPackage.getSource().close();
+    }
+}
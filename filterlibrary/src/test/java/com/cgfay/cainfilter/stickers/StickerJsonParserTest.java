@@ -0,0 +1,159 @@
+package com.cgfay.cainfilter.stickers;
+
+import com.cgfay.cainfilter.glfilter.sticker.StickerAnimator;
+import com.cgfay.cainfilter.type.StickerType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * StickerJsonParser、StickerPackage 单元测试，使用合成的贴纸包
+ */
+public class StickerJsonParserTest {
+
+    private static final String MANIFEST = "{\n"
+            + "  \"name\": \"cat\",\n"
+            + "  \"version\": 3,\n"
+            + "  \"author\": {\"name\": \"someone\", \"tags\": [\"cute\", {\"x\": 1}]},\n"
+            + "  \"items\": [\n"
+            + "    {\"name\": \"head\", \"type\": \"head\", \"frames\": 12, \"duration\": 400,\n"
+            + "     \"trigger\": \"mouth_open\", \"width\": 200, \"height\": 160,\n"
+            + "     \"centerX\": 0.0, \"centerY\": 0.6, \"comment\": \"ignored\"},\n"
+            + "    {\"name\": \"nose\", \"type\": \"NOSE\", \"folder\": \"parts/bizi\",\n"
+            + "     \"pattern\": \"n%d.png\", \"frames\": 3, \"looping\": false,\n"
+            + "     \"trigger\": \"eye_blink\"}\n"
+            + "  ]\n"
+            + "}\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * 内存中的贴纸包
+     */
+    private static final class MemorySource implements StickerPackageSource {
+        final Map<String, byte[]> mFiles = new HashMap<String, byte[]>();
+
+        @Override
+        public InputStream open(String path) throws IOException {
+            byte[] data = mFiles.get(path);
+            if (data == null) {
+                throw new IOException("not found: " + path);
+            }
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void parsesItemsAndSkipsUnknownFields() throws IOException {
+        StickerPackage stickerPackage = StickerJsonParser.getInstance()
+                .parse(new StringReader(MANIFEST), new MemorySource());
+        assertEquals("cat", stickerPackage.getName());
+        assertEquals(3, stickerPackage.getVersion());
+        assertEquals(2, stickerPackage.getItemCount());
+
+        StickerPackage.Item head = stickerPackage.getItem(0);
+        assertEquals("head", head.getName());
+        assertEquals(StickerType.HEAD, head.getType());
+        assertEquals(12, head.getFrameCount());
+        assertEquals(400, head.getDuration());
+        assertTrue(head.isLooping());
+        assertEquals(StickerAnimator.ACTION_MOUTH_OPEN, head.getTriggerAction());
+        assertEquals(200, head.getWidth());
+        assertEquals(160, head.getHeight());
+        assertEquals(0.6f, head.getCenterY(), 1e-6);
+        // 默认的目录和文件名格式与内置贴纸一致
+        assertEquals("head/head_007.png", head.getFramePath(7));
+
+        StickerPackage.Item nose = stickerPackage.getItem(1);
+        assertEquals(StickerType.NOSE, nose.getType());
+        assertFalse(nose.isLooping());
+        assertEquals(StickerAnimator.ACTION_EYE_BLINK, nose.getTriggerAction());
+        assertEquals("parts/bizi/n2.png", nose.getFramePath(2));
+    }
+
+    @Test
+    public void framePathsAreIndexedLazily() throws IOException {
+        StickerPackage stickerPackage = StickerJsonParser.getInstance()
+                .parse(new StringReader(MANIFEST), new MemorySource());
+        StickerPackage.Item head = stickerPackage.getItem(0);
+        assertEquals(0, head.getIndexedFrameCount());
+        String path = head.getFramePath(3);
+        assertSame(path, head.getFramePath(3));
+        assertEquals(1, head.getIndexedFrameCount());
+        try {
+            head.getFramePath(12);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // 期望的错误
+        }
+    }
+
+    @Test
+    public void rejectsInvalidManifests() {
+        String[] manifests = {
+                "{\"items\": [{\"name\": \"a\", \"frames\": 1}]}",
+                "{\"name\": \"p\", \"items\": []}",
+                "{\"name\": \"p\", \"items\": [{\"name\": \"a\"}]}",
+                "{\"name\": \"p\", \"items\": [{\"name\": \"a\", \"frames\": 2, \"type\": \"hat\"}]}",
+                "{\"name\": \"p\", \"items\": [{\"name\": \"a\", \"frames\": 2, \"trigger\": \"nod\"}]}",
+                "{\"name\": \"p\", \"items\": [{\"name\": \"a\", \"frames\": 2.5}]}",
+        };
+        for (String manifest : manifests) {
+            try {
+                StickerJsonParser.getInstance().parse(new StringReader(manifest), new MemorySource());
+                fail("accepted " + manifest);
+            } catch (IOException e) {
+                // 期望的错误
+            }
+        }
+    }
+
+    @Test
+    public void readsFramesFromDirectory() throws IOException {
+        File root = mFolder.getRoot();
+        write(new File(root, StickerJsonParser.MANIFEST_NAME), MANIFEST.getBytes("UTF-8"));
+        write(new File(root, "head/head_000.png"), new byte[] { 1, 2, 3 });
+        write(new File(root, "parts/bizi/n1.png"), new byte[] { 4 });
+        StickerPackage stickerPackage = StickerJsonParser.getInstance()
+                .parse(new DirectoryPackageSource(root));
+        InputStream is = stickerPackage.openFrame(0, 0);
+        assertEquals(1, is.read());
+        is.close();
+        is = stickerPackage.openFrame(1, 1);
+        assertEquals(4, is.read());
+        is.close();
+        try {
+            stickerPackage.openFrame(0, 1);
+            fail();
+        } catch (IOException e) {
+            // 帧文件不存在
+        }
+    }
+
+    static void write(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+    }
+}
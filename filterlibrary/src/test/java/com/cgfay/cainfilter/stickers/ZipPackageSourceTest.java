@@ -0,0 +1,87 @@
+package com.cgfay.cainfilter.stickers;
+
+import com.cgfay.cainfilter.archiver.ZipArchive;
+import com.cgfay.cainfilter.archiver.ZipArchiveTest;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 不解压直接从ZIP读取贴纸包
+ */
+public class ZipPackageSourceTest {
+
+    private static final String MANIFEST = "{\"name\": \"cat\", \"items\": ["
+            + "{\"name\": \"head\", \"type\": \"head\", \"frames\": 2}]}";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        ZipArchive.clearIndexCache();
+    }
+
+    private File createZip(String root, String manifest) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put(root + StickerJsonParser.MANIFEST_NAME, manifest.getBytes("UTF-8"));
+        entries.put("!" + root + "head/head_000.png", new byte[] { 1, 2, 3 });
+        entries.put(root + "head/head_001.png", new byte[] { 4, 5, 6 });
+        File file = mFolder.newFile();
+        ZipArchiveTest.writeZip(file, entries, null);
+        return file;
+    }
+
+    @Test
+    public void readsPackageAtRoot() throws IOException {
+        ZipPackageSource source = new ZipPackageSource(createZip("", MANIFEST));
+        try {
+            assertEquals("", source.getRoot());
+            StickerPackage stickerPackage = StickerJsonParser.getInstance().parse(source);
+            assertEquals("cat", stickerPackage.getName());
+            assertArrayEquals(new byte[] { 1, 2, 3 },
+                    ZipArchiveTest.readFully(stickerPackage.openFrame(0, 0)));
+            assertArrayEquals(new byte[] { 4, 5, 6 },
+                    ZipArchiveTest.readFully(stickerPackage.openFrame(0, 1)));
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void readsPackageInTopLevelFolder() throws IOException {
+        ZipPackageSource source = new ZipPackageSource(createZip("cat/", MANIFEST));
+        try {
+            assertEquals("cat/", source.getRoot());
+            StickerPackage stickerPackage = StickerJsonParser.getInstance().parse(source);
+            assertArrayEquals(new byte[] { 4, 5, 6 },
+                    ZipArchiveTest.readFully(stickerPackage.openFrame(0, 1)));
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void rejectsZipWithoutManifest() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("a/b/" + StickerJsonParser.MANIFEST_NAME, MANIFEST.getBytes("UTF-8"));
+        File file = mFolder.newFile();
+        ZipArchiveTest.writeZip(file, entries, null);
+        try {
+            new ZipPackageSource(file);
+            fail();
+        } catch (FileNotFoundException e) {
+            // 清单只允许在根目录或者一层目录中
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.cgfay.cainfilter.trace;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * ChromeTraceWriter 单元测试
+ */
+public class ChromeTraceWriterTest {
+
+    private static final String HEADER = "{\"traceEvents\":["
+            + "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,\"args\":{\"name\":\"Render CPU\"}},"
+            + "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":2,\"args\":{\"name\":\"Render GPU\"}}";
+    private static final String FOOTER = "],\"displayTimeUnit\":\"ms\"}";
+
+    private static String write(TraceBuffer buffer, String... names) throws IOException {
+        StringWriter writer = new StringWriter();
+        new ChromeTraceWriter(writer).write(buffer, names);
+        return writer.toString();
+    }
+
+    @Test
+    public void emptyBufferWritesOnlyMetadata() throws IOException {
+        assertEquals(HEADER + FOOTER, write(new TraceBuffer(4)));
+    }
+
+    @Test
+    public void spansAreWrittenRelativeToOldestBegin() throws IOException {
+        TraceBuffer buffer = new TraceBuffer(8);
+        buffer.write(1, 1, 3, 1002500, 1004000);
+        long sequence = buffer.write(0, 0, 3, 1000000, 1016667);
+        buffer.setGpuTime(sequence, 12345);
+        String json = write(buffer, "drawFrame", "filter");
+        assertEquals(HEADER
+                + ",{\"name\":\"filter\",\"cat\":\"cpu\",\"ph\":\"X\",\"ts\":2.500,\"dur\":1.500,"
+                + "\"pid\":1,\"tid\":1,\"args\":{\"frame\":3,\"depth\":1}}"
+                + ",{\"name\":\"drawFrame\",\"cat\":\"cpu\",\"ph\":\"X\",\"ts\":0.000,\"dur\":16.667,"
+                + "\"pid\":1,\"tid\":1,\"args\":{\"frame\":3,\"depth\":0}}"
+                + ",{\"name\":\"drawFrame\",\"cat\":\"gpu\",\"ph\":\"X\",\"ts\":0.000,\"dur\":12.345,"
+                + "\"pid\":1,\"tid\":2,\"args\":{\"frame\":3,\"depth\":0}}"
+                + FOOTER, json);
+    }
+
+    @Test
+    public void namesAreEscaped() throws IOException {
+        TraceBuffer buffer = new TraceBuffer(4);
+        buffer.write(0, 0, 0, 0, 1000);
+        String json = write(buffer, "a\"b\\c\n\u0001");
+        assertTrue(json, json.contains("\"name\":\"a\\\"b\\\\c\\n\\u0001\""));
+    }
+
+    @Test
+    public void unknownStageUsesId() throws IOException {
+        TraceBuffer buffer = new TraceBuffer(4);
+        buffer.write(5, 0, 0, 0, 1000);
+        assertTrue(write(buffer).contains("\"name\":\"stage 5\""));
+    }
+
+    @Test
+    public void tracerExportIncludesWrappedRecordsOnly() throws IOException {
+        final long[] now = new long[1];
+        RenderTracer tracer = new RenderTracer(new RenderTracer.Clock() {
+            @Override
+            public long nanoTime() {
+                return now[0];
+            }
+        }, 2);
+        int stage = tracer.registerStage("swapBuffers");
+        tracer.setEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            tracer.beginFrame();
+            now[0] = i * 1000000L;
+            tracer.begin(stage);
+            now[0] += 2000;
+            tracer.end(stage);
+        }
+        StringWriter writer = new StringWriter();
+        tracer.export(writer);
+        String json = writer.toString();
+        assertFalse(json.contains("\"frame\":1,"));
+        assertTrue(json.contains("\"ts\":0.000,\"dur\":2.000,\"pid\":1,\"tid\":1,\"args\":{\"frame\":2,"));
+        assertTrue(json.contains("\"ts\":1000.000,\"dur\":2.000,\"pid\":1,\"tid\":1,\"args\":{\"frame\":3,"));
+    }
+}
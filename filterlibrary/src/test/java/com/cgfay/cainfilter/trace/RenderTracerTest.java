@@ -0,0 +1,291 @@
+package com.cgfay.cainfilter.trace;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * RenderTracer 单元测试，使用模拟时钟和模拟的GPU计时查询
+ */
+public class RenderTracerTest {
+
+    private static class FakeClock implements RenderTracer.Clock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    /**
+     * 查询结果在结束计时若干帧之后返回
+     */
+    private static class FakeGpuTimer implements RenderTracer.GpuTimer {
+        final List<Long> durations = new ArrayList<Long>();
+        final List<Integer> readyFrames = new ArrayList<Integer>();
+        int frame;
+        int latency = 2;
+        int active = -1;
+        int released;
+        long nextDuration = 1000;
+        boolean invalid;
+
+        @Override
+        public int beginQuery() {
+            assertEquals("only one query may be active", -1, active);
+            active = durations.size();
+            durations.add(nextDuration);
+            readyFrames.add(Integer.MAX_VALUE);
+            return active;
+        }
+
+        @Override
+        public void endQuery(int query) {
+            assertEquals(active, query);
+            readyFrames.set(query, frame + latency);
+            active = -1;
+        }
+
+        @Override
+        public long getResult(int query) {
+            if (frame < readyFrames.get(query)) {
+                return RESULT_PENDING;
+            }
+            return invalid ? RESULT_INVALID : durations.get(query);
+        }
+
+        @Override
+        public void releaseQuery(int query) {
+            released++;
+        }
+    }
+
+    private FakeClock mClock;
+    private RenderTracer mTracer;
+    private int mFrameStage;
+    private int mFilterStage;
+    private int mStickerStage;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mTracer = new RenderTracer(mClock, 64);
+        mFrameStage = mTracer.registerStage("drawFrame");
+        mFilterStage = mTracer.registerStage("filter");
+        mStickerStage = mTracer.registerStage("sticker");
+    }
+
+    private void enable() {
+        mTracer.setEnabled(true);
+        mTracer.beginFrame();
+    }
+
+    @Test
+    public void registerStageReturnsSameIdForSameName() {
+        assertEquals(mFilterStage, mTracer.registerStage("filter"));
+        assertEquals("sticker", mTracer.getStageName(mStickerStage));
+    }
+
+    @Test
+    public void disabledTracerRecordsNothing() {
+        mTracer.beginFrame();
+        mTracer.begin(mFrameStage);
+        mTracer.end(mFrameStage);
+        // 关闭时不检查配对
+        mTracer.end(mFilterStage);
+        assertEquals(0, mTracer.getBuffer().size());
+    }
+
+    @Test
+    public void nestedSpansRecordDepthAndTimes() {
+        enable();
+        mClock.now = 100;
+        mTracer.begin(mFrameStage);
+        mClock.now = 110;
+        mTracer.begin(mFilterStage);
+        mClock.now = 120;
+        mTracer.begin(mStickerStage);
+        mClock.now = 125;
+        mTracer.end(mStickerStage);
+        mClock.now = 150;
+        mTracer.end(mFilterStage);
+        mClock.now = 160;
+        mTracer.end(mFrameStage);
+
+        TraceBuffer buffer = mTracer.getBuffer();
+        assertEquals(3, buffer.size());
+        // 按结束顺序写入
+        assertEquals(mStickerStage, buffer.getStage(0));
+        assertEquals(2, buffer.getDepth(0));
+        assertEquals(120, buffer.getBeginNs(0));
+        assertEquals(125, buffer.getEndNs(0));
+        assertEquals(mFilterStage, buffer.getStage(1));
+        assertEquals(1, buffer.getDepth(1));
+        assertEquals(mFrameStage, buffer.getStage(2));
+        assertEquals(0, buffer.getDepth(2));
+        assertEquals(100, buffer.getBeginNs(2));
+        assertEquals(160, buffer.getEndNs(2));
+        assertEquals(0, mTracer.getDepth());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mismatchedEndThrows() {
+        enable();
+        mTracer.begin(mFrameStage);
+        mTracer.begin(mFilterStage);
+        mTracer.end(mFrameStage);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endWithoutBeginThrows() {
+        enable();
+        mTracer.end(mFrameStage);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void tooDeepNestingThrows() {
+        enable();
+        for (int i = 0; i <= RenderTracer.MAX_DEPTH; i++) {
+            mTracer.begin(mFrameStage);
+        }
+    }
+
+    @Test
+    public void enableTakesEffectOnlyBetweenFrames() {
+        mTracer.beginFrame();
+        mTracer.begin(mFrameStage);
+        mTracer.setEnabled(true);
+        // 本帧仍然关闭
+        mTracer.end(mFrameStage);
+        assertFalse(mTracer.isEnabled());
+        mTracer.beginFrame();
+        assertTrue(mTracer.isEnabled());
+        mTracer.begin(mFrameStage);
+        mTracer.setEnabled(false);
+        mTracer.beginFrame();
+        // 有未结束的阶段时不切换
+        assertTrue(mTracer.isEnabled());
+        mTracer.end(mFrameStage);
+        assertEquals(1, mTracer.getBuffer().size());
+    }
+
+    @Test
+    public void gpuResultsAreFilledInLaterFrames() {
+        FakeGpuTimer timer = new FakeGpuTimer();
+        mTracer.setGpuTimer(timer);
+        enable();
+        mTracer.begin(mFrameStage);
+        timer.nextDuration = 3000;
+        mTracer.beginGpu(mFilterStage);
+        // GPU阶段内嵌套的GPU阶段只记录CPU时间
+        mTracer.beginGpu(mStickerStage);
+        mTracer.end(mStickerStage);
+        mTracer.end(mFilterStage);
+        mTracer.end(mFrameStage);
+        assertEquals(1, timer.durations.size());
+        assertEquals(1, mTracer.getPendingGpuCount());
+
+        TraceBuffer buffer = mTracer.getBuffer();
+        timer.frame = 1;
+        mTracer.beginFrame();
+        assertEquals(TraceBuffer.NO_GPU_TIME, buffer.getGpuNs(1));
+        timer.frame = 2;
+        mTracer.beginFrame();
+        assertEquals(0, mTracer.getPendingGpuCount());
+        assertEquals(1, timer.released);
+        assertEquals(TraceBuffer.NO_GPU_TIME, buffer.getGpuNs(0));
+        assertEquals(3000, buffer.getGpuNs(1));
+        assertEquals(TraceBuffer.NO_GPU_TIME, buffer.getGpuNs(2));
+    }
+
+    @Test
+    public void invalidAndOverwrittenGpuResultsAreDiscarded() {
+        FakeGpuTimer timer = new FakeGpuTimer();
+        mTracer = new RenderTracer(mClock, 4);
+        mTracer.setGpuTimer(timer);
+        enable();
+        mTracer.beginGpu(mFilterStage);
+        mTracer.end(mFilterStage);
+        // 结果返回之前记录已经被覆盖
+        for (int i = 0; i < 4; i++) {
+            mTracer.begin(mFrameStage);
+            mTracer.end(mFrameStage);
+        }
+        timer.frame = 2;
+        mTracer.beginFrame();
+        assertEquals(1, mTracer.getGpuDiscardCount());
+
+        mTracer.beginGpu(mFilterStage);
+        mTracer.end(mFilterStage);
+        timer.invalid = true;
+        timer.frame = 4;
+        mTracer.beginFrame();
+        assertEquals(2, mTracer.getGpuDiscardCount());
+        assertEquals(TraceBuffer.NO_GPU_TIME, mTracer.getBuffer().getGpuNs(3));
+        assertEquals(2, timer.released);
+    }
+
+    @Test
+    public void removingGpuTimerReleasesPendingQueries() {
+        FakeGpuTimer timer = new FakeGpuTimer();
+        mTracer.setGpuTimer(timer);
+        enable();
+        mTracer.beginGpu(mFilterStage);
+        mTracer.end(mFilterStage);
+        mTracer.setGpuTimer(null);
+        assertEquals(0, mTracer.getPendingGpuCount());
+        assertEquals(1, timer.released);
+        // 之后的GPU阶段只记录CPU时间
+        mTracer.beginGpu(mFilterStage);
+        mTracer.end(mFilterStage);
+        assertEquals(2, mTracer.getBuffer().size());
+    }
+
+    @Test
+    public void steadyStateTracingDoesNotAllocate() {
+        FakeGpuTimer timer = new FakeGpuTimer() {
+            @Override
+            public int beginQuery() {
+                return 0;
+            }
+
+            @Override
+            public void endQuery(int query) {
+            }
+
+            @Override
+            public long getResult(int query) {
+                return 500;
+            }
+        };
+        mTracer.setGpuTimer(timer);
+        enable();
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        runFrames(1000);
+        long before = bean.getThreadAllocatedBytes(threadId);
+        runFrames(10000);
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated, allocated < 1024);
+        assertEquals(64, mTracer.getBuffer().size());
+    }
+
+    private void runFrames(int count) {
+        for (int i = 0; i < count; i++) {
+            mTracer.beginFrame();
+            mTracer.begin(mFrameStage);
+            mTracer.beginGpu(mFilterStage);
+            mTracer.begin(mStickerStage);
+            mTracer.end(mStickerStage);
+            mTracer.end(mFilterStage);
+            mTracer.end(mFrameStage);
+        }
+    }
+}
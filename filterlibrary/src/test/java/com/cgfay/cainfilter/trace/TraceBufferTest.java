@@ -0,0 +1,79 @@
+package com.cgfay.cainfilter.trace;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TraceBuffer 单元测试
+ */
+public class TraceBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() {
+        new TraceBuffer(100);
+    }
+
+    @Test
+    public void recordsAreReadOldestFirst() {
+        TraceBuffer buffer = new TraceBuffer(8);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, buffer.write(i, 0, i, i * 10, i * 10 + 5));
+        }
+        assertEquals(5, buffer.size());
+        assertEquals(0, buffer.getOverwrittenCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, buffer.getStage(i));
+            assertEquals(i * 10, buffer.getBeginNs(i));
+            assertEquals(i * 10 + 5, buffer.getEndNs(i));
+            assertEquals(TraceBuffer.NO_GPU_TIME, buffer.getGpuNs(i));
+        }
+    }
+
+    @Test
+    public void wrapOverwritesOldestRecords() {
+        TraceBuffer buffer = new TraceBuffer(4);
+        for (int i = 0; i < 11; i++) {
+            buffer.write(i, 0, 0, i, i + 1);
+        }
+        assertEquals(4, buffer.size());
+        assertEquals(7, buffer.getOverwrittenCount());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(7 + i, buffer.getStage(i));
+            assertEquals(7 + i, buffer.getSequence(i));
+        }
+    }
+
+    @Test
+    public void gpuTimeIsDroppedForOverwrittenRecord() {
+        TraceBuffer buffer = new TraceBuffer(4);
+        long first = buffer.write(0, 0, 0, 0, 1);
+        long second = buffer.write(1, 0, 0, 1, 2);
+        assertTrue(buffer.setGpuTime(second, 42));
+        assertEquals(42, buffer.getGpuNs(1));
+        for (int i = 0; i < 3; i++) {
+            buffer.write(2, 0, 0, 2, 3);
+        }
+        assertFalse(buffer.contains(first));
+        assertFalse(buffer.setGpuTime(first, 7));
+        assertFalse(buffer.setGpuTime(100, 7));
+        // 被覆盖的槽位不会带着旧的GPU时间
+        assertEquals(TraceBuffer.NO_GPU_TIME, buffer.getGpuNs(3));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readOutOfRangeThrows() {
+        TraceBuffer buffer = new TraceBuffer(4);
+        buffer.write(0, 0, 0, 0, 1);
+        buffer.getStage(1);
+    }
+
+    @Test
+    public void clearDiscardsRecords() {
+        TraceBuffer buffer = new TraceBuffer(4);
+        long sequence = buffer.write(0, 0, 0, 0, 1);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertFalse(buffer.contains(sequence));
+    }
+}
@@ -7,6 +7,8 @@ import android.media.MediaFormat;
 import android.util.Log;
 import android.view.Surface;
 
+import com.cgfay.utilslibrary.FrameTimeRecorder;
+
 import java.io.IOException;
 
 /**
@@ -32,6 +34,10 @@ public class MediaVideoPusher extends MediaPusher {
 
     private Surface mSurface;
 
+    // 推流帧间隔统计
+    private final FrameTimeRecorder mFrameTimeRecorder =
+            new FrameTimeRecorder("push", 1000000000L / FRAME_RATE);
+
     public MediaVideoPusher(final MediaRtmpMuxer muxer, final MediaPusherListener listener,
                             final int width, final int height) {
         super(muxer, listener, true);
@@ -110,6 +116,23 @@ public class MediaVideoPusher extends MediaPusher {
         }
     }
 
+    @Override
+    public boolean frameAvailable() {
+        boolean result = super.frameAvailable();
+        if (result) {
+            mFrameTimeRecorder.onFrame(System.nanoTime());
+        }
+        return result;
+    }
+
+    /**
+     * 获取推流的帧间隔统计
+     * @return
+     */
+    public FrameTimeRecorder getFrameTimeRecorder() {
+        return mFrameTimeRecorder;
+    }
+
     /**
      * 获取编码器输入的surface
      * @return
@@ -0,0 +1,32 @@
+package com.cgfay.utilslibrary;
+
+import org.junit.Test;
+
+/**
+ * FrameTimeRecorder 性能基准，记录一帧的耗时
+ * 默认不运行，使用 ./gradlew :utilslibrary:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class FrameTimeRecorderBenchmark {
+
+    private static final long MS = 1000000L;
+    private static final long TARGET = 1000000000L / 30;
+
+    @Test
+    public void onFrame() {
+        FrameTimeRecorder recorder = new FrameTimeRecorder("preview", TARGET);
+        long time = 0;
+        // 预热
+        for (int i = 0; i < 2000000; i++) {
+            time += TARGET + (i & 7) * MS;
+            recorder.onFrame(time);
+        }
+        int iterations = 5000000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            time += TARGET + (i & 7) * MS;
+            recorder.onFrame(time);
+        }
+        long perFrame = (System.nanoTime() - start) / iterations;
+        System.out.println("FrameTimeRecorder.onFrame: " + perFrame + " ns/frame");
+    }
+}
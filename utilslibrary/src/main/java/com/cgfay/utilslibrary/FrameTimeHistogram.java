@@ -0,0 +1,154 @@
+package com.cgfay.utilslibrary;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的帧间隔直方图(HDR Histogram的对数-线性分桶)
+ * 小于64ns的值每纳秒一个桶，之后每个2的幂区间再线性分成32个桶，相对误差不超过1/32，
+ * 最大记录约18分钟，超出的值记在最后一个桶。记录只有一次原子自增和两次原子累加，
+ * 可以在多个线程同时记录，读取时各个计数之间不保证严格一致
+ * Created by cain on 2018/3/25.
+ */
+public final class FrameTimeHistogram {
+
+    // 每个2的幂区间的线性桶数 2^5
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // 直接按值分桶的范围
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+    // 最大记录值 2^40 ns
+    private static final int MAX_EXPONENT = 40;
+    public static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    static final int BUCKET_COUNT =
+            LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalValue = new AtomicLong();
+    private final AtomicLong mMaxValue = new AtomicLong();
+
+    /**
+     * 值所在的桶
+     * @param value 非负数
+     * @return
+     */
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * 桶内的最小值
+     * @param index
+     * @return
+     */
+    static long lowestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+    }
+
+    /**
+     * 桶内的最大值
+     * @param index
+     * @return
+     */
+    static long highestValue(int index) {
+        return index + 1 < BUCKET_COUNT ? lowestValue(index + 1) - 1 : MAX_VALUE;
+    }
+
+    /**
+     * 记录一个值，负数按0记录
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts.incrementAndGet(bucketIndex(value));
+        mTotalCount.incrementAndGet();
+        mTotalValue.addAndGet(value);
+        long max = mMaxValue.get();
+        while (value > max && !mMaxValue.compareAndSet(max, value)) {
+            max = mMaxValue.get();
+        }
+    }
+
+    /**
+     * 清空，与记录同时进行时可能丢失部分记录
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalValue.set(0);
+        mMaxValue.set(0);
+    }
+
+    public long getTotalCount() {
+        return mTotalCount.get();
+    }
+
+    public long getTotalValue() {
+        return mTotalValue.get();
+    }
+
+    public long getMaxValue() {
+        return mMaxValue.get();
+    }
+
+    /**
+     * 计算多个百分位，只遍历一次桶
+     * @param percentiles 从小到大排列的百分位，取值0~100
+     * @param out 对应的值，为所在桶的最大值，并且不超过记录的最大值
+     */
+    public void getPercentiles(double[] percentiles, long[] out) {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        long max = mMaxValue.get();
+        int index = 0;
+        long cumulative = 0;
+        for (int i = 0; i < percentiles.length; i++) {
+            if (total == 0) {
+                out[i] = 0;
+                continue;
+            }
+            // 至少包含 ceil(total * p / 100) 个值的最小桶
+            long rank = Math.max(1, (long) Math.ceil(total * percentiles[i] / 100.0));
+            while (index < BUCKET_COUNT && cumulative + counts[index] < rank) {
+                cumulative += counts[index];
+                index++;
+            }
+            out[i] = index < BUCKET_COUNT ? Math.min(highestValue(index), max) : max;
+        }
+    }
+
+    /**
+     * 单个百分位
+     * @param percentile 取值0~100
+     * @return
+     */
+    public long getPercentile(double percentile) {
+        long[] out = new long[1];
+        getPercentiles(new double[] { percentile }, out);
+        return out[0];
+    }
+}
@@ -0,0 +1,228 @@
+package com.cgfay.utilslibrary;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧间隔统计，预览、录制、推流各用一个实例，互不影响
+ * 1、onFrame传入每一帧的时间戳(System.nanoTime或者帧的显示时间)，记录相邻两帧的间隔
+ * 2、间隔超过目标间隔的1.5倍记为卡顿帧，按间隔估算中间丢掉的帧数
+ * 3、snapshot可以在任意线程调用，得到p50/p90/p99/max、平均帧率和卡顿统计
+ * 记录不加锁、不分配内存，可以在正式版本中一直开启。onFrame需要在同一个线程调用
+ * Created by cain on 2018/3/25.
+ */
+public final class FrameTimeRecorder {
+
+    // 超过目标间隔的多少倍记为卡顿
+    private static final double JANK_FACTOR = 1.5;
+
+    private static final double[] PERCENTILES = { 50, 90, 99 };
+
+    private final String mName;
+    private final FrameTimeHistogram mHistogram = new FrameTimeHistogram();
+    private final AtomicLong mJankCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    // 目标间隔和卡顿阈值
+    private volatile long mTargetIntervalNs;
+    private volatile long mJankThresholdNs;
+    // 上一帧的时间戳，只在记录线程访问
+    private long mLastTimestamp = -1;
+
+    /**
+     * @param name 会话名称，如preview、record、push
+     * @param targetIntervalNs 目标帧间隔
+     */
+    public FrameTimeRecorder(String name, long targetIntervalNs) {
+        mName = name;
+        setTargetInterval(targetIntervalNs);
+    }
+
+    /**
+     * 设置目标帧间隔
+     * @param targetIntervalNs
+     */
+    public void setTargetInterval(long targetIntervalNs) {
+        if (targetIntervalNs <= 0) {
+            throw new IllegalArgumentException("target interval must be positive");
+        }
+        mTargetIntervalNs = targetIntervalNs;
+        mJankThresholdNs = (long) (targetIntervalNs * JANK_FACTOR);
+    }
+
+    public long getTargetInterval() {
+        return mTargetIntervalNs;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * 记录一帧，第一帧只记录时间戳。时间戳倒退时认为是新的开始
+     * @param timestampNs
+     */
+    public void onFrame(long timestampNs) {
+        long last = mLastTimestamp;
+        mLastTimestamp = timestampNs;
+        if (last >= 0 && timestampNs >= last) {
+            recordInterval(timestampNs - last);
+        }
+    }
+
+    /**
+     * 直接记录一个帧间隔
+     * @param intervalNs
+     */
+    public void recordInterval(long intervalNs) {
+        mHistogram.record(intervalNs);
+        if (intervalNs > mJankThresholdNs) {
+            mJankCount.incrementAndGet();
+            long target = mTargetIntervalNs;
+            // 间隔内本应出现的帧数减去实际到达的这一帧
+            mDroppedCount.addAndGet((intervalNs + target / 2) / target - 1);
+        }
+    }
+
+    /**
+     * 下一帧不与之前的帧计算间隔(暂停录制、切换相机等)，需要在记录线程调用
+     */
+    public void skipNextInterval() {
+        mLastTimestamp = -1;
+    }
+
+    /**
+     * 清空统计，需要在记录线程调用
+     */
+    public void reset() {
+        mLastTimestamp = -1;
+        mHistogram.reset();
+        mJankCount.set(0);
+        mDroppedCount.set(0);
+    }
+
+    /**
+     * 获取当前统计
+     * @return
+     */
+    public Snapshot snapshot() {
+        long[] values = new long[PERCENTILES.length];
+        mHistogram.getPercentiles(PERCENTILES, values);
+        return new Snapshot(mName, mTargetIntervalNs, mHistogram.getTotalCount(),
+                mHistogram.getTotalValue(), values[0], values[1], values[2],
+                mHistogram.getMaxValue(), mJankCount.get(), mDroppedCount.get());
+    }
+
+    /**
+     * 统计快照
+     */
+    public static final class Snapshot {
+        private final String mName;
+        private final long mTargetIntervalNs;
+        private final long mFrameCount;
+        private final long mTotalIntervalNs;
+        private final long mP50Ns;
+        private final long mP90Ns;
+        private final long mP99Ns;
+        private final long mMaxNs;
+        private final long mJankCount;
+        private final long mDroppedCount;
+
+        Snapshot(String name, long targetIntervalNs, long frameCount, long totalIntervalNs,
+                 long p50Ns, long p90Ns, long p99Ns, long maxNs,
+                 long jankCount, long droppedCount) {
+            mName = name;
+            mTargetIntervalNs = targetIntervalNs;
+            mFrameCount = frameCount;
+            mTotalIntervalNs = totalIntervalNs;
+            mP50Ns = p50Ns;
+            mP90Ns = p90Ns;
+            mP99Ns = p99Ns;
+            mMaxNs = maxNs;
+            mJankCount = jankCount;
+            mDroppedCount = droppedCount;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getTargetIntervalNs() {
+            return mTargetIntervalNs;
+        }
+
+        /**
+         * 记录的帧间隔个数
+         * @return
+         */
+        public long getFrameCount() {
+            return mFrameCount;
+        }
+
+        public long getTotalIntervalNs() {
+            return mTotalIntervalNs;
+        }
+
+        public long getP50Ns() {
+            return mP50Ns;
+        }
+
+        public long getP90Ns() {
+            return mP90Ns;
+        }
+
+        public long getP99Ns() {
+            return mP99Ns;
+        }
+
+        public long getMaxNs() {
+            return mMaxNs;
+        }
+
+        public long getJankCount() {
+            return mJankCount;
+        }
+
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        /**
+         * 平均帧率
+         * @return
+         */
+        public float getFps() {
+            return mTotalIntervalNs > 0 ? mFrameCount * 1e9f / mTotalIntervalNs : 0;
+        }
+
+        /**
+         * 与之前的快照之间的平均帧率
+         * @param previous
+         * @return
+         */
+        public float getFpsSince(Snapshot previous) {
+            long frames = mFrameCount - previous.mFrameCount;
+            long duration = mTotalIntervalNs - previous.mTotalIntervalNs;
+            return duration > 0 && frames > 0 ? frames * 1e9f / duration : 0;
+        }
+
+        /**
+         * 卡顿帧比例
+         * @return
+         */
+        public float getJankRate() {
+            return mFrameCount > 0 ? (float) mJankCount / mFrameCount : 0;
+        }
+
+        @Override
+        public String toString() {
+            return mName + ": frames=" + mFrameCount
+                    + ", fps=" + getFps()
+                    + ", p50=" + mP50Ns / 1000000f + "ms"
+                    + ", p90=" + mP90Ns / 1000000f + "ms"
+                    + ", p99=" + mP99Ns / 1000000f + "ms"
+                    + ", max=" + mMaxNs / 1000000f + "ms"
+                    + ", jank=" + mJankCount
+                    + ", dropped=" + mDroppedCount;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.cgfay.utilslibrary;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameTimeHistogram 单元测试
+ */
+public class FrameTimeHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesWithBoundedError() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = (long) Math.pow(2, random.nextDouble() * 40) - 1;
+            int index = FrameTimeHistogram.bucketIndex(value);
+            long low = FrameTimeHistogram.lowestValue(index);
+            long high = FrameTimeHistogram.highestValue(index);
+            assertTrue(value + " in [" + low + ", " + high + "]", low <= value && value <= high);
+            assertTrue((high - low) <= Math.max(0, low / 32));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int i = 1; i < FrameTimeHistogram.BUCKET_COUNT; i++) {
+            assertEquals(FrameTimeHistogram.highestValue(i - 1) + 1,
+                    FrameTimeHistogram.lowestValue(i));
+            assertEquals(i, FrameTimeHistogram.bucketIndex(FrameTimeHistogram.lowestValue(i)));
+        }
+        assertEquals(FrameTimeHistogram.BUCKET_COUNT - 1,
+                FrameTimeHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesMatchExactValuesWithinPrecision() {
+        Random random = new Random(2);
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        long[] values = new long[20000];
+        for (int i = 0; i < values.length; i++) {
+            // 以33ms为中心的对数正态分布
+            values[i] = (long) (33e6 * Math.exp(random.nextGaussian() * 0.3));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        double[] percentiles = { 50, 90, 99, 100 };
+        long[] out = new long[percentiles.length];
+        histogram.getPercentiles(percentiles, out);
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int) Math.ceil(values.length * percentiles[i] / 100) - 1;
+            long exact = values[rank];
+            assertTrue("p" + percentiles[i] + " " + out[i] + " vs " + exact,
+                    out[i] >= exact && out[i] <= exact + exact / 32 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getMaxValue());
+        assertEquals(values[values.length - 1], out[3]);
+        assertEquals(values.length, histogram.getTotalCount());
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(50));
+        histogram.reset();
+        assertEquals(0, histogram.getTotalCount());
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        final FrameTimeHistogram histogram = new FrameTimeHistogram();
+        final int perThread = 200000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long value = (t + 1) * 1000000L;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * perThread, histogram.getTotalCount());
+        assertEquals(10L * perThread * 1000000L, histogram.getTotalValue());
+        assertEquals(4000000L, histogram.getMaxValue());
+    }
+}
@@ -0,0 +1,136 @@
+package com.cgfay.utilslibrary;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameTimeRecorder 单元测试，使用合成的帧时间戳序列
+ */
+public class FrameTimeRecorderTest {
+
+    private static final long MS = 1000000L;
+    private static final long TARGET = 1000000000L / 30;
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue(expected + " vs " + actual,
+                Math.abs(actual - expected) <= expected / 32 + 1);
+    }
+
+    @Test
+    public void steadyStreamHasNoJank() {
+        FrameTimeRecorder recorder = new FrameTimeRecorder("preview", TARGET);
+        long time = 5 * MS;
+        for (int i = 0; i < 301; i++) {
+            recorder.onFrame(time);
+            time += TARGET;
+        }
+        FrameTimeRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(300, snapshot.getFrameCount());
+        assertEquals(30f, snapshot.getFps(), 0.01f);
+        assertClose(TARGET, snapshot.getP50Ns());
+        assertClose(TARGET, snapshot.getP99Ns());
+        assertEquals(TARGET, snapshot.getMaxNs());
+        assertEquals(0, snapshot.getJankCount());
+        assertEquals(0, snapshot.getDroppedCount());
+    }
+
+    @Test
+    public void spikesAreVisibleDespiteHealthyAverage() {
+        // 平均约28fps，但每两秒出现一次200ms的卡顿
+        FrameTimeRecorder recorder = new FrameTimeRecorder("preview", TARGET);
+        long time = 0;
+        recorder.onFrame(time);
+        int spikes = 0;
+        for (int i = 1; i <= 600; i++) {
+            if (i % 60 == 0) {
+                time += 200 * MS;
+                spikes++;
+            } else {
+                time += 32 * MS;
+            }
+            recorder.onFrame(time);
+        }
+        FrameTimeRecorder.Snapshot snapshot = recorder.snapshot();
+        assertTrue("fps " + snapshot.getFps(), snapshot.getFps() > 27 && snapshot.getFps() < 30);
+        assertClose(32 * MS, snapshot.getP50Ns());
+        assertClose(32 * MS, snapshot.getP90Ns());
+        assertClose(200 * MS, snapshot.getP99Ns());
+        assertEquals(200 * MS, snapshot.getMaxNs());
+        assertEquals(spikes, snapshot.getJankCount());
+        // 200ms约等于6个目标间隔，中间丢了5帧
+        assertEquals(spikes * 5, snapshot.getDroppedCount());
+        assertEquals(spikes / 600f, snapshot.getJankRate(), 1e-6f);
+    }
+
+    @Test
+    public void skipAndBackwardTimestampsDoNotRecordIntervals() {
+        FrameTimeRecorder recorder = new FrameTimeRecorder("record", TARGET);
+        recorder.onFrame(100 * MS);
+        recorder.onFrame(133 * MS);
+        // 暂停录制
+        recorder.skipNextInterval();
+        recorder.onFrame(5000 * MS);
+        recorder.onFrame(5033 * MS);
+        // 时间戳倒退(切换相机)
+        recorder.onFrame(10 * MS);
+        recorder.onFrame(43 * MS);
+        FrameTimeRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(3, snapshot.getFrameCount());
+        assertEquals(0, snapshot.getJankCount());
+        assertEquals(33 * MS, snapshot.getMaxNs());
+    }
+
+    @Test
+    public void sessionsAreIndependent() {
+        FrameTimeRecorder preview = new FrameTimeRecorder("preview", TARGET);
+        FrameTimeRecorder push = new FrameTimeRecorder("push", 1000000000L / 24);
+        for (int i = 0; i < 10; i++) {
+            preview.recordInterval(TARGET);
+            push.recordInterval(100 * MS);
+        }
+        assertEquals(0, preview.snapshot().getJankCount());
+        assertEquals(10, push.snapshot().getJankCount());
+        preview.reset();
+        assertEquals(0, preview.snapshot().getFrameCount());
+        assertEquals(10, push.snapshot().getFrameCount());
+        assertEquals("push", push.snapshot().getName());
+    }
+
+    @Test
+    public void fpsSincePreviousSnapshot() {
+        FrameTimeRecorder recorder = new FrameTimeRecorder("preview", TARGET);
+        for (int i = 0; i < 30; i++) {
+            recorder.recordInterval(TARGET);
+        }
+        FrameTimeRecorder.Snapshot first = recorder.snapshot();
+        for (int i = 0; i < 15; i++) {
+            recorder.recordInterval(2 * TARGET);
+        }
+        FrameTimeRecorder.Snapshot second = recorder.snapshot();
+        assertEquals(15f, second.getFpsSince(first), 0.01f);
+        assertEquals(0f, second.getFpsSince(second), 0f);
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        FrameTimeRecorder recorder = new FrameTimeRecorder("preview", TARGET);
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long time = 0;
+        for (int i = 0; i < 200000; i++) {
+            time += TARGET + (i & 7) * MS;
+            recorder.onFrame(time);
+        }
+        long allocatedBefore = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000000; i++) {
+            time += TARGET + (i & 7) * MS;
+            recorder.onFrame(time);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        assertTrue("allocated " + allocated, allocated < 1024);
+    }
+}